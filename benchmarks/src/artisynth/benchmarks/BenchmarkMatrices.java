@@ -0,0 +1,128 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.benchmarks;
+
+import maspack.matrix.*;
+import maspack.util.RandomGenerator;
+
+/**
+ * Creates the sparse test matrices used by the benchmarks. All matrices are
+ * generated from a fixed random seed, so that successive benchmark runs
+ * measure exactly the same problems.
+ */
+public class BenchmarkMatrices {
+
+   public static final int SEED = 0x1234;
+
+   private static Matrix3x3Block getOrAddBlock (
+      SparseBlockMatrix M, int bi, int bj) {
+      Matrix3x3Block blk = (Matrix3x3Block)M.getBlock (bi, bj);
+      if (blk == null) {
+         blk = new Matrix3x3Block();
+         M.addBlock (bi, bj, blk);
+      }
+      return blk;
+   }
+
+   /**
+    * Creates a symmetric positive definite stiffness-like matrix for a grid
+    * of nx x ny x nz nodes, each with 3 DOFs, in which each node is coupled
+    * with its grid neighbors.
+    */
+   public static SparseBlockMatrix createGridMatrix (int nx, int ny, int nz) {
+      RandomGenerator.setSeed (SEED);
+      int numNodes = nx*ny*nz;
+      int[] sizes = new int[numNodes];
+      for (int i=0; i<numNodes; i++) {
+         sizes[i] = 3;
+      }
+      SparseBlockMatrix M = new SparseBlockMatrix (sizes, sizes);
+      Matrix3d K = new Matrix3d();
+      for (int i=0; i<nx; i++) {
+         for (int j=0; j<ny; j++) {
+            for (int k=0; k<nz; k++) {
+               int n0 = (i*ny + j)*nz + k;
+               int[] nbrs = new int[] {
+                  i+1 < nx ? n0+ny*nz : -1,
+                  j+1 < ny ? n0+nz : -1,
+                  k+1 < nz ? n0+1 : -1
+               };
+               for (int n1 : nbrs) {
+                  if (n1 != -1) {
+                     K.setRandom();
+                     K.mulTranspose (K);
+                     getOrAddBlock (M, n0, n0).add (K);
+                     getOrAddBlock (M, n1, n1).add (K);
+                     getOrAddBlock (M, n0, n1).sub (K);
+                     getOrAddBlock (M, n1, n0).sub (K);
+                  }
+               }
+            }
+         }
+      }
+      // add mass terms to make the matrix definite
+      for (int n=0; n<numNodes; n++) {
+         Matrix3x3Block Mblk = getOrAddBlock (M, n, n);
+         Mblk.m00 += 0.1;
+         Mblk.m11 += 0.1;
+         Mblk.m22 += 0.1;
+      }
+      return M;
+   }
+
+   /**
+    * Creates a transposed constraint matrix GT for M containing numc random
+    * constraints, each of which couples two nodes.
+    */
+   public static SparseBlockMatrix createConstraints (
+      SparseBlockMatrix M, int numc) {
+      RandomGenerator.setSeed (SEED);
+      int numNodes = M.numBlockRows();
+      int[] rowSizes = new int[numNodes];
+      for (int i=0; i<numNodes; i++) {
+         rowSizes[i] = 3;
+      }
+      int[] colSizes = new int[numc];
+      for (int j=0; j<numc; j++) {
+         colSizes[j] = 1;
+      }
+      SparseBlockMatrix GT = new SparseBlockMatrix (rowSizes, colSizes);
+      for (int j=0; j<numc; j++) {
+         int n0 = RandomGenerator.nextInt (0, numNodes-1);
+         int n1;
+         do {
+            n1 = RandomGenerator.nextInt (0, numNodes-1);
+         }
+         while (n1 == n0);
+         Matrix3x1Block blk0 = new Matrix3x1Block();
+         Matrix3x1Block blk1 = new Matrix3x1Block();
+         Vector3d dir = new Vector3d();
+         dir.setRandom();
+         blk0.set (dir);
+         dir.negate();
+         blk1.set (dir);
+         GT.addBlock (n0, j, blk0);
+         GT.addBlock (n1, j, blk1);
+      }
+      return GT;
+   }
+
+   /**
+    * Creates a random dense symmetric positive definite matrix.
+    */
+   public static MatrixNd createDenseSPD (int size) {
+      RandomGenerator.setSeed (SEED);
+      MatrixNd A = new MatrixNd (size, size);
+      A.setRandom();
+      MatrixNd M = new MatrixNd (size, size);
+      M.mulTransposeLeft (A, A);
+      for (int i=0; i<size; i++) {
+         M.add (i, i, size);
+      }
+      return M;
+   }
+}
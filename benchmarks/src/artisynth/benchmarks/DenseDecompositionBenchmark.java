@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import maspack.matrix.*;
+
+/**
+ * Benchmarks the dense CholeskyDecomposition and LDLTDecomposition classes,
+ * for both factorization and solves.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DenseDecompositionBenchmark {
+
+   @Param({"12", "48", "200"})
+   public int size;
+
+   MatrixNd M;
+   VectorNd b;
+   VectorNd x;
+   CholeskyDecomposition chol = new CholeskyDecomposition();
+   LDLTDecomposition ldlt = new LDLTDecomposition();
+   // separate decompositions, factored once, for the solve benchmarks
+   CholeskyDecomposition cholFactored = new CholeskyDecomposition();
+   LDLTDecomposition ldltFactored = new LDLTDecomposition();
+
+   @Setup(Level.Trial)
+   public void setup() {
+      M = BenchmarkMatrices.createDenseSPD (size);
+      b = new VectorNd (size);
+      x = new VectorNd (size);
+      b.setRandom();
+      cholFactored.factor (M);
+      ldltFactored.factor (M);
+   }
+
+   @Benchmark
+   public CholeskyDecomposition choleskyFactor() {
+      chol.factor (M);
+      return chol;
+   }
+
+   @Benchmark
+   public VectorNd choleskySolve() {
+      cholFactored.solve (x, b);
+      return x;
+   }
+
+   @Benchmark
+   public LDLTDecomposition ldltFactor() {
+      ldlt.factor (M);
+      return ldlt;
+   }
+
+   @Benchmark
+   public VectorNd ldltSolve() {
+      ldltFactored.solve (x, b);
+      return x;
+   }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import artisynth.core.femmodels.*;
+import artisynth.core.femmodels.FemFactory.FemElementType;
+import artisynth.core.materials.*;
+import maspack.matrix.*;
+import maspack.util.RandomGenerator;
+
+/**
+ * Benchmarks FemModel3d.updateStressAndStiffness() on beams created with
+ * FemFactory. Node positions are randomly perturbed from the rest positions
+ * so that the materials see non-trivial deformations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FemAssemblyBenchmark {
+
+   @Param({"Tet", "Hex", "QuadTet"})
+   public String elementType;
+
+   @Param({"Linear", "NeoHookean"})
+   public String material;
+
+   /**
+    * Number of elements along the beam's length. The beam has a 1:4 aspect
+    * ratio, so the cross section contains (numX/4)^2 elements.
+    */
+   @Param({"20", "40"})
+   public int numX;
+
+   @Param({"false", "true"})
+   public boolean parallel;
+
+   FemModel3d fem;
+
+   @Setup(Level.Trial)
+   public void setup() {
+      fem = new FemModel3d();
+      int numYZ = Math.max (1, numX/4);
+      FemFactory.createGrid (
+         fem, FemElementType.valueOf (elementType),
+         1.0, 0.25, 0.25, numX, numYZ, numYZ);
+      if (material.equals ("NeoHookean")) {
+         fem.setMaterial (new NeoHookeanMaterial (100000, 0.33));
+      }
+      else {
+         fem.setMaterial (new LinearMaterial (100000, 0.33));
+      }
+      fem.setParallelAssembly (parallel);
+      RandomGenerator.setSeed (BenchmarkMatrices.SEED);
+      for (FemNode3d n : fem.getNodes()) {
+         Vector3d del = new Vector3d();
+         del.setRandom (-0.002, 0.002);
+         Point3d pos = new Point3d (n.getPosition());
+         pos.add (del);
+         n.setPosition (pos);
+      }
+   }
+
+   @Benchmark
+   public FemModel3d updateStressAndStiffness() {
+      fem.invalidateStressAndStiffness();
+      fem.updateStressAndStiffness();
+      return fem;
+   }
+}
@@ -0,0 +1,86 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import maspack.matrix.*;
+import maspack.solvers.*;
+
+/**
+ * Benchmarks KKTSolver on grid stiffness matrices with random bilateral
+ * constraints. The Pardiso variant requires the native Pardiso library.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KKTSolverBenchmark {
+
+   @Param({"SupernodalLDLT", "Pardiso"})
+   public String solver;
+
+   /**
+    * Number of grid nodes along each side of the cube used to create M.
+    */
+   @Param({"10", "20"})
+   public int gridSize;
+
+   SparseBlockMatrix M;
+   SparseBlockMatrix GT;
+   VectorNd Rg;
+   VectorNd vel;
+   VectorNd lam;
+   VectorNd bm;
+   VectorNd bg;
+   KKTSolver kktSolver;
+
+   @Setup(Level.Trial)
+   public void setup() {
+      SparseSolverId id = SparseSolverId.valueOf (solver);
+      if (id == SparseSolverId.Pardiso && !PardisoSolver.isAvailable()) {
+         throw new IllegalStateException (
+            "Pardiso solver is not available on this system");
+      }
+      M = BenchmarkMatrices.createGridMatrix (gridSize, gridSize, gridSize);
+      int numc = M.numBlockRows()/10;
+      GT = BenchmarkMatrices.createConstraints (M, numc);
+      Rg = new VectorNd (numc);
+      vel = new VectorNd (M.rowSize());
+      lam = new VectorNd (numc);
+      bm = new VectorNd (M.rowSize());
+      bg = new VectorNd (numc);
+      bm.setRandom();
+      bg.setRandom();
+      kktSolver = new KKTSolver (id);
+      kktSolver.analyze (M, M.rowSize(), GT, Rg, Matrix.SPD);
+      // do an initial factorization, as required by factorAndSolve()
+      kktSolver.factor (M, M.rowSize(), GT, Rg);
+   }
+
+   @TearDown(Level.Trial)
+   public void tearDown() {
+      kktSolver.dispose();
+   }
+
+   @Benchmark
+   public VectorNd factorAndSolve() {
+      kktSolver.factorAndSolve (
+         M, M.rowSize(), GT, Rg, vel, lam, bm, bg, /*tolExp=*/10);
+      return vel;
+   }
+
+   @Benchmark
+   public VectorNd solve() {
+      kktSolver.solve (vel, lam, bm, bg);
+      return vel;
+   }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import maspack.matrix.*;
+import maspack.util.RandomGenerator;
+
+/**
+ * Benchmarks the small fixed-size matrix kernels in Matrix3d and Matrix6d
+ * that dominate element and constraint computations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MatrixKernelBenchmark {
+
+   Matrix3d M3a = new Matrix3d();
+   Matrix3d M3b = new Matrix3d();
+   Matrix3d M3r = new Matrix3d();
+   Vector3d v3 = new Vector3d();
+   Vector3d v3r = new Vector3d();
+
+   Matrix6d M6a = new Matrix6d();
+   Matrix6d M6b = new Matrix6d();
+   Matrix6d M6r = new Matrix6d();
+   VectorNd v6 = new VectorNd (6);
+   VectorNd v6r = new VectorNd (6);
+
+   @Setup(Level.Trial)
+   public void setup() {
+      RandomGenerator.setSeed (BenchmarkMatrices.SEED);
+      M3a.setRandom();
+      M3b.setRandom();
+      // make M3a well conditioned so that it can be inverted
+      M3a.m00 += 3;
+      M3a.m11 += 3;
+      M3a.m22 += 3;
+      v3.setRandom();
+      M6a.setRandom();
+      M6b.setRandom();
+      for (int i=0; i<6; i++) {
+         M6a.set (i, i, M6a.get (i, i) + 6);
+      }
+      v6.setRandom();
+   }
+
+   @Benchmark
+   public Matrix3d matrix3dMul() {
+      M3r.mul (M3a, M3b);
+      return M3r;
+   }
+
+   @Benchmark
+   public Matrix3d matrix3dMulTransposeRight() {
+      M3r.mulTransposeRight (M3a, M3b);
+      return M3r;
+   }
+
+   @Benchmark
+   public Vector3d matrix3dMulVector() {
+      M3a.mul (v3r, v3);
+      return v3r;
+   }
+
+   @Benchmark
+   public Matrix3d matrix3dInvert() {
+      M3r.invert (M3a);
+      return M3r;
+   }
+
+   @Benchmark
+   public double matrix3dDeterminant() {
+      return M3a.determinant();
+   }
+
+   @Benchmark
+   public Matrix6d matrix6dMul() {
+      M6r.mul (M6a, M6b);
+      return M6r;
+   }
+
+   @Benchmark
+   public VectorNd matrix6dMulVector() {
+      M6a.mul (v6r, v6);
+      return v6r;
+   }
+
+   @Benchmark
+   public void matrix6dInvert (Blackhole bh) {
+      bh.consume (M6r.invert (M6a));
+      bh.consume (M6r);
+   }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import maspack.collision.*;
+import maspack.collision.SurfaceMeshIntersector.RegionType;
+import maspack.geometry.*;
+import maspack.matrix.*;
+
+/**
+ * Benchmarks SurfaceMeshIntersector on a pair of overlapping spheres
+ * created with MeshFactory. Requires the native RobustPreds library.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MeshIntersectorBenchmark {
+
+   /**
+    * Number of slices used to create each sphere. The number of faces
+    * grows quadratically with this value.
+    */
+   @Param({"16", "32", "64"})
+   public int nslices;
+
+   PolygonalMesh mesh0;
+   PolygonalMesh mesh1;
+   SurfaceMeshIntersector intersector = new SurfaceMeshIntersector();
+
+   @Setup(Level.Trial)
+   public void setup() {
+      mesh0 = MeshFactory.createSphere (1.0, nslices);
+      mesh1 = MeshFactory.createSphere (1.0, nslices);
+      // offset and tilt the second sphere so that the contour is generic
+      RigidTransform3d TMW = new RigidTransform3d (
+         1.2, 0.1, 0.05, 0.3, 0.2, 0.1);
+      mesh1.setMeshToWorld (TMW);
+      // build bounding volume hierarchies outside the timed region
+      mesh0.getBVTree();
+      mesh1.getBVTree();
+   }
+
+   @Benchmark
+   public ContactInfo findContours() {
+      return intersector.findContoursAndRegions (
+         mesh0, RegionType.NONE, mesh1, RegionType.NONE);
+   }
+
+   @Benchmark
+   public ContactInfo findContoursAndRegions() {
+      return intersector.findContoursAndRegions (
+         mesh0, RegionType.INSIDE, mesh1, RegionType.INSIDE);
+   }
+}
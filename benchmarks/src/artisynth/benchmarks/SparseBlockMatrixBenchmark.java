@@ -0,0 +1,77 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import maspack.matrix.*;
+import maspack.matrix.Matrix.Partition;
+
+/**
+ * Benchmarks matrix-vector products and CRS extraction for SparseBlockMatrix,
+ * using block stiffness matrices of grids with different sizes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SparseBlockMatrixBenchmark {
+
+   /**
+    * Number of grid nodes along each side of the cube used to create the
+    * matrix.
+    */
+   @Param({"10", "20", "30"})
+   public int gridSize;
+
+   SparseBlockMatrix M;
+   VectorNd x;
+   VectorNd y;
+   int[] colIdxs;
+   int[] rowOffs;
+   double[] vals;
+
+   @Setup(Level.Trial)
+   public void setup() {
+      M = BenchmarkMatrices.createGridMatrix (gridSize, gridSize, gridSize);
+      x = new VectorNd (M.colSize());
+      y = new VectorNd (M.rowSize());
+      x.setRandom();
+      int nnz = M.numNonZeroVals();
+      colIdxs = new int[nnz];
+      rowOffs = new int[M.rowSize()+1];
+      vals = new double[nnz];
+   }
+
+   @Benchmark
+   public VectorNd mul() {
+      M.mul (y, x);
+      return y;
+   }
+
+   @Benchmark
+   public VectorNd mulTranspose() {
+      M.mulTranspose (y, x);
+      return y;
+   }
+
+   @Benchmark
+   public double[] getCRSValues() {
+      M.getCRSValues (vals, Partition.Full);
+      return vals;
+   }
+
+   @Benchmark
+   public int[] getCRSIndices() {
+      M.getCRSIndices (colIdxs, rowOffs, Partition.Full);
+      return colIdxs;
+   }
+}
@@ -0,0 +1,662 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.driver;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import argparser.ArgParser;
+import argparser.DoubleHolder;
+import argparser.IntHolder;
+import argparser.StringHolder;
+import argparser.BooleanHolder;
+import maspack.concurrency.NamedThreadFactory;
+import maspack.properties.Property;
+import maspack.solvers.SparseSolverId;
+import maspack.util.ClassFinder;
+import maspack.util.ReaderTokenizer;
+import artisynth.core.mechmodels.CollisionManager;
+import artisynth.core.mechmodels.CollisionManager.ColliderType;
+import artisynth.core.mechmodels.MechSystemBase;
+import artisynth.core.mechmodels.MechSystemSolver;
+import artisynth.core.modelbase.ComponentUtils;
+import artisynth.core.modelbase.ModelComponentBase;
+import artisynth.core.probes.NumericOutputProbe;
+import artisynth.core.probes.Probe;
+import artisynth.core.util.TimeBase;
+import artisynth.core.workspace.RootModel;
+
+/**
+ * Runs a set of independent instances of a {@link RootModel} within a single
+ * JVM, without a GUI. This is intended for parameter sweeps and sensitivity
+ * studies, where launching a separate ArtiSynth process for each parameter
+ * set would incur repeated class loading and startup costs.
+ *
+ * <p>Each instance is created from the same model class and build arguments,
+ * and is then modified by a set of property overrides, each specified by a
+ * property path relative to the root model (such as {@code
+ * "models/mech:gravity"}) and a value. The instances are then simulated
+ * concurrently using a fixed thread pool. If an output directory is set, the
+ * data of each instance's output probes is written to files in a
+ * subdirectory named after the instance. Numeric output probes are streamed
+ * to these files while the instance is simulated (see {@link
+ * NumericOutputProbe#setStreaming}), so that long runs do not need to keep
+ * all their output in memory.
+ *
+ * <p>Models are built one at a time in the calling thread, since model build
+ * methods may modify global settings that are used as defaults when
+ * components are created, such as {@link
+ * ModelComponentBase#enforceUniqueNames} or {@link
+ * CollisionManager#setDefaultColliderType}. These settings are restored to
+ * their original values before each model is built, so that changes made
+ * by one model's build method do not affect the others, and again once all
+ * the models have been built. Only the simulations are run concurrently.
+ *
+ * <p>The runner can also be invoked from the command line, using
+ * <pre>
+ * java artisynth.core.driver.BatchRunner -model MODEL [ ARGS ] -sweep FILE
+ *    [ -stopTime T ] [ -numThreads N ] [ -outputDir DIR ]
+ * </pre>
+ * where {@code FILE} describes the instances to run. Each non-empty line of
+ * the file which does not start with {@code #} gives an instance name,
+ * followed by zero or more overrides of the form {@code path=value}
+ * separated by semicolons, as in
+ * <pre>
+ * soft  models/mech/models/fem:youngsModulus=1000; models/mech:gravity=0 0 -1
+ * </pre>
+ */
+public class BatchRunner {
+
+   public static double DEFAULT_STOP_TIME = 1.0;
+
+   /**
+    * Describes a single model instance within a batch run.
+    */
+   public static class Instance {
+      String myName;
+      LinkedHashMap<String,Object> myOverrides;
+      RootModel myRoot;
+      double myTime;
+      double myRunTime;
+      Throwable myError;
+
+      Instance (String name) {
+         myName = name;
+         myOverrides = new LinkedHashMap<String,Object>();
+      }
+
+      /**
+       * Returns the name of this instance.
+       *
+       * @return instance name
+       */
+      public String getName() {
+         return myName;
+      }
+
+      /**
+       * Adds a property override for this instance. If {@code value} is a
+       * string and the property does not have a string value, it is parsed
+       * in the same format used for writing the property to a model file.
+       *
+       * @param path path to the property, relative to the root model
+       * @param value value for the property
+       */
+      public void setOverride (String path, Object value) {
+         myOverrides.put (path, value);
+      }
+
+      /**
+       * Returns the property overrides for this instance, as a map from
+       * property paths to values.
+       *
+       * @return property overrides
+       */
+      public Map<String,Object> getOverrides() {
+         return myOverrides;
+      }
+
+      /**
+       * Returns the root model for this instance, or {@code null} if it has
+       * not yet been created.
+       *
+       * @return root model for this instance
+       */
+      public RootModel getRootModel() {
+         return myRoot;
+      }
+
+      /**
+       * Returns the simulation time reached by this instance.
+       *
+       * @return simulation time reached
+       */
+      public double getTime() {
+         return myTime;
+      }
+
+      /**
+       * Returns the wall clock time, in seconds, required to simulate this
+       * instance.
+       *
+       * @return simulation run time
+       */
+      public double getRunTime() {
+         return myRunTime;
+      }
+
+      /**
+       * Returns the error that occurred while building or simulating this
+       * instance, or {@code null} if there was no error.
+       *
+       * @return error for this instance, if any
+       */
+      public Throwable getError() {
+         return myError;
+      }
+   }
+
+   protected Class<? extends RootModel> myModelClass;
+   protected String[] myModelArgs;
+   protected ArrayList<Instance> myInstances;
+   protected double myStopTime = DEFAULT_STOP_TIME;
+   protected int myNumThreads;
+   protected File myOutputDir;
+   protected PrintStream myLog = System.out;
+
+   /**
+    * Creates a new BatchRunner for a specified model class.
+    *
+    * @param modelClass class of the root model to create for each instance
+    * @param modelArgs arguments to pass to the model's {@code build()}
+    * method, or {@code null}
+    */
+   public BatchRunner (
+      Class<? extends RootModel> modelClass, String[] modelArgs) {
+      myModelClass = modelClass;
+      myModelArgs = (modelArgs != null ? modelArgs : new String[0]);
+      myInstances = new ArrayList<Instance>();
+      myNumThreads = Runtime.getRuntime().availableProcessors();
+   }
+
+   /**
+    * Adds a new instance to this runner.
+    *
+    * @param name name of the instance. Must be unique among the
+    * instances.
+    * @return the new instance, to which property overrides can be added
+    */
+   public Instance addInstance (String name) {
+      for (Instance inst : myInstances) {
+         if (inst.myName.equals (name)) {
+            throw new IllegalArgumentException (
+               "instance '"+name+"' already exists");
+         }
+      }
+      Instance inst = new Instance (name);
+      myInstances.add (inst);
+      return inst;
+   }
+
+   /**
+    * Adds a new instance to this runner, with property overrides
+    * given by strings of the form {@code path=value}.
+    *
+    * @param name name of the instance
+    * @param overrides property overrides for the instance
+    * @return the new instance
+    */
+   public Instance addInstance (String name, String... overrides) {
+      Instance inst = addInstance (name);
+      for (String str : overrides) {
+         int eqIdx = str.indexOf ('=');
+         if (eqIdx == -1) {
+            throw new IllegalArgumentException (
+               "override '"+str+"' not of the form path=value");
+         }
+         inst.setOverride (
+            str.substring (0, eqIdx).trim(), str.substring (eqIdx+1).trim());
+      }
+      return inst;
+   }
+
+   /**
+    * Returns the instances in this runner.
+    *
+    * @return list of instances
+    */
+   public List<Instance> getInstances() {
+      return myInstances;
+   }
+
+   /**
+    * Returns the simulation stop time for each instance.
+    *
+    * @return simulation stop time
+    */
+   public double getStopTime() {
+      return myStopTime;
+   }
+
+   /**
+    * Sets the simulation stop time for each instance. The default
+    * value is {@link #DEFAULT_STOP_TIME}.
+    *
+    * @param t simulation stop time
+    */
+   public void setStopTime (double t) {
+      myStopTime = t;
+   }
+
+   /**
+    * Returns the number of threads used to simulate the instances.
+    *
+    * @return number of simulation threads
+    */
+   public int getNumThreads() {
+      return myNumThreads;
+   }
+
+   /**
+    * Sets the number of threads used to simulate the instances. The
+    * default is the number of available processors.
+    *
+    * @param num number of simulation threads
+    */
+   public void setNumThreads (int num) {
+      if (num < 1) {
+         throw new IllegalArgumentException (
+            "number of threads must be at least 1");
+      }
+      myNumThreads = num;
+   }
+
+   /**
+    * Returns the directory to which output probe data is written, or {@code
+    * null} if output probe data is not written.
+    *
+    * @return output directory
+    */
+   public File getOutputDir() {
+      return myOutputDir;
+   }
+
+   /**
+    * Sets the directory to which output probe data is written. The data for
+    * each instance is written to a subdirectory with the instance's name.
+    * Specifying {@code null} disables output.
+    *
+    * @param dir output directory
+    */
+   public void setOutputDir (File dir) {
+      myOutputDir = dir;
+   }
+
+   /**
+    * Sets the stream used to log the progress of the run, or {@code null} if
+    * no logging is desired. The default is {@code System.out}.
+    *
+    * @param log stream for logging progress
+    */
+   public void setLog (PrintStream log) {
+      myLog = log;
+   }
+
+   protected void log (String msg) {
+      if (myLog != null) {
+         synchronized (myLog) {
+            myLog.println (msg);
+         }
+      }
+   }
+
+   /**
+    * Global settings, used as defaults when components are created, which
+    * model build methods are known to modify.
+    */
+   protected static class GlobalDefaults {
+      boolean myEnforceUniqueNames;
+      boolean myEnforceUniqueCompositeNames;
+      boolean myUseCompactPathNames;
+      ColliderType myColliderType;
+      SparseSolverId myMatrixSolver;
+      boolean myHybridSolve;
+      boolean myAlwaysAnalyze;
+
+      /**
+       * Records the current values of the settings.
+       */
+      GlobalDefaults() {
+         myEnforceUniqueNames = ModelComponentBase.enforceUniqueNames;
+         myEnforceUniqueCompositeNames =
+            ModelComponentBase.enforceUniqueCompositeNames;
+         myUseCompactPathNames = ModelComponentBase.useCompactPathNames;
+         myColliderType = CollisionManager.getDefaultColliderType();
+         myMatrixSolver = MechSystemBase.getDefaultMatrixSolver();
+         myHybridSolve = MechSystemSolver.myDefaultHybridSolveP;
+         myAlwaysAnalyze = MechSystemSolver.getDefaultAlwaysAnalyze();
+      }
+
+      /**
+       * Restores the settings to the recorded values.
+       */
+      void restore() {
+         ModelComponentBase.enforceUniqueNames = myEnforceUniqueNames;
+         ModelComponentBase.enforceUniqueCompositeNames =
+            myEnforceUniqueCompositeNames;
+         ModelComponentBase.useCompactPathNames = myUseCompactPathNames;
+         CollisionManager.setDefaultColliderType (myColliderType);
+         MechSystemBase.setDefaultMatrixSolver (myMatrixSolver);
+         MechSystemSolver.myDefaultHybridSolveP = myHybridSolve;
+         MechSystemSolver.setDefaultAlwaysAnalyze (myAlwaysAnalyze);
+      }
+   }
+
+   /**
+    * Builds the root model for an instance and applies its overrides.
+    */
+   protected RootModel buildModel (Instance inst) throws Exception {
+      RootModel root = myModelClass.getDeclaredConstructor().newInstance();
+      root.setName (inst.myName);
+      root.build (myModelArgs);
+      for (Map.Entry<String,Object> entry : inst.myOverrides.entrySet()) {
+         setProperty (root, entry.getKey(), entry.getValue());
+      }
+      return root;
+   }
+
+   /**
+    * Sets a property of a root model, parsing the value if it is specified
+    * as a string and the property does not have a string value.
+    *
+    * @param root root model containing the property
+    * @param path path to the property, relative to {@code root}
+    * @param value value for the property
+    */
+   public static void setProperty (RootModel root, String path, Object value)
+      throws IOException {
+      Property prop = ComponentUtils.findProperty (root, path);
+      if (prop == null) {
+         throw new IllegalArgumentException (
+            "property '"+path+"' not found");
+      }
+      if (value instanceof String &&
+          prop.getInfo().getValueClass() != String.class) {
+         ReaderTokenizer rtok =
+            new ReaderTokenizer (new StringReader ((String)value));
+         value = prop.getInfo().scanValue (rtok);
+      }
+      prop.set (value);
+   }
+
+   /**
+    * Redirects the output probes of an instance to files within the
+    * instance's output directory, and enables streaming for those which are
+    * numeric.
+    */
+   protected void redirectOutputProbes (RootModel root, File dir) {
+      int k = 0;
+      for (Probe probe : root.getOutputProbes()) {
+         String fileName;
+         if (probe.getAttachedFileName() != null) {
+            fileName = new File (probe.getAttachedFileName()).getName();
+         }
+         else if (probe.getName() != null) {
+            fileName = probe.getName() + ".txt";
+         }
+         else {
+            fileName = "probe" + k + ".txt";
+         }
+         probe.setAttachedFileName (
+            new File (dir, fileName).getAbsolutePath());
+         if (probe instanceof NumericOutputProbe) {
+            ((NumericOutputProbe)probe).setStreaming (true);
+         }
+         k++;
+      }
+   }
+
+   /**
+    * Simulates a single instance from time 0 to the stop time, and then saves
+    * its output probe data.
+    */
+   protected void simulate (Instance inst) throws IOException {
+      RootModel root = inst.myRoot;
+      long t0 = System.nanoTime();
+      double h = root.getMaxStepSize();
+      double t = 0;
+      root.initialize (0);
+      while (t < myStopTime) {
+         double t1 = TimeBase.round (Math.min (t+h, myStopTime));
+         root.advance (t, t1, 0);
+         t = t1;
+         inst.myTime = t;
+      }
+      if (myOutputDir != null) {
+         for (Probe probe : root.getOutputProbes()) {
+            probe.save();
+            if (probe instanceof NumericOutputProbe) {
+               // closes the stream
+               ((NumericOutputProbe)probe).dispose();
+            }
+         }
+      }
+      inst.myRunTime = 1e-9*(System.nanoTime()-t0);
+   }
+
+   /**
+    * Builds and simulates all the instances in this runner. Errors occurring
+    * for individual instances are recorded in the instances and do not stop
+    * the run.
+    *
+    * @return the number of instances that completed without error
+    */
+   public int run() throws InterruptedException {
+      // build the models serially, starting each from the same defaults
+      GlobalDefaults defaults = new GlobalDefaults();
+      for (Instance inst : myInstances) {
+         inst.myError = null;
+         inst.myTime = 0;
+         inst.myRunTime = 0;
+         defaults.restore();
+         try {
+            inst.myRoot = buildModel (inst);
+            if (myOutputDir != null) {
+               File dir = new File (myOutputDir, inst.myName);
+               dir.mkdirs();
+               redirectOutputProbes (inst.myRoot, dir);
+            }
+         }
+         catch (Throwable e) {
+            inst.myRoot = null;
+            inst.myError = e;
+            log ("Error building instance "+inst.myName+": "+e);
+         }
+      }
+      defaults.restore();
+      // simulate the models concurrently
+      ExecutorService executor = Executors.newFixedThreadPool (
+         myNumThreads, new NamedThreadFactory ("BatchRunner"));
+      ArrayList<Future<?>> futures = new ArrayList<Future<?>>();
+      for (final Instance inst : myInstances) {
+         if (inst.myRoot != null) {
+            futures.add (executor.submit (new Runnable() {
+                  public void run() {
+                     try {
+                        simulate (inst);
+                        log (String.format (
+                                "Instance %s finished in %.3f sec",
+                                inst.myName, inst.myRunTime));
+                     }
+                     catch (Throwable e) {
+                        inst.myError = e;
+                        log ("Error simulating instance "+inst.myName+
+                             " at time "+inst.myTime+": "+e);
+                     }
+                  }
+               }));
+         }
+      }
+      executor.shutdown();
+      try {
+         for (Future<?> f : futures) {
+            f.get();
+         }
+      }
+      catch (ExecutionException e) {
+         // errors are caught within the tasks, so this shouldn't happen
+         throw new InternalError (e.toString());
+      }
+      finally {
+         executor.shutdownNow();
+      }
+      int numOk = 0;
+      for (Instance inst : myInstances) {
+         if (inst.myError == null) {
+            numOk++;
+         }
+      }
+      return numOk;
+   }
+
+   /**
+    * Reads instance descriptions from a sweep file, in the format described
+    * in the class documentation, and adds them to this runner.
+    *
+    * @param file sweep file to read
+    */
+   public void readSweepFile (File file) throws IOException {
+      BufferedReader reader = new BufferedReader (new FileReader (file));
+      try {
+         String line;
+         int lineno = 0;
+         while ((line = reader.readLine()) != null) {
+            lineno++;
+            line = line.trim();
+            if (line.length() == 0 || line.startsWith ("#")) {
+               continue;
+            }
+            String[] fields = line.split ("\\s+", 2);
+            ArrayList<String> overrides = new ArrayList<String>();
+            if (fields.length > 1) {
+               for (String str : fields[1].split (";")) {
+                  str = str.trim();
+                  if (str.length() > 0) {
+                     if (str.indexOf ('=') == -1) {
+                        throw new IOException (
+                           "override '"+str+"' not of the form path=value, "+
+                           "line "+lineno);
+                     }
+                     overrides.add (str);
+                  }
+               }
+            }
+            addInstance (fields[0], overrides.toArray (new String[0]));
+         }
+      }
+      finally {
+         reader.close();
+      }
+   }
+
+   private static void exitWithError (String msg) {
+      System.err.println (msg);
+      System.exit (1);
+   }
+
+   public static void main (String[] args) {
+      StringHolder sweepFile = new StringHolder();
+      DoubleHolder stopTime = new DoubleHolder (DEFAULT_STOP_TIME);
+      IntHolder numThreads = new IntHolder (-1);
+      StringHolder outputDir = new StringHolder();
+      BooleanHolder printHelp = new BooleanHolder (false);
+
+      ArgParser parser = new ArgParser (
+         "java artisynth.core.driver.BatchRunner -model <className> "+
+         "[ <args> ... ] -sweep <file> [options]", false);
+      parser.addOption ("-sweep %s #file describing the instances", sweepFile);
+      parser.addOption (
+         "-stopTime %f #simulation stop time for each instance", stopTime);
+      parser.addOption (
+         "-numThreads %d #number of simulation threads", numThreads);
+      parser.addOption (
+         "-outputDir %s #directory for output probe data", outputDir);
+      parser.addOption ("-help %v #print help message", printHelp);
+
+      String modelName = null;
+      ArrayList<String> modelArgs = new ArrayList<String>();
+      int idx = 0;
+      while (idx < args.length) {
+         try {
+            if ("-model".equals (args[idx])) {
+               if (idx+1 == args.length) {
+                  exitWithError (
+                     "Error: option -model expects additional argument");
+               }
+               modelName = args[++idx];
+               idx = Main.maybeCollectArgs (args, ++idx, modelArgs);
+            }
+            else {
+               idx = parser.matchArg (args, idx);
+               if (parser.getUnmatchedArgument() != null) {
+                  exitWithError (
+                     "Unrecognized argument: " +
+                     parser.getUnmatchedArgument() +
+                     "\nUse -help for help information");
+               }
+            }
+         }
+         catch (Exception e) {
+            exitWithError ("Error parsing options: "+ e);
+         }
+      }
+      if (printHelp.value) {
+         System.out.println (parser.getHelpMessage());
+         return;
+      }
+      if (modelName == null || sweepFile.value == null) {
+         exitWithError (
+            "Both -model and -sweep must be specified\n"+
+            "Use -help for help information");
+      }
+      Class<?> modelClass = null;
+      try {
+         modelClass = ClassFinder.forName (modelName, false);
+      }
+      catch (Exception e) {
+         exitWithError ("Cannot locate model class '"+modelName+"'");
+      }
+      if (!RootModel.class.isAssignableFrom (modelClass)) {
+         exitWithError (
+            "Model class '"+modelName+"' is not an instance of RootModel");
+      }
+      @SuppressWarnings("unchecked")
+      BatchRunner runner = new BatchRunner (
+         (Class<? extends RootModel>)modelClass,
+         modelArgs.toArray (new String[0]));
+      runner.setStopTime (stopTime.value);
+      if (numThreads.value > 0) {
+         runner.setNumThreads (numThreads.value);
+      }
+      if (outputDir.value != null) {
+         runner.setOutputDir (new File (outputDir.value));
+      }
+      try {
+         runner.readSweepFile (new File (sweepFile.value));
+         int numOk = runner.run();
+         System.out.println (
+            numOk + " of " + runner.getInstances().size() +
+            " instances completed successfully");
+         System.exit (numOk == runner.getInstances().size() ? 0 : 1);
+      }
+      catch (Exception e) {
+         e.printStackTrace();
+         System.exit (1);
+      }
+   }
+}
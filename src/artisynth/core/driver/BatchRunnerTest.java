@@ -0,0 +1,242 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.driver;
+
+import java.io.*;
+import java.util.*;
+
+import maspack.util.*;
+import maspack.matrix.*;
+import artisynth.core.mechmodels.*;
+import artisynth.core.mechmodels.CollisionManager.ColliderType;
+import artisynth.core.modelbase.ModelComponentBase;
+import artisynth.core.probes.NumericOutputProbe;
+import artisynth.core.workspace.RootModel;
+
+/**
+ * Tests the BatchRunner.
+ */
+public class BatchRunnerTest extends UnitTest {
+
+   /**
+    * Simple model consisting of a particle falling under gravity, with an
+    * output probe recording its position.
+    */
+   public static class FallingParticle extends RootModel {
+
+      public void build (String[] args) {
+         MechModel mech = new MechModel ("mech");
+         addModel (mech);
+         Particle p = new Particle ("p", 1.0, 0, 0, 0);
+         mech.addParticle (p);
+         NumericOutputProbe probe =
+            new NumericOutputProbe (p, "position", 0, 1, 0.01);
+         probe.setName ("position");
+         addOutputProbe (probe);
+      }
+   }
+
+   /**
+    * Model whose build method modifies global defaults, and records the
+    * values it found.
+    */
+   public static class DefaultsChanger extends FallingParticle {
+
+      ColliderType myFoundColliderType;
+      boolean myFoundUniqueNames;
+
+      public void build (String[] args) {
+         super.build (args);
+         myFoundColliderType = CollisionManager.getDefaultColliderType();
+         myFoundUniqueNames = ModelComponentBase.enforceUniqueNames;
+         CollisionManager.setDefaultColliderType (
+            myFoundColliderType == ColliderType.AJL_CONTOUR ?
+            ColliderType.TRI_INTERSECTION : ColliderType.AJL_CONTOUR);
+         ModelComponentBase.enforceUniqueNames = !myFoundUniqueNames;
+      }
+   }
+
+   Particle getParticle (BatchRunner.Instance inst) {
+      MechModel mech = (MechModel)inst.getRootModel().models().get("mech");
+      return mech.particles().get("p");
+   }
+
+   File createTempDir() throws IOException {
+      File dir = File.createTempFile ("batchRunner", "");
+      dir.delete();
+      dir.mkdirs();
+      return dir;
+   }
+
+   void deleteDir (File dir) {
+      File[] files = dir.listFiles();
+      if (files != null) {
+         for (File file : files) {
+            deleteDir (file);
+         }
+      }
+      dir.delete();
+   }
+
+   BatchRunner createRunner (int numThreads) {
+      BatchRunner runner = new BatchRunner (FallingParticle.class, null);
+      runner.setLog (null);
+      runner.setNumThreads (numThreads);
+      runner.setStopTime (0.5);
+      for (int i=1; i<=6; i++) {
+         runner.addInstance (
+            "g"+i, "models/mech:gravity=0 0 "+(-i),
+            "models/mech/particles/p:mass="+i);
+      }
+      // instance with an invalid override
+      runner.addInstance ("bad", "models/mech:noSuchProperty=1");
+      return runner;
+   }
+
+   void testRun() throws IOException, InterruptedException {
+      File dir = createTempDir();
+      BatchRunner runner = createRunner (3);
+      runner.setOutputDir (dir);
+      checkEquals ("number ok", runner.run(), 6);
+
+      BatchRunner serial = createRunner (1);
+      serial.run();
+
+      List<BatchRunner.Instance> insts = runner.getInstances();
+      for (int i=0; i<6; i++) {
+         BatchRunner.Instance inst = insts.get(i);
+         check ("error for "+inst.getName(), inst.getError() == null);
+         checkEquals ("final time for "+inst.getName(), inst.getTime(), 0.5);
+         Particle p = getParticle (inst);
+         checkEquals ("mass for "+inst.getName(), p.getMass(), (double)(i+1));
+         // particle should fall with the acceleration given by the gravity
+         // override, to within the integration error
+         double g = i+1;
+         double z = p.getPosition().z;
+         if (Math.abs (z + 0.5*g*0.25) > 0.01*g) {
+            throw new TestException (
+               "position for "+inst.getName()+" is "+z+
+               ", expected approximately "+(-0.5*g*0.25));
+         }
+         // results should be identical to those computed serially
+         Particle pchk = getParticle (serial.getInstances().get(i));
+         checkEquals (
+            "position vs. serial for "+inst.getName(),
+            p.getPosition(), pchk.getPosition());
+
+         File file = new File (new File (dir, inst.getName()), "position.txt");
+         check ("output file "+file+" exists", file.canRead());
+         // output was streamed, and saved in full when the run finished
+         NumericOutputProbe probe =
+            (NumericOutputProbe)inst.getRootModel().getOutputProbes().get(0);
+         check ("probe streaming for "+inst.getName(), probe.isStreaming());
+         NumericOutputProbe probeChk = (NumericOutputProbe)serial.getInstances().
+            get(i).getRootModel().getOutputProbes().get(0);
+         checkEquals (
+            "lines in "+file, countDataLines (file),
+            probeChk.getNumericList().getNumKnots());
+      }
+      BatchRunner.Instance bad = insts.get(6);
+      check ("error for bad instance", bad.getError() != null);
+      check ("bad instance root model", bad.getRootModel() == null);
+      check ("no output for bad instance",
+             !new File (new File (dir, "bad"), "position.txt").exists());
+      deleteDir (dir);
+   }
+
+   int countDataLines (File file) throws IOException {
+      BufferedReader reader = new BufferedReader (new FileReader (file));
+      int cnt = 0;
+      try {
+         // skip the two header lines
+         reader.readLine();
+         reader.readLine();
+         while (reader.readLine() != null) {
+            cnt++;
+         }
+      }
+      finally {
+         reader.close();
+      }
+      return cnt;
+   }
+
+   void testDefaultsIsolated() throws InterruptedException {
+      ColliderType colliderType = CollisionManager.getDefaultColliderType();
+      boolean uniqueNames = ModelComponentBase.enforceUniqueNames;
+      BatchRunner runner = new BatchRunner (DefaultsChanger.class, null);
+      runner.setLog (null);
+      runner.setStopTime (0.1);
+      for (int i=0; i<3; i++) {
+         runner.addInstance ("m"+i);
+      }
+      checkEquals ("number ok", runner.run(), 3);
+      for (BatchRunner.Instance inst : runner.getInstances()) {
+         DefaultsChanger root = (DefaultsChanger)inst.getRootModel();
+         checkEquals (
+            "collider type seen by "+inst.getName(),
+            root.myFoundColliderType, colliderType);
+         checkEquals (
+            "enforceUniqueNames seen by "+inst.getName(),
+            root.myFoundUniqueNames, uniqueNames);
+      }
+      checkEquals (
+         "collider type after run",
+         CollisionManager.getDefaultColliderType(), colliderType);
+      checkEquals (
+         "enforceUniqueNames after run",
+         ModelComponentBase.enforceUniqueNames, uniqueNames);
+   }
+
+   void testSweepFile() throws IOException {
+      File file = File.createTempFile ("sweep", ".txt");
+      PrintWriter pw = new PrintWriter (new FileWriter (file));
+      pw.println ("# test sweep file");
+      pw.println ("");
+      pw.println ("a  models/mech:gravity=0 0 -1; models/mech:frameDamping=2");
+      pw.println ("b");
+      pw.close();
+
+      BatchRunner runner = new BatchRunner (FallingParticle.class, null);
+      runner.readSweepFile (file);
+      file.delete();
+      List<BatchRunner.Instance> insts = runner.getInstances();
+      checkEquals ("number of instances", insts.size(), 2);
+      checkEquals ("name 0", insts.get(0).getName(), "a");
+      Map<String,Object> overrides = insts.get(0).getOverrides();
+      checkEquals ("number of overrides", overrides.size(), 2);
+      checkEquals ("gravity override",
+                   overrides.get ("models/mech:gravity"), "0 0 -1");
+      checkEquals ("damping override",
+                   overrides.get ("models/mech:frameDamping"), "2");
+      checkEquals ("name 1", insts.get(1).getName(), "b");
+      checkEquals ("number of overrides", insts.get(1).getOverrides().size(), 0);
+      try {
+         runner.addInstance ("a");
+         throw new TestException ("duplicate instance name not detected");
+      }
+      catch (IllegalArgumentException e) {
+         // expected
+      }
+   }
+
+   public void test() throws IOException {
+      testSweepFile();
+      try {
+         testRun();
+         testDefaultsIsolated();
+      }
+      catch (InterruptedException e) {
+         throw new TestException ("test interrupted");
+      }
+   }
+
+   public static void main (String[] args) {
+      BatchRunnerTest tester = new BatchRunnerTest();
+      tester.runtest();
+   }
+}
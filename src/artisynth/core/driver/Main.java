@@ -2607,7 +2607,7 @@ public class Main implements DriverInterface, ComponentChangeListener {
     * @param argList list of arguments to populate if found
     * @return next index to process, equal to <code>idx</code> if no arguments are found
     */
-   private static int maybeCollectArgs (
+   static int maybeCollectArgs (
       String[] pargs, int idx, List<String> argList) {
       
       // no more following arguments
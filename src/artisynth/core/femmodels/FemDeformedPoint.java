@@ -94,6 +94,47 @@ public class FemDeformedPoint extends DeformedPointBase {
       mySpatialPosValid = false;
    }
    
+   /**
+    * Sets this point from a deformation gradient that has already been
+    * computed for an integration point, as is done by {@link
+    * FemQuadratureKernel}. The Jacobian returned by {@link #getJ} is not
+    * updated, and any plastic deformation is assumed to already be accounted
+    * for in {@code F}.
+    */
+   public void setFromGradient (
+      IntegrationPoint3d ipnt, Matrix3d F, double detF,
+      RotationMatrix3d R, FemElement3dBase elem) {
+
+      myElem = elem;
+      if (elem.getElementClass() == ElementClass.VOLUMETRIC) {
+         myElemType = 0;
+      }
+      else {
+         myElemType = 1;
+      }
+      myElemNum = elem.getNumber();
+      myElemSubIndex = ipnt.getNumber();
+      myIpnt = ipnt;
+      myP = 0; // assume 0 by default
+
+      FemNode3d[] nodes = (FemNode3d[])elem.getNodes();
+      if (nodes.length != myNodeNumbers.length) {
+         myNodeNumbers = new int[nodes.length];
+         myNodeWeights = new double[nodes.length];
+      }
+      myF.set (F);
+      myDetF = detF;
+      VectorNd N = ipnt.getShapeWeights();
+      for (int i=0; i<nodes.length; i++) {
+         myNodeNumbers[i] = nodes[i].getNumber();
+         myNodeWeights[i] = N.get(i);
+      }
+      setR (R);
+
+      myRestPosValid = false;
+      mySpatialPosValid = false;
+   }
+
    public void setFromRestPoint (
       IntegrationPoint3d ipnt, IntegrationData3d idat,
       RotationMatrix3d R, FemElement3dBase elem, int idx) {
@@ -110,7 +151,7 @@ public class FemDeformedPoint extends DeformedPointBase {
       myIpnt = ipnt;
       myP = 0; // assume 0 by default
 
-      FemNode3d[] nodes = (FemNode3d[])elem.getNodes();
+      FemNode3d[] nodes = elem.getNodes();
       if (nodes.length != myNodeNumbers.length) {
          myNodeNumbers = new int[nodes.length];
          myNodeWeights = new double[nodes.length];
@@ -36,6 +36,10 @@ public abstract class FemElement3dBase extends FemElement
     // per-element integration point data
    protected IntegrationData3d[] myIntegrationData;
    protected boolean myIntegrationDataValid = false;
+   // location of this element's data within a FemQuadratureKernel
+   protected int myKernelPointOffset = -1;
+   protected int myKernelGradOffset = -1;
+   protected boolean myKernelDataValid = false;
 
    protected static double DEFAULT_ELEMENT_WIDGET_SIZE = 0.0;
    protected double myElementWidgetSize = DEFAULT_ELEMENT_WIDGET_SIZE;
@@ -298,6 +302,7 @@ public abstract class FemElement3dBase extends FemElement
       super.invalidateRestData();
       // will cause rest Jacobians to be recalculated
       myIntegrationDataValid = false;
+      myKernelDataValid = false;
       myWarpingData = null;
    }
 //
@@ -1355,6 +1360,9 @@ public abstract class FemElement3dBase extends FemElement
       // Note that frame information is not presently duplicated
       e.myIntegrationData = null;
       e.myIntegrationDataValid = false;     
+      e.myKernelPointOffset = -1;
+      e.myKernelGradOffset = -1;
+      e.myKernelDataValid = false;
       e.myWarper = null;
       e.setElementWidgetSizeMode (myElementWidgetSizeMode);
       if (myElementWidgetSizeMode == PropertyMode.Explicit) {
@@ -9,16 +9,20 @@ package artisynth.core.femmodels;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
+import artisynth.core.materials.DeformedPointBatch;
 import artisynth.core.materials.FemMaterial;
 import artisynth.core.materials.IncompressibleMaterialBase;
 import artisynth.core.materials.IncompressibleMaterialBase.BulkPotential;
@@ -66,6 +70,7 @@ import artisynth.core.util.IntegerToken;
 import artisynth.core.util.ScalableUnits;
 import artisynth.core.util.ScanToken;
 import artisynth.core.util.StringToken;
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.AABBTree;
 import maspack.geometry.BVFeatureQuery;
 import maspack.geometry.BVNode;
@@ -240,6 +245,30 @@ PointAttachable, ConnectableBody {
    protected static boolean DEFAULT_USE_CONSISTENT_MASS = false;
    protected boolean myUseConsistentMass = DEFAULT_USE_CONSISTENT_MASS;
 
+   protected static boolean DEFAULT_PARALLEL_ASSEMBLY = false;
+   protected boolean myParallelAssembly = DEFAULT_PARALLEL_ASSEMBLY;
+
+   protected static int DEFAULT_NUM_ASSEMBLY_THREADS = 0;
+   protected int myNumAssemblyThreads = DEFAULT_NUM_ASSEMBLY_THREADS;
+
+   protected static boolean DEFAULT_USE_QUADRATURE_KERNELS = false;
+   protected boolean myUseQuadratureKernels = DEFAULT_USE_QUADRATURE_KERNELS;
+   // packed rest-state data for quadrature kernels, created on demand
+   protected FemQuadratureKernel myQuadratureKernel = null;
+
+   protected static int DEFAULT_MATERIAL_BATCH_SIZE = 0;
+   protected int myMaterialBatchSize = DEFAULT_MATERIAL_BATCH_SIZE;
+
+   // minimum number of elements per thread for parallel assembly
+   static int MIN_ELEMS_PER_ASSEMBLY_THREAD = 64;
+
+   // element coloring used for parallel assembly, created on demand. Each
+   // entry gives the indices of a set of elements that share no nodes.
+   protected int[][] myElementColors = null;
+   // scratch storage for serial and parallel stress/stiffness computation
+   protected AssemblyWorkspace mySerialWorkspace = null;
+   protected ArrayList<AssemblyWorkspace> myAssemblyWorkspaces = null;
+
    // maximum number of pressure DOFs that can occur in an element
    private static int MAX_PRESSURE_VALS = 8;
    // maximum number of nodes for elements associated with nodal
@@ -307,6 +336,23 @@ PointAttachable, ConnectableBody {
          "useConsistentMass",
          "use consistent mass matrix and gravity loadings", 
          DEFAULT_USE_CONSISTENT_MASS);
+      myProps.add (
+         "parallelAssembly",
+         "compute element stresses and stiffnesses using multiple threads",
+         DEFAULT_PARALLEL_ASSEMBLY);
+      myProps.add (
+         "numAssemblyThreads",
+         "maximum number of threads for parallel assembly (0 = all processors)",
+         DEFAULT_NUM_ASSEMBLY_THREADS, "[0,inf]");
+      myProps.add (
+         "useQuadratureKernels",
+         "use precomputed quadrature kernels for tet, hex and quadtet elements",
+         DEFAULT_USE_QUADRATURE_KERNELS);
+      myProps.add (
+         "materialBatchSize",
+         "maximum number of integration points whose material stresses are "+
+         "computed together (0 or 1 disables batching)",
+         DEFAULT_MATERIAL_BATCH_SIZE, "[0,inf]");
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -589,6 +635,121 @@ PointAttachable, ConnectableBody {
       }
    }
 
+   /**
+    * Queries whether element stresses and stiffnesses are computed in
+    * parallel. See {@link #setParallelAssembly}.
+    *
+    * @return {@code true} if parallel assembly is enabled
+    */
+   public boolean getParallelAssembly() {
+      return myParallelAssembly;
+   }
+
+   /**
+    * Enables or disables parallel computation of element stresses and
+    * stiffnesses within {@link #updateStressAndStiffness}. When enabled, the
+    * volumetric elements are partitioned into colors such that no two
+    * elements of the same color share a node, and the elements of each color
+    * are processed concurrently, with each thread using its own scratch
+    * storage and copies of the materials. Since the coloring is fixed, the
+    * results are deterministic, and agree with those of serial assembly to
+    * within round-off error. Shell elements, and elements with auxiliary
+    * materials, are still processed serially.
+    *
+    * @param enable if {@code true}, enables parallel assembly
+    */
+   public void setParallelAssembly (boolean enable) {
+      myParallelAssembly = enable;
+   }
+
+   /**
+    * Queries whether precomputed quadrature kernels are used to compute
+    * element stresses and stiffnesses. See {@link #setUseQuadratureKernels}.
+    *
+    * @return {@code true} if quadrature kernels are enabled
+    */
+   public boolean getUseQuadratureKernels() {
+      return myUseQuadratureKernels;
+   }
+
+   /**
+    * Enables or disables the use of precomputed quadrature kernels when
+    * computing the stresses and stiffnesses of {@link TetElement}, {@link
+    * HexElement} and {@link QuadtetElement} elements. The kernels store the
+    * rest-state shape function gradients of these elements in packed arrays
+    * (see {@link FemQuadratureKernel}), so that deformation gradients and
+    * current shape function gradients can be computed without forming and
+    * inverting Jacobians or allocating storage. Elements whose materials are
+    * linear or have state, that have augmenting or auxiliary materials or
+    * plastic deformation, or that use element-based or nodal soft
+    * incompressibility, are still processed using the general method. The
+    * results agree with those of the general method to within round-off
+    * error. Quadrature kernels are disabled by default.
+    *
+    * @param enable if {@code true}, enables quadrature kernels
+    */
+   public void setUseQuadratureKernels (boolean enable) {
+      if (enable != myUseQuadratureKernels) {
+         myUseQuadratureKernels = enable;
+         myQuadratureKernel = null;
+      }
+   }
+
+   /**
+    * Returns the maximum number of integration points whose material
+    * stresses and tangents are computed together. See {@link
+    * #setMaterialBatchSize}.
+    *
+    * @return maximum material batch size
+    */
+   public int getMaterialBatchSize() {
+      return myMaterialBatchSize;
+   }
+
+   /**
+    * Sets the maximum number of integration points whose material stresses
+    * and tangents are computed together during assembly. Elements that are
+    * processed using quadrature kernels (see {@link
+    * #setUseQuadratureKernels}) have their integration point deformations
+    * collected into a {@link DeformedPointBatch}, which is passed to {@link
+    * FemMaterial#computeStressAndTangent(double[],double[],
+    * DeformedPointBatch,double)} once it is full, or when the material
+    * changes, after which the nodal forces and stiffnesses are accumulated in
+    * the original element order. The results are therefore identical to
+    * those obtained without batching, to within any differences in the
+    * material's batch implementation. A value of 0 or 1 disables batching,
+    * and batching is disabled by default.
+    *
+    * @param size maximum material batch size
+    */
+   public void setMaterialBatchSize (int size) {
+      myMaterialBatchSize = Math.max (0, size);
+   }
+
+   /**
+    * Returns the maximum number of threads used for parallel assembly. See
+    * {@link #setNumAssemblyThreads}.
+    *
+    * @return maximum number of parallel assembly threads
+    */
+   public int getNumAssemblyThreads() {
+      return myNumAssemblyThreads;
+   }
+
+   /**
+    * Sets the maximum number of threads used for parallel assembly. A value
+    * of 0 means that the number of available processors will be used.
+    *
+    * @param num maximum number of parallel assembly threads
+    */
+   public void setNumAssemblyThreads (int num) {
+      if (num < 0) {
+         throw new IllegalArgumentException (
+            "number of threads must be non-negative");
+      }
+      myNumAssemblyThreads = num;
+   }
+
    protected void setDefaultValues() {
       super.setDefaultValues();
       //myDensity = DEFAULT_DENSITY;
@@ -1896,6 +2057,8 @@ PointAttachable, ConnectableBody {
       myHardIncompMethodValidP = false;
       myHardIncompConfigValidP = false;
       myAllElements = null;
+      myElementColors = null;
+      myQuadratureKernel = null;
       myNumTetElements = -1; // invalidates all element counts
       //myNodeNeighborsValidP = false;
    }
@@ -2495,13 +2658,19 @@ PointAttachable, ConnectableBody {
    
    protected void computePressuresAndRinv(
       FemElement3d e, IncompressibleMaterialBase imat, FemDeformedPoint dpnt) {
+      computePressuresAndRinv (e, imat, dpnt, myPressures, myRinv);
+   }
+
+   protected void computePressuresAndRinv(
+      FemElement3d e, IncompressibleMaterialBase imat, FemDeformedPoint dpnt,
+      VectorNd pressures, MatrixNd Rinv) {
 
       int npvals = e.numPressureVals();
 
-      myRinv.setSize(npvals, npvals);
-      myPressures.setSize(npvals);
+      Rinv.setSize(npvals, npvals);
+      pressures.setSize(npvals);
 
-      double[] pbuf = myPressures.getBuffer();
+      double[] pbuf = pressures.getBuffer();
       double restVol = e.getRestVolume();
       double K;
       if (imat.getBulkModulusField() != null) {
@@ -2514,12 +2683,12 @@ PointAttachable, ConnectableBody {
       }
       
       if (npvals > 1) {
-         myPressures.setZero();
+         pressures.setZero();
          IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
          IntegrationData3d[] idata = e.getIntegrationData();
 
          if (imat.getBulkPotential() != BulkPotential.QUADRATIC) {
-            myRinv.setZero();
+            Rinv.setZero();
          }
          for (int k = 0; k < ipnts.length; k++) {
             IntegrationPoint3d pt = ipnts[k];
@@ -2535,31 +2704,31 @@ PointAttachable, ConnectableBody {
                double mod = imat.getEffectiveModulus(K, detJ);
                for (int i = 0; i < npvals; i++) {
                   for (int j = 0; j < npvals; j++) {
-                     myRinv.add(i, j, H[i] * H[j] * mod * dV);
+                     Rinv.add(i, j, H[i] * H[j] * mod * dV);
                   }
                }
             }
          }
          Matrix W = e.getPressureWeightMatrix();
-         W.mul(myPressures, myPressures);
-         myPressures.scale(1 / restVol);
+         W.mul(pressures, pressures);
+         pressures.scale(1 / restVol);
          if (imat.getBulkPotential() == BulkPotential.QUADRATIC) {
-            myRinv.set(W);
-            myRinv.scale(K/restVol);
+            Rinv.set(W);
+            Rinv.scale(K/restVol);
          }
          else {
             // optimize later
             MatrixNd Wtmp = new MatrixNd(W);
             Wtmp.scale(1.0 / restVol);
-            myRinv.mul(Wtmp);
-            myRinv.mul(Wtmp, myRinv);
+            Rinv.mul(Wtmp);
+            Rinv.mul(Wtmp, Rinv);
          }
       }
       else {
          double Jpartial = e.myVolumes[0] / e.myRestVolumes[0];
          pbuf[0] = (imat.getEffectivePressure(K, Jpartial) +
             0 * e.myLagrangePressures[0]);
-         myRinv.set(0, 0, imat.getEffectiveModulus(K, Jpartial) / restVol);
+         Rinv.set(0, 0, imat.getEffectiveModulus(K, Jpartial) / restVol);
       }
    }
    
@@ -2801,11 +2970,13 @@ PointAttachable, ConnectableBody {
 
       // compute new forces as well as stiffness matrix if warping is enabled
       // myMinDetJ = Double.MAX_VALUE;
+      AssemblyWorkspace ws = getSerialWorkspace();
       for (FemElement3d e : myElements) {
          FemMaterial mat = getElementMaterial(e);
-         computeStressAndStiffness(
-            e, mat, amats,/* D= */null, softIncomp);
+         computeBatchedStressAndStiffness(
+            e, mat, amats,/* D= */null, softIncomp, ws);
       }
+      flushMaterialBatch (ws);
       for (ShellElement3d e : myShellElements) {
          FemMaterial mat = getElementMaterial(e);
          if (e.getElementClass() == ElementClass.SHELL) {
@@ -2818,6 +2989,378 @@ PointAttachable, ConnectableBody {
       myStressesValidP = true;
    }
 
+   /**
+    * Thread-local copy of a material used by an {@link AssemblyWorkspace},
+    * together with the version of the original material when it was copied.
+    */
+   private static class MaterialCopy {
+      FemMaterial myCopy;
+      int myVersion;
+      int myPassNum = -1;
+   }
+
+   /**
+    * Scratch storage used when computing element stresses and stiffnesses.
+    * Serial assembly uses a single workspace that shares the model's own
+    * scratch fields. Parallel assembly uses one workspace per thread, each
+    * with its own scratch storage, copies of the materials (since materials
+    * may contain internal scratch storage), and element condition
+    * information that is merged into the model after assembly.
+    */
+   protected class AssemblyWorkspace {
+
+      boolean myParallelP;
+      VectorNd myPressures;
+      MatrixNd myRinv;
+      Vector3d[] myNodalConstraints;
+      Matrix6d myD = new Matrix6d();
+      Vector3d[] myGNx = new Vector3d[0];
+
+      // scratch storage for quadrature kernels
+      FemDeformedPoint myDpnt = new FemDeformedPoint();
+      SymmetricMatrix3d mySigma = new SymmetricMatrix3d();
+      Matrix3d myF = new Matrix3d();
+      Matrix3d myInvF = new Matrix3d();
+
+      // pending integration points for batched material evaluation. For
+      // each point, we store its element, shape function gradients, volume
+      // and dilational stiffness, and the batch stores its deformation.
+      DeformedPointBatch myBatch = new DeformedPointBatch();
+      int myBatchNum;
+      FemMaterial myBatchMat;
+      IncompMethod myBatchIncomp;
+      boolean myBatchTangentP;
+      FemElement3d[] myBatchElems = new FemElement3d[0];
+      FemDeformedPoint[] myBatchDpnts = new FemDeformedPoint[0];
+      Vector3d[][] myBatchGNx = new Vector3d[0][];
+      double[] myBatchDv = new double[0];
+      double[] myBatchKp = new double[0];
+      double[] myBatchSigma = new double[0];
+      double[] myBatchD = new double[0];
+
+      // thread-local material copies, which are kept across assembly passes
+      // and recloned only when the original's version changes
+      IdentityHashMap<FemMaterial,MaterialCopy> myMatCopies;
+      // copies of the model's and the current element's augmenting
+      // materials; these are kept separate since the model list is held
+      // across the elements of a chunk
+      ArrayList<FemMaterial> myModelMatsCopy;
+      ArrayList<FemMaterial> myElemMatsCopy;
+      int myPassNum;
+      int myNumMatsUsed;
+
+      double myMinDetJ;
+      FemElement3dBase myMinDetJElement;
+      int myNumInverted;
+
+      AssemblyWorkspace (boolean parallel) {
+         myParallelP = parallel;
+         if (parallel) {
+            myPressures = new VectorNd (MAX_PRESSURE_VALS);
+            myRinv = new MatrixNd();
+            myNodalConstraints = new Vector3d[MAX_NODAL_INCOMP_NODES];
+            for (int i = 0; i < MAX_NODAL_INCOMP_NODES; i++) {
+               myNodalConstraints[i] = new Vector3d();
+            }
+            myMatCopies = new IdentityHashMap<FemMaterial,MaterialCopy>();
+            myModelMatsCopy = new ArrayList<FemMaterial>();
+            myElemMatsCopy = new ArrayList<FemMaterial>();
+         }
+         else {
+            myPressures = FemModel3d.this.myPressures;
+            myRinv = FemModel3d.this.myRinv;
+            myNodalConstraints = FemModel3d.this.myNodalConstraints;
+         }
+      }
+
+      /**
+       * Prepares the workspace for a new assembly pass. Material copies are
+       * retained, but if there are many more than were used in the last
+       * pass, those that weren't used are discarded.
+       */
+      void clear() {
+         if (myParallelP) {
+            if (myMatCopies.size() > 2*myNumMatsUsed+16) {
+               Iterator<MaterialCopy> it = myMatCopies.values().iterator();
+               while (it.hasNext()) {
+                  if (it.next().myPassNum != myPassNum) {
+                     it.remove();
+                  }
+               }
+            }
+            myPassNum++;
+            myNumMatsUsed = 0;
+         }
+         myMinDetJ = Double.MAX_VALUE;
+         myMinDetJElement = null;
+         myNumInverted = 0;
+      }
+
+      FemMaterial getMaterial (FemMaterial mat) {
+         if (!myParallelP || mat == null) {
+            return mat;
+         }
+         MaterialCopy entry = myMatCopies.get (mat);
+         if (entry == null) {
+            entry = new MaterialCopy();
+            myMatCopies.put (mat, entry);
+         }
+         int version = mat.getVersion();
+         if (entry.myCopy == null || entry.myVersion != version) {
+            entry.myCopy = mat.clone();
+            entry.myVersion = version;
+         }
+         if (entry.myPassNum != myPassNum) {
+            entry.myPassNum = myPassNum;
+            myNumMatsUsed++;
+         }
+         return entry.myCopy;
+      }
+
+      private ArrayList<FemMaterial> copyMaterials (
+         ArrayList<FemMaterial> mats, ArrayList<FemMaterial> copy) {
+         if (!myParallelP || mats == null) {
+            return mats;
+         }
+         // the list itself is recreated for each pass, so only its
+         // materials are cached
+         copy.clear();
+         for (FemMaterial mat : mats) {
+            copy.add (getMaterial (mat));
+         }
+         return copy;
+      }
+
+      /**
+       * Returns the model-level augmenting materials to use with this
+       * workspace. The returned list remains valid while element materials
+       * are obtained using {@link #getElementMaterials}.
+       */
+      ArrayList<FemMaterial> getModelMaterials (ArrayList<FemMaterial> mats) {
+         return copyMaterials (mats, myModelMatsCopy);
+      }
+
+      /**
+       * Returns the augmenting materials of an element to use with this
+       * workspace. The returned list is valid only until this method is
+       * called again.
+       */
+      ArrayList<FemMaterial> getElementMaterials (FemElement3dBase e) {
+         return copyMaterials (e.getAugmentingMaterials(), myElemMatsCopy);
+      }
+
+      Vector3d[] updateShapeGradient (IntegrationPoint3d pt, Matrix3d invJ) {
+         if (!myParallelP) {
+            return pt.updateShapeGradient (invJ);
+         }
+         // integration points are shared between elements, so compute the
+         // gradient into local storage
+         Vector3d[] GNx = getShapeGradientStorage (pt.getGNs().length);
+         pt.computeShapeGradient (invJ, GNx);
+         return GNx;
+      }
+
+      Vector3d[] getShapeGradientStorage (int n) {
+         if (myGNx.length < n) {
+            myGNx = new Vector3d[n];
+            for (int i=0; i<n; i++) {
+               myGNx[i] = new Vector3d();
+            }
+         }
+         return myGNx;
+      }
+
+      /**
+       * Appends a point to the material batch, enlarging the storage if
+       * necessary, and returns its index.
+       */
+      int addBatchPoint (FemElement3d e, int numNodes) {
+         int b = myBatchNum++;
+         if (b == myBatchElems.length) {
+            int cap = Math.max (16, 2*b);
+            myBatchElems = Arrays.copyOf (myBatchElems, cap);
+            myBatchDpnts = Arrays.copyOf (myBatchDpnts, cap);
+            myBatchGNx = Arrays.copyOf (myBatchGNx, cap);
+            myBatchDv = Arrays.copyOf (myBatchDv, cap);
+            myBatchKp = Arrays.copyOf (myBatchKp, cap);
+            myBatchSigma = Arrays.copyOf (myBatchSigma, 6*cap);
+            myBatchD = Arrays.copyOf (myBatchD, 36*cap);
+            for (int i=b; i<cap; i++) {
+               myBatchDpnts[i] = new FemDeformedPoint();
+            }
+         }
+         if (myBatchGNx[b] == null || myBatchGNx[b].length < numNodes) {
+            myBatchGNx[b] = new Vector3d[numNodes];
+            for (int i=0; i<numNodes; i++) {
+               myBatchGNx[b][i] = new Vector3d();
+            }
+         }
+         myBatchElems[b] = e;
+         myBatch.setNumPoints (myBatchNum);
+         return b;
+      }
+
+      boolean checkElementCondition (
+         FemElement3dBase e, double detJ, boolean recordInversion) {
+         if (!myParallelP) {
+            return FemModel3d.this.checkElementCondition (
+               e, detJ, recordInversion);
+         }
+         if (detJ < myMinDetJ) {
+            myMinDetJ = detJ;
+            myMinDetJElement = e;
+         }
+         if (detJ <= 0 && recordInversion) {
+            e.setInverted(true);
+            myNumInverted++;
+            return false;
+         }
+         else {
+            return true;
+         }
+      }
+   }
+
+   protected AssemblyWorkspace getSerialWorkspace() {
+      if (mySerialWorkspace == null) {
+         mySerialWorkspace = new AssemblyWorkspace (/*parallel=*/false);
+      }
+      return mySerialWorkspace;
+   }
+
+   /**
+    * Computes a coloring of the volumetric elements such that no two elements
+    * with the same color share a node. Elements are assigned greedily, in
+    * order, to the first color that is compatible with them.
+    */
+   protected int[][] computeElementColors() {
+      int nelems = myElements.size();
+      int[] colors = new int[nelems];
+      int[] colorSizes = new int[0];
+      int[] marks = new int[0]; // marks[c] == i+1 if color c used near elem i
+      HashMap<FemElement3d,Integer> elemIdxs = 
+         new HashMap<FemElement3d,Integer>(2*nelems);
+      for (int i=0; i<nelems; i++) {
+         colors[i] = -1;
+         elemIdxs.put (myElements.get(i), i);
+      }
+      int ncolors = 0;
+      for (int i=0; i<nelems; i++) {
+         FemElement3d e = myElements.get(i);
+         for (FemNode3d n : e.getNodes()) {
+            for (FemElement3d adj : n.getAdjacentVolumeElements()) {
+               Integer idx = elemIdxs.get (adj);
+               if (idx != null && colors[idx] != -1) {
+                  marks[colors[idx]] = i+1;
+               }
+            }
+         }
+         int c = 0;
+         while (c < ncolors && marks[c] == i+1) {
+            c++;
+         }
+         if (c == ncolors) {
+            ncolors++;
+            marks = Arrays.copyOf (marks, ncolors);
+            colorSizes = Arrays.copyOf (colorSizes, ncolors);
+         }
+         colors[i] = c;
+         colorSizes[c]++;
+      }
+      int[][] colorElems = new int[ncolors][];
+      for (int c=0; c<ncolors; c++) {
+         colorElems[c] = new int[colorSizes[c]];
+         colorSizes[c] = 0;
+      }
+      for (int i=0; i<nelems; i++) {
+         int c = colors[i];
+         colorElems[c][colorSizes[c]++] = i;
+      }
+      return colorElems;
+   }
+
+   /**
+    * Returns the number of colors used for parallel assembly. This is mainly
+    * for diagnostic purposes.
+    *
+    * @return number of element colors
+    */
+   public int numElementColors() {
+      if (myElementColors == null) {
+         myElementColors = computeElementColors();
+      }
+      return myElementColors.length;
+   }
+
+   /**
+    * Computes the stresses and stiffnesses for all volumetric elements without
+    * auxiliary materials, using multiple threads. Elements with auxiliary
+    * materials are collected into {@code serialElems} so that they can be
+    * processed afterwards by the caller.
+    */
+   protected void computeElementStressAndStiffnessParallel (
+      final ArrayList<FemMaterial> amats, final IncompMethod softIncomp,
+      ArrayList<FemElement3d> serialElems) {
+
+      if (myElementColors == null) {
+         myElementColors = computeElementColors();
+      }
+      int maxThreads = myNumAssemblyThreads;
+      if (maxThreads <= 0) {
+         maxThreads = ParallelLoop.getDefaultNumThreads();
+      }
+      if (myAssemblyWorkspaces == null) {
+         myAssemblyWorkspaces = new ArrayList<AssemblyWorkspace>();
+      }
+      while (myAssemblyWorkspaces.size() < maxThreads) {
+         myAssemblyWorkspaces.add (new AssemblyWorkspace (/*parallel=*/true));
+      }
+      for (AssemblyWorkspace ws : myAssemblyWorkspaces) {
+         ws.clear();
+      }
+      // update lazily computed element data serially before going parallel
+      FemQuadratureKernel kernel = getQuadratureKernel();
+      for (FemElement3d e : myElements) {
+         if (e.numAuxiliaryMaterials() > 0) {
+            serialElems.add (e);
+         }
+         else {
+            e.getStiffnessWarper (1.0);
+            if (kernel != null && kernel.containsElement (e)) {
+               kernel.updateElement (e);
+            }
+         }
+      }
+      for (final int[] elemIdxs : myElementColors) {
+         int nchunks = ParallelLoop.numChunks (
+            elemIdxs.length, maxThreads, MIN_ELEMS_PER_ASSEMBLY_THREAD);
+         ParallelLoop.forEachChunk (
+            elemIdxs.length, nchunks, new ParallelLoop.RangeTask() {
+               public void run (int chunk, int lo, int hi) {
+                  AssemblyWorkspace ws = myAssemblyWorkspaces.get (chunk);
+                  ArrayList<FemMaterial> wsAmats = ws.getModelMaterials (amats);
+                  for (int k=lo; k<hi; k++) {
+                     FemElement3d e = myElements.get (elemIdxs[k]);
+                     if (e.numAuxiliaryMaterials() == 0) {
+                        FemMaterial mat = ws.getMaterial (getElementMaterial(e));
+                        computeBatchedStressAndStiffness (
+                           e, mat, wsAmats, ws.myD, softIncomp, ws);
+                     }
+                  }
+                  flushMaterialBatch (ws);
+               }
+            });
+      }
+      // merge element condition information in workspace order
+      for (AssemblyWorkspace ws : myAssemblyWorkspaces) {
+         if (ws.myMinDetJ < myMinDetJ) {
+            myMinDetJ = ws.myMinDetJ;
+            myMinDetJElement = ws.myMinDetJElement;
+         }
+         myNumInverted += ws.myNumInverted;
+      }
+   }
+
    // DIVBLK
    public void updateStressAndStiffness() {
       if (profileStressAndStiffness) {
@@ -2872,14 +3415,33 @@ PointAttachable, ConnectableBody {
 
       ArrayList<FemMaterial> amats = getAugmentingMaterials();
 
-      for (FemElement3d e : myElements) {
-         FemMaterial mat = getElementMaterial(e);
-         computeStressAndStiffness(e, mat, amats, D, softIncomp);
-         if (checkTangentStability) {
-            double s = checkMatrixStability(D);
-            if (s < mins) {
-               mins = s;
-               minE = e;
+      if (myParallelAssembly && !checkTangentStability) {
+         ArrayList<FemElement3d> serialElems = new ArrayList<FemElement3d>();
+         computeElementStressAndStiffnessParallel (
+            amats, softIncomp, serialElems);
+         for (FemElement3d e : serialElems) {
+            FemMaterial mat = getElementMaterial(e);
+            computeStressAndStiffness(e, mat, amats, D, softIncomp);
+         }
+      }
+      else if (!checkTangentStability) {
+         AssemblyWorkspace ws = getSerialWorkspace();
+         for (FemElement3d e : myElements) {
+            FemMaterial mat = getElementMaterial(e);
+            computeBatchedStressAndStiffness(e, mat, amats, D, softIncomp, ws);
+         }
+         flushMaterialBatch (ws);
+      }
+      else {
+         for (FemElement3d e : myElements) {
+            FemMaterial mat = getElementMaterial(e);
+            computeStressAndStiffness(e, mat, amats, D, softIncomp);
+            if (checkTangentStability) {
+               double s = checkMatrixStability(D);
+               if (s < mins) {
+                  mins = s;
+                  minE = e;
+               }
             }
          }
       }
@@ -2961,10 +3523,22 @@ PointAttachable, ConnectableBody {
    protected void accumulateLinearNodalStressStrain (
       FemElement3dBase e, ArrayList<FemMaterial> amats,
       StiffnessWarper3d warper, FemDeformedPoint dpnt, int needsStressStrain) {
+      accumulateLinearNodalStressStrain (
+         e, getElementMaterial (e), amats, e.getAugmentingMaterials(),
+         warper, dpnt, needsStressStrain);
+   }
+
+   /**
+    * Accumulates nodal stress and strain values for linear materials, using
+    * explicitly supplied element and augmenting materials.
+    */
+   protected void accumulateLinearNodalStressStrain (
+      FemElement3dBase e, FemMaterial mat, ArrayList<FemMaterial> amats,
+      ArrayList<FemMaterial> augmats, StiffnessWarper3d warper,
+      FemDeformedPoint dpnt, int needsStressStrain) {
       
       SymmetricMatrix3d sigma = new SymmetricMatrix3d();
       FemNode3d[] nodes = e.getNodes();
-      FemMaterial mat = getElementMaterial (e);
 
       // estimate at warping point
       RotationMatrix3d R = warper.getRotation();
@@ -2992,8 +3566,8 @@ PointAttachable, ConnectableBody {
                }
             }
          }
-         if (e.numAugmentingMaterials() > 0) {
-            for (FemMaterial amat : e.getAugmentingMaterials()) {
+         if (augmats != null) {
+            for (FemMaterial amat : augmats) {
                if (amat.isLinear()) {
                   amat.computeStressAndTangent (
                      tmp, /*D=*/null, dpnt, null, 0.0, null);
@@ -3158,6 +3732,31 @@ PointAttachable, ConnectableBody {
    public void computeStressAndStiffness (
       FemElement3d e, FemMaterial mat, ArrayList<FemMaterial> amats, 
       Matrix6d D, IncompMethod softIncomp) {
+      computeStressAndStiffness (
+         e, mat, amats, D, softIncomp, getSerialWorkspace());
+   }
+
+   /**
+    * Computes the stress and stiffness for a volumetric element, using
+    * the scratch storage provided by a specified workspace. When called
+    * from parallel assembly, {@code mat} and {@code amats} should be
+    * the workspace's copies of the materials.
+    */
+   protected void computeStressAndStiffness (
+      FemElement3d e, FemMaterial mat, ArrayList<FemMaterial> amats, 
+      Matrix6d D, IncompMethod softIncomp, AssemblyWorkspace ws) {
+
+      // Only do soft incompressible computations for compressible materials
+      if (!mat.isIncompressible()) {
+         softIncomp = IncompMethod.OFF;
+      }
+      FemQuadratureKernel kernel = getQuadratureKernel();
+      if (kernel != null &&
+          canUseQuadratureKernel (kernel, e, mat, amats, softIncomp)) {
+         computeKernelStressAndStiffness (
+            kernel, e, mat, D, softIncomp, ws);
+         return;
+      }
 
       IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
       IntegrationData3d[] idata = e.getIntegrationData();
@@ -3166,11 +3765,6 @@ PointAttachable, ConnectableBody {
          D.setZero();
       }
 
-      // Only do soft incompressible computations for compressible materials
-      if (!mat.isIncompressible()) {
-         softIncomp = IncompMethod.OFF;
-      }
-      
       FemDeformedPoint dpnt = new FemDeformedPoint();
       SymmetricMatrix3d sigma = new SymmetricMatrix3d();
       Matrix3d invJ = new Matrix3d();
@@ -3218,7 +3812,8 @@ PointAttachable, ConnectableBody {
          }        
          if (needsStressStrain != 0) {
             accumulateLinearNodalStressStrain (
-               e, amats, warper, dpnt, needsStressStrain);
+               e, mat, amats, ws.getElementMaterials (e),
+               warper, dpnt, needsStressStrain);
          }
       }
 
@@ -3251,9 +3846,9 @@ PointAttachable, ConnectableBody {
       SymmetricMatrix3d C = new SymmetricMatrix3d();
 
       // initialize incompressible pressure
-      double[] pbuf = myPressures.getBuffer();
+      double[] pbuf = ws.myPressures.getBuffer();
       if (softIncomp == IncompMethod.ELEMENT) {
-         computePressuresAndRinv (e, imat, dpnt);
+         computePressuresAndRinv (e, imat, dpnt, ws.myPressures, ws.myRinv);
          if (D != null) {
             constraints = e.getIncompressConstraints();
             for (int i = 0; i < e.myNodes.length; i++) {
@@ -3284,11 +3879,11 @@ PointAttachable, ConnectableBody {
          dpnt.setFromIntegrationPoint (pt, dt, null, e, k);
 
          double detJ = invJ.fastInvert(dpnt.getJ()); // pt.computeInverseJacobian();
-         checkElementCondition (e, detJ, !invertible);
+         ws.checkElementCondition (e, detJ, !invertible);
 
          // compute shape function gradient and volume fraction
          double dv = detJ * pt.getWeight();
-         Vector3d[] GNx = pt.updateShapeGradient(invJ);
+         Vector3d[] GNx = ws.updateShapeGradient (pt, invJ);
 
          // compute pressure
          double pressure = 0;
@@ -3362,7 +3957,7 @@ PointAttachable, ConnectableBody {
          if (amats != null) {
             ks = addStressAndTangent (sigma, D, amats, dpnt, dt, ks);
          }
-         if ((augmats=e.getAugmentingMaterials()) != null) {
+         if ((augmats=ws.getElementMaterials(e)) != null) {
             ks = addStressAndTangent (sigma, D, augmats, dpnt, dt, ks);
          }
          if ((auxmats=e.getAuxiliaryMaterials()) != null) {
@@ -3454,16 +4049,17 @@ PointAttachable, ConnectableBody {
       if (D != null) {
          if (softIncomp == IncompMethod.NODAL && e instanceof TetElement) {
             // tet nodal incompressibility
-            ((TetElement)e).getAreaWeightedNormals(myNodalConstraints);
+            Vector3d[] nodalConstraints = ws.myNodalConstraints;
+            ((TetElement)e).getAreaWeightedNormals(nodalConstraints);
             for (int i = 0; i < 4; i++) {
-               myNodalConstraints[i].scale(-1 / 12.0);
+               nodalConstraints[i].scale(-1 / 12.0);
             }
 
             for (int i=0; i<e.numNodes(); ++i) {
                for (FemNodeNeighbor nbr : getNodeNeighbors(e.myNodes[i])) {
                   int j = e.getLocalNodeIndex(nbr.myNode);
                   if (j != -1) {
-                     nbr.myDivBlk.scaledAdd(1, myNodalConstraints[j]);
+                     nbr.myDivBlk.scaledAdd(1, nodalConstraints[j]);
                   }
                }
             }
@@ -3477,7 +4073,7 @@ PointAttachable, ConnectableBody {
                      int bj = e.myNodes[j].getLocalSolveIndex();
                      if (!mySolveMatrixSymmetricP || bj >= bi) {
                         e.myNbrs[i][j].addDilationalStiffness(
-                           myRinv, constraints[i], constraints[j]);
+                           ws.myRinv, constraints[i], constraints[j]);
                      }
                   }
                }
@@ -3486,6 +4082,249 @@ PointAttachable, ConnectableBody {
       }
    }
 
+   /**
+    * Returns the quadrature kernel for this model's volumetric elements,
+    * creating it if necessary, or {@code null} if quadrature kernels are
+    * disabled.
+    */
+   protected FemQuadratureKernel getQuadratureKernel() {
+      if (!myUseQuadratureKernels) {
+         return null;
+      }
+      if (myQuadratureKernel == null) {
+         myQuadratureKernel = new FemQuadratureKernel (myElements);
+      }
+      return myQuadratureKernel;
+   }
+
+   /**
+    * Queries whether the stress and stiffness for an element can be computed
+    * using a quadrature kernel. This requires that the element is supported
+    * by the kernel, and that its material is non-linear and stateless, with
+    * no augmenting or auxiliary materials, plastic deformation, nodal stress
+    * or strain requests, or element-based or nodal soft incompressibility.
+    */
+   protected boolean canUseQuadratureKernel (
+      FemQuadratureKernel kernel, FemElement3d e, FemMaterial mat,
+      ArrayList<FemMaterial> amats, IncompMethod softIncomp) {
+
+      return (kernel.containsElement (e) &&
+              !mat.isLinear() && !mat.hasState() &&
+              (amats == null || amats.size() == 0) &&
+              e.numAugmentingMaterials() == 0 &&
+              e.numAuxiliaryMaterials() == 0 &&
+              e.getPlasticDeformation() == null &&
+              e.needsStressStrain() == 0 &&
+              (softIncomp == IncompMethod.OFF ||
+               softIncomp == IncompMethod.FULL));
+   }
+
+   /**
+    * Computes the stress and stiffness for a volumetric element using a
+    * quadrature kernel. This performs the same computation as the general
+    * method for the subset of cases accepted by {@link
+    * #canUseQuadratureKernel}, but obtains deformation and shape function
+    * gradients from the kernel's packed rest-state data, and uses only the
+    * workspace's scratch storage.
+    */
+   protected void computeKernelStressAndStiffness (
+      FemQuadratureKernel kernel, FemElement3d e, FemMaterial mat,
+      Matrix6d D, IncompMethod softIncomp, AssemblyWorkspace ws) {
+
+      kernel.updateElement (e);
+      IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
+      IntegrationData3d[] idata = e.getIntegrationData();
+      FemNode3d[] nodes = e.myNodes;
+      FemDeformedPoint dpnt = ws.myDpnt;
+      SymmetricMatrix3d sigma = ws.mySigma;
+      Vector3d[] GNx = ws.getShapeGradientStorage (nodes.length);
+      IncompressibleMaterialBase imat = mat.getIncompressibleComponent();
+
+      e.setInverted(false); // will check this below
+      boolean invertible = (e.materialsAreInvertible());
+
+      for (int k = 0; k < ipnts.length; k++) {
+         IntegrationPoint3d pt = ipnts[k];
+         IntegrationData3d dt = idata[k];
+
+         double detF = kernel.computeGradients (ws.myF, ws.myInvF, GNx, e, k);
+         dpnt.setFromGradient (pt, ws.myF, detF, null, e);
+
+         double detJ = detF*kernel.getDetJ0 (e, k);
+         ws.checkElementCondition (e, detJ, !invertible);
+         double dV = kernel.getWeightedDetJ0 (e, k);
+         double dv = detF*dV;
+
+         double pressure = 0;
+         double K = 0;
+         if (softIncomp == IncompMethod.FULL) {
+            K = imat.getBulkModulus(dpnt);
+            pressure = imat.getEffectivePressure(K, detF);
+         }
+         dpnt.setAveragePressure(pressure);
+
+         // anisotropy rotational frame
+         Matrix3d Q = (dt.myFrame != null ? dt.myFrame : Matrix3d.IDENTITY);
+         sigma.setZero();
+         if (D != null) {
+            D.setZero();
+         }
+         mat.computeStressAndTangent (sigma, D, dpnt, Q, 0.0, null);
+
+         double kp = 0;
+         if (D != null && softIncomp == IncompMethod.FULL) {
+            kp = imat.getEffectiveModulus(K, detF) * dV;
+         }
+         addKernelPointForceAndStiffness (
+            e, GNx, sigma, D, pressure, kp, dv);
+      }
+   }
+
+   /**
+    * Adds the nodal forces, and stiffnesses if {@code D} is non-{@code
+    * null}, arising from the stress and tangent at a single integration
+    * point of an element processed using a quadrature kernel.
+    */
+   private void addKernelPointForceAndStiffness (
+      FemElement3d e, Vector3d[] GNx, SymmetricMatrix3d sigma, Matrix6d D,
+      double pressure, double kp, double dv) {
+
+      FemNode3d[] nodes = e.myNodes;
+      for (int i = 0; i < nodes.length; i++) {
+         FemNode3d nodei = nodes[i];
+         FemUtilities.addStressForce(
+            nodei.myInternalForce, GNx[i], sigma, dv);
+
+         int bi = nodei.getLocalSolveIndex();
+         if (D != null && bi != -1) {
+            for (int j = 0; j < nodes.length; j++) {
+               int bj = nodes[j].getLocalSolveIndex();
+               if (!mySolveMatrixSymmetricP || bj >= bi) {
+                  FemNodeNeighbor nbr = e.myNbrs[i][j];
+                  nbr.addMaterialStiffness (GNx[i], D, GNx[j], dv);
+                  nbr.addGeometricStiffness (GNx[i], sigma, GNx[j], dv);
+                  nbr.addPressureStiffness (GNx[i], pressure, GNx[j], dv);
+                  if (kp != 0) {
+                     nbr.addDilationalStiffness (kp, GNx[i], GNx[j]);
+                  }
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Computes the stress and stiffness for a volumetric element, deferring
+    * the material evaluation if possible. If the element can be processed
+    * using a quadrature kernel, and material batching is enabled (see
+    * {@link #setMaterialBatchSize}), the deformations at its integration
+    * points are added to the workspace's material batch, and its forces and
+    * stiffnesses are added when the batch is flushed by {@link
+    * #flushMaterialBatch}. Otherwise, any pending batch is flushed and the
+    * element is processed immediately. Callers must call {@code
+    * flushMaterialBatch} once all elements have been supplied.
+    */
+   protected void computeBatchedStressAndStiffness (
+      FemElement3d e, FemMaterial mat, ArrayList<FemMaterial> amats, 
+      Matrix6d D, IncompMethod softIncomp, AssemblyWorkspace ws) {
+
+      if (!mat.isIncompressible()) {
+         softIncomp = IncompMethod.OFF;
+      }
+      FemQuadratureKernel kernel = getQuadratureKernel();
+      if (myMaterialBatchSize <= 1 || kernel == null ||
+          !canUseQuadratureKernel (kernel, e, mat, amats, softIncomp)) {
+         flushMaterialBatch (ws);
+         computeStressAndStiffness (e, mat, amats, D, softIncomp, ws);
+         return;
+      }
+      IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
+      boolean tangent = (D != null);
+      if (ws.myBatchNum > 0 &&
+          (mat != ws.myBatchMat || softIncomp != ws.myBatchIncomp ||
+           tangent != ws.myBatchTangentP ||
+           ws.myBatchNum + ipnts.length > myMaterialBatchSize)) {
+         flushMaterialBatch (ws);
+      }
+      ws.myBatchMat = mat;
+      ws.myBatchIncomp = softIncomp;
+      ws.myBatchTangentP = tangent;
+
+      kernel.updateElement (e);
+      IntegrationData3d[] idata = e.getIntegrationData();
+      FemNode3d[] nodes = e.myNodes;
+      DeformedPointBatch batch = ws.myBatch;
+      IncompressibleMaterialBase imat = mat.getIncompressibleComponent();
+
+      e.setInverted(false); // will check this below
+      boolean invertible = (e.materialsAreInvertible());
+
+      for (int k = 0; k < ipnts.length; k++) {
+         int b = ws.addBatchPoint (e, nodes.length);
+         FemDeformedPoint dpnt = ws.myBatchDpnts[b];
+
+         double detF = kernel.computeGradients (
+            ws.myF, ws.myInvF, ws.myBatchGNx[b], e, k);
+         dpnt.setFromGradient (ipnts[k], ws.myF, detF, null, e);
+
+         double detJ = detF*kernel.getDetJ0 (e, k);
+         ws.checkElementCondition (e, detJ, !invertible);
+         double dV = kernel.getWeightedDetJ0 (e, k);
+
+         double pressure = 0;
+         double kp = 0;
+         if (softIncomp == IncompMethod.FULL) {
+            double K = imat.getBulkModulus(dpnt);
+            pressure = imat.getEffectivePressure(K, detF);
+            if (tangent) {
+               kp = imat.getEffectiveModulus(K, detF) * dV;
+            }
+         }
+         dpnt.setAveragePressure(pressure);
+
+         batch.set (b, ws.myF, detF, pressure);
+         batch.setDeformedPoint (b, dpnt);
+         batch.setFrame (b, idata[k].myFrame);
+         ws.myBatchDv[b] = detF*dV;
+         ws.myBatchKp[b] = kp;
+      }
+   }
+
+   /**
+    * Evaluates the material for any integration points pending in a
+    * workspace's material batch, and adds the resulting nodal forces and
+    * stiffnesses, in the order the points were added. See {@link
+    * #computeBatchedStressAndStiffness}.
+    */
+   protected void flushMaterialBatch (AssemblyWorkspace ws) {
+      int num = ws.myBatchNum;
+      if (num == 0) {
+         return;
+      }
+      boolean tangent = ws.myBatchTangentP;
+      ws.myBatchMat.computeStressAndTangent (
+         ws.myBatchSigma, tangent ? ws.myBatchD : null, ws.myBatch, 0.0);
+
+      DeformedPointBatch batch = ws.myBatch;
+      SymmetricMatrix3d sigma = ws.mySigma;
+      Matrix6d D = (tangent ? ws.myD : null);
+      for (int b=0; b<num; b++) {
+         DeformedPointBatch.unpackSymmetric (sigma, ws.myBatchSigma, b);
+         if (D != null) {
+            DeformedPointBatch.unpackTangent (D, ws.myBatchD, b);
+         }
+         addKernelPointForceAndStiffness (
+            ws.myBatchElems[b], ws.myBatchGNx[b], sigma, D,
+            batch.getPressure(b), ws.myBatchKp[b], ws.myBatchDv[b]);
+         // release references so they can be garbage collected
+         ws.myBatchElems[b] = null;
+         batch.setDeformedPoint (b, null);
+      }
+      ws.myBatchNum = 0;
+      ws.myBatchMat = null;
+      batch.setNumPoints (0);
+   }
+
    protected void computeShellStressAndStiffness(
       ShellElement3d e, FemMaterial mat,
       ArrayList<FemMaterial> amats, Matrix6d D) {
@@ -5343,6 +6182,10 @@ PointAttachable, ConnectableBody {
       for (int i = 0; i < MAX_NODAL_INCOMP_NODES; i++) {
          fem.myNodalConstraints[i] = new Vector3d();
       }
+      fem.myRinv = new MatrixNd();
+      fem.myElementColors = null;
+      fem.mySerialWorkspace = null;
+      fem.myAssemblyWorkspaces = null;
       if ((flags & CopyableComponent.REST_POSITION) != 0) {
          fem.updateSlavePos();
       }
@@ -17,6 +17,9 @@ import maspack.spatialmotion.*;
 import artisynth.core.mechmodels.*;
 import artisynth.core.modelbase.*;
 import artisynth.core.materials.*;
+import artisynth.core.util.*;
+import artisynth.core.femmodels.FemFactory.FemElementType;
+import artisynth.core.femmodels.FemModel.IncompMethod;
 
 public class FemModel3dTest extends UnitTest {
 
@@ -542,10 +545,379 @@ public class FemModel3dTest extends UnitTest {
       testFindElem (fem, VOLUME, 9.0,-0.5, 9.0,   1.0,-0.5, 1.0, VOLUME, 5);
    }
 
-   public void test() {
+   private ArrayList<Vector3d> getInternalForces (FemModel3d fem) {
+      ArrayList<Vector3d> forces = new ArrayList<Vector3d>();
+      for (FemNode3d n : fem.getNodes()) {
+         forces.add (new Vector3d (n.getInternalForce()));
+      }
+      return forces;
+   }
+
+   private ArrayList<Matrix3d> getNeighborStiffnesses (FemModel3d fem) {
+      ArrayList<Matrix3d> stiffnesses = new ArrayList<Matrix3d>();
+      for (FemNode3d n : fem.getNodes()) {
+         for (FemNodeNeighbor nbr : n.getNodeNeighbors()) {
+            stiffnesses.add (new Matrix3d (nbr.getK00()));
+         }
+      }
+      return stiffnesses;
+   }
+
+   /**
+    * Creates a grid model with a given element type, material and soft
+    * incompressibility method, and randomly perturbs its nodes so that
+    * its elements are deformed.
+    */
+   private FemModel3d createDeformedGrid (
+      FemElementType type, int nx, int ny, int nz,
+      FemMaterial mat, IncompMethod softIncomp, double maxDisp) {
+
+      FemModel3d fem = new FemModel3d();
+      FemFactory.createGrid (fem, type, 2.0, 1.0, 1.0, nx, ny, nz);
+      fem.setMaterial (mat);
+      fem.setSoftIncompMethod (softIncomp);
+      for (FemNode3d n : fem.getNodes()) {
+         Vector3d del = new Vector3d();
+         del.setRandom (-maxDisp, maxDisp);
+         Point3d pos = new Point3d (n.getPosition());
+         pos.add (del);
+         n.setPosition (pos);
+      }
+      return fem;
+   }
+
+   /**
+    * Nodal forces and neighbor stiffnesses of a model, used as reference
+    * values when checking different assembly methods.
+    */
+   private class AssemblyResults {
+      ArrayList<Vector3d> myForces;
+      ArrayList<Matrix3d> myStiffnesses;
+
+      AssemblyResults (FemModel3d fem) {
+         fem.invalidateStressAndStiffness();
+         fem.updateStressAndStiffness();
+         myForces = getInternalForces (fem);
+         myStiffnesses = getNeighborStiffnesses (fem);
+      }
+
+      /**
+       * Checks the current forces of a model against the reference values.
+       */
+      void checkForces (String msg, FemModel3d fem) {
+         ArrayList<Vector3d> forces = getInternalForces (fem);
+         for (int i=0; i<myForces.size(); i++) {
+            double tol = 1e-10*Math.max(1, myForces.get(i).norm());
+            checkEquals (msg+" force "+i, forces.get(i), myForces.get(i), tol);
+         }
+      }
+
+      /**
+       * Recomputes the forces and stiffnesses of a model and checks them
+       * against the reference values.
+       */
+      void check (String msg, FemModel3d fem) {
+         fem.invalidateStressAndStiffness();
+         fem.updateStressAndStiffness();
+         checkForces (msg, fem);
+         ArrayList<Matrix3d> stiffnesses = getNeighborStiffnesses (fem);
+         for (int i=0; i<myStiffnesses.size(); i++) {
+            Matrix3d K = myStiffnesses.get(i);
+            double tol = 1e-10*Math.max(1, K.frobeniusNorm());
+            if (!stiffnesses.get(i).epsilonEquals (K, tol)) {
+               throw new TestException (
+                  msg+" stiffness "+i+" =\n" + stiffnesses.get(i) +
+                  ", expected\n" + K);
+            }
+         }
+      }
+   }
+
+   /**
+    * Sets the minimum number of elements per assembly thread to 1, so that
+    * parallel assembly uses several chunks even for small models, and
+    * returns the previous value, which callers should restore in a
+    * {@code finally} block.
+    */
+   private int forceAssemblyChunking() {
+      int minElems = FemModel3d.MIN_ELEMS_PER_ASSEMBLY_THREAD;
+      FemModel3d.MIN_ELEMS_PER_ASSEMBLY_THREAD = 1;
+      return minElems;
+   }
+
+   private void testParallelAssembly (
+      FemElementType type, FemMaterial mat, IncompMethod softIncomp) {
+
+      FemModel3d fem = createDeformedGrid (
+         type, 6, 3, 3, mat, softIncomp, 0.02);
+      AssemblyResults results = new AssemblyResults (fem);
+
+      // make sure that each color contains elements with disjoint nodes
+      int[][] colors = fem.computeElementColors();
+      int numColored = 0;
+      for (int[] elemIdxs : colors) {
+         HashSet<FemNode3d> nodes = new HashSet<FemNode3d>();
+         for (int idx : elemIdxs) {
+            for (FemNode3d n : fem.getElements().get(idx).getNodes()) {
+               check ("node shared within element color", nodes.add (n));
+            }
+         }
+         numColored += elemIdxs.length;
+      }
+      check ("all elements colored", numColored == fem.numElements());
+
+      int minElems = forceAssemblyChunking();
+      try {
+         fem.setParallelAssembly (true);
+         fem.setNumAssemblyThreads (4);
+         for (int k=0; k<2; k++) {
+            results.check ("parallel", fem);
+         }
+      }
+      finally {
+         FemModel3d.MIN_ELEMS_PER_ASSEMBLY_THREAD = minElems;
+      }
+   }
+
+   private void testParallelAssembly() {
+      testParallelAssembly (
+         FemElementType.Tet, new NeoHookeanMaterial(), IncompMethod.OFF);
+      testParallelAssembly (
+         FemElementType.Tet, new LinearMaterial(), IncompMethod.OFF);
+      testParallelAssembly (
+         FemElementType.Tet, new MooneyRivlinMaterial (
+            10000, 0, 0, 0, 0, 1000000), IncompMethod.NODAL);
+      testParallelAssembly (
+         FemElementType.Hex, new MooneyRivlinMaterial (
+            10000, 0, 0, 0, 0, 1000000), IncompMethod.ELEMENT);
+      testParallelAssembly (
+         FemElementType.QuadTet, new NeoHookeanMaterial(), IncompMethod.OFF);
+   }
+
+   /**
+    * Checks parallel assembly for elements that are handled by neither
+    * quadrature kernels nor material batching, so that materials are
+    * evaluated using per-thread copies. Also checks that the copies are
+    * updated when a material property changes.
+    */
+   private void testParallelMaterialCopies (
+      FemElementType type, IncompMethod softIncomp) {
+
+      MooneyRivlinMaterial mat =
+         new MooneyRivlinMaterial (10000, 2000, 100, 200, 300, 1000000);
+      FemModel3d fem = createDeformedGrid (
+         type, 6, 3, 3, mat, softIncomp, 0.05);
+      fem.setUseQuadratureKernels (false);
+      fem.setMaterialBatchSize (0);
+      mat = (MooneyRivlinMaterial)fem.getMaterial();
+      int minElems = forceAssemblyChunking();
+      try {
+         for (double c10 : new double[] { 10000, 30000 }) {
+            mat.setC10 (c10);
+            fem.setParallelAssembly (false);
+            AssemblyResults results = new AssemblyResults (fem);
+
+            fem.setParallelAssembly (true);
+            fem.setNumAssemblyThreads (4);
+            for (int k=0; k<3; k++) {
+               results.check ("parallel, C10="+c10, fem);
+            }
+         }
+      }
+      finally {
+         FemModel3d.MIN_ELEMS_PER_ASSEMBLY_THREAD = minElems;
+      }
+   }
+
+   /**
+    * Checks parallel assembly when both the model and some of its elements
+    * have augmenting materials, since each thread then uses separate copies
+    * of the model-level and element-level material lists.
+    */
+   private void testParallelAugmentingMaterials (FemElementType type) {
+      FemModel3d fem = createDeformedGrid (
+         type, 6, 3, 3, new NeoHookeanMaterial (10000, 0.33),
+         IncompMethod.OFF, 0.05);
+      fem.addMaterialBundle (
+         new MaterialBundle (
+            "all", new NeoHookeanMaterial (5000, 0.2), /*useAll=*/true));
+      MaterialBundle bundle = new MaterialBundle (
+         "some", new MooneyRivlinMaterial (
+            3000, 500, 0, 0, 0, 100000), /*useAll=*/false);
+      fem.addMaterialBundle (bundle);
+      for (int i=0; i<fem.numElements(); i+=4) {
+         bundle.addElement (fem.getElement(i));
+      }
+      AssemblyResults results = new AssemblyResults (fem);
+
+      int minElems = forceAssemblyChunking();
+      try {
+         fem.setParallelAssembly (true);
+         fem.setNumAssemblyThreads (4);
+         for (int k=0; k<2; k++) {
+            results.check ("parallel augmented", fem);
+         }
+      }
+      finally {
+         FemModel3d.MIN_ELEMS_PER_ASSEMBLY_THREAD = minElems;
+      }
+   }
+
+   private void testQuadratureKernels (
+      FemElementType type, FemMaterial mat, IncompMethod softIncomp) {
+
+      FemModel3d fem = createDeformedGrid (
+         type, 4, 2, 2, mat, softIncomp, 0.05);
+      fem.setUseQuadratureKernels (false);
+      AssemblyResults results = new AssemblyResults (fem);
+
+      fem.setUseQuadratureKernels (true);
+      results.check ("kernel", fem);
+
+      int minElems = forceAssemblyChunking();
+      try {
+         fem.setParallelAssembly (true);
+         fem.setNumAssemblyThreads (4);
+         results.check ("parallel kernel", fem);
+      }
+      finally {
+         FemModel3d.MIN_ELEMS_PER_ASSEMBLY_THREAD = minElems;
+      }
+      fem.setParallelAssembly (false);
+
+      // changing the rest state must update the kernel data
+      fem.resetRestPosition();
+      fem.invalidateStressAndStiffness();
+      fem.updateStressAndStiffness();
+      for (FemNode3d n : fem.getNodes()) {
+         checkEquals (
+            "force at rest", n.getInternalForce(), Vector3d.ZERO, 1e-8);
+      }
+   }
+
+   private void testQuadratureKernels() {
+      testQuadratureKernels (
+         FemElementType.Tet, new NeoHookeanMaterial(), IncompMethod.OFF);
+      testQuadratureKernels (
+         FemElementType.Hex, new NeoHookeanMaterial(), IncompMethod.OFF);
+      testQuadratureKernels (
+         FemElementType.QuadTet, new NeoHookeanMaterial(), IncompMethod.OFF);
+      testQuadratureKernels (
+         FemElementType.Hex, new MooneyRivlinMaterial (
+            10000, 0, 0, 0, 0, 1000000), IncompMethod.FULL);
+      testQuadratureKernels (
+         FemElementType.Tet, new MooneyRivlinMaterial (
+            10000, 0, 0, 0, 0, 1000000), IncompMethod.FULL);
+   }
+
+   private void testMaterialBatching (
+      FemElementType type, FemMaterial mat, IncompMethod softIncomp) {
+
+      FemModel3d fem = createDeformedGrid (
+         type, 4, 2, 2, mat, softIncomp, 0.05);
+      // batching applies only to elements processed by quadrature kernels
+      fem.setUseQuadratureKernels (true);
+      // give some elements their own material so that batches are flushed
+      // when the material changes
+      FemMaterial emat = mat.clone();
+      for (int i=0; i<fem.numElements(); i+=3) {
+         fem.getElement(i).setMaterial (emat);
+      }
+      fem.setMaterialBatchSize (0);
+      AssemblyResults results = new AssemblyResults (fem);
+
+      int minElems = forceAssemblyChunking();
+      try {
+         for (int size : new int[] { 64, 5 }) {
+            fem.setMaterialBatchSize (size);
+            fem.setParallelAssembly (false);
+            results.check ("batched", fem);
+
+            fem.setParallelAssembly (true);
+            fem.setNumAssemblyThreads (4);
+            results.check ("parallel batched", fem);
+
+            // forces only
+            fem.updateStress();
+            results.checkForces ("batched stress", fem);
+         }
+      }
+      finally {
+         FemModel3d.MIN_ELEMS_PER_ASSEMBLY_THREAD = minElems;
+      }
+   }
+
+   private void testMaterialBatching() {
+      testMaterialBatching (
+         FemElementType.Tet, new NeoHookeanMaterial(), IncompMethod.OFF);
+      testMaterialBatching (
+         FemElementType.Hex, new NeoHookeanMaterial(), IncompMethod.OFF);
+      testMaterialBatching (
+         FemElementType.QuadTet, new MooneyRivlinMaterial (
+            10000, 2000, 100, 200, 300, 1000000), IncompMethod.FULL);
+      testMaterialBatching (
+         FemElementType.Hex, new IncompNeoHookeanMaterial (
+            10000, 1000000), IncompMethod.FULL);
+      // material without a batch implementation
+      testMaterialBatching (
+         FemElementType.Tet, new StVenantKirchoffMaterial (10000, 0.33),
+         IncompMethod.OFF);
+   }
+
+   private void testSnapshot() throws IOException {
+      FemModel3d fem = FemFactory.createHexGrid (
+         null, 1.0, 0.5, 0.5, 8, 4, 4);
+      fem.setName ("fem");
+      for (FemNode3d n : fem.getNodes()) {
+         // perturb positions so that they don't print exactly
+         Vector3d del = new Vector3d();
+         del.setRandom (-1e-3, 1e-3);
+         n.getPosition().add (del);
+      }
+      File file = File.createTempFile ("femSnapshot", ".snp");
+      file.deleteOnExit();
+      ScanWriteUtils.writeComponentSnapshot (
+         file, new NumberFormat ("%g"), fem, fem);
+
+      ReaderTokenizer rtok = ArtisynthIO.newReaderTokenizer (file);
+      if (!(rtok instanceof SnapshotTokenizer)) {
+         throw new TestException ("snapshot file not detected");
+      }
+      ScanWriteUtils.ClassInfo<ModelComponent> classInfo =
+         ScanWriteUtils.scanClassInfo (rtok, ModelComponent.class);
+      FemModel3d copy = (FemModel3d)ScanWriteUtils.newComponent (
+         rtok, classInfo, /*warnOnly=*/false);
+      ScanWriteUtils.scanfull (rtok, copy, copy);
+      rtok.close();
+      file.delete();
+
+      checkEquals ("number of nodes", copy.numNodes(), fem.numNodes());
+      checkEquals ("number of elements", copy.numElements(), fem.numElements());
+      for (int i=0; i<fem.numElements(); i++) {
+         FemNode3d[] nodes = fem.getElement(i).getNodes();
+         FemNode3d[] cnodes = copy.getElement(i).getNodes();
+         for (int k=0; k<nodes.length; k++) {
+            checkEquals (
+               "element "+i+" node "+k,
+               cnodes[k].getNumber(), nodes[k].getNumber());
+         }
+      }
+      checkModelsEqual ("models read from snapshot", fem, copy);
+   }
+
+   public void test() throws IOException {
       //testFrameRelativeMass();
       testFindNearestElement();
       testFemCopy();
+      testParallelAssembly();
+      testParallelMaterialCopies (FemElementType.Wedge, IncompMethod.ELEMENT);
+      testParallelMaterialCopies (FemElementType.Pyramid, IncompMethod.OFF);
+      testParallelMaterialCopies (FemElementType.Hex, IncompMethod.NODAL);
+      testParallelAugmentingMaterials (FemElementType.Tet);
+      testParallelAugmentingMaterials (FemElementType.Hex);
+      testQuadratureKernels();
+      testMaterialBatching();
+      testSnapshot();
    }
 
    public static void main (String[] args) {
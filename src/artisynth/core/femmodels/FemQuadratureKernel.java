@@ -0,0 +1,192 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import maspack.matrix.Matrix3d;
+import maspack.matrix.Vector3d;
+
+/**
+ * Packed rest-state quadrature data for the linear and quadratic tetrahedral
+ * and linear hexahedral elements of a FemModel3d. For each integration point
+ * of each supported element, the kernel stores the rest-state shape function
+ * gradients dN/dX, along with the rest Jacobian determinant and its product
+ * with the integration weight, in contiguous arrays. This allows the
+ * deformation gradient F, the current shape function gradients, and the
+ * current volume factor to be computed directly from the node positions,
+ * without forming the Jacobian, inverting it, or allocating any storage.
+ *
+ * <p>Element data is computed lazily, and recomputed after the element's rest
+ * data is invalidated. Elements are assigned their locations within the
+ * kernel's arrays when the kernel is created, and so the kernel must be
+ * discarded whenever the model's elements change.
+ */
+public class FemQuadratureKernel {
+
+   protected double[] myGrads;    // rest shape gradients, 3 per node per point
+   protected double[] myDetJ0;    // rest Jacobian determinant per point
+   protected double[] myWeightedDetJ0; // rest determinant times weight
+
+   /**
+    * Queries whether an element is handled by quadrature kernels.
+    *
+    * @param e element to query
+    * @return {@code true} if {@code e} is supported
+    */
+   public static boolean isSupported (FemElement3d e) {
+      return (e instanceof TetElement ||
+              e instanceof HexElement ||
+              e instanceof QuadtetElement);
+   }
+
+   /**
+    * Creates a kernel for a list of elements, assigning each supported
+    * element its location within the packed arrays.
+    *
+    * @param elems elements to be handled by the kernel
+    */
+   public FemQuadratureKernel (Iterable<? extends FemElement3d> elems) {
+      int npnts = 0;
+      int ngrads = 0;
+      for (FemElement3d e : elems) {
+         if (isSupported (e)) {
+            e.myKernelPointOffset = npnts;
+            e.myKernelGradOffset = ngrads;
+            npnts += e.numIntegrationPoints();
+            ngrads += 3*e.numNodes()*e.numIntegrationPoints();
+         }
+         else {
+            e.myKernelPointOffset = -1;
+            e.myKernelGradOffset = -1;
+         }
+         e.myKernelDataValid = false;
+      }
+      myGrads = new double[ngrads];
+      myDetJ0 = new double[npnts];
+      myWeightedDetJ0 = new double[npnts];
+   }
+
+   /**
+    * Queries whether this kernel holds data for a specific element.
+    *
+    * @param e element to query
+    * @return {@code true} if the kernel holds data for {@code e}
+    */
+   public boolean containsElement (FemElement3d e) {
+      return e.myKernelPointOffset != -1;
+   }
+
+   /**
+    * Updates the rest-state data for an element if necessary. Since this
+    * may compute the element's integration data, it should not be called
+    * concurrently for elements that share nodes.
+    *
+    * @param e element to update
+    */
+   public void updateElement (FemElement3d e) {
+      if (e.myKernelDataValid) {
+         return;
+      }
+      IntegrationPoint3d[] ipnts = e.getIntegrationPoints();
+      IntegrationData3d[] idata = e.getIntegrationData();
+      int nnodes = e.numNodes();
+      int goff = e.myKernelGradOffset;
+      int poff = e.myKernelPointOffset;
+      for (int k=0; k<ipnts.length; k++) {
+         Matrix3d invJ0 = idata[k].getInvJ0();
+         Vector3d[] GNs = ipnts[k].getGNs();
+         for (int i=0; i<nnodes; i++) {
+            // g = invJ0^T GNs
+            Vector3d dNds = GNs[i];
+            myGrads[goff++] =
+               invJ0.m00*dNds.x + invJ0.m10*dNds.y + invJ0.m20*dNds.z;
+            myGrads[goff++] =
+               invJ0.m01*dNds.x + invJ0.m11*dNds.y + invJ0.m21*dNds.z;
+            myGrads[goff++] =
+               invJ0.m02*dNds.x + invJ0.m12*dNds.y + invJ0.m22*dNds.z;
+         }
+         double detJ0 = idata[k].getDetJ0();
+         myDetJ0[poff+k] = detJ0;
+         myWeightedDetJ0[poff+k] = detJ0*ipnts[k].getWeight();
+      }
+      e.myKernelDataValid = true;
+   }
+
+   /**
+    * Returns the rest Jacobian determinant for an integration point.
+    *
+    * @param e element containing the point
+    * @param k integration point index
+    * @return rest Jacobian determinant
+    */
+   public double getDetJ0 (FemElement3d e, int k) {
+      return myDetJ0[e.myKernelPointOffset+k];
+   }
+
+   /**
+    * Returns the product of the rest Jacobian determinant and the weight for
+    * an integration point.
+    *
+    * @param e element containing the point
+    * @param k integration point index
+    * @return rest Jacobian determinant times integration weight
+    */
+   public double getWeightedDetJ0 (FemElement3d e, int k) {
+      return myWeightedDetJ0[e.myKernelPointOffset+k];
+   }
+
+   /**
+    * Computes the deformation gradient F and the current shape function
+    * gradients dN/dx for an integration point, using the current local
+    * positions of the element nodes. The element's data must be up to date.
+    *
+    * @param F returns the deformation gradient
+    * @param invF returns the inverse of F
+    * @param GNx returns the current shape function gradients. Must have a
+    * length at least equal to the number of element nodes.
+    * @param e element containing the point
+    * @param k integration point index
+    * @return determinant of F
+    */
+   public double computeGradients (
+      Matrix3d F, Matrix3d invF, Vector3d[] GNx, FemElement3d e, int k) {
+
+      FemNode3d[] nodes = e.myNodes;
+      int nnodes = nodes.length;
+      double[] grads = myGrads;
+      int off = e.myKernelGradOffset + 3*nnodes*k;
+
+      // F = sum_i x_i g_i^T
+      double f00 = 0, f01 = 0, f02 = 0;
+      double f10 = 0, f11 = 0, f12 = 0;
+      double f20 = 0, f21 = 0, f22 = 0;
+      for (int i=0, j=off; i<nnodes; i++, j+=3) {
+         Vector3d pos = nodes[i].getLocalPosition();
+         double gx = grads[j];
+         double gy = grads[j+1];
+         double gz = grads[j+2];
+         f00 += pos.x*gx; f01 += pos.x*gy; f02 += pos.x*gz;
+         f10 += pos.y*gx; f11 += pos.y*gy; f12 += pos.y*gz;
+         f20 += pos.z*gx; f21 += pos.z*gy; f22 += pos.z*gz;
+      }
+      F.m00 = f00; F.m01 = f01; F.m02 = f02;
+      F.m10 = f10; F.m11 = f11; F.m12 = f12;
+      F.m20 = f20; F.m21 = f21; F.m22 = f22;
+      double detF = invF.fastInvert (F);
+
+      // dN/dx = invF^T g
+      for (int i=0, j=off; i<nnodes; i++, j+=3) {
+         double gx = grads[j];
+         double gy = grads[j+1];
+         double gz = grads[j+2];
+         Vector3d gnx = GNx[i];
+         gnx.x = invF.m00*gx + invF.m10*gy + invF.m20*gz;
+         gnx.y = invF.m01*gx + invF.m11*gy + invF.m21*gz;
+         gnx.z = invF.m02*gx + invF.m12*gy + invF.m22*gz;
+      }
+      return detF;
+   }
+}
@@ -0,0 +1,302 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import artisynth.core.femmodels.PointSkinAttachment.FrameConnection;
+import artisynth.core.femmodels.SkinMeshBody.FrameBlending;
+import artisynth.core.femmodels.SkinMeshBody.FrameInfo;
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.Vertex3d;
+import maspack.matrix.DualQuaternion;
+import maspack.matrix.Point3d;
+import maspack.matrix.PolarDecomposition3d;
+import maspack.matrix.RigidTransform3d;
+
+/**
+ * Packed form of the vertex attachments of a {@link SkinMeshBody}, used to
+ * update the vertex positions without visiting each {@link
+ * PointSkinAttachment}. The frame connections of all vertices are stored in
+ * compressed row format, with the frame indices and weights for vertex
+ * <code>i</code> located between <code>myConnOffs[i]</code> and
+ * <code>myConnOffs[i+1]</code>, and the base positions and weights are
+ * stored in flat arrays. Vertices are then updated in parallel chunks.
+ *
+ * <p>The arithmetic is performed in the same order as in {@link
+ * PointSkinAttachment#computePosState}, so that the resulting positions are
+ * identical. Vertices with FEM connections are not packed, and are
+ * instead updated serially using their attachments, since FEM connections
+ * compute element rotations on demand.
+ */
+class PackedSkinAttachments {
+
+   // vertex has no attachment and is not updated
+   static final byte NONE = 0;
+   // vertex has only frame connections and is updated from the packed data
+   static final byte PACKED = 1;
+   // vertex has FEM connections and is updated using its attachment
+   static final byte GENERAL = 2;
+
+   int myNumVertices;
+   byte[] myModes;
+   PointSkinAttachment[] myGeneralAttachments;
+   int[] myGeneralVertices;
+
+   int[] myConnOffs;
+   int[] myFrameIdxs;
+   float[] myWeights;
+   double[] myBasePos;
+   float[] myBaseWeights;
+   int myMaxConnections;
+
+   FrameInfo[] myFrameInfos;
+   // delta pose for each frame, stored as the 9 entries of R (row major)
+   // followed by p
+   double[] myPoses;
+
+   PackedSkinAttachments (SkinMeshBody skin) {
+      int nverts = skin.numVertexAttachments();
+      HashMap<FrameInfo,Integer> frameIdxMap = new HashMap<>();
+      ArrayList<FrameInfo> frameInfos = new ArrayList<>();
+      ArrayList<Integer> generalVertices = new ArrayList<>();
+
+      myNumVertices = nverts;
+      myModes = new byte[nverts];
+      myConnOffs = new int[nverts+1];
+      myBasePos = new double[3*nverts];
+      myBaseWeights = new float[nverts];
+      int nconns = 0;
+      for (int i=0; i<nverts; i++) {
+         PointSkinAttachment a = skin.getVertexAttachment (i);
+         if (a == null) {
+            myModes[i] = NONE;
+         }
+         else if (a.getFemConnections() != null) {
+            myModes[i] = GENERAL;
+            generalVertices.add (i);
+         }
+         else {
+            myModes[i] = PACKED;
+            nconns += a.numFrameConnections();
+         }
+      }
+      myFrameIdxs = new int[nconns];
+      myWeights = new float[nconns];
+      myMaxConnections = 0;
+      int k = 0;
+      for (int i=0; i<nverts; i++) {
+         myConnOffs[i] = k;
+         if (myModes[i] != PACKED) {
+            continue;
+         }
+         PointSkinAttachment a = skin.getVertexAttachment (i);
+         for (FrameConnection c=a.getFrameConnections(); c!=null;
+              c=c.getNext()) {
+            Integer idx = frameIdxMap.get (c.myFrameInfo);
+            if (idx == null) {
+               idx = frameInfos.size();
+               frameIdxMap.put (c.myFrameInfo, idx);
+               frameInfos.add (c.myFrameInfo);
+            }
+            myFrameIdxs[k] = idx;
+            myWeights[k] = c.myWeight;
+            k++;
+         }
+         myMaxConnections = Math.max (myMaxConnections, k-myConnOffs[i]);
+         Point3d base = a.getBasePosition();
+         myBasePos[3*i  ] = base.x;
+         myBasePos[3*i+1] = base.y;
+         myBasePos[3*i+2] = base.z;
+         myBaseWeights[i] = a.getBaseWeight();
+      }
+      myConnOffs[nverts] = k;
+      myFrameInfos = frameInfos.toArray (new FrameInfo[0]);
+      myPoses = new double[12*myFrameInfos.length];
+
+      myGeneralVertices = new int[generalVertices.size()];
+      myGeneralAttachments = new PointSkinAttachment[generalVertices.size()];
+      for (int j=0; j<myGeneralVertices.length; j++) {
+         myGeneralVertices[j] = generalVertices.get(j);
+         myGeneralAttachments[j] =
+            skin.getVertexAttachment (myGeneralVertices[j]);
+      }
+   }
+
+   /**
+    * Returns the number of vertices described by this structure.
+    */
+   int numVertices() {
+      return myNumVertices;
+   }
+
+   /**
+    * Returns the number of vertices that are updated using their
+    * attachments instead of the packed data.
+    */
+   int numGeneralVertices() {
+      return myGeneralVertices.length;
+   }
+
+   private void updatePoses() {
+      for (int j=0; j<myFrameInfos.length; j++) {
+         RigidTransform3d T = myFrameInfos[j].myDeltaPose;
+         int off = 12*j;
+         myPoses[off++] = T.R.m00;
+         myPoses[off++] = T.R.m01;
+         myPoses[off++] = T.R.m02;
+         myPoses[off++] = T.R.m10;
+         myPoses[off++] = T.R.m11;
+         myPoses[off++] = T.R.m12;
+         myPoses[off++] = T.R.m20;
+         myPoses[off++] = T.R.m21;
+         myPoses[off++] = T.R.m22;
+         myPoses[off++] = T.p.x;
+         myPoses[off++] = T.p.y;
+         myPoses[off++] = T.p.z;
+      }
+   }
+
+   /**
+    * Updates the positions of the mesh vertices. The delta poses and (for
+    * dual-quaternion blending) the blend quaternions of the frame infos
+    * should already be up to date.
+    *
+    * @param vtxs mesh vertices
+    * @param blending frame blending method
+    * @param tol tolerance for iterative dual-quaternion blending
+    * @param maxSteps maximum steps for iterative dual-quaternion blending
+    * @param chunkSize minimum number of vertices per parallel chunk
+    */
+   void updatePositions (
+      final ArrayList<Vertex3d> vtxs, final FrameBlending blending,
+      final double tol, final int maxSteps, int chunkSize) {
+
+      if (blending == FrameBlending.LINEAR) {
+         updatePoses();
+      }
+      int nchunks = ParallelLoop.numChunks (
+         myNumVertices, 0, Math.max (1, chunkSize));
+      ParallelLoop.forEachChunk (
+         myNumVertices, nchunks, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               switch (blending) {
+                  case LINEAR: {
+                     updateLinear (vtxs, lo, hi);
+                     break;
+                  }
+                  case DUAL_QUATERNION_LINEAR:
+                  case DUAL_QUATERNION_ITERATIVE: {
+                     updateDualQuaternion (
+                        vtxs, blending, tol, maxSteps, lo, hi);
+                     break;
+                  }
+                  default: {
+                     throw new UnsupportedOperationException (
+                        "frameBlending "+blending+" not implemented");
+                  }
+               }
+            }
+         });
+      // vertices with FEM connections are updated serially
+      PolarDecomposition3d polard = new PolarDecomposition3d();
+      Point3d pos = new Point3d();
+      for (int j=0; j<myGeneralVertices.length; j++) {
+         myGeneralAttachments[j].computePosState (pos, polard);
+         vtxs.get(myGeneralVertices[j]).setPosition (pos);
+      }
+   }
+
+   private void updateLinear (ArrayList<Vertex3d> vtxs, int lo, int hi) {
+      double[] poses = myPoses;
+      double[] base = myBasePos;
+      Point3d pos = new Point3d();
+      for (int i=lo; i<hi; i++) {
+         if (myModes[i] != PACKED) {
+            continue;
+         }
+         double bx = base[3*i];
+         double by = base[3*i+1];
+         double bz = base[3*i+2];
+         double px = 0;
+         double py = 0;
+         double pz = 0;
+         for (int k=myConnOffs[i]; k<myConnOffs[i+1]; k++) {
+            int j = 12*myFrameIdxs[k];
+            double w = myWeights[k];
+            double tx = poses[j  ]*bx + poses[j+1]*by + poses[j+2]*bz;
+            double ty = poses[j+3]*bx + poses[j+4]*by + poses[j+5]*bz;
+            double tz = poses[j+6]*bx + poses[j+7]*by + poses[j+8]*bz;
+            tx += poses[j+9];
+            ty += poses[j+10];
+            tz += poses[j+11];
+            px += tx*w;
+            py += ty*w;
+            pz += tz*w;
+         }
+         double bw = myBaseWeights[i];
+         if (bw != 0) {
+            px += bw*bx;
+            py += bw*by;
+            pz += bw*bz;
+         }
+         pos.set (px, py, pz);
+         vtxs.get(i).setPosition (pos);
+      }
+   }
+
+   private void updateDualQuaternion (
+      ArrayList<Vertex3d> vtxs, FrameBlending blending,
+      double tol, int maxSteps, int lo, int hi) {
+
+      DualQuaternion dq = new DualQuaternion();
+      DualQuaternion[] dqs = new DualQuaternion[myMaxConnections];
+      double[] weights = new double[myMaxConnections];
+      Point3d base = new Point3d();
+      Point3d tmp = new Point3d();
+      Point3d pos = new Point3d();
+      for (int i=lo; i<hi; i++) {
+         if (myModes[i] != PACKED) {
+            continue;
+         }
+         base.set (myBasePos[3*i], myBasePos[3*i+1], myBasePos[3*i+2]);
+         pos.setZero();
+         int k0 = myConnOffs[i];
+         int k1 = myConnOffs[i+1];
+         if (k1 > k0) {
+            double wtotal = 0;
+            if (blending == FrameBlending.DUAL_QUATERNION_LINEAR) {
+               dq.setZero();
+               for (int k=k0; k<k1; k++) {
+                  dq.scaledAdd (
+                     myWeights[k],
+                     myFrameInfos[myFrameIdxs[k]].myBlendQuaternion);
+                  wtotal += myWeights[k];
+               }
+               dq.normalize();
+            }
+            else {
+               for (int k=k0; k<k1; k++) {
+                  dqs[k-k0] = myFrameInfos[myFrameIdxs[k]].myBlendQuaternion;
+                  weights[k-k0] = myWeights[k];
+                  wtotal += myWeights[k];
+               }
+               dq.dualQuaternionIterativeBlending (
+                  weights, dqs, k1-k0, tol, maxSteps);
+            }
+            dq.transform (tmp, base);
+            pos.scaledAdd (wtotal, tmp);
+         }
+         double bw = myBaseWeights[i];
+         if (bw != 0) {
+            pos.scaledAdd (bw, base);
+         }
+         vtxs.get(i).setPosition (pos);
+      }
+   }
+}
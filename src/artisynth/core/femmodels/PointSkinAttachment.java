@@ -912,6 +912,7 @@ public class PointSkinAttachment extends PointAttachment
     */
    public void setBasePosition(Vector3d pos) {
       myBasePos.set(pos);
+      invalidatePackedSkinning();
    }
 
    /**
@@ -939,6 +940,7 @@ public class PointSkinAttachment extends PointAttachment
          }
       }
       myBaseWeight = (float)w;
+      invalidatePackedSkinning();
    }
 
    /**
@@ -1050,6 +1052,7 @@ public class PointSkinAttachment extends PointAttachment
       else {
          appendConnection (myFrameConnections, fcon);
       }
+      invalidatePackedSkinning();
    }
 
    public FrameConnection getFrameConnections() {
@@ -1167,6 +1170,7 @@ public class PointSkinAttachment extends PointAttachment
          }
          prev.scaledAdd (s, c);
       }
+      invalidatePackedSkinning();
       for (FemConnection c=a.myFemConnections; c!=null; c=c.getNext()) {
          if (c instanceof ElementConnection) {
             ElementConnection econ = (ElementConnection)c;
@@ -1187,6 +1191,7 @@ public class PointSkinAttachment extends PointAttachment
       for (FemConnection c=myFemConnections; c!=null; c=c.getNext()) {
          c.normalize();
       }
+      invalidatePackedSkinning();
    }
 
    protected void addFemConnection (FemConnection fcon) {   
@@ -1197,6 +1202,7 @@ public class PointSkinAttachment extends PointAttachment
       else {
          appendConnection (myFemConnections, fcon);
       }
+      invalidatePackedSkinning();
    }
 
    public FemConnection getFemConnections() {
@@ -1223,8 +1229,20 @@ public class PointSkinAttachment extends PointAttachment
       super.invalidateMasters();
       myMasterBlocks = null;
       myMasterBlocksValid = false;
+      invalidatePackedSkinning();
    }  
 
+   /**
+    * Notifies the SkinMeshBody associated with this attachment, if any, that
+    * its packed attachment data must be rebuilt.
+    */
+   protected void invalidatePackedSkinning() {
+      SkinMeshBody skinMesh = getSkinMesh();
+      if (skinMesh != null) {
+         skinMesh.invalidatePackedSkinning();
+      }
+   }
+
    protected void printConnections () {
       for (FrameConnection c=myFrameConnections; c!=null; c=c.getNext()) {
          System.out.printf (
@@ -1923,6 +1941,7 @@ public class PointSkinAttachment extends PointAttachment
       for (SkinConnection c=myFemConnections; c!=null; c=c.getNext()) {
          c.scaleDistance (s);
       }  
+      invalidatePackedSkinning();
    }
 
    public void scaleMass(double s) {
@@ -2038,6 +2057,7 @@ public class PointSkinAttachment extends PointAttachment
       for (FemConnection c=myFemConnections; c!=null; c=c.getNext()) {
          c.scaleWeight(s);
       }
+      invalidatePackedSkinning();
    }
 
    private <C extends SkinConnection<C>>
@@ -2201,6 +2221,7 @@ public class PointSkinAttachment extends PointAttachment
       }
       // update base position
       gtr.transformPnt (myBasePos);
+      invalidatePackedSkinning();
    }
 
    /**
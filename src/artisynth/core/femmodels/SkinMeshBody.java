@@ -35,6 +35,7 @@ import artisynth.core.mechmodels.PointAttachment;
 import artisynth.core.mechmodels.PointList;
 import artisynth.core.mechmodels.RigidBody;
 import artisynth.core.mechmodels.SkinMeshBase;
+import artisynth.core.modelbase.ComponentChangeEvent;
 import artisynth.core.modelbase.ComponentList;
 import artisynth.core.modelbase.ComponentUtils;
 import artisynth.core.modelbase.CompositeComponent;
@@ -198,6 +199,15 @@ public class SkinMeshBody extends SkinMeshBase
    public static boolean DEFAULT_ATTACH_POINTS_TO_MESH = true;
    protected boolean myAttachPointsToMesh = DEFAULT_ATTACH_POINTS_TO_MESH;
 
+   public static boolean DEFAULT_PACKED_SKINNING = false;
+   protected boolean myPackedSkinning = DEFAULT_PACKED_SKINNING;
+
+   /**
+    * Minimum number of vertices per thread for which packed skinning updates
+    * the vertex positions in parallel.
+    */
+   public static int packedSkinningChunkSize = 2048;
+
    /* --- misc attributes --- */
 
    protected int myCollidableIndex;
@@ -211,6 +221,8 @@ public class SkinMeshBody extends SkinMeshBase
 
    protected ArrayList<BodyInfo> myBodyInfos;
    protected boolean myBodyInfoUpdated = false;
+   // packed attachment data used when packed skinning is enabled:
+   protected PackedSkinAttachments myPackedAttachments = null;
    // used for automatically computing weights:
    protected NearestPoint[] myNearestPoints = new NearestPoint[0];
    protected double[] myWeights = new double[0];
@@ -482,6 +494,10 @@ public class SkinMeshBody extends SkinMeshBase
          "attachPointsToMesh",
          "createPointAttachment() should attach points to mesh if possible",
          DEFAULT_ATTACH_POINTS_TO_MESH);
+      myProps.add (
+         "packedSkinning",
+         "update vertex positions using packed attachment data",
+         DEFAULT_PACKED_SKINNING);
    }
 
    /**
@@ -689,6 +705,51 @@ public class SkinMeshBody extends SkinMeshBase
       myAttachPointsToMesh = enable;
    }
 
+   /**
+    * Queries whether packed skinning is enabled for this SkinMeshBody.  See
+    * {@link #setPackedSkinning} for details.
+    *
+    * @return {@code true} if packed skinning is enabled
+    * @see #setPackedSkinning
+    */
+   public boolean getPackedSkinning() {
+      return myPackedSkinning;
+   }
+
+   /**
+    * Sets whether packed skinning is enabled for this SkinMeshBody. If
+    * enabled, the vertex attachments are compiled into contiguous arrays of
+    * frame indices, weights and base positions, which are then used to update
+    * the vertex positions in parallel chunks, instead of calling each
+    * attachment individually. The resulting positions are identical to those
+    * computed by the attachments. Vertices with FEM connections are still
+    * updated using their attachments.
+    *
+    * <p>The packed data is rebuilt automatically when the attachments are
+    * changed through the methods of this body or {@link
+    * PointSkinAttachment}. Applications which modify connection weights
+    * directly, using {@link PointSkinAttachment.SkinConnection#setWeight},
+    * should subsequently call {@link #invalidatePackedSkinning}.
+    *
+    * @param enable if {@code true}, enables packed skinning
+    * @see #getPackedSkinning
+    */
+   public void setPackedSkinning (boolean enable) {
+      if (myPackedSkinning != enable) {
+         myPackedSkinning = enable;
+         myPackedAttachments = null;
+      }
+   }
+
+   /**
+    * Notifies this SkinMeshBody that its vertex attachments have changed, so
+    * that any packed attachment data used for packed skinning must be
+    * rebuilt.
+    */
+   public void invalidatePackedSkinning() {
+      myPackedAttachments = null;
+   }
+
    /* --- mesh and vertex attachment methods --- */
    
    protected void setMeshFromInfo () {
@@ -771,6 +832,7 @@ public class SkinMeshBody extends SkinMeshBase
          setBaseAttachment (a, mesh.getVertex(i).getPosition());
          myVertexAttachments.add (a);
       }
+      invalidatePackedSkinning();
    }
 
    /**
@@ -1151,6 +1213,7 @@ public class SkinMeshBody extends SkinMeshBase
                a, vtx.getPosition(), null, FemConnectionType.DISPLACEMENT);
          }
       }
+      invalidatePackedSkinning();
    }
 
    /**
@@ -1370,7 +1433,11 @@ public class SkinMeshBody extends SkinMeshBase
 
       maybeUpdateBodyPositionInfo();
       MeshBase mesh = getMesh();
-      if (mesh != null) {
+      if (mesh != null && myPackedSkinning) {
+         updatePackedSlavePos (mesh);
+         mesh.notifyVertexPositionsModified();
+      }
+      else if (mesh != null) {
          PolarDecomposition3d polard = new PolarDecomposition3d();
          Point3d pos = new Point3d();
          int numa = numVertexAttachments();
@@ -1387,6 +1454,21 @@ public class SkinMeshBody extends SkinMeshBase
       myBodyInfoUpdated = false;
    }
 
+   /**
+    * Updates the vertex positions using packed attachment data, compiling
+    * the data first if necessary.
+    */
+   protected void updatePackedSlavePos (MeshBase mesh) {
+      int numa = numVertexAttachments();
+      if (myPackedAttachments == null ||
+          myPackedAttachments.numVertices() != numa) {
+         myPackedAttachments = new PackedSkinAttachments (this);
+      }
+      myPackedAttachments.updatePositions (
+         mesh.getVertices(), myFrameBlending,
+         myDQBlendTolerance, myDQMaxBlendSteps, packedSkinningChunkSize);
+   }
+
    /* --- attachment computation --- */
 
    /**
@@ -1937,6 +2019,18 @@ public class SkinMeshBody extends SkinMeshBase
       myCollidableIndex = idx;
    }
 
+   /**
+    * {@inheritDoc}
+    */
+   @Override
+   public void componentChanged (ComponentChangeEvent e) {
+      if (e instanceof StructureChangeEvent) {
+         // attachments may have been added or removed
+         invalidatePackedSkinning();
+      }
+      super.componentChanged (e);
+   }
+
    /* --- geometry transformation, rendering and references --- */
 
    /**
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.femmodels;
+
+import java.util.ArrayList;
+
+import artisynth.core.femmodels.SkinMeshBody.FrameBlending;
+import artisynth.core.mechmodels.RigidBody;
+import maspack.geometry.MeshBase;
+import maspack.geometry.MeshFactory;
+import maspack.geometry.PolygonalMesh;
+import maspack.matrix.Point3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.Vector3d;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Tests packed skinning for SkinMeshBody, by checking that it produces
+ * vertex positions identical to those computed by the vertex attachments.
+ */
+public class SkinMeshBodyTest extends UnitTest {
+
+   ArrayList<RigidBody> myBodies = new ArrayList<>();
+   FemModel3d myFem;
+
+   SkinMeshBody createSkinBody (boolean addFem) {
+      myBodies.clear();
+      PolygonalMesh mesh = MeshFactory.createIcosahedralSphere (1.0, 4);
+      SkinMeshBody skin = new SkinMeshBody (mesh);
+      double[] xoffs = new double[] { -0.6, 0.0, 0.6 };
+      for (int i=0; i<xoffs.length; i++) {
+         RigidBody body = RigidBody.createBox ("body"+i, 0.5, 0.3, 0.3, 1000);
+         body.setPose (new RigidTransform3d (xoffs[i], 0, 0));
+         myBodies.add (body);
+         skin.addMasterBody (body);
+      }
+      if (addFem) {
+         myFem = FemFactory.createHexGrid (
+            null, 1.0, 0.25, 0.25, 4, 2, 2);
+         myFem.transformGeometry (new RigidTransform3d (0, 0.3, 0.3));
+         skin.addMasterBody (myFem);
+      }
+      skin.computeAllVertexConnections();
+      return skin;
+   }
+
+   void moveBodies () {
+      for (RigidBody body : myBodies) {
+         RigidTransform3d T = new RigidTransform3d();
+         T.setRandom();
+         T.p.scale (0.2);
+         T.mul (body.getPose(), T);
+         body.setPose (T);
+      }
+      if (myFem != null) {
+         for (FemNode3d n : myFem.getNodes()) {
+            Vector3d del = new Vector3d();
+            del.setRandom();
+            del.scale (0.05);
+            Point3d pos = new Point3d (n.getPosition());
+            pos.add (del);
+            n.setPosition (pos);
+         }
+      }
+   }
+
+   ArrayList<Point3d> computePositions (SkinMeshBody skin, boolean packed) {
+      skin.setPackedSkinning (packed);
+      skin.updateSlavePos();
+      ArrayList<Point3d> positions = new ArrayList<>();
+      MeshBase mesh = skin.getMesh();
+      for (int i=0; i<mesh.numVertices(); i++) {
+         positions.add (new Point3d (mesh.getVertex(i).getPosition()));
+      }
+      return positions;
+   }
+
+   void checkPacked (String msg, SkinMeshBody skin) {
+      for (FrameBlending blending : FrameBlending.values()) {
+         skin.setFrameBlending (blending);
+         ArrayList<Point3d> check = computePositions (skin, false);
+         ArrayList<Point3d> result = computePositions (skin, true);
+         for (int i=0; i<check.size(); i++) {
+            if (!result.get(i).equals (check.get(i))) {
+               throw new TestException (
+                  msg + ", " + blending + ": vertex " + i + " is " +
+                  result.get(i) + ", expected " + check.get(i));
+            }
+         }
+      }
+   }
+
+   void testPacked (boolean addFem) {
+      SkinMeshBody skin = createSkinBody (addFem);
+      checkPacked ("initial", skin);
+      for (int k=0; k<3; k++) {
+         moveBodies();
+         checkPacked ("moved", skin);
+      }
+      // packed data should be updated when attachments change
+      skin.setPackedSkinning (true);
+      skin.updateSlavePos();
+      for (int i=0; i<skin.numVertexAttachments(); i+=7) {
+         skin.setVertexBaseWeight (i, 0.25, /*normalize=*/true);
+      }
+      checkPacked ("base weights", skin);
+      if (!addFem) {
+         // recompute the connections from the current vertex positions. Not
+         // done with the FEM, since vertices may now lie inside it.
+         skin.setPackedSkinning (true);
+         skin.updateSlavePos();
+         skin.computeAllVertexConnections();
+         checkPacked ("recomputed connections", skin);
+      }
+   }
+
+   public void test() {
+      int chunkSize = SkinMeshBody.packedSkinningChunkSize;
+      try {
+         testPacked (/*addFem=*/false);
+         testPacked (/*addFem=*/true);
+         // small chunks, to ensure vertices are updated in parallel
+         SkinMeshBody.packedSkinningChunkSize = 37;
+         testPacked (/*addFem=*/false);
+         testPacked (/*addFem=*/true);
+      }
+      finally {
+         SkinMeshBody.packedSkinningChunkSize = chunkSize;
+      }
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      SkinMeshBodyTest tester = new SkinMeshBodyTest();
+      tester.runtest();
+   }
+}
@@ -59,6 +59,7 @@ public class ExcitationResponse
    VectorNd fa = new VectorNd();
    VectorNd[] HuCols = new VectorNd[0];
    VectorNd[] HlamCols = new VectorNd[0];
+   VectorNd[] bfCols = new VectorNd[0]; // right-hand sides for batched solves
    VectorNd u0 = new VectorNd();
    VectorNd ex = new VectorNd();
    VectorNd fp = new VectorNd();
@@ -118,14 +119,17 @@ public class ExcitationResponse
       if (HuCols.length != exSize) {
          HuCols = new VectorNd[exSize];
          HlamCols = new VectorNd[exSize];
+         bfCols = new VectorNd[exSize];
          for (int i=0; i<exSize; i++) {
             HuCols[i] = new VectorNd (velSize);
             HlamCols[i] = new VectorNd (); // size will be initialized on demand
+            bfCols[i] = new VectorNd (velSize);
          }
       }
       else {
          for (int i=0; i<exSize; i++) {
             HuCols[i].setSize (velSize);
+            bfCols[i].setSize (velSize);
          }
       }
 
@@ -177,6 +181,13 @@ public class ExcitationResponse
       
       lam0.set (myMechSysSolver.getLambda ());
 
+      // If the pre-factored KKT system is used, the right-hand sides for all
+      // exciters are collected in bfCols and then solved together. The force
+      // evaluations themselves remain sequential, since each one sets the
+      // excitations and updates the forces of the shared mech system.
+      boolean batchSolve =
+         !(myController.getUseKKTFactorization() || incremental);
+
       // where e_j is elementary unit vector
       for (int j = 0; j < exSize; j++) {
          double dex = deltaEx;
@@ -230,11 +241,15 @@ public class ExcitationResponse
             }
          }
          else {
-            // use pre-factored KKT system
-            // Note neglecting change in jacobians due to excitation
-            myMechSysSolver.KKTSolve(HuCols[j], HlamCols[j], the, bf);
+            // save the right-hand side for the batched pre-factored solve
+            bfCols[j].set (bf);
          }
       }
+      if (batchSolve) {
+         // use pre-factored KKT system
+         // Note neglecting change in jacobians due to excitation
+         myMechSysSolver.KKTSolve (HuCols, HlamCols, bfCols, exSize);
+      }
 
       // XXX rest now done in motion target term
 
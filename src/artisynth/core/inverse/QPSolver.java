@@ -10,14 +10,125 @@ import maspack.solvers.DantzigQPSolver.Status;
 
 /**
  * Solves a quadratic program given a set of cost and constraint terms.
+ *
+ * <p>The matrices and vectors used to assemble the program are retained
+ * between calls, and by default the underlying {@link DantzigQPSolver} is
+ * warm started using the active set from the previous solve, which reduces
+ * the number of pivots needed when the program changes little from one time
+ * step to the next.
  */
 public class QPSolver {
 
+   public static boolean DEFAULT_WARM_START = true;
+
    /*
     * Default solver
     */
    DantzigQPSolver mySolver = new DantzigQPSolver();
 
+   // workspace retained between solves
+   MatrixNd myQ = new MatrixNd();
+   VectorNd myP = new VectorNd();
+   MatrixNd myA = new MatrixNd();
+   VectorNd myB = new VectorNd();
+   MatrixNd myAeq = new MatrixNd();
+   VectorNd myBeq = new VectorNd();
+   VectorNd myX = new VectorNd();
+
+   // solve statistics
+   int myNumSolves;
+   int myNumWarmStarts;
+   long myTotalIterations;
+   long myTotalActiveSetChanges;
+
+   public QPSolver() {
+      mySolver.setWarmStart (DEFAULT_WARM_START);
+   }
+
+   /**
+    * Queries whether warm starting is enabled for this solver.
+    *
+    * @return {@code true} if warm starting is enabled
+    */
+   public boolean getWarmStart() {
+      return mySolver.getWarmStart();
+   }
+
+   /**
+    * Enables or disables warm starting for this solver, in which each
+    * solve starts from the active set found by the previous solve.
+    *
+    * @param enable if {@code true}, enables warm starting
+    */
+   public void setWarmStart (boolean enable) {
+      mySolver.setWarmStart (enable);
+   }
+
+   /**
+    * Returns the number of solves performed since the solver was created or
+    * {@link #resetStatistics} was last called.
+    *
+    * @return number of solves
+    */
+   public int numSolves() {
+      return myNumSolves;
+   }
+
+   /**
+    * Returns the number of solves that were successfully warm started.
+    *
+    * @return number of warm started solves
+    */
+   public int numWarmStarts() {
+      return myNumWarmStarts;
+   }
+
+   /**
+    * Returns the total number of LCP iterations performed by all solves.
+    *
+    * @return total iteration count
+    */
+   public long getTotalIterations() {
+      return myTotalIterations;
+   }
+
+   /**
+    * Returns the total number of active set changes over all solves.
+    *
+    * @return total active set changes
+    */
+   public long getTotalActiveSetChanges() {
+      return myTotalActiveSetChanges;
+   }
+
+   /**
+    * Returns the number of LCP iterations performed by the last solve.
+    *
+    * @return iteration count for the last solve
+    */
+   public int getLastIterations() {
+      return mySolver.getIterationCount();
+   }
+
+   /**
+    * Returns the number of active set changes in the last solve.
+    *
+    * @return active set changes for the last solve
+    */
+   public int getLastActiveSetChanges() {
+      return mySolver.getActiveSetChanges();
+   }
+
+   /**
+    * Resets the solve statistics.
+    */
+   public void resetStatistics() {
+      myNumSolves = 0;
+      myNumWarmStarts = 0;
+      myTotalIterations = 0;
+      myTotalActiveSetChanges = 0;
+   }
+
    /**
     * Solves the quadratic program of the form:
     * <pre>
@@ -34,17 +145,22 @@ public class QPSolver {
     * @param constraintTerms terms used to assemble A, b, Aeq and beq.
     * @param size size of the program
     * @param t0 time step start time
-    * @param t0 time step end time
+    * @param t1 time step end time
     * 
-    * @return solution to the program
+    * @return solution to the program. This vector is owned by the solver
+    * and will be overwritten by the next call.
     */
    public VectorNd solve (
       List<QPCostTerm> costTerms,
       List<QPConstraintTerm> constraintTerms, 
       int size, double t0, double t1) {
 
-      MatrixNd Q = new MatrixNd (size, size);
-      VectorNd P = new VectorNd (size);
+      MatrixNd Q = myQ;
+      VectorNd P = myP;
+      Q.setSize (size, size);
+      Q.setZero();
+      P.setSize (size);
+      P.setZero();
 
       int numEq = 0;
       int numIneq = 0;
@@ -61,13 +177,23 @@ public class QPSolver {
          }
       }
 
-      MatrixNd A = new MatrixNd (numIneq, size);
-      VectorNd b = new VectorNd (numIneq);
+      MatrixNd A = myA;
+      VectorNd b = myB;
+      A.setSize (numIneq, size);
+      A.setZero();
+      b.setSize (numIneq);
+      b.setZero();
 
-      MatrixNd Aeq = new MatrixNd (numEq, size);
-      VectorNd beq = new VectorNd (numEq);
+      MatrixNd Aeq = myAeq;
+      VectorNd beq = myBeq;
+      Aeq.setSize (numEq, size);
+      Aeq.setZero();
+      beq.setSize (numEq);
+      beq.setZero();
 
-      VectorNd x = new VectorNd (size);
+      VectorNd x = myX;
+      x.setSize (size);
+      x.setZero();
 
       // collect all cost terms
       for (QPCostTerm term : costTerms) {
@@ -112,6 +238,12 @@ public class QPSolver {
       catch (Exception e) {
          e.printStackTrace();
       }
+      myNumSolves++;
+      if (mySolver.lastSolveWasWarmStarted()) {
+         myNumWarmStarts++;
+      }
+      myTotalIterations += mySolver.getIterationCount();
+      myTotalActiveSetChanges += mySolver.getActiveSetChanges();
       return x;
    }
 }
@@ -0,0 +1,371 @@
+package artisynth.core.materials;
+
+import java.util.Arrays;
+
+import maspack.matrix.Matrix3d;
+import maspack.matrix.Matrix3dBase;
+import maspack.matrix.Matrix6d;
+import maspack.matrix.RotationMatrix3d;
+import maspack.matrix.SymmetricMatrix3d;
+
+/**
+ * Deformation information for a batch of points, stored in packed arrays,
+ * for use with {@link FemMaterial#computeStressAndTangent(double[],double[],
+ * DeformedPointBatch,double)}. For each point, the batch stores the
+ * deformation gradient F (9 values, row-major), its determinant J, the left
+ * Cauchy-Green tensor B = F F^T (6 values), its first invariant I1 = tr(B),
+ * and the average pressure.
+ *
+ * <p>Each point may optionally also be associated with a {@link
+ * DeformedPoint}, which is used to evaluate field-valued material
+ * properties, an anisotropy frame, and a rotation for corotated linear
+ * materials. When no DeformedPoint is supplied, one is created from the
+ * packed data on demand.
+ *
+ * <p>Symmetric 3 x 3 tensors, such as B and the stresses computed from the
+ * batch, are packed in the order (m00, m11, m22, m01, m12, m02), which
+ * matches the row and column ordering of the 6 x 6 tangent matrices. Tangent
+ * matrices are packed as 36 values per point in row-major order.
+ */
+public class DeformedPointBatch {
+
+   protected int myNum = 0;
+   protected int myCapacity = 0;
+   protected double[] myF = new double[0];
+   protected double[] myDetF = new double[0];
+   protected double[] myB = new double[0];
+   protected double[] myI1 = new double[0];
+   protected double[] myPressure = new double[0];
+   protected DeformedPoint[] myPoints = new DeformedPoint[0];
+   protected Matrix3d[] myFrames = new Matrix3d[0];
+   protected RotationMatrix3d[] myRotations = new RotationMatrix3d[0];
+
+   // scratch point used when a point is not explicitly supplied
+   private DeformedPointBase myScratchPoint = new DeformedPointBase();
+   private Matrix3d myScratchF = new Matrix3d();
+
+   public DeformedPointBatch() {
+   }
+
+   public DeformedPointBatch (int num) {
+      setNumPoints (num);
+   }
+
+   /**
+    * Returns the number of points in this batch.
+    *
+    * @return number of points
+    */
+   public int numPoints() {
+      return myNum;
+   }
+
+   /**
+    * Sets the number of points in this batch, enlarging its storage if
+    * necessary. The data for existing points is preserved.
+    *
+    * @param num number of points
+    */
+   public void setNumPoints (int num) {
+      if (num > myCapacity) {
+         int cap = Math.max (num, 2*myCapacity);
+         myF = Arrays.copyOf (myF, 9*cap);
+         myDetF = Arrays.copyOf (myDetF, cap);
+         myB = Arrays.copyOf (myB, 6*cap);
+         myI1 = Arrays.copyOf (myI1, cap);
+         myPressure = Arrays.copyOf (myPressure, cap);
+         myPoints = Arrays.copyOf (myPoints, cap);
+         myFrames = Arrays.copyOf (myFrames, cap);
+         myRotations = Arrays.copyOf (myRotations, cap);
+         myCapacity = cap;
+      }
+      myNum = num;
+   }
+
+   /**
+    * Sets the deformation data for the k-th point. The left Cauchy-Green
+    * tensor and its first invariant are computed from {@code F}. Any
+    * previously supplied DeformedPoint, frame or rotation for the point is
+    * cleared.
+    *
+    * @param k index of the point
+    * @param F deformation gradient
+    * @param detF determinant of {@code F}
+    * @param p average pressure
+    */
+   public void set (int k, Matrix3dBase F, double detF, double p) {
+      int f = 9*k;
+      myF[f  ] = F.m00; myF[f+1] = F.m01; myF[f+2] = F.m02;
+      myF[f+3] = F.m10; myF[f+4] = F.m11; myF[f+5] = F.m12;
+      myF[f+6] = F.m20; myF[f+7] = F.m21; myF[f+8] = F.m22;
+      myDetF[k] = detF;
+      myPressure[k] = p;
+
+      // B = F F^T
+      int b = 6*k;
+      double b00 = F.m00*F.m00 + F.m01*F.m01 + F.m02*F.m02;
+      double b11 = F.m10*F.m10 + F.m11*F.m11 + F.m12*F.m12;
+      double b22 = F.m20*F.m20 + F.m21*F.m21 + F.m22*F.m22;
+      myB[b  ] = b00;
+      myB[b+1] = b11;
+      myB[b+2] = b22;
+      myB[b+3] = F.m00*F.m10 + F.m01*F.m11 + F.m02*F.m12;
+      myB[b+4] = F.m10*F.m20 + F.m11*F.m21 + F.m12*F.m22;
+      myB[b+5] = F.m00*F.m20 + F.m01*F.m21 + F.m02*F.m22;
+      myI1[k] = b00 + b11 + b22;
+
+      myPoints[k] = null;
+      myFrames[k] = null;
+      myRotations[k] = null;
+   }
+
+   /**
+    * Sets the k-th point from a DeformedPoint, which is also stored for use
+    * in evaluating field-valued properties.
+    *
+    * @param k index of the point
+    * @param def deformed point
+    */
+   public void set (int k, DeformedPoint def) {
+      set (k, def.getF(), def.getDetF(), def.getAveragePressure());
+      myPoints[k] = def;
+      myRotations[k] = def.getR();
+   }
+
+   /**
+    * Associates a DeformedPoint with the k-th point, to be used for
+    * evaluating field-valued properties and by materials that do not
+    * provide a batch implementation. The point should describe the same
+    * deformation as the packed data.
+    *
+    * @param k index of the point
+    * @param def deformed point, or {@code null}
+    */
+   public void setDeformedPoint (int k, DeformedPoint def) {
+      myPoints[k] = def;
+   }
+
+   /**
+    * Sets the anisotropy frame for the k-th point. If not set, the
+    * identity is used.
+    *
+    * @param k index of the point
+    * @param Q anisotropy frame, or {@code null}
+    */
+   public void setFrame (int k, Matrix3d Q) {
+      myFrames[k] = Q;
+   }
+
+   /**
+    * Sets the rotation for the k-th point, which is used by corotated
+    * linear materials. If not set, such materials compute the rotation
+    * from F.
+    *
+    * @param k index of the point
+    * @param R rotation, or {@code null}
+    */
+   public void setRotation (int k, RotationMatrix3d R) {
+      myRotations[k] = R;
+   }
+
+   /**
+    * Returns the packed deformation gradients, with 9 values per point in
+    * row-major order.
+    *
+    * @return packed deformation gradients
+    */
+   public double[] getFArray() {
+      return myF;
+   }
+
+   /**
+    * Returns the packed deformation gradient determinants.
+    *
+    * @return packed determinants
+    */
+   public double[] getDetFArray() {
+      return myDetF;
+   }
+
+   /**
+    * Returns the packed left Cauchy-Green tensors, with 6 values per
+    * point in the order (m00, m11, m22, m01, m12, m02).
+    *
+    * @return packed left Cauchy-Green tensors
+    */
+   public double[] getBArray() {
+      return myB;
+   }
+
+   /**
+    * Returns the packed first invariants of the left Cauchy-Green tensors.
+    *
+    * @return packed first invariants
+    */
+   public double[] getI1Array() {
+      return myI1;
+   }
+
+   /**
+    * Returns the packed average pressures.
+    *
+    * @return packed pressures
+    */
+   public double[] getPressureArray() {
+      return myPressure;
+   }
+
+   /**
+    * Returns the determinant of the deformation gradient for the k-th point.
+    */
+   public double getDetF (int k) {
+      return myDetF[k];
+   }
+
+   /**
+    * Returns the average pressure for the k-th point.
+    */
+   public double getPressure (int k) {
+      return myPressure[k];
+   }
+
+   /**
+    * Returns the deformation gradient for the k-th point.
+    *
+    * @param F returns the deformation gradient
+    * @param k index of the point
+    */
+   public void getF (Matrix3d F, int k) {
+      int f = 9*k;
+      F.m00 = myF[f  ]; F.m01 = myF[f+1]; F.m02 = myF[f+2];
+      F.m10 = myF[f+3]; F.m11 = myF[f+4]; F.m12 = myF[f+5];
+      F.m20 = myF[f+6]; F.m21 = myF[f+7]; F.m22 = myF[f+8];
+   }
+
+   /**
+    * Returns the left Cauchy-Green tensor for the k-th point.
+    *
+    * @param B returns the left Cauchy-Green tensor
+    * @param k index of the point
+    */
+   public void getB (SymmetricMatrix3d B, int k) {
+      unpackSymmetric (B, myB, k);
+   }
+
+   /**
+    * Returns the anisotropy frame for the k-th point, or the identity if
+    * none has been set.
+    */
+   public Matrix3d getFrame (int k) {
+      return myFrames[k] != null ? myFrames[k] : Matrix3d.IDENTITY;
+   }
+
+   /**
+    * Returns the rotation for the k-th point, or {@code null} if none has
+    * been set.
+    */
+   public RotationMatrix3d getRotation (int k) {
+      return myRotations[k];
+   }
+
+   /**
+    * Queries whether a DeformedPoint has been supplied for the k-th point.
+    */
+   public boolean hasDeformedPoint (int k) {
+      return myPoints[k] != null;
+   }
+
+   /**
+    * Returns a DeformedPoint describing the k-th point. If one has been
+    * supplied, it is returned directly. Otherwise, a scratch point is
+    * set from the packed data and returned; this is overwritten by the
+    * next call to this method.
+    *
+    * @param k index of the point
+    * @return deformed point for the k-th point
+    */
+   public DeformedPoint getDeformedPoint (int k) {
+      if (myPoints[k] != null) {
+         return myPoints[k];
+      }
+      getF (myScratchF, k);
+      myScratchPoint.setF (myScratchF);
+      myScratchPoint.myDetF = myDetF[k];
+      myScratchPoint.setAveragePressure (myPressure[k]);
+      myScratchPoint.setR (myRotations[k]);
+      return myScratchPoint;
+   }
+
+   /**
+    * Stores a symmetric 3 x 3 tensor into a packed array, at the location
+    * for the k-th point.
+    */
+   public static void packSymmetric (
+      double[] vals, int k, SymmetricMatrix3d S) {
+      int s = 6*k;
+      vals[s  ] = S.m00;
+      vals[s+1] = S.m11;
+      vals[s+2] = S.m22;
+      vals[s+3] = S.m01;
+      vals[s+4] = S.m12;
+      vals[s+5] = S.m02;
+   }
+
+   /**
+    * Loads a symmetric 3 x 3 tensor from a packed array, at the location
+    * for the k-th point.
+    */
+   public static void unpackSymmetric (
+      SymmetricMatrix3d S, double[] vals, int k) {
+      int s = 6*k;
+      S.m00 = vals[s  ];
+      S.m11 = vals[s+1];
+      S.m22 = vals[s+2];
+      S.m01 = vals[s+3];
+      S.m12 = vals[s+4];
+      S.m02 = vals[s+5];
+      S.m10 = S.m01;
+      S.m21 = S.m12;
+      S.m20 = S.m02;
+   }
+
+   /**
+    * Stores a 6 x 6 tangent matrix into a packed array, at the location
+    * for the k-th point.
+    */
+   public static void packTangent (double[] vals, int k, Matrix6d D) {
+      int d = 36*k;
+      vals[d   ] = D.m00; vals[d+ 1] = D.m01; vals[d+ 2] = D.m02;
+      vals[d+ 3] = D.m03; vals[d+ 4] = D.m04; vals[d+ 5] = D.m05;
+      vals[d+ 6] = D.m10; vals[d+ 7] = D.m11; vals[d+ 8] = D.m12;
+      vals[d+ 9] = D.m13; vals[d+10] = D.m14; vals[d+11] = D.m15;
+      vals[d+12] = D.m20; vals[d+13] = D.m21; vals[d+14] = D.m22;
+      vals[d+15] = D.m23; vals[d+16] = D.m24; vals[d+17] = D.m25;
+      vals[d+18] = D.m30; vals[d+19] = D.m31; vals[d+20] = D.m32;
+      vals[d+21] = D.m33; vals[d+22] = D.m34; vals[d+23] = D.m35;
+      vals[d+24] = D.m40; vals[d+25] = D.m41; vals[d+26] = D.m42;
+      vals[d+27] = D.m43; vals[d+28] = D.m44; vals[d+29] = D.m45;
+      vals[d+30] = D.m50; vals[d+31] = D.m51; vals[d+32] = D.m52;
+      vals[d+33] = D.m53; vals[d+34] = D.m54; vals[d+35] = D.m55;
+   }
+
+   /**
+    * Loads a 6 x 6 tangent matrix from a packed array, at the location
+    * for the k-th point.
+    */
+   public static void unpackTangent (Matrix6d D, double[] vals, int k) {
+      int d = 36*k;
+      D.m00 = vals[d   ]; D.m01 = vals[d+ 1]; D.m02 = vals[d+ 2];
+      D.m03 = vals[d+ 3]; D.m04 = vals[d+ 4]; D.m05 = vals[d+ 5];
+      D.m10 = vals[d+ 6]; D.m11 = vals[d+ 7]; D.m12 = vals[d+ 8];
+      D.m13 = vals[d+ 9]; D.m14 = vals[d+10]; D.m15 = vals[d+11];
+      D.m20 = vals[d+12]; D.m21 = vals[d+13]; D.m22 = vals[d+14];
+      D.m23 = vals[d+15]; D.m24 = vals[d+16]; D.m25 = vals[d+17];
+      D.m30 = vals[d+18]; D.m31 = vals[d+19]; D.m32 = vals[d+20];
+      D.m33 = vals[d+21]; D.m34 = vals[d+22]; D.m35 = vals[d+23];
+      D.m40 = vals[d+24]; D.m41 = vals[d+25]; D.m42 = vals[d+26];
+      D.m43 = vals[d+27]; D.m44 = vals[d+28]; D.m45 = vals[d+29];
+      D.m50 = vals[d+30]; D.m51 = vals[d+31]; D.m52 = vals[d+32];
+      D.m53 = vals[d+33]; D.m54 = vals[d+34]; D.m55 = vals[d+35];
+   }
+}
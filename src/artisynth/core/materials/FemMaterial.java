@@ -59,6 +59,7 @@ public abstract class FemMaterial extends MaterialBase
 
    public void propertyChanged (PropertyChangeEvent e) {
       // pass on property change events from subcomponents
+      incrementVersion();
       if (myPropHost instanceof PropertyChangeListener) {
          ((PropertyChangeListener)myPropHost).propertyChanged (e);
       }
@@ -110,7 +111,52 @@ public abstract class FemMaterial extends MaterialBase
    public abstract void computeStressAndTangent (
       SymmetricMatrix3d sigma, Matrix6d D, DeformedPoint def, 
       Matrix3d Q, double excitation, MaterialStateObject state);
-   
+
+   /**
+    * Computes the current Cauchy stresses and tangent stiffness matrices for
+    * a batch of points whose deformation data is stored in packed arrays.
+    * The results are the same as those obtained by calling {@link
+    * #computeStressAndTangent(SymmetricMatrix3d,Matrix6d,DeformedPoint,
+    * Matrix3d,double,MaterialStateObject) computeStressAndTangent} for each
+    * point, using the point's DeformedPoint (see {@link
+    * DeformedPointBatch#getDeformedPoint}) and anisotropy frame. This is
+    * intended for materials without state, and {@code null} is passed for
+    * the state.
+    *
+    * <p>The default implementation simply calls {@code
+    * computeStressAndTangent} for each point. Materials can override this to
+    * avoid the per-point overhead. Since a subclass of such a material may
+    * override only the per-point method, an override should apply its packed
+    * evaluation only when {@code getClass()} equals its own class, and
+    * otherwise call this default implementation.
+    *
+    * @param sigma returns the Cauchy stresses, packed as 6 values per point
+    * in the order (m00, m11, m22, m01, m12, m02)
+    * @param D optional; if non-{@code null}, returns the tangent matrices,
+    * packed as 36 values per point in row-major order
+    * @param batch deformation information for the points
+    * @param excitation current excitation value
+    */
+   public void computeStressAndTangent (
+      double[] sigma, double[] D, DeformedPointBatch batch, double excitation) {
+
+      SymmetricMatrix3d sig = new SymmetricMatrix3d();
+      Matrix6d Dk = (D != null ? new Matrix6d() : null);
+      for (int k=0; k<batch.numPoints(); k++) {
+         sig.setZero();
+         if (Dk != null) {
+            Dk.setZero();
+         }
+         computeStressAndTangent (
+            sig, Dk, batch.getDeformedPoint(k), batch.getFrame(k),
+            excitation, null);
+         DeformedPointBatch.packSymmetric (sigma, k, sig);
+         if (Dk != null) {
+            DeformedPointBatch.packTangent (D, k, Dk);
+         }
+      }
+   }
+
    /**
     * Returns true if this material is defined for a deformation gradient
     * with a non-positive determinant.
@@ -255,6 +255,104 @@ public class FemMaterialTest extends UnitTest {
    //  }
 
 
+   /**
+    * Checks that the batched stress and tangent computation for a material
+    * matches the per-point computation, for all the deformation gradients
+    * in myFVals.
+    */
+   public void testBatch (FemMaterial mat, double tol) {
+      int npnts = myFVals.size();
+      DeformedPointBatch batch = new DeformedPointBatch (npnts);
+      for (int k=0; k<npnts; k++) {
+         Matrix3d F = myFVals.get(k);
+         batch.set (k, F, F.determinant(), myPressure);
+         batch.setFrame (k, myQ);
+      }
+      double[] sigvals = new double[6*npnts];
+      double[] Dvals = new double[36*npnts];
+      mat.computeStressAndTangent (sigvals, Dvals, batch, 1.0);
+
+      SymmetricMatrix3d sig = new SymmetricMatrix3d();
+      SymmetricMatrix3d sigChk = new SymmetricMatrix3d();
+      Matrix6d D = new Matrix6d();
+      Matrix6d DChk = new Matrix6d();
+      for (int k=0; k<npnts; k++) {
+         computeStressAndTangent (sigChk, DChk, myFVals.get(k), mat);
+         DeformedPointBatch.unpackSymmetric (sig, sigvals, k);
+         DeformedPointBatch.unpackTangent (D, Dvals, k);
+         checkEquals (
+            mat.getClass().getSimpleName()+" batch stress", sig, sigChk,
+            tol*sigChk.frobeniusNorm());
+         checkEquals (
+            mat.getClass().getSimpleName()+" batch tangent", D, DChk,
+            tol*DChk.frobeniusNorm());
+      }
+
+      // stress only
+      double[] sigvals2 = new double[6*npnts];
+      mat.computeStressAndTangent (sigvals2, null, batch, 1.0);
+      for (int k=0; k<6*npnts; k++) {
+         if (sigvals2[k] != sigvals[k]) {
+            throw new TestException (
+               mat.getClass().getSimpleName()+
+               ": stress differs when tangent is not computed");
+         }
+      }
+   }
+
+   /**
+    * Checks that subclasses of materials with packed batch evaluation, which
+    * override only the per-point computation, still have that override
+    * applied when evaluated in batches.
+    */
+   public void testBatchSubclasses (double tol) {
+      // each subclass doubles the stress and tangent of its parent
+      testBatch (new NeoHookeanMaterial (10000.0, 0.49) {
+            public void computeStressAndTangent (
+               SymmetricMatrix3d sigma, Matrix6d D, DeformedPoint def,
+               Matrix3d Q, double excitation, MaterialStateObject state) {
+               super.computeStressAndTangent (
+                  sigma, D, def, Q, excitation, state);
+               scaleStressAndTangent (sigma, D, 2);
+            }
+         }, tol);
+      testBatch (new IncompNeoHookeanMaterial (123.0, 666.0) {
+            public void computeStressAndTangent (
+               SymmetricMatrix3d sigma, Matrix6d D, DeformedPoint def,
+               Matrix3d Q, double excitation, MaterialStateObject state) {
+               super.computeStressAndTangent (
+                  sigma, D, def, Q, excitation, state);
+               scaleStressAndTangent (sigma, D, 2);
+            }
+         }, tol);
+      testBatch (new MooneyRivlinMaterial (1.2, 3.4, 0, 0, 0, 0) {
+            public void computeStressAndTangent (
+               SymmetricMatrix3d sigma, Matrix6d D, DeformedPoint def,
+               Matrix3d Q, double excitation, MaterialStateObject state) {
+               super.computeStressAndTangent (
+                  sigma, D, def, Q, excitation, state);
+               scaleStressAndTangent (sigma, D, 2);
+            }
+         }, tol);
+      testBatch (new LinearMaterial (10000.0, 0.49) {
+            public void computeStressAndTangent (
+               SymmetricMatrix3d sigma, Matrix6d D, DeformedPoint def,
+               Matrix3d Q, double excitation, MaterialStateObject state) {
+               super.computeStressAndTangent (
+                  sigma, D, def, Q, excitation, state);
+               scaleStressAndTangent (sigma, D, 2);
+            }
+         }, tol);
+   }
+
+   private static void scaleStressAndTangent (
+      SymmetricMatrix3d sigma, Matrix6d D, double s) {
+      sigma.scale (s);
+      if (D != null) {
+         D.scale (s);
+      }
+   }
+
    /**
     * Test method executed by runtest().
     */
@@ -332,6 +430,20 @@ public class FemMaterialTest extends UnitTest {
       testTangent (fullBlemkerMuscle, tol);
       testTangent (simpleMuscle, tol);
       testTangent (blemkerMuscle, tol);
+
+      // batched evaluation should match per-point evaluation
+      double btol = 1e-12;
+      testBatch (neohook, btol);
+      testBatch (mooney, btol);
+      testBatch (
+         new MooneyRivlinMaterial (1.2, 3.4, 0.5, 0.7, 0.9, 1000.0), btol);
+      testBatch (incompNeohook, btol);
+      testBatch (linMat, btol);
+      testBatch (linMatCorotated, btol);
+      testBatch (stvk, btol);
+      testBatch (ogden, btol);
+      testBatch (cubicHyper, btol);
+      testBatchSubclasses (btol);
    }
 
    public static void main (String[] args) {
@@ -106,6 +106,73 @@ public class IncompNeoHookeanMaterial extends IncompressibleMaterialBase {
       }
    }
 
+   public void computeStressAndTangent (
+      double[] sigma, double[] D, DeformedPointBatch batch, double excitation) {
+
+      if (getClass() != IncompNeoHookeanMaterial.class) {
+         // subclass might override the per-point method
+         super.computeStressAndTangent (sigma, D, batch, excitation);
+         return;
+      }
+
+      double[] J = batch.getDetFArray();
+      double[] B = batch.getBArray();
+      double[] I1 = batch.getI1Array();
+      double[] P = batch.getPressureArray();
+      double G = getShearModulus();
+
+      for (int k=0; k<batch.numPoints(); k++) {
+         if (myGField != null) {
+            G = myGField.getValue (batch.getDeformedPoint(k));
+         }
+         double muJ = G/Math.pow(J[k], 5.0/3.0);
+         double Ib = I1[k];
+         double p = P[k];
+
+         // deviatoric stress plus pressure
+         int s = 6*k;
+         double diagTerm = -muJ*Ib/3.0 + p;
+         sigma[s  ] = muJ*B[s  ] + diagTerm;
+         sigma[s+1] = muJ*B[s+1] + diagTerm;
+         sigma[s+2] = muJ*B[s+2] + diagTerm;
+         sigma[s+3] = muJ*B[s+3];
+         sigma[s+4] = muJ*B[s+4];
+         sigma[s+5] = muJ*B[s+5];
+
+         if (D != null) {
+            // (2/9 muJ Ib + p) (I x I) + (2/3 muJ Ib - 2 p) II
+            // - 2/3 muJ (B x I + I x B)
+            double a = 2/9.0*muJ*Ib + p;
+            double c = 2/3.0*muJ*Ib - 2*p;
+            double sc = -2/3.0*muJ;
+            double b00 = sc*B[s  ];
+            double b11 = sc*B[s+1];
+            double b22 = sc*B[s+2];
+            double b01 = sc*B[s+3];
+            double b12 = sc*B[s+4];
+            double b02 = sc*B[s+5];
+            int d = 36*k;
+            D[d   ] = a+c+2*b00;
+            D[d+ 1] = a+b00+b11;
+            D[d+ 2] = a+b00+b22;
+            D[d+ 7] = a+c+2*b11;
+            D[d+ 8] = a+b11+b22;
+            D[d+14] = a+c+2*b22;
+            D[d+ 6] = D[d+ 1];
+            D[d+12] = D[d+ 2];
+            D[d+13] = D[d+ 8];
+            for (int i=0; i<3; i++) {
+               int r = d+6*i;
+               D[r+3] = b01; D[r+4] = b12; D[r+5] = b02;
+               D[d+18+i] = b01; D[d+24+i] = b12; D[d+30+i] = b02;
+            }
+            D[d+21] = c/2; D[d+22] = 0;   D[d+23] = 0;
+            D[d+27] = 0;   D[d+28] = c/2; D[d+29] = 0;
+            D[d+33] = 0;   D[d+34] = 0;   D[d+35] = c/2;
+         }
+      }
+   }
+
    public boolean equals (FemMaterial mat) {
       if (!(mat instanceof IncompNeoHookeanMaterial)) {
          return false;
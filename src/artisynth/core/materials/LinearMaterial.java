@@ -1,9 +1,13 @@
 package artisynth.core.materials;
 
+import java.util.Arrays;
+
 import artisynth.core.modelbase.*;
 import maspack.matrix.Matrix3d;
 import maspack.matrix.Matrix3dBase;
 import maspack.matrix.Matrix6d;
+import maspack.matrix.RotationMatrix3d;
+import maspack.matrix.SVDecomposition3d;
 import maspack.matrix.SymmetricMatrix3d;
 import maspack.properties.PropertyMode;
 import maspack.properties.PropertyUtils;
@@ -142,6 +146,101 @@ public class LinearMaterial extends LinearMaterialBase {
       C.m50 = 0;   C.m51 = 0;   C.m52 = 0;   C.m53 = 0;   C.m54 = 0;   C.m55 = mu;
    }
 
+   public void computeStressAndTangent (
+      double[] sigma, double[] D, DeformedPointBatch batch, double excitation) {
+
+      if (getClass() != LinearMaterial.class) {
+         // subclass might override the per-point method
+         super.computeStressAndTangent (sigma, D, batch, excitation);
+         return;
+      }
+
+      double[] Fvals = batch.getFArray();
+      boolean corotated = isCorotated();
+      double nu = myNu;
+      double E = getYoungsModulus();
+
+      Matrix3d F = new Matrix3d();
+      SymmetricMatrix3d sig = new SymmetricMatrix3d();
+      Matrix6d Dk = null;
+      SVDecomposition3d svd = null;
+      if (corotated) {
+         svd = new SVDecomposition3d();
+         Dk = (D != null ? new Matrix6d() : null);
+      }
+      RotationMatrix3d Rsvd = new RotationMatrix3d();
+
+      for (int k=0; k<batch.numPoints(); k++) {
+         if (myEField != null) {
+            E = myEField.getValue (batch.getDeformedPoint(k));
+         }
+         double lam = E*nu/((1+nu)*(1-2*nu));
+         double mu = E/(2*(1+nu));
+
+         // Cauchy strain, with rotation removed if necessary
+         RotationMatrix3d R = null;
+         int f = 9*k;
+         if (corotated) {
+            batch.getF (F, k);
+            R = batch.getRotation (k);
+            if (R == null) {
+               svd.polarDecomposition (Rsvd, sig, F);
+               R = Rsvd;
+            }
+            else {
+               sig.mulTransposeLeftSymmetric (R, F);
+            }
+         }
+         else {
+            sig.m00 = Fvals[f  ];
+            sig.m11 = Fvals[f+4];
+            sig.m22 = Fvals[f+8];
+            sig.m01 = 0.5*(Fvals[f+1] + Fvals[f+3]);
+            sig.m12 = 0.5*(Fvals[f+5] + Fvals[f+7]);
+            sig.m02 = 0.5*(Fvals[f+2] + Fvals[f+6]);
+         }
+         double e00 = sig.m00 - 1;
+         double e11 = sig.m11 - 1;
+         double e22 = sig.m22 - 1;
+
+         // sigma = 2*mu*eps + lamda*trace(eps)*I
+         double lamtrEps = lam*(e00+e11+e22);
+         sig.set (
+            2*mu*e00 + lamtrEps, 2*mu*e11 + lamtrEps, 2*mu*e22 + lamtrEps,
+            2*mu*sig.m01, 2*mu*sig.m02, 2*mu*sig.m12);
+         if (corotated) {
+            sig.mulLeftAndTransposeRight (R);
+         }
+         DeformedPointBatch.packSymmetric (sigma, k, sig);
+
+         if (D != null) {
+            double a = E / (1+ nu);  // 2 mu
+            double dia = (1 - nu) / (1 - 2 * nu) * a;
+            double off = nu / (1 - 2 * nu) * a;
+            double g = 0.5 * a;
+            if (corotated) {
+               Dk.setZero();
+               Dk.m00 = dia; Dk.m01 = off; Dk.m02 = off;
+               Dk.m10 = off; Dk.m11 = dia; Dk.m12 = off;
+               Dk.m20 = off; Dk.m21 = off; Dk.m22 = dia;
+               Dk.m33 = g;   Dk.m44 = g;   Dk.m55 = g;
+               TensorUtils.unrotateTangent (Dk, Dk, R);
+               DeformedPointBatch.packTangent (D, k, Dk);
+            }
+            else {
+               int d = 36*k;
+               Arrays.fill (D, d, d+36, 0);
+               D[d   ] = dia; D[d+ 1] = off; D[d+ 2] = off;
+               D[d+ 6] = off; D[d+ 7] = dia; D[d+ 8] = off;
+               D[d+12] = off; D[d+13] = off; D[d+14] = dia;
+               D[d+21] = g;
+               D[d+28] = g;
+               D[d+35] = g;
+            }
+         }
+      }
+   }
+
    public boolean equals (FemMaterial mat) {
       if (!(mat instanceof LinearMaterial)) {
          return false;
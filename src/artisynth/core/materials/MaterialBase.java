@@ -15,6 +15,8 @@ public abstract class MaterialBase
 
    protected PropertyInfo myPropInfo;
    protected HasProperties myPropHost;
+   // incremented whenever a property change is reported to the host
+   private volatile int myVersion;
 
    public PropertyInfo getPropertyInfo ()
     { 
@@ -214,9 +216,26 @@ public abstract class MaterialBase
       }
    }
 
+   /**
+    * Returns a number that is incremented whenever this material reports a
+    * property change to its host, including changes to any sub-materials.
+    * This can be used to determine when copies of the material are out of
+    * date.
+    *
+    * @return current version number of this material
+    */
+   public int getVersion() {
+      return myVersion;
+   }
+
+   protected void incrementVersion() {
+      myVersion++;
+   }
+
    protected void notifyHostOfPropertyChange (
       String name, MaterialBase mat1, MaterialBase mat2) {
       
+      incrementVersion();
       if (myPropHost instanceof PropertyChangeListener) {
          boolean stateChanged = stateChanged (mat1, mat2);
          boolean tangentSymmetryChanged = tangentSymmetryChanged (mat1, mat2);
@@ -229,6 +248,7 @@ public abstract class MaterialBase
 
    protected void notifyHostOfPropertyChange (String name) {
 
+      incrementVersion();
       if (myPropHost instanceof PropertyChangeListener) {
          ((PropertyChangeListener)myPropHost).propertyChanged (
             new MaterialChangeEvent (this, name, false, false));
@@ -416,6 +416,129 @@ public class MooneyRivlinMaterial extends IncompressibleMaterialBase {
       }
    }
 
+   public void computeStressAndTangent (
+      double[] sigma, double[] D, DeformedPointBatch batch, double excitation) {
+
+      if (getClass() != MooneyRivlinMaterial.class) {
+         // subclass might override the per-point method
+         super.computeStressAndTangent (sigma, D, batch, excitation);
+         return;
+      }
+
+      double[] Jvals = batch.getDetFArray();
+      double[] Bvals = batch.getBArray();
+      double[] Pvals = batch.getPressureArray();
+
+      boolean hasFields = (
+         myC10Field != null || myC01Field != null || myC11Field != null ||
+         myC20Field != null || myC02Field != null);
+      double c10 = getC10();
+      double c01 = getC01();
+      double c11 = getC11();
+      double c20 = getC20();
+      double c02 = getC02();
+
+      // scratch storage is local so that batches can be evaluated
+      // concurrently
+      double[] phiVals = new double[3];
+      SymmetricMatrix3d B = new SymmetricMatrix3d();
+      SymmetricMatrix3d B2 = new SymmetricMatrix3d();
+      SymmetricMatrix3d sig = new SymmetricMatrix3d();
+      SymmetricMatrix3d tmp = new SymmetricMatrix3d();
+      Matrix6d Dk = (D != null ? new Matrix6d() : null);
+
+      for (int k=0; k<batch.numPoints(); k++) {
+         if (hasFields) {
+            DeformedPoint def = batch.getDeformedPoint(k);
+            c10 = getC10(def);
+            c01 = getC01(def);
+            c11 = getC11(def);
+            c20 = getC20(def);
+            c02 = getC02(def);
+         }
+         double J = Jvals[k];
+         computePhiVals (phiVals, J);
+         double phi = phiVals[0];
+         double dphi = phiVals[1];
+
+         // deviatoric B and B*B
+         DeformedPointBatch.unpackSymmetric (B, Bvals, k);
+         B.scale (phi);
+         B2.mulTransposeLeft (B);
+
+         double I1 = B.m00 + B.m11 + B.m22;
+         double I2 = 0.5*(I1*I1 - (B2.m00 + B2.m11 + B2.m22));
+
+         double W1 = c10 + c11*(I2-3) + c20*2*(I1-3);
+         double W2 = c01 + c11*(I1-3) + c02*2*(I2-3);
+
+         // deviatoric stress
+         double a = W1 + W2*I1;
+         sig.m00 = a*B.m00 - W2*B2.m00;
+         sig.m11 = a*B.m11 - W2*B2.m11;
+         sig.m22 = a*B.m22 - W2*B2.m22;
+         sig.m01 = a*B.m01 - W2*B2.m01;
+         sig.m12 = a*B.m12 - W2*B2.m12;
+         sig.m02 = a*B.m02 - W2*B2.m02;
+         double dev = (dphi/phi)*(sig.m00 + sig.m11 + sig.m22);
+         double s = 2.0/J;
+         sig.m00 = s*sig.m00 + dev;
+         sig.m11 = s*sig.m11 + dev;
+         sig.m22 = s*sig.m22 + dev;
+         sig.m01 *= s;
+         sig.m12 *= s;
+         sig.m02 *= s;
+         sig.m10 = sig.m01;
+         sig.m21 = sig.m12;
+         sig.m20 = sig.m02;
+
+         double p = Pvals[k];
+         if (Dk != null) {
+            double Ji = 1.0/J;
+            double ddphi = phiVals[2];
+
+            double W11 = 2*c20;
+            double W12 = c11;
+            double W22 = 2*c02;
+
+            double w1 = -W2;
+            double w2 = W11 + 2*W12*I1 + W2 + W22*I2*I2;
+            double w3 = W12 + W22*I1;
+            double w4 = W22;
+
+            double wc1 = (w2 - W12 + W22*I1)*I1;
+            double wc2 = -(W12 + W22*I1 - W22*I1*I1 + 2*W22*I2 + W2);
+
+            double wcc = wc1*I1 + wc2*(I1*I1-2*I2);
+            double w0 = W1*I1 + 2*W2*I2;
+
+            double zeta = ((dphi+J*ddphi)*w0 + J*dphi*dphi/phi*(wcc-2*w0))/phi;
+            double r = dphi/phi;
+
+            // pressure terms are combined with the identity terms
+            Dk.setZero();
+            TensorUtils.addScaledIdentityProduct (Dk, zeta + p);
+            TensorUtils.addScaledIdentity (Dk, -2*r*w0 - 2*p);
+            TensorUtils.addSymmetricTensorProduct (
+               Dk, J*r, sig, SymmetricMatrix3d.IDENTITY);
+            TensorUtils.addTensorProduct4 (Dk, w1*4.0*Ji, B);
+            TensorUtils.addTensorProduct (Dk, w2*4.0*Ji, B);
+            TensorUtils.addSymmetricTensorProduct (Dk, w3*4.0*Ji, B, B2);
+            TensorUtils.addTensorProduct (Dk, w4*4.0*Ji, B2);
+            tmp.scale (wc1, B);
+            tmp.scaledAdd (wc2, B2);
+            TensorUtils.addSymmetricTensorProduct (
+               Dk, 2*r, tmp, SymmetricMatrix3d.IDENTITY);
+            Dk.setLowerToUpper();
+            DeformedPointBatch.packTangent (D, k, Dk);
+         }
+         sig.m00 += p;
+         sig.m11 += p;
+         sig.m22 += p;
+         DeformedPointBatch.packSymmetric (sigma, k, sig);
+      }
+   }
+
    public boolean equals (FemMaterial mat) {
       if (!(mat instanceof MooneyRivlinMaterial)) {
          return false;
@@ -438,6 +561,7 @@ public class MooneyRivlinMaterial extends IncompressibleMaterialBase {
       mat.myB = new SymmetricMatrix3d();
       mat.myB2 = new SymmetricMatrix3d();
       mat.myTmp = new SymmetricMatrix3d();
+      mat.myPhiVals = new double[3];
       return mat;
    }
 
@@ -1,5 +1,7 @@
 package artisynth.core.materials;
 
+import java.util.Arrays;
+
 import artisynth.core.modelbase.*;
 import maspack.matrix.Matrix3d;
 import maspack.matrix.Matrix6d;
@@ -128,6 +130,55 @@ public class NeoHookeanMaterial extends FemMaterial {
       }
    }
 
+   public void computeStressAndTangent (
+      double[] sigma, double[] D, DeformedPointBatch batch, double excitation) {
+
+      if (getClass() != NeoHookeanMaterial.class) {
+         // subclass might override the per-point method
+         super.computeStressAndTangent (sigma, D, batch, excitation);
+         return;
+      }
+
+      double[] J = batch.getDetFArray();
+      double[] B = batch.getBArray();
+      double nu = myNu;
+      double E = getYoungsModulus();
+
+      for (int k=0; k<batch.numPoints(); k++) {
+         if (myEField != null) {
+            E = myEField.getValue (batch.getDeformedPoint(k));
+         }
+         double mu = E/(2*(1+nu));
+         double lam = (E*nu)/((1-2*nu)*(1+nu));
+         double Jk = J[k];
+         double lnJ = Math.log(Jk);
+
+         int s = 6*k;
+         double muJ = mu/Jk;
+         double diagTerm = (lam*lnJ-mu)/Jk;
+         sigma[s  ] = muJ*B[s  ] + diagTerm;
+         sigma[s+1] = muJ*B[s+1] + diagTerm;
+         sigma[s+2] = muJ*B[s+2] + diagTerm;
+         sigma[s+3] = muJ*B[s+3];
+         sigma[s+4] = muJ*B[s+4];
+         sigma[s+5] = muJ*B[s+5];
+
+         if (D != null) {
+            // lam/J (I x I) + 2 (mu - lam ln J)/J II
+            double a = lam/Jk;
+            double c = 2*(mu-lam*lnJ)/Jk;
+            int d = 36*k;
+            Arrays.fill (D, d, d+36, 0);
+            D[d   ] = a+c; D[d+ 1] = a;   D[d+ 2] = a;
+            D[d+ 6] = a;   D[d+ 7] = a+c; D[d+ 8] = a;
+            D[d+12] = a;   D[d+13] = a;   D[d+14] = a+c;
+            D[d+21] = c/2;
+            D[d+28] = c/2;
+            D[d+35] = c/2;
+         }
+      }
+   }
+
    public boolean equals (FemMaterial mat) {
       if (!(mat instanceof NeoHookeanMaterial)) {
          return false;
@@ -33,6 +33,7 @@ import maspack.collision.IntersectionContour;
 import maspack.collision.IntersectionPoint;
 import maspack.collision.PenetratingPoint;
 import maspack.geometry.BVFeatureQuery;
+import maspack.geometry.BVTreeCoherenceCache;
 import maspack.geometry.HalfEdge;
 import maspack.geometry.Face;
 import maspack.geometry.PolygonalMesh;
@@ -99,6 +100,9 @@ public class CollisionHandler extends ConstrainerBase
    ContactInfo myContactInfo; // most recent contact info for this handler
    ContactInfo myLastContactInfo; // previous contact info for this handler
    boolean myStateNeedsContactInfo = false;
+   // caches the bounding volume node pairs from the previous contact query,
+   // for use by the next query. Created on demand.
+   BVTreeCoherenceCache myCoherenceCache = null;
    
    // Set of vertices on collidable0 which are attached to colliable1
    HashSet<Vertex3d> myAttachedVertices0 = null;
@@ -178,6 +182,19 @@ public class CollisionHandler extends ConstrainerBase
       return myLastContactInfo;
    }
 
+   /**
+    * Returns the coherence cache used to accelerate contact queries for this
+    * handler's collidable pair, creating it if necessary.
+    *
+    * @return coherence cache for this handler
+    */
+   BVTreeCoherenceCache getCoherenceCache() {
+      if (myCoherenceCache == null) {
+         myCoherenceCache = new BVTreeCoherenceCache();
+      }
+      return myCoherenceCache;
+   }
+
    protected static boolean isRigid (CollidableBody col) {
       return (col instanceof RigidBody || col instanceof RigidMeshComp);
    }
@@ -8,18 +8,26 @@ import java.util.Comparator;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import maspack.collision.AbstractCollider;
+import maspack.collision.CollisionMetrics;
 import maspack.collision.ContactInfo;
 import maspack.collision.MeshCollider;
 import maspack.collision.SurfaceMeshIntersector;
 import maspack.collision.SurfaceMeshIntersector.RegionType;
 import maspack.collision.SignedDistanceCollider;
+import maspack.collision.SweepAndPrune;
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.BVTreeCoherenceCache;
 import maspack.geometry.PolygonalMesh;
 import maspack.geometry.DistanceGrid;
+import maspack.matrix.Point3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.RotationMatrix3d;
 import maspack.matrix.SparseBlockMatrix;
 import maspack.matrix.Vector3d;
 import maspack.matrix.VectorNd;
@@ -166,9 +174,171 @@ public class CollisionManager extends RenderableCompositeBase
 
    AbstractCollider myCollider = null;
 
-   SurfaceMeshIntersector myAjlIntersector = null;
-   SignedDistanceCollider mySDCollider = null;
-   MeshCollider myTriTriCollider = null;
+   /**
+    * Colliders used to compute contact information. Colliders keep internal
+    * state during a query, and so each thread computing contacts needs its
+    * own set.
+    */
+   static class Colliders {
+      SurfaceMeshIntersector myAjlIntersector = null;
+      SignedDistanceCollider mySDCollider = null;
+      MeshCollider myTriTriCollider = null;
+   }
+
+   Colliders myColliders = new Colliders();
+   // colliders for each chunk of a parallel contact computation
+   ArrayList<Colliders> myParallelColliders = new ArrayList<>();
+
+   // broad phase used to cull pairs of collidable bodies whose bounding
+   // boxes do not overlap, indexed by collidable index
+   SweepAndPrune mySweepAndPrune = new SweepAndPrune();
+   // bodies known to the broad phase, set when the handler table is updated
+   ArrayList<CollidableBody> myBroadPhaseBodies = null;
+   // true while the broad phase is being used to cull contact checks
+   boolean myBroadPhaseActive = false;
+   CollisionMetrics myMetrics = new CollisionMetrics ("CollisionManager");
+   private Point3d myBoundsMin = new Point3d();
+   private Point3d myBoundsMax = new Point3d();
+
+   // contact queries collected during a parallel collision update. If null,
+   // contacts are computed as soon as each query is found.
+   ArrayList<ContactQuery> myPendingQueries = null;
+
+   /**
+    * Describes the contact computation for a single pair of collidable
+    * bodies. All information which may require lazy updating of the bodies
+    * is obtained when the query is created, so that {@link #compute} can be
+    * called concurrently for different queries.
+    */
+   class ContactQuery {
+      CollidableBody myC0;
+      CollidableBody myC1;
+      CollisionBehavior myBehav;
+      BehaviorSource mySrc;
+      PolygonalMesh myMesh0;
+      PolygonalMesh myMesh1;
+      ColliderType myColliderType;
+      RegionType myRegions0;
+      RegionType myRegions1;
+      DistanceGrid myGrid0;
+      DistanceGrid myGrid1;
+      ContactInfo myCinfo;
+      // coherence cache from the pair's handler, if caching is being used
+      BVTreeCoherenceCache myCache;
+      int myCacheQueries;
+      int myCacheHits;
+
+      ContactQuery (
+         CollidableBody c0, CollidableBody c1,
+         CollisionBehavior behav, BehaviorSource src) {
+
+         myC0 = c0;
+         myC1 = c1;
+         myBehav = behav;
+         mySrc = src;
+         myMesh0 = c0.getCollisionMesh();
+         myMesh1 = c1.getCollisionMesh();
+         ColliderType colliderType = behav.getColliderType();
+         if (colliderType == ColliderType.SIGNED_DISTANCE) {
+            // if using signed distance collider, at least one collidable
+            // must be rigid and support signed distance grids
+            if ((c0.isDeformable() || !c0.hasDistanceGrid()) &&
+                (c1.isDeformable() || !c1.hasDistanceGrid())) {
+               colliderType = ColliderType.AJL_CONTOUR;
+            }
+         }
+         myColliderType = colliderType;
+         if (colliderType == ColliderType.AJL_CONTOUR) {
+            // types of regions that we need to compute for mesh0 and mesh1
+            myRegions0 = RegionType.INSIDE;
+            myRegions1 = RegionType.INSIDE;
+            Method method = behav.getMethod();
+            if (method != Method.VERTEX_EDGE_PENETRATION &&
+                method != Method.CONTOUR_REGION &&
+                behav.getBodyFaceContact() == false) {
+               // vertex penetration method may not require computing
+               // regions for both meshes
+               if (CollisionHandler.isRigid (c0) && 
+                   !CollisionHandler.isRigid (c1)) {
+                  myRegions0 = RegionType.NONE;
+               }
+               else if (CollisionHandler.isRigid (c1) && 
+                        !CollisionHandler.isRigid (c0)) {
+                  myRegions1 = RegionType.NONE;
+               }
+            }
+         }
+         else if (colliderType == ColliderType.SIGNED_DISTANCE) {
+            DistanceGridComp gcomp0 = c0.getDistanceGridComp();
+            DistanceGridComp gcomp1 = c1.getDistanceGridComp();
+            myGrid0 = (gcomp0 != null ? gcomp0.getGrid() : null);
+            myGrid1 = (gcomp1 != null ? gcomp1.getGrid() : null);
+         }
+         if (myCoherenceCaching &&
+             colliderType != ColliderType.SIGNED_DISTANCE &&
+             !c0.isDeformable() && !c1.isDeformable()) {
+            CollisionHandler ch = myHandlerTable.get (c0, c1);
+            if (ch != null) {
+               myCache = ch.getCoherenceCache();
+               myCacheQueries = myCache.getNumQueries();
+               myCacheHits = myCache.getNumHits();
+            }
+         }
+      }
+
+      /**
+       * Adds the cache queries and hits made by {@link #compute} to the
+       * collision metrics. Should be called serially after the computation.
+       */
+      void updateCoherenceMetrics (CollisionMetrics metrics) {
+         if (myCache != null) {
+            metrics.coherenceQueries += myCache.getNumQueries()-myCacheQueries;
+            metrics.coherenceHits += myCache.getNumHits()-myCacheHits;
+         }
+      }
+
+      ContactInfo compute (Colliders colliders) {
+         switch (myColliderType) {
+            case AJL_CONTOUR: {
+               if (colliders.myAjlIntersector == null) {
+                  colliders.myAjlIntersector = new SurfaceMeshIntersector();
+               }
+               colliders.myAjlIntersector.setCoherenceCache (myCache);
+               try {
+                  return colliders.myAjlIntersector.findContoursAndRegions (
+                     myMesh0, myRegions0, myMesh1, myRegions1);
+               }
+               finally {
+                  colliders.myAjlIntersector.setCoherenceCache (null);
+               }
+            }
+            case TRI_INTERSECTION: {
+               if (colliders.myTriTriCollider == null) {
+                  colliders.myTriTriCollider = new MeshCollider();
+               }
+               colliders.myTriTriCollider.setCoherenceCache (myCache);
+               try {
+                  return colliders.myTriTriCollider.getContacts (
+                     myMesh0, myMesh1);
+               }
+               finally {
+                  colliders.myTriTriCollider.setCoherenceCache (null);
+               }
+            }
+            case SIGNED_DISTANCE: {
+               if (colliders.mySDCollider == null) {
+                  colliders.mySDCollider = new SignedDistanceCollider();
+               }
+               return colliders.mySDCollider.getContacts (
+                  myMesh0, myGrid0, myMesh1, myGrid1);
+            }
+            default: {
+               throw new UnsupportedOperationException (
+                  "Unimplemented collider type " + myColliderType);
+            }
+         }
+      }
+   }
 
    double myMaxpen; // accumulates maximum penetration 
 
@@ -226,7 +396,7 @@ public class CollisionManager extends RenderableCompositeBase
    ColliderType myColliderType = myDefaultColliderType;
    PropertyMode myColliderTypeMode = PropertyMode.Inherited;
 
-   static Method defaultMethod = Method.DEFAULT;
+   static final Method defaultMethod = Method.DEFAULT;
    Method myMethod = defaultMethod;
    PropertyMode myMethodMode = PropertyMode.Inherited;
 
@@ -276,101 +446,113 @@ public class CollisionManager extends RenderableCompositeBase
 
    // property definitions
 
-   static double defaultFriction = 0;
+   static final double defaultFriction = 0;
    double myFriction = defaultFriction;
    PropertyMode myFrictionMode = PropertyMode.Inherited;
 
-   static boolean defaultBilateralVertexContact = true;
+   static final boolean defaultBilateralVertexContact = true;
    boolean myBilateralVertexContact = defaultBilateralVertexContact;
    PropertyMode myBilateralVertexContactMode = PropertyMode.Inherited;
 
-   static boolean defaultReduceConstraints = false;
+   static final boolean defaultReduceConstraints = false;
    boolean myReduceConstraints = defaultReduceConstraints;
    PropertyMode myReduceConstraintsMode = PropertyMode.Inherited;
 
-   static VertexPenetrations defaultVertexPenetrations = VertexPenetrations.AUTO;
+   static final VertexPenetrations defaultVertexPenetrations = VertexPenetrations.AUTO;
    VertexPenetrations myVertexPenetrations = defaultVertexPenetrations;
    PropertyMode myVertexPenetrationsMode = PropertyMode.Inherited;
 
    // rigidRegionTol and rigidPointTol are both computed automatically
    // at the first initialize() if their values are not -1:
    
-   static double defaultRigidRegionTol = -1;
+   static final double defaultRigidRegionTol = -1;
    double myRigidRegionTol = defaultRigidRegionTol;
-   static PropertyMode defaultRigidRegionTolMode = PropertyMode.Explicit;
+   static final PropertyMode defaultRigidRegionTolMode = PropertyMode.Explicit;
    PropertyMode myRigidRegionTolMode = defaultRigidRegionTolMode;
 
-   static double defaultRigidPointTol = -1;
+   static final double defaultRigidPointTol = -1;
    double myRigidPointTol = defaultRigidPointTol;
-   static PropertyMode defaultRigidPointTolMode = PropertyMode.Explicit;
+   static final PropertyMode defaultRigidPointTolMode = PropertyMode.Explicit;
    PropertyMode myRigidPointTolMode = defaultRigidPointTolMode;
 
-   static double defaultCompliance = 0.0;
+   static final double defaultCompliance = 0.0;
    double myCompliance = defaultCompliance;
    PropertyMode myComplianceMode = PropertyMode.Inherited;
 
-   static double defaultDamping = 0.0;
+   static final double defaultDamping = 0.0;
    double myDamping = defaultDamping;
    PropertyMode myDampingMode = PropertyMode.Inherited;
 
-   static double defaultStictionCreep = 0.0;
+   static final double defaultStictionCreep = 0.0;
    double myStictionCreep = defaultStictionCreep;
    PropertyMode myStictionCreepMode = PropertyMode.Inherited;
 
-   static double defaultAcceleration = 0;
+   static final double defaultAcceleration = 0;
    double myAcceleration = defaultAcceleration;
    PropertyMode myAccelerationMode = PropertyMode.Inherited;
 
    private double myContactNormalLen = Property.DEFAULT_DOUBLE;
 
-   static double DEFAULT_CONTACT_FORCE_LEN_SCALE = 1.0;
+   static final double DEFAULT_CONTACT_FORCE_LEN_SCALE = 1.0;
    private double myContactForceLenScale = DEFAULT_CONTACT_FORCE_LEN_SCALE;
+
+   static final boolean DEFAULT_PARALLEL_COLLISIONS = false;
+   private boolean myParallelCollisions = DEFAULT_PARALLEL_COLLISIONS;
+
+   static final int DEFAULT_NUM_COLLISION_THREADS = 0;
+   private int myNumCollisionThreads = DEFAULT_NUM_COLLISION_THREADS;
+
+   static final boolean DEFAULT_BROAD_PHASE_CULLING = true;
+   private boolean myBroadPhaseCulling = DEFAULT_BROAD_PHASE_CULLING;
+
+   static final boolean DEFAULT_COHERENCE_CACHING = true;
+   private boolean myCoherenceCaching = DEFAULT_COHERENCE_CACHING;
    
    // Estimate of the radius of the set of collidable objects.
    // Used for computing default tolerances.
    protected double myCollisionArenaRadius = -1;
 
-   static boolean defaultDrawIntersectionContours = false;
+   static final boolean defaultDrawIntersectionContours = false;
    boolean myDrawIntersectionContours = defaultDrawIntersectionContours;
    PropertyMode myDrawIntersectionContoursMode = PropertyMode.Inherited;
 
-   static boolean defaultDrawIntersectionFaces = false;
+   static final boolean defaultDrawIntersectionFaces = false;
    boolean myDrawIntersectionFaces = defaultDrawIntersectionFaces;
    PropertyMode myDrawIntersectionFacesMode = PropertyMode.Inherited;
 
-   static boolean defaultDrawIntersectionPoints = false;
+   static final boolean defaultDrawIntersectionPoints = false;
    boolean myDrawIntersectionPoints = defaultDrawIntersectionPoints;
    PropertyMode myDrawIntersectionPointsMode = PropertyMode.Inherited;
 
-   static boolean defaultDrawContactNormals = false;
+   static final boolean defaultDrawContactNormals = false;
    boolean myDrawContactNormals = defaultDrawContactNormals;
    PropertyMode myDrawContactNormalsMode = PropertyMode.Inherited;
 
-   static boolean defaultDrawContactForces = false;
+   static final boolean defaultDrawContactForces = false;
    boolean myDrawContactForces = defaultDrawContactForces;
    PropertyMode myDrawContactForcesMode = PropertyMode.Inherited;
 
-   static boolean defaultDrawFrictionForces = false;
+   static final boolean defaultDrawFrictionForces = false;
    boolean myDrawFrictionForces = defaultDrawFrictionForces;
    PropertyMode myDrawFrictionForcesMode = PropertyMode.Inherited;
 
-   static ColorInterpolation defaultColorMapInterpolation =
+   static final ColorInterpolation defaultColorMapInterpolation =
       ColorInterpolation.HSV;
    ColorInterpolation myColorMapInterpolation = defaultColorMapInterpolation;
    PropertyMode myColorMapInterpolationMode = PropertyMode.Inherited;
 
-   static ColorMapType defaultDrawColorMap = ColorMapType.NONE;
+   static final ColorMapType defaultDrawColorMap = ColorMapType.NONE;
    ColorMapType myDrawColorMap = defaultDrawColorMap;
    PropertyMode myDrawColorMapMode = PropertyMode.Inherited;
 
-   static int defaultRenderingCollidableNum = 0;
+   static final int defaultRenderingCollidableNum = 0;
    int myRenderingCollidableNum = defaultRenderingCollidableNum;
    PropertyMode myRenderingCollidableMode = PropertyMode.Inherited;
 
-   static ColorMapBase defaultColorMap = new HueColorMap (2.0/3, 0);
+   static final ColorMapBase defaultColorMap = new HueColorMap (2.0/3, 0);
    ColorMapBase myColorMap = defaultColorMap.copy();
 
-   static ScalarRange defaultColorMapRange = new ScalarRange();
+   static final ScalarRange defaultColorMapRange = new ScalarRange();
    ScalarRange myColorMapRange = defaultColorMapRange.clone();
 
    ContactForceBehavior myForceBehavior;
@@ -470,6 +652,23 @@ public class CollisionManager extends RenderableCompositeBase
       myProps.add (
          "colorMap", "color map for penetration plotting", 
          defaultColorMap, "CE");
+      myProps.add (
+         "parallelCollisions",
+         "compute contacts for different collidable pairs in parallel",
+         DEFAULT_PARALLEL_COLLISIONS);
+      myProps.add (
+         "numCollisionThreads",
+         "maximum number of threads for parallel collisions "+
+         "(0 = number of processors)",
+         DEFAULT_NUM_COLLISION_THREADS, "[0,inf] NoSlider");
+      myProps.add (
+         "broadPhaseCulling",
+         "skip contact computations for bodies with disjoint bounding boxes",
+         DEFAULT_BROAD_PHASE_CULLING);
+      myProps.add (
+         "coherenceCaching",
+         "reuse bounding volume node pairs between contact queries",
+         DEFAULT_COHERENCE_CACHING);
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -654,6 +853,121 @@ public class CollisionManager extends RenderableCompositeBase
     public double getContactForceLenScale() {
       return myContactForceLenScale;
    }
+
+   /**
+    * Queries whether contacts for different pairs of collidable bodies are
+    * computed in parallel. See {@link #setParallelCollisions}.
+    *
+    * @return {@code true} if parallel collisions are enabled
+    */
+   public boolean getParallelCollisions() {
+      return myParallelCollisions;
+   }
+
+   /**
+    * Sets whether contacts for different pairs of collidable bodies are
+    * computed in parallel. If enabled, the collision queries for all pairs
+    * handled by this manager are run concurrently on a shared thread pool,
+    * after which the collision handlers are updated serially in the same
+    * order used for serial computation. The resulting contact constraints,
+    * and their ordering, are therefore the same in either case. The default
+    * value is {@code false}.
+    *
+    * @param enable if {@code true}, enables parallel collisions
+    */
+   public void setParallelCollisions (boolean enable) {
+      myParallelCollisions = enable;
+   }
+
+   /**
+    * Returns the maximum number of threads used for parallel collisions.
+    * See {@link #setNumCollisionThreads}.
+    *
+    * @return maximum number of collision threads
+    */
+   public int getNumCollisionThreads() {
+      return myNumCollisionThreads;
+   }
+
+   /**
+    * Sets the maximum number of threads used for parallel collisions. A
+    * value of 0 (the default) means that the number of available processors
+    * is used.
+    *
+    * @param num maximum number of collision threads
+    */
+   public void setNumCollisionThreads (int num) {
+      myNumCollisionThreads = Math.max (0, num);
+   }
+
+   /**
+    * Queries whether broad-phase culling is enabled. See {@link
+    * #setBroadPhaseCulling}.
+    *
+    * @return {@code true} if broad-phase culling is enabled
+    */
+   public boolean getBroadPhaseCulling() {
+      return myBroadPhaseCulling;
+   }
+
+   /**
+    * Sets whether broad-phase culling is used to avoid contact computations
+    * between collidable bodies that are far apart. If enabled, the world
+    * bounding boxes of all collidable bodies handled by this manager are
+    * found at each collision update and processed by a sweep-and-prune
+    * algorithm (see {@link SweepAndPrune}), which retains its sort order
+    * between updates to exploit temporal coherence. Contacts are then only
+    * computed for pairs whose boxes overlap. Since each box contains the
+    * oriented bounding box of its body's collision mesh, no contacts are
+    * lost. Statistics on the number of culled pairs are available through
+    * {@link #getCollisionMetrics}. The default value is {@code true}.
+    *
+    * @param enable if {@code true}, enables broad-phase culling
+    */
+   public void setBroadPhaseCulling (boolean enable) {
+      myBroadPhaseCulling = enable;
+   }
+
+   /**
+    * Queries whether coherence caching is enabled. See {@link
+    * #setCoherenceCaching}.
+    *
+    * @return {@code true} if coherence caching is enabled
+    */
+   public boolean getCoherenceCaching() {
+      return myCoherenceCaching;
+   }
+
+   /**
+    * Sets whether coherence caching is used to accelerate contact queries
+    * between pairs of rigid collidable bodies. If enabled, each collision
+    * handler keeps a {@link BVTreeCoherenceCache} which records the
+    * bounding volume node pairs found near contact in one query, and uses
+    * them to seed the bounding volume tree intersection of the next query,
+    * provided the bodies have not moved relative to each other by more than
+    * a small margin. The resulting contacts are identical to those computed
+    * without caching. Caching does not apply to deformable bodies, whose
+    * bounding volume trees change at every step, or to the {@link
+    * ColliderType#SIGNED_DISTANCE} collider. Cache hit rates are available
+    * through {@link #getCollisionMetrics}. The default value is {@code
+    * true}.
+    *
+    * @param enable if {@code true}, enables coherence caching
+    */
+   public void setCoherenceCaching (boolean enable) {
+      myCoherenceCaching = enable;
+   }
+
+   /**
+    * Returns the metrics object used to record collision statistics for this
+    * manager, including the number of body pairs culled by the broad phase
+    * and the hit rate for coherence caching.
+    *
+    * @return collision metrics for this manager
+    */
+   public CollisionMetrics getCollisionMetrics() {
+      return myMetrics;
+   }
     
    /** 
     * Gets the Coulomb friction coefficient
@@ -2162,6 +2476,7 @@ public class CollisionManager extends RenderableCompositeBase
          topMech.updateCollidableBodyIndices();
          ArrayList<CollidableBody> bodies = myMechModel.getCollidableBodies();
          myHandlerTable.reinitialize (bodies);     
+         myBroadPhaseBodies = bodies;
          myHandlers.clear();
          collectHandlers (myHandlers, /*updateResponses=*/false);
          myHandlerTableValid = true;
@@ -2386,72 +2701,10 @@ public class CollisionManager extends RenderableCompositeBase
 
    ContactInfo computeContactInfo (
       CollidableBody c0, CollidableBody c1, CollisionBehavior behav) {
-
-      PolygonalMesh mesh0 = c0.getCollisionMesh();
-      PolygonalMesh mesh1 = c1.getCollisionMesh();
-      ContactInfo cinfo;
-      ColliderType colliderType = behav.getColliderType();
-      if (colliderType == ColliderType.SIGNED_DISTANCE) {
-         // if using signed distance collider, at least one collidable
-         // must be rigid and support signed distance grids
-         if ((c0.isDeformable() || !c0.hasDistanceGrid()) &&
-             (c1.isDeformable() || !c1.hasDistanceGrid())) {
-            colliderType = ColliderType.AJL_CONTOUR;
-         }
-      }
-      //FunctionTimer timer = new FunctionTimer();
-      //timer.start();
-      switch (colliderType) {
-         case AJL_CONTOUR: {
-            if (myAjlIntersector == null) {
-               myAjlIntersector = new SurfaceMeshIntersector();
-            }
-            // types of regions that we need to compute for mesh0 and mesh1
-            RegionType regions0 = RegionType.INSIDE;
-            RegionType regions1 = RegionType.INSIDE;
-            Method method = behav.getMethod();
-            if (method != Method.VERTEX_EDGE_PENETRATION &&
-                method != Method.CONTOUR_REGION &&
-                behav.getBodyFaceContact() == false) {
-               // vertex penetration method may not require computing
-               // regions for both meshes
-               if (CollisionHandler.isRigid (c0) && 
-                   !CollisionHandler.isRigid (c1)) {
-                  regions0 = RegionType.NONE;
-               }
-               else if (CollisionHandler.isRigid (c1) && 
-                        !CollisionHandler.isRigid (c0)) {
-                  regions1 = RegionType.NONE;
-               }
-            }
-            cinfo = myAjlIntersector.findContoursAndRegions (
-               mesh0, regions0, mesh1, regions1);
-            break;
-         }
-         case TRI_INTERSECTION: {
-            if (myTriTriCollider == null) {
-               myTriTriCollider = new MeshCollider();
-            }
-            cinfo = myTriTriCollider.getContacts (mesh0, mesh1);
-            break;
-         }
-         case SIGNED_DISTANCE: {
-            if (mySDCollider == null) {
-               mySDCollider = new SignedDistanceCollider();
-            }
-            DistanceGridComp gcomp0 = c0.getDistanceGridComp();
-            DistanceGridComp gcomp1 = c1.getDistanceGridComp();
-            cinfo = mySDCollider.getContacts (
-               mesh0, gcomp0 != null ? gcomp0.getGrid() : null,
-               mesh1, gcomp1 != null ? gcomp1.getGrid() : null);
-            break;
-         }
-         default: {
-            throw new UnsupportedOperationException (
-               "Unimplemented collider type " + colliderType);
-         }
-      }
-      return cinfo;    
+      ContactQuery query = new ContactQuery (c0, c1, behav, null);
+      ContactInfo cinfo = query.compute (myColliders);
+      query.updateCoherenceMetrics (myMetrics);
+      return cinfo;
    }
    
    void checkForContact (
@@ -2466,10 +2719,23 @@ public class CollisionManager extends RenderableCompositeBase
          // swap the collidable references to match the behavior
          CollidableBody tmp = c0; c0 = c1; c1 = tmp;
       }
+      if (myBroadPhaseActive) {
+         myMetrics.broadPhasePairs++;
+         if (!mySweepAndPrune.overlaps (
+                c0.getCollidableIndex(), c1.getCollidableIndex())) {
+            myMetrics.broadPhaseCulled++;
+            return;
+         }
+      }
       ContactInfo cinfo;
       if (testMode) {
          cinfo = new ContactInfo (c0.getCollisionMesh(), c1.getCollisionMesh());
       }
+      else if (myPendingQueries != null) {
+         // contacts will be computed later by computePendingContacts()
+         myPendingQueries.add (new ContactQuery (c0, c1, behav, src));
+         return;
+      }
       else {
          cinfo = computeContactInfo (c0, c1, behav);
       }
@@ -2781,6 +3047,132 @@ public class CollisionManager extends RenderableCompositeBase
       }
    }
 
+   /**
+    * Performs lazy updates on a collision mesh that would otherwise be done
+    * by the colliders, so that the mesh can be queried concurrently.
+    */
+   private void prepareMeshForQueries (PolygonalMesh mesh) {
+      mesh.getBVTree();
+      mesh.updateFaceNormals();
+      mesh.isTriangular();
+      mesh.isClosed();
+      mesh.getLocalBounds (null, null);
+   }
+
+   /**
+    * Computes a world-aligned bounding box for a collision mesh, by
+    * transforming the mesh's local bounding box into world coordinates. The
+    * result contains the oriented box used by the colliders to check
+    * whether meshes are disjoint, and for rigid meshes is much cheaper to
+    * compute than the world bounds of the vertices.
+    */
+   private void getBroadPhaseBounds (
+      PolygonalMesh mesh, Point3d pmin, Point3d pmax) {
+
+      mesh.getLocalBounds (pmin, pmax);
+      if (!mesh.meshToWorldIsIdentity()) {
+         RigidTransform3d X = mesh.getMeshToWorld();
+         RotationMatrix3d R = X.R;
+         double hx = (pmax.x-pmin.x)/2;
+         double hy = (pmax.y-pmin.y)/2;
+         double hz = (pmax.z-pmin.z)/2;
+         pmin.add (pmax);
+         pmin.scale (0.5);
+         pmin.transform (X); // pmin now contains the world center
+         // world half widths are given by |R| times the local half widths
+         double wx =
+            Math.abs(R.m00)*hx + Math.abs(R.m01)*hy + Math.abs(R.m02)*hz;
+         double wy =
+            Math.abs(R.m10)*hx + Math.abs(R.m11)*hy + Math.abs(R.m12)*hz;
+         double wz =
+            Math.abs(R.m20)*hx + Math.abs(R.m21)*hy + Math.abs(R.m22)*hz;
+         pmax.set (pmin.x+wx, pmin.y+wy, pmin.z+wz);
+         pmin.set (pmin.x-wx, pmin.y-wy, pmin.z-wz);
+      }
+   }
+
+   /**
+    * Updates the broad phase with the current bounding boxes of the bodies
+    * handled by this manager. Bodies without collision meshes are given
+    * infinite boxes, so that they are never culled.
+    */
+   void updateBroadPhase() {
+      long t0 = System.nanoTime();
+      ArrayList<CollidableBody> bodies = myBroadPhaseBodies;
+      int maxIdx = -1;
+      for (CollidableBody cb : bodies) {
+         maxIdx = Math.max (maxIdx, cb.getCollidableIndex());
+      }
+      SweepAndPrune sap = mySweepAndPrune;
+      sap.setNumSlots (maxIdx+1);
+      sap.clearBoxes();
+      Point3d pmin = myBoundsMin;
+      Point3d pmax = myBoundsMax;
+      for (CollidableBody cb : bodies) {
+         int idx = cb.getCollidableIndex();
+         if (idx < 0) {
+            continue;
+         }
+         PolygonalMesh mesh = cb.getCollisionMesh();
+         if (mesh != null) {
+            getBroadPhaseBounds (mesh, pmin, pmax);
+         }
+         else {
+            double inf = Double.POSITIVE_INFINITY;
+            pmin.set (-inf, -inf, -inf);
+            pmax.set (inf, inf, inf);
+         }
+         sap.setBox (idx, pmin, pmax);
+      }
+      sap.update();
+      myMetrics.broadPhaseUpdates++;
+      myMetrics.broadPhaseTime += (System.nanoTime()-t0);
+   }
+
+   /**
+    * Computes the contact information for a list of queries in parallel,
+    * and then adds or updates the corresponding handlers serially, in the
+    * order of the queries. Since the queries are collected in the same order
+    * as they would be processed serially, the resulting handlers and
+    * constraints are independent of the number of threads.
+    */
+   void computePendingContacts (final ArrayList<ContactQuery> queries) {
+      final int nq = queries.size();
+      if (nq == 0) {
+         return;
+      }
+      IdentityHashMap<PolygonalMesh,PolygonalMesh> meshes =
+         new IdentityHashMap<>();
+      for (ContactQuery q : queries) {
+         meshes.put (q.myMesh0, q.myMesh0);
+         meshes.put (q.myMesh1, q.myMesh1);
+      }
+      for (PolygonalMesh mesh : meshes.keySet()) {
+         prepareMeshForQueries (mesh);
+      }
+      // use one chunk per thread, with queries assigned to chunks in a
+      // strided fashion to help balance the load
+      final int nchunks = ParallelLoop.numChunks (nq, myNumCollisionThreads, 1);
+      while (myParallelColliders.size() < nchunks) {
+         myParallelColliders.add (new Colliders());
+      }
+      ParallelLoop.forEachChunk (nchunks, nchunks, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               Colliders colliders = myParallelColliders.get (chunk);
+               for (int i=chunk; i<nq; i+=nchunks) {
+                  ContactQuery q = queries.get(i);
+                  q.myCinfo = q.compute (colliders);
+               }
+            }
+         });
+      for (ContactQuery q : queries) {
+         q.updateCoherenceMetrics (myMetrics);
+         if (q.myCinfo != null) {
+            addOrUpdateHandler (q.myCinfo, q.myC0, q.myC1, q.myBehav, q.mySrc);
+         }
+      }
+   }
+
    // ==== Begin Constrainer implementation ====
    
    //private int maxNumContourPoints = 0;
@@ -2831,6 +3223,13 @@ public class CollisionManager extends RenderableCompositeBase
       myHandlerTable.saveLastConstraintData();
       //myHandlerTable.setHandlerActivity (false);
 
+      myPendingQueries =
+         (myParallelCollisions && !testMode) ? new ArrayList<>() : null;
+      myBroadPhaseActive = false;
+      if (myBroadPhaseCulling && !testMode && myBroadPhaseBodies != null) {
+         updateBroadPhase();
+         myBroadPhaseActive = true;
+      }
       // compute explicit collisions
       for (Map.Entry<CollidablePair,CollisionBehavior> e :
               myExplicitBehaviors.entrySet()) {
@@ -2866,6 +3265,12 @@ public class CollisionManager extends RenderableCompositeBase
                cmi.myDeformableExts, cmj.myDeformableExts, testMode);
          }
       }
+      myBroadPhaseActive = false;
+      if (myPendingQueries != null) {
+         ArrayList<ContactQuery> queries = myPendingQueries;
+         myPendingQueries = null;
+         computePendingContacts (queries);
+      }
 
       myHandlerTable.removeInactiveHandlers();
       myHandlerTable.collectHandlers (handlers);
@@ -3291,6 +3696,7 @@ public class CollisionManager extends RenderableCompositeBase
          // except the zero state should have also been invalidated, and the
          // zero state has no handlers and hence and empty table
          myHandlerTable.initialize (bodies);     
+         myBroadPhaseBodies = bodies;
          myHandlerTableValid = true;
       }
       else {
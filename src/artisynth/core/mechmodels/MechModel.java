@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.GeometryTransformer;
 import maspack.matrix.AffineTransform3dBase;
 import maspack.matrix.Matrix;
@@ -113,6 +114,16 @@ TransformableGeometry, ScalableUnits {
    // stiffness is used
    protected boolean myAddFrameMarkerStiffness = false;
 
+   protected static final boolean DEFAULT_PARALLEL_WRAPPING = true;
+   protected boolean myParallelWrappingP = DEFAULT_PARALLEL_WRAPPING;
+
+   // local multipoint springs with wrappable segments, and profiling
+   // information for updating their wrap paths
+   protected ArrayList<MultiPointSpring> myWrappingSprings =
+      new ArrayList<MultiPointSpring>();
+   protected FunctionTimer myWrapUpdateTimer = new FunctionTimer();
+   protected int myWrapUpdateCnt = 0;
+
    protected static double DEFAULT_POINT_DAMPING = 0;
    protected static double DEFAULT_FRAME_DAMPING = 0;
    protected static double DEFAULT_ROTARY_DAMPING = 0;
@@ -168,6 +179,10 @@ TransformableGeometry, ScalableUnits {
       myProps.addInheritable (
          "maxColoredExcitation",
          "excitation value for maximum colored excitation", 1.0, "[0,1]");
+      myProps.add (
+         "parallelWrapping",
+         "update the wrap paths of multipoint springs concurrently",
+         DEFAULT_PARALLEL_WRAPPING);
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -1069,6 +1084,110 @@ TransformableGeometry, ScalableUnits {
       return 0;
    }
 
+   /**
+    * Queries whether the wrap paths of this model's multipoint springs are
+    * updated concurrently.
+    *
+    * @return {@code true} if wrap paths are updated concurrently
+    */
+   public boolean getParallelWrapping() {
+      return myParallelWrappingP;
+   }
+
+   /**
+    * Sets whether the wrap paths of the multipoint springs contained in
+    * this model (but not in its sub-models) are updated concurrently. Wrap
+    * paths are updated at the end of each time step, and since each path
+    * depends only on the current poses of the wrappables, the results do not
+    * depend on whether they are computed concurrently.
+    *
+    * @param enable if {@code true}, enables concurrent wrap path updates
+    */
+   public void setParallelWrapping (boolean enable) {
+      myParallelWrappingP = enable;
+   }
+
+   /* === wrap path profiling === */
+
+   /**
+    * Returns the number of times the wrap paths of this model's multipoint
+    * springs have been updated since the last call to {@link
+    * #resetWrapProfiling}.
+    *
+    * @return number of wrap path update phases
+    */
+   public int getWrapUpdateCount() {
+      return myWrapUpdateCnt;
+   }
+
+   /**
+    * Returns the average wall-clock time required to update the wrap paths
+    * of all of this model's multipoint springs, since the last call to
+    * {@link #resetWrapProfiling}.
+    *
+    * @return average wrap update time (in usec)
+    */
+   public double getWrapUpdateTimeUsec() {
+      return myWrapUpdateCnt > 0 ?
+         myWrapUpdateTimer.getTimeUsec()/myWrapUpdateCnt : 0;
+   }
+
+   /**
+    * Returns the cumulative number of wrap path iterations for all of this
+    * model's wrapping multipoint springs. This is the sum of the values returned by
+    * {@link MultiPointSpring#getIterationCount} for each spring.
+    *
+    * @return cumulative number of wrap path iterations
+    */
+   public int getWrapIterationCount() {
+      int cnt = 0;
+      for (MultiPointSpring spr : getLocalWrappingSprings (null)) {
+         cnt += spr.getIterationCount();
+      }
+      return cnt;
+   }
+
+   /**
+    * Returns the total number of times that the wrap path solutions of this
+    * model's multipoint springs converged. This is the sum of the values
+    * returned by {@link MultiPointSpring#getConvergedCount} for each spring,
+    * which are only collected for springs with profiling enabled.
+    *
+    * @return total number of converged wrap path solutions
+    */
+   public int getWrapConvergedCount() {
+      int cnt = 0;
+      for (MultiPointSpring spr : getLocalWrappingSprings (null)) {
+         cnt += spr.getConvergedCount();
+      }
+      return cnt;
+   }
+
+   /**
+    * Returns the total number of times that the wrap paths of this model's
+    * multipoint springs were in contact. This is the sum of the values
+    * returned by {@link MultiPointSpring#getContactCount} for each spring,
+    * which are only collected for springs with profiling enabled.
+    *
+    * @return total number of wrap path contacts
+    */
+   public int getWrapContactCount() {
+      int cnt = 0;
+      for (MultiPointSpring spr : getLocalWrappingSprings (null)) {
+         cnt += spr.getContactCount();
+      }
+      return cnt;
+   }
+
+   /**
+    * Resets the wrap update count and time returned by {@link
+    * #getWrapUpdateCount} and {@link #getWrapUpdateTimeUsec}.
+    */
+   public void resetWrapProfiling() {
+      myWrapUpdateTimer.reset();
+      myWrapUpdateCnt = 0;
+   }
+
    public PointList<Particle> particles() {
       return myParticles;
    }
@@ -1914,6 +2033,9 @@ TransformableGeometry, ScalableUnits {
          m.recursivelyPrepareAdvance (t0, t1, flags, level+1);
       }
       updateLocalAdvanceComponents();
+      if (t0 == 0) {
+         updateWrapPaths (t0, /*post=*/false);
+      }
       for (RequiresPrePostAdvance c : myLocalPrePostAdvanceComps) {
          c.preadvance (t0, t1, flags);
       }
@@ -1927,11 +2049,96 @@ TransformableGeometry, ScalableUnits {
          m.recursivelyFinalizeAdvance (stepAdjust, t0, t1, flags, level+1);
       }
       updateLocalAdvanceComponents();
+      updateWrapPaths (t0, /*post=*/true);
       for (RequiresPrePostAdvance c : myLocalPrePostAdvanceComps) {
          c.postadvance (t0, t1, flags);
       }
    }
 
+   /**
+    * Updates the wrap paths of the local multipoint springs that contain
+    * wrappable segments, ahead of their preadvance or postadvance
+    * methods. When parallel wrapping is enabled, the springs are processed
+    * concurrently, since each path depends only on the poses of its
+    * wrappables.
+    */
+   protected void updateWrapPaths (double t0, boolean post) {
+      ArrayList<MultiPointSpring> springs =
+         getLocalWrappingSprings (myWrappingSprings);
+      int nsprings = springs.size();
+      if (nsprings == 0) {
+         return;
+      }
+      myWrapUpdateTimer.restart();
+      if (post) {
+         // structure updates may change the model and so are done serially
+         for (int i=0; i<nsprings; i++) {
+            springs.get(i).updateStructure();
+         }
+      }
+      int nchunks = 1;
+      if (myParallelWrappingP && nsprings > 1) {
+         nchunks = ParallelLoop.numChunks (nsprings, 0, 1);
+         if (nchunks > 1) {
+            initializeWrappables (springs);
+         }
+      }
+      final double time0 = t0;
+      final boolean postadvance = post;
+      ParallelLoop.forEachChunk (
+         nsprings, nchunks, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               for (int i=lo; i<hi; i++) {
+                  myWrappingSprings.get(i).updateWrapSegmentsForAdvance (
+                     time0, postadvance);
+               }
+            }
+         });
+      myWrapUpdateTimer.stop();
+      myWrapUpdateCnt++;
+   }
+
+   /**
+    * Collects the multipoint springs with wrappable segments that are
+    * contained in this model but not in its sub-models. If {@code springs}
+    * is {@code null}, a new list is allocated.
+    */
+   protected ArrayList<MultiPointSpring> getLocalWrappingSprings (
+      ArrayList<MultiPointSpring> springs) {
+      updateLocalAdvanceComponents();
+      if (springs == null) {
+         springs = new ArrayList<MultiPointSpring>();
+      }
+      springs.clear();
+      for (RequiresPrePostAdvance c : myLocalPrePostAdvanceComps) {
+         if (c instanceof MultiPointSpring &&
+             ((MultiPointSpring)c).hasWrappableSegments()) {
+            springs.add ((MultiPointSpring)c);
+         }
+      }
+      return springs;
+   }
+
+   /**
+    * Serially queries each wrappable used by a set of springs, so that any
+    * data they create on demand (such as distance grids or bounding volume
+    * hierarchies) exists before they are queried concurrently.
+    */
+   private void initializeWrappables (ArrayList<MultiPointSpring> springs) {
+      HashSet<Wrappable> wrappables = new HashSet<Wrappable>();
+      Vector3d nrm = new Vector3d();
+      Matrix3d dnrm = new Matrix3d();
+      for (MultiPointSpring spr : springs) {
+         for (int k=0; k<spr.numWrappables(); k++) {
+            Wrappable w = spr.getWrappable(k);
+            if (wrappables.add (w)) {
+               w.getCharacteristicRadius();
+               w.penetrationDistance (nrm, dnrm, new Point3d(w.getPose().p));
+            }
+         }
+      }
+   }
+
    public void recursivelyInitialize (double t, int level) {
       // Local initialization should cause excitations of ExcitationComponents
       // to be zeroed at t = 0. Note that inputProbe.setState should do that
@@ -29,6 +29,8 @@ import maspack.properties.PropertyMode;
 import maspack.properties.PropertyUtils;
 import maspack.render.RenderableUtils;
 import maspack.spatialmotion.FrictionInfo;
+import maspack.solvers.PardisoSolver;
+import maspack.solvers.PGSMechSolver;
 import maspack.solvers.SparseSolverId;
 import maspack.util.DataBuffer;
 import maspack.util.IntHolder;
@@ -39,6 +41,7 @@ import maspack.util.Range;
 import maspack.util.EnumRange;
 import artisynth.core.mechmodels.MechSystemSolver.PosStabilization;
 import artisynth.core.mechmodels.MechSystemSolver.Integrator;
+import artisynth.core.mechmodels.MechSystemSolver.ContactSolver;
 import artisynth.core.modelbase.*;
 import artisynth.core.util.ArtisynthIO;
 import artisynth.core.util.TimeBase;
@@ -85,6 +88,7 @@ public abstract class MechSystemBase extends RenderableModelBase
    protected int myTotalVelStateSize;
 
    protected MechSystemSolver mySolver;
+   protected StepProfiler myStepProfiler;
    protected DynamicAttachmentWorker myAttachmentWorker;
 
    protected static boolean DEFAULT_DYNAMICS_ENABLED = true;
@@ -112,14 +116,29 @@ public abstract class MechSystemBase extends RenderableModelBase
 
    protected static SparseSolverId DEFAULT_MATRIX_SOLVER =
       SparseSolverId.Pardiso;
-   // define a separate default matrix solver that can be overridden
-   protected static SparseSolverId myDefaultMatrixSolver =
-      DEFAULT_MATRIX_SOLVER;
+   // define a separate default matrix solver that can be overridden. It is
+   // resolved lazily by getDefaultMatrixSolver(), so that Pardiso is only
+   // probed (and the pure Java solver substituted if it can't be loaded) when
+   // a model is actually created.
+   protected static SparseSolverId myDefaultMatrixSolver = null;
    protected SparseSolverId myMatrixSolver = DEFAULT_MATRIX_SOLVER;
 
    protected static boolean DEFAULT_USE_IMPLICIT_FRICTION = false;
    protected boolean myUseImplicitFriction = DEFAULT_USE_IMPLICIT_FRICTION;
 
+   protected static ContactSolver DEFAULT_CONTACT_SOLVER = ContactSolver.Direct;
+   protected ContactSolver myContactSolver = DEFAULT_CONTACT_SOLVER;
+
+   protected static double DEFAULT_CONTACT_SOLVER_TOLERANCE =
+      PGSMechSolver.DEFAULT_TOLERANCE;
+   protected double myContactSolverTolerance =
+      DEFAULT_CONTACT_SOLVER_TOLERANCE;
+
+   protected static int DEFAULT_CONTACT_SOLVER_MAX_ITERATIONS =
+      PGSMechSolver.DEFAULT_MAX_ITERATIONS;
+   protected int myContactSolverMaxIterations =
+      DEFAULT_CONTACT_SOLVER_MAX_ITERATIONS;
+
    protected boolean myInsideAdvanceP = false;
    protected double myAvgSolveTime;
    protected StepAdjustment myStepAdjust;
@@ -240,6 +259,17 @@ public abstract class MechSystemBase extends RenderableModelBase
       myProps.add (
          "useImplicitFriction", "combine friction with implicit integration",
          DEFAULT_USE_IMPLICIT_FRICTION);
+      myProps.add (
+         "contactSolver", "method used to solve for contact impulses",
+         DEFAULT_CONTACT_SOLVER);
+      myProps.add (
+         "contactSolverTolerance",
+         "convergence tolerance for iterative contact solvers",
+         DEFAULT_CONTACT_SOLVER_TOLERANCE, "[0,inf]");
+      myProps.add (
+         "contactSolverMaxIterations",
+         "maximum iterations for iterative contact solvers",
+         DEFAULT_CONTACT_SOLVER_MAX_ITERATIONS, "[1,inf]");
          
 
    }
@@ -272,9 +302,12 @@ public abstract class MechSystemBase extends RenderableModelBase
          setStabilization (myDefaultStabilization);
          mySolver.setUpdateForcesAtStepEnd (DEFAULT_UPDATE_FORCES_AT_STEP_END);
       }
-      setMatrixSolver (myDefaultMatrixSolver);
+      setMatrixSolver (getDefaultMatrixSolver());
       setIntegrator (DEFAULT_INTEGRATOR);
       setUseImplicitFriction (DEFAULT_USE_IMPLICIT_FRICTION);
+      setContactSolver (DEFAULT_CONTACT_SOLVER);
+      setContactSolverTolerance (DEFAULT_CONTACT_SOLVER_TOLERANCE);
+      setContactSolverMaxIterations (DEFAULT_CONTACT_SOLVER_MAX_ITERATIONS);
    }
 
    public boolean getDynamicsEnabled() {
@@ -296,12 +329,16 @@ public abstract class MechSystemBase extends RenderableModelBase
          mySolver.setIntegrator (getIntegrator());
          mySolver.setMatrixSolver (getMatrixSolver());
          mySolver.setUseImplicitFriction (getUseImplicitFriction());
+         mySolver.setContactSolver (getContactSolver());
+         mySolver.setContactSolverTolerance (getContactSolverTolerance());
+         mySolver.setContactSolverMaxIterations (
+            getContactSolverMaxIterations());
       }
    }
 
    public MechSystemBase (String name) {
       super (name);
-      setMatrixSolver (myDefaultMatrixSolver);
+      setMatrixSolver (getDefaultMatrixSolver());
       setIntegrator (DEFAULT_INTEGRATOR);     
       allocateSolver (/*oldSolver=*/null);
       myAttachmentWorker = new DynamicAttachmentWorker();
@@ -332,6 +369,34 @@ public abstract class MechSystemBase extends RenderableModelBase
       return mySolver;
    }
 
+   /**
+    * Returns the profiler used to record the time spent in the different
+    * phases of each simulation step.
+    *
+    * @return step profiler, or {@code null} if none is set
+    */
+   public StepProfiler getStepProfiler() {
+      return myStepProfiler;
+   }
+
+   /**
+    * Sets the profiler used to record the time spent in the different phases
+    * of each simulation step. This system records the {@link
+    * StepProfiler.Phase#FORCE_UPDATE} and {@link
+    * StepProfiler.Phase#COLLISION} phases, and its solver records the KKT
+    * and position stabilization phases. The profiler is normally set by the
+    * {@link artisynth.core.workspace.RootModel RootModel} when step profiling
+    * is enabled.
+    *
+    * @param profiler step profiler, or {@code null} to disable profiling
+    */
+   public void setStepProfiler (StepProfiler profiler) {
+      myStepProfiler = profiler;
+      if (mySolver != null) {
+         mySolver.setStepProfiler (profiler);
+      }
+   }
+
    public SparseBlockMatrix createVelocityJacobian() {
       updateDynamicComponentLists();
       return new SparseBlockMatrix (new int[0], myDynamicSizes);
@@ -613,6 +678,11 @@ public abstract class MechSystemBase extends RenderableModelBase
       double t, StepAdjustment stepAdjust, int flags) {
 
       updateForceComponentList();
+      // only time COMPUTE_CONTACTS requests, since that is when collision
+      // detection is performed
+      StepProfiler prof = 
+         (flags & MechSystem.COMPUTE_CONTACTS) != 0 ? myStepProfiler : null;
+      long ptime = (prof != null ? prof.startTimer() : 0);
       double maxpen = 0;
       boolean hasConstraints = false;
       for (int i=0; i<myConstrainers.size(); i++) {
@@ -624,6 +694,9 @@ public abstract class MechSystemBase extends RenderableModelBase
             }
          }
       } 
+      if (prof != null) {
+         prof.addTime (StepProfiler.Phase.COLLISION, ptime);
+      }
       double penlimit = getPenetrationLimit();
       if (penlimit > 0 && maxpen > penlimit && stepAdjust != null) {
          stepAdjust.recommendAdjustment (
@@ -1575,7 +1648,8 @@ public abstract class MechSystemBase extends RenderableModelBase
       return myProfilingP;
    }
 
-   public static void setDefaultMatrixSolver (SparseSolverId solverType) {
+   public static synchronized void setDefaultMatrixSolver (
+      SparseSolverId solverType) {
       if (!solverType.isCompatible (Matrix.SYMMETRIC)) {
          throw new IllegalArgumentException (
             "Solver "+solverType+" will not solve symmetric indefinite matrices");
@@ -1587,7 +1661,11 @@ public abstract class MechSystemBase extends RenderableModelBase
       myDefaultMatrixSolver = solverType;
    }
    
-   public static SparseSolverId getDefaultMatrixSolver() {
+   public static synchronized SparseSolverId getDefaultMatrixSolver() {
+      if (myDefaultMatrixSolver == null) {
+         myDefaultMatrixSolver = (PardisoSolver.isAvailable() ?
+            DEFAULT_MATRIX_SOLVER : SparseSolverId.SupernodalLDLT);
+      }
       return myDefaultMatrixSolver;
    }
 
@@ -1607,7 +1685,8 @@ public abstract class MechSystemBase extends RenderableModelBase
       return new EnumRange<SparseSolverId>(
          SparseSolverId.class, new SparseSolverId[] {
             SparseSolverId.Pardiso,
-            SparseSolverId.Umfpack });
+            SparseSolverId.Umfpack,
+            SparseSolverId.SupernodalLDLT });
    }
 
    public void setIntegrator (Integrator integrator) {
@@ -1635,6 +1714,78 @@ public abstract class MechSystemBase extends RenderableModelBase
       return myIntegrator;
    }
 
+   /**
+    * Returns the method used to solve for the contact and friction
+    * impulses.
+    *
+    * @return contact solver
+    */
+   public ContactSolver getContactSolver() {
+      return myContactSolver;
+   }
+
+   /**
+    * Sets the method used to solve for the contact and friction
+    * impulses. The default, {@link ContactSolver#Direct}, solves the
+    * contacts exactly, but its cost grows rapidly with the number of
+    * contacts. The iterative methods {@link ContactSolver#PGS} and {@link
+    * ContactSolver#NNCG} are better suited to systems with many contacts.
+    *
+    * @param solver contact solver
+    */
+   public void setContactSolver (ContactSolver solver) {
+      myContactSolver = solver;
+      if (mySolver != null) {
+         mySolver.setContactSolver (solver);
+      }
+   }
+
+   /**
+    * Returns the convergence tolerance for the iterative contact solvers.
+    *
+    * @return iterative contact solver tolerance
+    */
+   public double getContactSolverTolerance() {
+      return myContactSolverTolerance;
+   }
+
+   /**
+    * Sets the convergence tolerance for the iterative contact solvers,
+    * which bounds the relative complementarity residual of the contact
+    * and friction impulses.
+    *
+    * @param tol iterative contact solver tolerance
+    */
+   public void setContactSolverTolerance (double tol) {
+      myContactSolverTolerance = tol;
+      if (mySolver != null) {
+         mySolver.setContactSolverTolerance (tol);
+      }
+   }
+
+   /**
+    * Returns the maximum number of iterations for the iterative contact
+    * solvers.
+    *
+    * @return maximum number of contact solver iterations
+    */
+   public int getContactSolverMaxIterations() {
+      return myContactSolverMaxIterations;
+   }
+
+   /**
+    * Sets the maximum number of iterations for the iterative contact
+    * solvers.
+    *
+    * @param max maximum number of contact solver iterations
+    */
+   public void setContactSolverMaxIterations (int max) {
+      myContactSolverMaxIterations = max;
+      if (mySolver != null) {
+         mySolver.setContactSolverMaxIterations (max);
+      }
+   }
+
    protected void clearCachedData (ComponentChangeEvent e) {
       myDynamicComponents = null;
       myAttachments = null;
@@ -2163,6 +2314,7 @@ public abstract class MechSystemBase extends RenderableModelBase
       msb.myDynamicsEnabled = myDynamicsEnabled;
 
       msb.allocateSolver (mySolver);
+      msb.myStepProfiler = null;
       //msb.myPosSolver = new KKTSolver();
       msb.myRg = new VectorNd(0);
       msb.myBg = new VectorNd(0);
@@ -2264,6 +2416,8 @@ public abstract class MechSystemBase extends RenderableModelBase
    }
 
    public void updateForces (double t) {
+      StepProfiler prof = myStepProfiler;
+      long ptime = (prof != null ? prof.startTimer() : 0);
       updateDynamicComponentLists();
       updateForceComponentList();
       // initialize the forces by adding the initial forces that 
@@ -2290,6 +2444,9 @@ public abstract class MechSystemBase extends RenderableModelBase
          myForceEffectors.get(i).applyForces (t);
       }
       applyAttachmentForces();
+      if (prof != null) {
+         prof.addTime (StepProfiler.Phase.FORCE_UPDATE, ptime);
+      }
    }
 
    public void addPosJacobian (
@@ -19,6 +19,7 @@ import artisynth.core.modelbase.*;
 import artisynth.core.util.ArtisynthIO;
 import maspack.function.Function1x1;
 import maspack.matrix.EigenDecomposition;
+import maspack.matrix.LinearTransformNd;
 import maspack.matrix.Matrix;
 import maspack.matrix.Matrix3dBase;
 import maspack.matrix.Matrix3x1;
@@ -35,18 +36,25 @@ import maspack.matrix.SparseNumberedBlockMatrix;
 import maspack.matrix.Vector3d;
 import maspack.matrix.VectorNd;
 import maspack.matrix.VectorNi;
+import maspack.solvers.BlockJacobiPreconditioner;
 import maspack.solvers.CGSolver;
 import maspack.solvers.DirectSolver;
 import maspack.solvers.IterativeSolver;
 import maspack.solvers.IterativeSolver.ToleranceType;
+import maspack.solvers.IncompleteCholeskyPreconditioner;
 import maspack.solvers.KKTSolver;
 import maspack.solvers.PardisoSolver;
+import maspack.solvers.SupernodalLDLTSolver;
 import maspack.solvers.UmfpackSolver;
 import maspack.solvers.LCPSolver;
+import maspack.solvers.SparseBlockPreconditioner;
 import maspack.solvers.SparseSolverId;
 import maspack.solvers.MurtyMechSolver;
+import maspack.solvers.PGSMechSolver;
 import maspack.spatialmotion.FrictionInfo;
 import maspack.util.FunctionTimer;
+import artisynth.core.modelbase.StepProfiler;
+import artisynth.core.modelbase.StepProfiler.Phase;
 import maspack.util.InternalErrorException;
 import maspack.util.NumberFormat;
 
@@ -73,12 +81,31 @@ public class MechSystemSolver {
    public boolean murtyFriction = false;
 
    public boolean myUseImplicitFriction = false;
+   private ContactSolver myContactSolver = ContactSolver.Direct;
+   // true if the last call to KKTFactorAndSolve() used an iterative contact
+   // solver, so that myKKTSolver contains a factorization of M and GT only
+   private boolean myKKTContactsIterative = false;
    
    //public static boolean useStiffnessPosProjection = true;
+   /**
+    * @deprecated no longer used
+    */
+   @Deprecated
    public static boolean useVelProjection = true;
-   public static boolean useFictitousJacobianForces = true;
+   public static boolean DEFAULT_USE_FICTITIOUS_JACOBIAN_FORCES = true;
+   /**
+    * Initial <code>useFictitiousJacobianForces</code> setting for newly
+    * created solvers. Existing solvers are not affected.
+    *
+    * @deprecated use {@link #setUseFictitiousJacobianForces} instead
+    */
+   @Deprecated
+   public static boolean useFictitousJacobianForces =
+      DEFAULT_USE_FICTITIOUS_JACOBIAN_FORCES;
+   private boolean myUseFictitiousJacobianForces = useFictitousJacobianForces;
    // always do an analysis phase before KKTsolves. Only used for testing
-   public static boolean myAlwaysAnalyze = false;
+   private static boolean myDefaultAlwaysAnalyze = false;
+   private boolean myAlwaysAnalyze = myDefaultAlwaysAnalyze;
    
    private boolean myUpdateForcesAtStepEnd = false;
    private boolean computeKKTResidual = false;
@@ -183,8 +210,13 @@ public class MechSystemSolver {
 
    public static boolean DEFAULT_HYBRID_SOLVES_ENABLED = true;
    public static boolean myDefaultHybridSolveP = false;
-   private static int myHybridSolveTol = 10;
+   public static int DEFAULT_HYBRID_SOLVE_TOL = 10;
+   private int myHybridSolveTol = DEFAULT_HYBRID_SOLVE_TOL;
    //   private static boolean useBodyCoordsForExplicit = true;
+   /**
+    * @deprecated no longer used
+    */
+   @Deprecated
    public static boolean profileConstraintSolves = false;
    private boolean myHybridSolveP = false;
 
@@ -207,7 +239,7 @@ public class MechSystemSolver {
    VectorNd myVel = new VectorNd();
    //VectorNd myPos = new VectorNd();
 
-   public static double myT1; // for debugging
+   public double myT1; // for debugging
    
    public void setUpdateForcesAtStepEnd (boolean enable) {
       myUpdateForcesAtStepEnd = enable;
@@ -217,14 +249,106 @@ public class MechSystemSolver {
       return myUpdateForcesAtStepEnd;
    }
 
-   public static boolean getAlwaysAnalyze() {
+   /**
+    * Queries whether this solver performs a symbolic analysis before every
+    * KKT solve. See {@link #setAlwaysAnalyzeKKT}.
+    *
+    * @return <code>true</code> if analysis is always performed
+    */
+   public boolean getAlwaysAnalyzeKKT() {
       return myAlwaysAnalyze;
    }
 
-   public static void setAlwaysAnalyze (boolean enable) {
+   /**
+    * Sets whether this solver performs a symbolic analysis before every KKT
+    * solve, rather than only when the matrix structure changes. This is
+    * intended for testing only.
+    *
+    * @param enable if <code>true</code>, always perform analysis
+    */
+   public void setAlwaysAnalyzeKKT (boolean enable) {
       myAlwaysAnalyze = enable;
    }
 
+   /**
+    * @deprecated use {@link #getDefaultAlwaysAnalyze} or {@link
+    * #getAlwaysAnalyzeKKT} instead
+    */
+   @Deprecated
+   public static boolean getAlwaysAnalyze() {
+      return getDefaultAlwaysAnalyze();
+   }
+
+   /**
+    * @deprecated use {@link #setDefaultAlwaysAnalyze} or {@link
+    * #setAlwaysAnalyzeKKT} instead. Unlike before, this only affects
+    * solvers created after the call.
+    */
+   @Deprecated
+   public static void setAlwaysAnalyze (boolean enable) {
+      setDefaultAlwaysAnalyze (enable);
+   }
+
+   /**
+    * Queries the default value of the <code>alwaysAnalyze</code> setting
+    * used by newly created solvers.
+    *
+    * @return default <code>alwaysAnalyze</code> setting
+    */
+   public static boolean getDefaultAlwaysAnalyze() {
+      return myDefaultAlwaysAnalyze;
+   }
+
+   /**
+    * Sets the default value of the <code>alwaysAnalyze</code> setting used
+    * by newly created solvers. Existing solvers are not affected.
+    *
+    * @param enable default <code>alwaysAnalyze</code> setting
+    */
+   public static void setDefaultAlwaysAnalyze (boolean enable) {
+      myDefaultAlwaysAnalyze = enable;
+   }
+
+   /**
+    * Queries whether fictitious forces arising from the time derivative of
+    * the constraint Jacobians are included in the solve.
+    *
+    * @return <code>true</code> if fictitious Jacobian forces are used
+    */
+   public boolean getUseFictitiousJacobianForces() {
+      return myUseFictitiousJacobianForces;
+   }
+
+   /**
+    * Sets whether fictitious forces arising from the time derivative of
+    * the constraint Jacobians are included in the solve.
+    *
+    * @param enable if <code>true</code>, use fictitious Jacobian forces
+    */
+   public void setUseFictitiousJacobianForces (boolean enable) {
+      myUseFictitiousJacobianForces = enable;
+   }
+
+   /**
+    * Returns the tolerance exponent used for hybrid solves. See {@link #setHybridSolveTol}.
+    *
+    * @return hybrid solve tolerance exponent
+    */
+   public int getHybridSolveTol() {
+      return myHybridSolveTol;
+   }
+
+   /**
+    * Sets the tolerance exponent used for hybrid solves, in which iterative
+    * solving is preconditioned by a recent direct factorization. The
+    * iterative solve aims for a relative residual of <code>10^-tol</code>.
+    *
+    * @param tol hybrid solve tolerance exponent
+    */
+   public void setHybridSolveTol (int tol) {
+      myHybridSolveTol = tol;
+   }
+
    public static enum Integrator {
       ForwardEuler,
       SymplecticEuler,
@@ -248,6 +372,57 @@ public class MechSystemSolver {
          );
    }
 
+   /**
+    * Indicates the preconditioner used when the matrix solver is {@link
+    * SparseSolverId#ConjugateGradient ConjugateGradient}.
+    */
+   public enum CGPreconditioner {
+      /**
+       * No preconditioning.
+       */
+      None,
+
+      /**
+       * Block Jacobi preconditioning, using the inverses of the diagonal
+       * blocks of the solve matrix. Cheap to compute and apply.
+       */
+      BlockJacobi,
+
+      /**
+       * Zero fill-in incomplete Cholesky preconditioning. More expensive to
+       * compute, but typically requires fewer iterations.
+       */
+      IncompleteCholesky
+   }
+
+   /**
+    * Indicates the method used to solve for the contact and friction
+    * impulses.
+    */
+   public enum ContactSolver {
+      /**
+       * Solve the contact constraints directly, using the LCP solver of the
+       * KKT matrix solver, or {@link MurtyMechSolver} if implicit friction
+       * is enabled. Accurate, but the cost grows rapidly with the number of
+       * contacts.
+       */
+      Direct,
+
+      /**
+       * Projected Gauss-Seidel iteration using {@link PGSMechSolver}. The
+       * cost grows roughly linearly with the number of contacts, but the
+       * solution is approximate.
+       */
+      PGS,
+
+      /**
+       * Projected Gauss-Seidel iteration with nonsmooth nonlinear conjugate
+       * gradient acceleration, which typically requires fewer iterations
+       * than {@link #PGS}.
+       */
+      NNCG
+   }
+
    /** 
     * Indicates the method by which positions should be stabilized.
     */
@@ -298,6 +473,78 @@ public class MechSystemSolver {
       myUseImplicitFriction = enable;
    }
 
+   /**
+    * Returns the method used to solve for the contact and friction impulses.
+    *
+    * @return contact solver
+    */
+   public ContactSolver getContactSolver() {
+      return myContactSolver;
+   }
+
+   /**
+    * Sets the method used to solve for the contact and friction
+    * impulses. When an iterative method is selected, the impulses from the
+    * previous step are used as a warm start.
+    *
+    * @param solver contact solver
+    */
+   public void setContactSolver (ContactSolver solver) {
+      myContactSolver = solver;
+   }
+
+   /**
+    * Returns the convergence tolerance for the iterative contact solvers.
+    * See {@link #setContactSolverTolerance}.
+    *
+    * @return iterative contact solver tolerance
+    */
+   public double getContactSolverTolerance() {
+      return myPGSSolver.getTolerance();
+   }
+
+   /**
+    * Sets the convergence tolerance for the iterative contact solvers. This
+    * is a bound on the relative complementarity residual, as described for
+    * {@link PGSMechSolver#setTolerance}.
+    *
+    * @param tol iterative contact solver tolerance
+    */
+   public void setContactSolverTolerance (double tol) {
+      myPGSSolver.setTolerance (tol);
+   }
+
+   /**
+    * Returns the maximum number of iterations for the iterative contact
+    * solvers.
+    *
+    * @return maximum number of contact solver iterations
+    */
+   public int getContactSolverMaxIterations() {
+      return myPGSSolver.getMaxIterations();
+   }
+
+   /**
+    * Sets the maximum number of iterations for the iterative contact
+    * solvers. If the tolerance has not been reached after this many
+    * iterations, the current approximate impulses are used.
+    *
+    * @param max maximum number of contact solver iterations
+    */
+   public void setContactSolverMaxIterations (int max) {
+      myPGSSolver.setMaxIterations (max);
+   }
+
+   /**
+    * Returns the number of iterations used by the iterative contact solver
+    * in the most recent solve.
+    *
+    * @return number of contact solver iterations
+    */
+   public int getContactSolverIterationCount() {
+      return myPGSSolver.getIterationCount();
+   }
+
    public int getFrictionIterations () {
       return myFrictionIters;
    }
@@ -306,12 +553,45 @@ public class MechSystemSolver {
       myFrictionIters = num;
    }
 
+   /**
+    * Returns the profiler used to record the time spent in the KKT
+    * analyze, factor and solve phases, and in position stabilization.
+    *
+    * @return step profiler, or {@code null} if none is set
+    */
+   public StepProfiler getStepProfiler() {
+      return myStepProfiler;
+   }
+
+   /**
+    * Sets the profiler used to record the time spent in the KKT
+    * analyze, factor and solve phases, and in position stabilization.
+    * This is normally set by the {@link MechSystemBase} which owns
+    * this solver.
+    *
+    * @param profiler step profiler, or {@code null} to disable profiling
+    */
+   public void setStepProfiler (StepProfiler profiler) {
+      myStepProfiler = profiler;
+   }
+
    PardisoSolver myPardisoSolver;
    UmfpackSolver myUmfpackSolver;
+   SupernodalLDLTSolver mySupernodalSolver;
+   // true if the matrix solver can't handle the (non-symmetric) solve
+   // matrix, and Pardiso or Umfpack is being used in its place
+   boolean myUseNonSymmetricSubstitute = false;
    KKTSolver myKKTSolver;
    KKTSolver myConSolver;
    KKTSolver myStaticSolver;
    MurtyMechSolver myMurtySolver;
+   PGSMechSolver myPGSSolver = new PGSMechSolver();
+   // contact and friction states returned by myPGSSolver
+   private VectorNi myPGSStateN = new VectorNi();
+   private VectorNi myPGSStateD = new VectorNi();
+   // friction impulses for iterative contact re-solves in KKTSolve()
+   private VectorNd myResolvePhi = new VectorNd();
+   StepProfiler myStepProfiler;
 
    private SparseSolverId myMatrixSolver = SparseSolverId.Pardiso;
    Integrator myIntegrator = Integrator.SymplecticEuler;
@@ -320,6 +600,10 @@ public class MechSystemSolver {
    ToleranceType myTolType = ToleranceType.RelativeResidual;
    int myMaxIterations = 20;
    boolean myUseDirectSolver = true;
+   CGPreconditioner myCGPreconditioner = CGPreconditioner.BlockJacobi;
+   double myPreconditionerUpdateTol = 0.1;
+   SparseBlockPreconditioner myPreconditioner;
+   int myPreconditionerVersion = -1;
    PosStabilization myStabilization = PosStabilization.GlobalMass;
    
    double myStaticTikhonov = -1;  // tikhonov regularization parameter for static solves
@@ -547,7 +831,9 @@ public class MechSystemSolver {
       if (solver != myMatrixSolver) {
          switch (solver) {
             case Pardiso: 
-            case Umfpack: {
+            case Umfpack:
+            case SupernodalLDLT:
+            case ConjugateGradient: {
                break;
             }
             default: {
@@ -558,10 +844,152 @@ public class MechSystemSolver {
          mySolveMatrix = null;
          //myKKTSolveMatrix = null;
          myMatrixSolver = solver;
+         myUseNonSymmetricSubstitute = false;
          disposeSolvers(); // remove existing solvers
       }
    }
 
+   /**
+    * Returns the solver used for KKT systems. Since these are indefinite,
+    * they are solved with the default direct solver if the matrix solver is
+    * iterative.
+    */
+   private SparseSolverId getKKTMatrixSolver() {
+      if (myMatrixSolver.isDirect()) {
+         return myMatrixSolver;
+      }
+      else {
+         return MechSystemBase.getDefaultMatrixSolver();
+      }
+   }
+
+   /**
+    * Returns the preconditioner used when the matrix solver is {@link
+    * SparseSolverId#ConjugateGradient ConjugateGradient}.
+    *
+    * @return conjugate gradient preconditioner
+    */
+   public CGPreconditioner getCGPreconditioner() {
+      return myCGPreconditioner;
+   }
+
+   /**
+    * Sets the preconditioner used when the matrix solver is {@link
+    * SparseSolverId#ConjugateGradient ConjugateGradient}.
+    *
+    * @param precon conjugate gradient preconditioner
+    */
+   public void setCGPreconditioner (CGPreconditioner precon) {
+      if (precon != myCGPreconditioner) {
+         myCGPreconditioner = precon;
+         myPreconditioner = null;
+      }
+   }
+
+   /**
+    * Returns the relative tolerance used to decide when the conjugate
+    * gradient preconditioner should be recomputed. See {@link
+    * #setPreconditionerUpdateTol}.
+    *
+    * @return preconditioner update tolerance
+    */
+   public double getPreconditionerUpdateTol() {
+      return myPreconditionerUpdateTol;
+   }
+
+   /**
+    * Sets the relative tolerance used to decide when the conjugate gradient
+    * preconditioner should be recomputed. The preconditioner is recomputed
+    * whenever the structure of the solve matrix changes, or when its
+    * diagonal blocks have changed by a relative amount larger than
+    * <code>tol</code> since the last computation (as described for {@link
+    * SparseBlockPreconditioner#update}). A value of 0 causes the
+    * preconditioner to be recomputed at every step.
+    *
+    * @param tol preconditioner update tolerance
+    */
+   public void setPreconditionerUpdateTol (double tol) {
+      myPreconditionerUpdateTol = tol;
+   }
+
+   /**
+    * Returns the number of times the conjugate gradient preconditioner has
+    * been computed since it was created.
+    *
+    * @return number of preconditioner computations
+    */
+   public int numPreconditionerUpdates() {
+      return myPreconditioner != null ? myPreconditioner.numFactorizations() : 0;
+   }
+
+   /**
+    * Presents the leading velocity-sized principal submatrix of the solve
+    * matrix as a LinearTransformNd, for use by the iterative solver. The
+    * solve matrix may be larger than the velocity size if it also contains
+    * rows and columns for attachments or constraints.
+    */
+   private class LeadingSubmatrix implements LinearTransformNd {
+      SparseBlockMatrix myS;
+      int mySize;
+
+      LeadingSubmatrix (SparseBlockMatrix S, int size) {
+         myS = S;
+         mySize = size;
+      }
+
+      public void mul (VectorNd vr, VectorNd v1) {
+         myS.mul (vr, v1, mySize, mySize);
+      }
+
+      public int rowSize() {
+         return mySize;
+      }
+
+      public int colSize() {
+         return mySize;
+      }
+   }
+
+   /**
+    * Updates the conjugate gradient preconditioner for the leading submatrix
+    * of S with a given size, if necessary, and assigns it to the iterative
+    * solver.
+    */
+   private void updatePreconditioner (SparseBlockMatrix S, int size) {
+      if (!(myIterativeSolver instanceof CGSolver)) {
+         return;
+      }
+      if (myCGPreconditioner == CGPreconditioner.None) {
+         myPreconditioner = null;
+      }
+      else {
+         if (myPreconditioner == null) {
+            switch (myCGPreconditioner) {
+               case BlockJacobi: {
+                  myPreconditioner = new BlockJacobiPreconditioner();
+                  break;
+               }
+               case IncompleteCholesky: {
+                  myPreconditioner = new IncompleteCholeskyPreconditioner();
+                  break;
+               }
+               default: {
+                  throw new InternalErrorException (
+                     "Unknown preconditioner " + myCGPreconditioner);
+               }
+            }
+         }
+         if (myPreconditionerVersion != mySolveMatrixVersion) {
+            myPreconditioner.factor (S, size);
+            myPreconditionerVersion = mySolveMatrixVersion;
+         }
+         else {
+            myPreconditioner.update (S, size, myPreconditionerUpdateTol);
+         }
+      }
+      ((CGSolver)myIterativeSolver).setPreconditioner (myPreconditioner);
+   }
+
    public void setStabilization (PosStabilization stabilization) {
       myStabilization = stabilization;
    }
@@ -592,6 +1020,19 @@ public class MechSystemSolver {
             myUseDirectSolver = true;
             break;
          }
+         case SupernodalLDLT: {
+            if (myUseNonSymmetricSubstitute) {
+               myDirectSolver = getNonSymmetricSubstitute();
+            }
+            else {
+               if (mySupernodalSolver == null) {
+                  mySupernodalSolver = new SupernodalLDLTSolver();
+               }
+               myDirectSolver = mySupernodalSolver;
+            }
+            myUseDirectSolver = true;
+            break;
+         }
          case ConjugateGradient: {
             if (!(myIterativeSolver instanceof CGSolver)) {
                setIterativeSolver (new CGSolver());
@@ -606,6 +1047,32 @@ public class MechSystemSolver {
       }
    }
 
+   /**
+    * Returns a direct solver that can be used in place of a symmetric-only
+    * matrix solver (such as SupernodalLDLT) when the solve matrix is not
+    * symmetric.
+    */
+   private DirectSolver getNonSymmetricSubstitute() {
+      if (PardisoSolver.isAvailable()) {
+         if (myPardisoSolver == null) {
+            myPardisoSolver = new PardisoSolver();
+         }
+         return myPardisoSolver;
+      }
+      else if (UmfpackSolver.isAvailable()) {
+         if (myUmfpackSolver == null) {
+            myUmfpackSolver = new UmfpackSolver();
+         }
+         return myUmfpackSolver;
+      }
+      else {
+         throw new UnsupportedOperationException (
+            "Matrix solver " + myMatrixSolver +
+            " does not support non-symmetric matrices, and neither "+
+            "Pardiso nor Umfpack is available");
+      }
+   }
+
    // public boolean isPardisoAvailable () {
    //    return PardisoSolver.isAvailable();
    // }
@@ -665,6 +1132,16 @@ public class MechSystemSolver {
       setIntegrator (solver.getIntegrator());
       setMatrixSolver (solver.getMatrixSolver());
       setUseImplicitFriction (solver.getUseImplicitFriction());
+      setContactSolver (solver.getContactSolver());
+      setContactSolverTolerance (solver.getContactSolverTolerance());
+      setContactSolverMaxIterations (solver.getContactSolverMaxIterations());
+      setCGPreconditioner (solver.getCGPreconditioner());
+      setPreconditionerUpdateTol (solver.getPreconditionerUpdateTol());
+      setAlwaysAnalyzeKKT (solver.getAlwaysAnalyzeKKT());
+      setUseFictitiousJacobianForces (
+         solver.getUseFictitiousJacobianForces());
+      setHybridSolveTol (solver.getHybridSolveTol());
+      myLogWriter = solver.myLogWriter;
    }
 
    public void nonDynamicSolve (double t0, double t1, StepAdjustment stepAdjust) {
@@ -1088,7 +1565,7 @@ public class MechSystemSolver {
       mySolveMatrix.setZero();
       myC.setZero ();
       mySys.addVelJacobian (mySolveMatrix, myC, -h);
-      if (useFictitousJacobianForces) {
+      if (myUseFictitiousJacobianForces) {
          myB.scaledAdd (h, myC);
       }
 
@@ -1101,7 +1578,7 @@ public class MechSystemSolver {
 
       myC.setZero ();
       mySys.addPosJacobian (mySolveMatrix, myC, -h * h);
-      if (useFictitousJacobianForces) {
+      if (myUseFictitiousJacobianForces) {
          myB.scaledAdd (h, myC);
       }
 
@@ -1120,6 +1597,11 @@ public class MechSystemSolver {
          int matrixType = mySys.getSolveMatrixType();
          if (velSize != 0) {
             if (myUseDirectSolver) {
+               boolean substitute = !myMatrixSolver.isCompatible (matrixType);
+               if (substitute != myUseNonSymmetricSubstitute) {
+                  myUseNonSymmetricSubstitute = substitute;
+                  updateSolver();
+               }
                myDirectSolver.analyze (
                   mySolveMatrix, velSize, matrixType);
             }
@@ -1136,7 +1618,17 @@ public class MechSystemSolver {
             doDirectSolve (myU, mySolveMatrix, myB);
          }
          else {
-            myIterativeSolver.solve (myU, mySolveMatrix, myB);
+            // keep the matrix frozen into packed storage, since the solver
+            // performs many matrix-vector products. The packed structure is
+            // retained across steps and discarded automatically if the
+            // structure changes; freeze() here only regathers the values,
+            // since the Jacobians were added directly into the blocks.
+            // myU contains the current velocity, which is used as a warm
+            // start.
+            mySolveMatrix.freeze();
+            updatePreconditioner (mySolveMatrix, velSize);
+            myIterativeSolver.solve (
+               myU, new LeadingSubmatrix (mySolveMatrix, velSize), myB);
          }
       }
 
@@ -1153,10 +1645,11 @@ public class MechSystemSolver {
          myQ, myUtmp, t1, stepAdjust);
    }
 
-   private static PrintWriter myLogWriter;
+   private PrintWriter myLogWriter;
+   // shared log writer set by the deprecated static setLogWriter()
+   private static PrintWriter myDefaultLogWriter;
 
-   static FunctionTimer timerX = new FunctionTimer();
-   static boolean solveModePrinted = false;
+   private boolean solveModePrinted = false;
 
    protected void updateSolveMatrixStructure () {
       // assumes that updateStateSizes() has been called
@@ -1526,6 +2019,9 @@ public class MechSystemSolver {
       }
 
       SparseNumberedBlockMatrix S = mySolveMatrix;      
+      // values are added directly into the blocks between the products
+      // below, which packed storage left by backwardEuler would not see
+      S.unfreeze();
 
       S.setZero();
       myC.setSize (S.rowSize());
@@ -1534,7 +2030,7 @@ public class MechSystemSolver {
       mySys.addVelJacobian (S, myC, a0);
       //System.out.println ("myC=" + myC);
       //printEigenValues (S, velSize, "VEL:\n", "%8.2e");
-      if (useFictitousJacobianForces) {
+      if (myUseFictitiousJacobianForces) {
          bf.scaledAdd (-a0, myC);
          if (fpar != null && myParametricVelSize > 0) {
             setSubVector (fpar, myC, velSize, myParametricVelSize);
@@ -1548,7 +2044,7 @@ public class MechSystemSolver {
       myC.setZero();
       mySys.addPosJacobian (S, myC, a1);
 
-      if (useFictitousJacobianForces) {
+      if (myUseFictitiousJacobianForces) {
          bf.scaledAdd (-a0, myC);
          if (fpar != null && myParametricVelSize > 0) {
             addSubVector (fpar, myC, velSize, myParametricVelSize);
@@ -1569,7 +2065,10 @@ public class MechSystemSolver {
       
       VectorNd ff = new VectorNd();
 
-      if (myUseImplicitFriction) {
+      boolean useMurty =
+         (myUseImplicitFriction && myContactSolver == ContactSolver.Direct);
+      myKKTContactsIterative = (myContactSolver != ContactSolver.Direct);
+      if (useMurty) {
          if (myMurtySolver == null) {
             myMurtySolver = new MurtyMechSolver();
             myMurtySolver.setHybridSolves (myHybridSolveP);
@@ -1577,7 +2076,7 @@ public class MechSystemSolver {
       }
       else {
          if (myKKTSolver == null) {
-            myKKTSolver = new KKTSolver(myMatrixSolver);
+            myKKTSolver = new KKTSolver(getKKTMatrixSolver());
          }
       }
       
@@ -1659,6 +2158,7 @@ public class MechSystemSolver {
       }
 
       if (velSize != 0) {
+         StepProfiler prof = myStepProfiler;
          if (vel0 != null) {
             // set vel to vel0 in case the solver needs a warm start
             vel.set (vel0);
@@ -1668,11 +2168,12 @@ public class MechSystemSolver {
                "    KKT solve: M=%d G=%d N=%d\n",
                S.rowSize(), myGT.colSize(), myNT.colSize());
          }
-         if (myUseImplicitFriction) {
+         if (useMurty) {
             if (profileKKTSolveTime|profileImplicitFriction) {
                timerStart (myKKTTimer);
             }
             myMurtySolverTimer.restart();
+            long ptime = (prof != null ? prof.startTimer() : 0);
             // get state
             int sizeN = (myNT != null ? myNT.colSize() : 0);
             int sizeD = (myDT != null ? myDT.colSize() : 0);
@@ -1698,6 +2199,9 @@ public class MechSystemSolver {
             }
             mySys.setUnilateralState (stateN, 0);
             setFrictionState (stateD, 0);                   
+            if (prof != null) {
+               prof.addTime (Phase.KKT_SOLVE, ptime);
+            }
             if (profileKKTSolveTime|profileImplicitFriction) {
                timerStop ("    KKT solve: contact solve", myKKTTimer);
             }
@@ -1729,28 +2233,68 @@ public class MechSystemSolver {
                if (profileKKTSolveTime|profileImplicitFriction) {
                   timerStart (myKKTTimer);
                }
+               long ptime = (prof != null ? prof.startTimer() : 0);
                myKKTSolver.analyze (
                   S, velSize, myGT, myRg, mySys.getSolveMatrixType());
+               if (prof != null) {
+                  prof.addTime (Phase.KKT_ANALYZE, ptime);
+               }
                if (profileKKTSolveTime|profileImplicitFriction) {
                   timerStop ("    KKT solve: analyze", myKKTTimer);
                }
             }
-            if (myHybridSolveP && !analyze && myNT.colSize() == 0) {
+            int numContacts = myNT.colSize();
+            if (myUseImplicitFriction && myDT != null) {
+               numContacts += myDT.colSize();
+            }
+            if (myHybridSolveP && !analyze && numContacts == 0) {
                if (profileKKTSolveTime|profileImplicitFriction) {
                   timerStart (myKKTTimer);
                }
+               long ptime = (prof != null ? prof.startTimer() : 0);
                myKKTSolver.factorAndSolve (
                   S, velSize, myGT, myRg, vel, myLam, bf, myBg, myHybridSolveTol);
+               if (prof != null) {
+                  prof.addTime (Phase.KKT_FACTOR, ptime);
+               }
                if (profileKKTSolveTime|profileImplicitFriction) {
                   timerStop ("    KKT solve: factorAndSolve(hybrid)", myKKTTimer);
                }
             }
+            else if (myKKTContactsIterative) {
+               if (profileKKTSolveTime|profileImplicitFriction) {
+                  timerStart (myKKTTimer);
+               }
+               long ptime = (prof != null ? prof.startTimer() : 0);
+               myKKTSolver.factor (S, velSize, myGT, myRg);
+               if (prof != null) {
+                  prof.addTime (Phase.KKT_FACTOR, ptime);
+                  ptime = prof.startTimer();
+               }
+               solveContactsIteratively (
+                  myKKTSolver, vel, S, velSize, bf, myUseImplicitFriction);
+               if (prof != null) {
+                  prof.addTime (Phase.KKT_SOLVE, ptime);
+               }
+               if (profileKKTSolveTime|profileImplicitFriction) {
+                  timerStop ("    KKT solve: factor and iterative contact solve",
+                             myKKTTimer);
+               }
+            }
             else {
                if (profileKKTSolveTime|profileImplicitFriction) {
                   timerStart (myKKTTimer);
                }
+               long ptime = (prof != null ? prof.startTimer() : 0);
                myKKTSolver.factor (S, velSize, myGT, myRg, myNT, myRn);
+               if (prof != null) {
+                  prof.addTime (Phase.KKT_FACTOR, ptime);
+                  ptime = prof.startTimer();
+               }
                myKKTSolver.solve (vel, myLam, myThe, bf, myBg, myBn);
+               if (prof != null) {
+                  prof.addTime (Phase.KKT_SOLVE, ptime);
+               }
                if (profileKKTSolveTime|profileImplicitFriction) {
                   timerStop ("    KKT solve: factor and solve", myKKTTimer);
                }
@@ -1777,7 +2321,8 @@ public class MechSystemSolver {
          }
     
          //System.out.println ("bg=" + myBg);
-         if (crsWriter != null && !myUseImplicitFriction) {
+         if (crsWriter != null && !myUseImplicitFriction &&
+             !myKKTContactsIterative) {
             String msg = 
                "# KKTsolve M="+velSize+" G="+myGT.colSize()+
                " N="+myNT.colSize()+(analyze ? " ANALYZE" : "");
@@ -1795,7 +2340,7 @@ public class MechSystemSolver {
          }
       }
 
-      if (myLogWriter != null) {
+      if (getKKTLogWriter() != null) {
          writeSystemToLog (vel, bf, velSize);
       }
       
@@ -1804,6 +2349,70 @@ public class MechSystemSolver {
       }
    }
    
+   /**
+    * Solves for the velocities and the contact impulses, and optionally the
+    * friction impulses, using PGSMechSolver. <code>solver</code> must
+    * contain a factorization of <code>S</code> and the bilateral
+    * constraints. The impulses in myThe and myPhi are used as a warm start.
+    */
+   private void solveContactsIteratively (
+      KKTSolver solver, VectorNd vel, SparseBlockMatrix S, int velSize,
+      VectorNd bf, boolean friction) {
+
+      myPGSSolver.setNNCG (myContactSolver == ContactSolver.NNCG);
+      LCPSolver.Status status;
+      if (friction) {
+         // states are sized by the solver
+         status = myPGSSolver.solve (
+            vel, myLam, myThe, myPhi, solver, S, velSize, bf, myBg,
+            myNT, myRn, myBn, myPGSStateN, myDT, myRd, myBd, myPGSStateD,
+            myFrictionInfo);
+         mySys.setUnilateralState (myPGSStateN, 0);
+         setFrictionState (myPGSStateD, 0);
+      }
+      else {
+         status = myPGSSolver.solve (
+            vel, myLam, myThe, null, solver, S, velSize, bf, myBg,
+            myNT, myRn, myBn, null, null, null, null, null, null);
+      }
+      if (profileImplicitFriction) {
+         System.out.println (
+            "PGS SOLVE: N="+myNT.colSize()+
+            " iters=" + myPGSSolver.getIterationCount() +
+            " residual=" + myPGSSolver.getResidual() + " " + status);
+      }
+   }
+
+   /**
+    * Repeats the iterative contact solve for KKTSolve(), using the
+    * factorization and solve matrix from the last call to
+    * KKTFactorAndSolve(). The contact and friction impulses of that call are
+    * used as a warm start and are left unchanged.
+    */
+   private void resolveContactsIteratively (
+      VectorNd vel, VectorNd lam, VectorNd the, VectorNd bf, int velSize) {
+
+      if (myThe.size() == the.size()) {
+         the.set (myThe);
+      }
+      else {
+         the.setZero();
+      }
+      myPGSSolver.setNNCG (myContactSolver == ContactSolver.NNCG);
+      if (myUseImplicitFriction && myDT != null) {
+         myResolvePhi.set (myPhi);
+         myPGSSolver.solve (
+            vel, lam, the, myResolvePhi, myKKTSolver, mySolveMatrix, velSize,
+            bf, myBg, myNT, myRn, myBn, null, myDT, myRd, myBd, null,
+            myFrictionInfo);
+      }
+      else {
+         myPGSSolver.solve (
+            vel, lam, the, null, myKKTSolver, mySolveMatrix, velSize,
+            bf, myBg, myNT, myRn, myBn, null, null, null, null, null, null);
+      }
+   }
+
    protected void maybeAccumulateConstraintForces () {
       if (myUpdateForcesAtStepEnd) {
          int velSize = myActiveVelSize;
@@ -1880,6 +2489,9 @@ public class MechSystemSolver {
       }
 
       SparseNumberedBlockMatrix S = mySolveMatrix;      
+      // values are added directly into the blocks, which packed storage
+      // left by backwardEuler would not see
+      S.unfreeze();
 
       S.setZero();
       
@@ -1896,12 +2508,12 @@ public class MechSystemSolver {
       
       myC.setZero();
       mySys.addPosJacobian (S, myC, -1);
-      if (useFictitousJacobianForces && beta != 0) {
+      if (myUseFictitiousJacobianForces && beta != 0) {
          bf.scaledAdd (beta, myC);
       }
       
       if (myStaticSolver == null) {
-         myStaticSolver = new KKTSolver(myMatrixSolver);
+         myStaticSolver = new KKTSolver(getKKTMatrixSolver());
       }
 
       updateBilateralConstraints ();
@@ -1946,18 +2558,34 @@ public class MechSystemSolver {
 
       if (velSize != 0) {
          u.setZero();
+         StepProfiler prof = myStepProfiler;
+         long ptime = (prof != null ? prof.startTimer() : 0);
          if (analyze) {
             myStaticSolver.analyze (
                S, velSize, myGT, myRg, mySys.getSolveMatrixType());
+            if (prof != null) {
+               prof.addTime (Phase.KKT_ANALYZE, ptime);
+               ptime = prof.startTimer();
+            }
          }
          if (myHybridSolveP && !analyze && myNT.colSize() == 0) {
             myStaticSolver.factorAndSolve (
                S, velSize, myGT, myRg, u, myLam, bf, myBg, myHybridSolveTol);
+            if (prof != null) {
+               prof.addTime (Phase.KKT_FACTOR, ptime);
+            }
          }
          else {
             myStaticSolver.factor (S, velSize, myGT, myRg, myNT, myRn);
+            if (prof != null) {
+               prof.addTime (Phase.KKT_FACTOR, ptime);
+               ptime = prof.startTimer();
+            }
             // int nperturbed = myStaticSolver.getNumNonZerosInFactors();
             myStaticSolver.solve (u, myLam, myThe, bf, myBg, myBn);
+            if (prof != null) {
+               prof.addTime (Phase.KKT_SOLVE, ptime);
+            }
          }
          if (computeKKTResidual) {
             double res = myStaticSolver.residual (
@@ -1988,7 +2616,7 @@ public class MechSystemSolver {
          }
       }
 
-      if (myLogWriter != null) {
+      if (getKKTLogWriter() != null) {
          writeSystemToLog (u, bf, velSize);
       }
 
@@ -2004,54 +2632,89 @@ public class MechSystemSolver {
       crsWriter = null;
    }
 
-   public static void setLogWriter(PrintWriter writer) {
+   /**
+    * Sets a writer to which this solver logs each KKT system it solves.
+    * Any writer previously set for this solver is closed.
+    *
+    * @param writer log writer, or <code>null</code> to disable logging
+    */
+   public void setKKTLogWriter (PrintWriter writer) {
       if (myLogWriter != null) {
          myLogWriter.close();
       }
       myLogWriter = writer;
    }
 
+   /**
+    * Returns the writer to which this solver logs KKT systems, or
+    * <code>null</code> if logging is disabled. If no writer has been set for
+    * this solver, the writer set by {@link #setLogWriter} is returned.
+    *
+    * @return KKT log writer
+    */
+   public PrintWriter getKKTLogWriter() {
+      return myLogWriter != null ? myLogWriter : myDefaultLogWriter;
+   }
+
+   /**
+    * @deprecated use {@link #setKKTLogWriter} instead. Sets a log writer
+    * shared by all solvers that do not have their own.
+    */
+   @Deprecated
+   public static void setLogWriter (PrintWriter writer) {
+      if (myDefaultLogWriter != null) {
+         myDefaultLogWriter.close();
+      }
+      myDefaultLogWriter = writer;
+   }
+
    private void writeSystemToLog (VectorNd vel, VectorNd bf, int vsize) {
 
+      PrintWriter logWriter = getKKTLogWriter();
       try {
          NumberFormat fmt = new NumberFormat("%g");
-         myLogWriter.println ("M("+vsize+"x"+vsize+")=[");
+         logWriter.println ("M("+vsize+"x"+vsize+")=[");
          mySolveMatrix.write (
-            myLogWriter, fmt, Matrix.WriteFormat.SYMMETRIC_CRS, vsize, vsize);
-         myLogWriter.println ("];");
-         myLogWriter.println ("GT("+vsize+"x"+myGT.colSize()+")=[");
-         myGT.write (myLogWriter, fmt, Matrix.WriteFormat.CRS,
+            logWriter, fmt, Matrix.WriteFormat.SYMMETRIC_CRS, vsize, vsize);
+         logWriter.println ("];");
+         logWriter.println ("GT("+vsize+"x"+myGT.colSize()+")=[");
+         myGT.write (logWriter, fmt, Matrix.WriteFormat.CRS,
                      vsize, myGT.colSize()); 
-         myLogWriter.println ("];");
-         myLogWriter.println ("NT("+vsize+"x"+myNT.colSize()+")=[");
-         myNT.write (myLogWriter, fmt, Matrix.WriteFormat.CRS,
+         logWriter.println ("];");
+         logWriter.println ("NT("+vsize+"x"+myNT.colSize()+")=[");
+         myNT.write (logWriter, fmt, Matrix.WriteFormat.CRS,
                      vsize, myNT.colSize());
-         myLogWriter.println ("];");
-         myLogWriter.println ("bf=[");
-         bf.write (myLogWriter, fmt);
-         myLogWriter.println ("];");
-         myLogWriter.println ("myBg=[");
-         myBg.write (myLogWriter, fmt);
-         myLogWriter.println ("];");
-         myLogWriter.println ("myBn=[");
-         myBn.write (myLogWriter, fmt);
-         myLogWriter.println ("];");
-         myLogWriter.println ("vel=[");
-         vel.write (myLogWriter, fmt);
-         myLogWriter.println ("];");
-         myLogWriter.println ("myLam=[");
-         myLam.write (myLogWriter, fmt);
-         myLogWriter.println ("];");
-         myLogWriter.println ("myThe=[");
-         myThe.write (myLogWriter, fmt);
-         myLogWriter.println ("];");
-         myLogWriter.println ("");        
-         myLogWriter.flush();
+         logWriter.println ("];");
+         logWriter.println ("bf=[");
+         bf.write (logWriter, fmt);
+         logWriter.println ("];");
+         logWriter.println ("myBg=[");
+         myBg.write (logWriter, fmt);
+         logWriter.println ("];");
+         logWriter.println ("myBn=[");
+         myBn.write (logWriter, fmt);
+         logWriter.println ("];");
+         logWriter.println ("vel=[");
+         vel.write (logWriter, fmt);
+         logWriter.println ("];");
+         logWriter.println ("myLam=[");
+         myLam.write (logWriter, fmt);
+         logWriter.println ("];");
+         logWriter.println ("myThe=[");
+         myThe.write (logWriter, fmt);
+         logWriter.println ("];");
+         logWriter.println ("");        
+         logWriter.flush();
          System.out.println ("logging");
       }
       catch (IOException e) {
          e.printStackTrace();
-         myLogWriter = null;
+         if (logWriter == myLogWriter) {
+            myLogWriter = null;
+         }
+         else {
+            myDefaultLogWriter = null;
+         }
       }
 
    }
@@ -2083,6 +2746,13 @@ public class MechSystemSolver {
     * bf2 = bf1 - h f1 + h f2
     * KKTSolve (vel2, myLam, the, bf2)
     * </pre>
+    *
+    * <p>If an iterative contact solver (PGS or NNCG) is being used, the
+    * factorization contains only the bilateral constraints, and so the
+    * iterative contact solve is repeated for the new right hand side, warm
+    * started with the impulses from KKTFactorAndSolve(). Unlike
+    * KKTFactorAndSolve(), this does not update the contact or friction
+    * states of the system.
     */
    public void KKTSolve (
       VectorNd vel, VectorNd lam, VectorNd the, VectorNd bf) {
@@ -2092,6 +2762,75 @@ public class MechSystemSolver {
          throw new IllegalStateException (
             "Velocity size != current active velocity state size");
       }
+      checkKKTSolveState();
+
+      lam.setSize (myGT.colSize());
+      if (myNT != null) {
+         the.setSize (myNT.colSize());
+      }
+      else {
+         the.setSize (0);
+      }
+      if (velSize != 0) {
+         if (myKKTContactsIterative) {
+            resolveContactsIteratively (vel, lam, the, bf, velSize);
+         }
+         else if (myUseImplicitFriction) {
+            myMurtySolver.resolveMG (vel, lam, bf, myBg);
+         }
+         else {
+            myKKTSolver.solve (vel, lam, the, bf, myBg, myBn);
+         }
+      }
+   }
+
+   /**
+    * Solves a previously factored KKT system for multiple right-hand sides
+    * <code>bf[k]</code>, as described for {@link
+    * #KKTSolve(VectorNd,VectorNd,VectorNd,VectorNd)}. If the system contains
+    * no unilateral constraints and implicit friction is not being used, the
+    * right-hand sides are solved together using a single multiple right-hand
+    * side solve; otherwise they are solved one at a time. Unilateral
+    * constraint impulses are not returned.
+    *
+    * @param vel returns the velocities for each right-hand side
+    * @param lam returns the bilateral constraint impulses for each
+    * right-hand side
+    * @param bf force terms for each right-hand side
+    * @param nrhs number of right-hand sides
+    */
+   public void KKTSolve (
+      VectorNd[] vel, VectorNd[] lam, VectorNd[] bf, int nrhs) {
+
+      int velSize = mySys.getActiveVelStateSize();
+      for (int k=0; k<nrhs; k++) {
+         if (velSize != vel[k].size()) {
+            throw new IllegalStateException (
+               "Velocity size != current active velocity state size");
+         }
+      }
+      if (myUseImplicitFriction || (myNT != null && myNT.colSize() != 0)) {
+         VectorNd the = new VectorNd();
+         for (int k=0; k<nrhs; k++) {
+            KKTSolve (vel[k], lam[k], the, bf[k]);
+         }
+         return;
+      }
+      checkKKTSolveState();
+      if (velSize != 0) {
+         myKKTSolver.solve (vel, lam, bf, myBg, nrhs);
+      }
+      else {
+         for (int k=0; k<nrhs; k++) {
+            lam[k].setSize (myGT.colSize());
+         }
+      }
+   }
+
+   /**
+    * Checks that a factored KKT system is available for KKTSolve().
+    */
+   private void checkKKTSolveState() {
       if (myKKTSolveMatrixVersion != mySys.getStructureVersion()) {
          throw new IllegalStateException ("Solve structure has changed");
       }
@@ -2104,7 +2843,7 @@ public class MechSystemSolver {
          throw new IllegalStateException (
             "Number of unilateral offsets != number of unilateral constraints");
       }
-      if (myUseImplicitFriction) {
+      if (myUseImplicitFriction && !myKKTContactsIterative) {
          if (myMurtySolver == null || !myMurtySolver.isAMatrixFactored()) {
             throw new IllegalStateException (
                "KKTFactorAndSolve must be called prior to KKTSolve");
@@ -2116,22 +2855,6 @@ public class MechSystemSolver {
                "KKTFactorAndSolve must be called prior to KKTSolve");
          }
       }
-
-      lam.setSize (myGT.colSize());
-      if (myNT != null) {
-         the.setSize (myNT.colSize());
-      }
-      else {
-         the.setSize (0);
-      }
-      if (velSize != 0) {
-         if (myUseImplicitFriction) {
-            myMurtySolver.resolveMG (vel, lam, bf, myBg);
-         }
-         else {
-            myKKTSolver.solve (vel, lam, the, bf, myBg, myBn);
-         }
-      }
    }
 
    //int cnt = 0;
@@ -2643,7 +3366,7 @@ public class MechSystemSolver {
          return;
       }            
       if (myConSolver == null) {
-         myConSolver = new KKTSolver(myMatrixSolver);
+         myConSolver = new KKTSolver(getKKTMatrixSolver());
       }
       updateBilateralConstraints ();
       updateUnilateralConstraints ();
@@ -2700,8 +3423,15 @@ public class MechSystemSolver {
       myLam.scale (h);
       myThe.scale (h);
 
-      myConSolver.factor (myMass, velSize, myGT, myRg, myNT, myRn);
-      myConSolver.solve (vel, myLam, myThe, myBf, myBg, myBn);
+      if (myContactSolver != ContactSolver.Direct) {
+         myConSolver.factor (myMass, velSize, myGT, myRg);
+         solveContactsIteratively (
+            myConSolver, vel, myMass, velSize, myBf, /*friction=*/false);
+      }
+      else {
+         myConSolver.factor (myMass, velSize, myGT, myRg, myNT, myRn);
+         myConSolver.solve (vel, myLam, myThe, myBf, myBg, myBn);
+      }
       if (computeKKTResidual) {
          double res = myConSolver.residual (
             myMass, velSize, myGT, myRg, myNT, myRn, 
@@ -2730,7 +3460,7 @@ public class MechSystemSolver {
          return;
       }            
       if (myConSolver == null) {
-         myConSolver = new KKTSolver(myMatrixSolver);
+         myConSolver = new KKTSolver(getKKTMatrixSolver());
       }
       updateBilateralConstraints ();
       updateUnilateralConstraints ();
@@ -2800,8 +3530,15 @@ public class MechSystemSolver {
       myLam.scale (h);
       myThe.scale (h);
 
-      myConSolver.factor (myMass, velSize, myGT, myRg, myNT, myRn);
-      myConSolver.solve (vel, myLam, myThe, myBf, myBg, myBn);
+      if (myContactSolver != ContactSolver.Direct) {
+         myConSolver.factor (myMass, velSize, myGT, myRg);
+         solveContactsIteratively (
+            myConSolver, vel, myMass, velSize, myBf, /*friction=*/false);
+      }
+      else {
+         myConSolver.factor (myMass, velSize, myGT, myRg, myNT, myRn);
+         myConSolver.solve (vel, myLam, myThe, myBf, myBg, myBn);
+      }
 
       if (computeKKTResidual) {
          double res = myConSolver.residual (
@@ -2899,8 +3636,13 @@ public class MechSystemSolver {
          myConMassVersion = myMassVersion;
          myConGTVersion = getGTVersion();
       }
-      myConSolver.factor (myMass, velSize, myGT, myRg, myNT, myRn);
-      myConSolver.solve (vel, myLam, myThe, myBf, myBg, myBn);
+      if (myContactSolver != ContactSolver.Direct) {
+         solvePosCorrectionIteratively (myConSolver, myMass, velSize, vel);
+      }
+      else {
+         myConSolver.factor (myMass, velSize, myGT, myRg, myNT, myRn);
+         myConSolver.solve (vel, myLam, myThe, myBf, myBg, myBn);
+      }
       if (computeKKTResidual) {
          double res = myConSolver.residual (
             myMass, velSize, myGT, myRg, myNT, myRn, 
@@ -2911,6 +3653,21 @@ public class MechSystemSolver {
       }
    }
 
+   /**
+    * Solves a position correction with unilateral constraints using
+    * PGSMechSolver. The contact impulses are started from zero, since
+    * there are no previous position correction impulses to warm start
+    * from.
+    */
+   private void solvePosCorrectionIteratively (
+      KKTSolver solver, SparseBlockMatrix S, int velSize, VectorNd vel) {
+      solver.factor (S, velSize, myGT, myRg);
+      myThe.setSize (myNT.colSize());
+      myThe.setZero();
+      solveContactsIteratively (
+         solver, vel, S, velSize, myBf, /*friction=*/false);
+   }
+
    /**
     * Used with implicit friction:
     */
@@ -2978,7 +3735,7 @@ public class MechSystemSolver {
       mySys.addPosJacobian (S, null, -1);
       addActiveMassMatrix (mySys, S);
       if (myKKTSolver == null) {
-         myKKTSolver = new KKTSolver(myMatrixSolver);
+         myKKTSolver = new KKTSolver(getKKTMatrixSolver());
          analyze = true;
       }
       if (myKKTGTVersion != getGTVersion()) {
@@ -2993,6 +3750,9 @@ public class MechSystemSolver {
          myKKTSolver.factorAndSolve (
             S, velSize, myGT, myRg, vel, myLam, myBf, myBg, myHybridSolveTol);
       }
+      else if (myContactSolver != ContactSolver.Direct) {
+         solvePosCorrectionIteratively (myKKTSolver, S, velSize, vel);
+      }
       else {
          myKKTSolver.factor (S, velSize, myGT, myRg, myNT, myRn);
          myKKTSolver.solve (vel, myLam, myThe, myBf, myBg, myBn);
@@ -3033,10 +3793,15 @@ public class MechSystemSolver {
       boolean hasConstraints = mySys.updateConstraints (
          t, stepAdjust, /*flags=*/MechSystem.COMPUTE_CONTACTS);
       if (hasConstraints) {
+         StepProfiler prof = myStepProfiler;
+         long ptime = (prof != null ? prof.startTimer() : 0);
          updateMassMatrix (-1);
          if (computePosCorrections (pos, vel, t)) {
             mySys.setActivePosState (pos);
          }
+         if (prof != null) {
+            prof.addTime (Phase.POSITION_STABILIZATION, ptime);
+         }
       }
    }
 
@@ -3050,7 +3815,7 @@ public class MechSystemSolver {
          return false;
       }            
       if (myConSolver == null) {
-         myConSolver = new KKTSolver(myMatrixSolver);
+         myConSolver = new KKTSolver(getKKTMatrixSolver());
       }
       updateBilateralConstraints ();
       updateUnilateralConstraints ();
@@ -3105,7 +3870,8 @@ public class MechSystemSolver {
             myBf.setSize (velSize);
             myBf.setZero();
             if (myUseImplicitFriction &&
-            myIntegrator == Integrator.ConstrainedBackwardEuler) {
+                myContactSolver == ContactSolver.Direct &&
+                myIntegrator == Integrator.ConstrainedBackwardEuler) {
                computeImplicitPosCorrection (vel, velSize, t);
             }
             else if (myStabilization == PosStabilization.GlobalStiffness &&
@@ -4086,6 +4852,10 @@ public class MechSystemSolver {
          myUmfpackSolver.dispose();
          myUmfpackSolver = null;
       }
+      if (mySupernodalSolver != null) {
+         mySupernodalSolver.dispose();
+         mySupernodalSolver = null;
+      }
       if (myRBSolver != null) {
          myRBSolver.dispose();
          myRBSolver = null;
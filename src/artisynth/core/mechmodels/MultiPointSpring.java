@@ -185,6 +185,10 @@ public class MultiPointSpring extends PointSpringBase
 
    protected double myDrawDisplacements = 0;
 
+   // set when the wrap paths for the current preadvance or postadvance have
+   // already been updated by the MechModel containing this spring
+   protected boolean myWrapSegsUpdatedP = false;
+
    /* === profiling attributes === */
 
    protected FunctionTimer myProfileTimer = new FunctionTimer();
@@ -2235,7 +2239,12 @@ public class MultiPointSpring extends PointSpringBase
     */
    public void preadvance (double t0, double t1, int flags) {
       if (t0 == 0) {
-         updateWrapSegments(10*myMaxWrapIterations);
+         if (myWrapSegsUpdatedP) {
+            myWrapSegsUpdatedP = false;
+         }
+         else {
+            updateWrapSegments(10*myMaxWrapIterations);
+         }
       }
    }
    
@@ -2246,8 +2255,36 @@ public class MultiPointSpring extends PointSpringBase
     * segments. 
     */
    public void postadvance (double t0, double t1, int flags) {
-      updateStructure();
-      updateWrapSegments(myMaxWrapIterations);
+      if (myWrapSegsUpdatedP) {
+         // structure and wrap segments have already been updated
+         myWrapSegsUpdatedP = false;
+      }
+      else {
+         updateStructure();
+         updateWrapSegments(myMaxWrapIterations);
+      }
+   }
+
+   /**
+    * Performs the wrap path update normally done within {@link #preadvance}
+    * (if {@code post} is {@code false}) or {@link #postadvance} (if {@code
+    * post} is {@code true}), so that the subsequent call to that method does
+    * not repeat it. Used by {@link MechModel} to update the wrap paths of
+    * different springs concurrently. For postadvance, {@link
+    * #updateStructure} must have already been called.
+    *
+    * @param t0 current time
+    * @param post if {@code true}, performs the update for postadvance
+    */
+   void updateWrapSegmentsForAdvance (double t0, boolean post) {
+      if (post) {
+         updateWrapSegments(myMaxWrapIterations);
+         myWrapSegsUpdatedP = true;
+      }
+      else if (t0 == 0) {
+         updateWrapSegments(10*myMaxWrapIterations);
+         myWrapSegsUpdatedP = true;
+      }
    }
 
    /** 
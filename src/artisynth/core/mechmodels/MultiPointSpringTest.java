@@ -208,7 +208,100 @@ public class MultiPointSpringTest extends UnitTest {
       ScanTest.testScanAndWrite (spring, mech, null);
    }
 
+   /**
+    * Creates a model in which an ellipsoid hangs from a set of springs that
+    * wrap around a fixed cylinder and the ellipsoid itself.
+    */
+   MechModel createWrappingModel (int nsprings, boolean parallel) {
+      MechModel mech = new MechModel ("mech");
+      mech.setFrameDamping (10.0);
+      mech.setRotaryDamping (1.0);
+      mech.setParallelWrapping (parallel);
+      // explicit integration avoids needing to solve with the non-symmetric
+      // wrapping stiffness
+      mech.setIntegrator (MechSystemSolver.Integrator.SymplecticEuler);
+
+      RigidCylinder cylinder = new RigidCylinder (
+         "cylinder", /*rad=*/0.5, /*height=*/4.0, 150, /*nsides=*/32);
+      cylinder.setPose (new RigidTransform3d (0, 0, 1.5, 0, Math.PI/2, 0));
+      cylinder.setDynamic (false);
+      mech.addRigidBody (cylinder);
+
+      double rad = 0.6;
+      RigidEllipsoid ellipsoid = new RigidEllipsoid (
+         "ellipsoid", rad, 2*rad, rad, 150, /*nslices=*/20);
+      ellipsoid.setPose (new RigidTransform3d (0.5, 0, -1.0, 0.1, 0.2, 0.3));
+      mech.addRigidBody (ellipsoid);
+
+      for (int i=0; i<nsprings; i++) {
+         double y = -1.5 + 3.0*i/(nsprings-1);
+         Particle p0 = new Particle (0, -1.0-0.1*i, y, 2.5);
+         p0.setDynamic (false);
+         mech.addParticle (p0);
+         FrameMarker mkr = new FrameMarker();
+         mech.addFrameMarker (
+            mkr, ellipsoid, new Point3d (rad*0.7, 0.5*y/1.5, rad*0.7));
+         MultiPointSpring spring = new MultiPointSpring ("spring"+i, 50, 1, 0);
+         spring.addPoint (p0);
+         spring.setSegmentWrappable (20);
+         spring.addPoint (mkr);
+         spring.addWrappable (cylinder);
+         spring.addWrappable (ellipsoid);
+         mech.addMultiPointSpring (spring);
+      }
+      return mech;
+   }
+
+   /**
+    * Checks that updating the wrap paths concurrently gives the same results
+    * as updating them serially.
+    */
+   public void testParallelWrapping() {
+      int nsprings = 8;
+      int nsteps = 20;
+      double h = 0.01;
+      MechModel serial = createWrappingModel (nsprings, false);
+      MechModel parallel = createWrappingModel (nsprings, true);
+      VectorNd[] qvals = new VectorNd[2];
+      MechModel[] models = new MechModel[] { serial, parallel };
+      for (int k=0; k<2; k++) {
+         MechModel mech = models[k];
+         mech.initialize (0);
+         for (int i=0; i<nsteps; i++) {
+            mech.advance (i*h, (i+1)*h, 0);
+         }
+         qvals[k] = new VectorNd (mech.getActivePosStateSize());
+         mech.getActivePosState (qvals[k]);
+         checkEquals (
+            "wrap update count", mech.getWrapUpdateCount(), nsteps+1);
+         check ("no wrap iterations", mech.getWrapIterationCount() > 0);
+      }
+      if (!qvals[0].equals (qvals[1])) {
+         throw new TestException (
+            "Parallel wrapping results differ:\nserial:   " +
+            qvals[0].toString ("%12.8f") +
+            "\nparallel: " + qvals[1].toString ("%12.8f"));
+      }
+      checkEquals (
+         "wrap iteration count",
+         parallel.getWrapIterationCount(), serial.getWrapIterationCount());
+      int numABPoints = 0;
+      ArrayList<Point> pnts = new ArrayList<Point>();
+      for (int i=0; i<nsprings; i++) {
+         MultiPointSpring sspr = serial.multiPointSprings().get(i);
+         MultiPointSpring pspr = parallel.multiPointSprings().get(i);
+         checkEquals (
+            "length of spring "+i, pspr.getLength(), sspr.getLength());
+         numABPoints += sspr.getAllABPoints (pnts);
+      }
+      check ("no springs in contact with wrappables", numABPoints > 0);
+      serial.resetWrapProfiling();
+      checkEquals ("wrap update count after reset",
+                   serial.getWrapUpdateCount(), 0);
+   }
+
    public void test() {
+      testParallelWrapping();
       //tester.test(0); // force and Jacobians should be 0
       //tester.test(1); // force and Jacobians should be 0
       test(2);
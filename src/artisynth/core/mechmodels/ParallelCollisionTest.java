@@ -0,0 +1,137 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.mechmodels;
+
+import java.util.*;
+
+import artisynth.core.mechmodels.CollisionBehavior.Method;
+import artisynth.core.mechmodels.CollisionManager.ColliderType;
+import maspack.collision.CollisionMetrics;
+import maspack.geometry.RobustPreds;
+import maspack.geometry.Vertex3d;
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Checks that computing contacts in parallel with the CollisionManager
+ * gives exactly the same results as computing them serially, and that
+ * broad-phase culling does not change the results.
+ */
+public class ParallelCollisionTest extends UnitTest {
+
+   MechModel createModel (ColliderType ctype, boolean parallel) {
+      return createModel (ctype, parallel, /*culling=*/true);
+   }
+
+   MechModel createModel (
+      ColliderType ctype, boolean parallel, boolean culling) {
+      MechModel mech = new MechModel ("mech");
+      RigidBody base = RigidBody.createBox ("base", 4.0, 4.0, 0.5, 1000);
+      base.setDynamic (false);
+      mech.addRigidBody (base);
+      // grid of spheres dropping onto the base and into each other
+      int k = 0;
+      for (int i=0; i<3; i++) {
+         for (int j=0; j<3; j++) {
+            RigidBody ball = RigidBody.createIcosahedralSphere (
+               "ball"+k, 0.4, 1000, 2);
+            ball.setPosition (
+               new Point3d (-0.75+0.75*i, -0.75+0.75*j, 0.6+0.05*(i+j)));
+            mech.addRigidBody (ball);
+            k++;
+         }
+      }
+      CollisionManager cm = mech.getCollisionManager();
+      cm.setColliderType (ctype);
+      if (ctype == ColliderType.SIGNED_DISTANCE) {
+         cm.setMethod (Method.VERTEX_PENETRATION);
+      }
+      cm.setParallelCollisions (parallel);
+      cm.setNumCollisionThreads (4);
+      cm.setBroadPhaseCulling (culling);
+      mech.setDefaultCollisionBehavior (true, 0.2);
+      return mech;
+   }
+
+   VectorNd simulate (MechModel mech, int nsteps) {
+      double h = 0.01;
+      mech.initialize (0);
+      for (int i=0; i<nsteps; i++) {
+         mech.advance (i*h, (i+1)*h, 0);
+      }
+      VectorNd q = new VectorNd (mech.getActivePosStateSize());
+      mech.getActivePosState (q);
+      return q;
+   }
+
+   void testParallelCollisions (ColliderType ctype) {
+      MechModel serial = createModel (ctype, false);
+      MechModel parallel = createModel (ctype, true);
+      VectorNd qs = simulate (serial, 20);
+      VectorNd qp = simulate (parallel, 20);
+      int nhandlers = serial.getCollisionManager().getHandlers().size();
+      check ("no collisions found for "+ctype, nhandlers > 0);
+      check (
+         "number of handlers differs for "+ctype,
+         nhandlers == parallel.getCollisionManager().getHandlers().size());
+      if (!qs.equals (qp)) {
+         throw new TestException (
+            "Parallel collision results differ for " + ctype +
+            ":\nserial:   " + qs.toString ("%12.8f") +
+            "\nparallel: " + qp.toString ("%12.8f"));
+      }
+   }
+
+   void testBroadPhaseCulling (ColliderType ctype) {
+      MechModel culled = createModel (ctype, false, /*culling=*/true);
+      MechModel unculled = createModel (ctype, false, /*culling=*/false);
+      VectorNd qc = simulate (culled, 20);
+      VectorNd qu = simulate (unculled, 20);
+      CollisionMetrics metrics =
+         culled.getCollisionManager().getCollisionMetrics();
+      check ("no pairs culled for "+ctype, metrics.broadPhaseCulled > 0);
+      check ("culled pairs recorded without culling for "+ctype,
+             unculled.getCollisionManager().getCollisionMetrics().
+             broadPhasePairs == 0);
+      if (!qc.equals (qu)) {
+         throw new TestException (
+            "Broad-phase culling changes results for " + ctype +
+            ":\nculled:   " + qc.toString ("%12.8f") +
+            "\nunculled: " + qu.toString ("%12.8f"));
+      }
+   }
+
+   private boolean robustPredsAvailable() {
+      // the AJL_CONTOUR collider, and the distance grids used by the
+      // SIGNED_DISTANCE collider, require the native RobustPreds library
+      try {
+         RobustPreds.orient3d (
+            new Vertex3d (0, 0, 0), new Vertex3d (1, 0, 0),
+            new Vertex3d (0, 1, 0), new Vertex3d (0, 0, 1), true, true);
+         return true;
+      }
+      catch (Exception e) {
+         return false;
+      }
+   }
+
+   public void test() {
+      testParallelCollisions (ColliderType.TRI_INTERSECTION);
+      testBroadPhaseCulling (ColliderType.TRI_INTERSECTION);
+      if (robustPredsAvailable()) {
+         testParallelCollisions (ColliderType.AJL_CONTOUR);
+         testParallelCollisions (ColliderType.SIGNED_DISTANCE);
+         testBroadPhaseCulling (ColliderType.AJL_CONTOUR);
+         testBroadPhaseCulling (ColliderType.SIGNED_DISTANCE);
+      }
+   }
+
+   public static void main (String[] args) {
+      ParallelCollisionTest tester = new ParallelCollisionTest();
+      tester.runtest();
+   }
+}
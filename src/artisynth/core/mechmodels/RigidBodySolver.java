@@ -85,7 +85,8 @@ public class RigidBodySolver {
    private SparseSolverId myMatrixSolver = SparseSolverId.Pardiso;
 
    public RigidBodySolver (MechSystem sys) {
-      if (sys instanceof MechSystemBase) {
+      if (sys instanceof MechSystemBase &&
+          ((MechSystemBase)sys).getMatrixSolver().isDirect()) {
          myMatrixSolver = ((MechSystemBase)sys).getMatrixSolver();
       }
       else {
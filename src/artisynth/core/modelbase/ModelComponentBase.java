@@ -44,20 +44,42 @@ public abstract class ModelComponentBase implements ModelComponent, Cloneable {
    protected static final int SCANNING = 0x40;
    protected static final int NON_WRITABLE = 0x80;
    
-   // Allow for creation of custom flags
-   protected static int FREE_FLAG_MASK = 0xFF00;
-   protected static int freeFlags = FREE_FLAG_MASK;
+   // Allow for creation of custom flags. The pool of free flags is kept per
+   // thread, so that models being built or simulated concurrently in
+   // different threads do not exhaust or release each other's flags.
+   protected static final int FREE_FLAG_MASK = 0xFF00;
+   private static final ThreadLocal<int[]> freeFlags =
+      ThreadLocal.withInitial (() -> new int[] { FREE_FLAG_MASK });
    
+   /**
+    * Allocates a temporary flag bit that can be used by the calling thread
+    * to mark components, and which should be released using {@link
+    * #removeTempFlag} when no longer needed.
+    *
+    * @return allocated flag bit
+    * @throws IllegalStateException if all temporary flags are in use
+    */
    public static int createTempFlag() {
+      int[] free = freeFlags.get();
       // find first free flag
-      int flag = Integer.highestOneBit(freeFlags);
-      freeFlags = freeFlags & (~flag);
+      int flag = Integer.highestOneBit(free[0]);
+      if (flag == 0) {
+         throw new IllegalStateException (
+            "No free temporary flags available");
+      }
+      free[0] = free[0] & (~flag);
       return flag;
    }
 
+   /**
+    * Releases temporary flag bits previously allocated by the calling
+    * thread using {@link #createTempFlag}.
+    *
+    * @param mask flag bits to release
+    */
    public static void removeTempFlag(int mask) {
       mask = mask & FREE_FLAG_MASK;
-      freeFlags |= mask;
+      freeFlags.get()[0] |= mask;
    }
    
    // If true, component names must be unique among all siblings
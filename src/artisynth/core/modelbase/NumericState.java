@@ -53,7 +53,7 @@ public class NumericState extends DataBuffer implements ComponentState {
          myPrev = prev;
       }
 
-      Offsets getSizes() {
+      public Offsets getSizes() {
          if (myPrev == null) {
             return new Offsets (myZoff, myDoff, myOoff);
          }
@@ -185,23 +185,51 @@ public class NumericState extends DataBuffer implements ComponentState {
       }
    }  
 
+   private void copyDataFrames (NumericState state) {
+      myFrames = new ArrayList<DataFrame>(state.myFrames.size());
+      DataFrame prev = null;
+      //System.out.println ("setting "+myFrames.size()+" frames");
+      for (DataFrame frame : state.myFrames) {
+         DataFrame newFrame = new DataFrame(frame, prev);
+         myFrames.add (newFrame);
+         prev = newFrame;
+      }
+   }
+
    public void set (NumericState state) {
       super.set (state);
       if (state.hasDataFrames()) {
-         myFrames = new ArrayList<DataFrame>(state.myFrames.size());
-         DataFrame prev = null;
-         //System.out.println ("setting "+myFrames.size()+" frames");
-         for (DataFrame frame : state.myFrames) {
-            DataFrame newFrame = new DataFrame(frame, prev);
-            myFrames.add (newFrame);
-            prev = newFrame;
-         }
+         copyDataFrames (state);
       }
 //      else {
 //         myFrames = null;
 //      }
    }
 
+   /**
+    * Sets this state to have the same data frames and object data as another
+    * state, but with no integer or double data. This creates a lightweight
+    * copy of the state's structure, whose numeric data can be stored
+    * elsewhere and restored later using {@link #zsetSize} and {@link
+    * #dsetSize}. Objects are copied by reference.
+    *
+    * @param state state whose structure should be copied
+    */
+   public void setStructure (NumericState state) {
+      super.clear();
+      if (state.hasDataFrames()) {
+         copyDataFrames (state);
+      }
+      else {
+         myFrames = null;
+      }
+      oEnsureCapacity (state.osize());
+      Object[] obuf = state.obuffer();
+      for (int i=0; i<state.osize(); i++) {
+         oput (obuf[i]);
+      }
+   }
+
    public void writeBinary (DataOutputStream dos) throws IOException {
       if (myFrames != null) {
          // write out frame data
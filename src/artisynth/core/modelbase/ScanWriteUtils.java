@@ -1192,6 +1192,93 @@ public class ScanWriteUtils {
       obj.write (pw, fmt, ref);
    }
 
+   /**
+    * Writes a component to a binary snapshot file, which can be read back
+    * considerably faster than the usual text format. The component is first
+    * written in text form, as by {@link #writeComponent writeComponent()},
+    * and this text is then scanned into a new instance of the component using
+    * a {@link RecordingTokenizer}, which records the tokens seen by the scan
+    * methods, with numeric values stored in binary and strings (including
+    * reference paths) stored once and referred to by index.
+    *
+    * <p>A snapshot removes the cost of parsing characters, which dominates
+    * the scanning of large numeric data such as FEM nodes and elements (see
+    * the <code>-timing</code> option of {@link
+    * maspack.util.SnapshotTokenizerTest}). It does not remove the cost of
+    * creating the components, and references are still resolved from their
+    * paths in postscan. Since writing a snapshot involves scanning the
+    * component text, it costs about as much as one text load.
+    *
+    * <p>A snapshot is read using the same code that reads the text file,
+    * using the tokenizer returned by {@link
+    * ArtisynthIO#newReaderTokenizer(File)}, which detects snapshot files
+    * automatically. The scanning code must be the same as that used to create
+    * the snapshot, which means that snapshots should be recreated if the
+    * component classes change.
+    * 
+    * @param file snapshot file to write
+    * @param fmt numeric format for writing the component text
+    * @param comp component to be written
+    * @param ref reference object used for writing the component
+    * @throws IOException if an I/O or syntax error occurred
+    */
+   public static void writeComponentSnapshot (
+      File file, NumberFormat fmt, ModelComponent comp, Object ref)
+      throws IOException {
+
+      File textFile = File.createTempFile ("snapshot", ".art");
+      try {
+         PrintWriter pw = ArtisynthIO.newIndentingPrintWriter (textFile);
+         try {
+            writeComponent (pw, fmt, comp, ref);
+         }
+         finally {
+            pw.close();
+         }
+         createSnapshot (textFile, file);
+      }
+      finally {
+         textFile.delete();
+      }
+   }
+
+   /**
+    * Creates a binary snapshot file from a text file containing a component
+    * written by {@link #writeComponent writeComponent()}. The text file is
+    * scanned into a new instance of the component, and the tokens seen by
+    * the scan methods are recorded into the snapshot.
+    * 
+    * @param textFile text file containing the component
+    * @param snapshotFile snapshot file to write
+    * @throws IOException if an I/O or syntax error occurred
+    */
+   public static void createSnapshot (File textFile, File snapshotFile)
+      throws IOException {
+
+      RecordingTokenizer rtok = new RecordingTokenizer (
+         new BufferedReader (new FileReader (textFile)), snapshotFile);
+      rtok.wordChars ("./$");
+      rtok.setResourceName (textFile.toString());
+      boolean completed = false;
+      try {
+         ClassInfo<ModelComponent> classInfo =
+            scanClassInfo (rtok, ModelComponent.class);
+         ModelComponent comp = newComponent (rtok, classInfo, false);
+         comp.scan (rtok, new ArrayDeque<ScanToken>());
+         // record any remaining input
+         while (rtok.nextToken() != ReaderTokenizer.TT_EOF) {
+         }
+         rtok.finish();
+         completed = true;
+      }
+      finally {
+         rtok.close();
+         if (!completed) {
+            snapshotFile.delete();
+         }
+      }
+   }
+
    public static void writeVector3dList (
       PrintWriter pw, NumberFormat fmt, Vector3d[] list) throws IOException {
 
@@ -0,0 +1,535 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.modelbase;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Records the wall clock time spent in the different phases of each
+ * simulation step, such as applying probes and controllers, updating forces,
+ * collision detection, and solving the KKT system.
+ *
+ * <p>Timing is accumulated for the current step using {@link #startTimer}
+ * and {@link #addTime}, and committed when {@link #endStep} is called.  The
+ * per-phase times for the most recent steps are kept in a ring buffer whose
+ * size is fixed at construction. Cumulative statistics, including a
+ * histogram with logarithmically spaced bins, are maintained for all steps
+ * since the last call to {@link #clear}. Memory is allocated only at
+ * construction, so that profiling long runs adds very little overhead.
+ *
+ * <p>The recorded data can be queried directly, or exported using {@link
+ * #writeCsv} and {@link #writeJson}.
+ */
+public class StepProfiler {
+
+   /**
+    * Phases of a simulation step for which time is recorded.
+    */
+   public enum Phase {
+      /**
+       * Total time for the step
+       */
+      STEP,
+
+      /**
+       * Applying input probes
+       */
+      INPUT_PROBES,
+
+      /**
+       * Applying controllers
+       */
+      CONTROLLERS,
+
+      /**
+       * Updating forces, and the stiffness information they depend on
+       */
+      FORCE_UPDATE,
+
+      /**
+       * Collision detection and contact constraint computation
+       */
+      COLLISION,
+
+      /**
+       * Symbolic analysis of the KKT system
+       */
+      KKT_ANALYZE,
+
+      /**
+       * Numeric factorization of the KKT system. When the solver
+       * performs a combined factor and solve, the time is recorded here.
+       */
+      KKT_FACTOR,
+
+      /**
+       * Solution of the KKT system, given a factorization. Includes
+       * contact solves when implicit friction is used.
+       */
+      KKT_SOLVE,
+
+      /**
+       * Position stabilization, excluding the collision detection
+       * it requires
+       */
+      POSITION_STABILIZATION,
+
+      /**
+       * Applying monitors
+       */
+      MONITORS,
+
+      /**
+       * Applying output probes
+       */
+      OUTPUT_PROBES;
+
+      /**
+       * Returns a lower case name for this phase, used when exporting data.
+       */
+      public String label() {
+         return name().toLowerCase();
+      }
+   }
+
+   /**
+    * Default number of steps stored in the ring buffer.
+    */
+   public static final int DEFAULT_CAPACITY = 1000;
+
+   /**
+    * Number of histogram bins. Bin 0 counts times less than 1 usec, and
+    * bin {@code k > 0} counts times in the range {@code [2^(k-1),2^k)} usec,
+    * with the last bin also counting all larger times.
+    */
+   public static final int NUM_HISTOGRAM_BINS = 32;
+
+   private static final int NUM_PHASES = Phase.values().length;
+
+   private int myCapacity;
+   // ring buffer storage:
+   private long[][] myTimes;   // phase times for each stored step, in nsec
+   private double[] mySimTimes; // simulation time at the end of each step
+   private int myHead;         // index where the next step will be stored
+   private int myNumStored;    // number of steps currently stored
+
+   // accumulators for the current step
+   private long[] myCurrent = new long[NUM_PHASES];
+   private long myStepStart = -1;
+
+   // cumulative statistics
+   private long myNumSteps;
+   private long[] myTotal = new long[NUM_PHASES];
+   private long[] myMax = new long[NUM_PHASES];
+   private long[][] myHistogram = new long[NUM_PHASES][NUM_HISTOGRAM_BINS];
+
+   /**
+    * Creates a new StepProfiler whose ring buffer stores {@link
+    * #DEFAULT_CAPACITY} steps.
+    */
+   public StepProfiler() {
+      this (DEFAULT_CAPACITY);
+   }
+
+   /**
+    * Creates a new StepProfiler whose ring buffer stores a specified number
+    * of steps.
+    *
+    * @param capacity number of steps stored in the ring buffer
+    */
+   public StepProfiler (int capacity) {
+      if (capacity < 1) {
+         throw new IllegalArgumentException (
+            "capacity must be positive; got " + capacity);
+      }
+      myCapacity = capacity;
+      myTimes = new long[capacity][NUM_PHASES];
+      mySimTimes = new double[capacity];
+   }
+
+   /**
+    * Returns the number of steps that can be stored in the ring buffer.
+    *
+    * @return ring buffer capacity
+    */
+   public int getCapacity() {
+      return myCapacity;
+   }
+
+   /**
+    * Returns the current time value used for timing. This should be passed
+    * to a subsequent call to {@link #addTime}.
+    *
+    * @return current time, in nanoseconds
+    */
+   public long startTimer() {
+      return System.nanoTime();
+   }
+
+   /**
+    * Adds the time elapsed since {@code startNsec} to the time accumulated
+    * for a given phase within the current step.
+    *
+    * @param phase phase to add the time to
+    * @param startNsec start time, as returned by {@link #startTimer}
+    */
+   public void addTime (Phase phase, long startNsec) {
+      myCurrent[phase.ordinal()] += (System.nanoTime() - startNsec);
+   }
+
+   /**
+    * Adds a specified time to the time accumulated for a given phase within
+    * the current step. This can be used to record times measured by other
+    * means.
+    *
+    * @param phase phase to add the time to
+    * @param nsec time to add, in nanoseconds
+    */
+   public void addTimeNsec (Phase phase, long nsec) {
+      myCurrent[phase.ordinal()] += nsec;
+   }
+
+   /**
+    * Marks the beginning of a step, and clears the time accumulated
+    * for each phase.
+    */
+   public void beginStep() {
+      Arrays.fill (myCurrent, 0);
+      myStepStart = System.nanoTime();
+   }
+
+   /**
+    * Marks the end of a step, and commits the accumulated phase times to the
+    * ring buffer and the cumulative statistics. If {@link #beginStep} was
+    * called, the time since that call is recorded as the {@link Phase#STEP}
+    * time.
+    *
+    * @param t simulation time at the end of the step
+    */
+   public synchronized void endStep (double t) {
+      if (myStepStart != -1) {
+         myCurrent[Phase.STEP.ordinal()] = System.nanoTime() - myStepStart;
+         myStepStart = -1;
+      }
+      long[] times = myTimes[myHead];
+      for (int i=0; i<NUM_PHASES; i++) {
+         long nsec = myCurrent[i];
+         times[i] = nsec;
+         myTotal[i] += nsec;
+         if (nsec > myMax[i]) {
+            myMax[i] = nsec;
+         }
+         myHistogram[i][histogramBin (nsec)]++;
+      }
+      mySimTimes[myHead] = t;
+      myHead = (myHead+1) % myCapacity;
+      if (myNumStored < myCapacity) {
+         myNumStored++;
+      }
+      myNumSteps++;
+      Arrays.fill (myCurrent, 0);
+   }
+
+   /**
+    * Returns the histogram bin for a time value given in nanoseconds.
+    */
+   static int histogramBin (long nsec) {
+      long usec = nsec/1000;
+      if (usec <= 0) {
+         return 0;
+      }
+      // number of bits needed to represent usec
+      int bin = 64-Long.numberOfLeadingZeros (usec);
+      return Math.min (bin, NUM_HISTOGRAM_BINS-1);
+   }
+
+   /**
+    * Clears all recorded data.
+    */
+   public synchronized void clear() {
+      myHead = 0;
+      myNumStored = 0;
+      myNumSteps = 0;
+      myStepStart = -1;
+      Arrays.fill (myCurrent, 0);
+      Arrays.fill (myTotal, 0);
+      Arrays.fill (myMax, 0);
+      for (int i=0; i<NUM_PHASES; i++) {
+         Arrays.fill (myHistogram[i], 0);
+      }
+   }
+
+   /**
+    * Returns the total number of steps recorded since construction or the
+    * last call to {@link #clear}.
+    *
+    * @return total number of recorded steps
+    */
+   public synchronized long numSteps() {
+      return myNumSteps;
+   }
+
+   /**
+    * Returns the number of steps currently stored in the ring buffer. This
+    * is the minimum of {@link #numSteps} and {@link #getCapacity}.
+    *
+    * @return number of stored steps
+    */
+   public synchronized int numStoredSteps() {
+      return myNumStored;
+   }
+
+   private int storedIndex (int k) {
+      if (k < 0 || k >= myNumStored) {
+         throw new IndexOutOfBoundsException (
+            "step index " + k + " not in range [0," + myNumStored + ")");
+      }
+      return (myHead - myNumStored + k + myCapacity) % myCapacity;
+   }
+
+   /**
+    * Returns the simulation time at the end of the {@code k}-th stored
+    * step. Stored steps are ordered from oldest ({@code k=0}) to most recent
+    * ({@code k=numStoredSteps()-1}).
+    *
+    * @param k index of the stored step
+    * @return simulation time at the end of the step
+    */
+   public synchronized double getSimTime (int k) {
+      return mySimTimes[storedIndex(k)];
+   }
+
+   /**
+    * Returns the time spent in a given phase for the {@code k}-th stored
+    * step. Stored steps are ordered from oldest ({@code k=0}) to most recent
+    * ({@code k=numStoredSteps()-1}).
+    *
+    * @param phase phase to query
+    * @param k index of the stored step
+    * @return time spent in the phase, in microseconds
+    */
+   public synchronized double getTimeUsec (Phase phase, int k) {
+      return myTimes[storedIndex(k)][phase.ordinal()]/1000.0;
+   }
+
+   /**
+    * Returns the total time spent in a given phase over all recorded steps.
+    *
+    * @param phase phase to query
+    * @return total time, in microseconds
+    */
+   public synchronized double getTotalTimeUsec (Phase phase) {
+      return myTotal[phase.ordinal()]/1000.0;
+   }
+
+   /**
+    * Returns the average per-step time spent in a given phase over all
+    * recorded steps.
+    *
+    * @param phase phase to query
+    * @return average time, in microseconds
+    */
+   public synchronized double getAverageTimeUsec (Phase phase) {
+      return myNumSteps > 0 ? myTotal[phase.ordinal()]/(1000.0*myNumSteps) : 0;
+   }
+
+   /**
+    * Returns the maximum per-step time spent in a given phase over all
+    * recorded steps.
+    *
+    * @param phase phase to query
+    * @return maximum time, in microseconds
+    */
+   public synchronized double getMaxTimeUsec (Phase phase) {
+      return myMax[phase.ordinal()]/1000.0;
+   }
+
+   /**
+    * Returns a percentile of the per-step time spent in a given phase,
+    * computed over the steps currently stored in the ring buffer.
+    *
+    * @param phase phase to query
+    * @param pct percentile, in the range [0, 100]
+    * @return percentile time, in microseconds, or 0 if no steps are stored
+    */
+   public synchronized double getPercentileUsec (Phase phase, double pct) {
+      if (pct < 0 || pct > 100) {
+         throw new IllegalArgumentException (
+            "percentile must be in the range [0,100]; got " + pct);
+      }
+      if (myNumStored == 0) {
+         return 0;
+      }
+      long[] vals = new long[myNumStored];
+      for (int k=0; k<myNumStored; k++) {
+         vals[k] = myTimes[storedIndex(k)][phase.ordinal()];
+      }
+      Arrays.sort (vals);
+      int idx = (int)Math.ceil (pct/100*myNumStored)-1;
+      return vals[Math.max (0, idx)]/1000.0;
+   }
+
+   /**
+    * Returns the histogram of per-step times for a given phase over all
+    * recorded steps. See {@link #NUM_HISTOGRAM_BINS} for a description of
+    * the bins.
+    *
+    * @param phase phase to query
+    * @return copy of the histogram counts
+    */
+   public synchronized long[] getHistogram (Phase phase) {
+      return Arrays.copyOf (
+         myHistogram[phase.ordinal()], NUM_HISTOGRAM_BINS);
+   }
+
+   /**
+    * Writes the per-phase times of the steps stored in the ring buffer, in
+    * CSV format. The first line contains column labels, and each following
+    * line gives the simulation time and phase times (in microseconds)
+    * of one step, from oldest to most recent.
+    *
+    * @param pw writer to write the data to
+    */
+   public synchronized void writeCsv (PrintWriter pw) {
+      pw.print ("time");
+      for (Phase phase : Phase.values()) {
+         pw.print ("," + phase.label());
+      }
+      pw.println ("");
+      for (int k=0; k<myNumStored; k++) {
+         int idx = storedIndex(k);
+         pw.print (mySimTimes[idx]);
+         for (int i=0; i<NUM_PHASES; i++) {
+            pw.print (",");
+            pw.print (fmtUsec (myTimes[idx][i]));
+         }
+         pw.println ("");
+      }
+      pw.flush();
+   }
+
+   /**
+    * Writes the per-phase times of the steps stored in the ring buffer to a
+    * file, in CSV format, as described for {@link #writeCsv(PrintWriter)}.
+    *
+    * @param file file to write the data to
+    * @throws IOException if an I/O error occurred
+    */
+   public void writeCsv (File file) throws IOException {
+      PrintWriter pw = new PrintWriter (
+         new BufferedWriter (new FileWriter (file)));
+      try {
+         writeCsv (pw);
+      }
+      finally {
+         pw.close();
+      }
+   }
+
+   /**
+    * Writes the cumulative statistics for each phase, together with the
+    * per-phase times of the steps stored in the ring buffer, in JSON format.
+    * All times are given in microseconds.
+    *
+    * @param pw writer to write the data to
+    */
+   public synchronized void writeJson (PrintWriter pw) {
+      pw.println ("{");
+      pw.println ("  \"numSteps\": " + myNumSteps + ",");
+      pw.println ("  \"phases\": {");
+      Phase[] phases = Phase.values();
+      for (int i=0; i<NUM_PHASES; i++) {
+         Phase phase = phases[i];
+         pw.println ("    \"" + phase.label() + "\": {");
+         pw.println ("      \"total\": " + fmtUsec (myTotal[i]) + ",");
+         pw.println (
+            "      \"average\": " + fmtDouble (getAverageTimeUsec(phase)) + ",");
+         pw.println ("      \"max\": " + fmtUsec (myMax[i]) + ",");
+         pw.println (
+            "      \"p50\": " + fmtDouble (getPercentileUsec(phase,50)) + ",");
+         pw.println (
+            "      \"p95\": " + fmtDouble (getPercentileUsec(phase,95)) + ",");
+         pw.print ("      \"histogram\": [");
+         for (int b=0; b<NUM_HISTOGRAM_BINS; b++) {
+            pw.print ((b > 0 ? "," : "") + myHistogram[i][b]);
+         }
+         pw.println ("]");
+         pw.println ("    }" + (i < NUM_PHASES-1 ? "," : ""));
+      }
+      pw.println ("  },");
+      pw.println ("  \"steps\": [");
+      for (int k=0; k<myNumStored; k++) {
+         int idx = storedIndex(k);
+         pw.print ("    {\"time\": " + mySimTimes[idx]);
+         for (int i=0; i<NUM_PHASES; i++) {
+            pw.print (
+               ", \"" + phases[i].label() + "\": " + fmtUsec (myTimes[idx][i]));
+         }
+         pw.println ("}" + (k < myNumStored-1 ? "," : ""));
+      }
+      pw.println ("  ]");
+      pw.println ("}");
+      pw.flush();
+   }
+
+   /**
+    * Writes the cumulative statistics and stored step times to a file, in
+    * JSON format, as described for {@link #writeJson(PrintWriter)}.
+    *
+    * @param file file to write the data to
+    * @throws IOException if an I/O error occurred
+    */
+   public void writeJson (File file) throws IOException {
+      PrintWriter pw = new PrintWriter (
+         new BufferedWriter (new FileWriter (file)));
+      try {
+         writeJson (pw);
+      }
+      finally {
+         pw.close();
+      }
+   }
+
+   private static String fmtUsec (long nsec) {
+      return fmtDouble (nsec/1000.0);
+   }
+
+   private static String fmtDouble (double val) {
+      return String.format (Locale.US, "%.3f", val);
+   }
+
+   /**
+    * Returns a table summarizing the average, maximum and total time for
+    * each phase.
+    *
+    * @return summary string
+    */
+   public synchronized String getSummary() {
+      StringBuilder sb = new StringBuilder();
+      sb.append (String.format (
+         Locale.US, "%-24s %12s %12s %14s\n",
+         "phase ("+myNumSteps+" steps)", "avg usec", "max usec",
+         "total msec"));
+      for (Phase phase : Phase.values()) {
+         int i = phase.ordinal();
+         sb.append (String.format (
+            Locale.US, "%-24s %12.3f %12.3f %14.3f\n", phase.label(),
+            getAverageTimeUsec(phase), myMax[i]/1e3, myTotal[i]/1e6));
+      }
+      return sb.toString();
+   }
+
+   public String toString() {
+      return getSummary();
+   }
+}
@@ -0,0 +1,246 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.modelbase;
+
+import java.io.*;
+
+import maspack.util.*;
+import maspack.matrix.*;
+import artisynth.core.mechmodels.*;
+import artisynth.core.modelbase.StepProfiler.Phase;
+import artisynth.core.util.TimeBase;
+import artisynth.core.workspace.RootModel;
+
+/**
+ * Tests the StepProfiler, both directly and as used by RootModel
+ * and MechModel.
+ */
+public class StepProfilerTest extends UnitTest {
+
+   /**
+    * Adds artificial times to a profiler, with the time for step k and
+    * phase i given by (k+1)*(i+1) usec.
+    */
+   void recordSteps (StepProfiler prof, int k0, int num) {
+      Phase[] phases = Phase.values();
+      for (int k=k0; k<k0+num; k++) {
+         // beginStep() is not called, so the STEP time is also
+         // taken from addTimeNsec()
+         for (int i=0; i<phases.length; i++) {
+            prof.addTimeNsec (phases[i], (k+1)*(i+1)*1000L);
+         }
+         prof.endStep (0.01*(k+1));
+      }
+   }
+
+   void testRingBuffer() {
+      int cap = 10;
+      StepProfiler prof = new StepProfiler (cap);
+      checkEquals ("capacity", prof.getCapacity(), cap);
+      checkEquals ("numSteps", prof.numSteps(), 0L);
+      checkEquals ("percentile with no steps",
+                   prof.getPercentileUsec (Phase.STEP, 50), 0.0);
+
+      recordSteps (prof, 0, 4);
+      checkEquals ("numSteps", prof.numSteps(), 4L);
+      checkEquals ("numStoredSteps", prof.numStoredSteps(), 4);
+      for (int k=0; k<4; k++) {
+         checkEquals ("simTime", prof.getSimTime(k), 0.01*(k+1));
+      }
+
+      recordSteps (prof, 4, 21);
+      checkEquals ("numSteps", prof.numSteps(), 25L);
+      checkEquals ("numStoredSteps", prof.numStoredSteps(), cap);
+      Phase phase = Phase.KKT_SOLVE;
+      int pi = phase.ordinal()+1;
+      // oldest stored step is step 15
+      for (int k=0; k<cap; k++) {
+         double expected = (15+k+1)*pi;
+         checkEquals ("stored time for step "+k,
+                      prof.getTimeUsec (phase, k), expected);
+         checkEquals ("simTime", prof.getSimTime(k), 0.01*(15+k+1));
+      }
+      // cumulative statistics cover all steps
+      checkEquals ("total time", 
+                   prof.getTotalTimeUsec (phase), (double)pi*(25*26/2));
+      checkEquals ("average time", 
+                   prof.getAverageTimeUsec (phase), pi*13.0);
+      checkEquals ("max time", prof.getMaxTimeUsec (phase), 25.0*pi);
+      // times for KKT_SOLVE are 8, 16, ... 200 usec, so the histogram
+      // bins are [8,16): 1, [16,32): 2, [32,64): 4, [64,128): 8, [128,256): 10
+      long[] hist = prof.getHistogram (phase);
+      long[] check = new long[StepProfiler.NUM_HISTOGRAM_BINS];
+      check[4] = 1;
+      check[5] = 2;
+      check[6] = 4;
+      check[7] = 8;
+      check[8] = 10;
+      for (int b=0; b<hist.length; b++) {
+         checkEquals ("histogram bin "+b, hist[b], check[b]);
+      }
+
+      // percentiles over the stored steps
+      checkEquals ("0 percentile",
+                   prof.getPercentileUsec (phase, 0), 16.0*pi);
+      checkEquals ("50 percentile",
+                   prof.getPercentileUsec (phase, 50), 20.0*pi);
+      checkEquals ("100 percentile",
+                   prof.getPercentileUsec (phase, 100), 25.0*pi);
+      try {
+         prof.getTimeUsec (phase, cap);
+         throw new TestException ("expected IndexOutOfBoundsException");
+      }
+      catch (IndexOutOfBoundsException e) {
+         // expected
+      }
+
+      prof.clear();
+      checkEquals ("numSteps after clear", prof.numSteps(), 0L);
+      checkEquals ("numStoredSteps after clear", prof.numStoredSteps(), 0);
+      checkEquals ("total after clear", prof.getTotalTimeUsec(phase), 0.0);
+   }
+
+   void testHistogramBins() {
+      checkEquals ("bin(0)", StepProfiler.histogramBin (0), 0);
+      checkEquals ("bin(999)", StepProfiler.histogramBin (999), 0);
+      checkEquals ("bin(1000)", StepProfiler.histogramBin (1000), 1);
+      checkEquals ("bin(1999)", StepProfiler.histogramBin (1999), 1);
+      checkEquals ("bin(2000)", StepProfiler.histogramBin (2000), 2);
+      checkEquals ("bin(5000)", StepProfiler.histogramBin (5000), 3);
+      checkEquals (
+         "bin(max)", StepProfiler.histogramBin (Long.MAX_VALUE),
+         StepProfiler.NUM_HISTOGRAM_BINS-1);
+   }
+
+   void testExport() {
+      StepProfiler prof = new StepProfiler (5);
+      recordSteps (prof, 0, 8);
+
+      StringWriter sw = new StringWriter();
+      prof.writeCsv (new PrintWriter (sw));
+      String[] lines = sw.toString().split ("\n");
+      checkEquals ("number of CSV lines", lines.length, 6);
+      String[] labels = lines[0].split (",");
+      checkEquals ("number of CSV columns", labels.length,
+                   Phase.values().length+1);
+      checkEquals ("first CSV column", labels[0], "time");
+      checkEquals ("second CSV column", labels[1], "step");
+      for (int i=1; i<lines.length; i++) {
+         String[] vals = lines[i].split (",");
+         checkEquals ("CSV columns in line "+i, vals.length, labels.length);
+         checkEquals ("CSV time in line "+i,
+                      Double.parseDouble(vals[0]), prof.getSimTime(i-1));
+      }
+
+      sw = new StringWriter();
+      prof.writeJson (new PrintWriter (sw));
+      String json = sw.toString();
+      if (!json.trim().startsWith ("{") || !json.trim().endsWith ("}")) {
+         throw new TestException ("JSON output not enclosed in braces");
+      }
+      if (!json.contains ("\"numSteps\": 8")) {
+         throw new TestException ("JSON output missing numSteps");
+      }
+      for (Phase phase : Phase.values()) {
+         if (!json.contains ("\""+phase.label()+"\": {")) {
+            throw new TestException (
+               "JSON output missing phase "+phase.label());
+         }
+      }
+      checkEquals ("JSON steps", countOccurrences (json, "{\"time\": "), 5);
+   }
+
+   int countOccurrences (String str, String sub) {
+      int cnt = 0;
+      int idx = 0;
+      while ((idx = str.indexOf (sub, idx)) != -1) {
+         cnt++;
+         idx += sub.length();
+      }
+      return cnt;
+   }
+
+   RootModel createContactModel() {
+      RootModel root = new RootModel();
+      MechModel mech = new MechModel ("mech");
+      root.addModel (mech);
+      RigidBody base = RigidBody.createBox ("base", 2.0, 2.0, 0.2, 1000.0);
+      base.setDynamic (false);
+      mech.addRigidBody (base);
+      RigidBody box = RigidBody.createBox ("box", 0.5, 0.5, 0.5, 1000.0);
+      box.setPose (new RigidTransform3d (0, 0, 0.36));
+      mech.addRigidBody (box);
+      mech.setDefaultCollisionBehavior (true, 0.2);
+      return root;
+   }
+
+   void testRootModelProfiling() {
+      RootModel root = createContactModel();
+      MechModel mech = (MechModel)root.models().get(0);
+      checkEquals ("stepProfiling default", root.getStepProfiling(), false);
+      root.setStepProfiling (true);
+      StepProfiler prof = root.getStepProfiler();
+      if (prof == null) {
+         throw new TestException ("profiler not created");
+      }
+      double h = root.getMaxStepSize();
+      int nsteps = 20;
+      root.initialize (0);
+      double t = 0;
+      for (int i=0; i<nsteps; i++) {
+         double t1 = TimeBase.round ((i+1)*h);
+         root.advance (t, t1, 0);
+         t = t1;
+      }
+      // profiler should have been passed to the MechModel and its solver
+      if (mech.getStepProfiler() != prof ||
+          mech.getSolver().getStepProfiler() != prof) {
+         throw new TestException ("profiler not passed to MechModel");
+      }
+      checkEquals ("numSteps", prof.numSteps(), (long)nsteps);
+      checkEquals ("last sim time", prof.getSimTime(nsteps-1), t, 1e-10);
+      for (Phase phase : new Phase[] {
+            Phase.STEP, Phase.FORCE_UPDATE, Phase.COLLISION,
+            Phase.KKT_FACTOR, Phase.KKT_SOLVE}) {
+         if (prof.getTotalTimeUsec (phase) <= 0) {
+            throw new TestException ("no time recorded for " + phase);
+         }
+      }
+      // step time should bound the sum of the timed sub-phases
+      for (int k=0; k<nsteps; k++) {
+         double sum = 0;
+         for (Phase phase : Phase.values()) {
+            if (phase != Phase.STEP) {
+               sum += prof.getTimeUsec (phase, k);
+            }
+         }
+         if (sum > prof.getTimeUsec (Phase.STEP, k)) {
+            throw new TestException (
+               "phase times for step "+k+" exceed the step time");
+         }
+      }
+      root.setStepProfiling (false);
+      check ("profiler not null after disabling",
+             root.getStepProfiler() == null);
+      check ("MechModel profiler not null after disabling",
+             mech.getStepProfiler() == null);
+      root.advance (t, TimeBase.round ((nsteps+1)*h), 0);
+      checkEquals ("numSteps after disabling", prof.numSteps(), (long)nsteps);
+   }
+
+   public void test() {
+      testHistogramBins();
+      testRingBuffer();
+      testExport();
+      testRootModelProfiling();
+   }
+
+   public static void main (String[] args) {
+      StepProfilerTest tester = new StepProfilerTest();
+      tester.runtest();
+   }
+}
@@ -242,7 +242,7 @@ public class NumericControlProbe extends NumericDataFunctionProbe {
             + rtok.lineno());
       }
       // myNumericList = new NumericList (numValues);
-      myNumericList = new NumericList (myVsize);
+      myNumericList = newNumericList (myVsize);
       myInterpolation.setOrder (interpolationOrder);
       myNumericList.setInterpolation (myInterpolation);
       addData (rtok, timeStep);
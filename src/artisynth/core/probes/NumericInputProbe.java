@@ -787,7 +787,7 @@ public class NumericInputProbe extends NumericProbeBase
 
       if (myNumericList == null || myVsize != newVsize) {
          myVsize = newVsize;
-         myNumericList = new NumericList (myVsize);
+         myNumericList = newNumericList (myVsize);
          myNumericList.setInterpolation (myInterpolation);
          myTmpVec = new VectorNd (myVsize);
       }
@@ -13,6 +13,8 @@ import java.io.IOException;
 import java.io.PrintWriter;
 import java.util.*;
 
+import javax.swing.JPanel;
+
 import maspack.interpolation.NumericList;
 import maspack.interpolation.NumericListKnot;
 import maspack.matrix.ImproperStateException;
@@ -32,6 +34,20 @@ public class NumericOutputProbe extends NumericProbeBase
    private boolean myShowHeader;
    private static boolean defaultShowHeader = true;
 
+   private boolean myStreaming;
+   private static boolean defaultStreaming = false;
+
+   private int myStreamWindow;
+   private static int defaultStreamWindow = 1000;
+
+   private ProbeDataStream myStream;
+   // times of the most recently streamed knots, used to bound the in-memory
+   // data to the last myStreamWindow knots
+   private double[] myWindowTimes;
+   private int myWindowIdx;
+   private int myWindowCnt;
+   private int myAddsSinceTrim;
+
    public static PropertyList myProps =
       new PropertyList (NumericOutputProbe.class, NumericProbeBase.class);
 
@@ -43,6 +59,13 @@ public class NumericOutputProbe extends NumericProbeBase
       myProps.add (
          "showHeader * *", "show header explicitly in output file",
          defaultShowHeader);
+      myProps.add (
+         "streaming isStreaming *",
+         "write data incrementally to a stream file while simulating",
+         defaultStreaming);
+      myProps.add (
+         "streamWindow", "number of knots kept in memory while streaming",
+         defaultStreamWindow, "[1,inf]");
    }
 
    public PropertyList getAllPropertyInfo() {
@@ -53,6 +76,8 @@ public class NumericOutputProbe extends NumericProbeBase
       super.setDefaultValues();
       myShowTime = defaultShowTime;
       myShowHeader = defaultShowHeader;
+      myStreaming = defaultStreaming;
+      myStreamWindow = defaultStreamWindow;
    }
 
    public boolean getShowTime() {
@@ -71,6 +96,194 @@ public class NumericOutputProbe extends NumericProbeBase
       myShowHeader = enable;
    }
 
+   /**
+    * Queries whether streaming is enabled for this probe. See {@link
+    * #setStreaming}.
+    *
+    * @return <code>true</code> if streaming is enabled
+    */
+   public boolean isStreaming() {
+      return myStreaming;
+   }
+
+   /**
+    * Enables or disables streaming for this probe. When streaming is
+    * enabled, the data produced by {@link #apply} is written incrementally,
+    * in binary form and by a background thread, to the file returned by
+    * {@link #getStreamFile}, and only the most recent knots (as specified by
+    * {@link #setStreamWindow}) are kept in memory. This allows very long
+    * simulations to be recorded without exhausting memory, and preserves
+    * the recorded data if the application terminates unexpectedly.
+    *
+    * <p>The complete data is read back from the stream file when the probe
+    * is saved, loaded, or shown in a large display. It is also read back
+    * into memory when streaming is disabled, so that no data is lost.
+    *
+    * @param enable if <code>true</code>, enables streaming
+    */
+   public void setStreaming (boolean enable) {
+      if (enable != myStreaming) {
+         if (!enable && myStream != null) {
+            // restore the knots that were removed from memory
+            try {
+               loadStreamedData();
+            }
+            catch (IOException e) {
+               System.out.println (
+                  "WARNING: can't read stream file "+getStreamFile()+
+                  ": " + e.getMessage());
+            }
+            closeStream();
+         }
+         myStreaming = enable;
+      }
+   }
+
+   /**
+    * Returns the maximum number of knots that are kept in memory when
+    * streaming is enabled. See {@link #setStreamWindow}.
+    *
+    * @return number of knots kept in memory while streaming
+    */
+   public int getStreamWindow() {
+      return myStreamWindow;
+   }
+
+   /**
+    * Sets the maximum number of knots that are kept in memory when
+    * streaming is enabled. Older knots are periodically removed from memory,
+    * so that the number of knots in memory varies between this value and
+    * twice this value.
+    *
+    * @param num number of knots to keep in memory while streaming
+    */
+   public void setStreamWindow (int num) {
+      if (num < 1) {
+         throw new IllegalArgumentException (
+            "stream window must be positive; got "+num);
+      }
+      myStreamWindow = num;
+      myWindowTimes = null;
+   }
+
+   /**
+    * Returns the file to which data is written when streaming is enabled.
+    * This is the attached file with the extension <code>.stream</code>
+    * appended. If there is no attached file, and streaming has begun, then
+    * a temporary file is used, which is deleted when the application exits.
+    *
+    * @return stream file, or <code>null</code> if there is no attached file
+    * and streaming has not begun
+    */
+   public File getStreamFile() {
+      if (myStream != null) {
+         return myStream.getFile();
+      }
+      File file = getAttachedFile();
+      if (file != null && !file.isDirectory()) {
+         return new File (file.getPath() + ".stream");
+      }
+      return null;
+   }
+
+   private void openStream() throws IOException {
+      closeStream();
+      File file = getStreamFile();
+      if (file == null) {
+         file = File.createTempFile ("probe", ".stream");
+         file.deleteOnExit();
+      }
+      else if (file.getParentFile() != null) {
+         file.getParentFile().mkdirs();
+      }
+      myStream = new ProbeDataStream (file, myVsize);
+      myWindowTimes = null;
+   }
+
+   private void closeStream() {
+      if (myStream != null) {
+         try {
+            myStream.close();
+         }
+         catch (IOException e) {
+            System.out.println (
+               "WARNING: error closing stream file "+myStream.getFile()+
+               ": " + e.getMessage());
+         }
+         myStream = null;
+      }
+   }
+
+   private void streamKnot (NumericListKnot knot) {
+      try {
+         if (myStream == null || myStream.getVectorSize() != myVsize) {
+            openStream();
+         }
+         if (knot.t <= myStream.getLastTime()) {
+            // time has been reset, so restart the window
+            myWindowTimes = null;
+         }
+         myStream.add (knot.t, knot.v.getBuffer());
+      }
+      catch (IOException e) {
+         throw new InternalErrorException (
+            "Error writing stream file "+getStreamFile()+": "+e);
+      }
+   }
+
+   /**
+    * Removes knots from memory that fall outside the stream window.  To
+    * reduce cost, this is done only after every myStreamWindow knots.
+    */
+   private void trimToStreamWindow (double t) {
+      if (myWindowTimes == null) {
+         myWindowTimes = new double[myStreamWindow];
+         myWindowIdx = 0;
+         myWindowCnt = 0;
+         myAddsSinceTrim = 0;
+      }
+      myWindowTimes[myWindowIdx] = t;
+      myWindowIdx = (myWindowIdx+1) % myWindowTimes.length;
+      if (myWindowCnt < myWindowTimes.length) {
+         myWindowCnt++;
+      }
+      if (++myAddsSinceTrim >= myWindowTimes.length &&
+          myWindowCnt == myWindowTimes.length) {
+         // myWindowIdx now indexes the oldest time in the window
+         myNumericList.clearBefore (myWindowTimes[myWindowIdx]);
+         myAddsSinceTrim = 0;
+      }
+   }
+
+   /**
+    * Replaces the data in memory with the complete data contained in the
+    * stream file. This is done automatically when a large display is
+    * created for a streaming probe.
+    *
+    * @throws IOException if an I/O error occurred
+    */
+   public void loadStreamedData() throws IOException {
+      File file = getStreamFile();
+      myNumericList.clear();
+      if (myStream != null) {
+         myStream.read (myNumericList);
+      }
+      else if (file != null && ProbeDataStream.isStreamFile (file)) {
+         ProbeDataStream.read (file, myNumericList);
+      }
+      myWindowTimes = null;
+      updateDisplays();
+   }
+
+   private Iterator<NumericListKnot> dataIterator() throws IOException {
+      if (myStream != null) {
+         return myStream.knotIterator();
+      }
+      else {
+         return myNumericList.iterator();
+      }
+   }
+
    public NumericOutputProbe() {
       setDefaultValues();
       myPlotTraceManager = new PlotTraceManager ("output");
@@ -171,7 +384,7 @@ public class NumericOutputProbe extends NumericProbeBase
       else {
          pw.println (" " + getUpdateInterval());
       }
-      writeData (pw, fmtStr, showTime);
+      writeKnots (pw, fmtStr, showTime, dataIterator());
    }
 
    public void setAttachedFileName (String fileName, String fmtStr) {
@@ -206,7 +419,7 @@ public class NumericOutputProbe extends NumericProbeBase
                write (pw, myFormatStr, myShowTime);
             }
             else {
-               writeData (pw, myFormatStr, myShowTime);
+               writeKnots (pw, myFormatStr, myShowTime, dataIterator());
             }
          }
          catch (IOException e) {
@@ -223,10 +436,24 @@ public class NumericOutputProbe extends NumericProbeBase
     * this probe to be loaded from the attached file.
     */
    public void load() throws IOException {
+      if (myStreaming) {
+         File file = getStreamFile();
+         if (file != null && ProbeDataStream.isStreamFile (file)) {
+            // stream data is more recent than the attached file
+            loadStreamedData();
+            return;
+         }
+      }
       load(/*setTimes=*/false);
    }
 
    public void writeData (PrintWriter pw, String fmtStr, boolean showTime) {
+      writeKnots (pw, fmtStr, showTime, myNumericList.iterator());
+   }
+
+   private void writeKnots (
+      PrintWriter pw, String fmtStr, boolean showTime,
+      Iterator<NumericListKnot> it) {
       NumberFormat timeFmt = null;
       if (showTime) {
          if (getUpdateInterval() < 1e-5) {
@@ -237,7 +464,6 @@ public class NumericOutputProbe extends NumericProbeBase
          }
       }
       NumberFormat fmt = new NumberFormat (fmtStr);
-      Iterator<NumericListKnot> it = myNumericList.iterator();
       while (it.hasNext()) {
          NumericListKnot knot = it.next();
          if (showTime) {
@@ -271,8 +497,33 @@ public class NumericOutputProbe extends NumericProbeBase
          }
       }
       knot.t = tloc;
+      if (myStreaming) {
+         streamKnot (knot);
+      }
       myNumericList.add (knot);
       myNumericList.clearAfter (knot);
+      if (myStreaming) {
+         trimToStreamWindow (tloc);
+      }
+   }
+
+   public JPanel getDisplay (int w, int h, boolean isLargeDisplay) {
+      if (isLargeDisplay && myStreaming) {
+         try {
+            loadStreamedData();
+         }
+         catch (IOException e) {
+            System.out.println (
+               "WARNING: can't read stream file "+getStreamFile()+
+               ": " + e.getMessage());
+         }
+      }
+      return super.getDisplay (w, h, isLargeDisplay);
+   }
+
+   public void dispose() {
+      closeStream();
+      super.dispose();
    }
 
    // public void display (Component c, Graphics g)
@@ -281,6 +532,9 @@ public class NumericOutputProbe extends NumericProbeBase
 
    public Object clone() throws CloneNotSupportedException {
       NumericOutputProbe probe = (NumericOutputProbe)super.clone();
+      // the clone writes to its own stream, if streaming is enabled
+      probe.myStream = null;
+      probe.myWindowTimes = null;
       //probe.myNumericList.clear();
       return probe;
    }
@@ -503,7 +757,7 @@ public class NumericOutputProbe extends NumericProbeBase
          for (int i = 0; i < newDrivers.size(); i++) {
             myVsize += newDrivers.get (i).getOutputSize();
          }
-         myNumericList = new NumericList (myVsize);
+         myNumericList = newNumericList (myVsize);
       }
 
       if (traceInfos != null) {
@@ -14,6 +14,7 @@ import javax.swing.JPanel;
 
 import maspack.interpolation.Interpolation;
 import maspack.interpolation.Interpolation.Order;
+import maspack.interpolation.ColumnarNumericList;
 import maspack.interpolation.NumericList;
 import maspack.interpolation.NumericListKnot;
 import maspack.matrix.VectorNd;
@@ -58,6 +59,9 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
    protected static Order defaultInterpolationOrder = Order.Linear;
    protected Interpolation myInterpolation;
 
+   protected static boolean defaultColumnarData = false;
+   protected boolean myColumnarData = defaultColumnarData;
+
    protected double myDefaultDisplayMax = 0;
    protected double myDefaultDisplayMin = 0;
    protected static double[] defaultDefaultDisplayRange = new double[] { 0, 0 };
@@ -85,6 +89,9 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
       myProps.add (
          "displayRange getDefaultDisplayRange setDefaultDisplayRange",
          "min and max display values for display", defaultDefaultDisplayRange);
+      myProps.add (
+         "columnarData", "store data in primitive arrays instead of knots",
+         defaultColumnarData);
    }
 
    protected void setDefaultValues() {
@@ -93,6 +100,7 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
       myInterpolation = new Interpolation (defaultInterpolationOrder, false);
       myDefaultDisplayMin = defaultDefaultDisplayRange[0];
       myDefaultDisplayMax = defaultDefaultDisplayRange[1];
+      myColumnarData = defaultColumnarData;
    }
 
    public NumericProbeBase() {
@@ -170,10 +178,61 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
 
    public void createNumericList (int vsize) {
       myVsize = vsize;
-      myNumericList = new NumericList (myVsize);
+      myNumericList = newNumericList (myVsize);
       myNumericList.setInterpolation (myInterpolation);
    }
 
+   /**
+    * Creates a numeric list for storing this probe's data, using either a
+    * {@link ColumnarNumericList} or a regular {@link NumericList} depending
+    * on the setting of {@link #getColumnarData columnarData}.
+    *
+    * @param vsize vector size for the list
+    * @return created numeric list
+    */
+   protected NumericList newNumericList (int vsize) {
+      if (myColumnarData) {
+         return new ColumnarNumericList (vsize);
+      }
+      else {
+         return new NumericList (vsize);
+      }
+   }
+
+   /**
+    * Queries whether this probe stores its data in a {@link
+    * ColumnarNumericList}. See {@link #setColumnarData}.
+    *
+    * @return {@code true} if data is stored in primitive arrays
+    */
+   public boolean getColumnarData() {
+      return myColumnarData;
+   }
+
+   /**
+    * Sets whether this probe stores its data in a {@link
+    * ColumnarNumericList}, which uses primitive arrays instead of one
+    * knot object per data point. This greatly reduces memory use and
+    * garbage collection overhead for long data sequences, such as those
+    * recorded by output probes. However, since knots are then copies of the
+    * stored data, knot values cannot be edited in place. Any existing data
+    * is copied into the new list. The default value is {@code false}.
+    *
+    * @param enable if {@code true}, stores data in primitive arrays
+    */
+   public void setColumnarData (boolean enable) {
+      if (enable != myColumnarData) {
+         myColumnarData = enable;
+         if (myNumericList != null) {
+            NumericList list = newNumericList (myNumericList.getVectorSize());
+            list.setInterpolation (myNumericList.getInterpolation());
+            list.setValues (myNumericList.getValues());
+            myNumericList = list;
+            updateDisplays();
+         }
+      }
+   }
+
    public void updateDisplays() {
       updateDisplays (null);
    }
@@ -1018,7 +1077,7 @@ public abstract class NumericProbeBase extends Probe implements Displayable {
             + rtok.lineno());
       }
       // myNumericList = new NumericList (numValues);
-      myNumericList = new NumericList (myVsize);
+      myNumericList = newNumericList (myVsize);
       myInterpolation.setOrder (interpolationOrder);
       myNumericList.setInterpolation (myInterpolation);
       addData (rtok, timeStep);
@@ -0,0 +1,485 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+
+import maspack.interpolation.NumericList;
+import maspack.interpolation.NumericListKnot;
+
+/**
+ * Stores the knots of a numeric probe in a binary file, as they are
+ * generated. This allows output probes to record data sets that are too large
+ * to be kept in memory, and ensures that data recorded up to the last flush
+ * survives if the application terminates unexpectedly.
+ *
+ * <p>Knots are collected into fixed-size chunks, which are written to the
+ * file by a small pool of background threads shared by all streams. Each
+ * chunk is written at its own position in the file, so that chunks may be
+ * written in any order. The number of chunks awaiting output is
+ * bounded, so that memory use stays bounded if the file system cannot keep
+ * up. Each knot is stored as a record of <code>1+vsize</code> little-endian
+ * doubles, giving the knot time followed by its values, preceded by a header
+ * that identifies the file and gives the vector size.
+ */
+public class ProbeDataStream {
+
+   private static final byte[] MAGIC = new byte[] {
+      'P', 'R', 'B', 'S', 'T', 'R', 'M', '1' };
+   private static final int HEADER_SIZE = MAGIC.length + 4;
+
+   /**
+    * Default number of knots stored in each chunk.
+    */
+   public static int DEFAULT_CHUNK_SIZE = 256;
+
+   private static final int MAX_PENDING_CHUNKS = 4;
+
+   private static final int MAX_WRITER_THREADS = 4;
+
+   // writer threads shared by all streams. Idle threads time out, so the
+   // pool holds no threads when no streams are active.
+   private static ThreadPoolExecutor myWriter;
+
+   private File myFile;
+   private RandomAccessFile myRaf;
+   private FileChannel myChannel;
+   private int myVsize;
+   private int myRecordSize;
+   private int myChunkSize;
+
+   private ByteBuffer myChunk;
+   private ArrayBlockingQueue<ByteBuffer> myFreeChunks;
+   private int myNumPending; // chunks submitted but not yet written
+   private volatile IOException myWriteError;
+
+   private long myNumKnots; // includes knots not yet written
+   private long myNumWritten; // knots submitted to the writer
+   private double myLastTime = Double.NEGATIVE_INFINITY;
+
+   /**
+    * Creates a new ProbeDataStream that writes knots with a specified vector
+    * size to a file. If the file already exists, its contents are discarded.
+    *
+    * @param file file in which to store the knots
+    * @param vsize vector size of each knot
+    * @throws IOException if the file cannot be created
+    */
+   public ProbeDataStream (File file, int vsize) throws IOException {
+      this (file, vsize, DEFAULT_CHUNK_SIZE);
+   }
+
+   /**
+    * Creates a new ProbeDataStream that writes knots with a specified vector
+    * size to a file, using a specified number of knots per chunk.
+    *
+    * @param file file in which to store the knots
+    * @param vsize vector size of each knot
+    * @param chunkSize number of knots per chunk
+    * @throws IOException if the file cannot be created
+    */
+   public ProbeDataStream (File file, int vsize, int chunkSize)
+      throws IOException {
+      if (chunkSize < 1) {
+         throw new IllegalArgumentException (
+            "chunk size must be positive; got "+chunkSize);
+      }
+      myFile = file;
+      myVsize = vsize;
+      myRecordSize = 8*(1+vsize);
+      myChunkSize = chunkSize;
+      myRaf = new RandomAccessFile (file, "rw");
+      myRaf.setLength (0);
+      myChannel = myRaf.getChannel();
+      ByteBuffer header = ByteBuffer.allocate (HEADER_SIZE);
+      header.order (ByteOrder.LITTLE_ENDIAN);
+      header.put (MAGIC);
+      header.putInt (vsize);
+      header.flip();
+      while (header.hasRemaining()) {
+         myChannel.write (header);
+      }
+      myFreeChunks = new ArrayBlockingQueue<ByteBuffer> (MAX_PENDING_CHUNKS);
+      for (int i=0; i<MAX_PENDING_CHUNKS; i++) {
+         ByteBuffer buf = ByteBuffer.allocate (chunkSize*myRecordSize);
+         buf.order (ByteOrder.LITTLE_ENDIAN);
+         myFreeChunks.add (buf);
+      }
+   }
+
+   private static synchronized Executor getWriter() {
+      if (myWriter == null) {
+         myWriter = new ThreadPoolExecutor (
+            MAX_WRITER_THREADS, MAX_WRITER_THREADS, 5, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+               public Thread newThread (Runnable r) {
+                  Thread thread = new Thread (r, "ProbeDataStream");
+                  thread.setDaemon (true);
+                  return thread;
+               }
+            });
+         myWriter.allowCoreThreadTimeOut (true);
+      }
+      return myWriter;
+   }
+
+   /**
+    * Returns the file used by this stream.
+    *
+    * @return stream file
+    */
+   public File getFile() {
+      return myFile;
+   }
+
+   /**
+    * Returns the vector size of the knots in this stream.
+    *
+    * @return knot vector size
+    */
+   public int getVectorSize() {
+      return myVsize;
+   }
+
+   /**
+    * Returns the number of knots in this stream, including those
+    * which have not yet been written to the file.
+    *
+    * @return number of knots
+    */
+   public long numKnots() {
+      return myNumKnots;
+   }
+
+   /**
+    * Returns the time of the last knot in this stream, or negative infinity
+    * if the stream is empty.
+    *
+    * @return time of the last knot
+    */
+   public double getLastTime() {
+      return myLastTime;
+   }
+
+   private void checkWriteError() throws IOException {
+      if (myWriteError != null) {
+         IOException e = myWriteError;
+         myWriteError = null;
+         throw e;
+      }
+   }
+
+   private void checkOpen() throws IOException {
+      if (myChannel == null) {
+         throw new IOException ("stream "+myFile+" has been closed");
+      }
+   }
+
+   private void submitChunk() {
+      final ByteBuffer chunk = myChunk;
+      final long pos = HEADER_SIZE + myNumWritten*myRecordSize;
+      myNumWritten = myNumKnots;
+      myChunk = null;
+      chunk.flip();
+      final FileChannel channel = myChannel;
+      synchronized (this) {
+         myNumPending++;
+      }
+      getWriter().execute (new Runnable() {
+            public void run() {
+               try {
+                  long p = pos;
+                  while (chunk.hasRemaining()) {
+                     p += channel.write (chunk, p);
+                  }
+               }
+               catch (IOException e) {
+                  myWriteError = e;
+               }
+               chunk.clear();
+               myFreeChunks.add (chunk);
+               synchronized (ProbeDataStream.this) {
+                  myNumPending--;
+                  ProbeDataStream.this.notifyAll();
+               }
+            }
+         });
+   }
+
+   /**
+    * Appends a knot to this stream. If the time of the knot is less than or
+    * equal to that of the last knot, then all knots whose time is greater
+    * than or equal to <code>t</code> are removed first, so that the stream
+    * remains ordered by time.
+    *
+    * @param t knot time
+    * @param vals knot values (of size at least equal to the vector size)
+    * @throws IOException if an I/O error occurred
+    */
+   public void add (double t, double[] vals) throws IOException {
+      checkOpen();
+      checkWriteError();
+      if (t <= myLastTime) {
+         truncate (t);
+      }
+      if (myChunk == null) {
+         try {
+            myChunk = myFreeChunks.take();
+         }
+         catch (InterruptedException e) {
+            throw new InterruptedIOException (
+               "interrupted while waiting for stream output");
+         }
+      }
+      myChunk.putDouble (t);
+      for (int i=0; i<myVsize; i++) {
+         myChunk.putDouble (vals[i]);
+      }
+      myNumKnots++;
+      myLastTime = t;
+      if (!myChunk.hasRemaining()) {
+         submitChunk();
+      }
+   }
+
+   /**
+    * Writes all knots to the file, and waits until the output is complete.
+    *
+    * @throws IOException if an I/O error occurred
+    */
+   public void flush() throws IOException {
+      checkOpen();
+      if (myChunk != null && myChunk.position() > 0) {
+         submitChunk();
+      }
+      synchronized (this) {
+         while (myNumPending > 0) {
+            try {
+               wait();
+            }
+            catch (InterruptedException e) {
+               throw new InterruptedIOException (
+                  "interrupted while waiting for stream output");
+            }
+         }
+      }
+      checkWriteError();
+   }
+
+   private double readTime (long idx) throws IOException {
+      ByteBuffer buf = ByteBuffer.allocate (8);
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+      long pos = HEADER_SIZE + idx*myRecordSize;
+      while (buf.hasRemaining()) {
+         if (myChannel.read (buf, pos + buf.position()) < 0) {
+            throw new EOFException ("unexpected end of stream file "+myFile);
+         }
+      }
+      return buf.getDouble (0);
+   }
+
+   /**
+    * Removes all knots whose time is greater than or equal to
+    * <code>t</code>.
+    *
+    * @param t time at or after which knots should be removed
+    * @throws IOException if an I/O error occurred
+    */
+   public void truncate (double t) throws IOException {
+      checkOpen();
+      if (t > myLastTime) {
+         return;
+      }
+      flush();
+      // binary search for the first knot with time >= t
+      long lo = 0;
+      long hi = myNumKnots;
+      while (lo < hi) {
+         long mid = (lo+hi)/2;
+         if (readTime (mid) < t) {
+            lo = mid+1;
+         }
+         else {
+            hi = mid;
+         }
+      }
+      myNumKnots = lo;
+      myNumWritten = lo;
+      myLastTime = (lo > 0 ? readTime (lo-1) : Double.NEGATIVE_INFINITY);
+      myChannel.truncate (HEADER_SIZE + lo*myRecordSize);
+   }
+
+   /**
+    * Removes all knots from this stream.
+    *
+    * @throws IOException if an I/O error occurred
+    */
+   public void clear() throws IOException {
+      truncate (Double.NEGATIVE_INFINITY);
+   }
+
+   /**
+    * Reads all the knots in this stream and adds them to a numeric list.
+    *
+    * @param list list to which the knots should be added
+    * @throws IOException if an I/O error occurred
+    */
+   public void read (NumericList list) throws IOException {
+      flush();
+      Iterator<NumericListKnot> it = knotIterator (myFile, myNumKnots);
+      while (it.hasNext()) {
+         list.add (it.next());
+      }
+   }
+
+   /**
+    * Returns an iterator over the knots in this stream. The knots are read
+    * from the file as needed, so that only a single chunk is held in memory
+    * at any given time. Knots which are added to the stream after this
+    * method is called are not returned.
+    *
+    * @return iterator over the knots
+    * @throws IOException if an I/O error occurred
+    */
+   public Iterator<NumericListKnot> knotIterator() throws IOException {
+      flush();
+      return knotIterator (myFile, myNumKnots);
+   }
+
+   /**
+    * Closes this stream. The stream file is retained.
+    *
+    * @throws IOException if an I/O error occurred
+    */
+   public void close() throws IOException {
+      if (myChannel != null) {
+         try {
+            flush();
+         }
+         finally {
+            myChannel = null;
+            myRaf.close();
+         }
+      }
+   }
+
+   /**
+    * Returns <code>true</code> if a specified file is a probe data stream
+    * file, as determined by its header.
+    *
+    * @param file file to check
+    * @return <code>true</code> if <code>file</code> is a stream file
+    */
+   public static boolean isStreamFile (File file) {
+      try {
+         readVectorSize (file);
+         return true;
+      }
+      catch (IOException e) {
+         return false;
+      }
+   }
+
+   private static int readVectorSize (File file) throws IOException {
+      DataInputStream dis = new DataInputStream (new FileInputStream (file));
+      try {
+         byte[] magic = new byte[MAGIC.length];
+         dis.readFully (magic);
+         if (!Arrays.equals (magic, MAGIC)) {
+            throw new IOException (
+               "file "+file+" is not a probe data stream file");
+         }
+         return Integer.reverseBytes (dis.readInt());
+      }
+      finally {
+         dis.close();
+      }
+   }
+
+   /**
+    * Reads the knots from a probe data stream file, such as one left by a
+    * previous run, and adds them to a numeric list. Incomplete knots at the
+    * end of the file are ignored.
+    *
+    * @param file stream file to read
+    * @param list list to which the knots should be added. Its vector size
+    * must match that of the file.
+    * @throws IOException if an I/O error occurred or the file is not a
+    * stream file
+    */
+   public static void read (File file, NumericList list) throws IOException {
+      int vsize = readVectorSize (file);
+      if (vsize != list.getVectorSize()) {
+         throw new IOException (
+            "stream file "+file+" has vector size "+vsize+
+            ", expecting "+list.getVectorSize());
+      }
+      long numKnots = (file.length()-HEADER_SIZE)/(8*(1+vsize));
+      Iterator<NumericListKnot> it = knotIterator (file, numKnots);
+      while (it.hasNext()) {
+         list.add (it.next());
+      }
+   }
+
+   private static Iterator<NumericListKnot> knotIterator (
+      final File file, final long numKnots) throws IOException {
+
+      final int vsize = readVectorSize (file);
+      final int recordSize = 8*(1+vsize);
+      final DataInputStream dis = new DataInputStream (
+         new BufferedInputStream (new FileInputStream (file), 1 << 16));
+      dis.skipBytes (HEADER_SIZE);
+      final ByteBuffer buf = ByteBuffer.allocate (recordSize);
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+
+      return new Iterator<NumericListKnot>() {
+         long myIdx = 0;
+
+         public boolean hasNext() {
+            if (myIdx >= numKnots) {
+               try {
+                  dis.close();
+               }
+               catch (IOException e) {
+                  // ignore
+               }
+               return false;
+            }
+            return true;
+         }
+
+         public NumericListKnot next() {
+            if (!hasNext()) {
+               throw new NoSuchElementException();
+            }
+            try {
+               dis.readFully (buf.array());
+            }
+            catch (IOException e) {
+               throw new IllegalStateException (
+                  "error reading stream file "+file, e);
+            }
+            NumericListKnot knot = new NumericListKnot (vsize);
+            knot.t = buf.getDouble (0);
+            double[] v = knot.v.getBuffer();
+            for (int i=0; i<vsize; i++) {
+               v[i] = buf.getDouble (8*(i+1));
+            }
+            myIdx++;
+            return knot;
+         }
+
+         public void remove() {
+            throw new UnsupportedOperationException();
+         }
+      };
+   }
+}
@@ -0,0 +1,220 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.*;
+import java.util.*;
+
+import maspack.interpolation.NumericList;
+import maspack.interpolation.NumericListKnot;
+import maspack.matrix.*;
+import maspack.util.*;
+import artisynth.core.mechmodels.*;
+
+/**
+ * Tests ProbeDataStream, along with the streaming mode of NumericOutputProbe.
+ */
+public class ProbeDataStreamTest extends UnitTest {
+
+   void checkContents (String msg, NumericList list, NumericList check) {
+      checkContents (msg, list, check, 0);
+   }
+
+   void checkContents (
+      String msg, NumericList list, NumericList check, double tol) {
+      checkEquals (msg+": number of knots", list.getNumKnots(), check.getNumKnots());
+      Iterator<NumericListKnot> it = check.iterator();
+      for (NumericListKnot knot : list) {
+         NumericListKnot cknot = it.next();
+         checkEquals (msg+": knot time", knot.t, cknot.t, tol);
+         checkEquals (msg+": knot values", knot.v, cknot.v, tol);
+      }
+   }
+
+   void addKnot (
+      ProbeDataStream stream, NumericList check, double t) throws IOException {
+      NumericListKnot knot = new NumericListKnot (check.getVectorSize());
+      knot.t = t;
+      knot.v.setRandom();
+      stream.add (t, knot.v.getBuffer());
+      check.add (knot);
+      check.clearAfter (knot);
+   }
+
+   void testStream (int vsize, int chunkSize) throws IOException {
+      File file = File.createTempFile ("probeTest", ".stream");
+      file.deleteOnExit();
+      ProbeDataStream stream = new ProbeDataStream (file, vsize, chunkSize);
+      NumericList check = new NumericList (vsize);
+      for (int i=0; i<100; i++) {
+         addKnot (stream, check, i*0.01);
+      }
+      NumericList list = new NumericList (vsize);
+      stream.read (list);
+      checkContents ("initial", list, check);
+
+      // restart from an earlier time, as when the simulation is reset
+      for (int i=37; i<80; i++) {
+         addKnot (stream, check, i*0.01+0.001);
+      }
+      list.clear();
+      stream.read (list);
+      checkContents ("after restart", list, check);
+      addKnot (stream, check, 0);
+      checkEquals ("knots after reset", stream.numKnots(), 1L);
+
+      for (int i=1; i<50; i++) {
+         addKnot (stream, check, i*0.1);
+      }
+      stream.close();
+      check ("stream file not recognized", ProbeDataStream.isStreamFile (file));
+      list.clear();
+      ProbeDataStream.read (file, list);
+      checkContents ("after close", list, check);
+      file.delete();
+   }
+
+   /**
+    * Checks streams whose chunks are written concurrently by the shared
+    * writer threads.
+    */
+   void testConcurrentStreams (int nstreams) throws IOException {
+      ProbeDataStream[] streams = new ProbeDataStream[nstreams];
+      NumericList[] checks = new NumericList[nstreams];
+      File[] files = new File[nstreams];
+      for (int k=0; k<nstreams; k++) {
+         files[k] = File.createTempFile ("probeTest", ".stream");
+         files[k].deleteOnExit();
+         streams[k] = new ProbeDataStream (files[k], 2+k, 3);
+         checks[k] = new NumericList (2+k);
+      }
+      for (int i=0; i<200; i++) {
+         for (int k=0; k<nstreams; k++) {
+            addKnot (streams[k], checks[k], i*0.01);
+         }
+      }
+      for (int k=0; k<nstreams; k++) {
+         NumericList list = new NumericList (2+k);
+         streams[k].read (list);
+         checkContents ("concurrent stream "+k, list, checks[k]);
+         streams[k].close();
+         files[k].delete();
+      }
+   }
+
+   /**
+    * Checks that turning streaming off, after more than one window of knots
+    * has been produced, restores the full data to memory.
+    */
+   void testStreamingOff (boolean columnar) throws IOException {
+      MechModel mech = new MechModel ("mech");
+      Particle p = new Particle ("p", 1.0, 0, 0, 0);
+      mech.addParticle (p);
+
+      File file = File.createTempFile ("probeTest", ".txt");
+      file.deleteOnExit();
+      NumericOutputProbe probe =
+         new NumericOutputProbe (p, "position", file.getPath(), 0.01);
+      probe.setColumnarData (columnar);
+      probe.setStreaming (true);
+      probe.setStreamWindow (10);
+      NumericOutputProbe check =
+         new NumericOutputProbe (p, "position", null, 0.01);
+      for (int i=0; i<=100; i++) {
+         double t = i*0.01;
+         p.setPosition (new Point3d (t, Math.cos(t), 1));
+         probe.apply (t);
+         check.apply (t);
+      }
+      check ("knots were not trimmed while streaming",
+             probe.getNumericList().getNumKnots() < 101);
+      File streamFile = probe.getStreamFile();
+
+      probe.setStreaming (false);
+      checkContents (
+         "data after streaming off",
+         probe.getNumericList(), check.getNumericList());
+
+      probe.save();
+      NumericOutputProbe loaded =
+         new NumericOutputProbe (p, "position", file.getPath(), 0.01);
+      loaded.load();
+      checkContents (
+         "saved data after streaming off",
+         loaded.getNumericList(), check.getNumericList(), 1e-12);
+
+      streamFile.delete();
+      file.delete();
+   }
+
+   void testProbe (boolean columnar) throws IOException {
+      MechModel mech = new MechModel ("mech");
+      Particle p = new Particle ("p", 1.0, 0, 0, 0);
+      mech.addParticle (p);
+
+      File file = File.createTempFile ("probeTest", ".txt");
+      file.deleteOnExit();
+      NumericOutputProbe probe =
+         new NumericOutputProbe (p, "position", file.getPath(), 0.01);
+      probe.setColumnarData (columnar);
+      probe.setStreaming (true);
+      probe.setStreamWindow (10);
+      NumericOutputProbe check =
+         new NumericOutputProbe (p, "position", null, 0.01);
+
+      for (int k=0; k<2; k++) {
+         // second pass repeats the run, as when the simulation is reset
+         for (int i=0; i<=100; i++) {
+            double t = i*0.01;
+            p.setPosition (new Point3d (t, Math.sin(t), k));
+            probe.apply (t);
+            check.apply (t);
+         }
+      }
+      int num = probe.getNumericList().getNumKnots();
+      check ("number of knots in memory is "+num+", expected between 10 and 20",
+             num >= 10 && num <= 20);
+      checkEquals (
+         "last knot", probe.getNumericList().getLast().v,
+         check.getNumericList().getLast().v);
+
+      probe.save();
+      NumericOutputProbe loaded =
+         new NumericOutputProbe (p, "position", file.getPath(), 0.01);
+      loaded.load();
+      // times are not exact since the saved data uses an implicit time step
+      checkContents (
+         "saved data", loaded.getNumericList(), check.getNumericList(), 1e-12);
+
+      probe.loadStreamedData();
+      checkContents (
+         "streamed data", probe.getNumericList(), check.getNumericList());
+
+      File streamFile = probe.getStreamFile();
+      probe.dispose();
+      streamFile.delete();
+      file.delete();
+   }
+
+   public void test() throws IOException {
+      testStream (3, 1);
+      testStream (3, 7);
+      testStream (5, 256);
+      testStream (0, 16);
+      testProbe (/*columnar=*/false);
+      testProbe (/*columnar=*/true);
+      testConcurrentStreams (5);
+      testStreamingOff (/*columnar=*/false);
+      testStreamingOff (/*columnar=*/true);
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      ProbeDataStreamTest tester = new ProbeDataStreamTest();
+      tester.runtest();
+   }
+}
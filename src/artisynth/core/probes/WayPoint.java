@@ -15,6 +15,8 @@ public class WayPoint {
    protected CompositeState myState;
    protected boolean myValidP;
    protected boolean myBreakPointP;
+   // if non-null, stores the state when myTime > 0
+   protected WayPointStore myStore;
 
    // links for maintaining double linked list inside the WayPointProbe
    protected WayPoint myNext;
@@ -46,26 +48,70 @@ public class WayPoint {
       myValidP = valid;
    }
 
+   /**
+    * Returns the state of this way point. If the state is kept in a {@link
+    * WayPointStore}, a new state is created from the store each time this
+    * method is called.
+    *
+    * @return state of this way point, or {@code null}
+    */
    public CompositeState getState() {
+      if (myState == null && myStore != null) {
+         return myStore.getState (myTime);
+      }
       return myState;
    }
 
    public void setState (RootModel model) {
-      myState = (CompositeState)model.createState(null);
+      CompositeState state = (CompositeState)model.createState(null);
       if (myTime == 0) {
-         model.getInitialState (myState, null);
+         model.getInitialState (state, null);
       }
       else {
-         model.getState (myState);
+         model.getState (state);
       }
-      setValid (true);
+      setState (state);
    }
    
    public void setState (CompositeState state) {
-      myState = state;
+      if (myStore != null && myTime > 0 && state != null) {
+         myStore.add (myTime, state);
+         myState = null;
+      }
+      else {
+         myState = state;
+      }
       setValid (true);
    }
 
+   /**
+    * Returns the store used to keep the state of this way point, if any.
+    *
+    * @return way point store, or {@code null}
+    */
+   public WayPointStore getStore() {
+      return myStore;
+   }
+
+   /**
+    * Sets a store used to keep the state of this way point, instead of
+    * keeping it on the heap. Any existing state is moved into (or out of)
+    * the store. Stores are not used for the way point at time 0.
+    *
+    * @param store way point store, or {@code null}
+    */
+   public void setStore (WayPointStore store) {
+      if (store != myStore) {
+         CompositeState state = getState();
+         myStore = store;
+         if (state != null) {
+            boolean valid = myValidP;
+            setState (state);
+            myValidP = valid;
+         }
+      }
+   }
+
    public boolean isBreakPoint() {
       return myBreakPointP;
    }
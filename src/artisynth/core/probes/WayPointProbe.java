@@ -19,6 +19,7 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
    protected RootModel myRootModel; // root model associated with the waypoints
    protected WayPoint myWay0; // hard wired way point at time = 0
    protected boolean myCheckStateP = false; // for testing only
+   protected WayPointStore myStore; // optional store for waypoint states
    
    private boolean myResetInitialState = false;
    private boolean myInitialStateValidP = true;
@@ -137,6 +138,33 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
       return myCheckStateP;
    }
 
+   /**
+    * Returns the store used to keep the states of the waypoints in this
+    * probe, if any.
+    *
+    * @return waypoint store, or {@code null}
+    */
+   public WayPointStore getStore() {
+      return myStore;
+   }
+
+   /**
+    * Sets a store used to keep the states of the waypoints in this probe,
+    * other than the one at time 0, instead of keeping them on the heap. The
+    * states of existing waypoints are moved into the store. Specifying
+    * {@code null} moves the states back onto the heap.
+    *
+    * @param store waypoint store, or {@code null}
+    */
+   public void setStore (WayPointStore store) {
+      if (store != myStore) {
+         myStore = store;
+         for (WayPoint way = myWay0.myNext; way != null; way = way.myNext) {
+            way.setStore (store);
+         }
+      }
+   }
+
    public void resetInitialState() {
       RootModel root = getRootModel();
       WayPoint way0 = get (0);
@@ -192,6 +220,9 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
          throw new InternalErrorException (
             "Added WayPoint does not have a previous entry"); 
       }
+      if (myStore != null) {
+         newWay.setStore (myStore);
+      }
       WayPoint prev = prevEntry.getValue();
       WayPoint next = prev.myNext;
       WayPoint oldWay = null;
@@ -239,6 +270,9 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
             if (next != null) {
                next.myPrev = prev;
             }
+            // move the state out of the store, since the store entry for
+            // this time may be replaced by a subsequent waypoint
+            way.setStore (null);
          }
          return way;
       }
@@ -263,6 +297,9 @@ public class WayPointProbe extends OutputProbe implements Iterable<WayPoint> {
     * Clears all waypoints in this probe, except for the waypoint at time 0.
     */
    public void clear() {
+      if (myStore != null) {
+         myStore.clear();
+      }
       myWayPoints.clear();
       myWayPoints.put (0.0, myWay0);
       myWay0.myNext = null;
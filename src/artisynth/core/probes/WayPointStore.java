@@ -0,0 +1,666 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.TreeMap;
+
+import artisynth.core.modelbase.ComponentState;
+import artisynth.core.modelbase.CompositeState;
+import artisynth.core.modelbase.NumericState;
+import artisynth.core.modelbase.NumericState.DataFrame;
+import artisynth.core.util.TimeBase;
+import maspack.util.InternalErrorException;
+
+/**
+ * Stores the states of way points in an append-only, memory-mapped file,
+ * so that long simulations can keep many way points without holding all
+ * their states on the heap.
+ *
+ * <p>Each call to {@link #add} appends a record containing the integer and
+ * double data of every {@link NumericState} within the supplied {@link
+ * CompositeState}. The structure of the state (its composition, data frames
+ * and object data) is kept on the heap, and is shared between successive
+ * records whenever it does not change. Object data is kept by reference,
+ * since it cannot be written to the file. Records are indexed by time, and
+ * {@link #getState} rebuilds a state that can be passed directly to {@link
+ * artisynth.core.workspace.RootModel#setState}.
+ *
+ * <p>If delta encoding is enabled, numeric data that is the same size as in
+ * the previous record is stored as a list of the values that have changed,
+ * whenever that is smaller than storing all the values. A full record (or
+ * key frame) is written every {@link #getKeyFrameInterval} records, which
+ * bounds the number of records that must be read to restore a state.
+ *
+ * <p>The file is a scratch file which is only valid while the store is
+ * open, and uses the native byte order.
+ */
+public class WayPointStore {
+
+   public static final int DEFAULT_SEGMENT_SIZE = 64*1024*1024;
+   public static final boolean DEFAULT_DELTA_ENCODING = false;
+   public static final int DEFAULT_KEY_FRAME_INTERVAL = 16;
+
+   // encodings for the numeric data of each NumericState in a record
+   private static final int FULL = 0;
+   private static final int DELTA = 1;
+
+   private static final ByteOrder BYTE_ORDER = ByteOrder.nativeOrder();
+
+   /**
+    * Describes a single record within the file.
+    */
+   private static class Record {
+      double myTime;
+      int myIndex;        // index in the order of appending
+      int mySegment;      // segment containing the record
+      int myOffset;       // byte offset within the segment
+      int mySize;         // size in bytes
+      boolean myKeyFrame; // true if the record contains no deltas
+      ComponentState mySkeleton; // state structure without numeric data
+   }
+
+   private File myFile;
+   private boolean myDeleteOnClose;
+   private RandomAccessFile myRaf;
+   private FileChannel myChannel;
+   private ArrayList<MappedByteBuffer> mySegments;
+   private int mySegmentSize = DEFAULT_SEGMENT_SIZE;
+   private int myCurrentSegment;
+   private int myWriteOffset;
+   private long myBytesWritten;
+
+   private ArrayList<Record> myRecords;
+   private TreeMap<Double,Record> myTimeIndex;
+
+   private boolean myDeltaEncoding = DEFAULT_DELTA_ENCODING;
+   private int myKeyFrameInterval = DEFAULT_KEY_FRAME_INTERVAL;
+   private int myRecordsSinceKeyFrame;
+
+   // numeric data from the most recent record, used for delta encoding
+   private ArrayList<int[]> myLastZ;
+   private ArrayList<double[]> myLastD;
+
+   /**
+    * Creates a new WayPointStore that uses a temporary file, which is deleted
+    * when the store is closed.
+    *
+    * @throws IOException if the file cannot be created
+    */
+   public WayPointStore () throws IOException {
+      this (File.createTempFile ("waypoints", ".dat"), true);
+   }
+
+   /**
+    * Creates a new WayPointStore that uses the specified file. Any existing
+    * contents of the file are discarded.
+    *
+    * @param file file used to store the way point states
+    * @throws IOException if the file cannot be opened
+    */
+   public WayPointStore (File file) throws IOException {
+      this (file, false);
+   }
+
+   private WayPointStore (File file, boolean deleteOnClose) throws IOException {
+      myFile = file;
+      myDeleteOnClose = deleteOnClose;
+      myRaf = new RandomAccessFile (file, "rw");
+      myRaf.setLength (0);
+      myChannel = myRaf.getChannel();
+      mySegments = new ArrayList<MappedByteBuffer>();
+      myRecords = new ArrayList<Record>();
+      myTimeIndex = new TreeMap<Double,Record>();
+      myLastZ = new ArrayList<int[]>();
+      myLastD = new ArrayList<double[]>();
+   }
+
+   /**
+    * Returns the file used by this store.
+    *
+    * @return store file
+    */
+   public File getFile() {
+      return myFile;
+   }
+
+   /**
+    * Queries whether delta encoding is enabled for this store.
+    *
+    * @return {@code true} if delta encoding is enabled
+    */
+   public boolean getDeltaEncoding() {
+      return myDeltaEncoding;
+   }
+
+   /**
+    * Sets whether delta encoding is enabled for this store. If enabled,
+    * numeric data which has the same size as in the previous record is
+    * stored as the set of values that have changed, if that requires less
+    * space. The default value is {@code false}.
+    *
+    * @param enable if {@code true}, enables delta encoding
+    */
+   public synchronized void setDeltaEncoding (boolean enable) {
+      if (enable != myDeltaEncoding) {
+         myDeltaEncoding = enable;
+         myRecordsSinceKeyFrame = 0;
+         myLastZ.clear();
+         myLastD.clear();
+      }
+   }
+
+   /**
+    * Returns the interval at which full records are written when delta
+    * encoding is enabled.
+    *
+    * @return key frame interval
+    */
+   public int getKeyFrameInterval() {
+      return myKeyFrameInterval;
+   }
+
+   /**
+    * Sets the interval at which full records are written when delta encoding
+    * is enabled. Restoring a state requires reading at most this many
+    * records. The default value is {@link #DEFAULT_KEY_FRAME_INTERVAL}.
+    *
+    * @param interval key frame interval. Must be at least 1.
+    */
+   public synchronized void setKeyFrameInterval (int interval) {
+      if (interval < 1) {
+         throw new IllegalArgumentException (
+            "key frame interval must be at least 1");
+      }
+      myKeyFrameInterval = interval;
+   }
+
+   /**
+    * Returns the size of the memory-mapped segments used by this store.
+    *
+    * @return segment size, in bytes
+    */
+   public int getSegmentSize() {
+      return mySegmentSize;
+   }
+
+   /**
+    * Sets the size of the memory-mapped segments used by this store. Records
+    * never span segments, and so a record larger than the segment size is
+    * given its own segment. Changing the size only affects segments that
+    * are subsequently created. The default value is {@link
+    * #DEFAULT_SEGMENT_SIZE}.
+    *
+    * @param size segment size, in bytes. Must be positive.
+    */
+   public synchronized void setSegmentSize (int size) {
+      if (size <= 0) {
+         throw new IllegalArgumentException ("segment size must be positive");
+      }
+      mySegmentSize = size;
+   }
+
+   /**
+    * Returns the number of records that have been appended to this store,
+    * including those that have been superseded by subsequent records with
+    * the same time.
+    *
+    * @return number of appended records
+    */
+   public synchronized int numRecords() {
+      return myRecords.size();
+   }
+
+   /**
+    * Returns the number of bytes of record data that have been appended to
+    * this store.
+    *
+    * @return number of bytes written
+    */
+   public synchronized long getBytesWritten() {
+      return myBytesWritten;
+   }
+
+   /**
+    * Queries whether this store contains a state for the time {@code t}.
+    *
+    * @param t time to query
+    * @return {@code true} if a state is stored for time {@code t}
+    */
+   public synchronized boolean contains (double t) {
+      return myTimeIndex.containsKey (TimeBase.round(t));
+   }
+
+   /**
+    * Removes the state stored for time {@code t}. The record itself remains
+    * in the file, since other records may depend on it.
+    *
+    * @param t time of the state to remove
+    * @return {@code true} if a state was stored for time {@code t}
+    */
+   public synchronized boolean remove (double t) {
+      return myTimeIndex.remove (TimeBase.round(t)) != null;
+   }
+
+   /**
+    * Appends the numeric data of a state to this store and indexes it by
+    * the time {@code t}, replacing any state previously stored for that
+    * time. The state may be reused by the caller after this method returns,
+    * except for its object data, which is retained by reference.
+    *
+    * @param t time associated with the state
+    * @param state state to store
+    */
+   public synchronized void add (double t, CompositeState state) {
+      if (myChannel == null) {
+         throw new IllegalStateException ("store has been closed");
+      }
+      ArrayList<NumericState> leaves = new ArrayList<NumericState>();
+      collectNumericStates (state, leaves);
+
+      Record prev =
+         myRecords.size() > 0 ? myRecords.get(myRecords.size()-1) : null;
+      Record rec = new Record();
+      rec.myTime = TimeBase.round(t);
+      rec.myIndex = myRecords.size();
+      if (prev != null && sameStructure (prev.mySkeleton, state)) {
+         rec.mySkeleton = prev.mySkeleton;
+      }
+      else {
+         rec.mySkeleton = createSkeleton (state);
+      }
+      rec.myKeyFrame =
+         (!myDeltaEncoding || prev == null ||
+          myRecordsSinceKeyFrame+1 >= myKeyFrameInterval ||
+          leaves.size() != myLastZ.size());
+
+      // determine the encoding and size of each NumericState
+      int[] encodings = new int[leaves.size()];
+      long size = 8 + 4; // time and number of states
+      for (int k=0; k<leaves.size(); k++) {
+         NumericState leaf = leaves.get(k);
+         long fullSize = 4*leaf.zsize() + 8*leaf.dsize();
+         encodings[k] = FULL;
+         if (!rec.myKeyFrame) {
+            long deltaSize = deltaSize (
+               leaf, myLastZ.get(k), myLastD.get(k), fullSize);
+            if (deltaSize < fullSize) {
+               encodings[k] = DELTA;
+               fullSize = deltaSize;
+            }
+         }
+         size += 12 + fullSize;
+      }
+      if (size > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException (
+            "state too large to store: "+size+" bytes");
+      }
+      ByteBuffer buf = allocateRecord (rec, (int)size);
+      buf.putDouble (rec.myTime);
+      buf.putInt (leaves.size());
+      for (int k=0; k<leaves.size(); k++) {
+         NumericState leaf = leaves.get(k);
+         if (encodings[k] == DELTA) {
+            writeDelta (buf, leaf, myLastZ.get(k), myLastD.get(k));
+         }
+         else {
+            writeFull (buf, leaf);
+         }
+      }
+      if (buf.position() != rec.myOffset+rec.mySize) {
+         throw new InternalErrorException (
+            "record size is "+(buf.position()-rec.myOffset)+
+            ", expected "+rec.mySize);
+      }
+      // save the numeric data for encoding the next record
+      if (myDeltaEncoding) {
+         myLastZ.clear();
+         myLastD.clear();
+         for (NumericState leaf : leaves) {
+            myLastZ.add (Arrays.copyOf (leaf.zbuffer(), leaf.zsize()));
+            myLastD.add (Arrays.copyOf (leaf.dbuffer(), leaf.dsize()));
+         }
+      }
+      myRecordsSinceKeyFrame = (rec.myKeyFrame ? 0 : myRecordsSinceKeyFrame+1);
+      myRecords.add (rec);
+      myTimeIndex.put (rec.myTime, rec);
+   }
+
+   /**
+    * Returns the state stored for time {@code t}, or {@code null} if there is
+    * no such state. The returned state is newly created and can be passed
+    * directly to {@link artisynth.core.workspace.RootModel#setState}.
+    *
+    * @param t time of the desired state
+    * @return state for time {@code t}, or {@code null}
+    */
+   public synchronized CompositeState getState (double t) {
+      Record rec = myTimeIndex.get (TimeBase.round(t));
+      if (rec == null) {
+         return null;
+      }
+      ComponentState state = createSkeleton (rec.mySkeleton);
+      ArrayList<NumericState> leaves = new ArrayList<NumericState>();
+      collectNumericStates (state, leaves);
+      int k = rec.myIndex;
+      while (!myRecords.get(k).myKeyFrame) {
+         k--;
+      }
+      for ( ; k<=rec.myIndex; k++) {
+         readRecord (myRecords.get(k), leaves);
+      }
+      return (CompositeState)state;
+   }
+
+   /**
+    * Removes all states from this store and reuses the file from its
+    * beginning.
+    */
+   public synchronized void clear() {
+      myRecords.clear();
+      myTimeIndex.clear();
+      myLastZ.clear();
+      myLastD.clear();
+      myRecordsSinceKeyFrame = 0;
+      myCurrentSegment = 0;
+      myWriteOffset = 0;
+      myBytesWritten = 0;
+   }
+
+   /**
+    * Closes this store, after which no more states can be added or
+    * restored. If the store was created with a temporary file, the file is
+    * deleted.
+    *
+    * @throws IOException if an error occurs closing the file
+    */
+   public synchronized void close() throws IOException {
+      if (myChannel != null) {
+         clear();
+         // mapped segments are released when they are garbage collected
+         mySegments.clear();
+         myChannel.close();
+         myRaf.close();
+         myChannel = null;
+         myRaf = null;
+         if (myDeleteOnClose) {
+            myFile.delete();
+         }
+      }
+   }
+
+   /**
+    * Finds space for a record of the specified size, and returns a buffer
+    * positioned at the start of that space.
+    */
+   private ByteBuffer allocateRecord (Record rec, int size) {
+      MappedByteBuffer seg = null;
+      if (myCurrentSegment < mySegments.size()) {
+         seg = mySegments.get (myCurrentSegment);
+         if (seg.capacity()-myWriteOffset < size) {
+            // try subsequent segments, which may exist after a clear()
+            seg = null;
+            while (++myCurrentSegment < mySegments.size()) {
+               if (mySegments.get(myCurrentSegment).capacity() >= size) {
+                  seg = mySegments.get (myCurrentSegment);
+                  myWriteOffset = 0;
+                  break;
+               }
+            }
+         }
+      }
+      if (seg == null) {
+         try {
+            long pos = myChannel.size();
+            seg = myChannel.map (
+               FileChannel.MapMode.READ_WRITE, pos,
+               Math.max (mySegmentSize, size));
+         }
+         catch (IOException e) {
+            throw new InternalErrorException (
+               "Error mapping way point store file "+myFile+": " + e);
+         }
+         mySegments.add (seg);
+         myCurrentSegment = mySegments.size()-1;
+         myWriteOffset = 0;
+      }
+      rec.mySegment = myCurrentSegment;
+      rec.myOffset = myWriteOffset;
+      rec.mySize = size;
+      myWriteOffset += size;
+      myBytesWritten += size;
+      return getBuffer (rec);
+   }
+
+   private ByteBuffer getBuffer (Record rec) {
+      ByteBuffer buf = mySegments.get(rec.mySegment).duplicate();
+      buf.order (BYTE_ORDER);
+      buf.position (rec.myOffset);
+      return buf;
+   }
+
+   private void writeFull (ByteBuffer buf, NumericState leaf) {
+      int zsize = leaf.zsize();
+      int dsize = leaf.dsize();
+      buf.putInt (FULL);
+      buf.putInt (zsize);
+      buf.putInt (dsize);
+      buf.asIntBuffer().put (leaf.zbuffer(), 0, zsize);
+      buf.position (buf.position()+4*zsize);
+      buf.asDoubleBuffer().put (leaf.dbuffer(), 0, dsize);
+      buf.position (buf.position()+8*dsize);
+   }
+
+   /**
+    * Returns the number of bytes needed to delta encode the numeric data of
+    * a state with respect to the data of the previous record, or {@code
+    * limit} if the data sizes differ or the encoding would need at least
+    * {@code limit} bytes.
+    */
+   private long deltaSize (
+      NumericState leaf, int[] lastz, double[] lastd, long limit) {
+      if (leaf.zsize() != lastz.length || leaf.dsize() != lastd.length) {
+         return limit;
+      }
+      long size = 8; // counts of changed ints and doubles
+      int[] zbuf = leaf.zbuffer();
+      for (int i=0; i<lastz.length; i++) {
+         if (zbuf[i] != lastz[i]) {
+            if ((size += 8) >= limit) {
+               return limit;
+            }
+         }
+      }
+      double[] dbuf = leaf.dbuffer();
+      for (int i=0; i<lastd.length; i++) {
+         if (Double.doubleToRawLongBits(dbuf[i]) !=
+             Double.doubleToRawLongBits(lastd[i])) {
+            if ((size += 12) >= limit) {
+               return limit;
+            }
+         }
+      }
+      return size;
+   }
+
+   private void writeDelta (
+      ByteBuffer buf, NumericState leaf, int[] lastz, double[] lastd) {
+      buf.putInt (DELTA);
+      buf.putInt (leaf.zsize());
+      buf.putInt (leaf.dsize());
+
+      int[] zbuf = leaf.zbuffer();
+      int cntPos = buf.position();
+      int cnt = 0;
+      buf.putInt (0);
+      for (int i=0; i<lastz.length; i++) {
+         if (zbuf[i] != lastz[i]) {
+            buf.putInt (i);
+            buf.putInt (zbuf[i]);
+            cnt++;
+         }
+      }
+      buf.putInt (cntPos, cnt);
+
+      double[] dbuf = leaf.dbuffer();
+      cntPos = buf.position();
+      cnt = 0;
+      buf.putInt (0);
+      for (int i=0; i<lastd.length; i++) {
+         if (Double.doubleToRawLongBits(dbuf[i]) !=
+             Double.doubleToRawLongBits(lastd[i])) {
+            buf.putInt (i);
+            buf.putDouble (dbuf[i]);
+            cnt++;
+         }
+      }
+      buf.putInt (cntPos, cnt);
+   }
+
+   /**
+    * Reads the numeric data of a record into the supplied states. Delta
+    * encoded data is applied to the data already present in the states.
+    */
+   private void readRecord (Record rec, ArrayList<NumericState> leaves) {
+      ByteBuffer buf = getBuffer (rec);
+      buf.getDouble(); // time
+      int numLeaves = buf.getInt();
+      if (numLeaves != leaves.size()) {
+         throw new InternalErrorException (
+            "record at time "+rec.myTime+" has "+numLeaves+
+            " numeric states; expected "+leaves.size());
+      }
+      for (NumericState leaf : leaves) {
+         int encoding = buf.getInt();
+         int zsize = buf.getInt();
+         int dsize = buf.getInt();
+         leaf.zsetSize (zsize);
+         leaf.dsetSize (dsize);
+         int[] zbuf = leaf.zbuffer();
+         double[] dbuf = leaf.dbuffer();
+         if (encoding == FULL) {
+            buf.asIntBuffer().get (zbuf, 0, zsize);
+            buf.position (buf.position()+4*zsize);
+            buf.asDoubleBuffer().get (dbuf, 0, dsize);
+            buf.position (buf.position()+8*dsize);
+         }
+         else {
+            int cnt = buf.getInt();
+            for (int i=0; i<cnt; i++) {
+               int idx = buf.getInt();
+               zbuf[idx] = buf.getInt();
+            }
+            cnt = buf.getInt();
+            for (int i=0; i<cnt; i++) {
+               int idx = buf.getInt();
+               dbuf[idx] = buf.getDouble();
+            }
+         }
+      }
+   }
+
+   private void collectNumericStates (
+      ComponentState state, ArrayList<NumericState> leaves) {
+      if (state instanceof CompositeState) {
+         CompositeState cstate = (CompositeState)state;
+         for (int i=0; i<cstate.numSubStates(); i++) {
+            collectNumericStates (cstate.getState(i), leaves);
+         }
+      }
+      else if (state instanceof NumericState) {
+         leaves.add ((NumericState)state);
+      }
+   }
+
+   /**
+    * Creates a copy of a state that contains its structure but no numeric
+    * data. States other than CompositeState and NumericState are duplicated
+    * as is.
+    */
+   private ComponentState createSkeleton (ComponentState state) {
+      if (state instanceof CompositeState) {
+         CompositeState cstate = (CompositeState)state;
+         CompositeState skel = new CompositeState (cstate.numSubStates());
+         for (int i=0; i<cstate.numSubStates(); i++) {
+            skel.addState (createSkeleton (cstate.getState(i)));
+         }
+         skel.setAnnotated (cstate.isAnnotated());
+         return skel;
+      }
+      else if (state instanceof NumericState) {
+         NumericState skel = new NumericState();
+         skel.setStructure ((NumericState)state);
+         return skel;
+      }
+      else {
+         return state.duplicate();
+      }
+   }
+
+   /**
+    * Checks whether a skeleton describes the structure of a state, so that
+    * it can be shared between records.
+    */
+   private boolean sameStructure (ComponentState skel, ComponentState state) {
+      if (skel instanceof CompositeState) {
+         if (!(state instanceof CompositeState)) {
+            return false;
+         }
+         CompositeState cskel = (CompositeState)skel;
+         CompositeState cstate = (CompositeState)state;
+         if (cskel.numSubStates() != cstate.numSubStates()) {
+            return false;
+         }
+         for (int i=0; i<cskel.numSubStates(); i++) {
+            if (!sameStructure (cskel.getState(i), cstate.getState(i))) {
+               return false;
+            }
+         }
+         return true;
+      }
+      else if (skel instanceof NumericState) {
+         if (!(state instanceof NumericState)) {
+            return false;
+         }
+         NumericState nskel = (NumericState)skel;
+         NumericState nstate = (NumericState)state;
+         if (nskel.numDataFrames() != nstate.numDataFrames() ||
+             nskel.osize() != nstate.osize()) {
+            return false;
+         }
+         for (int i=0; i<nskel.numDataFrames(); i++) {
+            DataFrame frame0 = nskel.getDataFrame(i);
+            DataFrame frame1 = nstate.getDataFrame(i);
+            if (frame0.getComp() != frame1.getComp() ||
+                frame0.getVersion() != frame1.getVersion() ||
+                !frame0.getOffsets().equals (frame1.getOffsets()) ||
+                !frame0.getSizes().equals (frame1.getSizes())) {
+               return false;
+            }
+         }
+         Object[] obuf0 = nskel.obuffer();
+         Object[] obuf1 = nstate.obuffer();
+         for (int i=0; i<nskel.osize(); i++) {
+            if (obuf0[i] != obuf1[i]) {
+               return false;
+            }
+         }
+         return true;
+      }
+      else {
+         return skel.equals (state, null);
+      }
+   }
+}
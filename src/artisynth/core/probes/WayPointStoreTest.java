@@ -0,0 +1,259 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package artisynth.core.probes;
+
+import java.io.*;
+import java.util.*;
+
+import maspack.util.*;
+import maspack.matrix.*;
+import artisynth.core.modelbase.*;
+import artisynth.core.mechmodels.*;
+import artisynth.core.util.TimeBase;
+import artisynth.core.workspace.RootModel;
+
+/**
+ * Tests the WayPointStore, both directly and as used by WayPointProbe.
+ */
+public class WayPointStoreTest extends UnitTest {
+
+   Random myRand = RandomGenerator.get();
+
+   /**
+    * Creates a test state containing numeric states with and without data
+    * frames and object data, an empty state, and a nested composite
+    * state.
+    */
+   CompositeState createState (int size, Object[] objs) {
+      CompositeState state = new CompositeState();
+      NumericState nstate = new NumericState();
+      nstate.setHasDataFrames (true);
+      for (int k=0; k<3; k++) {
+         for (int i=0; i<size; i++) {
+            nstate.zput (myRand.nextInt(10));
+            nstate.dput (myRand.nextDouble());
+         }
+         nstate.addDataFrame (null);
+      }
+      for (Object obj : objs) {
+         nstate.oput (obj);
+      }
+      state.addState (nstate);
+      state.addState (new EmptyState());
+      CompositeState sub = new CompositeState();
+      NumericState nsub = new NumericState();
+      for (int i=0; i<2*size; i++) {
+         nsub.dput (myRand.nextDouble());
+      }
+      sub.addState (nsub);
+      sub.addState (new NumericState());
+      state.addState (sub);
+      return state;
+   }
+
+   /**
+    * Changes a few of the numeric values in a state.
+    */
+   void perturbState (ComponentState state) {
+      if (state instanceof CompositeState) {
+         CompositeState cstate = (CompositeState)state;
+         for (int i=0; i<cstate.numSubStates(); i++) {
+            perturbState (cstate.getState(i));
+         }
+      }
+      else if (state instanceof NumericState) {
+         NumericState nstate = (NumericState)state;
+         if (nstate.zsize() > 0) {
+            nstate.zbuffer()[myRand.nextInt(nstate.zsize())] += 1;
+         }
+         if (nstate.dsize() > 0) {
+            nstate.dbuffer()[myRand.nextInt(nstate.dsize())] =
+               myRand.nextDouble();
+         }
+      }
+   }
+
+   void checkObjects (String msg, CompositeState state, Object[] objs) {
+      NumericState nstate = (NumericState)state.getState(0);
+      checkEquals (msg+" osize", nstate.osize(), objs.length);
+      for (int i=0; i<objs.length; i++) {
+         check (msg+" object "+i, nstate.obuffer()[i] == objs[i]);
+      }
+   }
+
+   void checkState (String msg, CompositeState state, CompositeState check) {
+      if (state == null) {
+         throw new TestException (msg+": state is null");
+      }
+      StringBuilder errMsg = new StringBuilder();
+      if (!check.equals (state, errMsg)) {
+         throw new TestException (msg+": restored state differs:\n"+errMsg);
+      }
+   }
+
+   void testStore (boolean deltaEncoding) throws IOException {
+      WayPointStore store = new WayPointStore();
+      File file = store.getFile();
+      store.setDeltaEncoding (deltaEncoding);
+      store.setKeyFrameInterval (4);
+      // use a small segment size so that multiple segments are needed, and
+      // some records are larger than a segment
+      store.setSegmentSize (1024);
+
+      Object[] objs = new Object[] { "foo", new Point3d() };
+      ArrayList<CompositeState> states = new ArrayList<CompositeState>();
+      CompositeState state = createState (5, objs);
+      int nstates = 40;
+      for (int i=0; i<nstates; i++) {
+         if (i == 20) {
+            // change the state structure
+            state = createState (30, objs);
+         }
+         else {
+            perturbState (state);
+         }
+         store.add ((i+1)*0.01, state);
+         states.add (state.duplicate());
+      }
+      checkEquals ("numRecords", store.numRecords(), nstates);
+      // restore in reverse order to make sure records are independent
+      for (int i=nstates-1; i>=0; i--) {
+         double t = (i+1)*0.01;
+         check ("contains "+t, store.contains (t));
+         CompositeState restored = store.getState (t);
+         checkState ("state at "+t, restored, states.get(i));
+         checkObjects ("state at "+t, restored, objs);
+      }
+      check ("state at missing time", store.getState (1.0) == null);
+
+      // replace the state at a given time
+      CompositeState newState = createState (5, objs);
+      store.add (0.05, newState);
+      checkState ("replaced state", store.getState (0.05), newState);
+      checkState ("state after replaced",
+                  store.getState (0.06), states.get(5));
+      store.remove (0.05);
+      check ("contains after remove", !store.contains (0.05));
+
+      // clear and reuse
+      long fileSize = file.length();
+      store.clear();
+      checkEquals ("numRecords after clear", store.numRecords(), 0);
+      for (int i=0; i<nstates; i++) {
+         store.add ((i+1)*0.01, states.get(i));
+      }
+      for (int i=0; i<nstates; i++) {
+         checkState ("state after clear",
+                     store.getState ((i+1)*0.01), states.get(i));
+      }
+      checkEquals ("file size after clear and reuse", file.length(), fileSize);
+      store.close();
+      check ("temporary file deleted on close", !file.exists());
+   }
+
+   void testDeltaSize() throws IOException {
+      WayPointStore fullStore = new WayPointStore();
+      WayPointStore deltaStore = new WayPointStore();
+      deltaStore.setDeltaEncoding (true);
+      CompositeState state = createState (100, new Object[0]);
+      for (int i=0; i<20; i++) {
+         perturbState (state);
+         fullStore.add ((i+1)*0.01, state);
+         deltaStore.add ((i+1)*0.01, state);
+      }
+      if (deltaStore.getBytesWritten() >= fullStore.getBytesWritten()/2) {
+         throw new TestException (
+            "delta encoded store uses "+deltaStore.getBytesWritten()+
+            " bytes, vs. "+fullStore.getBytesWritten()+" for full store");
+      }
+      fullStore.close();
+      deltaStore.close();
+   }
+
+   RootModel createModel() {
+      RootModel root = new RootModel();
+      MechModel mech = new MechModel ("mech");
+      root.addModel (mech);
+      RigidBody box = RigidBody.createBox ("box", 0.5, 0.5, 0.5, 1000.0);
+      mech.addRigidBody (box);
+      Particle p = new Particle ("p", 1.0, 1.0, 0, 0);
+      mech.addParticle (p);
+      FrameMarker mkr = mech.addFrameMarker (box, new Point3d(0.25, 0, 0));
+      AxialSpring spring = new AxialSpring ("spring", 10.0, 0, 0);
+      mech.attachAxialSpring (mkr, p, spring);
+      return root;
+   }
+
+   void testRootModel (boolean deltaEncoding) throws IOException {
+      RootModel root = createModel();
+      WayPointStore store = new WayPointStore();
+      store.setDeltaEncoding (deltaEncoding);
+      root.getWayPoints().setStore (store);
+
+      double h = root.getMaxStepSize();
+      int nsteps = 50;
+      for (int i=1; i<=5; i++) {
+         root.addWayPoint (TimeBase.round (i*10*h));
+      }
+      root.initialize (0);
+      ArrayList<CompositeState> states = new ArrayList<CompositeState>();
+      double t = 0;
+      for (int i=0; i<nsteps; i++) {
+         double t1 = TimeBase.round ((i+1)*h);
+         root.advance (t, t1, 0);
+         t = t1;
+         if ((i+1)%10 == 0) {
+            CompositeState state = root.createState (null);
+            root.getState (state);
+            states.add (state);
+         }
+      }
+      checkEquals ("numRecords", store.numRecords(), 5);
+      for (int i=1; i<=5; i++) {
+         WayPoint way = root.getWayPoint (TimeBase.round (i*10*h));
+         check ("way point "+i+" valid", way.isValid());
+         check ("way point "+i+" kept on heap", way.myState == null);
+         checkState ("way point "+i, way.getState(), states.get(i-1));
+      }
+      // restore an earlier way point and check that simulating from it
+      // reproduces the later states
+      WayPoint way = root.getWayPoint (TimeBase.round (20*h));
+      root.setState (way.getState());
+      t = way.getTime();
+      for (int i=20; i<30; i++) {
+         double t1 = TimeBase.round ((i+1)*h);
+         root.advance (t, t1, 0);
+         t = t1;
+      }
+      CompositeState state = root.createState (null);
+      root.getState (state);
+      checkState ("model state after restoring", state, states.get(2));
+
+      // removing the store moves states back onto the heap
+      root.getWayPoints().setStore (null);
+      for (int i=1; i<=5; i++) {
+         way = root.getWayPoint (TimeBase.round (i*10*h));
+         check ("way point "+i+" not on heap", way.myState != null);
+         checkState ("way point "+i, way.getState(), states.get(i-1));
+      }
+      store.close();
+   }
+
+   public void test() throws IOException {
+      testStore (/*deltaEncoding=*/false);
+      testStore (/*deltaEncoding=*/true);
+      testDeltaSize();
+      testRootModel (/*deltaEncoding=*/false);
+      testRootModel (/*deltaEncoding=*/true);
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      WayPointStoreTest tester = new WayPointStoreTest();
+      tester.runtest();
+   }
+}
@@ -95,7 +95,7 @@ MechSystemBase.setDefaultStabilization (PosStabilization.GlobalMass)
 FemModel3d.noIncompressStiffnessDamping = False
 SurfaceMeshCollider.useAjlCollision = True
 PardisoSolver.setDefaultNumThreads (1)
-#MechSystemSolver.setAlwaysAnalyze (True)
+#MechSystemSolver.setDefaultAlwaysAnalyze (True)
 
 main.maskFocusStealing (True)
 
@@ -233,7 +233,7 @@ testState (D, 1.0, 5, "artisynth.demos.mech.GimbalJointDemo")
 testState (D, 1.0, 5, "artisynth.demos.mech.PlanarJointDemo")
 testState (D, 1.0, 5, "artisynth.demos.mech.PlanarTranslationJointDemo")
 
-MechSystemSolver.setAlwaysAnalyze (True)
+MechSystemSolver.setDefaultAlwaysAnalyze (True)
 testState (D, 2.0, 10, "artisynth.demos.test.FixedBallContact")
 
 main.maskFocusStealing (False)
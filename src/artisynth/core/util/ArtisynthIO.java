@@ -40,13 +40,20 @@ public class ArtisynthIO {
    /**
     * Creates a ReaderTokenizer for a specified input file. The tokenizer is set
     * to accept <code>.</code>, <code>/</code>, and <code>$</code> as
-    * word characters, and the underlying Reader is buffered.
+    * word characters, and the underlying Reader is buffered. If the file is a
+    * binary token snapshot (as created by {@link
+    * artisynth.core.modelbase.ScanWriteUtils#writeComponentSnapshot
+    * ScanWriteUtils.writeComponentSnapshot()}), then a {@link
+    * SnapshotTokenizer} is returned instead.
     * 
     * @param file
     * File on which to create the tokenizer
     */
    public static ReaderTokenizer newReaderTokenizer (File file)
       throws IOException {
+      if (SnapshotTokenizer.isSnapshotFile (file)) {
+         return new SnapshotTokenizer (file);
+      }
       ReaderTokenizer rtok =
          new ReaderTokenizer (new BufferedReader (new FileReader (file)));
       rtok.wordChars ("./$");
@@ -57,13 +64,18 @@ public class ArtisynthIO {
    /**
     * Creates a ReaderTokenizer for a specified input file. The tokenizer is set
     * to accept <code>.</code>, <code>/</code>, and <code>$</code> as
-    * word characters, and the underlying Reader is buffered.
+    * word characters, and the underlying Reader is buffered. If the file is a
+    * binary token snapshot, then a {@link SnapshotTokenizer} is returned
+    * instead.
     * 
     * @param fileName
     * Name of the file on which to create the tokenizer
     */
    public static ReaderTokenizer newReaderTokenizer (String fileName)
       throws IOException {
+      if (SnapshotTokenizer.isSnapshotFile (new File (fileName))) {
+         return new SnapshotTokenizer (new File (fileName));
+      }
       ReaderTokenizer rtok =
          new ReaderTokenizer (new BufferedReader (new FileReader (fileName)));
       rtok.wordChars ("./$");
@@ -46,6 +46,7 @@ import maspack.util.DataBuffer;
 import maspack.util.PathFinder;
 import artisynth.core.util.TimeBase;
 import artisynth.core.driver.Main;
+import artisynth.core.mechmodels.MechSystemBase;
 import artisynth.core.gui.ControlPanel;
 import artisynth.core.modelbase.ComponentChangeEvent;
 import artisynth.core.modelbase.ComponentChangeListener;
@@ -69,6 +70,8 @@ import artisynth.core.modelbase.RenderableComponentList;
 import artisynth.core.modelbase.RenderableModelBase;
 import artisynth.core.modelbase.ScanWriteUtils;
 import artisynth.core.modelbase.StepAdjustment;
+import artisynth.core.modelbase.StepProfiler;
+import artisynth.core.modelbase.StepProfiler.Phase;
 import artisynth.core.modelbase.StructureChangeEvent;
 import artisynth.core.modelbase.Traceable;
 import artisynth.core.modelbase.ComponentChangeEvent.Code;
@@ -140,6 +143,9 @@ public class RootModel extends RenderableModelBase
       new AxisAngle(0,0,0,0);
    private static final double DEFAULT_MIN_STEP_SIZE = 1e-7;
    private static final boolean DEFAULT_ADAPTIVE_STEPPING = false;
+   private static final boolean DEFAULT_STEP_PROFILING = false;
+   // if non-null, records time spent in the phases of each step
+   protected StepProfiler myStepProfiler = null;
    private File myWorkingFolder = null;
 
    AxisAngle myDefaultViewOrientation = 
@@ -557,6 +563,10 @@ public class RootModel extends RenderableModelBase
       myProps.add (
          "adaptiveStepping",
          "enables/disables adaptive step sizing", DEFAULT_ADAPTIVE_STEPPING);
+      myProps.add (
+         "stepProfiling",
+         "enables/disables recording of per-phase step times",
+         DEFAULT_STEP_PROFILING);
       // remove and replace maxStepSize to redefine default value and range
       myProps.remove ("maxStepSize");
       myProps.add (
@@ -581,6 +591,65 @@ public class RootModel extends RenderableModelBase
    public double getMinStepSize() {
       return myMinStepSize;
    }
+
+   /**
+    * Queries whether step profiling is enabled for this root model.
+    *
+    * @return {@code true} if step profiling is enabled
+    * @see #getStepProfiler
+    */
+   public boolean getStepProfiling() {
+      return myStepProfiler != null;
+   }
+
+   /**
+    * Enables or disables step profiling for this root model. When enabled,
+    * the time spent in the different phases of each simulation step is
+    * recorded by a {@link StepProfiler}, which can be obtained using {@link
+    * #getStepProfiler}. Enabling profiling when it is already enabled leaves
+    * the current profiler and its data unchanged.
+    *
+    * @param enable if {@code true}, enables step profiling
+    */
+   public void setStepProfiling (boolean enable) {
+      if (enable != getStepProfiling()) {
+         setStepProfiler (enable ? new StepProfiler() : null);
+      }
+   }
+
+   /**
+    * Returns the profiler recording the time spent in the different phases
+    * of each simulation step, or {@code null} if step profiling is not
+    * enabled.
+    *
+    * @return current step profiler
+    */
+   public StepProfiler getStepProfiler() {
+      return myStepProfiler;
+   }
+
+   /**
+    * Sets the profiler used to record the time spent in the different phases
+    * of each simulation step. This allows the application to supply a
+    * profiler with a specific ring buffer capacity. Setting the profiler to
+    * {@code null} disables step profiling. The profiler is also passed to
+    * each top-level {@link MechSystemBase} model, which uses it to record
+    * force, collision, KKT solve and stabilization times.
+    *
+    * @param profiler step profiler, or {@code null}
+    */
+   public void setStepProfiler (StepProfiler profiler) {
+      myStepProfiler = profiler;
+      updateStepProfilers();
+   }
+
+   private void updateStepProfilers() {
+      for (Model m : myModels) {
+         if (m instanceof MechSystemBase) {
+            ((MechSystemBase)m).setStepProfiler (myStepProfiler);
+         }
+      }
+   }
    
    public void setMinStepSize (double step) {
       myMinStepSize = step;
@@ -1457,6 +1526,7 @@ public class RootModel extends RenderableModelBase
       }
       myRootInfo.createState();
       myRootInfo.outputProbes.add (myWayPoints);
+      updateStepProfilers();
    }
    
    public boolean hasState() {
@@ -1641,6 +1711,8 @@ public class RootModel extends RenderableModelBase
    }
 
    public synchronized void applyInputProbes (List<Probe> list, double t) {
+      StepProfiler prof = myStepProfiler;
+      long ptime = (prof != null ? prof.startTimer() : 0);
       for (Probe p : list) {
          if (p.isActive() && 
              TimeBase.compare (p.getStartTime(), t) <= 0 && 
@@ -1648,26 +1720,39 @@ public class RootModel extends RenderableModelBase
             p.apply (t);
          }
       }
+      if (prof != null) {
+         prof.addTime (Phase.INPUT_PROBES, ptime);
+      }
    }
 
    public synchronized void applyControllers (
       List<Controller> list, double t0, double t1) {
 
+      StepProfiler prof = myStepProfiler;
+      long ptime = (prof != null ? prof.startTimer() : 0);
       for (Controller c : list) {
          if (c.isActive()) {
             c.apply (t0, t1);
          }
       }
+      if (prof != null) {
+         prof.addTime (Phase.CONTROLLERS, ptime);
+      }
    }
 
    public synchronized void applyMonitors (
       List<Monitor> list, double t0, double t1) {
 
+      StepProfiler prof = myStepProfiler;
+      long ptime = (prof != null ? prof.startTimer() : 0);
       for (Monitor m : list) {
          if (m.isActive()) {
             m.apply (t0, t1);
          }
       }
+      if (prof != null) {
+         prof.addTime (Phase.MONITORS, ptime);
+      }
    }
 
    public synchronized void applyOutputProbes (
@@ -1678,6 +1763,8 @@ public class RootModel extends RenderableModelBase
       boolean coincidesWithStep =
          (maxStep != -1 && TimeBase.modulo (t1, maxStep) == 0);  
 
+      StepProfiler prof = myStepProfiler;
+      long ptime = (prof != null ? prof.startTimer() : 0);
       for (Probe p : list) {
          if (!p.isActive() ||
              TimeBase.compare (t1, p.getStartTime()) < 0 ||
@@ -1689,6 +1776,9 @@ public class RootModel extends RenderableModelBase
             p.apply (t1);
          }
       }
+      if (prof != null) {
+         prof.addTime (Phase.OUTPUT_PROBES, ptime);
+      }
    }
 
    private double nextProbeEvent (List<Probe> probes, double t0) {
@@ -1818,6 +1908,10 @@ public class RootModel extends RenderableModelBase
          applyOutputProbes (myRootInfo.outputProbes, t0, myRootInfo);
       }
       while (ta < t1 && !myStopRequest) {
+         StepProfiler prof = myStepProfiler;
+         if (prof != null) {
+            prof.beginStep();
+         }
          double tb = getNextAdvanceTime (
             myRootInfo.outputProbes, getMaxStepSize(), ta, t1);
          //setDefaultInputs (ta, tb);
@@ -1828,6 +1922,9 @@ public class RootModel extends RenderableModelBase
          }
          applyMonitors (myRootInfo.monitors, ta, tb);
          applyOutputProbes (myRootInfo.outputProbes, tb, myRootInfo);
+         if (prof != null) {
+            prof.endStep (tb);
+         }
          ta = tb;
       }
    }
@@ -98,7 +98,7 @@ public class LaymanDemo extends RootModel {
       //    if (MechModel.useNewCollisionManager) {
       //       name = "new.txt";
       //    }
-      //    MechSystemSolver.setLogWriter (
+      //    myMechMod.getSolver().setLogWriter (
       //       ArtisynthIO.newIndentingPrintWriter (name));
       // }
       // catch (Exception e)  {
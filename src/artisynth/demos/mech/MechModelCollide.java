@@ -164,7 +164,7 @@ public class MechModelCollide extends RootModel {
       mechMod.setPenetrationTol (1e-3);
 
       // try {
-      //    MechSystemSolver.setLogWriter (
+      //    mechMod.getSolver().setLogWriter (
       //       ArtisynthIO.newIndentingPrintWriter ("solve.txt"));
       // }
       // catch (Exception e)  {
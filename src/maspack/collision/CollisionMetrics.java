@@ -17,6 +17,16 @@ public class CollisionMetrics {
    public int primInts = 0, isDjCalls = 0, getContactsCalls = 0,
    leafIntersects = 0, openContours = 0, openHalfContours = 0;
 
+   // broad-phase statistics: number of updates, time spent in the broad
+   // phase (in nanoseconds), and the number of candidate body pairs that
+   // were considered and culled
+   public long broadPhaseUpdates = 0, broadPhaseTime = 0;
+   public long broadPhasePairs = 0, broadPhaseCulled = 0;
+
+   // coherence cache statistics: number of bounding volume tree queries
+   // made through coherence caches, and the number answered from the cache
+   public long coherenceQueries = 0, coherenceHits = 0;
+
    long reportTime = 2000000000L; // 2 seconds, in nanoseconds
    long elapsedRealTime;
    boolean started = false;
@@ -26,6 +36,68 @@ public class CollisionMetrics {
       name = nm;
    }
 
+   /**
+    * Returns the fraction of candidate body pairs that were culled by the
+    * broad phase, or 0 if no pairs have been considered.
+    */
+   public double getBroadPhaseCullRate() {
+      if (broadPhasePairs == 0) {
+         return 0;
+      }
+      return broadPhaseCulled/(double)broadPhasePairs;
+   }
+
+   /**
+    * Clears the broad-phase statistics.
+    */
+   public void clearBroadPhase() {
+      broadPhaseUpdates = 0;
+      broadPhaseTime = 0;
+      broadPhasePairs = 0;
+      broadPhaseCulled = 0;
+   }
+
+   /**
+    * Prints the broad-phase statistics.
+    */
+   public void reportBroadPhase() {
+      System.out.printf (
+         "%s broad phase: updates=%d pairs=%d culled=%d (%4.1f%%) "+
+         "time/update=%6.3f msec%n", name,
+         broadPhaseUpdates, broadPhasePairs, broadPhaseCulled,
+         100*getBroadPhaseCullRate(),
+         broadPhaseUpdates == 0 ?
+            0.0 : 1e-6*broadPhaseTime/broadPhaseUpdates);
+   }
+
+   /**
+    * Returns the fraction of coherence cache queries that were cache hits,
+    * or 0 if no queries have been made.
+    */
+   public double getCoherenceHitRate() {
+      if (coherenceQueries == 0) {
+         return 0;
+      }
+      return coherenceHits/(double)coherenceQueries;
+   }
+
+   /**
+    * Clears the coherence cache statistics.
+    */
+   public void clearCoherence() {
+      coherenceQueries = 0;
+      coherenceHits = 0;
+   }
+
+   /**
+    * Prints the coherence cache statistics.
+    */
+   public void reportCoherence() {
+      System.out.printf (
+         "%s coherence cache: queries=%d hits=%d (%4.1f%%)%n", name,
+         coherenceQueries, coherenceHits, 100*getCoherenceHitRate());
+   }
+
    void report (ContactInfo info) {
 //      // if (info != null) histogramDepths(info.regions);
 //      if (info != null) {
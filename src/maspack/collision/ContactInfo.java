@@ -316,29 +316,44 @@ public class ContactInfo {
    ArrayList<PenetratingPoint> computePenetratingPoints (
       PolygonalMesh mesh0, PolygonalMesh mesh1) {
       
-      BVFeatureQuery query = new BVFeatureQuery();
-      Point3d wpnt = new Point3d();
-      Point3d nearest = new Point3d();
-      Vector2d uv = new Vector2d();
-      Vector3d disp = new Vector3d();
-      
       ArrayList<PenetratingPoint> points = 
          new ArrayList<PenetratingPoint>();
-      for (Vertex3d vtx : mesh0.getVertices()) {
+      InsideMeshQuery query = new InsideMeshQuery (mesh1);
+      query.findPoints (points, mesh0.getVertices());
+      return points;
+   }
+
+   /**
+    * Finds the vertices that are inside an opposing mesh, along with the
+    * nearest face used to resolve the inside test.
+    */
+   static class InsideMeshQuery extends PenetratingPointQuery {
+
+      InsideMeshQuery (PolygonalMesh mesh) {
+         super (mesh);
+      }
+
+      protected PenetratingPoint query (Vertex3d vtx) {
          // John Lloyd, Jan 3, 2014: rewrote to use isInsideOrientedMesh()
          // to determine if a vertex is inside another mesh. Previous code
          // would not always work and broke when the BVTree code was
          // refactored.
-         vtx.getWorldPoint (wpnt);
-         if (query.isInsideOrientedMesh (mesh1, wpnt, -1)) {
-            Face f = query.getFaceForInsideOrientedTest (nearest, uv);
-            mesh1.transformToWorld (nearest);
-            disp.sub (nearest, wpnt);
-            points.add (new PenetratingPoint (
-               vtx, f, uv, nearest, disp, /*region=*/null));
+         vtx.getWorldPoint (myWpnt);
+         if (myQuery.isInsideOrientedMesh (myMesh, myWpnt, -1)) {
+            Face f = myQuery.getFaceForInsideOrientedTest (myNearest, myUv);
+            myMesh.transformToWorld (myNearest);
+            myDisp.sub (myNearest, myWpnt);
+            return new PenetratingPoint (
+               vtx, f, myUv, myNearest, myDisp, /*region=*/null);
+         }
+         else {
+            return null;
          }
       }
-      return points;
+
+      protected PenetratingPointQuery createQuery() {
+         return new InsideMeshQuery (myMesh);
+      }
    }
 
    /**
@@ -5,6 +5,7 @@ import java.util.LinkedHashSet;
 
 import maspack.geometry.BVFeatureQuery;
 import maspack.geometry.BVIntersector;
+import maspack.geometry.BVTreeCoherenceCache;
 import maspack.geometry.ConvexPolygon3d;
 import maspack.geometry.Face;
 import maspack.geometry.PolygonalMesh;
@@ -27,9 +28,34 @@ public class MeshCollider implements AbstractCollider {
 
    public static double maxErr = 0;
 
+   // optional cache used to accelerate the mesh tree intersections
+   private BVTreeCoherenceCache myCoherenceCache;
+
    public MeshCollider() {
    }
 
+   /**
+    * Returns the coherence cache used to accelerate contact queries, or
+    * <code>null</code> if no cache is being used.
+    *
+    * @return coherence cache, or <code>null</code>
+    */
+   public BVTreeCoherenceCache getCoherenceCache() {
+      return myCoherenceCache;
+   }
+
+   /**
+    * Sets a coherence cache to accelerate the bounding volume tree
+    * intersections in {@link #getContacts getContacts}, when it is called
+    * repeatedly for the same pair of meshes. The contacts are not affected.
+    * Specifying <code>null</code> removes the cache.
+    *
+    * @param cache coherence cache, or <code>null</code>
+    */
+   public void setCoherenceCache (BVTreeCoherenceCache cache) {
+      myCoherenceCache = cache;
+   }
+
    static int iFirst = 0;
    public static int numIntNodes;
 
@@ -40,6 +66,7 @@ public class MeshCollider implements AbstractCollider {
       mesh0.updateFaceNormals();
       mesh1.updateFaceNormals();
       BVIntersector intersector = new BVIntersector();
+      intersector.setCoherenceCache (myCoherenceCache);
       ContactInfo info = new ContactInfo (mesh0, mesh1);
       info.myIntersections = new ArrayList<TriTriIntersection>();
       boolean didInt = 
@@ -0,0 +1,127 @@
+package maspack.collision;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.BVFeatureQuery;
+import maspack.geometry.PolygonalMesh;
+import maspack.geometry.Vertex3d;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector2d;
+import maspack.matrix.Vector3d;
+
+/**
+ * Finds the penetrating points for a list of vertices by querying each vertex
+ * against an opposing mesh. For large vertex lists, the vertices are split
+ * into contiguous chunks which are queried in parallel, with each chunk using
+ * its own query object, and hence its own {@link BVFeatureQuery} and work
+ * storage. The resulting points are collected in vertex order, so that the
+ * output is identical to that of a serial computation.
+ *
+ * <p>If called from within a parallel loop, such as when collision pairs are
+ * themselves being processed in parallel, the chunks are processed serially.
+ */
+public abstract class PenetratingPointQuery {
+
+   /**
+    * Minimum number of vertices per thread when penetrating points are found
+    * in parallel. Vertex lists smaller than twice this value are processed
+    * serially.
+    */
+   public static int parallelMinVertices = 1024;
+
+   /**
+    * Maximum number of threads used when finding penetrating points. A value
+    * {@code <= 0} specifies the number of available processors, and a value
+    * of 1 disables parallel computation.
+    */
+   public static int maxThreads = 0;
+
+   protected PolygonalMesh myMesh;
+   protected BVFeatureQuery myQuery = new BVFeatureQuery();
+   protected Point3d myWpnt = new Point3d();
+   protected Point3d myNearest = new Point3d();
+   protected Vector2d myUv = new Vector2d();
+   protected Vector3d myDisp = new Vector3d();
+
+   /**
+    * Creates a query for finding penetrating points with respect to a
+    * specified mesh.
+    *
+    * @param mesh opposing mesh against which vertices are queried
+    */
+   protected PenetratingPointQuery (PolygonalMesh mesh) {
+      myMesh = mesh;
+   }
+
+   /**
+    * Queries a single vertex.
+    *
+    * @param vtx vertex to query
+    * @return penetrating point for the vertex, or {@code null} if
+    * the vertex does not penetrate the opposing mesh
+    */
+   protected abstract PenetratingPoint query (Vertex3d vtx);
+
+   /**
+    * Creates a new query of the same type, with its own work storage, for
+    * use by another thread.
+    *
+    * @return new query
+    */
+   protected abstract PenetratingPointQuery createQuery();
+
+   /**
+    * Queries a list of vertices and adds the resulting penetrating points to
+    * {@code points}, in vertex order.
+    *
+    * @param points list to which penetrating points are added
+    * @param vtxs vertices to query
+    */
+   public void findPoints (
+      ArrayList<PenetratingPoint> points, Collection<? extends Vertex3d> vtxs) {
+
+      int nvtxs = vtxs.size();
+      int nchunks = 1;
+      if (!ParallelLoop.isWorkerThread()) {
+         nchunks = ParallelLoop.numChunks (
+            nvtxs, maxThreads, parallelMinVertices);
+      }
+      if (nchunks == 1) {
+         for (Vertex3d vtx : vtxs) {
+            PenetratingPoint pp = query (vtx);
+            if (pp != null) {
+               points.add (pp);
+            }
+         }
+         return;
+      }
+      // the bounding volume hierarchy and face normals are computed on
+      // demand, and so must be updated before the mesh is queried
+      // concurrently
+      myMesh.getBVTree();
+      myMesh.updateFaceNormals();
+      final Vertex3d[] varray = vtxs.toArray (new Vertex3d[nvtxs]);
+      final PenetratingPointQuery[] queries = new PenetratingPointQuery[nchunks];
+      queries[0] = this;
+      for (int c=1; c<nchunks; c++) {
+         queries[c] = createQuery();
+      }
+      final PenetratingPoint[] results = new PenetratingPoint[nvtxs];
+      ParallelLoop.forEachChunk (
+         nvtxs, nchunks, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               PenetratingPointQuery query = queries[chunk];
+               for (int i=lo; i<hi; i++) {
+                  results[i] = query.query (varray[i]);
+               }
+            }
+         });
+      for (int i=0; i<nvtxs; i++) {
+         if (results[i] != null) {
+            points.add (results[i]);
+         }
+      }
+   }
+}
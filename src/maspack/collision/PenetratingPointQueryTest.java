@@ -0,0 +1,107 @@
+package maspack.collision;
+
+import java.util.*;
+
+import maspack.geometry.*;
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Tests PenetratingPointQuery by checking that penetrating points found in
+ * parallel are identical to those found serially.
+ */
+public class PenetratingPointQueryTest extends UnitTest {
+
+   void checkPoints (
+      String msg, ArrayList<PenetratingPoint> points,
+      ArrayList<PenetratingPoint> check) {
+
+      checkEquals (msg+" num points", points.size(), check.size());
+      for (int i=0; i<check.size(); i++) {
+         PenetratingPoint p = points.get(i);
+         PenetratingPoint c = check.get(i);
+         check (msg+" vertex "+i, p.vertex == c.vertex);
+         check (msg+" face "+i, p.face == c.face);
+         check (msg+" region "+i, p.region == c.region);
+         checkEquals (msg+" position "+i, p.position, c.position);
+         checkEquals (msg+" coords "+i, p.coords, c.coords);
+         checkEquals (msg+" normal "+i, p.normal, c.normal);
+         checkEquals (msg+" distance "+i, p.distance, c.distance);
+      }
+   }
+
+   ArrayList<PenetratingPoint> findInsidePoints (
+      PolygonalMesh mesh0, PolygonalMesh mesh1, int maxThreads) {
+      int saveMax = PenetratingPointQuery.maxThreads;
+      int saveMin = PenetratingPointQuery.parallelMinVertices;
+      PenetratingPointQuery.maxThreads = maxThreads;
+      PenetratingPointQuery.parallelMinVertices = 64;
+      try {
+         ContactInfo cinfo = new ContactInfo (mesh0, mesh1);
+         return cinfo.computePenetratingPoints (mesh0, mesh1);
+      }
+      finally {
+         PenetratingPointQuery.maxThreads = saveMax;
+         PenetratingPointQuery.parallelMinVertices = saveMin;
+      }
+   }
+
+   ArrayList<PenetratingPoint> findNearestPoints (
+      PenetrationRegion region, PolygonalMesh mesh1, int maxThreads) {
+      int saveMax = PenetratingPointQuery.maxThreads;
+      int saveMin = PenetratingPointQuery.parallelMinVertices;
+      PenetratingPointQuery.maxThreads = maxThreads;
+      PenetratingPointQuery.parallelMinVertices = 64;
+      try {
+         ArrayList<PenetratingPoint> points =
+            new ArrayList<PenetratingPoint>();
+         SurfaceMeshCollider.collideVerticesWithFaces (points, region, mesh1);
+         return points;
+      }
+      finally {
+         PenetratingPointQuery.maxThreads = saveMax;
+         PenetratingPointQuery.parallelMinVertices = saveMin;
+      }
+   }
+
+   void testMeshes (PolygonalMesh mesh0, PolygonalMesh mesh1) {
+      ArrayList<PenetratingPoint> check = findInsidePoints (mesh0, mesh1, 1);
+      check ("no penetrating points", check.size() > 0);
+      checkPoints (
+         "inside, 4 threads", findInsidePoints (mesh0, mesh1, 4), check);
+      checkPoints (
+         "inside, 7 threads", findInsidePoints (mesh0, mesh1, 7), check);
+
+      PenetrationRegion region = new PenetrationRegion (mesh0, false, 0);
+      for (PenetratingPoint p : check) {
+         region.myVertices.add (p.vertex);
+      }
+      check = findNearestPoints (region, mesh1, 1);
+      checkPoints (
+         "nearest, 4 threads", findNearestPoints (region, mesh1, 4), check);
+      checkPoints (
+         "nearest, 7 threads", findNearestPoints (region, mesh1, 7), check);
+   }
+
+   public void test() {
+      PolygonalMesh mesh0 = MeshFactory.createIcosahedralSphere (1.0, 4);
+      PolygonalMesh mesh1 = MeshFactory.createIcosahedralSphere (1.0, 3);
+      RigidTransform3d X = new RigidTransform3d();
+      for (int i=0; i<5; i++) {
+         X.setRandom();
+         X.p.scale (1.0/X.p.norm());
+         mesh0.setMeshToWorld (X);
+         X.setRandom();
+         X.p.setZero();
+         mesh1.setMeshToWorld (X);
+         testMeshes (mesh0, mesh1);
+         testMeshes (mesh1, mesh0);
+      }
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      PenetratingPointQueryTest tester = new PenetratingPointQueryTest();
+      tester.runtest();
+   }
+}
@@ -4,7 +4,6 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 
-import maspack.geometry.BVFeatureQuery;
 import maspack.geometry.Face;
 import maspack.geometry.HalfEdge;
 import maspack.geometry.PolygonalMesh;
@@ -116,19 +115,33 @@ public class SurfaceMeshCollider implements AbstractCollider {
       PenetrationRegion region, 
       PolygonalMesh otherMesh) {
       
-      BVFeatureQuery query = new BVFeatureQuery();
-      Vector2d uv = new Vector2d();
-      Point3d nearPnt = new Point3d();
-      Vector3d disp = new Vector3d();
-      Point3d wpnt = new Point3d();
-
-      PenetratingPoint cpp;
-      for (Vertex3d vtx : region.myVertices) {
-         vtx.getWorldPoint (wpnt);
-         Face face = query.nearestFaceToPoint (nearPnt, uv, otherMesh, wpnt);
-         disp.sub (nearPnt, wpnt);
-         cpp = new PenetratingPoint (vtx, face, uv, nearPnt, disp, region);
-         cpps.add (cpp);
+      NearestFaceQuery query = new NearestFaceQuery (otherMesh, region);
+      query.findPoints (cpps, region.myVertices);
+   }
+
+   /**
+    * Finds the nearest opposing face for each vertex of a penetration region.
+    */
+   static class NearestFaceQuery extends PenetratingPointQuery {
+
+      PenetrationRegion myRegion;
+
+      NearestFaceQuery (PolygonalMesh otherMesh, PenetrationRegion region) {
+         super (otherMesh);
+         myRegion = region;
+      }
+
+      protected PenetratingPoint query (Vertex3d vtx) {
+         vtx.getWorldPoint (myWpnt);
+         Face face = myQuery.nearestFaceToPoint (
+            myNearest, myUv, myMesh, myWpnt);
+         myDisp.sub (myNearest, myWpnt);
+         return new PenetratingPoint (
+            vtx, face, myUv, myNearest, myDisp, myRegion);
+      }
+
+      protected PenetratingPointQuery createQuery() {
+         return new NearestFaceQuery (myMesh, myRegion);
       }
    }
 
@@ -63,6 +63,9 @@ public class SurfaceMeshIntersector {
    double myAreaTol = 0;
    double myMaxLength = 0;
 
+   // optional cache used to accelerate the mesh tree intersection
+   BVTreeCoherenceCache myCoherenceCache = null;
+
    public boolean mySilentP = true;
    public static boolean debug = false;
    public static boolean debug2 = false;
@@ -363,6 +366,29 @@ public class SurfaceMeshIntersector {
    public boolean getSilent() {
       return mySilentP;
    }
+
+   /**
+    * Returns the coherence cache used to accelerate contour computations, or
+    * <code>null</code> if no cache is being used.
+    *
+    * @return coherence cache, or <code>null</code>
+    */
+   public BVTreeCoherenceCache getCoherenceCache() {
+      return myCoherenceCache;
+   }
+
+   /**
+    * Sets a coherence cache to accelerate the bounding volume tree
+    * intersection used to find candidate faces in {@link #findContours
+    * findContours}, when contours are computed repeatedly for the same pair
+    * of meshes. The contours and regions are not affected. Specifying
+    * <code>null</code> removes the cache.
+    *
+    * @param cache coherence cache, or <code>null</code>
+    */
+   public void setCoherenceCache (BVTreeCoherenceCache cache) {
+      myCoherenceCache = cache;
+   }
    
    public void setSilent (boolean silent) {
       mySilentP = silent;
@@ -656,7 +682,12 @@ public class SurfaceMeshIntersector {
       BVTree bvh1 = mesh1.getBVTree();
       ArrayList<BVNode> nodes0 = new ArrayList<BVNode>();
       ArrayList<BVNode> nodes1 = new ArrayList<BVNode>();
-      bvh0.intersectTree (nodes0, nodes1, bvh1);
+      if (myCoherenceCache != null && mesh0 != mesh1) {
+         myCoherenceCache.intersectTree (nodes0, nodes1, bvh0, bvh1);
+      }
+      else {
+         bvh0.intersectTree (nodes0, nodes1, bvh1);
+      }
 
       // Look for overlapping triangles and use these as the starting point for
       // tracing the intersection contours. If no contours are found,
@@ -0,0 +1,322 @@
+package maspack.collision;
+
+import java.util.Arrays;
+
+import maspack.matrix.Vector3d;
+
+/**
+ * Broad-phase collision culling using sweep-and-prune on axis-aligned
+ * bounding boxes. Each box is identified by an integer slot. After the boxes
+ * have been set, {@link #update} sorts the box minima along the sweep axis
+ * and sweeps through them to find all pairs of overlapping boxes, which can
+ * then be queried using {@link #overlaps}.
+ *
+ * <p>The sorted order is retained between updates and re-sorted using
+ * insertion sort, so that when the boxes move coherently from one update to
+ * the next the cost of sorting is close to linear. The sweep axis is the one
+ * along which the box centers have the greatest variance, although it is
+ * only changed when a different axis is significantly better, since changing
+ * it requires a complete re-sort.
+ *
+ * <p>Slots whose boxes are not set since the last call to {@link
+ * #clearBoxes} are inactive, and do not overlap any other slot.
+ */
+public class SweepAndPrune {
+
+   private static final long EMPTY = -1;
+
+   private int myNumSlots = 0;
+   private double[] myBounds = new double[0]; // min xyz and max xyz per slot
+   private boolean[] myActive = new boolean[0];
+   private int[] myOrder = new int[0]; // slots sorted along the sweep axis
+   private int myAxis = 0;
+
+   // open-addressed hash set of overlapping pairs
+   private long[] myPairs = new long[16];
+   private int myNumPairs = 0;
+
+   private int myNumActive = 0;
+   private long myNumSwaps = 0;
+   private long myNumBoxTests = 0;
+
+   /**
+    * Creates a new SweepAndPrune with no slots.
+    */
+   public SweepAndPrune() {
+      Arrays.fill (myPairs, EMPTY);
+   }
+
+   /**
+    * Sets the number of slots. If the number changes, all boxes are cleared
+    * and the sorted order is reset.
+    *
+    * @param num number of slots
+    */
+   public void setNumSlots (int num) {
+      if (num != myNumSlots) {
+         myNumSlots = num;
+         myBounds = new double[6*num];
+         myActive = new boolean[num];
+         myOrder = new int[num];
+         for (int i=0; i<num; i++) {
+            myOrder[i] = i;
+         }
+         myNumActive = 0;
+         clearPairs();
+      }
+   }
+
+   /**
+    * Returns the number of slots.
+    *
+    * @return number of slots
+    */
+   public int numSlots() {
+      return myNumSlots;
+   }
+
+   /**
+    * Marks all slots as inactive.
+    */
+   public void clearBoxes() {
+      Arrays.fill (myActive, false);
+      myNumActive = 0;
+   }
+
+   /**
+    * Sets the bounding box for a slot and makes it active.
+    *
+    * @param idx slot index
+    * @param min minimum coordinates of the box
+    * @param max maximum coordinates of the box
+    */
+   public void setBox (int idx, Vector3d min, Vector3d max) {
+      int k = 6*idx;
+      myBounds[k  ] = min.x;
+      myBounds[k+1] = min.y;
+      myBounds[k+2] = min.z;
+      myBounds[k+3] = max.x;
+      myBounds[k+4] = max.y;
+      myBounds[k+5] = max.z;
+      if (!myActive[idx]) {
+         myActive[idx] = true;
+         myNumActive++;
+      }
+   }
+
+   /**
+    * Queries whether a slot is active.
+    *
+    * @param idx slot index
+    * @return {@code true} if the slot's box has been set
+    */
+   public boolean isActive (int idx) {
+      return myActive[idx];
+   }
+
+   /**
+    * Returns the number of active slots.
+    *
+    * @return number of active slots
+    */
+   public int numActive() {
+      return myNumActive;
+   }
+
+   /**
+    * Returns the current sweep axis, where 0, 1 and 2 denote x, y and z.
+    *
+    * @return sweep axis
+    */
+   public int getSweepAxis() {
+      return myAxis;
+   }
+
+   private int selectAxis() {
+      double sx = 0, sy = 0, sz = 0;
+      double sxx = 0, syy = 0, szz = 0;
+      for (int i=0; i<myNumSlots; i++) {
+         if (myActive[i]) {
+            int k = 6*i;
+            // use twice the center, since only relative variance matters
+            double cx = myBounds[k  ] + myBounds[k+3];
+            double cy = myBounds[k+1] + myBounds[k+4];
+            double cz = myBounds[k+2] + myBounds[k+5];
+            sx += cx; sxx += cx*cx;
+            sy += cy; syy += cy*cy;
+            sz += cz; szz += cz*cz;
+         }
+      }
+      int n = Math.max (1, myNumActive);
+      double varx = sxx - sx*sx/n;
+      double vary = syy - sy*sy/n;
+      double varz = szz - sz*sz/n;
+      int axis;
+      double var;
+      if (varx >= vary && varx >= varz) {
+         axis = 0; var = varx;
+      }
+      else if (vary >= varz) {
+         axis = 1; var = vary;
+      }
+      else {
+         axis = 2; var = varz;
+      }
+      // changing the axis destroys the coherence of the sorted order, so
+      // only do so if the new axis is significantly better
+      double curVar = (myAxis == 0 ? varx : (myAxis == 1 ? vary : varz));
+      return (var > 2*curVar ? axis : myAxis);
+   }
+
+   private void sortOrder() {
+      int[] order = myOrder;
+      double[] bounds = myBounds;
+      int a = myAxis;
+      for (int i=1; i<order.length; i++) {
+         int slot = order[i];
+         double min = bounds[6*slot+a];
+         int j = i-1;
+         while (j >= 0 && bounds[6*order[j]+a] > min) {
+            order[j+1] = order[j];
+            j--;
+            myNumSwaps++;
+         }
+         order[j+1] = slot;
+      }
+   }
+
+   /**
+    * Sorts the active boxes and finds all pairs of overlapping boxes.
+    */
+   public void update() {
+      clearPairs();
+      myAxis = selectAxis();
+      sortOrder();
+      int[] order = myOrder;
+      double[] bounds = myBounds;
+      int a = myAxis;
+      int b = (a+1)%3;
+      int c = (a+2)%3;
+      for (int i=0; i<order.length; i++) {
+         int si = order[i];
+         if (!myActive[si]) {
+            continue;
+         }
+         int ki = 6*si;
+         double maxa = bounds[ki+a+3];
+         for (int j=i+1; j<order.length; j++) {
+            int sj = order[j];
+            int kj = 6*sj;
+            if (bounds[kj+a] > maxa) {
+               break;
+            }
+            if (!myActive[sj]) {
+               continue;
+            }
+            myNumBoxTests++;
+            if (bounds[kj+b] <= bounds[ki+b+3] &&
+                bounds[ki+b] <= bounds[kj+b+3] &&
+                bounds[kj+c] <= bounds[ki+c+3] &&
+                bounds[ki+c] <= bounds[kj+c+3]) {
+               addPair (si, sj);
+            }
+         }
+      }
+   }
+
+   /**
+    * Queries whether the boxes of two slots overlapped at the last call to
+    * {@link #update}.
+    *
+    * @param i first slot index
+    * @param j second slot index
+    * @return {@code true} if the boxes overlap
+    */
+   public boolean overlaps (int i, int j) {
+      long key = pairKey (i, j);
+      int mask = myPairs.length-1;
+      int h = hash (key) & mask;
+      while (myPairs[h] != EMPTY) {
+         if (myPairs[h] == key) {
+            return true;
+         }
+         h = (h+1) & mask;
+      }
+      return false;
+   }
+
+   /**
+    * Returns the number of overlapping pairs found at the last call to
+    * {@link #update}.
+    *
+    * @return number of overlapping pairs
+    */
+   public int numOverlappingPairs() {
+      return myNumPairs;
+   }
+
+   /**
+    * Returns the total number of swaps performed while sorting. This gives
+    * an indication of how coherent the box motion is between updates.
+    *
+    * @return total number of sorting swaps
+    */
+   public long numSwaps() {
+      return myNumSwaps;
+   }
+
+   /**
+    * Returns the total number of box pairs whose extents were compared in
+    * the directions orthogonal to the sweep axis.
+    *
+    * @return total number of box tests
+    */
+   public long numBoxTests() {
+      return myNumBoxTests;
+   }
+
+   private static long pairKey (int i, int j) {
+      if (i > j) {
+         int tmp = i; i = j; j = tmp;
+      }
+      return ((long)i << 32) | (j & 0xffffffffL);
+   }
+
+   private static int hash (long key) {
+      key *= 0x9E3779B97F4A7C15L;
+      return (int)(key ^ (key >>> 32));
+   }
+
+   private void clearPairs() {
+      Arrays.fill (myPairs, EMPTY);
+      myNumPairs = 0;
+   }
+
+   private void addPair (int i, int j) {
+      if (2*(myNumPairs+1) > myPairs.length) {
+         long[] old = myPairs;
+         myPairs = new long[2*old.length];
+         Arrays.fill (myPairs, EMPTY);
+         myNumPairs = 0;
+         for (long key : old) {
+            if (key != EMPTY) {
+               insert (key);
+            }
+         }
+      }
+      insert (pairKey (i, j));
+   }
+
+   private void insert (long key) {
+      int mask = myPairs.length-1;
+      int h = hash (key) & mask;
+      while (myPairs[h] != EMPTY) {
+         if (myPairs[h] == key) {
+            return;
+         }
+         h = (h+1) & mask;
+      }
+      myPairs[h] = key;
+      myNumPairs++;
+   }
+}
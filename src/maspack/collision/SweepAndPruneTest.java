@@ -0,0 +1,93 @@
+package maspack.collision;
+
+import java.util.*;
+
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Tests SweepAndPrune by comparing the overlapping pairs it finds with those
+ * found by brute force, for boxes that move coherently over several updates.
+ */
+public class SweepAndPruneTest extends UnitTest {
+
+   boolean boxesOverlap (
+      Vector3d min0, Vector3d max0, Vector3d min1, Vector3d max1) {
+      return (min0.x <= max1.x && min1.x <= max0.x &&
+              min0.y <= max1.y && min1.y <= max0.y &&
+              min0.z <= max1.z && min1.z <= max0.z);
+   }
+
+   void testRandomBoxes (int nboxes, int nupdates) {
+      SweepAndPrune sap = new SweepAndPrune();
+      sap.setNumSlots (nboxes);
+      Point3d[] centers = new Point3d[nboxes];
+      Vector3d[] widths = new Vector3d[nboxes];
+      Vector3d[] vels = new Vector3d[nboxes];
+      boolean[] active = new boolean[nboxes];
+      for (int i=0; i<nboxes; i++) {
+         centers[i] = new Point3d();
+         centers[i].setRandom (-10, 10);
+         widths[i] = new Vector3d();
+         widths[i].setRandom (0.1, 1.5);
+         vels[i] = new Vector3d();
+         vels[i].setRandom (-0.2, 0.2);
+      }
+      Point3d min = new Point3d();
+      Point3d max = new Point3d();
+      for (int k=0; k<nupdates; k++) {
+         sap.clearBoxes();
+         int nactive = 0;
+         for (int i=0; i<nboxes; i++) {
+            centers[i].add (vels[i]);
+            // leave a few boxes inactive
+            active[i] = (RandomGenerator.nextInt (0, 9) != 0);
+            if (active[i]) {
+               min.scaledAdd (-0.5, widths[i], centers[i]);
+               max.scaledAdd (0.5, widths[i], centers[i]);
+               sap.setBox (i, min, max);
+               nactive++;
+            }
+         }
+         checkEquals ("num active", sap.numActive(), nactive);
+         sap.update();
+         int npairs = 0;
+         Point3d min1 = new Point3d();
+         Point3d max1 = new Point3d();
+         for (int i=0; i<nboxes; i++) {
+            min.scaledAdd (-0.5, widths[i], centers[i]);
+            max.scaledAdd (0.5, widths[i], centers[i]);
+            for (int j=i+1; j<nboxes; j++) {
+               min1.scaledAdd (-0.5, widths[j], centers[j]);
+               max1.scaledAdd (0.5, widths[j], centers[j]);
+               boolean overlap = (active[i] && active[j] &&
+                                  boxesOverlap (min, max, min1, max1));
+               if (overlap) {
+                  npairs++;
+               }
+               if (sap.overlaps (i, j) != overlap ||
+                   sap.overlaps (j, i) != overlap) {
+                  throw new TestException (
+                     "boxes "+i+" and "+j+": overlap is "+sap.overlaps(i,j)+
+                     ", expected "+overlap);
+               }
+            }
+         }
+         checkEquals (
+            "num overlapping pairs", sap.numOverlappingPairs(), npairs);
+      }
+   }
+
+   public void test() {
+      testRandomBoxes (1, 3);
+      testRandomBoxes (2, 10);
+      testRandomBoxes (50, 20);
+      testRandomBoxes (300, 20);
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      SweepAndPruneTest tester = new SweepAndPruneTest();
+      tester.runtest();
+   }
+}
@@ -0,0 +1,209 @@
+package maspack.concurrency;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import maspack.util.InternalErrorException;
+
+/**
+ * Executes loops over an integer range in parallel, using a shared pool of
+ * daemon worker threads.
+ *
+ * <p>The range {@code [0,n)} is split into a fixed number of contiguous
+ * chunks, and each chunk is passed to the task together with its chunk
+ * index. Since the partitioning depends only on {@code n} and the number of
+ * chunks, callers can use the chunk index to select per-chunk scratch storage
+ * and then combine the results in chunk order, giving answers that do not
+ * depend on how the chunks were scheduled.
+ *
+ * <p>If a loop is started from within one of the pool's worker threads, its
+ * chunks are executed serially by that thread. This prevents deadlocks when
+ * parallel loops are nested.
+ */
+public class ParallelLoop {
+
+   /**
+    * Task that processes one chunk of a parallel loop.
+    */
+   public interface RangeTask {
+
+      /**
+       * Processes the indices {@code lo <= i < hi}.
+       *
+       * @param chunk index of the chunk being processed
+       * @param lo first index of the chunk
+       * @param hi one past the last index of the chunk
+       */
+      void run (int chunk, int lo, int hi);
+   }
+
+   private static ThreadPoolExecutor myPool = null;
+   private static final ThreadLocal<Boolean> myIsWorker =
+      new ThreadLocal<Boolean>();
+
+   /**
+    * Returns the default number of threads used for parallel loops, which is
+    * the number of available processors.
+    *
+    * @return default number of threads
+    */
+   public static int getDefaultNumThreads() {
+      return Runtime.getRuntime().availableProcessors();
+   }
+
+   private static synchronized ThreadPoolExecutor getPool() {
+      if (myPool == null) {
+         final ThreadFactory factory = new NamedThreadFactory ("parallelLoop");
+         int nthreads = getDefaultNumThreads();
+         myPool = new ThreadPoolExecutor (
+            nthreads, nthreads, 1000, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<Runnable>(),
+            new ThreadFactory() {
+               public Thread newThread (final Runnable r) {
+                  Thread t = factory.newThread (new Runnable() {
+                        public void run() {
+                           myIsWorker.set (Boolean.TRUE);
+                           r.run();
+                        }
+                     });
+                  t.setDaemon (true);
+                  return t;
+               }
+            });
+         myPool.allowCoreThreadTimeOut (true);
+      }
+      return myPool;
+   }
+
+   /**
+    * Returns <code>true</code> if the calling thread is one of the worker
+    * threads used to execute parallel loops.
+    *
+    * @return <code>true</code> if called from a worker thread
+    */
+   public static boolean isWorkerThread() {
+      return myIsWorker.get() != null;
+   }
+
+   /**
+    * Returns a number of chunks suitable for splitting a range of size
+    * <code>n</code>, such that no chunk is smaller than
+    * <code>minChunkSize</code> and there are at most <code>maxChunks</code>
+    * chunks.
+    *
+    * @param n size of the range
+    * @param maxChunks maximum number of chunks. If {@code <= 0}, the
+    * default number of threads is used.
+    * @param minChunkSize minimum number of indices per chunk
+    * @return number of chunks (at least 1)
+    */
+   public static int numChunks (int n, int maxChunks, int minChunkSize) {
+      if (maxChunks <= 0) {
+         maxChunks = getDefaultNumThreads();
+      }
+      int nchunks = n/Math.max(1,minChunkSize);
+      return Math.max (1, Math.min (nchunks, maxChunks));
+   }
+
+   /**
+    * Returns the first index of a chunk within a range.
+    *
+    * @param chunk index of the chunk
+    * @param n size of the range
+    * @param nchunks number of chunks
+    * @return first index of the chunk
+    */
+   public static int chunkStart (int chunk, int n, int nchunks) {
+      return (int)(((long)chunk*n)/nchunks);
+   }
+
+   /**
+    * Splits the range {@code [0,n)} into <code>nchunks</code> contiguous
+    * chunks and runs <code>task</code> on each of them in parallel. The
+    * calling thread processes chunk 0 and then waits for the remaining chunks
+    * to complete. If any chunk throws an exception, it is rethrown by this
+    * method after all chunks have finished. If the calling thread is
+    * interrupted while waiting, it still waits for the chunks to finish, and
+    * then restores its interrupt status and throws an {@link
+    * InternalErrorException}.
+    *
+    * @param n size of the range
+    * @param nchunks number of chunks
+    * @param task task to be applied to each chunk
+    */
+   public static void forEachChunk (int n, int nchunks, final RangeTask task) {
+      if (n <= 0) {
+         return;
+      }
+      nchunks = Math.max (1, Math.min (nchunks, n));
+      if (nchunks == 1 || isWorkerThread()) {
+         for (int c=0; c<nchunks; c++) {
+            task.run (
+               c, chunkStart (c, n, nchunks), chunkStart (c+1, n, nchunks));
+         }
+         return;
+      }
+      ThreadPoolExecutor pool = getPool();
+      ArrayList<Future<?>> futures = new ArrayList<Future<?>>(nchunks-1);
+      for (int c=1; c<nchunks; c++) {
+         final int chunk = c;
+         final int lo = chunkStart (c, n, nchunks);
+         final int hi = chunkStart (c+1, n, nchunks);
+         futures.add (pool.submit (new Runnable() {
+               public void run() {
+                  task.run (chunk, lo, hi);
+               }
+            }));
+      }
+      Throwable error = null;
+      try {
+         task.run (0, 0, chunkStart (1, n, nchunks));
+      }
+      catch (RuntimeException | Error e) {
+         error = e;
+      }
+      boolean interrupted = false;
+      for (Future<?> f : futures) {
+         // keep waiting if interrupted, since the caller may use the
+         // results of all chunks once this method returns
+         boolean done = false;
+         while (!done) {
+            try {
+               f.get();
+               done = true;
+            }
+            catch (ExecutionException e) {
+               if (error == null) {
+                  error = e.getCause();
+               }
+               done = true;
+            }
+            catch (InterruptedException e) {
+               if (error == null) {
+                  error = e;
+               }
+               interrupted = true;
+            }
+         }
+      }
+      if (interrupted) {
+         // restore the interrupt status for the caller
+         Thread.currentThread().interrupt();
+      }
+      if (error instanceof RuntimeException) {
+         throw (RuntimeException)error;
+      }
+      else if (error instanceof Error) {
+         throw (Error)error;
+      }
+      else if (error != null) {
+         throw new InternalErrorException (
+            "Parallel loop failed: " + error);
+      }
+   }
+}
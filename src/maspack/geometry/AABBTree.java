@@ -142,6 +142,7 @@ public class AABBTree extends BVTree {
          edescs[i] = new ElemDesc (elements[i]);
       }
       myRoot = buildNodesRecursively (edescs, nelems, 0);
+      myVersion++;
    }
 
    protected void updateRecursively (AABB node) {
@@ -167,6 +168,7 @@ public class AABBTree extends BVTree {
 
    public void update() {
       updateRecursively (myRoot);
+      myVersion++;
    }
 
 }
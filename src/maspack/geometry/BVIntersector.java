@@ -32,6 +32,9 @@ public class BVIntersector {
    Point3d myP1;
    Point3d myP2;
 
+   // optional cache used to accelerate mesh-mesh tree intersections
+   BVTreeCoherenceCache myCoherenceCache;
+
    public BVIntersector () {
       myTriIntersector = new TriangleIntersector();
       myP0 = new Point3d();
@@ -39,6 +42,29 @@ public class BVIntersector {
       myP2 = new Point3d();
    }
 
+   /**
+    * Returns the coherence cache used to accelerate the tree intersections
+    * in {@link #intersectMeshMesh intersectMeshMesh}, or <code>null</code>
+    * if no cache is being used.
+    *
+    * @return coherence cache, or <code>null</code>
+    */
+   public BVTreeCoherenceCache getCoherenceCache() {
+      return myCoherenceCache;
+   }
+
+   /**
+    * Sets a coherence cache to accelerate the tree intersections in {@link
+    * #intersectMeshMesh intersectMeshMesh}, when it is called repeatedly for
+    * the same pair of meshes. The results are not affected.  Specifying
+    * <code>null</code> removes the cache.
+    *
+    * @param cache coherence cache, or <code>null</code>
+    */
+   public void setCoherenceCache (BVTreeCoherenceCache cache) {
+      myCoherenceCache = cache;
+   }
+
    /**
     * Intersects the faces of two triangular meshes. The process is accelerated
     * using the default bounding volume hierarchy of each mesh.  The results
@@ -98,7 +124,12 @@ public class BVIntersector {
       ArrayList<BVNode> nodes1 = new ArrayList<BVNode>();
       ArrayList<BVNode> nodes2 = new ArrayList<BVNode>();
 
-      bvh1.intersectTree (nodes1, nodes2, bvh2, X21);
+      if (myCoherenceCache != null) {
+         myCoherenceCache.intersectTree (nodes1, nodes2, bvh1, bvh2, X21);
+      }
+      else {
+         bvh1.intersectTree (nodes1, nodes2, bvh2, X21);
+      }
       for (int i=0; i<nodes1.size(); i++) {
          intersectBoundingVolumeTriangles (
             intersections, nodes1.get(i), nodes2.get(i), X21);
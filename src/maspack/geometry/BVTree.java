@@ -28,6 +28,8 @@ public abstract class BVTree implements IsRenderable {
    protected static final double INF = Double.POSITIVE_INFINITY;
 
    protected RigidTransform3d myBvhToWorld = RigidTransform3d.IDENTITY;
+   // incremented whenever the tree is built or its volumes are updated
+   protected int myVersion = 0;
    
    /**
     * Returns an approximate "radius" for this bounding volume hierarchy.
@@ -593,6 +595,17 @@ public abstract class BVTree implements IsRenderable {
     */
    public abstract void update();
 
+   /**
+    * Returns a version number for this tree which is incremented each time
+    * the tree is built or updated. This can be used to detect when
+    * information derived from the tree's bounding volumes is out of date.
+    *
+    * @return current version number for this tree
+    */
+   public int getVersion() {
+      return myVersion;
+   }
+
    /**
     * {@inheritDoc}
     */
@@ -0,0 +1,457 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.util.ArrayList;
+
+import maspack.matrix.Matrix3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.RotationMatrix3d;
+import maspack.matrix.Vector3d;
+
+/**
+ * Exploits temporal coherence to accelerate repeated intersections between
+ * the same pair of bounding volume trees, as occurs when collision queries
+ * are performed for the same two bodies over successive time steps.
+ *
+ * <p>When the cache is (re)built, the tree descent is performed with the
+ * volumes of the first tree enlarged by a margin, and every pair of nodes
+ * whose enlarged volumes overlap is recorded, together with the child
+ * pairs that also overlap. Subsequent queries descend only through the
+ * recorded pairs, applying the usual exact overlap test. Any node pair that
+ * is not recorded was separated by more than the margin when the cache was
+ * built, and so remains disjoint as long as no point of the second tree has
+ * moved, relative to the first, by more than half the margin. The cache
+ * checks this bound at each query, using the change in the relative
+ * transform between the trees and the extent of the second tree, and
+ * rebuilds itself whenever it is exceeded or either tree has been rebuilt
+ * or updated (as indicated by {@link BVTree#getVersion}). The node pairs
+ * returned by {@link #intersectTree intersectTree} are therefore identical,
+ * and in the same order, to those returned by {@link
+ * BVTree#intersectTree(ArrayList,ArrayList,BVTree,RigidTransform3d)
+ * BVTree.intersectTree}.
+ *
+ * <p>The cache is most effective for rigid bodies, whose trees do not
+ * change. Trees which are updated at every query (such as those of
+ * deformable meshes) cause the cache to be rebuilt every time.
+ */
+public class BVTreeCoherenceCache {
+
+   /**
+    * Default margin by which node volumes are enlarged when the cache is
+    * built, expressed as a fraction of the smaller of the two root radii.
+    */
+   public static double DEFAULT_RELATIVE_MARGIN = 0.02;
+
+   private double myRelativeMargin = DEFAULT_RELATIVE_MARGIN;
+
+   // trees, and tree versions, for which the cache was built
+   private BVTree myTree1;
+   private BVTree myTree2;
+   private BVNode myRoot1;
+   private BVNode myRoot2;
+   private int myVersion1;
+   private int myVersion2;
+   // relative transform between the trees when the cache was built
+   private RigidTransform3d myXref = new RigidTransform3d();
+   // margin used when the cache was built
+   private double myMargin;
+   // bound on the distance of any point in the second tree's volumes from
+   // its local origin, together with the tree and version it was found for
+   private double myExtent2;
+   private BVTree myExtentTree;
+   private int myExtentVersion;
+   private boolean myValid = false;
+
+   // recorded node pairs, with the first child and next sibling of each
+   // pair stored as record indices (or -1)
+   private BVNode[] myNodes1 = new BVNode[0];
+   private BVNode[] myNodes2 = new BVNode[0];
+   private int[] myFirstChild = new int[0];
+   private int[] myNextSibling = new int[0];
+   private int myNumRecords = 0;
+
+   private int myNumQueries = 0;
+   private int myNumHits = 0;
+
+   // work storage for the enlarged overlap test
+   private Vector3d myC1 = new Vector3d();
+   private Vector3d myC2 = new Vector3d();
+   private Vector3d myHw1 = new Vector3d();
+   private Vector3d myHw2 = new Vector3d();
+   private Vector3d myPd = new Vector3d();
+   private RotationMatrix3d myR2 = new RotationMatrix3d();
+   private Matrix3d myDR = new Matrix3d();
+
+   public BVTreeCoherenceCache() {
+   }
+
+   /**
+    * Queries the relative margin for this cache. See {@link
+    * #setRelativeMargin}.
+    *
+    * @return relative margin
+    */
+   public double getRelativeMargin() {
+      return myRelativeMargin;
+   }
+
+   /**
+    * Sets the margin by which node volumes are enlarged when the cache is
+    * built, expressed as a fraction of the smaller of the two root
+    * radii. Larger margins allow the cache to be reused over larger motions,
+    * at the expense of recording more node pairs. The cache is rebuilt at
+    * the next query.
+    *
+    * @param margin relative margin
+    */
+   public void setRelativeMargin (double margin) {
+      myRelativeMargin = Math.max (0, margin);
+      myValid = false;
+   }
+
+   /**
+    * Returns the number of queries made on this cache since its statistics
+    * were last cleared.
+    *
+    * @return number of queries
+    */
+   public int getNumQueries() {
+      return myNumQueries;
+   }
+
+   /**
+    * Returns the number of queries that were answered using the cached node
+    * pairs, without requiring the cache to be rebuilt.
+    *
+    * @return number of cache hits
+    */
+   public int getNumHits() {
+      return myNumHits;
+   }
+
+   /**
+    * Returns the fraction of queries that were cache hits, or 0 if no
+    * queries have been made.
+    *
+    * @return cache hit rate
+    */
+   public double getHitRate() {
+      if (myNumQueries == 0) {
+         return 0;
+      }
+      return myNumHits/(double)myNumQueries;
+   }
+
+   /**
+    * Returns the number of node pairs currently recorded in the cache.
+    *
+    * @return number of cached node pairs
+    */
+   public int numCachedPairs() {
+      return myNumRecords;
+   }
+
+   /**
+    * Clears the query and hit counts.
+    */
+   public void clearStatistics() {
+      myNumQueries = 0;
+      myNumHits = 0;
+   }
+
+   /**
+    * Invalidates the cache, so that it is rebuilt at the next query.
+    */
+   public void clear() {
+      myValid = false;
+      myNumRecords = 0;
+      myTree1 = null;
+      myTree2 = null;
+      myRoot1 = null;
+      myRoot2 = null;
+      myExtentTree = null;
+   }
+
+   /**
+    * Finds the pairs of intersecting leaf nodes between two trees, taking
+    * into account their coordinate frames as specified by {@link
+    * BVTree#getBvhToWorld}. The results are identical to those of {@link
+    * BVTree#intersectTree(ArrayList,ArrayList,BVTree)
+    * bvh1.intersectTree(nodes1,nodes2,bvh2)}.
+    *
+    * @param nodes1 intersecting leaf nodes from the first tree
+    * @param nodes2 intersecting leaf nodes from the second tree
+    * @param bvh1 first tree
+    * @param bvh2 second tree
+    */
+   public void intersectTree (
+      ArrayList<BVNode> nodes1, ArrayList<BVNode> nodes2,
+      BVTree bvh1, BVTree bvh2) {
+
+      RigidTransform3d X21 = new RigidTransform3d();
+      X21.mulInverseLeft (bvh1.getBvhToWorld(), bvh2.getBvhToWorld());
+      intersectTree (nodes1, nodes2, bvh1, bvh2, X21);
+   }
+
+   /**
+    * Finds the pairs of intersecting leaf nodes between two trees, given the
+    * transform from the second tree to the first. The results are identical
+    * to those of {@link
+    * BVTree#intersectTree(ArrayList,ArrayList,BVTree,RigidTransform3d)
+    * bvh1.intersectTree(nodes1,nodes2,bvh2,X21)}.
+    *
+    * @param nodes1 intersecting leaf nodes from the first tree
+    * @param nodes2 intersecting leaf nodes from the second tree
+    * @param bvh1 first tree
+    * @param bvh2 second tree
+    * @param X21 transform from the second tree to the first
+    */
+   public void intersectTree (
+      ArrayList<BVNode> nodes1, ArrayList<BVNode> nodes2,
+      BVTree bvh1, BVTree bvh2, RigidTransform3d X21) {
+
+      if ((!(bvh1 instanceof AABBTree) && !(bvh1 instanceof OBBTree)) ||
+          (!(bvh2 instanceof AABBTree) && !(bvh2 instanceof OBBTree))) {
+         throw new IllegalArgumentException (
+            "Each bounding volume hierarchy must be an AABBTree or an OBBTree");
+      }
+      BVNodeTester tester = new BVBoxNodeTester (bvh1, bvh2);
+      myNumQueries++;
+      if (isValid (bvh1, bvh2, X21)) {
+         myNumHits++;
+         if (myNumRecords > 0) {
+            intersectRecursively (nodes1, nodes2, 0, tester, X21);
+         }
+      }
+      else {
+         rebuild (nodes1, nodes2, bvh1, bvh2, tester, X21);
+      }
+   }
+
+   /**
+    * Returns true if the cache can be used to intersect the specified trees.
+    */
+   private boolean isValid (BVTree bvh1, BVTree bvh2, RigidTransform3d X21) {
+      if (!myValid ||
+          bvh1 != myTree1 || bvh2 != myTree2 ||
+          bvh1.getRoot() != myRoot1 || bvh2.getRoot() != myRoot2 ||
+          bvh1.getVersion() != myVersion1 || bvh2.getVersion() != myVersion2) {
+         return false;
+      }
+      // bound the displacement of any point of the second tree's volumes,
+      // relative to the first, since the cache was built
+      myDR.sub (X21.R, myXref.R);
+      double disp = myDR.frobeniusNorm()*myExtent2 + X21.p.distance (myXref.p);
+      return disp <= myMargin/2;
+   }
+
+   private void rebuild (
+      ArrayList<BVNode> nodes1, ArrayList<BVNode> nodes2,
+      BVTree bvh1, BVTree bvh2, BVNodeTester tester, RigidTransform3d X21) {
+
+      myTree1 = bvh1;
+      myTree2 = bvh2;
+      myRoot1 = bvh1.getRoot();
+      myRoot2 = bvh2.getRoot();
+      myVersion1 = bvh1.getVersion();
+      myVersion2 = bvh2.getVersion();
+      myXref.set (X21);
+      myNumRecords = 0;
+      if (myRoot1 == null || myRoot2 == null) {
+         myValid = false;
+         return;
+      }
+      if (bvh2 != myExtentTree || bvh2.getVersion() != myExtentVersion) {
+         myExtent2 = computeExtent (myRoot2);
+         myExtentTree = bvh2;
+         myExtentVersion = bvh2.getVersion();
+      }
+      myMargin = myRelativeMargin*Math.min (
+         myRoot1.getRadius(), myRoot2.getRadius());
+      buildRecursively (nodes1, nodes2, myRoot1, myRoot2, true, tester, X21);
+      myValid = true;
+   }
+
+   /**
+    * Returns the maximum distance from the origin of any point contained in
+    * the bounding spheres of a node and its descendants.
+    */
+   private double computeExtent (BVNode node) {
+      node.getCenter (myC2);
+      double extent = myC2.norm() + node.getRadius();
+      BVNode child = node.myFirstChild;
+      while (child != null) {
+         extent = Math.max (extent, computeExtent (child));
+         child = child.myNext;
+      }
+      return extent;
+   }
+
+   private int addRecord (BVNode node1, BVNode node2) {
+      if (myNumRecords == myNodes1.length) {
+         int cap = Math.max (64, 2*myNumRecords);
+         BVNode[] nodes1 = new BVNode[cap];
+         BVNode[] nodes2 = new BVNode[cap];
+         int[] firstChild = new int[cap];
+         int[] nextSibling = new int[cap];
+         System.arraycopy (myNodes1, 0, nodes1, 0, myNumRecords);
+         System.arraycopy (myNodes2, 0, nodes2, 0, myNumRecords);
+         System.arraycopy (myFirstChild, 0, firstChild, 0, myNumRecords);
+         System.arraycopy (myNextSibling, 0, nextSibling, 0, myNumRecords);
+         myNodes1 = nodes1;
+         myNodes2 = nodes2;
+         myFirstChild = firstChild;
+         myNextSibling = nextSibling;
+      }
+      int idx = myNumRecords++;
+      myNodes1[idx] = node1;
+      myNodes2[idx] = node2;
+      myFirstChild[idx] = -1;
+      myNextSibling[idx] = -1;
+      return idx;
+   }
+
+   /**
+    * Links a child record into the child list of a parent record, given the
+    * previous child (or -1), and returns the new last child.
+    */
+   private int linkChild (int parent, int last, int child) {
+      if (child == -1) {
+         return last;
+      }
+      if (last == -1) {
+         myFirstChild[parent] = child;
+      }
+      else {
+         myNextSibling[last] = child;
+      }
+      return child;
+   }
+
+   /**
+    * Records the node pairs whose enlarged volumes overlap, while also
+    * collecting the intersecting leaf nodes in exactly the same way as
+    * BVTree.recursivelyIntersectTree(). <code>exact</code> indicates
+    * whether all the ancestors of the pair passed the exact overlap
+    * test. Returns the index of the new record, or -1 if the pair was not
+    * recorded.
+    */
+   private int buildRecursively (
+      ArrayList<BVNode> nodes1, ArrayList<BVNode> nodes2,
+      BVNode node1, BVNode node2, boolean exact,
+      BVNodeTester tester, RigidTransform3d X21) {
+
+      boolean overlap = exact && !tester.isDisjoint (node1, node2, X21);
+      if (!overlap && isDisjointWithMargin (node1, node2, X21)) {
+         return -1;
+      }
+      int rec = addRecord (node1, node2);
+      int last = -1;
+      if (node1.isLeaf() && node2.isLeaf()) {
+         if (overlap) {
+            nodes1.add (node1);
+            nodes2.add (node2);
+         }
+      }
+      else if (node1.isLeaf()) {
+         BVNode child2 = node2.myFirstChild;
+         while (child2 != null) {
+            last = linkChild (rec, last, buildRecursively (
+               nodes1, nodes2, node1, child2, overlap, tester, X21));
+            child2 = child2.myNext;
+         }
+      }
+      else if (node2.isLeaf()) {
+         BVNode child1 = node1.myFirstChild;
+         while (child1 != null) {
+            last = linkChild (rec, last, buildRecursively (
+               nodes1, nodes2, child1, node2, overlap, tester, X21));
+            child1 = child1.myNext;
+         }
+      }
+      else {
+         BVNode child1 = node1.myFirstChild;
+         while (child1 != null) {
+            BVNode child2 = node2.myFirstChild;
+            while (child2 != null) {
+               last = linkChild (rec, last, buildRecursively (
+                  nodes1, nodes2, child1, child2, overlap, tester, X21));
+               child2 = child2.myNext;
+            }
+            child1 = child1.myNext;
+         }
+      }
+      return rec;
+   }
+
+   /**
+    * Descends through the recorded node pairs using the exact overlap test.
+    */
+   private void intersectRecursively (
+      ArrayList<BVNode> nodes1, ArrayList<BVNode> nodes2,
+      int rec, BVNodeTester tester, RigidTransform3d X21) {
+
+      BVNode node1 = myNodes1[rec];
+      BVNode node2 = myNodes2[rec];
+      if (!tester.isDisjoint (node1, node2, X21)) {
+         if (node1.isLeaf() && node2.isLeaf()) {
+            nodes1.add (node1);
+            nodes2.add (node2);
+         }
+         else {
+            int child = myFirstChild[rec];
+            while (child != -1) {
+               intersectRecursively (nodes1, nodes2, child, tester, X21);
+               child = myNextSibling[child];
+            }
+         }
+      }
+   }
+
+   /**
+    * Sets the center and half widths of a box node, and returns its
+    * orientation.
+    */
+   private RotationMatrix3d getBox (BVNode node, Vector3d c, Vector3d hw) {
+      if (node instanceof OBB) {
+         OBB obb = (OBB)node;
+         c.set (obb.myX.p);
+         hw.set (obb.myHalfWidths);
+         return obb.myX.R;
+      }
+      else {
+         AABB aabb = (AABB)node;
+         c.add (aabb.myMin, aabb.myMax);
+         c.scale (0.5);
+         hw.sub (aabb.myMax, aabb.myMin);
+         hw.scale (0.5);
+         return RotationMatrix3d.IDENTITY;
+      }
+   }
+
+   /**
+    * Returns true if two nodes are disjoint when the first is enlarged by
+    * the margin. If true, the separation between the unenlarged volumes
+    * exceeds the margin.
+    */
+   private boolean isDisjointWithMargin (
+      BVNode node1, BVNode node2, RigidTransform3d X21) {
+
+      RotationMatrix3d R1 = getBox (node1, myC1, myHw1);
+      RotationMatrix3d R2 = getBox (node2, myC2, myHw2);
+      myHw1.x += myMargin;
+      myHw1.y += myMargin;
+      myHw1.z += myMargin;
+      myPd.transform (X21.R, myC2);
+      myPd.add (X21.p);
+      myPd.sub (myC1);
+      myR2.mul (X21.R, R2);
+      return BVBoxNodeTester.isDisjoint (
+         myHw1, myHw2, R1, myR2, myPd, Vector3d.ZERO);
+   }
+}
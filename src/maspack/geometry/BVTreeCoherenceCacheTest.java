@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import java.util.ArrayList;
+
+import maspack.geometry.MeshFactory.FaceType;
+import maspack.matrix.AxisAngle;
+import maspack.matrix.Point3d;
+import maspack.matrix.RigidTransform3d;
+import maspack.matrix.RotationMatrix3d;
+import maspack.matrix.Vector3d;
+import maspack.util.RandomGenerator;
+import maspack.util.TestException;
+import maspack.util.UnitTest;
+
+/**
+ * Checks that BVTreeCoherenceCache produces exactly the same node pairs as
+ * BVTree.intersectTree for trees undergoing small and large relative
+ * motions.
+ */
+public class BVTreeCoherenceCacheTest extends UnitTest {
+
+   BVTree createTree (PolygonalMesh mesh, boolean obb) {
+      if (obb) {
+         return new OBBTree (mesh, 2);
+      }
+      else {
+         return new AABBTree (mesh);
+      }
+   }
+
+   void checkSameNodes (
+      String msg, ArrayList<BVNode> nodes, ArrayList<BVNode> check) {
+      if (nodes.size() != check.size()) {
+         throw new TestException (
+            msg + ": " + nodes.size() + " nodes, expected " + check.size());
+      }
+      for (int i=0; i<nodes.size(); i++) {
+         if (nodes.get(i) != check.get(i)) {
+            throw new TestException (msg + ": nodes differ at index " + i);
+         }
+      }
+   }
+
+   void checkQuery (
+      BVTreeCoherenceCache cache, BVTree bvh1, BVTree bvh2) {
+
+      ArrayList<BVNode> nodes1 = new ArrayList<BVNode>();
+      ArrayList<BVNode> nodes2 = new ArrayList<BVNode>();
+      cache.intersectTree (nodes1, nodes2, bvh1, bvh2);
+
+      ArrayList<BVNode> check1 = new ArrayList<BVNode>();
+      ArrayList<BVNode> check2 = new ArrayList<BVNode>();
+      bvh1.intersectTree (check1, check2, bvh2);
+
+      checkSameNodes ("nodes1", nodes1, check1);
+      checkSameNodes ("nodes2", nodes2, check2);
+   }
+
+   /**
+    * Applies a random incremental motion to a transform.
+    */
+   void perturb (RigidTransform3d X, double tstep, double rstep) {
+      Vector3d dp = new Vector3d();
+      dp.setRandom();
+      X.p.scaledAdd (tstep, dp);
+      // keep the origin within a region where the meshes overlap
+      X.p.x = Math.min (1.8, Math.max (0.5, X.p.x));
+      X.p.y = Math.min (0.8, Math.max (-0.8, X.p.y));
+      X.p.z = Math.min (0.8, Math.max (-0.8, X.p.z));
+      Vector3d axis = new Vector3d();
+      axis.setRandom();
+      RotationMatrix3d R = new RotationMatrix3d (
+         new AxisAngle (axis, RandomGenerator.nextDouble (-rstep, rstep)));
+      X.R.mul (R);
+   }
+
+   void testMovingMeshes (
+      PolygonalMesh mesh1, boolean obb1, PolygonalMesh mesh2, boolean obb2) {
+
+      BVTree bvh1 = createTree (mesh1, obb1);
+      BVTree bvh2 = createTree (mesh2, obb2);
+
+      RigidTransform3d X1 = new RigidTransform3d ();
+      X1.setRandom();
+      RigidTransform3d X2 = new RigidTransform3d (1.2, 0, 0);
+
+      BVTreeCoherenceCache cache = new BVTreeCoherenceCache();
+      int nsteps = 400;
+      for (int i=0; i<nsteps; i++) {
+         if (i%100 == 99) {
+            // occasional large jump, which must cause a rebuild
+            perturb (X2, 0.5, 1.0);
+         }
+         else {
+            perturb (X2, 0.0005, 0.0005);
+         }
+         RigidTransform3d X2W = new RigidTransform3d();
+         X2W.mul (X1, X2);
+         bvh1.setBvhToWorld (X1);
+         bvh2.setBvhToWorld (X2W);
+         checkQuery (cache, bvh1, bvh2);
+      }
+      check ("no cache hits", cache.getNumHits() > 0);
+      check ("no cache misses", cache.getNumHits() < cache.getNumQueries());
+
+      // changing the mesh should invalidate the cache
+      for (Vertex3d vtx : mesh2.getVertices()) {
+         Point3d pnt = vtx.getPosition();
+         pnt.scale (1.05);
+      }
+      bvh2.update();
+      int nhits = cache.getNumHits();
+      checkQuery (cache, bvh1, bvh2);
+      checkEquals ("hits after update", cache.getNumHits(), nhits);
+      checkQuery (cache, bvh1, bvh2);
+      checkEquals ("hits after repeated query", cache.getNumHits(), nhits+1);
+   }
+
+   public void test() {
+      boolean[] obbs = new boolean[] { true, false };
+      for (boolean obb1 : obbs) {
+         for (boolean obb2 : obbs) {
+            testMovingMeshes (
+               MeshFactory.createSphere (1.0, 12),
+               obb1, MeshFactory.createSphere (0.8, 12), obb2);
+            testMovingMeshes (
+               MeshFactory.createBox (
+                  1.0, 1.5, 2.0, Point3d.ZERO, 5, 5, 5, false, FaceType.TRI),
+               obb1, MeshFactory.createSphere (1.0, 12), obb2);
+         }
+      }
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      BVTreeCoherenceCacheTest tester = new BVTreeCoherenceCacheTest();
+      tester.runtest();
+   }
+}
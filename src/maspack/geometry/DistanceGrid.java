@@ -25,6 +25,7 @@ import maspack.geometry.DistanceGridSurfCalc.*;
 import maspack.geometry.BVFeatureQuery.*;
 import maspack.util.InternalErrorException;
 import maspack.util.*;
+import maspack.concurrency.ParallelLoop;
 
 /**
  * Implements a distance field on a regular 3D grid. Distances, normals and
@@ -121,6 +122,12 @@ import maspack.util.*;
  * (UBC) in the <code>makelevelset3</code> class of his <a
  * href="http://www.cs.ubc.ca/~rbridson/download/common_2008_nov_12.tar.gz">
  * common code set</a>.
+ *
+ * <p>For large grids, feature rasterization and sweeping are performed in
+ * parallel (see {@link #setParallel}), producing results identical to
+ * the serial computation. Once computed, a grid can be compressed into a
+ * {@link NarrowBandDistanceGrid}, which only stores distances close to the
+ * features.
  */
 public class DistanceGrid extends ScalarGridBase {
 
@@ -181,6 +188,37 @@ public class DistanceGrid extends ScalarGridBase {
       DistanceMethod.BRIDSON;
    protected DistanceMethod myDistanceMethod = DEFAULT_DISTANCE_METHOD;
 
+   public static boolean DEFAULT_PARALLEL = true;
+   protected boolean myParallelP = DEFAULT_PARALLEL;
+
+   /**
+    * Minimum number of grid vertices for which feature-based distance
+    * computation is done in parallel.
+    */
+   public static int parallelMinVertices = 32768;
+
+   /**
+    * Sets whether feature-based distance computations for this grid should
+    * be done in parallel when the grid has at least {@link
+    * #parallelMinVertices} vertices. The computed distances are the same
+    * either way.
+    *
+    * @param enable if {@code true}, enables parallel computation
+    */
+   public void setParallel (boolean enable) {
+      myParallelP = enable;
+   }
+
+   /**
+    * Queries whether feature-based distance computations for this grid may be
+    * done in parallel.
+    *
+    * @return {@code true} if parallel computation is enabled
+    */
+   public boolean getParallel() {
+      return myParallelP;
+   }
+
    /**
     * Sets the method used to compute distance values from polygonal meshes.
     * Specifying {@code null} sets the method to the default value,
@@ -1171,117 +1209,46 @@ public class DistanceGrid extends ScalarGridBase {
             zIntersectCount[i] = 0;
          }
       }
-      Point3d featPnt    = new Point3d();
-      Point3d gridPnt    = new Point3d();
-      Vector3i gridMin   = new Vector3i();
-      Vector3i gridMax   = new Vector3i();
-      Point3d nearPntLoc = new Point3d();
-      Point3d featPntLoc = new Point3d();
-      Vector3i hi = new Vector3i();
-      Vector3i lo = new Vector3i();
-
-      // For every feature ...
-      for (int t=0; t<features.length; ++t) {
-         // Find the vertex-aligned parallelpiped containing the feature's
-         // bounding box.
-         Feature feature = features[t];
-
-         gridMin.set (myNx+1, myNy+1, myNz+1);
-         gridMax.set (-1, -1, -1);
-         double maxz = -INF; // max, minz of the feature in grid coords
-         double minz = INF;
-         for (int i=0; i<feature.numPoints(); i++) {
-            featPnt = feature.getPoint(i);
-            
-            myGridToLocal.inverseTransformPnt (gridPnt, featPnt);
-
-            lo.x = clip((int)gridPnt.x, 0, myNx-1);
-            lo.y = clip((int)gridPnt.y, 0, myNy-1);
-            lo.z = clip((int)gridPnt.z, 0, myNz-1);
-            hi.x = clip((int)(gridPnt.x+1), 0, myNx-1);
-            hi.y = clip((int)(gridPnt.y+1), 0, myNy-1);
-            hi.z = clip((int)(gridPnt.z+1), 0, myNz-1);
-            if (gridPnt.z < minz) {
-               minz = gridPnt.z;
-            }
-            if (gridPnt.z > maxz) {
-               maxz = gridPnt.z;
-            }
-            lo.updateBounds (gridMin, gridMax);
-            hi.updateBounds (gridMin, gridMax);
-         }
-
-         // Go through the entire parallelpiped. Calculate distance and
-         // closestFeature.
-         for (int zk = gridMin.z; zk <= gridMax.z; zk++) {
-            for (int yj = gridMin.y; yj <= gridMax.y; yj++) {
-               for (int xi = gridMin.x; xi <= gridMax.x; xi++) {
-                  // Get features coordinates
-                  featPntLoc.set (xi, yj, zk);
-                  myGridToLocal.transformPnt (featPntLoc, featPntLoc);
-                  // Get the distance from this point to the Feature.
-                  feature.nearestPoint (nearPntLoc, featPntLoc);
-                  double distance = featPntLoc.distance (nearPntLoc);
-                  int index = xyzIndicesToVertex (xi, yj, zk);
-                  if (index >= numv) {
-                     System.out.println ("coords = " +xi+" "+yj+" "+zk);
-                  }
-                  if (distance < phi[index]) {
-                     phi[index] = distance;
-                     if (closestFeatureIdxs != null) {
-                        closestFeatureIdxs [index] = t;
-                     }
-                  }
-               }
-            }
-         }
-
-         if (signed) {
-            if (!(feature instanceof Face)) {
+      boolean parallel = (myParallelP && numv >= parallelMinVertices);
+      if (signed) {
+         for (int t=0; t<features.length; ++t) {
+            if (!(features[t] instanceof Face)) {
                throw new IllegalArgumentException (
                   "Signed grid can only be created if all features are Faces");
             }
-            Face face = (Face)feature;
-            Point3d bot = new Point3d();
-            Point3d top = new Point3d();
-            // Ray-casts from bottom x-y plane, upwards, counting intersections.
-            // We're building intersectionCount[] to use in ray casting below.
-            for (int yj = gridMin.y; yj <= gridMax.y; yj++) {
-               for (int xi = gridMin.x; xi <= gridMax.x; xi++) {
-
-                  Point3d ipnt = new Point3d();
-                  int res = 0;
-                  if (maxz >= 0) {
-                     myGridToLocal.transformPnt (
-                        bot, new Point3d (xi, yj, minz-1));
-                     myGridToLocal.transformPnt (
-                        top, new Point3d (xi, yj, maxz+1));
-                     
-                     res = RobustPreds.intersectSegmentTriangle (
-                        ipnt, bot, top, face, maxDist, /*worldCoords=*/false);
-                  }
-                  
-                  if (res > 0) {
-                     myGridToLocal.inverseTransformPnt (gridPnt, ipnt);
-                     int zInterval = clip((int)Math.ceil(gridPnt.z), 0, myNz-1);
-                     ++zIntersectCount [xyzIndicesToVertex (xi, yj, zInterval)];
-                  } // point in triangle
-               } // x
-            } // y 
+         }
+      }
+      if (parallel) {
+         rasterizeFeaturesInParallel (
+            phi, closestFeatureIdxs, zIntersectCount, features, maxDist);
+      }
+      else {
+         int[] bounds = new int[6];
+         double[] zrange = new double[2];
+         for (int t=0; t<features.length; ++t) {
+            computeFeatureBounds (bounds, zrange, features[t]);
+            rasterizeFeature (
+               phi, closestFeatureIdxs, t, features[t], bounds,
+               0, myNz-1);
+            if (signed) {
+               castFeatureRays (
+                  zIntersectCount, (Face)features[t], bounds, zrange,
+                  0, myNy-1, maxDist);
+            }
          }
       }
 
       // Done all triangles.
       // Sweep, propagating values throughout the grid volume.
       for (int pass = 0; pass < 2; pass++) {
-         sweep(phi, +1, +1, +1, closestFeatureIdxs, features);
-         sweep(phi, -1, -1, -1, closestFeatureIdxs, features);
-         sweep(phi, +1, +1, -1, closestFeatureIdxs, features);
-         sweep(phi, -1, -1, +1, closestFeatureIdxs, features);
-         sweep(phi, +1, -1, +1, closestFeatureIdxs, features);
-         sweep(phi, -1, +1, -1, closestFeatureIdxs, features);
-         sweep(phi, +1, -1, -1, closestFeatureIdxs, features);
-         sweep(phi, -1, +1, +1, closestFeatureIdxs, features);
+         sweep(phi, +1, +1, +1, closestFeatureIdxs, features, parallel);
+         sweep(phi, -1, -1, -1, closestFeatureIdxs, features, parallel);
+         sweep(phi, +1, +1, -1, closestFeatureIdxs, features, parallel);
+         sweep(phi, -1, -1, +1, closestFeatureIdxs, features, parallel);
+         sweep(phi, +1, -1, +1, closestFeatureIdxs, features, parallel);
+         sweep(phi, -1, +1, -1, closestFeatureIdxs, features, parallel);
+         sweep(phi, +1, -1, -1, closestFeatureIdxs, features, parallel);
+         sweep(phi, -1, +1, +1, closestFeatureIdxs, features, parallel);
       }
 
       if (signed) {
@@ -1308,6 +1275,198 @@ public class DistanceGrid extends ScalarGridBase {
       //System.out.println ("BRIDSON: " + timer.result(1));
    }
 
+   /**
+    * Computes the range of grid vertices whose cells contain a feature's
+    * bounding box, returned in <code>bounds</code> as (xmin, ymin, zmin,
+    * xmax, ymax, zmax), together with the feature's z range in grid
+    * coordinates.
+    */
+   private void computeFeatureBounds (
+      int[] bounds, double[] zrange, Feature feature) {
+
+      Point3d gridPnt = new Point3d();
+      int xmin = myNx+1, ymin = myNy+1, zmin = myNz+1;
+      int xmax = -1, ymax = -1, zmax = -1;
+      double maxz = -INF; // max, minz of the feature in grid coords
+      double minz = INF;
+      for (int i=0; i<feature.numPoints(); i++) {
+         myGridToLocal.inverseTransformPnt (gridPnt, feature.getPoint(i));
+
+         int lox = clip((int)gridPnt.x, 0, myNx-1);
+         int loy = clip((int)gridPnt.y, 0, myNy-1);
+         int loz = clip((int)gridPnt.z, 0, myNz-1);
+         int hix = clip((int)(gridPnt.x+1), 0, myNx-1);
+         int hiy = clip((int)(gridPnt.y+1), 0, myNy-1);
+         int hiz = clip((int)(gridPnt.z+1), 0, myNz-1);
+         if (gridPnt.z < minz) {
+            minz = gridPnt.z;
+         }
+         if (gridPnt.z > maxz) {
+            maxz = gridPnt.z;
+         }
+         xmin = Math.min (xmin, lox);
+         ymin = Math.min (ymin, loy);
+         zmin = Math.min (zmin, loz);
+         xmax = Math.max (xmax, hix);
+         ymax = Math.max (ymax, hiy);
+         zmax = Math.max (zmax, hiz);
+      }
+      bounds[0] = xmin;
+      bounds[1] = ymin;
+      bounds[2] = zmin;
+      bounds[3] = xmax;
+      bounds[4] = ymax;
+      bounds[5] = zmax;
+      zrange[0] = minz;
+      zrange[1] = maxz;
+   }
+
+   /**
+    * Computes the distance from a feature to each grid vertex within its
+    * bounds, restricted to the z planes in [zlo, zhi], and updates the
+    * distance and nearest feature of each vertex accordingly.
+    */
+   private void rasterizeFeature (
+      double[] phi, int[] closestFeatureIdxs, int t, Feature feature,
+      int[] bounds, int zlo, int zhi) {
+
+      Point3d nearPntLoc = new Point3d();
+      Point3d featPntLoc = new Point3d();
+      int z0 = Math.max (bounds[2], zlo);
+      int z1 = Math.min (bounds[5], zhi);
+      // Go through the entire parallelpiped. Calculate distance and
+      // closestFeature.
+      for (int zk = z0; zk <= z1; zk++) {
+         for (int yj = bounds[1]; yj <= bounds[4]; yj++) {
+            for (int xi = bounds[0]; xi <= bounds[3]; xi++) {
+               // Get features coordinates
+               featPntLoc.set (xi, yj, zk);
+               myGridToLocal.transformPnt (featPntLoc, featPntLoc);
+               // Get the distance from this point to the Feature.
+               feature.nearestPoint (nearPntLoc, featPntLoc);
+               double distance = featPntLoc.distance (nearPntLoc);
+               int index = xyzIndicesToVertex (xi, yj, zk);
+               if (distance < phi[index]) {
+                  phi[index] = distance;
+                  if (closestFeatureIdxs != null) {
+                     closestFeatureIdxs [index] = t;
+                  }
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Casts rays upward along z from the bottom x-y plane, for grid columns
+    * within a face's bounds and with y indices in [ylo, yhi], and records
+    * where they intersect the face in <code>zIntersectCount</code>.
+    */
+   private void castFeatureRays (
+      int[] zIntersectCount, Face face, int[] bounds, double[] zrange,
+      int ylo, int yhi, double maxDist) {
+
+      double minz = zrange[0];
+      double maxz = zrange[1];
+      if (maxz < 0) {
+         return;
+      }
+      Point3d bot = new Point3d();
+      Point3d top = new Point3d();
+      Point3d gridPnt = new Point3d();
+      Point3d ipnt = new Point3d();
+      int y0 = Math.max (bounds[1], ylo);
+      int y1 = Math.min (bounds[4], yhi);
+      // Ray-casts from bottom x-y plane, upwards, counting intersections.
+      // We're building intersectionCount[] to use in ray casting below.
+      for (int yj = y0; yj <= y1; yj++) {
+         for (int xi = bounds[0]; xi <= bounds[3]; xi++) {
+            myGridToLocal.transformPnt (
+               bot, new Point3d (xi, yj, minz-1));
+            myGridToLocal.transformPnt (
+               top, new Point3d (xi, yj, maxz+1));
+            int res = RobustPreds.intersectSegmentTriangle (
+               ipnt, bot, top, face, maxDist, /*worldCoords=*/false);
+            if (res > 0) {
+               myGridToLocal.inverseTransformPnt (gridPnt, ipnt);
+               int zInterval = clip((int)Math.ceil(gridPnt.z), 0, myNz-1);
+               ++zIntersectCount [xyzIndicesToVertex (xi, yj, zInterval)];
+            } // point in triangle
+         } // x
+      } // y 
+   }
+
+   /**
+    * Parallel version of the feature rasterization in calculatePhi(). The
+    * distance computation is partitioned into slabs of z planes, and the ray
+    * casting into slabs of y rows, so that each thread writes to a disjoint
+    * set of vertices. Since each vertex still sees the features in the same
+    * order, the results are identical to the serial computation.
+    */
+   private void rasterizeFeaturesInParallel (
+      final double[] phi, final int[] closestFeatureIdxs,
+      final int[] zIntersectCount, final Feature[] features,
+      final double maxDist) {
+
+      final int nfeats = features.length;
+      final int[] bounds = new int[6*nfeats];
+      final double[] zranges = new double[2*nfeats];
+      // make sure that lazily computed face normals are set before the
+      // features are accessed concurrently
+      for (int t=0; t<nfeats; t++) {
+         if (features[t] instanceof Face) {
+            ((Face)features[t]).getNormal();
+         }
+      }
+      ParallelLoop.forEachChunk (
+         nfeats, ParallelLoop.numChunks (nfeats, 0, 256),
+         new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               int[] bnds = new int[6];
+               double[] zrng = new double[2];
+               for (int t=lo; t<hi; t++) {
+                  computeFeatureBounds (bnds, zrng, features[t]);
+                  System.arraycopy (bnds, 0, bounds, 6*t, 6);
+                  System.arraycopy (zrng, 0, zranges, 2*t, 2);
+               }
+            }
+         });
+      ParallelLoop.forEachChunk (
+         myNz, ParallelLoop.numChunks (myNz, 0, 1),
+         new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               int[] bnds = new int[6];
+               for (int t=0; t<nfeats; t++) {
+                  if (bounds[6*t+2] < hi && bounds[6*t+5] >= lo) {
+                     System.arraycopy (bounds, 6*t, bnds, 0, 6);
+                     rasterizeFeature (
+                        phi, closestFeatureIdxs, t, features[t], bnds,
+                        lo, hi-1);
+                  }
+               }
+            }
+         });
+      if (zIntersectCount != null) {
+         ParallelLoop.forEachChunk (
+            myNy, ParallelLoop.numChunks (myNy, 0, 1),
+            new ParallelLoop.RangeTask() {
+               public void run (int chunk, int lo, int hi) {
+                  int[] bnds = new int[6];
+                  double[] zrng = new double[2];
+                  for (int t=0; t<nfeats; t++) {
+                     if (bounds[6*t+1] < hi && bounds[6*t+4] >= lo) {
+                        System.arraycopy (bounds, 6*t, bnds, 0, 6);
+                        System.arraycopy (zranges, 2*t, zrng, 0, 2);
+                        castFeatureRays (
+                           zIntersectCount, (Face)features[t], bnds, zrng,
+                           lo, hi-1, maxDist);
+                     }
+                  }
+               }
+            });
+      }
+   }
+
    /** 
     * Calculates the normal at a vertex on the grid, using numeric
     * differentiation.
@@ -1976,6 +2135,57 @@ public class DistanceGrid extends ScalarGridBase {
    protected void sweep (
       double[] phi, int dx, int dy, int dz, 
       int[] featIdxs, Feature[] features) {
+      sweep (phi, dx, dy, dz, featIdxs, features, /*parallel=*/false);
+   }
+
+   /**
+    * Sweeps across the entire grid, propagating distance values, optionally
+    * in parallel. Each x row of vertices depends only on itself and on the
+    * preceding rows along y and z, so the rows along each anti-diagonal of
+    * the y-z plane can be processed concurrently. This gives the same
+    * results as the serial sweep.
+    *
+    * @param phi containts the distance field
+    * @param dx x direction of sweep
+    * @param dy y direction of sweep
+    * @param dz z direction of sweep
+    * @param featIdxs index of nearest feature at each vertex
+    * @param features features being used to compute the grid
+    * @param parallel if {@code true}, performs the sweep in parallel
+    */
+   protected void sweep (
+      final double[] phi, final int dx, final int dy, final int dz, 
+      final int[] featIdxs, final Feature[] features, boolean parallel) {
+
+      if (parallel && myNy > 2 && myNz > 2) {
+         final int numy = myNy-1; // number of rows swept along y and z
+         final int numz = myNz-1;
+         final int y0 = (dy > 0 ? 1 : myNy-2);
+         final int z0 = (dz > 0 ? 1 : myNz-2);
+         int minRows = Math.max (1, 1024/myNx);
+         for (int diag=0; diag<numy+numz-1; diag++) {
+            // rows (a,b) with a+b = diag, 0 <= a < numy, 0 <= b < numz
+            final int amin = Math.max (0, diag-numz+1);
+            final int amax = Math.min (numy-1, diag);
+            final int d = diag;
+            int nrows = amax-amin+1;
+            ParallelLoop.forEachChunk (
+               nrows, ParallelLoop.numChunks (nrows, 0, minRows),
+               new ParallelLoop.RangeTask() {
+                  public void run (int chunk, int lo, int hi) {
+                     Point3d pc = new Point3d();
+                     Point3d p1 = new Point3d();
+                     for (int a=amin+lo; a<amin+hi; a++) {
+                        int y = y0 + a*dy;
+                        int z = z0 + (d-a)*dz;
+                        sweepRow (
+                           phi, dx, dy, dz, y, z, featIdxs, features, pc, p1);
+                     }
+                  }
+               });
+         }
+         return;
+      }
 
       Point3d pc = new Point3d();
       Point3d p1 = new Point3d();
@@ -2009,27 +2219,46 @@ public class DistanceGrid extends ScalarGridBase {
       }
       for (int z = z0; z != z1; z += dz) {
          for (int y = y0; y != y1; y += dy) {
-            for (int x = x0; x != x1; x += dx) {
-               // What are the neighbours? Depending on dx,dy,dz...
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx,    y   , z, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z,    x, y-dy   , z, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx, y-dy   , z, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z,    x,    y, z-dz, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx,    y, z-dz, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z,    x, y-dy, z-dz, pc, p1, features, featIdxs);
-               checkNeighbouringVertex (
-                  phi, x, y, z, x-dx, y-dy, z-dz, pc, p1, features, featIdxs);
-            }
+            sweepRow (phi, dx, dy, dz, y, z, featIdxs, features, pc, p1);
          }
       }
    }
 
+   /**
+    * Sweeps along a single x row of vertices with indices y and z.
+    */
+   private void sweepRow (
+      double[] phi, int dx, int dy, int dz, int y, int z,
+      int[] featIdxs, Feature[] features, Point3d pc, Point3d p1) {
+
+      int x0, x1;
+      if (dx > 0) {
+         x0 = 1;
+         x1 = myNx;
+      }
+      else {
+         x0 = myNx-2;  // sweeps backwards
+         x1 = -1;
+      }
+      for (int x = x0; x != x1; x += dx) {
+         // What are the neighbours? Depending on dx,dy,dz...
+         checkNeighbouringVertex (
+            phi, x, y, z, x-dx,    y   , z, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z,    x, y-dy   , z, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z, x-dx, y-dy   , z, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z,    x,    y, z-dz, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z, x-dx,    y, z-dz, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z,    x, y-dy, z-dz, pc, p1, features, featIdxs);
+         checkNeighbouringVertex (
+            phi, x, y, z, x-dx, y-dy, z-dz, pc, p1, features, featIdxs);
+      }
+   }
+
    /**
     * Returns the features, if any, associated with this distance
     * grid Features will be associated with the field if they were used to
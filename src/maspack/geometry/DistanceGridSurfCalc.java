@@ -473,7 +473,7 @@ public class DistanceGridSurfCalc {
       }
    }
 
-   private static void createConnectivityIfNecessary() {
+   private static synchronized void createConnectivityIfNecessary() {
       if (myFaceTets == null) {
          createConnectivity();
       }
@@ -511,9 +511,59 @@ public class DistanceGridTest extends UnitTest {
 
    }
 
+   /**
+    * Checks that parallel computation of an unsigned grid gives the same
+    * distances and nearest features as serial computation.
+    */
+   private void testParallelConstruction() {
+      PolygonalMesh torus = MeshFactory.createTorus (1.0, 0.5, 24, 24);
+      RigidTransform3d TCL = new RigidTransform3d();
+      TCL.setRandom();
+
+      int minVertices = DistanceGrid.parallelMinVertices;
+      DistanceGrid.parallelMinVertices = 0;
+      try {
+         for (int maxRes : new int[] { 2, 17, 40 }) {
+            for (RigidTransform3d T : new RigidTransform3d[] { null, TCL }) {
+               DistanceGrid serial = new DistanceGrid();
+               serial.setParallel (false);
+               serial.computeFromFeatures (
+                  torus.getFaces(), 0.1, T, maxRes, /*signed=*/false);
+               DistanceGrid parallel = new DistanceGrid();
+               parallel.setParallel (true);
+               parallel.computeFromFeatures (
+                  torus.getFaces(), 0.1, T, maxRes, /*signed=*/false);
+
+               double[] dserial = serial.getVertexDistances();
+               double[] dparallel = parallel.getVertexDistances();
+               checkEquals (
+                  "parallel number of vertices",
+                  dparallel.length, dserial.length);
+               for (int vi=0; vi<dserial.length; vi++) {
+                  if (dserial[vi] != dparallel[vi]) {
+                     throw new TestException (
+                        "parallel distance at vertex "+vi+" is "+
+                        dparallel[vi]+", expected "+dserial[vi]);
+                  }
+                  if (serial.getClosestFeature(vi) !=
+                      parallel.getClosestFeature(vi)) {
+                     throw new TestException (
+                        "parallel nearest feature differs at vertex "+vi);
+                  }
+               }
+            }
+         }
+      }
+      finally {
+         DistanceGrid.parallelMinVertices = minVertices;
+      }
+   }
+
    public void test() {
       double EPS = 1e-14;
 
+      testParallelConstruction();
+
       PolygonalMesh torus = MeshFactory.createTorus (1.0, 0.5, 24, 24);
       PolygonalMesh torusT = torus.copy();
 
@@ -0,0 +1,440 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+import maspack.matrix.Vector3i;
+import maspack.matrix.VectorTransformer3d;
+
+/**
+ * Sparse representation of a {@link DistanceGrid} that only stores the
+ * distance values close to the grid's features. The grid cells are grouped
+ * into cubic tiles, each containing <code>tileSize</code> cells along each
+ * axis. A tile's vertex values are stored only if the smallest distance
+ * magnitude among its vertices is within a prescribed band width. Each
+ * remaining tile stores a single coarse value, which is returned for all
+ * queries within that tile. This value is the smallest distance magnitude of
+ * all the tile's vertices, reduced by half the length of a cell diagonal,
+ * multiplied by the vertices' sign. Since every point of a tile is within
+ * half a cell diagonal of one of the tile's vertices, and distances change
+ * by at most the distance between points, this gives a conservative lower
+ * bound on the distance magnitude anywhere within the tile.
+ *
+ * <p>Within the band, queries return exactly the same values as the original
+ * grid. Since the storage grows with the area of the features instead of the
+ * volume of the grid, this allows fine grid resolutions to be used for
+ * large geometries.
+ *
+ * <p>The band width is never made smaller than the length of a cell
+ * diagonal, which ensures that tiles containing a change of sign (and
+ * hence the surface of a signed grid) are always stored.
+ */
+public class NarrowBandDistanceGrid {
+
+   public static int DEFAULT_TILE_SIZE = 8;
+
+   /**
+    * Returned by distance queries for points outside the grid.
+    */
+   public static final double OUTSIDE_GRID = DistanceGrid.OUTSIDE_GRID;
+
+   private int myNx;  // number of vertices along x, y, z
+   private int myNy;
+   private int myNz;
+   private int myTileSize;
+   private int myTileNx; // number of tiles along x, y, z
+   private int myTileNy;
+   private int myTileNz;
+   private double myBandWidth;
+   private boolean mySignedP;
+
+   private VectorTransformer3d myGridToLocal;
+   private VectorTransformer3d myLocalToWorld;
+
+   // for each tile, offset of its vertex values within myValues, or -1 if
+   // the tile is outside the band
+   private int[] myTileOffsets;
+   // for each tile, coarse distance value used when it is outside the band
+   private double[] myCoarseValues;
+   private double[] myValues;
+
+   /**
+    * Creates a narrow band grid from a distance grid using the default tile
+    * size.
+    *
+    * @param grid grid whose distances should be stored
+    * @param bandWidth distance from the features within which distance
+    * values are stored
+    */
+   public NarrowBandDistanceGrid (DistanceGrid grid, double bandWidth) {
+      this (grid, bandWidth, DEFAULT_TILE_SIZE);
+   }
+
+   /**
+    * Creates a narrow band grid from a distance grid.
+    *
+    * @param grid grid whose distances should be stored
+    * @param bandWidth distance from the features within which distance
+    * values are stored
+    * @param tileSize number of cells along each axis of a tile
+    */
+   public NarrowBandDistanceGrid (
+      DistanceGrid grid, double bandWidth, int tileSize) {
+
+      if (tileSize < 1) {
+         throw new IllegalArgumentException (
+            "tileSize is "+tileSize+"; must be positive");
+      }
+      Vector3i res = grid.getResolution();
+      myNx = res.x+1;
+      myNy = res.y+1;
+      myNz = res.z+1;
+      myTileSize = tileSize;
+      myTileNx = (myNx-2)/tileSize + 1;
+      myTileNy = (myNy-2)/tileSize + 1;
+      myTileNz = (myNz-2)/tileSize + 1;
+      mySignedP = grid.isSigned();
+      myGridToLocal = grid.getGridToLocalTransformer().copy();
+      myLocalToWorld = grid.getLocalToWorldTransformer().copy();
+      myBandWidth = Math.max (bandWidth, grid.getCellWidths().norm());
+      buildTiles (grid.getVertexDistances(), grid.getCellWidths());
+   }
+
+   private void buildTiles (double[] dists, Vector3d cellWidths) {
+      int T = myTileSize;
+      int tileVals = (T+1)*(T+1)*(T+1);
+      int numTiles = myTileNx*myTileNy*myTileNz;
+      myTileOffsets = new int[numTiles];
+      myCoarseValues = new double[numTiles];
+      double halfDiag = 0.5*cellWidths.norm();
+
+      int numStored = 0;
+      for (int tz=0; tz<myTileNz; tz++) {
+         for (int ty=0; ty<myTileNy; ty++) {
+            for (int tx=0; tx<myTileNx; tx++) {
+               int ti = tileIndex (tx, ty, tz);
+               double dmin = Double.POSITIVE_INFINITY;
+               boolean hasNeg = false;
+               boolean hasPos = false;
+               for (int k=tz*T; k<=Math.min((tz+1)*T, myNz-1); k++) {
+                  for (int j=ty*T; j<=Math.min((ty+1)*T, myNy-1); j++) {
+                     for (int i=tx*T; i<=Math.min((tx+1)*T, myNx-1); i++) {
+                        double d = dists[vertexIndex (i, j, k)];
+                        if (d < 0) {
+                           hasNeg = true;
+                        }
+                        else {
+                           hasPos = true;
+                        }
+                        dmin = Math.min (dmin, Math.abs(d));
+                     }
+                  }
+               }
+               if (dmin <= myBandWidth || (hasNeg && hasPos)) {
+                  myTileOffsets[ti] = numStored*tileVals;
+                  myCoarseValues[ti] = 0;
+                  numStored++;
+               }
+               else {
+                  // a point within the tile may be up to half a cell
+                  // diagonal closer to the features than any vertex
+                  dmin = Math.max (0, dmin-halfDiag);
+                  myTileOffsets[ti] = -1;
+                  myCoarseValues[ti] = (hasNeg ? -dmin : dmin);
+               }
+            }
+         }
+      }
+      myValues = new double[numStored*tileVals];
+      for (int tz=0; tz<myTileNz; tz++) {
+         for (int ty=0; ty<myTileNy; ty++) {
+            for (int tx=0; tx<myTileNx; tx++) {
+               int off = myTileOffsets[tileIndex (tx, ty, tz)];
+               if (off == -1) {
+                  continue;
+               }
+               // vertices beyond the grid boundary are filled with the
+               // nearest boundary values; they are never interpolated
+               for (int k=0; k<=T; k++) {
+                  int vk = Math.min (tz*T+k, myNz-1);
+                  for (int j=0; j<=T; j++) {
+                     int vj = Math.min (ty*T+j, myNy-1);
+                     for (int i=0; i<=T; i++) {
+                        int vi = Math.min (tx*T+i, myNx-1);
+                        myValues[off++] = dists[vertexIndex (vi, vj, vk)];
+                     }
+                  }
+               }
+            }
+         }
+      }
+   }
+
+   private int vertexIndex (int xi, int yj, int zk) {
+      return xi + myNx*(yj + myNy*zk);
+   }
+
+   private int tileIndex (int tx, int ty, int tz) {
+      return tx + myTileNx*(ty + myTileNy*tz);
+   }
+
+   /**
+    * Finds the cell containing a point in local coordinates, returning
+    * its minimum vertex indices in <code>xyzi</code> and the point's
+    * coordinates within the cell in <code>coords</code>. Returns
+    * <code>false</code> if the point is outside the grid.
+    */
+   private boolean getCellCoords (
+      Vector3i xyzi, Vector3d coords, Point3d ploc) {
+      Vector3d pgrid = new Vector3d();
+      myGridToLocal.inverseTransformPnt (pgrid, ploc);
+      if (pgrid.x < 0 || pgrid.x > myNx-1 ||
+          pgrid.y < 0 || pgrid.y > myNy-1 ||
+          pgrid.z < 0 || pgrid.z > myNz-1) {
+         return false;
+      }
+      xyzi.set (pgrid);
+      if (xyzi.x == myNx-1) {
+         xyzi.x -= 1;
+      }
+      if (xyzi.y == myNy-1) {
+         xyzi.y -= 1;
+      }
+      if (xyzi.z == myNz-1) {
+         xyzi.z -= 1;
+      }
+      coords.x = pgrid.x - xyzi.x;
+      coords.y = pgrid.y - xyzi.y;
+      coords.z = pgrid.z - xyzi.z;
+      return true;
+   }
+
+   /**
+    * Calculates the distance at an arbitrary point in local coordinates.
+    * Within the band, this is the multilinear interpolation of the vertex
+    * values for the grid cell containing the point, and is identical to the
+    * value returned by the original grid. Outside the band, it is the
+    * coarse value of the tile containing the point. If the point lies
+    * outside the grid volume, {@link #OUTSIDE_GRID} is returned.
+    *
+    * @param point point at which to calculate the distance
+    * (local coordinates)
+    * @return distance, or <code>OUTSIDE_GRID</code>
+    */
+   public double getLocalDistance (Point3d point) {
+      return getLocalDistanceAndGradient (null, point);
+   }
+
+   /**
+    * Calculates the distance at an arbitrary point in world coordinates, as
+    * described for {@link #getLocalDistance}.
+    *
+    * @param point point at which to calculate the distance
+    * (world coordinates)
+    * @return distance, or <code>OUTSIDE_GRID</code>
+    */
+   public double getWorldDistance (Point3d point) {
+      Point3d lpnt = new Point3d();
+      myLocalToWorld.inverseTransformPnt (lpnt, point);
+      return getLocalDistanceAndGradient (null, lpnt);
+   }
+
+   /**
+    * Calculates the distance and gradient at an arbitrary point in local
+    * coordinates. Within the band, these are determined by multilinear
+    * interpolation of the vertex values for the grid cell containing the
+    * point. Outside the band, the distance is the coarse value of the tile
+    * containing the point and the gradient is zero. If the point lies
+    * outside the grid volume, {@link #OUTSIDE_GRID} is returned.
+    *
+    * @param grad if not <code>null</code>, returns the gradient
+    * (local coordinates)
+    * @param point point at which to calculate the gradient and distance
+    * (local coordinates)
+    * @return distance, or <code>OUTSIDE_GRID</code>
+    */
+   public double getLocalDistanceAndGradient (Vector3d grad, Point3d point) {
+      Vector3d coords = new Vector3d();
+      Vector3i vidx = new Vector3i();
+      if (!getCellCoords (vidx, coords, point)) {
+         return OUTSIDE_GRID;
+      }
+      int T = myTileSize;
+      int ti = tileIndex (vidx.x/T, vidx.y/T, vidx.z/T);
+      int off = myTileOffsets[ti];
+      if (off == -1) {
+         if (grad != null) {
+            grad.setZero();
+         }
+         return myCoarseValues[ti];
+      }
+      int xi = vidx.x%T;
+      int yj = vidx.y%T;
+      int zk = vidx.z%T;
+      int sy = T+1;
+      int sz = (T+1)*(T+1);
+      int v000 = off + xi + sy*yj + sz*zk;
+
+      double d000  = myValues[v000];
+      double d001  = myValues[v000+sz];
+      double d010  = myValues[v000+sy];
+      double d011  = myValues[v000+sy+sz];
+      double d100  = myValues[v000+1];
+      double d101  = myValues[v000+1+sz];
+      double d110  = myValues[v000+1+sy];
+      double d111  = myValues[v000+1+sy+sz];
+
+      double dx = coords.x;
+      double dy = coords.y;
+      double dz = coords.z;
+
+      double w001z = (1-dx)*(1-dy);
+      double w011z = (1-dx)*dy;
+      double w101z = dx*(1-dy);
+      double w111z = dx*dy;
+
+      if (grad != null) {
+         double w100x = (1-dy)*(1-dz);
+         double w101x = (1-dy)*dz;
+         double w110x = dy*(1-dz);
+         double w111x = dy*dz;
+
+         double w010y = (1-dx)*(1-dz);
+         double w011y = (1-dx)*dz;
+         double w110y = dx*(1-dz);
+         double w111y = dx*dz;
+
+         grad.x = (-w100x*d000 - w101x*d001 - w110x*d010 - w111x*d011
+                   +w100x*d100 + w101x*d101 + w110x*d110 + w111x*d111);
+         grad.y = (-w010y*d000 - w011y*d001 + w010y*d010 + w011y*d011
+                   -w110y*d100 - w111y*d101 + w110y*d110 + w111y*d111);
+         grad.z = (-w001z*d000 + w001z*d001 - w011z*d010 + w011z*d011
+                   -w101z*d100 + w101z*d101 - w111z*d110 + w111z*d111);
+
+         myGridToLocal.transformCovec (grad, grad);
+      }
+      double w000  = w001z*(1-dz);
+      double w001  = w001z*dz;
+      double w010  = w011z*(1-dz);
+      double w011  = w011z*dz;
+      double w100  = w101z*(1-dz);
+      double w101  = w101z*dz;
+      double w110  = w111z*(1-dz);
+      double w111  = w111z*dz;
+
+      return (w000*d000 + w001*d001 + w010*d010 + w011*d011 +
+              w100*d100 + w101*d101 + w110*d110 + w111*d111);
+   }
+
+   /**
+    * Calculates the distance and gradient at an arbitrary point in world
+    * coordinates, as described for {@link #getLocalDistanceAndGradient}.
+    *
+    * @param grad if not <code>null</code>, returns the gradient
+    * (world coordinates)
+    * @param point point at which to calculate the gradient and distance
+    * (world coordinates)
+    * @return distance, or <code>OUTSIDE_GRID</code>
+    */
+   public double getWorldDistanceAndGradient (Vector3d grad, Point3d point) {
+      Point3d lpnt = new Point3d();
+      myLocalToWorld.inverseTransformPnt (lpnt, point);
+      double d = getLocalDistanceAndGradient (grad, lpnt);
+      if (grad != null && d != OUTSIDE_GRID) {
+         // gradients transform like normals
+         myLocalToWorld.transformCovec (grad, grad);
+      }
+      return d;
+   }
+
+   /**
+    * Queries whether a point in local coordinates lies within a tile whose
+    * values are stored, so that distance queries at the point are exact.
+    *
+    * @param point point to query (local coordinates)
+    * @return <code>true</code> if the point is inside the grid and
+    * within a stored tile
+    */
+   public boolean isInBand (Point3d point) {
+      Vector3d coords = new Vector3d();
+      Vector3i vidx = new Vector3i();
+      if (!getCellCoords (vidx, coords, point)) {
+         return false;
+      }
+      int T = myTileSize;
+      return myTileOffsets[tileIndex (vidx.x/T, vidx.y/T, vidx.z/T)] != -1;
+   }
+
+   /**
+    * Returns the band width within which distance values are stored.  This
+    * may be larger than the value requested at construction, since it is
+    * never less than the length of a cell diagonal.
+    *
+    * @return band width
+    */
+   public double getBandWidth() {
+      return myBandWidth;
+   }
+
+   /**
+    * Returns the number of cells along each axis of a tile.
+    *
+    * @return tile size
+    */
+   public int getTileSize() {
+      return myTileSize;
+   }
+
+   /**
+    * Queries whether the distances stored by this grid are signed.
+    *
+    * @return <code>true</code> if the distances are signed
+    */
+   public boolean isSigned() {
+      return mySignedP;
+   }
+
+   /**
+    * Returns the number of cells along the x, y, and z axes of this grid.
+    *
+    * @return grid resolution
+    */
+   public Vector3i getResolution() {
+      return new Vector3i (myNx-1, myNy-1, myNz-1);
+   }
+
+   /**
+    * Returns the total number of tiles in this grid.
+    *
+    * @return number of tiles
+    */
+   public int numTiles() {
+      return myTileOffsets.length;
+   }
+
+   /**
+    * Returns the number of tiles whose vertex values are stored.
+    *
+    * @return number of stored tiles
+    */
+   public int numStoredTiles() {
+      int T = myTileSize;
+      return myValues.length/((T+1)*(T+1)*(T+1));
+   }
+
+   /**
+    * Returns the number of vertex values stored by this grid. This can be
+    * compared with the number of vertices of the original grid to
+    * determine the memory savings.
+    *
+    * @return number of stored values
+    */
+   public int numStoredValues() {
+      return myValues.length;
+   }
+}
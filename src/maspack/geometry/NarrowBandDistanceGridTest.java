@@ -0,0 +1,256 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry;
+
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Tests the NarrowBandDistanceGrid.
+ */
+public class NarrowBandDistanceGridTest extends UnitTest {
+
+   /**
+    * Creates a signed distance grid for a sphere, with distances set
+    * analytically.
+    */
+   DistanceGrid createSphereGrid (
+      double rad, Vector3i res, RigidTransform3d TCL) {
+      Vector3d widths = new Vector3d (3*rad, 3*rad, 3*rad);
+      return createSphereGrid (widths, res, TCL, Vector3d.ZERO, rad);
+   }
+
+   /**
+    * Creates a signed distance grid for a sphere whose center is offset by
+    * <code>off</code> from the grid center, with distances set analytically.
+    */
+   DistanceGrid createSphereGrid (
+      Vector3d widths, Vector3i res, RigidTransform3d TCL,
+      Vector3d off, double rad) {
+      DistanceGrid grid = new DistanceGrid (widths, res, TCL);
+      double[] dists = new double[grid.numVertices()];
+      Vector3d pos = new Vector3d();
+      Point3d center = new Point3d();
+      getSphereCenter (center, grid, off);
+      for (int vi=0; vi<dists.length; vi++) {
+         grid.getLocalVertexCoords (pos, vi);
+         dists[vi] = pos.distance (center) - rad;
+      }
+      grid.setVertexDistances (dists, /*signed=*/true);
+      return grid;
+   }
+
+   void getSphereCenter (Point3d center, DistanceGrid grid, Vector3d off) {
+      grid.getCenter (center);
+      center.add (off);
+   }
+
+   /**
+    * Checks that the coarse distance returned at a point outside the band
+    * is a lower bound on the exact distance to a sphere.
+    */
+   void checkCoarseBound (
+      NarrowBandDistanceGrid nbgrid, Point3d q, Point3d center, double rad) {
+      check ("point outside band", !nbgrid.isInBand (q));
+      double d = nbgrid.getLocalDistance (q);
+      double dexact = q.distance (center) - rad;
+      if (Math.abs(d) > Math.abs(dexact) ||
+          (d != 0 && Math.signum(d) != Math.signum(dexact))) {
+         throw new TestException (
+            "coarse distance "+d+" at "+q+
+            " is not a bound for exact distance "+dexact);
+      }
+   }
+
+   void testGrid (DistanceGrid grid, double band, int tileSize) {
+      NarrowBandDistanceGrid nbgrid =
+         new NarrowBandDistanceGrid (grid, band, tileSize);
+      band = nbgrid.getBandWidth();
+
+      checkEquals ("isSigned", nbgrid.isSigned(), grid.isSigned());
+      check (
+         "resolution", nbgrid.getResolution().equals (grid.getResolution()));
+      if (nbgrid.numStoredTiles() == 0 ||
+          nbgrid.numStoredTiles() > nbgrid.numTiles()) {
+         throw new TestException (
+            "stored tiles="+nbgrid.numStoredTiles()+
+            ", total tiles="+nbgrid.numTiles());
+      }
+
+      Vector3d widths = new Vector3d();
+      Vector3d center = new Vector3d();
+      grid.getWidths (widths);
+      grid.getCenter (center);
+      RotationMatrix3d R = new RotationMatrix3d();
+      grid.getOrientation (R);
+
+      Vector3d grad = new Vector3d();
+      Vector3d gradChk = new Vector3d();
+      int numInBand = 0;
+      int numtests = 2000;
+      for (int i=0; i<numtests; i++) {
+         // random point in local coordinates, slightly exceeding the grid
+         Point3d q = new Point3d (
+            RandomGenerator.nextDouble (-0.55, 0.55)*widths.x,
+            RandomGenerator.nextDouble (-0.55, 0.55)*widths.y,
+            RandomGenerator.nextDouble (-0.55, 0.55)*widths.z);
+         q.transform (R);
+         q.add (center);
+
+         double dchk = grid.getLocalDistanceAndGradient (gradChk, q);
+         double d = nbgrid.getLocalDistanceAndGradient (grad, q);
+         if (dchk == DistanceGrid.OUTSIDE_GRID) {
+            checkEquals (
+               "distance outside grid", d, NarrowBandDistanceGrid.OUTSIDE_GRID);
+            check ("isInBand outside grid", !nbgrid.isInBand (q));
+         }
+         else if (nbgrid.isInBand (q)) {
+            numInBand++;
+            checkEquals ("distance in band", d, dchk, 1e-14);
+            checkEquals ("gradient in band", grad, gradChk, 1e-12);
+            checkEquals (
+               "getLocalDistance in band", nbgrid.getLocalDistance(q), d);
+         }
+         else {
+            // outside the band, the value is a conservative bound
+            check ("grid distance within band", Math.abs(dchk) > band);
+            if (Math.abs(d) > Math.abs(dchk) ||
+                (d != 0 && Math.signum(d) != Math.signum(dchk))) {
+               throw new TestException (
+                  "coarse distance "+d+" is not a bound for "+dchk);
+            }
+            checkEquals ("gradient outside band", grad, Vector3d.ZERO);
+         }
+      }
+      check ("no queries within band", numInBand > 0);
+
+      // world queries
+      RigidTransform3d TLW = new RigidTransform3d();
+      TLW.setRandom();
+      grid.setLocalToWorld (TLW);
+      nbgrid = new NarrowBandDistanceGrid (grid, band, tileSize);
+      for (int i=0; i<numtests; i++) {
+         Point3d q = new Point3d (
+            RandomGenerator.nextDouble (-0.5, 0.5)*widths.x,
+            RandomGenerator.nextDouble (-0.5, 0.5)*widths.y,
+            RandomGenerator.nextDouble (-0.5, 0.5)*widths.z);
+         q.transform (R);
+         q.add (center);
+         Point3d qw = new Point3d();
+         qw.transform (TLW, q);
+         if (nbgrid.isInBand (q)) {
+            checkEquals (
+               "world distance in band",
+               nbgrid.getWorldDistanceAndGradient (grad, qw),
+               grid.getWorldDistanceAndGradient (gradChk, qw), 1e-12);
+            checkEquals ("world gradient in band", grad, gradChk, 1e-10);
+            checkEquals (
+               "getWorldDistance in band",
+               nbgrid.getWorldDistance (qw),
+               grid.getWorldDistance (qw), 1e-12);
+         }
+      }
+      grid.setLocalToWorld (new RigidTransform3d());
+   }
+
+   /**
+    * Checks that for a sphere grid, the coarse value of each tile outside the
+    * band is a lower bound on the exact distance at the tile's center.
+    */
+   void testTileCenters (
+      DistanceGrid grid, Vector3d off, double rad, int tileSize) {
+      NarrowBandDistanceGrid nbgrid =
+         new NarrowBandDistanceGrid (grid, 0, tileSize);
+      Vector3i res = grid.getResolution();
+      Point3d center = new Point3d();
+      getSphereCenter (center, grid, off);
+      Point3d pmin = new Point3d();
+      Point3d pmax = new Point3d();
+      Point3d q = new Point3d();
+      int T = tileSize;
+      int numCoarse = 0;
+      for (int tz=0; tz*T<res.z; tz++) {
+         for (int ty=0; ty*T<res.y; ty++) {
+            for (int tx=0; tx*T<res.x; tx++) {
+               grid.getLocalVertexCoords (
+                  pmin, new Vector3i (tx*T, ty*T, tz*T));
+               grid.getLocalVertexCoords (
+                  pmax, new Vector3i (
+                     Math.min ((tx+1)*T, res.x),
+                     Math.min ((ty+1)*T, res.y),
+                     Math.min ((tz+1)*T, res.z)));
+               q.combine (0.5, pmin, 0.5, pmax);
+               if (!nbgrid.isInBand (q)) {
+                  checkCoarseBound (nbgrid, q, center, rad);
+                  numCoarse++;
+               }
+            }
+         }
+      }
+      check ("no coarse tiles", numCoarse > 0);
+   }
+
+   /**
+    * Checks the coarse value for a point on the boundary face of a tile
+    * outside the band, which is closer to a small sphere in the adjacent
+    * tile than any of its own tile's vertices.
+    */
+   void testTileFace() {
+      // cell width 0.1, with tile boundaries at x = -0.4, 0.4
+      Vector3d widths = new Vector3d (4, 4, 4);
+      Vector3d off = new Vector3d (0, 0.05, 0.05);
+      double rad = 0.1;
+      DistanceGrid grid = createSphereGrid (
+         widths, new Vector3i (40, 40, 40), null, off, rad);
+      NarrowBandDistanceGrid nbgrid = new NarrowBandDistanceGrid (grid, 0, 8);
+      Point3d center = new Point3d();
+      getSphereCenter (center, grid, off);
+      // point nearest the sphere within the tile starting at x = 0.4
+      Point3d q = new Point3d (0.4+1e-6, 0.05, 0.05);
+      checkCoarseBound (nbgrid, q, center, rad);
+      testTileCenters (grid, off, rad, 8);
+   }
+
+   public void test() {
+      RigidTransform3d TCL = new RigidTransform3d();
+      TCL.setRandom();
+      DistanceGrid grid;
+
+      grid = createSphereGrid (1.0, new Vector3i (40, 40, 40), null);
+      testGrid (grid, 0.2, 8);
+      testGrid (grid, 0.0, 8);
+      testGrid (grid, 0.3, 5);
+      NarrowBandDistanceGrid nbgrid = new NarrowBandDistanceGrid (grid, 0.1);
+      if (nbgrid.numStoredValues() >= grid.numVertices()) {
+         throw new TestException (
+            "narrow band stores "+nbgrid.numStoredValues()+
+            " values, dense grid has "+grid.numVertices());
+      }
+
+      testTileCenters (grid, Vector3d.ZERO, 1.0, 8);
+      testTileCenters (grid, Vector3d.ZERO, 1.0, 3);
+      testTileFace();
+
+      grid = createSphereGrid (1.0, new Vector3i (31, 22, 17), TCL);
+      testTileCenters (grid, Vector3d.ZERO, 1.0, 5);
+      testGrid (grid, 0.1, 4);
+      testGrid (grid, 0.5, 7);
+      testGrid (grid, 0.2, 1);
+
+      // unsigned grid computed from mesh features
+      PolygonalMesh torus = MeshFactory.createTorus (1.0, 0.5, 24, 24);
+      grid = new DistanceGrid (
+         torus.getFaces(), 0.1, new Vector3i (30, 30, 15), /*signed=*/false);
+      testGrid (grid, 0.15, 6);
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      NarrowBandDistanceGridTest tester = new NarrowBandDistanceGridTest();
+      tester.runtest();
+   }
+}
@@ -130,6 +130,7 @@ public class OBBTree extends BVTree {
          elemData[i] = edata;
       }
       root = computeOBBNode (elemData, num, null);
+      myVersion++;
    }
 
    private OBB computeOBBNode (
@@ -265,6 +266,7 @@ public class OBBTree extends BVTree {
 
    public void update() {
       updateRecursively (getRoot());
+      myVersion++;
    }
 
 }
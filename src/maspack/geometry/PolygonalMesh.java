@@ -727,6 +727,64 @@ public class PolygonalMesh extends MeshBase {
       set (pnts, faceIndices, /* byReference= */false);
    }
 
+   /**
+    * Sets the vertex points and faces associated with this mesh from packed
+    * arrays. This is intended for bulk loading of large meshes: no
+    * intermediate point or index arrays are needed, and the half-edge
+    * structure is built in a single pass, with attributes adjusted only once
+    * at the end.
+    *
+    * @param coords
+    * vertex coordinates, stored as consecutive x, y, z values
+    * @param indices
+    * vertex indices for all faces, with the indices for each face stored
+    * contiguously in counter-clockwise order
+    * @param indexOffs
+    * if non-<code>null</code>, gives the offset of each face's indices within
+    * <code>indices</code>, with a final entry giving the total number of
+    * indices. Otherwise, all faces are assumed to be triangles.
+    * @throws IllegalArgumentException
+    * if a vertex index is out of bounds
+    */
+   public void set (double[] coords, int[] indices, int[] indexOffs) {
+      clear();
+      int numv = coords.length/3;
+      int numf = (indexOffs != null ? indexOffs.length-1 : indices.length/3);
+      myVertices.ensureCapacity (numv);
+      for (int i=0; i<numv; i++) {
+         Point3d pnt = new Point3d (coords[3*i], coords[3*i+1], coords[3*i+2]);
+         addVertex (new Vertex3d (pnt));
+      }
+      myFaces.ensureCapacity (numf);
+      Vertex3d[] vtxList = new Vertex3d[3];
+      for (int k=0; k<numf; k++) {
+         int off = (indexOffs != null ? indexOffs[k] : 3*k);
+         int nv = (indexOffs != null ? indexOffs[k+1]-off : 3);
+         if (vtxList.length < nv) {
+            vtxList = new Vertex3d[nv];
+         }
+         for (int i=0; i<nv; i++) {
+            int idx = indices[off+i];
+            if (idx < 0 || idx >= numv) {
+               clear();
+               throw new IllegalArgumentException (
+                  "Face vertex index "+idx+" out of bounds, face number "+k);
+            }
+            vtxList[i] = myVertices.get (idx);
+         }
+         Face face = new Face (k);
+         face.set (vtxList, nv, /* connect= */true);
+         myFaces.add (face);
+         if (nv == 3) {
+            myNumTriangles++;
+         } else if (nv == 4) {
+            myNumQuads++;
+         }
+      }
+      adjustAttributesForNewFeature ();
+      notifyStructureChanged();
+   }
+
 
    /**
     * Adds a face to this mesh. A face is described by indices which specify, in
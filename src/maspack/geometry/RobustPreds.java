@@ -113,7 +113,11 @@ public class RobustPreds {
       double c2x, double c2y, double c2z, double d0x, double d0y, double d0z,
       double d1x, double d1y, double d1z, double d2x, double d2y, double d2z);
 
-   static void initialize() {
+   static synchronized void initialize() {
+      if (nativeSupportLoaded) {
+         // another thread may have loaded the library in the meantime
+         return;
+      }
       // try loading in the native code
       try {
          NativeLibraryManager.load ("RobustPreds.1.1");
@@ -19,6 +19,13 @@ public class GenericMeshReader implements MeshReader {
    FloatType myFloatType = null;
    int myLastPrecision = -1;
 
+   /**
+    * Minimum file size (in bytes) for which ply and stl files are read by
+    * memory mapping them, and obj files are read using a {@link
+    * ParallelWavefrontReader}. A negative value disables this.
+    */
+   public static long bulkLoadingMinSize = 4000000;
+
    private static ArrayList<MeshReaderFactory> findFactoryList() {
 
       // Find all appropriate factories
@@ -106,6 +113,25 @@ public class GenericMeshReader implements MeshReader {
          throw new UnsupportedOperationException (
             "File "+file.getName ()+" has unrecognized extension");
       }
+      if (bulkLoadingMinSize >= 0 && file.length() >= bulkLoadingMinSize) {
+         enableBulkLoading (file);
+      }
+   }
+
+   /**
+    * Switches the reader to one that is faster for large files.
+    */
+   private void enableBulkLoading (File file) throws IOException {
+      if (myReader instanceof PlyReader) {
+         ((PlyReader)myReader).setMemoryMapping (true);
+      }
+      else if (myReader instanceof StlReader) {
+         ((StlReader)myReader).setMemoryMapping (true);
+      }
+      else if (myReader instanceof WavefrontReader) {
+         myReader.close();
+         myReader = new ParallelWavefrontReader (file);
+      }
    }
 
    public DataFormat getDataFormat() {
@@ -155,6 +181,9 @@ public class GenericMeshReader implements MeshReader {
       if (myReader instanceof WavefrontReader) {
          return ((WavefrontReader)myReader).getZeroIndexed();
       }
+      else if (myReader instanceof ParallelWavefrontReader) {
+         return ((ParallelWavefrontReader)myReader).getZeroIndexed();
+      }
       else {
          return false;
       }
@@ -164,6 +193,9 @@ public class GenericMeshReader implements MeshReader {
       if (myReader instanceof WavefrontReader) {
          ((WavefrontReader)myReader).setZeroIndexed(enable);
       }
+      else if (myReader instanceof ParallelWavefrontReader) {
+         ((ParallelWavefrontReader)myReader).setZeroIndexed(enable);
+      }
    }
 
    public static MeshBase readMesh (String fileName) throws IOException {
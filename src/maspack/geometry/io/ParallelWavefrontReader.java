@@ -0,0 +1,722 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry.io;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.geometry.MeshBase;
+import maspack.geometry.PointMesh;
+import maspack.geometry.PolygonalMesh;
+import maspack.matrix.Point3d;
+import maspack.matrix.Vector3d;
+import maspack.util.DynamicDoubleArray;
+import maspack.util.DynamicIntArray;
+
+/**
+ * Reads large Wavefront .obj files containing a single polygonal mesh or
+ * point set. The file is memory mapped and split into chunks at line
+ * boundaries, and the chunks are parsed in parallel into primitive arrays,
+ * after which relative indices are resolved and the mesh is built in one
+ * pass.
+ *
+ * <p>Only the <code>v</code>, <code>vn</code>, <code>vt</code>,
+ * <code>f</code> and <code>s</code> statements are handled directly. If the
+ * file contains anything else (such as groups, materials, lines or curves),
+ * or cannot be parsed, the file is instead read using a {@link
+ * WavefrontReader}, so that the resulting mesh (or error) is the same as
+ * that produced by {@link WavefrontReader}.
+ */
+public class ParallelWavefrontReader extends MeshReaderBase {
+
+   /**
+    * Default minimum number of bytes per parallel parsing chunk.
+    */
+   public static int DEFAULT_CHUNK_SIZE = (1 << 20);
+
+   boolean myZeroIndexed = false;
+   int myChunkSize = DEFAULT_CHUNK_SIZE;
+
+   public ParallelWavefrontReader (File file) throws IOException {
+      super (file);
+   }
+
+   public ParallelWavefrontReader (String fileName) throws IOException {
+      this (new File (fileName));
+   }
+
+   public boolean getZeroIndexed() {
+      return myZeroIndexed;
+   }
+
+   public void setZeroIndexed (boolean enable) {
+      myZeroIndexed = enable;
+   }
+
+   /**
+    * Sets the minimum number of bytes per parallel parsing chunk.
+    */
+   public void setChunkSize (int size) {
+      myChunkSize = Math.max (1, size);
+   }
+
+   /**
+    * Returns the minimum number of bytes per parallel parsing chunk.
+    */
+   public int getChunkSize() {
+      return myChunkSize;
+   }
+
+   /**
+    * Thrown when a chunk contains input that is not handled by this reader.
+    */
+   private static class UnsupportedInputException extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+   }
+
+   private static final UnsupportedInputException UNSUPPORTED =
+      new UnsupportedInputException();
+
+   // indicates an unspecified texture or normal index
+   private static final int NO_INDEX = Integer.MIN_VALUE;
+
+   private static final double[] POWERS_OF_TEN = new double[] {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+   /**
+    * Data parsed from one chunk of the file. Face index values are stored
+    * as they appear in the file, together with the number of vertices,
+    * texture vertices and normals in the chunk that precede each face, so
+    * that relative indices can be resolved once all chunks are parsed.
+    */
+   private class ChunkParser {
+      byte[] buf;
+      int pos;
+      boolean unsupported = false;
+
+      DynamicDoubleArray vertices = new DynamicDoubleArray();
+      DynamicDoubleArray normals = new DynamicDoubleArray();
+      DynamicDoubleArray textureVertices = new DynamicDoubleArray();
+      // for each face: number of corners, and local vertex, texture vertex
+      // and normal counts
+      DynamicIntArray faceInfo = new DynamicIntArray();
+      // for each face corner: vertex, texture and normal index
+      DynamicIntArray corners = new DynamicIntArray();
+
+      // offsets into the global arrays
+      int vertexOff;
+      int normalOff;
+      int textureOff;
+      int faceOff;
+      int cornerOff;
+
+      ChunkParser (byte[] buf) {
+         this.buf = buf;
+      }
+
+      int numVertices() {
+         return vertices.size()/3;
+      }
+
+      int numNormals() {
+         return normals.size()/3;
+      }
+
+      int numTextureVertices() {
+         return textureVertices.size()/3;
+      }
+
+      int numFaces() {
+         return faceInfo.size()/4;
+      }
+
+      int numCorners() {
+         return corners.size()/3;
+      }
+
+      boolean isWhitespace (int c) {
+         // bytes are signed, so non-ASCII characters are negative
+         return c >= 0 && c <= ' ' && c != '\n';
+      }
+
+      /**
+       * Skips whitespace and comments, returning the next character, or -1
+       * at the end of the buffer. A return value of '\n' indicates the end
+       * of the line.
+       */
+      int skipWhitespace() {
+         while (pos < buf.length) {
+            int c = buf[pos];
+            if (c == '#') {
+               while (pos < buf.length && buf[pos] != '\n') {
+                  pos++;
+               }
+            }
+            else if (c == '\\') {
+               // possible line continuation
+               throw UNSUPPORTED;
+            }
+            else if (isWhitespace (c)) {
+               pos++;
+            }
+            else {
+               return c;
+            }
+         }
+         return -1;
+      }
+
+      boolean atEndOfLine() {
+         int c = skipWhitespace();
+         return c == '\n' || c == -1;
+      }
+
+      boolean isTerminator (int c, boolean slashAllowed) {
+         return (isWhitespace (c) || c == '\n' || c == '#' ||
+                 (slashAllowed && c == '/'));
+      }
+
+      boolean atTerminator (boolean slashAllowed) {
+         return pos == buf.length || isTerminator (buf[pos], slashAllowed);
+      }
+
+      /**
+       * Parses a number at the current position in the same way as
+       * ReaderTokenizer.
+       */
+      double parseNumber() {
+         boolean negate = false;
+         if (pos < buf.length && buf[pos] == '-') {
+            negate = true;
+            pos++;
+         }
+         int mstart = pos;
+         long m = 0;
+         int ndigits = 0;
+         int nfrac = 0;
+         boolean dotseen = false;
+         while (pos < buf.length && buf[pos] >= '0' && buf[pos] <= '9') {
+            m = 10*m + (buf[pos++] - '0');
+            ndigits++;
+         }
+         if (pos < buf.length && buf[pos] == '.') {
+            dotseen = true;
+            pos++;
+            while (pos < buf.length && buf[pos] >= '0' && buf[pos] <= '9') {
+               m = 10*m + (buf[pos++] - '0');
+               ndigits++;
+               nfrac++;
+            }
+         }
+         if (ndigits == 0) {
+            throw UNSUPPORTED;
+         }
+         int exp = 0;
+         boolean hasExponent = false;
+         if (pos < buf.length && (buf[pos] == 'e' || buf[pos] == 'E')) {
+            pos++;
+            boolean negexp = false;
+            if (pos < buf.length && (buf[pos] == '+' || buf[pos] == '-')) {
+               negexp = (buf[pos] == '-');
+               pos++;
+            }
+            while (pos < buf.length && buf[pos] >= '0' && buf[pos] <= '9') {
+               if (exp < 10000) {
+                  exp = 10*exp + (buf[pos] - '0');
+               }
+               pos++;
+               hasExponent = true;
+            }
+            if (!hasExponent) {
+               throw UNSUPPORTED;
+            }
+            if (negexp) {
+               exp = -exp;
+            }
+         }
+         if (!dotseen && !hasExponent) {
+            if (ndigits > 18) {
+               // may overflow
+               throw UNSUPPORTED;
+            }
+            return (double)(negate ? -m : m);
+         }
+         double val;
+         int exp10 = exp - nfrac;
+         if (ndigits <= 15 && exp10 >= -22 && exp10 <= 22) {
+            // m and the power of ten are exact, so a single operation gives
+            // the correctly rounded result
+            val = (exp10 < 0 ?
+                   m/POWERS_OF_TEN[-exp10] : m*POWERS_OF_TEN[exp10]);
+         }
+         else {
+            val = Double.parseDouble (
+               new String (buf, mstart, pos-mstart, StandardCharsets.US_ASCII));
+         }
+         return negate ? -val : val;
+      }
+
+      double scanNumber() {
+         int c = skipWhitespace();
+         if (c != '-' && c != '.' && (c < '0' || c > '9')) {
+            throw UNSUPPORTED;
+         }
+         double val = parseNumber();
+         if (!atTerminator (/*slashAllowed=*/false)) {
+            throw UNSUPPORTED;
+         }
+         return val;
+      }
+
+      int scanIndex (boolean slashAllowed) {
+         int c = skipWhitespace();
+         if (c != '-' && (c < '0' || c > '9')) {
+            throw UNSUPPORTED;
+         }
+         int start = pos;
+         boolean negate = false;
+         if (buf[pos] == '-') {
+            negate = true;
+            pos++;
+         }
+         long idx = 0;
+         while (pos < buf.length && buf[pos] >= '0' && buf[pos] <= '9') {
+            idx = 10*idx + (buf[pos++] - '0');
+            if (idx > Integer.MAX_VALUE) {
+               throw UNSUPPORTED;
+            }
+         }
+         if (pos == start + (negate ? 1 : 0) ||
+             !atTerminator (slashAllowed)) {
+            throw UNSUPPORTED;
+         }
+         if (!myZeroIndexed && idx == 0) {
+            // error, to be reported by WavefrontReader
+            throw UNSUPPORTED;
+         }
+         return (int)(negate ? -idx : idx);
+      }
+
+      String scanKeyword() {
+         int start = pos;
+         while (pos < buf.length && !isTerminator (buf[pos], false)) {
+            pos++;
+         }
+         int len = pos - start;
+         if (len == 1 && buf[start] == 'v') {
+            return "v";
+         }
+         else if (len == 1 && buf[start] == 'f') {
+            return "f";
+         }
+         else if (len == 1 && buf[start] == 's') {
+            return "s";
+         }
+         else if (len == 2 && buf[start] == 'v' && buf[start+1] == 'n') {
+            return "vn";
+         }
+         else if (len == 2 && buf[start] == 'v' && buf[start+1] == 't') {
+            return "vt";
+         }
+         else {
+            throw UNSUPPORTED;
+         }
+      }
+
+      void skipToEndOfLine() {
+         while (pos < buf.length && buf[pos] != '\n') {
+            if (buf[pos] == '\\') {
+               throw UNSUPPORTED;
+            }
+            pos++;
+         }
+      }
+
+      void scanVertex() {
+         double x = scanNumber();
+         double y = scanNumber();
+         double z = scanNumber();
+         double w = 1;
+         if (!atEndOfLine()) {
+            w = scanNumber();
+            // WavefrontReader ignores any further tokens
+            skipToEndOfLine();
+         }
+         vertices.add (x/w);
+         vertices.add (y/w);
+         vertices.add (z/w);
+      }
+
+      void scanNormal() {
+         normals.add (scanNumber());
+         normals.add (scanNumber());
+         normals.add (scanNumber());
+         if (!atEndOfLine()) {
+            throw UNSUPPORTED;
+         }
+      }
+
+      void scanTextureVertex() {
+         textureVertices.add (scanNumber());
+         double v = 0;
+         double w = 0;
+         if (!atEndOfLine()) {
+            v = scanNumber();
+            if (!atEndOfLine()) {
+               w = scanNumber();
+               if (!atEndOfLine()) {
+                  throw UNSUPPORTED;
+               }
+            }
+         }
+         textureVertices.add (v);
+         textureVertices.add (w);
+      }
+
+      void scanFace() {
+         // format of the first corner, which all corners must match
+         boolean hasTexture = false;
+         boolean hasNormal = false;
+         int ncorners = 0;
+         while (!atEndOfLine()) {
+            int vidx = scanIndex (/*slashAllowed=*/true);
+            int tidx = NO_INDEX;
+            int nidx = NO_INDEX;
+            boolean texture = false;
+            boolean normal = false;
+            if (pos < buf.length && buf[pos] == '/') {
+               pos++;
+               if (pos < buf.length && buf[pos] != '/') {
+                  tidx = scanIndex (/*slashAllowed=*/true);
+                  texture = true;
+               }
+               if (pos < buf.length && buf[pos] == '/') {
+                  pos++;
+                  nidx = scanIndex (/*slashAllowed=*/false);
+                  normal = true;
+               }
+               if (!texture && !normal) {
+                  throw UNSUPPORTED;
+               }
+            }
+            else if (!atTerminator (/*slashAllowed=*/false)) {
+               throw UNSUPPORTED;
+            }
+            if (ncorners == 0) {
+               hasTexture = texture;
+               hasNormal = normal;
+            }
+            else if (texture != hasTexture || normal != hasNormal) {
+               throw UNSUPPORTED;
+            }
+            corners.add (vidx);
+            corners.add (tidx);
+            corners.add (nidx);
+            ncorners++;
+         }
+         if (ncorners == 0) {
+            throw UNSUPPORTED;
+         }
+         faceInfo.add (ncorners);
+         faceInfo.add (numVertices());
+         faceInfo.add (numTextureVertices());
+         faceInfo.add (numNormals());
+      }
+
+      void parse() {
+         try {
+            pos = 0;
+            while (pos < buf.length) {
+               int c = skipWhitespace();
+               if (c == '\n') {
+                  pos++;
+                  continue;
+               }
+               else if (c == -1) {
+                  break;
+               }
+               String keyword = scanKeyword();
+               if (keyword.equals ("v")) {
+                  scanVertex();
+               }
+               else if (keyword.equals ("vn")) {
+                  scanNormal();
+               }
+               else if (keyword.equals ("vt")) {
+                  scanTextureVertex();
+               }
+               else if (keyword.equals ("f")) {
+                  scanFace();
+               }
+               else {
+                  // smoothing group; ignored
+                  skipToEndOfLine();
+               }
+            }
+         }
+         catch (UnsupportedInputException e) {
+            unsupported = true;
+         }
+         buf = null;
+      }
+
+      int resolveIndex (int idx, int numPrev, int numTotal) {
+         if (idx == NO_INDEX) {
+            return -1;
+         }
+         if (!myZeroIndexed && idx > 0) {
+            idx -= 1;
+         }
+         else if (idx < 0) {
+            idx += numPrev;
+         }
+         if (idx < 0 || idx >= numTotal) {
+            // error, to be reported by WavefrontReader
+            throw UNSUPPORTED;
+         }
+         return idx;
+      }
+
+      /**
+       * Resolves the face indices of this chunk and stores them in the
+       * global arrays.
+       */
+      void resolveFaces (
+         int[] indices, int[] indexOffs, int[] tindices, int[] nindices,
+         int numv, int numt, int numn) {
+
+         try {
+            int k = 0;
+            int idx = cornerOff;
+            for (int i=0; i<numFaces(); i++) {
+               int ncorners = faceInfo.get(4*i);
+               int nvprev = vertexOff + faceInfo.get(4*i+1);
+               int ntprev = textureOff + faceInfo.get(4*i+2);
+               int nnprev = normalOff + faceInfo.get(4*i+3);
+               indexOffs[faceOff+i] = idx;
+               for (int j=0; j<ncorners; j++) {
+                  indices[idx] =
+                     resolveIndex (corners.get(k++), nvprev, numv);
+                  tindices[idx] =
+                     resolveIndex (corners.get(k++), ntprev, numt);
+                  nindices[idx] =
+                     resolveIndex (corners.get(k++), nnprev, numn);
+                  idx++;
+               }
+            }
+         }
+         catch (UnsupportedInputException e) {
+            unsupported = true;
+         }
+      }
+   }
+
+   /**
+    * Maps the file and divides it into chunks that begin at the start of
+    * a line.
+    */
+   private ChunkParser[] createChunks() throws IOException {
+      FileChannel channel = ((FileInputStream)myIstream).getChannel();
+      long size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+         return null;
+      }
+      ByteBuffer buf = channel.map (FileChannel.MapMode.READ_ONLY, 0, size);
+      int nbytes = (int)size;
+      int nchunks = ParallelLoop.numChunks (nbytes, 0, myChunkSize);
+      ChunkParser[] chunks = new ChunkParser[nchunks];
+      int lo = 0;
+      for (int k=0; k<nchunks; k++) {
+         int hi = (k == nchunks-1 ? nbytes : (int)((k+1L)*nbytes/nchunks));
+         if (hi < lo) {
+            hi = lo;
+         }
+         while (hi < nbytes && hi > 0 && buf.get(hi-1) != '\n') {
+            hi++;
+         }
+         byte[] bytes = new byte[hi-lo];
+         ByteBuffer dup = buf.duplicate();
+         dup.position (lo);
+         dup.get (bytes);
+         chunks[k] = new ChunkParser (bytes);
+         lo = hi;
+      }
+      return chunks;
+   }
+
+   private ArrayList<Vector3d> createVectorList (
+      ChunkParser[] chunks, int num, boolean normals) {
+
+      ArrayList<Vector3d> list = new ArrayList<Vector3d>(num);
+      for (ChunkParser chunk : chunks) {
+         DynamicDoubleArray vals =
+            (normals ? chunk.normals : chunk.textureVertices);
+         for (int i=0; i<vals.size(); i+=3) {
+            list.add (
+               new Vector3d (vals.get(i), vals.get(i+1), vals.get(i+2)));
+         }
+      }
+      return list;
+   }
+
+   /**
+    * Parses the file and builds the mesh. Returns <code>null</code> if the
+    * file contains input that this reader does not handle.
+    */
+   private MeshBase parseAndBuild (MeshBase mesh) throws IOException {
+      if (mesh != null &&
+          !(mesh instanceof PolygonalMesh) && !(mesh instanceof PointMesh)) {
+         return null;
+      }
+      final ChunkParser[] chunks = createChunks();
+      if (chunks == null) {
+         return null;
+      }
+      ParallelLoop.forEachChunk (
+         chunks.length, chunks.length, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               chunks[chunk].parse();
+            }
+         });
+      int numv = 0;
+      int numn = 0;
+      int numt = 0;
+      int numf = 0;
+      int numc = 0;
+      for (ChunkParser chunk : chunks) {
+         if (chunk.unsupported) {
+            return null;
+         }
+         chunk.vertexOff = numv;
+         chunk.normalOff = numn;
+         chunk.textureOff = numt;
+         chunk.faceOff = numf;
+         chunk.cornerOff = numc;
+         numv += chunk.numVertices();
+         numn += chunk.numNormals();
+         numt += chunk.numTextureVertices();
+         numf += chunk.numFaces();
+         numc += chunk.numCorners();
+      }
+      final int[] indices = new int[numc];
+      final int[] indexOffs = new int[numf+1];
+      final int[] tindices = new int[numc];
+      final int[] nindices = new int[numc];
+      indexOffs[numf] = numc;
+      final int nv = numv;
+      final int nt = numt;
+      final int nn = numn;
+      ParallelLoop.forEachChunk (
+         chunks.length, chunks.length, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               chunks[chunk].resolveFaces (
+                  indices, indexOffs, tindices, nindices, nv, nt, nn);
+            }
+         });
+      for (ChunkParser chunk : chunks) {
+         if (chunk.unsupported) {
+            return null;
+         }
+      }
+      double[] coords = new double[3*numv];
+      for (ChunkParser chunk : chunks) {
+         int size = chunk.vertices.size();
+         System.arraycopy (
+            chunk.vertices.getArray(), 0, coords, 3*chunk.vertexOff, size);
+      }
+      if (mesh == null) {
+         if (numf == 0) {
+            mesh = new PointMesh();
+         }
+         else {
+            mesh = new PolygonalMesh();
+         }
+      }
+      if (mesh instanceof PolygonalMesh) {
+         PolygonalMesh pmesh = (PolygonalMesh)mesh;
+         pmesh.set (coords, indices, indexOffs);
+         if (numt > 0) {
+            // for now, make sure we don't have partial texture coordinates
+            boolean incompleteTexture = false;
+            for (int i=0; i<tindices.length; i++) {
+               if (tindices[i] == -1) {
+                  incompleteTexture = true;
+                  break;
+               }
+            }
+            if (!incompleteTexture) {
+               pmesh.setTextureCoords (
+                  createVectorList (chunks, numt, false), tindices);
+            }
+         }
+         if (numn > 0) {
+            pmesh.setNormals (createVectorList (chunks, numn, true), nindices);
+            pmesh.setHardEdgesFromNormals();
+         }
+      }
+      else {
+         PointMesh pmesh = (PointMesh)mesh;
+         pmesh.clear();
+         for (int i=0; i<numv; i++) {
+            pmesh.addVertex (
+               new Point3d (coords[3*i], coords[3*i+1], coords[3*i+2]));
+         }
+         if (numn > 0) {
+            pmesh.setNormals (createVectorList (chunks, numn, true), null);
+         }
+         else {
+            pmesh.clearNormals();
+         }
+      }
+      mesh.setName (null);
+      return mesh;
+   }
+
+   public MeshBase readMesh (MeshBase mesh) throws IOException {
+      MeshBase result = parseAndBuild (mesh);
+      if (result == null) {
+         WavefrontReader reader = new WavefrontReader (myFile);
+         try {
+            reader.setZeroIndexed (myZeroIndexed);
+            result = reader.readMesh (mesh);
+         }
+         finally {
+            reader.close();
+         }
+      }
+      return result;
+   }
+
+   @Override
+   public PolygonalMesh readMesh() throws IOException {
+      return (PolygonalMesh)readMesh (new PolygonalMesh());
+   }
+
+   public static MeshBase read (File file) throws IOException {
+      ParallelWavefrontReader reader = null;
+      try {
+         reader = new ParallelWavefrontReader (file);
+         return reader.readMesh (null);
+      }
+      finally {
+         if (reader != null) {
+            reader.close();
+         }
+      }
+   }
+
+   public static MeshBase read (String fileName) throws IOException {
+      return read (new File(fileName));
+   }
+}
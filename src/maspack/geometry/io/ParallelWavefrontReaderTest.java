@@ -0,0 +1,203 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry.io;
+
+import java.io.*;
+
+import maspack.geometry.*;
+import maspack.util.*;
+
+/**
+ * Tests the ParallelWavefrontReader, by checking that it produces meshes
+ * identical to those produced by WavefrontReader.
+ */
+public class ParallelWavefrontReaderTest extends UnitTest {
+
+   String randomNumber () {
+      double x = RandomGenerator.nextDouble (-10, 10);
+      switch (RandomGenerator.nextInt (0, 5)) {
+         case 0: return Integer.toString ((int)x);
+         case 1: return String.format ("%.6f", x);
+         case 2: return String.format ("%.3e", x);
+         case 3: return Double.toString (x);
+         case 4: return Double.toString (x*1e-30);
+         default: return String.format ("%.20f", x);
+      }
+   }
+
+   /**
+    * Creates a random obj file. The face format can be one of "v", "v/t",
+    * "v//n", "v/t/n", or null to choose the format randomly for each face.
+    */
+   String createObj (
+      int nverts, int nfaces, String faceFormat, boolean relative) {
+      StringBuilder sb = new StringBuilder();
+      sb.append ("# random test mesh\n");
+      int nv = 0;
+      int nt = 0;
+      int nn = 0;
+      for (int i=0; i<nverts; i++) {
+         sb.append ("v "+randomNumber()+" "+randomNumber()+" "+randomNumber());
+         if (RandomGenerator.nextInt (0, 9) == 0) {
+            sb.append (" 2.5");
+         }
+         sb.append (i%7 == 0 ? "\r\n" : "\n");
+         nv++;
+         sb.append ("vn "+randomNumber()+" "+randomNumber()+" "+randomNumber());
+         sb.append ("  # normal\n");
+         nn++;
+         sb.append ("vt "+randomNumber());
+         if (i%2 == 0) {
+            sb.append (" "+randomNumber());
+         }
+         sb.append ("\n");
+         nt++;
+         if (i%10 == 0) {
+            sb.append ("\ns off\n");
+         }
+         // interleave faces with the vertices
+         if (nv >= 4 && RandomGenerator.nextInt (0, 3) == 0) {
+            int nf = RandomGenerator.nextInt (1, Math.max(1, 2*nfaces/nverts));
+            for (int k=0; k<nf; k++) {
+               appendFace (sb, nv, nt, nn, faceFormat, relative);
+            }
+         }
+      }
+      return sb.toString();
+   }
+
+   String index (int idx, int num, boolean relative) {
+      if (relative && RandomGenerator.nextInt (0, 1) == 0) {
+         return Integer.toString (idx-num);
+      }
+      else {
+         return Integer.toString (idx+1);
+      }
+   }
+
+   void appendFace (
+      StringBuilder sb, int nv, int nt, int nn,
+      String faceFormat, boolean relative) {
+
+      String[] formats = new String[] { "v", "v/t", "v//n", "v/t/n" };
+      String format = faceFormat;
+      if (format == null) {
+         format = formats[RandomGenerator.nextInt (0, 3)];
+      }
+      int ncorners = RandomGenerator.nextInt (3, 4);
+      int[] vidxs = RandomGenerator.randomSequence (0, nv-1, ncorners);
+      sb.append ("f");
+      for (int j=0; j<ncorners; j++) {
+         int vi = vidxs[j];
+         sb.append (" "+index (vi, nv, relative));
+         if (format.equals ("v/t")) {
+            sb.append ("/"+index (RandomGenerator.nextInt (0, nt-1), nt, relative));
+         }
+         else if (format.equals ("v//n")) {
+            sb.append ("//"+index (RandomGenerator.nextInt (0, nn-1), nn, relative));
+         }
+         else if (format.equals ("v/t/n")) {
+            sb.append ("/"+index (RandomGenerator.nextInt (0, nt-1), nt, relative));
+            sb.append ("/"+index (RandomGenerator.nextInt (0, nn-1), nn, relative));
+         }
+      }
+      sb.append ("\n");
+   }
+
+   File writeFile (String str) throws IOException {
+      File file = File.createTempFile ("objTest", ".obj");
+      file.deleteOnExit();
+      FileWriter writer = new FileWriter (file);
+      writer.write (str);
+      writer.close();
+      return file;
+   }
+
+   MeshBase readMesh (
+      File file, boolean parallel, boolean zeroIndexed) throws IOException {
+      MeshBase mesh;
+      if (parallel) {
+         ParallelWavefrontReader reader = new ParallelWavefrontReader (file);
+         reader.setZeroIndexed (zeroIndexed);
+         reader.setChunkSize (64);
+         mesh = reader.readMesh (null);
+         reader.close();
+      }
+      else {
+         WavefrontReader reader = new WavefrontReader (file);
+         reader.setZeroIndexed (zeroIndexed);
+         mesh = reader.readMesh (null);
+         reader.close();
+      }
+      return mesh;
+   }
+
+   void testRead (String str, boolean zeroIndexed) throws IOException {
+      File file = writeFile (str);
+      MeshBase check = null;
+      Exception checkError = null;
+      try {
+         check = readMesh (file, /*parallel=*/false, zeroIndexed);
+      }
+      catch (Exception e) {
+         checkError = e;
+      }
+      MeshBase result = null;
+      Exception error = null;
+      try {
+         result = readMesh (file, /*parallel=*/true, zeroIndexed);
+      }
+      catch (Exception e) {
+         error = e;
+      }
+      file.delete();
+      TestSupport.checkExceptions (error, checkError);
+      if (check != null) {
+         if (!result.getClass().equals (check.getClass()) ||
+             !result.epsilonEquals (check, 0)) {
+            throw new TestException (
+               "Mesh read in parallel does not equal mesh read serially");
+         }
+      }
+   }
+
+   void testRead (String str) throws IOException {
+      testRead (str, /*zeroIndexed=*/false);
+   }
+
+   public void test() throws IOException {
+      String[] formats = new String[] { "v", "v/t", "v//n", "v/t/n", null };
+      for (String format : formats) {
+         testRead (createObj (200, 300, format, /*relative=*/false));
+         testRead (createObj (200, 300, format, /*relative=*/true));
+      }
+      // point mesh
+      testRead (createObj (50, 0, "v", false));
+      // zero indexed
+      testRead (
+         "v 0 0 0\nv 1 0 0\nv 0 1 0\nv 0 0 1\nf 0 1 2\nf 1 2 3\n",
+         /*zeroIndexed=*/true);
+      // unsupported content, handled by WavefrontReader
+      testRead ("v 0 0 0\nv 1 0 0\nv 0 1 0\ng group\nf 1 2 3\n");
+      testRead ("v 0 0 0\nv 1 0 0\nv 0 1 0\nl 1 2 3\n");
+      testRead ("v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1/1 2 3\n");
+      testRead ("v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 \\\n 2 3\n");
+      testRead ("v +1 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n");
+      testRead ("v 1 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3 # comment\n");
+      // errors
+      testRead ("v 0 0 0\nv 1 0 0\nv 0 1 0\nf 0 1 2\n");
+      testRead ("v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 -4\n");
+      testRead ("v 0 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 4\n");
+      testRead ("v 0 0\nv 1 0 0\nv 0 1 0\nf 1 2 3\n");
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      ParallelWavefrontReaderTest tester = new ParallelWavefrontReaderTest();
+      tester.runtest();
+   }
+}
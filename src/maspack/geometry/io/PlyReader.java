@@ -5,11 +5,17 @@ import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.MeshBase;
 import maspack.geometry.PointMesh;
 import maspack.geometry.PolygonalMesh;
@@ -20,6 +26,7 @@ import maspack.matrix.Point3d;
 import maspack.matrix.Vector2d;
 import maspack.matrix.Vector3d;
 import maspack.util.BinaryInputStream;
+import maspack.util.DynamicIntArray;
 import maspack.util.InternalErrorException;
 import maspack.util.ReaderTokenizer;
 
@@ -34,6 +41,8 @@ public class PlyReader extends MeshReaderBase {
    private enum PropertyType {
       VERTEX, NORMAL, UV, COLOR, VERTEX_INDICES, UNKNOWN };   
 
+   boolean myMemoryMapping = false;
+
    public PlyReader (InputStream is) throws IOException {
       super (is);
    }
@@ -758,6 +767,330 @@ public class PlyReader extends MeshReaderBase {
       }
    }
 
+   private static int dataSize (DataType type) {
+      switch (type) {
+         case CHAR:
+         case UCHAR:
+            return 1;
+         case SHORT:
+         case USHORT:
+            return 2;
+         case INT:
+         case UINT:
+         case FLOAT:
+            return 4;
+         case DOUBLE:
+            return 8;
+         default: {
+            throw new IllegalArgumentException (
+               "Unimplemented data type '"+type+"'");
+         }
+      }
+   }
+
+   private static int getInt (ByteBuffer buf, int off, DataType type) {
+      switch (type) {      
+         case CHAR: {
+            return buf.get (off);
+         }
+         case UCHAR: {
+            return buf.get (off) & 0xFF;
+         }
+         case SHORT: {
+            return buf.getShort (off);
+         }
+         case USHORT: {
+            return buf.getShort (off) & 0xFFFF;
+         }
+         case INT: 
+         case UINT: {
+            return buf.getInt (off);
+         }
+         default: {
+            throw new IllegalArgumentException (
+               "Inappropriate data type '"+type+"' for int");
+         }
+      }
+   }
+
+   private static double getNumber (ByteBuffer buf, int off, DataType type) {
+      switch (type) {
+         case UINT: {
+            return (double)(buf.getInt (off) & 0xFFFFFFFFL);
+         }
+         case FLOAT: {
+            return buf.getFloat (off);
+         }
+         case DOUBLE: {
+            return buf.getDouble (off);
+         }
+         default: {
+            return getInt (buf, off, type);
+         }
+      }
+   }
+
+   /**
+    * Primitive arrays containing the mesh data that is read from a file.
+    */
+   private class MeshData {
+      double[] coords;
+      double[] normals;
+      float[] vertexColors;
+      int[] faceIndices;
+      int[] faceOffs;
+      float[] faceColors;
+
+      MeshData (
+         ArrayList<Point3d> verts, ArrayList<Vector3d> nrmls,
+         ArrayList<float[]> vcolors, ArrayList<int[]> faces,
+         ArrayList<float[]> fcolors) {
+
+         coords = new double[3*verts.size()];
+         for (int i=0; i<verts.size(); i++) {
+            Point3d pnt = verts.get(i);
+            coords[3*i  ] = pnt.x;
+            coords[3*i+1] = pnt.y;
+            coords[3*i+2] = pnt.z;
+         }
+         if (nrmls.size() > 0) {
+            normals = new double[3*nrmls.size()];
+            for (int i=0; i<nrmls.size(); i++) {
+               Vector3d nrm = nrmls.get(i);
+               normals[3*i  ] = nrm.x;
+               normals[3*i+1] = nrm.y;
+               normals[3*i+2] = nrm.z;
+            }
+         }
+         vertexColors = packColors (vcolors);
+         faceOffs = new int[faces.size()+1];
+         for (int i=0; i<faces.size(); i++) {
+            faceOffs[i+1] = faceOffs[i] + faces.get(i).length;
+         }
+         faceIndices = new int[faceOffs[faces.size()]];
+         for (int i=0; i<faces.size(); i++) {
+            int[] idxs = faces.get(i);
+            for (int j=0; j<idxs.length; j++) {
+               faceIndices[faceOffs[i]+j] = idxs[j];
+            }
+         }
+         faceColors = packColors (fcolors);
+      }
+
+      MeshData() {
+      }
+
+      private float[] packColors (ArrayList<float[]> colors) {
+         if (colors.size() == 0) {
+            return null;
+         }
+         float[] packed = new float[3*colors.size()];
+         for (int i=0; i<colors.size(); i++) {
+            float[] c = colors.get(i);
+            packed[3*i  ] = c[0];
+            packed[3*i+1] = c[1];
+            packed[3*i+2] = c[2];
+         }
+         return packed;
+      }
+
+      int numVertices() {
+         return coords.length/3;
+      }
+
+      int numFaces() {
+         return faceOffs.length-1;
+      }
+   }
+
+   private boolean hasPropertyType (
+      ArrayList<Property> props, PropertyType type) {
+      for (Property prop : props) {
+         if (prop.myPropType == type) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Reads the binary vertex and face data from a memory mapped buffer.
+    * Vertex records have a fixed size and so are decoded in parallel, while
+    * face records are decoded serially. Returns <code>null</code> if the
+    * data cannot be read this way.
+    */
+   private MeshData readMappedData (final ByteBuffer buf) throws IOException {
+      if (myFaceVertexIndices != null) {
+         switch (myFaceVertexIndices.getValueType()) {
+            case CHAR:
+            case UCHAR: {
+               // handled by the stream reader
+               return null;
+            }
+            default:
+         }
+      }
+      final MeshData data = new MeshData();
+      final int nverts = myNumVerts;
+      final Property[] vprops = myVertProps.toArray (new Property[0]);
+      final int[] voffs = new int[vprops.length];
+      int vsize = 0;
+      for (int k=0; k<vprops.length; k++) {
+         voffs[k] = vsize;
+         int nvals = 1;
+         switch (vprops[k].myPropType) {
+            case VERTEX:
+            case NORMAL:
+            case COLOR: {
+               nvals = 3;
+               break;
+            }
+            default:
+         }
+         vsize += nvals*dataSize (vprops[k].myDataType);
+      }
+      final int vrecSize = vsize;
+      if ((long)nverts*vrecSize > buf.limit()) {
+         throw new EOFException();
+      }
+      data.coords = new double[3*nverts];
+      if (hasPropertyType (myVertProps, PropertyType.NORMAL)) {
+         data.normals = new double[3*nverts];
+      }
+      if (hasPropertyType (myVertProps, PropertyType.COLOR)) {
+         data.vertexColors = new float[3*nverts];
+      }
+      int nchunks = ParallelLoop.numChunks (nverts, 0, 16384);
+      ParallelLoop.forEachChunk (
+         nverts, nchunks, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               ByteBuffer bb = buf.duplicate();
+               bb.order (buf.order());
+               for (int i=lo; i<hi; i++) {
+                  for (int k=0; k<vprops.length; k++) {
+                     DataType type = vprops[k].myDataType;
+                     int size = dataSize (type);
+                     int off = i*vrecSize + voffs[k];
+                     switch (vprops[k].myPropType) {
+                        case VERTEX: {
+                           for (int j=0; j<3; j++) {
+                              data.coords[3*i+j] =
+                                 getNumber (bb, off+j*size, type);
+                           }
+                           break;
+                        }
+                        case NORMAL: {
+                           for (int j=0; j<3; j++) {
+                              data.normals[3*i+j] =
+                                 getNumber (bb, off+j*size, type);
+                           }
+                           break;
+                        }
+                        case COLOR: {
+                           for (int j=0; j<3; j++) {
+                              data.vertexColors[3*i+j] =
+                                 (float)getNumber (bb, off+j*size, type)/255f;
+                           }
+                           break;
+                        }
+                        default:
+                     }
+                  }
+               }
+            }
+         });
+
+      int off = nverts*vrecSize;
+      data.faceOffs = new int[myNumFaces+1];
+      DynamicIntArray indices = new DynamicIntArray(3*myNumFaces);
+      boolean hasFaceColors = hasPropertyType (myFaceProps, PropertyType.COLOR);
+      if (hasFaceColors) {
+         data.faceColors = new float[3*myNumFaces];
+      }
+      try {
+         for (int i=0; i<myNumFaces; i++) {
+            DataType stype = myFaceVertexIndices.getSizeType();
+            DataType vtype = myFaceVertexIndices.getValueType();
+            int nidxs = getInt (buf, off, stype);
+            off += dataSize (stype);
+            int vsz = dataSize (vtype);
+            for (int j=0; j<nidxs; j++) {
+               indices.add ((int)getNumber (buf, off, vtype));
+               off += vsz;
+            }
+            data.faceOffs[i+1] = indices.size();
+            for (Property prop : myFaceProps) {
+               DataType type = prop.myDataType;
+               int size = dataSize (type);
+               switch (prop.myPropType) {
+                  case COLOR: {
+                     for (int j=0; j<3; j++) {
+                        data.faceColors[3*i+j] =
+                           (float)getNumber (buf, off+j*size, type)/255f;
+                     }
+                     off += 3*size;
+                     break;
+                  }
+                  case VERTEX:
+                  case NORMAL: {
+                     // not implemented, ignore
+                     off += 3*size;
+                     break;
+                  }
+                  default: {
+                     off += size;
+                  }
+               }
+            }
+         }
+      }
+      catch (IndexOutOfBoundsException e) {
+         throw new EOFException();
+      }
+      data.faceIndices = Arrays.copyOf (indices.getArray(), indices.size());
+      return data;
+   }
+
+   /**
+    * Tries to read the binary data by memory mapping the remainder of the
+    * file. Returns <code>null</code> if this is not possible.
+    */
+   private MeshData readMappedData() throws IOException {
+      if (myFile == null || !(myIstream instanceof FileInputStream)) {
+         return null;
+      }
+      FileChannel channel = ((FileInputStream)myIstream).getChannel();
+      long pos = channel.position();
+      long size = channel.size() - pos;
+      if (size > Integer.MAX_VALUE) {
+         return null;
+      }
+      ByteBuffer buf = channel.map (FileChannel.MapMode.READ_ONLY, pos, size);
+      if (myDataFormat == DataFormat.BINARY_LITTLE_ENDIAN) {
+         buf.order (ByteOrder.LITTLE_ENDIAN);
+      }
+      else {
+         buf.order (ByteOrder.BIG_ENDIAN);
+      }
+      return readMappedData (buf);
+   }
+
+   /**
+    * Sets whether binary files should be read by memory mapping them. This
+    * only has an effect if the reader was created from a file, and is
+    * typically faster for large files.
+    */
+   public void setMemoryMapping (boolean enable) {
+      myMemoryMapping = enable;
+   }
+
+   /**
+    * Queries whether binary files are read by memory mapping them.
+    */
+   public boolean getMemoryMapping() {
+      return myMemoryMapping;
+   }
+
    public DataFormat getDataFormat() {
       return myDataFormat;
    }
@@ -776,6 +1109,18 @@ public class PlyReader extends MeshReaderBase {
       DataInputStream is = new DataInputStream (myIstream);
 
       parseHeader (is);
+
+      MeshData data = null;
+      if (myDataFormat != DataFormat.ASCII && myMemoryMapping) {
+         data = readMappedData();
+      }
+      if (data == null) {
+         data = readStreamData();
+      }
+      return buildMesh (mesh, data);
+   }
+
+   private MeshData readStreamData() throws IOException {
       ArrayList<Point3d> verts = new ArrayList<Point3d>();
       ArrayList<Vector3d> nrmls = new ArrayList<Vector3d>();
       ArrayList<float[]> vertexColors = new ArrayList<float[]>();
@@ -797,7 +1142,11 @@ public class PlyReader extends MeshReaderBase {
          readVertexInfo (bis, verts, nrmls, vertexColors);
          readFaceInfo (bis, faces, faceColors);
       }
+      return new MeshData (verts, nrmls, vertexColors, faces, faceColors);
+   }
 
+   private MeshBase buildMesh (MeshBase mesh, MeshData data) {
+      int nverts = data.numVertices();
       if (mesh == null) {
          if (myNumFaces == 0) {
             mesh = new PointMesh();
@@ -808,48 +1157,71 @@ public class PlyReader extends MeshReaderBase {
       }
       if (mesh instanceof PolygonalMesh) {
          PolygonalMesh pmesh = (PolygonalMesh)mesh;
-         int icnt = 0;
-         for (Point3d pnt : verts) {
-            pmesh.addVertex (pnt);
+         if (pmesh.numVertices() == 0 && pmesh.numFaces() == 0) {
+            // build the whole mesh at once
+            pmesh.set (data.coords, data.faceIndices, data.faceOffs);
          }
-         for (int[] idxs : faces) {
-            pmesh.addFace (idxs);
-            icnt += idxs.length;
+         else {
+            for (int i=0; i<nverts; i++) {
+               pmesh.addVertex (new Point3d (
+                  data.coords[3*i], data.coords[3*i+1], data.coords[3*i+2]));
+            }
+            for (int i=0; i<data.numFaces(); i++) {
+               int off = data.faceOffs[i];
+               int[] idxs = new int[data.faceOffs[i+1]-off];
+               for (int j=0; j<idxs.length; j++) {
+                  idxs[j] = data.faceIndices[off+j];
+               }
+               pmesh.addFace (idxs);
+            }
          }
-         if (nrmls.size() > 0) {
+         if (data.normals != null) {
             // we have to assume here the there is one normal per vertex,
             // and assign the normal indices accordingly]
-            int k = 0;
-            int[] normalIndices = new int[icnt];
-            for (int i=0; i<faces.size(); i++) {
-               int[] idxs = pmesh.getFaces().get(i).getVertexIndices();
-               for (int j=0; j<idxs.length; j++) {
-                  normalIndices[k++] = idxs[j];
-               }
+            ArrayList<Vector3d> nrmls = new ArrayList<Vector3d>(nverts);
+            for (int i=0; i<data.normals.length/3; i++) {
+               nrmls.add (new Vector3d (
+                  data.normals[3*i], data.normals[3*i+1], data.normals[3*i+2]));
             }
-            pmesh.setNormals (nrmls, normalIndices);
+            pmesh.setNormals (nrmls, data.faceIndices.clone());
             pmesh.setHardEdgesFromNormals();
          }
-         if (faceColors.size() > 0) {
+         if (data.faceColors != null) {
             mesh.setFeatureColoringEnabled();
-            for (int i=0; i<faceColors.size(); i++) {
-               mesh.setColor (i, faceColors.get(i));
+            for (int i=0; i<data.faceColors.length/3; i++) {
+               mesh.setColor (
+                  i, data.faceColors[3*i],
+                  data.faceColors[3*i+1], data.faceColors[3*i+2], 1f);
             }
          }
       }
       else if (mesh instanceof PointMesh) {
          PointMesh pmesh = (PointMesh)mesh;
-         pmesh.set (
-            verts.toArray(new Point3d[0]), nrmls.toArray(new Vector3d[0]));
+         Point3d[] pnts = new Point3d[nverts];
+         for (int i=0; i<nverts; i++) {
+            pnts[i] = new Point3d (
+                  data.coords[3*i], data.coords[3*i+1], data.coords[3*i+2]);
+         }
+         Vector3d[] nrmls = new Vector3d[0];
+         if (data.normals != null) {
+            nrmls = new Vector3d[data.normals.length/3];
+            for (int i=0; i<nrmls.length; i++) {
+               nrmls[i] = new Vector3d (
+                  data.normals[3*i], data.normals[3*i+1], data.normals[3*i+2]);
+            }
+         }
+         pmesh.set (pnts, nrmls);
       }
       else {
          throw new UnsupportedOperationException (
             "Mesh type "+mesh.getClass()+" not supported for '.ply' files");
       }
-      if (vertexColors.size() > 0) {
+      if (data.vertexColors != null) {
          mesh.setVertexColoringEnabled();
-         for (int i=0; i<vertexColors.size(); i++) {
-            mesh.setColor (i, vertexColors.get(i));
+         for (int i=0; i<data.vertexColors.length/3; i++) {
+            mesh.setColor (
+               i, data.vertexColors[3*i],
+               data.vertexColors[3*i+1], data.vertexColors[3*i+2], 1f);
          }
       }
       return mesh;   
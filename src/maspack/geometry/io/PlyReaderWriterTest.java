@@ -59,6 +59,24 @@ public class PlyReaderWriterTest extends UnitTest {
       if (!check.epsilonEquals (mesh, eps)) {
          throw new TestException ("Read mesh does not equal written mesh");
       }
+      if (dataFmt != DataFormat.ASCII) {
+         // binary data read from a memory mapped file should be identical
+         File file = File.createTempFile ("plyTest", ".ply");
+         file.deleteOnExit();
+         FileOutputStream fos = new FileOutputStream (file);
+         fos.write (bytes);
+         fos.close();
+         reader = new PlyReader (file);
+         reader.setMemoryMapping (true);
+         MeshBase mapped = reader.readMesh (null);
+         reader.close();
+         file.delete();
+         if (!mapped.getClass().equals (check.getClass()) ||
+             !mapped.epsilonEquals (check, 0)) {
+            throw new TestException (
+               "Mesh read from mapped file does not equal mesh read from stream");
+         }
+      }
    }
 
    void test (MeshBase mesh, boolean writeNrms) throws IOException {
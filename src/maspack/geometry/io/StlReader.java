@@ -9,17 +9,16 @@ import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 
-import maspack.geometry.AABBTree;
-import maspack.geometry.BVNode;
-import maspack.geometry.Boundable;
+import maspack.concurrency.ParallelLoop;
 import maspack.geometry.MeshBase;
 // import maspack.geometry.KDTree3d;
 import maspack.geometry.PolygonalMesh;
-import maspack.matrix.Matrix3d;
 import maspack.matrix.Point3d;
-import maspack.matrix.Vector3d;
 import maspack.util.ReaderTokenizer;
 
 /**
@@ -31,6 +30,7 @@ public class StlReader extends MeshReaderBase {
 
    public static double DEFAULT_TOLERANCE = 1e-15;
    double myTol = DEFAULT_TOLERANCE;
+   boolean myMemoryMapping = false;
    
    public StlReader (InputStream is) throws IOException {
       super (is);
@@ -57,6 +57,22 @@ public class StlReader extends MeshReaderBase {
    public double getTolerance() {
       return myTol;
    }
+
+   /**
+    * Sets whether binary files should be read by memory mapping them. This
+    * only has an effect if the reader was created from a file, and is
+    * typically faster for large files.
+    */
+   public void setMemoryMapping (boolean enable) {
+      myMemoryMapping = enable;
+   }
+
+   /**
+    * Queries whether binary files are read by memory mapping them.
+    */
+   public boolean getMemoryMapping() {
+      return myMemoryMapping;
+   }
    
 //   public static PolygonalMesh read(PolygonalMesh mesh, Reader reader) throws IOException {
 //      
@@ -81,7 +97,6 @@ public class StlReader extends MeshReaderBase {
    }
    
    public static PolygonalMesh readBinary(PolygonalMesh mesh, InputStream is, double tol) throws IOException {
-      boolean _printDebug = false;
       // Byte ordering is assumed to be Little Endian (see wikipedia on STL format).
       // Format of binary STL is 
       // 80 byte header (skip)
@@ -101,140 +116,82 @@ public class StlReader extends MeshReaderBase {
       numFacets <<= 8;
       numFacets |= bbuf[0] & 0xFF;
 
-      if (_printDebug) {
-         System.out.println("Num facets: "+ numFacets);
-      }
-      
-      ArrayList<Point3d> nodeList = new ArrayList<Point3d>();
-      ArrayList<ArrayList<Integer>> faceList = new ArrayList<ArrayList<Integer>>();
-
-      if (_printDebug) {
-         System.out.print("Reading file... ");
-      }
       // For big files, it is slightly faster to read one facet
       // at a time than the whole file at once (for some reason).
-      long start = System.nanoTime ();
       int facetSize = 50;
       bbuf = new byte[facetSize];
-      
-      ArrayList<Point3d> allPoints = new ArrayList<Point3d>(3*(int)numFacets);
-      ArrayList<ArrayList<Integer>> allFaces = new ArrayList<ArrayList<Integer>>((int)numFacets);
-
-      {
-         int idx = 0;
-         for (long i=0; i<numFacets; i++) {
-            int nBytesRead = is.read(bbuf,0,facetSize);
-            if (nBytesRead < facetSize) {
-               throw new IOException ("Invalid STL file detected! (non-matching size)");
-            }
-            ByteBuffer bb = ByteBuffer.wrap(bbuf);
-            bb.order(ByteOrder.LITTLE_ENDIAN);
-            
-            // Ignore normal
-            bb.getFloat ();
-            bb.getFloat ();
-            bb.getFloat ();
-            
-            ArrayList<Integer> face = new ArrayList<Integer>();
-            // Read all 3 vertices
-            double[] vals = new double[3];
-            for (int j=0; j<3; j++) {
-               vals[0] = bb.getFloat();
-               vals[1] = bb.getFloat();
-               vals[2] = bb.getFloat();
-               Point3d pnt;
-               pnt = new Point3d(vals);
-               allPoints.add (pnt);
-               face.add (idx++);
-            }
-            allFaces.add (face);
-            bb.getShort (); // Attribute byte count should = 0
+      ByteBuffer bb = ByteBuffer.wrap(bbuf);
+      bb.order(ByteOrder.LITTLE_ENDIAN);
+      
+      double[] coords = new double[9*(int)numFacets];
+      int k = 0;
+      for (long i=0; i<numFacets; i++) {
+         int nBytesRead = is.read(bbuf,0,facetSize);
+         if (nBytesRead < facetSize) {
+            throw new IOException ("Invalid STL file detected! (non-matching size)");
          }
+         // Ignore normal; read all 3 vertices
+         for (int j=12; j<48; j+=4) {
+            coords[k++] = bb.getFloat(j);
+         }
+         // Attribute byte count at 48 should = 0
       }
-      
-      //      if (_printDebug) {
-      //         System.out.println ("("+1.e-9*(System.nanoTime()-start)+")");
-      //         System.out.print ("Building spatial hash table... ");
-      //         start = System.nanoTime ();
-      //      }
-      //      
-      //      SpatialHashTable<Point3d> table = new SpatialHashTable<Point3d>(tol);
-      //      table.setup (allPoints, allPoints);
-      
-      //      if (_printDebug) {
-      //         System.out.println ("("+1.e-9*(System.nanoTime()-start)+")");
-      //         System.out.print ("Scanning for unique verts... ");
-      //         start = System.nanoTime ();
-      //      }
-      //      
-      //      HashMap<Point3d, Integer> allToUniqueMap = new HashMap<Point3d, Integer> (allPoints.size());
-      //      double tolSq = tol*tol;
-      //      for (Point3d pnt : allPoints) {
-      //         if (allToUniqueMap.containsKey (pnt)) {
-      //            continue;
-      //         }
-      //         
-      //         // Find all points within tol of pnt
-      //         List<Point3d> results = new ArrayList<Point3d>(); 
-      //         List<Point3d> cell = table.getElsNear (pnt);//table.getCellsNearOld (pnt);
-      //         //while (it.hasNext ()) {
-      //         //   List<Point3d> cell = it.next ();
-      //         //   if (cell == null) 
-      //         //      continue;
-      //         if (cell != null) {
-      //            for (Point3d neighbour : cell) {
-      //               if (neighbour.distanceSquared (pnt) < tolSq) {
-      //                  results.add (neighbour);
-      //               }
-      //            }
-      //         }
-      //         int idx = nodeList.size();
-      //         nodeList.add (pnt);
-      //         for (Point3d neighbour : results) {
-      //            allToUniqueMap.put (neighbour, idx);
-      //         }
-      //      }
-      //      
-      //      if (_printDebug) {
-      //         System.out.println ("("+1.e-9*(System.nanoTime()-start)+")");
-      //         System.out.print ("Building faceList... ");
-      //         start = System.nanoTime ();
-      //
-      //      }
-      //
-      //      // Build face list by looking up the index of the Unique vert through hashmap.
-      //      for (ArrayList<Integer> face : allFaces) {
-      //         ArrayList<Integer> faceNodes = new ArrayList<Integer>(3);
-      //         for (int i=0; i<3; i++) {
-      //            int idx = allToUniqueMap.get (allPoints.get (face.get(i)));
-      //            faceNodes.add(idx);
-      //         }
-      //         
-      //         faceList.add (faceNodes);
-      //      }
-      //      
-      if (_printDebug) {
-         System.out.println ("("+1.e-9*(System.nanoTime()-start)+")");
-         System.out.print ("building mesh... ");
-         start = System.nanoTime ();
-      }
-      
-      // XXX tested 2x faster than spatial hashmap
-      nodeList.addAll (allPoints);
-      faceList.addAll (allFaces);
-      mergeNearbyNodes (nodeList, faceList, tol);
-      mesh = buildMesh(mesh, nodeList, faceList);
-      
-      if (_printDebug) {
-         System.out.println ("("+1.e-9*(System.nanoTime()-start)+")");
-         System.out.println("Done!");
-         System.out.println("Unique verts: " + nodeList.size ());
-         System.out.println("Unique faces: " + allFaces.size ());
-      }
+      return buildMesh (mesh, coords, null, null, tol);
+   }
 
-         
-      return mesh;
-      
+   /**
+    * Reads a binary STL file by memory mapping it. The facet vertices are
+    * decoded in parallel directly into a coordinate array, after which
+    * coincident vertices are merged and the mesh is built in one pass.
+    * 
+    * @param mesh if non-<code>null</code>, mesh to store the result in
+    * @param file binary STL file
+    * @param tol tolerance for merging vertices
+    * @return the mesh, or <code>null</code> if the file starts with
+    * "solid" (indicating ASCII), has a size that does not agree with its
+    * facet count, or is too large to be mapped
+    */
+   public static PolygonalMesh readBinaryMapped (
+      PolygonalMesh mesh, File file, double tol) throws IOException {
+
+      final ByteBuffer buf;
+      try (FileChannel channel = FileChannel.open (
+              file.toPath(), StandardOpenOption.READ)) {
+         long size = channel.size();
+         if (size < 84 || size > Integer.MAX_VALUE) {
+            return null;
+         }
+         buf = channel.map (FileChannel.MapMode.READ_ONLY, 0, size);
+      }
+      buf.order (ByteOrder.LITTLE_ENDIAN);
+      byte[] bbuf = new byte[5];
+      buf.get (bbuf);
+      if ((new String(bbuf)).equals ("solid")) {
+         // ASCII file
+         return null;
+      }
+      final long numFacets = buf.getInt (80) & 0xFFFFFFFFL;
+      if (84 + 50*numFacets != buf.capacity()) {
+         return null;
+      }
+      final double[] coords = new double[9*(int)numFacets];
+      int nchunks = ParallelLoop.numChunks ((int)numFacets, 0, 65536);
+      ParallelLoop.forEachChunk (
+         (int)numFacets, nchunks, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               ByteBuffer bb = buf.duplicate();
+               bb.order (ByteOrder.LITTLE_ENDIAN);
+               int k = 9*lo;
+               for (int i=lo; i<hi; i++) {
+                  // skip the normal and read all 3 vertices
+                  int off = 84 + 50*i + 12;
+                  for (int j=0; j<9; j++) {
+                     coords[k++] = bb.getFloat (off+4*j);
+                  }
+               }
+            }
+         });
+      return buildMesh (mesh, coords, null, null, tol);
    }
    
    public static PolygonalMesh readASCII(PolygonalMesh mesh, Reader reader, double tol) throws IOException {
@@ -269,8 +226,7 @@ public class StlReader extends MeshReaderBase {
                   setMeshName = false;
                }
                
-               mergeNearbyNodes (nodeList, faceList, tol);
-               mesh = buildMesh(mesh, nodeList, faceList);
+               mesh = buildMesh(mesh, nodeList, faceList, tol);
                
                if (setMeshName) {
                   mesh.setName(solidName);
@@ -285,30 +241,59 @@ public class StlReader extends MeshReaderBase {
       
    }
    
-   private static PolygonalMesh buildMesh(PolygonalMesh mesh, ArrayList<Point3d> nodes, ArrayList<ArrayList<Integer>> faces) {
+   private static PolygonalMesh buildMesh (
+      PolygonalMesh mesh, ArrayList<Point3d> nodes,
+      ArrayList<ArrayList<Integer>> faces, double tol) {
 
-      if (mesh == null) {
-         mesh = new PolygonalMesh();
-      } else {
-         mesh.clear();
-      }
-      
-      Point3d[] pnts = new Point3d[nodes.size()];
-      int[][] faceIndices = new int[faces.size()][];
+      double[] coords = new double[3*nodes.size()];
       for (int i=0; i<nodes.size(); i++) {
-         pnts[i] = nodes.get(i);
+         Point3d pnt = nodes.get(i);
+         coords[3*i  ] = pnt.x;
+         coords[3*i+1] = pnt.y;
+         coords[3*i+2] = pnt.z;
       }
-      
-      ArrayList<Integer> face;
+      int[] indexOffs = new int[faces.size()+1];
+      for (int i=0; i<faces.size(); i++) {
+         indexOffs[i+1] = indexOffs[i] + faces.get(i).size();
+      }
+      int[] indices = new int[indexOffs[faces.size()]];
       for (int i=0; i<faces.size(); i++) {
-         face = faces.get(i);
-         faceIndices[i] = new int[face.size()];
+         ArrayList<Integer> face = faces.get(i);
          for (int j=0; j<face.size(); j++) {
-            faceIndices[i][j] = face.get(j);
+            indices[indexOffs[i]+j] = face.get(j);
          }
       }
-      mesh.set(pnts, faceIndices);
-      
+      return buildMesh (mesh, coords, indices, indexOffs, tol);
+   }
+
+   /**
+    * Builds a mesh from an array of vertex coordinates, merging vertices that
+    * are within a distance tol of each other.
+    *
+    * @param indices vertex indices of the faces. If <code>null</code>,
+    * each consecutive triple of vertices forms a triangle.
+    * @param indexOffs offsets of each face within <code>indices</code>, or
+    * <code>null</code> if all faces are triangles
+    */
+   private static PolygonalMesh buildMesh (
+      PolygonalMesh mesh, double[] coords,
+      int[] indices, int[] indexOffs, double tol) {
+
+      if (mesh == null) {
+         mesh = new PolygonalMesh();
+      }
+      int npnts = coords.length/3;
+      int[] idxmap = new int[npnts];
+      int nunique = mergeNearbyNodes (coords, npnts, idxmap, tol);
+      if (indices == null) {
+         indices = idxmap;
+      }
+      else {
+         for (int k=0; k<indices.length; k++) {
+            indices[k] = idxmap[indices[k]];
+         }
+      }
+      mesh.set (Arrays.copyOf (coords, 3*nunique), indices, indexOffs);
       return mesh;
    }
    
@@ -364,98 +349,128 @@ public class StlReader extends MeshReaderBase {
       return faceNodes;
    }
    
-   private static class PointBoundable implements Boundable {
+   private static int hashCell (int ix, int iy, int iz) {
+      int h = ix*0x9E3779B1 + iy*0x85EBCA6B + iz*0xC2B2AE35;
+      return h ^ (h >>> 16);
+   }
 
-      Point3d pnt;
-      int idx;
-      
-      public PointBoundable(Point3d pnt, int idx) {
-         this.pnt = pnt;
-         this.idx = idx;
-      }
-      
-      @Override
-      public int numPoints () {
-         return 1;
-      }
+   /**
+    * Merges points that lie within a distance tol of each other. Points are
+    * processed in order, with each point either becoming a new unique point,
+    * or being merged with the first unique point that lies within tol.
+    * Unique points are located using a hash table of cubic cells whose width
+    * is at least tol, so that only the cells adjacent to each point need to be
+    * searched.
+    *
+    * @param coords point coordinates. On output, the first
+    * <code>3*nunique</code> entries are set to the coordinates of the
+    * unique points.
+    * @param npnts number of points
+    * @param idxmap returns the index of the unique point for each point
+    * @param tol distance tolerance for merging
+    * @return number of unique points <code>nunique</code>
+    */
+   static int mergeNearbyNodes (
+      double[] coords, int npnts, int[] idxmap, double tol) {
 
-      @Override
-      public Point3d getPoint (int idx) {
-         return pnt;
+      if (!(tol > 0)) {
+         // points are only merged if their distance is less than tol
+         for (int i=0; i<npnts; i++) {
+            idxmap[i] = i;
+         }
+         return npnts;
       }
-
-      @Override
-      public void computeCentroid (Vector3d centroid) {
-         centroid.set (pnt);
+      // make cells large enough that the cell indices fit into an int
+      double maxc = 0;
+      for (int k=0; k<3*npnts; k++) {
+         maxc = Math.max (maxc, Math.abs(coords[k]));
       }
+      double width = Math.max (tol, maxc/(1 << 29));
 
-      @Override
-      public void updateBounds (Vector3d min, Vector3d max) {
-         pnt.updateBounds (min, max);
-      }
+      int cap = Integer.highestOneBit (Math.max (4*npnts, 16));
+      int mask = cap-1;
+      // hash table entries: cell indices and the first and last unique
+      // point in the cell
+      int[] cellIdxs = new int[3*cap];
+      int[] cellHead = new int[cap];
+      int[] cellTail = new int[cap];
+      Arrays.fill (cellHead, -1);
+      // unique points, and the next unique point within the same cell
+      int[] unique = new int[npnts];
+      int[] next = new int[npnts];
+      int nunique = 0;
 
-      @Override
-      public double computeCovariance (Matrix3d C) {
-         return -1;
-      }
-   }
-   
-   private static void mergeNearbyNodes(ArrayList<Point3d> nodes, ArrayList<ArrayList<Integer>> faces, double tol) {
-      
-      // build bounding volume tree if points
-      AABBTree tree = new AABBTree ();
-      tree.setMargin (tol);
-      tree.setMaxLeafElements (4);
-      ArrayList<PointBoundable> nb = new ArrayList<>(nodes.size ());
-      for (int i=0; i<nodes.size (); ++i) {
-         nb.add (new PointBoundable (nodes.get (i), i));
-      }
-      tree.build (nb);
-      
-      // map each point to nearest
-      int[] idxmap = new int[nodes.size ()];
-      for (int i=0; i<idxmap.length; ++i) {
-         idxmap[i] = -1;
-      }
-      
-      ArrayList<BVNode> bvnodes = new ArrayList<>();
-      ArrayList<Point3d> npoints = new ArrayList<>();
-      
-      int nidx = 0;
-      for (int i=0; i<idxmap.length; ++i) {
-         if (idxmap[i] < 0) {
-            idxmap[i] = nidx;
-            
-            Point3d p = nodes.get (i);
-            npoints.add (new Point3d(p));
-            
-            // find other nearby nodes
-            bvnodes.clear ();
-            tree.intersectPoint (bvnodes, p);
-            for (BVNode node : bvnodes) {
-               for (Boundable b : node.getElements ()) {
-                  PointBoundable pb = (PointBoundable)b;
-                  // mark any nearby nodes
-                  if (idxmap[pb.idx] < 0) {
-                     if (pb.pnt.distance (p) < tol) {
-                        idxmap[pb.idx] = nidx;
+      for (int i=0; i<npnts; i++) {
+         double x = coords[3*i];
+         double y = coords[3*i+1];
+         double z = coords[3*i+2];
+         int ix = (int)Math.floor (x/width);
+         int iy = (int)Math.floor (y/width);
+         int iz = (int)Math.floor (z/width);
+         int match = -1;
+         for (int cx=ix-1; cx<=ix+1; cx++) {
+            for (int cy=iy-1; cy<=iy+1; cy++) {
+               for (int cz=iz-1; cz<=iz+1; cz++) {
+                  int slot = hashCell (cx, cy, cz) & mask;
+                  while (cellHead[slot] != -1 &&
+                         (cellIdxs[3*slot] != cx ||
+                          cellIdxs[3*slot+1] != cy ||
+                          cellIdxs[3*slot+2] != cz)) {
+                     slot = (slot+1) & mask;
+                  }
+                  // unique points are stored in each cell in increasing
+                  // order, so the first within tol is the lowest
+                  for (int u=cellHead[slot]; u!=-1; u=next[u]) {
+                     if (match != -1 && u > match) {
+                        break;
                      }
-                  } // unmarked
-               } // boundables
-            } // nodes
-            nidx++;  // next new node
-         } // unmarked
-      } // nodes
-      
-      nodes.clear ();
-      nodes.addAll (npoints);
-      
-      for (ArrayList<Integer> face : faces) {
-         for (int j=0; j<face.size (); ++j) {
-            face.set (j, idxmap[face.get (j)]);
+                     int j = unique[u];
+                     double dx = coords[3*j] - x;
+                     double dy = coords[3*j+1] - y;
+                     double dz = coords[3*j+2] - z;
+                     if (Math.sqrt (dx*dx + dy*dy + dz*dz) < tol) {
+                        match = u;
+                        break;
+                     }
+                  }
+               }
+            }
+         }
+         if (match != -1) {
+            idxmap[i] = match;
+         }
+         else {
+            int u = nunique++;
+            unique[u] = i;
+            next[u] = -1;
+            idxmap[i] = u;
+            int slot = hashCell (ix, iy, iz) & mask;
+            while (cellHead[slot] != -1 &&
+                   (cellIdxs[3*slot] != ix ||
+                    cellIdxs[3*slot+1] != iy ||
+                    cellIdxs[3*slot+2] != iz)) {
+               slot = (slot+1) & mask;
+            }
+            if (cellHead[slot] == -1) {
+               cellIdxs[3*slot] = ix;
+               cellIdxs[3*slot+1] = iy;
+               cellIdxs[3*slot+2] = iz;
+               cellHead[slot] = u;
+            }
+            else {
+               next[cellTail[slot]] = u;
+            }
+            cellTail[slot] = u;
          }
       }
-      
+      // compact coordinates of the unique points
+      for (int u=0; u<nunique; u++) {
+         int j = unique[u];
+         coords[3*u  ] = coords[3*j  ];
+         coords[3*u+1] = coords[3*j+1];
+         coords[3*u+2] = coords[3*j+2];
+      }
+      return nunique;
    }
    
    //   private static int findOrAddNode(Point3d pos, ArrayList<Point3d> nodes, double tol) {
@@ -512,6 +527,13 @@ public class StlReader extends MeshReaderBase {
          mesh = new PolygonalMesh();
       }
       if (mesh instanceof PolygonalMesh) {
+         if (myMemoryMapping && myFile != null) {
+            PolygonalMesh pmesh =
+               readBinaryMapped ((PolygonalMesh)mesh, myFile, myTol);
+            if (pmesh != null) {
+               return pmesh;
+            }
+         }
          return read((PolygonalMesh)mesh, new BufferedInputStream(myIstream), myTol);
       }
       else {
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.geometry.io;
+
+import java.io.*;
+
+import maspack.geometry.*;
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Tests the StlReader, including vertex merging and memory mapped reading.
+ */
+public class StlReaderTest extends UnitTest {
+
+   /**
+    * Reference implementation of vertex merging, using brute force search.
+    */
+   int mergeNearbyNodesCheck (
+      double[] coords, int npnts, int[] idxmap, double tol) {
+      int[] unique = new int[npnts];
+      int nunique = 0;
+      for (int i=0; i<npnts; i++) {
+         idxmap[i] = -1;
+         Point3d pi = new Point3d (coords[3*i], coords[3*i+1], coords[3*i+2]);
+         for (int u=0; u<nunique; u++) {
+            int j = unique[u];
+            Point3d pj =
+               new Point3d (coords[3*j], coords[3*j+1], coords[3*j+2]);
+            if (pi.distance (pj) < tol) {
+               idxmap[i] = u;
+               break;
+            }
+         }
+         if (idxmap[i] == -1) {
+            unique[nunique] = i;
+            idxmap[i] = nunique++;
+         }
+      }
+      return nunique;
+   }
+
+   void testMerge (int npnts, double tol, double scale) {
+      double[] coords = new double[3*npnts];
+      for (int i=0; i<npnts; i++) {
+         if (i > 0 && RandomGenerator.nextDouble (0, 1) < 0.5) {
+            // place point close to an earlier one
+            int j = RandomGenerator.nextInt (0, i-1);
+            for (int k=0; k<3; k++) {
+               coords[3*i+k] = coords[3*j+k] +
+                  RandomGenerator.nextDouble (-tol, tol);
+            }
+         }
+         else {
+            for (int k=0; k<3; k++) {
+               coords[3*i+k] = scale*RandomGenerator.nextDouble (-1, 1);
+            }
+         }
+      }
+      double[] check = coords.clone();
+      int[] idxmap = new int[npnts];
+      int[] idxmapCheck = new int[npnts];
+      int nunique = StlReader.mergeNearbyNodes (coords, npnts, idxmap, tol);
+      int nuniqueCheck =
+         mergeNearbyNodesCheck (check, npnts, idxmapCheck, tol);
+      checkEquals ("number of unique points", nunique, nuniqueCheck);
+      for (int i=0; i<npnts; i++) {
+         checkEquals ("index map for point "+i, idxmap[i], idxmapCheck[i]);
+      }
+      for (int i=0; i<npnts; i++) {
+         int u = idxmap[i];
+         int j = 0;
+         while (idxmapCheck[j] != u) {
+            j++;
+         }
+         for (int k=0; k<3; k++) {
+            checkEquals (
+               "coordinate of unique point "+u, coords[3*u+k], check[3*j+k]);
+         }
+      }
+   }
+
+   File writeMesh (PolygonalMesh mesh) throws IOException {
+      File file = File.createTempFile ("stlTest", ".stl");
+      file.deleteOnExit();
+      StlWriter writer = new StlWriter (file);
+      writer.writeMesh (mesh);
+      writer.close();
+      return file;
+   }
+
+   PolygonalMesh readMesh (File file, boolean mapped) throws IOException {
+      StlReader reader = new StlReader (file);
+      reader.setMemoryMapping (mapped);
+      PolygonalMesh mesh = reader.readMesh();
+      reader.close();
+      return mesh;
+   }
+
+   void testRead (PolygonalMesh mesh) throws IOException {
+      File file = writeMesh (mesh);
+      PolygonalMesh check = readMesh (file, /*mapped=*/false);
+      PolygonalMesh result = readMesh (file, /*mapped=*/true);
+      // STL stores vertices per face, so they should all have been merged
+      checkEquals ("number of vertices", check.numVertices(), mesh.numVertices());
+      checkEquals ("number of faces", check.numFaces(), mesh.numFaces());
+      if (!result.epsilonEquals (check, 0)) {
+         throw new TestException (
+            "Mesh read from mapped file does not equal mesh read from stream");
+      }
+      file.delete();
+   }
+
+   void testBinaryRead (PolygonalMesh mesh) throws IOException {
+      // write the binary format directly, since StlWriter writes ASCII
+      File file = File.createTempFile ("stlTest", ".stl");
+      file.deleteOnExit();
+      DataOutputStream dos = new DataOutputStream (
+         new BufferedOutputStream (new FileOutputStream (file)));
+      byte[] header = new byte[80];
+      dos.write (header);
+      dos.writeInt (Integer.reverseBytes (mesh.numFaces()));
+      for (Face face : mesh.getFaces()) {
+         for (int k=0; k<3; k++) {
+            dos.writeInt (Integer.reverseBytes (0));
+         }
+         for (Vertex3d vtx : face.getVertices()) {
+            Point3d pnt = vtx.getPosition();
+            dos.writeInt (Integer.reverseBytes (Float.floatToIntBits ((float)pnt.x)));
+            dos.writeInt (Integer.reverseBytes (Float.floatToIntBits ((float)pnt.y)));
+            dos.writeInt (Integer.reverseBytes (Float.floatToIntBits ((float)pnt.z)));
+         }
+         dos.writeShort (0);
+      }
+      dos.close();
+      PolygonalMesh check = readMesh (file, /*mapped=*/false);
+      PolygonalMesh result = readMesh (file, /*mapped=*/true);
+      checkEquals ("number of vertices", check.numVertices(), mesh.numVertices());
+      checkEquals ("number of faces", check.numFaces(), mesh.numFaces());
+      if (!result.epsilonEquals (check, 0)) {
+         throw new TestException (
+            "Mesh read from mapped file does not equal mesh read from stream");
+      }
+      file.delete();
+   }
+
+   public void test() throws IOException {
+      testMerge (1, 1e-3, 1.0);
+      testMerge (1000, 1e-3, 1.0);
+      testMerge (1000, 0.1, 1.0);
+      testMerge (1000, 1e-3, 1e6);
+      testMerge (1000, 0, 1.0);
+      testMerge (1000, 1e-15, 1.0);
+
+      PolygonalMesh sphere = MeshFactory.createIcosahedralSphere (1.0, 3);
+      testRead (sphere);
+      testBinaryRead (sphere);
+      PolygonalMesh torus = MeshFactory.createTorus (2.0, 0.5, 24, 16);
+      torus.triangulate();
+      testBinaryRead (torus);
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      StlReaderTest tester = new StlReaderTest();
+      tester.runtest();
+   }
+}
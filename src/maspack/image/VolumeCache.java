@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.image;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least-recently-used cache for decoded pieces of volume images, such as
+ * slices or tiles, which are loaded on demand by lazily loaded images. The
+ * cache holds at most a specified number of bytes, and when this budget is
+ * exceeded the least recently used entries are discarded and must be decoded
+ * again when next requested.
+ *
+ * <p>Entries are identified by keys that should implement
+ * <code>equals()</code> and <code>hashCode()</code>. A single shared cache is
+ * available through {@link #getDefault}.
+ */
+public class VolumeCache {
+
+   /**
+    * Default byte budget for the shared cache.
+    */
+   public static final long DEFAULT_BYTE_BUDGET = 256L*1024*1024;
+
+   private static VolumeCache myDefault = null;
+
+   private static class Entry {
+      Object value;
+      long size;
+
+      Entry (Object value, long size) {
+         this.value = value;
+         this.size = size;
+      }
+   }
+
+   private LinkedHashMap<Object,Entry> myEntries;
+   private long myByteBudget;
+   private long myByteCount = 0;
+   private long myHits = 0;
+   private long myMisses = 0;
+
+   /**
+    * Creates a new cache with a specified byte budget.
+    *
+    * @param byteBudget maximum number of bytes to hold in the cache
+    */
+   public VolumeCache (long byteBudget) {
+      // access order, so that iteration starts with least recently used
+      myEntries = new LinkedHashMap<Object,Entry>(16, 0.75f, true);
+      setByteBudget (byteBudget);
+   }
+
+   /**
+    * Returns the cache which is shared by default among all lazily loaded
+    * images.
+    *
+    * @return default cache
+    */
+   public static synchronized VolumeCache getDefault() {
+      if (myDefault == null) {
+         myDefault = new VolumeCache (DEFAULT_BYTE_BUDGET);
+      }
+      return myDefault;
+   }
+
+   /**
+    * Sets the maximum number of bytes held by this cache. If the current
+    * contents exceed the new budget, least recently used entries are
+    * discarded.
+    *
+    * @param byteBudget maximum number of bytes
+    */
+   public synchronized void setByteBudget (long byteBudget) {
+      if (byteBudget < 0) {
+         throw new IllegalArgumentException (
+            "byte budget must be non-negative");
+      }
+      myByteBudget = byteBudget;
+      evict (null);
+   }
+
+   /**
+    * Returns the maximum number of bytes held by this cache.
+    *
+    * @return maximum number of bytes
+    */
+   public synchronized long getByteBudget() {
+      return myByteBudget;
+   }
+
+   /**
+    * Returns the number of bytes currently held by this cache.
+    *
+    * @return number of bytes in the cache
+    */
+   public synchronized long getByteCount() {
+      return myByteCount;
+   }
+
+   /**
+    * Returns the number of entries currently held by this cache.
+    *
+    * @return number of entries
+    */
+   public synchronized int numEntries() {
+      return myEntries.size();
+   }
+
+   /**
+    * Returns the number of calls to {@link #get} which found their entry.
+    *
+    * @return number of cache hits
+    */
+   public synchronized long numHits() {
+      return myHits;
+   }
+
+   /**
+    * Returns the number of calls to {@link #get} which did not find their
+    * entry.
+    *
+    * @return number of cache misses
+    */
+   public synchronized long numMisses() {
+      return myMisses;
+   }
+
+   /**
+    * Returns the entry associated with a key, or <code>null</code> if
+    * there is no such entry. The entry becomes the most recently used.
+    *
+    * @param key key identifying the entry
+    * @return entry value, or <code>null</code>
+    */
+   public synchronized Object get (Object key) {
+      Entry entry = myEntries.get (key);
+      if (entry == null) {
+         myMisses++;
+         return null;
+      }
+      myHits++;
+      return entry.value;
+   }
+
+   /**
+    * Adds an entry to this cache, replacing any existing entry with the same
+    * key, and then discards least recently used entries until the cache is
+    * within its budget. The new entry itself is retained even if its size
+    * exceeds the budget, until it is displaced by another entry.
+    *
+    * @param key key identifying the entry
+    * @param value entry value
+    * @param size size of the entry in bytes
+    */
+   public synchronized void put (Object key, Object value, long size) {
+      Entry entry = new Entry (value, size);
+      Entry prev = myEntries.put (key, entry);
+      if (prev != null) {
+         myByteCount -= prev.size;
+      }
+      myByteCount += size;
+      evict (entry);
+   }
+
+   /**
+    * Removes the entry associated with a key, if any.
+    *
+    * @param key key identifying the entry
+    */
+   public synchronized void remove (Object key) {
+      Entry entry = myEntries.remove (key);
+      if (entry != null) {
+         myByteCount -= entry.size;
+      }
+   }
+
+   /**
+    * Removes all entries from this cache.
+    */
+   public synchronized void clear() {
+      myEntries.clear();
+      myByteCount = 0;
+   }
+
+   private void evict (Entry keep) {
+      Iterator<Map.Entry<Object,Entry>> it = myEntries.entrySet().iterator();
+      while (myByteCount > myByteBudget && it.hasNext()) {
+         Entry entry = it.next().getValue();
+         if (entry != keep) {
+            it.remove();
+            myByteCount -= entry.size;
+         }
+      }
+   }
+}
@@ -0,0 +1,201 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.image.dicom;
+
+import java.io.File;
+import java.io.IOException;
+
+import maspack.image.VolumeCache;
+import maspack.image.dicom.DicomPixelBuffer.PixelType;
+import maspack.util.BinaryFileInputStream;
+
+/**
+ * Provides on-demand access to the frames stored in a single DICOM file, for
+ * use by lazily loaded {@link DicomSlice}s. Frames are decoded when first
+ * requested and stored in a {@link VolumeCache}; if they are later evicted,
+ * the file is decoded again. Since decoders process all frames in a file
+ * together, all of the frames are added to the cache whenever the file is
+ * decoded.
+ */
+class DicomFrameSource {
+
+   private DicomReader myReader;
+   private File myFile;
+   private DicomHeader myHeader;
+   private int myPixelOffset;
+   private boolean myLittleEndian;
+   private int myNumFrames;
+   private VolumeCache myCache;
+   private PixelType myPixelType;
+
+   private static class FrameKey {
+      final DicomFrameSource source;
+      final int index;
+
+      FrameKey (DicomFrameSource source, int index) {
+         this.source = source;
+         this.index = index;
+      }
+
+      public boolean equals (Object obj) {
+         if (!(obj instanceof FrameKey)) {
+            return false;
+         }
+         FrameKey key = (FrameKey)obj;
+         return key.source == source && key.index == index;
+      }
+
+      public int hashCode() {
+         return System.identityHashCode (source)*31 + index;
+      }
+   }
+
+   /**
+    * Creates a frame source for a DICOM file.
+    *
+    * @param reader reader supplying the image decoders
+    * @param file DICOM file
+    * @param header header read from the file
+    * @param pixelOffset byte offset of the pixel data within the file,
+    * just after the pixel data tag
+    * @param littleEndian byte order of the pixel data
+    * @param cache cache for storing decoded frames
+    */
+   DicomFrameSource (
+      DicomReader reader, File file, DicomHeader header, int pixelOffset,
+      boolean littleEndian, VolumeCache cache) {
+      myReader = reader;
+      myFile = file;
+      myHeader = header;
+      myPixelOffset = pixelOffset;
+      myLittleEndian = littleEndian;
+      myNumFrames = header.getIntValue (DicomTag.NUMBER_OF_FRAMES, 1);
+      myCache = cache;
+   }
+
+   int numFrames() {
+      return myNumFrames;
+   }
+
+   /**
+    * Returns the pixel type of the frames. For uncompressed data this is
+    * determined from the header, so that no decoding is required;
+    * otherwise, the first frame is decoded.
+    */
+   PixelType getPixelType() {
+      if (myPixelType == null) {
+         myPixelType = getHeaderPixelType();
+         if (myPixelType == null) {
+            myPixelType = getFrame (0).getPixelType();
+         }
+      }
+      return myPixelType;
+   }
+
+   private PixelType getHeaderPixelType() {
+      DicomTransferSyntax syntax = myHeader.getTransferSyntax();
+      if (syntax == null || syntax.encoded) {
+         return null;
+      }
+      int nSamples = myHeader.getIntValue (DicomTag.SAMPLES_PER_PIXEL, 1);
+      int bitsAllocated = myHeader.getIntValue (DicomTag.BITS_ALLOCATED, 8);
+      int pixelRepresentation =
+         myHeader.getIntValue (DicomTag.PIXEL_REPRESENTATION, 0);
+      if (nSamples == 3 && bitsAllocated == 8) {
+         return PixelType.UBYTE_RGB;
+      }
+      else if (nSamples == 1 && bitsAllocated == 8) {
+         return pixelRepresentation == 0 ? PixelType.UBYTE : PixelType.BYTE;
+      }
+      else if (nSamples == 1 && bitsAllocated == 16) {
+         return pixelRepresentation == 0 ? PixelType.USHORT : PixelType.SHORT;
+      }
+      return null;
+   }
+
+   /**
+    * Returns a frame, decoding the file if the frame is not in the cache.
+    *
+    * @param idx frame index
+    * @return decoded frame
+    */
+   DicomPixelBuffer getFrame (int idx) {
+      FrameKey key = new FrameKey (this, idx);
+      DicomPixelBuffer frame = (DicomPixelBuffer)myCache.get (key);
+      if (frame != null) {
+         return frame;
+      }
+      synchronized (this) {
+         // another thread may have just decoded the file
+         frame = (DicomPixelBuffer)myCache.get (key);
+         if (frame != null) {
+            return frame;
+         }
+         DicomPixelBuffer[] frames;
+         try {
+            frames = decode();
+         }
+         catch (IOException e) {
+            throw new RuntimeException (
+               "Cannot decode DICOM file " + myFile, e);
+         }
+         if (idx >= frames.length) {
+            throw new RuntimeException (
+               "DICOM file " + myFile + " contains " + frames.length +
+               " frames, expected " + myNumFrames);
+         }
+         for (int i=0; i<frames.length; i++) {
+            myCache.put (new FrameKey (this, i), frames[i], byteSize (frames[i]));
+         }
+         return frames[idx];
+      }
+   }
+
+   private DicomPixelBuffer[] decode() throws IOException {
+      BinaryFileInputStream in = new BinaryFileInputStream (myFile);
+      try {
+         in.setByteChar (true);
+         in.setLittleEndian (myLittleEndian);
+         in.skip (myPixelOffset);
+         return myReader.decodeFrames (myHeader, in);
+      }
+      finally {
+         in.close();
+      }
+   }
+
+   private long byteSize (DicomPixelBuffer frame) {
+      int bytesPerValue = 1;
+      switch (frame.getPixelType()) {
+         case SHORT:
+         case USHORT:
+            bytesPerValue = 2;
+            break;
+         default:
+            break;
+      }
+      int numValues;
+      if (frame instanceof DicomPixelBufferBase) {
+         numValues = ((DicomPixelBufferBase)frame).getNumValues();
+      }
+      else {
+         numValues = frame.getNumChannels()*
+            myHeader.getIntValue (DicomTag.ROWS, 1)*
+            myHeader.getIntValue (DicomTag.COLUMNS, 1);
+      }
+      return (long)numValues*bytesPerValue;
+   }
+
+   /**
+    * Removes any decoded frames from the cache.
+    */
+   void dispose() {
+      for (int i=0; i<myNumFrames; i++) {
+         myCache.remove (new FrameKey (this, i));
+      }
+   }
+}
@@ -23,6 +23,7 @@ import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 
 import maspack.concurrency.NamedThreadFactory;
+import maspack.image.VolumeCache;
 import maspack.image.dicom.DicomElement.VR;
 import maspack.util.BinaryFileInputStream;
 import maspack.util.BinaryInputStream;
@@ -41,6 +42,9 @@ public class DicomReader {
     * List of known image decoders
     */
    private ArrayList<DicomImageDecoder> imageDecoders;
+   
+   private boolean lazyLoading = false;
+   private VolumeCache cache = null;
 
    public DicomReader() {
       initializeDecoders();
@@ -92,6 +96,53 @@ public class DicomReader {
       imageDecoders.add(decoder);
    }
 
+   /**
+    * Sets whether slices are loaded lazily. If <code>true</code>, only the
+    * header of each file is read when slices are created, and pixel data is
+    * decoded when first accessed and stored in the cache returned by {@link
+    * #getCache}, so that it may be discarded and decoded again later.
+    * Otherwise, all pixel data is decoded and kept in memory when the
+    * slices are read. The default value is <code>false</code>.
+    * 
+    * @param enable if <code>true</code>, enables lazy loading
+    */
+   public void setLazyLoading(boolean enable) {
+      lazyLoading = enable;
+   }
+   
+   /**
+    * Queries whether slices are loaded lazily.
+    * 
+    * @return <code>true</code> if lazy loading is enabled
+    * @see #setLazyLoading
+    */
+   public boolean getLazyLoading() {
+      return lazyLoading;
+   }
+   
+   /**
+    * Sets the cache used to store decoded pixel data for lazily loaded
+    * slices. Specifying <code>null</code> selects the default shared cache.
+    * 
+    * @param cache pixel data cache
+    */
+   public void setCache(VolumeCache cache) {
+      this.cache = cache;
+   }
+   
+   /**
+    * Returns the cache used to store decoded pixel data for lazily loaded
+    * slices.
+    * 
+    * @return pixel data cache
+    */
+   public VolumeCache getCache() {
+      if (cache == null) {
+         return VolumeCache.getDefault();
+      }
+      return cache;
+   }
+
    private class SliceReaderCallable implements Callable<DicomSlice[]> {
 
       private File file;
@@ -504,6 +555,23 @@ public class DicomReader {
 
       if (tagId == DicomTag.PIXEL_DATA) {
 
+         if (lazyLoading) {
+            DicomFrameSource source = new DicomFrameSource(
+               this, file, header, in.getByteCount(), in.isLittleEndian(),
+               getCache());
+            in.close();
+            int nframes = source.numFrames();
+            DicomSlice[] out = new DicomSlice[nframes];
+            for (int i = 0; i < nframes; i++) {
+               String title = sliceTitle;
+               if (nframes > 1) {
+                  title = sliceTitle + "_" + i;
+               }
+               out[i] = new DicomSlice(title, header, source, i);
+            }
+            return out;
+         }
+         
          DicomPixelBuffer[] pixels = decodeFrames(header, in);
          DicomSlice[] out = new DicomSlice[pixels.length];
 
@@ -1039,7 +1107,7 @@ public class DicomReader {
    //
    // }
 
-   private DicomPixelBuffer[] decodeFrames(
+   DicomPixelBuffer[] decodeFrames(
       DicomHeader header, BinaryFileInputStream in)
       throws IOException {
 
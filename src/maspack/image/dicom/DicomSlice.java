@@ -64,6 +64,12 @@ public class DicomSlice {
    private DicomHeader header;
    DicomPixelBuffer pixelBuff;
    
+   // source of pixel data for lazily loaded slices
+   private DicomFrameSource frameSource;
+   private int frameIdx;
+   private double maxIntensity = Double.NaN;
+   private double minIntensity = Double.NaN;
+   
    private static DicomElement findElement(DicomElement[] elems, int tagId) {
       for (DicomElement elem : elems) {
          if (elem.getTag() == tagId) {
@@ -176,20 +182,58 @@ public class DicomSlice {
       
    }
    
+   /**
+    * Construct a lazily loaded DICOM slice, whose pixels are decoded from a
+    * frame source when first needed
+    */
+   DicomSlice(String title, DicomHeader header, 
+      DicomFrameSource source, int frame) {
+      this(title, header, (DicomPixelBuffer)null);
+      this.frameSource = source;
+      this.frameIdx = frame;
+   }
+   
    /**
     * @return Returns the pixel type of the slice (byte/short grayscale, byte RGB)
     */
    public PixelType getPixelType() {
+      if (frameSource != null) {
+         return frameSource.getPixelType();
+      }
       return pixelBuff.getPixelType();
    }
    
    /**
+    * Returns the underlying pixel buffer. For lazily loaded slices, the
+    * buffer is decoded if it is not currently in the cache, and should not be
+    * retained by the caller.
+    * 
     * @return the underlying pixel buffer
     */
    public DicomPixelBuffer getPixelBuffer() {
+      if (frameSource != null) {
+         return frameSource.getFrame(frameIdx);
+      }
       return pixelBuff;
    }
    
+   /**
+    * @return <code>true</code> if the pixel data of this slice is decoded
+    * on demand
+    */
+   public boolean isLazy() {
+      return frameSource != null;
+   }
+   
+   /**
+    * Removes any cached pixel data for a lazily loaded slice.
+    */
+   public void dispose() {
+      if (frameSource != null) {
+         frameSource.dispose();
+      }
+   }
+   
    /**
     * Populates a buffer of pixels from the slice, 
     * interpolated using an interpolator
@@ -211,6 +255,7 @@ public class DicomSlice {
       DicomPixelInterpolator interp,
       ByteBuffer pixels) {
     
+      DicomPixelBuffer pixelBuff = getPixelBuffer();
       for (int i=0; i<ny; i++) {
          int idx = (y + dy*i)*info.cols+x;
          int p = pixels.position ();
@@ -243,6 +288,7 @@ public class DicomSlice {
       DicomPixelInterpolator interp,
       int[] pixels, int offset) {
     
+      DicomPixelBuffer pixelBuff = getPixelBuffer();
       for (int i=0; i<ny; i++) {
          int idx = (y + dy*i)*info.cols+x;
          pixelBuff.getPixels (idx, dx, nx, type, interp, pixels, offset);
@@ -261,13 +307,17 @@ public class DicomSlice {
     */
    public double getPixelValue(int channel, int x, int y) {
       int idx = y*info.cols+x;
-      return pixelBuff.getRescaledValue (idx);
+      return getPixelBuffer().getRescaledValue (idx);
    }
    
    /**
     * Number of channels in the slice
     */
    public int getNumChannels() {
+      if (frameSource != null) {
+         // avoid decoding just to find the number of channels
+         return getPixelType() == PixelType.UBYTE_RGB ? 3 : 1;
+      }
       return pixelBuff.getNumChannels();
    }
    
@@ -275,6 +325,13 @@ public class DicomSlice {
     * @return maximum pixel intensity in the slice
     */
    public double getMaxIntensity() {
+      if (frameSource != null) {
+         // cached, since the pixels may have to be decoded
+         if (Double.isNaN(maxIntensity)) {
+            maxIntensity = getPixelBuffer().getMaxIntensity();
+         }
+         return maxIntensity;
+      }
       return pixelBuff.getMaxIntensity();
    }
    
@@ -282,6 +339,12 @@ public class DicomSlice {
     * @return minimum pixel intensity in the slice
     */
    public double getMinIntensity() {
+      if (frameSource != null) {
+         if (Double.isNaN(minIntensity)) {
+            minIntensity = getPixelBuffer().getMinIntensity();
+         }
+         return minIntensity;
+      }
       return pixelBuff.getMinIntensity();
    }
 
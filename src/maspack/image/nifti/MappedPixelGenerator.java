@@ -276,6 +276,63 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
       return ((double)Long.MAX_VALUE)+(double)(-d);
    }
    
+   /**
+    * Sets the window to the range of all entities in a data buffer.
+    * Entities are read through the buffer, so this also works for lazily
+    * loaded buffers.
+    * 
+    * @param buff data buffer
+    */
+   public void setWindowToRange(NiftiDataBuffer buff) {
+      windowMin = Double.POSITIVE_INFINITY;
+      windowMax = Double.NEGATIVE_INFINITY;
+      int size = buff.getNumEntities();
+      for (int i=0; i<size; ++i) {
+         double d = getEntity(buff, i);
+         if (d < windowMin) {
+            windowMin = d;
+         }
+         if (d > windowMax) {
+            windowMax = d;
+         }
+      }
+      invalidateVersion();
+   }
+   
+   private double getEntity(NiftiDataBuffer buff, int idx) {
+      switch (buff.getDataType()) {
+         case DT_BINARY:
+            return buff.getBool(idx) ? 1 : 0;
+         case NIFTI_TYPE_COMPLEX128:
+         case NIFTI_TYPE_COMPLEX256:
+         case NIFTI_TYPE_FLOAT128:
+         case NIFTI_TYPE_FLOAT64:
+            return buff.getDouble(idx);
+         case NIFTI_TYPE_COMPLEX64:
+         case NIFTI_TYPE_FLOAT32:
+            return buff.getFloat(idx);
+         case NIFTI_TYPE_INT16:
+            return buff.getShort(idx);
+         case NIFTI_TYPE_INT32:
+            return buff.getInt(idx);
+         case NIFTI_TYPE_INT64:
+            return buff.getLong(idx);
+         case NIFTI_TYPE_INT8:
+         case NIFTI_TYPE_RGB24:
+            return buff.getByte(idx);
+         case NIFTI_TYPE_UINT16:
+            return toUnsigned(buff.getShort(idx));
+         case NIFTI_TYPE_UINT32:
+            return toUnsigned(buff.getInt(idx));
+         case NIFTI_TYPE_UINT64:
+            return toUnsigned(buff.getLong(idx));
+         case NIFTI_TYPE_UINT8:
+            return toUnsigned(buff.getByte(idx));
+         default:
+            return 0;
+      }
+   }
+   
    public void setWindowToUnsignedRange(byte[] buff) {
       windowMin = Double.POSITIVE_INFINITY;
       windowMax = Double.NEGATIVE_INFINITY;
@@ -369,51 +426,51 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             greenInput = VoxelInput.COMPLEX_IMAGINARY;
             greenVidx = 0;
             blueVidx = -1;
-            setWindowToRange(buff.doubles);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_COMPLEX64:
             redInput = VoxelInput.COMPLEX_REAL;
             greenInput = VoxelInput.COMPLEX_IMAGINARY;
             greenVidx = 0;
             blueVidx = -1;
-            setWindowToRange(buff.floats);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_FLOAT128:
          case NIFTI_TYPE_FLOAT64:
-            setWindowToRange(buff.doubles);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_FLOAT32:
-            setWindowToRange(buff.floats);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_INT16:
-            setWindowToRange(buff.shorts);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_INT32:
-            setWindowToRange(buff.ints);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_INT64:
-            setWindowToRange(buff.longs);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_INT8:
-            setWindowToRange(buff.bytes);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_RGB24:
             // revert to showing only first value
             greenVidx = 0;
             blueVidx = 0;
-            setWindowToRange(buff.bytes);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_UINT16:
-            setWindowToUnsignedRange(buff.shorts);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_UINT32:
-            setWindowToUnsignedRange(buff.ints);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_UINT64:
-            setWindowToUnsignedRange(buff.longs);
+            setWindowToRange(buff);
             break;
          case NIFTI_TYPE_UINT8:
-            setWindowToUnsignedRange(buff.bytes);
+            setWindowToRange(buff);
             break;
          default:
          case DT_UNKNOWN:
@@ -447,7 +504,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if ((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  boolean rb = buff.bools[ridx];
+                  boolean rb = buff.getBool(ridx);
                   double r = rb ? 1 : 0;
                   rgb.put(interp(r));
                } else {
@@ -456,7 +513,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  boolean gb = buff.bools[gidx];
+                  boolean gb = buff.getBool(gidx);
                   double g = gb ? 1 : 0;
                   rgb.put(interp(g));
                } else {
@@ -465,7 +522,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  boolean bb = buff.bools[bidx];
+                  boolean bb = buff.getBool(bidx);
                   double b = bb ? 1 : 0;
                   rgb.put(interp(b));
                } else {
@@ -500,7 +557,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                   } else {
                      ridx = buff.getRealIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
                   }
-                  double r = buff.doubles[ridx];
+                  double r = buff.getDouble(ridx);
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -513,7 +570,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                   } else {
                      gidx = buff.getRealIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
                   }
-                  double g = buff.doubles[gidx];
+                  double g = buff.getDouble(gidx);
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -526,7 +583,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                   } else {
                      bidx = buff.getRealIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
                   }
-                  double b = buff.doubles[bidx];
+                  double b = buff.getDouble(bidx);
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -560,7 +617,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                   } else {
                      ridx = buff.getRealIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
                   }
-                  double r = buff.floats[ridx];
+                  double r = buff.getFloat(ridx);
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -573,7 +630,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                   } else {
                      gidx = buff.getRealIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
                   }
-                  double g = buff.floats[gidx];
+                  double g = buff.getFloat(gidx);
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -586,7 +643,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                   } else {
                      bidx = buff.getRealIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
                   }
-                  double b = buff.floats[bidx];
+                  double b = buff.getFloat(bidx);
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -615,7 +672,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if (((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double r = buff.doubles[ridx];
+                  double r = buff.getDouble(ridx);
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -623,7 +680,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if (((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double g = buff.doubles[gidx];
+                  double g = buff.getDouble(gidx);
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -631,7 +688,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if (((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double b = buff.doubles[bidx];
+                  double b = buff.getDouble(bidx);
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -660,7 +717,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if (((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double r = buff.floats[ridx];
+                  double r = buff.getFloat(ridx);
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -668,7 +725,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if (((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double g = buff.floats[gidx];
+                  double g = buff.getFloat(gidx);
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -676,7 +733,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if (((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double b = buff.floats[bidx];
+                  double b = buff.getFloat(bidx);
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -705,7 +762,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if ((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double r = buff.longs[ridx];
+                  double r = buff.getLong(ridx);
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -713,7 +770,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double g = buff.longs[gidx];
+                  double g = buff.getLong(gidx);
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -721,7 +778,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double b = buff.longs[bidx];
+                  double b = buff.getLong(bidx);
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -750,7 +807,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if ((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double r = toUnsigned(buff.longs[ridx]);
+                  double r = toUnsigned(buff.getLong(ridx));
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -758,7 +815,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double g = toUnsigned(buff.longs[gidx]);
+                  double g = toUnsigned(buff.getLong(gidx));
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -766,7 +823,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double b = toUnsigned(buff.longs[bidx]);
+                  double b = toUnsigned(buff.getLong(bidx));
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -795,7 +852,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if ((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double r = buff.ints[ridx];
+                  double r = buff.getInt(ridx);
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -803,7 +860,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double g = buff.ints[gidx];
+                  double g = buff.getInt(gidx);
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -811,7 +868,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double b = buff.ints[bidx];
+                  double b = buff.getInt(bidx);
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -840,7 +897,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if ((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double r = toUnsigned(buff.ints[ridx]);
+                  double r = toUnsigned(buff.getInt(ridx));
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -848,7 +905,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double g = toUnsigned(buff.ints[gidx]);
+                  double g = toUnsigned(buff.getInt(gidx));
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -856,7 +913,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double b = toUnsigned(buff.ints[bidx]);
+                  double b = toUnsigned(buff.getInt(bidx));
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -885,7 +942,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if ((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double r = buff.shorts[ridx];
+                  double r = buff.getShort(ridx);
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -893,7 +950,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double g = buff.shorts[gidx];
+                  double g = buff.getShort(gidx);
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -901,7 +958,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double b = buff.shorts[bidx];
+                  double b = buff.getShort(bidx);
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -930,7 +987,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if ((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double r = toUnsigned(buff.shorts[ridx]);
+                  double r = toUnsigned(buff.getShort(ridx));
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -938,7 +995,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double g = toUnsigned(buff.shorts[gidx]);
+                  double g = toUnsigned(buff.getShort(gidx));
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -946,7 +1003,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double b = toUnsigned(buff.shorts[bidx]);
+                  double b = toUnsigned(buff.getShort(bidx));
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -975,7 +1032,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if ((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double r = buff.bytes[ridx];
+                  double r = buff.getByte(ridx);
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -983,7 +1040,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double g = buff.bytes[gidx];
+                  double g = buff.getByte(gidx);
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -991,7 +1048,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double b = buff.bytes[bidx];
+                  double b = buff.getByte(bidx);
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -1020,7 +1077,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
             for (int ii=0; ii<ni; ++ii) {
                if ((redVidx >= 0) && (redVidx <= buff.getNumValuesPerVoxel())) {
                   int ridx = buff.getIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double r = toUnsigned(buff.bytes[ridx]);
+                  double r = toUnsigned(buff.getByte(ridx));
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -1028,7 +1085,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((greenVidx >= 0) && (greenVidx <= buff.getNumValuesPerVoxel())) {
                   int gidx = buff.getIndex(greenVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double g = toUnsigned(buff.bytes[gidx]);
+                  double g = toUnsigned(buff.getByte(gidx));
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -1036,7 +1093,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                
                if ((blueVidx >= 0) && (blueVidx <= buff.getNumValuesPerVoxel())) {
                   int bidx = buff.getIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
-                  double b = toUnsigned(buff.bytes[bidx]);
+                  double b = toUnsigned(buff.getByte(bidx));
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
@@ -1075,7 +1132,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                      // default to red
                      ridx = buff.getRedIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
                   }
-                  double r = buff.bytes[ridx];
+                  double r = buff.getByte(ridx);
                   rgb.put(interp(r));
                } else {
                   rgb.put((byte)0);
@@ -1093,7 +1150,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                      // default to green index
                      gidx = buff.getGreenIndex(redVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
                   }
-                  double g = buff.bytes[gidx];
+                  double g = buff.getByte(gidx);
                   rgb.put(interp(g));
                } else {
                   rgb.put((byte)0);
@@ -1111,7 +1168,7 @@ public class MappedPixelGenerator extends NiftiPixelGenerator {
                      // default to blue index
                      bidx = buff.getBlueIndex(blueVidx, i+ii*di, j+jj*dj, k+kk*dk, t);
                   }
-                  double b = buff.bytes[bidx];
+                  double b = buff.getByte(bidx);
                   rgb.put(interp(b));
                } else {
                   rgb.put((byte)0);
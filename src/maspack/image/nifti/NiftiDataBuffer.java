@@ -27,6 +27,17 @@ public class NiftiDataBuffer implements Clonable {
    boolean complex;
    boolean signed;
    int dims[];
+   
+   // number of entities per value, e.g. 2 for complex and 3 for RGB
+   int nentities;
+   
+   // source for lazily loaded data, in which case the arrays are null
+   NiftiDataSource source;
+   // optional scaling of source values, for which dataType is FLOAT64 or
+   // COMPLEX128
+   boolean scaled;
+   double slope;
+   double inter;
 
    public NiftiDataBuffer(DataType type, int[] dims) {
       int size = dims[0]*dims[1]*dims[2]*dims[3]*dims[4];  // x,y,z,t,v
@@ -36,6 +47,79 @@ public class NiftiDataBuffer implements Clonable {
          this.dims[i] = dims[i];
       }
 
+      allocate(size);
+      
+      istep = vstep*dims[4];
+      jstep = istep*dims[0];
+      kstep = jstep*dims[1];
+      tstep = kstep*dims[2];   
+   }
+   
+   /**
+    * Creates a buffer whose values are read on demand from a data source,
+    * rather than being stored in memory. Values are indexed in file order,
+    * with the value index varying most slowly.
+    * 
+    * @param type data type
+    * @param dims image dimensions (x,y,z,t,v)
+    * @param source data source
+    */
+   NiftiDataBuffer(DataType type, int[] dims, NiftiDataSource source) {
+      this.dataType = type;
+      this.dims = Arrays.copyOf(dims, 5);
+      this.source = source;
+      setTypeInfo();
+      
+      istep = nentities;
+      jstep = istep*dims[0];
+      kstep = jstep*dims[1];
+      tstep = kstep*dims[2];
+      vstep = tstep*dims[3];
+   }
+   
+   /**
+    * Creates a lazily loaded buffer that applies a linear scaling to the
+    * values of another lazily loaded buffer.
+    * 
+    * @param raw buffer providing unscaled values
+    * @param slope scale factor
+    * @param inter offset
+    */
+   NiftiDataBuffer(NiftiDataBuffer raw, double slope, double inter) {
+      this(raw.dataType.isComplex() ? DataType.NIFTI_TYPE_COMPLEX128
+         : DataType.NIFTI_TYPE_FLOAT64, raw.dims, raw.source);
+      this.scaled = true;
+      this.slope = slope;
+      this.inter = inter;
+   }
+   
+   private void setTypeInfo() {
+      signed = true;
+      complex = false;
+      nentities = 1;
+      switch(dataType) {
+         case DT_BINARY:
+         case NIFTI_TYPE_UINT8:
+         case NIFTI_TYPE_UINT16:
+         case NIFTI_TYPE_UINT32:
+         case NIFTI_TYPE_UINT64:
+            signed = false;
+            break;
+         case NIFTI_TYPE_COMPLEX64:
+         case NIFTI_TYPE_COMPLEX128:
+         case NIFTI_TYPE_COMPLEX256:
+            nentities = 2;
+            complex = true;
+            break;
+         case NIFTI_TYPE_RGB24:
+            nentities = 3;
+            break;
+         default:
+            break;
+      }
+   }
+   
+   private void allocate(int size) {
       bools = null;
       bytes = null;
       shorts = null;
@@ -50,7 +134,7 @@ public class NiftiDataBuffer implements Clonable {
       
       vstep = 1;
       
-      switch(type) {
+      switch(dataType) {
          case DT_BINARY:
             bools = new boolean[size];
             buff = bools;
@@ -123,11 +207,189 @@ public class NiftiDataBuffer implements Clonable {
          case DT_UNKNOWN:
             break;
       }
-      
-      istep = vstep*dims[4];
-      jstep = istep*dims[0];
-      kstep = jstep*dims[1];
-      tstep = kstep*dims[2];   
+      nentities = vstep;
+   }
+   
+   /**
+    * Returns <code>true</code> if this buffer reads its values on demand
+    * from a memory-mapped or cached data source, rather than holding them in
+    * memory.
+    * 
+    * @return <code>true</code> if this buffer is lazily loaded
+    */
+   public boolean isLazy() {
+      return source != null;
+   }
+   
+   /**
+    * Reads all values of a lazily loaded buffer into memory, after which the
+    * buffer no longer depends on its data source. Does nothing if the
+    * buffer is not lazily loaded.
+    */
+   public void load() {
+      if (source == null) {
+         return;
+      }
+      int size = getNumEntities();
+      int nsteps = vstep;
+      allocate(size/nentities);
+      vstep = nsteps;
+      switch (dataType) {
+         case NIFTI_TYPE_FLOAT64:
+         case NIFTI_TYPE_COMPLEX128:
+            for (int i=0; i<size; ++i) {
+               doubles[i] = getDoubleSource(i);
+            }
+            break;
+         case NIFTI_TYPE_FLOAT32:
+         case NIFTI_TYPE_COMPLEX64:
+            for (int i=0; i<size; ++i) {
+               floats[i] = source.getFloat(i);
+            }
+            break;
+         case NIFTI_TYPE_INT16:
+         case NIFTI_TYPE_UINT16:
+            for (int i=0; i<size; ++i) {
+               shorts[i] = source.getShort(i);
+            }
+            break;
+         case NIFTI_TYPE_INT32:
+         case NIFTI_TYPE_UINT32:
+            for (int i=0; i<size; ++i) {
+               ints[i] = source.getInt(i);
+            }
+            break;
+         case NIFTI_TYPE_INT64:
+         case NIFTI_TYPE_UINT64:
+            for (int i=0; i<size; ++i) {
+               longs[i] = source.getLong(i);
+            }
+            break;
+         case NIFTI_TYPE_INT8:
+         case NIFTI_TYPE_UINT8:
+         case NIFTI_TYPE_RGB24:
+            for (int i=0; i<size; ++i) {
+               bytes[i] = source.getByte(i);
+            }
+            break;
+         default:
+            break;
+      }
+      source = null;
+      scaled = false;
+   }
+   
+   /**
+    * Releases the data source of a lazily loaded buffer. The buffer should
+    * not be accessed afterwards.
+    */
+   public void dispose() {
+      if (source != null) {
+         source.close();
+      }
+   }
+   
+   /**
+    * Returns the total number of entities stored in this buffer.
+    * 
+    * @return number of entities
+    */
+   public int getNumEntities() {
+      return nentities*dims[0]*dims[1]*dims[2]*dims[3]*dims[4];
+   }
+   
+   private double getDoubleSource(int idx) {
+      if (scaled) {
+         return inter + slope*source.getValue(idx);
+      }
+      return source.getDouble(idx);
+   }
+   
+   /**
+    * Returns the binary entity at a given index.
+    * @param idx entity index
+    * @return binary value
+    */
+   public boolean getBool(int idx) {
+      if (source != null) {
+         return source.getValue(idx) != 0;
+      }
+      return bools[idx];
+   }
+   
+   /**
+    * Returns the byte entity at a given index, for INT8, UINT8 and RGB24
+    * data.
+    * @param idx entity index
+    * @return byte value
+    */
+   public byte getByte(int idx) {
+      if (source != null) {
+         return source.getByte(idx);
+      }
+      return bytes[idx];
+   }
+   
+   /**
+    * Returns the short entity at a given index, for INT16 and UINT16 data.
+    * @param idx entity index
+    * @return short value
+    */
+   public short getShort(int idx) {
+      if (source != null) {
+         return source.getShort(idx);
+      }
+      return shorts[idx];
+   }
+   
+   /**
+    * Returns the int entity at a given index, for INT32 and UINT32 data.
+    * @param idx entity index
+    * @return int value
+    */
+   public int getInt(int idx) {
+      if (source != null) {
+         return source.getInt(idx);
+      }
+      return ints[idx];
+   }
+   
+   /**
+    * Returns the long entity at a given index, for INT64 and UINT64 data.
+    * @param idx entity index
+    * @return long value
+    */
+   public long getLong(int idx) {
+      if (source != null) {
+         return source.getLong(idx);
+      }
+      return longs[idx];
+   }
+   
+   /**
+    * Returns the float entity at a given index, for FLOAT32 and COMPLEX64
+    * data.
+    * @param idx entity index
+    * @return float value
+    */
+   public float getFloat(int idx) {
+      if (source != null) {
+         return source.getFloat(idx);
+      }
+      return floats[idx];
+   }
+   
+   /**
+    * Returns the double entity at a given index, for FLOAT64 and COMPLEX128
+    * data.
+    * @param idx entity index
+    * @return double value
+    */
+   public double getDouble(int idx) {
+      if (source != null) {
+         return getDoubleSource(idx);
+      }
+      return doubles[idx];
    }
    
    public int getIndex(int v, int i, int j, int k, int t) {
@@ -178,13 +440,17 @@ public class NiftiDataBuffer implements Clonable {
     * @return value size
     */
    public int getNumEntitiesPerValue() {
-      return vstep;
+      return nentities;
    }
    
    public NiftiDataBuffer clone() {
       try {
          NiftiDataBuffer copy = (NiftiDataBuffer)super.clone();
          copy.dims = Arrays.copyOf(dims, dims.length);
+         if (source != null) {
+            // source data is read-only and can be shared
+            return copy;
+         }
          switch (dataType) {
             case DT_BINARY:
                copy.bools = Arrays.copyOf(bools, bools.length);
@@ -236,11 +502,25 @@ public class NiftiDataBuffer implements Clonable {
       return null;
    }
    
+   /**
+    * Returns the array of FLOAT32 values. Lazily loaded buffers are first
+    * loaded into memory.
+    * 
+    * @return float values
+    */
    public float[] getFloat32() {
+      load();
       return floats;
    }
    
+   /**
+    * Returns the array of FLOAT64 values. Lazily loaded buffers are first
+    * loaded into memory.
+    * 
+    * @return double values
+    */
    public double[] getFloat64() {
+      load();
       return doubles;
    }
    
@@ -260,6 +540,12 @@ public class NiftiDataBuffer implements Clonable {
    }
    
    protected double getValue(int idx) {
+      if (source != null) {
+         if (scaled) {
+            return getDoubleSource(idx);
+         }
+         return source.getValue(idx);
+      }
       switch(getDataType ()) {
          case DT_BINARY:
             if (bools[idx]) {
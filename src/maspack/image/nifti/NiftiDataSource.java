@@ -0,0 +1,357 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.image.nifti;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.GZIPInputStream;
+
+import maspack.image.VolumeCache;
+import maspack.image.nifti.NiftiHeader.DataType;
+
+/**
+ * Provides lazy access to the voxel data of a NIfTI file, for use by a
+ * {@link NiftiDataBuffer} that does not hold its data in memory. The data is
+ * divided into fixed size blocks, whose size is a power of two so that no
+ * value straddles two blocks. Uncompressed files are memory mapped, while
+ * compressed files are decoded one block at a time and the decoded blocks are
+ * kept in a {@link VolumeCache}.
+ *
+ * <p>Values are accessed by entity index, where an entity is a single
+ * component of a voxel value (for example, the real part of a complex value
+ * or the red component of an RGB value), and entities are stored in file
+ * order.
+ */
+abstract class NiftiDataSource {
+
+   DataType dataType;
+   ByteOrder order;
+   long size;            // number of data bytes
+   int entitySize;       // bytes per entity
+
+   private int myShift;
+   private long myMask;
+   private volatile Block myLast;
+
+   private static class Block {
+      final int index;
+      final ByteBuffer buf;
+
+      Block (int index, ByteBuffer buf) {
+         this.index = index;
+         this.buf = buf;
+      }
+   }
+
+   protected NiftiDataSource (
+      DataType type, ByteOrder order, long size, int blockShift) {
+      this.dataType = type;
+      this.order = order;
+      this.size = size;
+      this.entitySize = getEntitySize (type);
+      myShift = blockShift;
+      myMask = (1L << blockShift) - 1;
+   }
+
+   /**
+    * Returns the number of bytes used to store each entity of a given data
+    * type, or -1 if the type cannot be accessed lazily.
+    */
+   static int getEntitySize (DataType type) {
+      switch (type) {
+         case NIFTI_TYPE_INT8:
+         case NIFTI_TYPE_UINT8:
+         case NIFTI_TYPE_RGB24:
+            return 1;
+         case NIFTI_TYPE_INT16:
+         case NIFTI_TYPE_UINT16:
+            return 2;
+         case NIFTI_TYPE_INT32:
+         case NIFTI_TYPE_UINT32:
+         case NIFTI_TYPE_FLOAT32:
+         case NIFTI_TYPE_COMPLEX64:
+            return 4;
+         case NIFTI_TYPE_INT64:
+         case NIFTI_TYPE_UINT64:
+         case NIFTI_TYPE_FLOAT64:
+         case NIFTI_TYPE_COMPLEX128:
+            return 8;
+         default:
+            // bit-packed binary data and 128 bit floats need conversion
+            return -1;
+      }
+   }
+
+   /**
+    * Loads the block with a given index. The returned buffer must use this
+    * source's byte order and start at the beginning of the block.
+    */
+   protected abstract ByteBuffer loadBlock (int bidx) throws IOException;
+
+   /**
+    * Releases any resources held by this source.
+    */
+   void close() {
+      myLast = null;
+   }
+
+   private ByteBuffer getBlock (int bidx) {
+      Block last = myLast;
+      if (last != null && last.index == bidx) {
+         return last.buf;
+      }
+      ByteBuffer buf;
+      try {
+         buf = loadBlock (bidx);
+      }
+      catch (IOException e) {
+         throw new RuntimeException ("Cannot read image data", e);
+      }
+      myLast = new Block (bidx, buf);
+      return buf;
+   }
+
+   byte getByte (int idx) {
+      long off = (long)idx;
+      return getBlock ((int)(off >>> myShift)).get ((int)(off & myMask));
+   }
+
+   short getShort (int idx) {
+      long off = 2L*idx;
+      return getBlock ((int)(off >>> myShift)).getShort ((int)(off & myMask));
+   }
+
+   int getInt (int idx) {
+      long off = 4L*idx;
+      return getBlock ((int)(off >>> myShift)).getInt ((int)(off & myMask));
+   }
+
+   long getLong (int idx) {
+      long off = 8L*idx;
+      return getBlock ((int)(off >>> myShift)).getLong ((int)(off & myMask));
+   }
+
+   float getFloat (int idx) {
+      long off = 4L*idx;
+      return getBlock ((int)(off >>> myShift)).getFloat ((int)(off & myMask));
+   }
+
+   double getDouble (int idx) {
+      long off = 8L*idx;
+      return getBlock ((int)(off >>> myShift)).getDouble ((int)(off & myMask));
+   }
+
+   /**
+    * Returns the entity at a given index, converted to a double.
+    */
+   double getValue (int idx) {
+      switch (dataType) {
+         case NIFTI_TYPE_COMPLEX128:
+         case NIFTI_TYPE_FLOAT64:
+            return getDouble (idx);
+         case NIFTI_TYPE_COMPLEX64:
+         case NIFTI_TYPE_FLOAT32:
+            return getFloat (idx);
+         case NIFTI_TYPE_INT8:
+            return getByte (idx);
+         case NIFTI_TYPE_INT16:
+            return getShort (idx);
+         case NIFTI_TYPE_INT32:
+            return getInt (idx);
+         case NIFTI_TYPE_INT64:
+            return getLong (idx);
+         case NIFTI_TYPE_UINT8:
+         case NIFTI_TYPE_RGB24:
+            return getByte (idx) & 0xFF;
+         case NIFTI_TYPE_UINT16:
+            return getShort (idx) & 0xFFFF;
+         case NIFTI_TYPE_UINT32:
+            return getInt (idx) & 0xFFFFFFFFL;
+         case NIFTI_TYPE_UINT64: {
+            double v = getLong (idx);
+            if (v < 0) {
+               v += 18446744073709551616.0; // add 2^64
+            }
+            return v;
+         }
+         default:
+            return 0;
+      }
+   }
+
+   /**
+    * Source for uncompressed data, which is memory mapped directly from the
+    * file. Since a single mapping is limited to 2GB, larger files are mapped
+    * in several segments.
+    */
+   static class Mapped extends NiftiDataSource {
+
+      static final int SEGMENT_SHIFT = 30;
+
+      private ByteBuffer[] mySegments;
+
+      Mapped (
+         File file, long offset, DataType type, ByteOrder order, long size)
+         throws IOException {
+         super (type, order, size, SEGMENT_SHIFT);
+         FileInputStream fis = new FileInputStream (file);
+         try {
+            FileChannel channel = fis.getChannel();
+            if (channel.size() < offset+size) {
+               throw new EOFException (
+                  "File "+file+" is too short for the image dimensions");
+            }
+            long segSize = 1L << SEGMENT_SHIFT;
+            int nsegs = (int)((size+segSize-1)/segSize);
+            mySegments = new ByteBuffer[nsegs];
+            for (int i=0; i<nsegs; i++) {
+               long start = i*segSize;
+               long len = Math.min (segSize, size-start);
+               mySegments[i] = channel.map (
+                  FileChannel.MapMode.READ_ONLY, offset+start, len);
+               mySegments[i].order (order);
+            }
+         }
+         finally {
+            // mappings remain valid after the channel is closed
+            fis.close();
+         }
+      }
+
+      protected ByteBuffer loadBlock (int bidx) {
+         return mySegments[bidx];
+      }
+   }
+
+   /**
+    * Source for gzip-compressed data. Blocks are decompressed on demand and
+    * stored in a VolumeCache. Since gzip data can only be decoded
+    * sequentially, the decompression stream is kept open between requests
+    * so that blocks accessed in increasing order are decoded in a single
+    * pass; a request for an earlier block restarts the decompression from
+    * the beginning of the file.
+    */
+   static class Compressed extends NiftiDataSource {
+
+      static final int TILE_SHIFT = 20;
+
+      private File myFile;
+      private long myOffset;
+      private VolumeCache myCache;
+      private InputStream myStream;
+      private long myStreamPos;
+
+      private static class TileKey {
+         final Compressed source;
+         final int index;
+
+         TileKey (Compressed source, int index) {
+            this.source = source;
+            this.index = index;
+         }
+
+         public boolean equals (Object obj) {
+            if (!(obj instanceof TileKey)) {
+               return false;
+            }
+            TileKey key = (TileKey)obj;
+            return key.source == source && key.index == index;
+         }
+
+         public int hashCode() {
+            return System.identityHashCode (source)*31 + index;
+         }
+      }
+
+      Compressed (
+         File file, long offset, DataType type, ByteOrder order, long size,
+         VolumeCache cache) {
+         super (type, order, size, TILE_SHIFT);
+         myFile = file;
+         myOffset = offset;
+         myCache = cache;
+      }
+
+      protected ByteBuffer loadBlock (int bidx) throws IOException {
+         TileKey key = new TileKey (this, bidx);
+         ByteBuffer buf = (ByteBuffer)myCache.get (key);
+         if (buf != null) {
+            return buf;
+         }
+         synchronized (this) {
+            // another thread may have just decoded the same tile
+            buf = (ByteBuffer)myCache.get (key);
+            if (buf != null) {
+               return buf;
+            }
+            long start = myOffset + ((long)bidx << TILE_SHIFT);
+            int len = (int)Math.min (
+               1L << TILE_SHIFT, size - ((long)bidx << TILE_SHIFT));
+            if (myStream == null || myStreamPos > start) {
+               closeStream();
+               myStream = new BufferedInputStream (
+                  new GZIPInputStream (new FileInputStream (myFile)));
+               myStreamPos = 0;
+            }
+            while (myStreamPos < start) {
+               long n = myStream.skip (start-myStreamPos);
+               if (n <= 0) {
+                  throw new EOFException (
+                     "Unexpected end of compressed file "+myFile);
+               }
+               myStreamPos += n;
+            }
+            byte[] bytes = new byte[len];
+            int nread = 0;
+            while (nread < len) {
+               int n = myStream.read (bytes, nread, len-nread);
+               if (n < 0) {
+                  throw new EOFException (
+                     "Unexpected end of compressed file "+myFile);
+               }
+               nread += n;
+            }
+            myStreamPos += len;
+            if (myStreamPos >= myOffset+size) {
+               closeStream();
+            }
+            buf = ByteBuffer.wrap (bytes);
+            buf.order (order);
+            myCache.put (key, buf, len);
+            return buf;
+         }
+      }
+
+      private void closeStream() {
+         if (myStream != null) {
+            try {
+               myStream.close();
+            }
+            catch (IOException e) {
+               // ignore
+            }
+            myStream = null;
+         }
+      }
+
+      synchronized void close() {
+         super.close();
+         closeStream();
+         int ntiles = (int)((size + (1L << TILE_SHIFT) - 1) >>> TILE_SHIFT);
+         for (int i=0; i<ntiles; i++) {
+            myCache.remove (new TileKey (this, i));
+         }
+      }
+   }
+}
@@ -54,6 +54,13 @@ public class NiftiImage implements VolumeImage, Clonable {
       if (buff.getDataType() != DataType.NIFTI_TYPE_RGB24
          && header != null && header.scl_slope != 0) {
          
+         if (buff.isLazy()) {
+            // apply slope and scale as values are read
+            this.buff = new NiftiDataBuffer(
+               buff, header.scl_slope, header.scl_inter);
+            return;
+         }
+         
          DataType ntype = DataType.NIFTI_TYPE_FLOAT64;
          if (buff.getDataType().isComplex()) {
             ntype = DataType.NIFTI_TYPE_COMPLEX128;
@@ -314,35 +321,35 @@ public class NiftiImage implements VolumeImage, Clonable {
       int idx = buff.getIndex(v, i, j, k, t);
       switch(buff.getDataType()) {
          case DT_BINARY:
-            if (buff.bools[idx]) {
+            if (buff.getBool(idx)) {
                return 1;
             }
             return 0;
          case NIFTI_TYPE_COMPLEX64:
          case NIFTI_TYPE_FLOAT32:
-            return buff.floats[idx];
+            return buff.getFloat(idx);
          case NIFTI_TYPE_FLOAT64:
          case NIFTI_TYPE_FLOAT128:
          case NIFTI_TYPE_COMPLEX256:
          case NIFTI_TYPE_COMPLEX128:
-            return buff.doubles[idx];
+            return buff.getDouble(idx);
          case NIFTI_TYPE_INT16:
-            return buff.shorts[idx];
+            return buff.getShort(idx);
          case NIFTI_TYPE_INT32:
-            return buff.ints[idx];
+            return buff.getInt(idx);
          case NIFTI_TYPE_INT64:
-            return buff.longs[idx];
+            return buff.getLong(idx);
          case NIFTI_TYPE_INT8:
-            return buff.bytes[idx];
+            return buff.getByte(idx);
          case NIFTI_TYPE_UINT16:
-            return toUnsigned(buff.shorts[idx]);
+            return toUnsigned(buff.getShort(idx));
          case NIFTI_TYPE_UINT32:
-            return toUnsigned(buff.ints[idx]);
+            return toUnsigned(buff.getInt(idx));
          case NIFTI_TYPE_UINT64:
-            return toUnsigned(buff.longs[idx]);
+            return toUnsigned(buff.getLong(idx));
          case NIFTI_TYPE_UINT8:
          case NIFTI_TYPE_RGB24:
-            return toUnsigned(buff.bytes[idx]);
+            return toUnsigned(buff.getByte(idx));
          default:
          case DT_UNKNOWN:
             break;
@@ -352,62 +359,62 @@ public class NiftiImage implements VolumeImage, Clonable {
    
    public float getFloat32(int v, int i, int j, int k, int t) {
       int idx = buff.getIndex(v, i, j, k, t);
-      return buff.floats[idx];
+      return buff.getFloat(idx);
    }
    
    public double getFloat64(int v, int i, int j, int k, int t) {
       int idx = buff.getIndex(v, i, j, k, t);
-      return buff.doubles[idx];
+      return buff.getDouble(idx);
    }
    
    public double getComplex128Real(int v, int i, int j, int k, int t) {
       int idx = buff.getRealIndex(v, i, j, k, t);
-      return buff.doubles[idx];
+      return buff.getDouble(idx);
    }
    
    public double getComplex128Imaginary(int v, int i, int j, int k, int t) {
       int idx = buff.getImaginaryIndex(v, i, j, k, t);
-      return buff.doubles[idx];
+      return buff.getDouble(idx);
    }
    
    public long getInt64(int v, int i, int j, int k, int t) {
       int idx = buff.getIndex(v, i, j, k, t);
-      return buff.longs[idx];
+      return buff.getLong(idx);
    }
    
    public int getInt32(int v, int i, int j, int k, int t) {
       int idx = buff.getIndex(v, i, j, k, t);
-      return buff.ints[idx];
+      return buff.getInt(idx);
    }
    
    public short getInt16(int v, int i, int j, int k, int t) {
       int idx = buff.getIndex(v, i, j, k, t);
-      return buff.shorts[idx];
+      return buff.getShort(idx);
    }
    
    public byte getInt8(int v, int i, int j, int k, int t) {
       int idx = buff.getIndex(v, i, j, k, t);
-      return buff.bytes[idx];
+      return buff.getByte(idx);
    }
    
    public boolean getBinary(int v, int i, int j, int k, int t) {
       int idx = buff.getIndex(v, i, j, k, t);
-      return buff.bools[idx];
+      return buff.getBool(idx);
    }
    
    public byte getRed(int v, int i, int j, int k, int t) {
       int idx = buff.getRedIndex(v, i, j, k, t);
-      return buff.bytes[idx];
+      return buff.getByte(idx);
    }
    
    public byte getGreen(int v, int i, int j, int k, int t) {
       int idx = buff.getGreenIndex(v, i, j, k, t);
-      return buff.bytes[idx];
+      return buff.getByte(idx);
    }
    
    public byte getBlue(int v, int i, int j, int k, int t) {
       int idx = buff.getBlueIndex(v, i, j, k, t);
-      return buff.bytes[idx];
+      return buff.getByte(idx);
    }
 
    /**
@@ -425,6 +432,24 @@ public class NiftiImage implements VolumeImage, Clonable {
       return pixels.position()-offset;
    }
    
+   /**
+    * Returns <code>true</code> if the image data is loaded lazily, being
+    * read on demand from a memory-mapped or cached source.
+    * 
+    * @return <code>true</code> if the image data is lazily loaded
+    */
+   public boolean isLazy() {
+      return buff.isLazy();
+   }
+   
+   /**
+    * Releases any file resources held by a lazily loaded image. The image
+    * data should not be accessed afterwards.
+    */
+   public void dispose() {
+      buff.dispose();
+   }
+   
    public NiftiImage clone() {
       try {
          NiftiImage copy = (NiftiImage)super.clone();
@@ -442,7 +467,7 @@ public class NiftiImage implements VolumeImage, Clonable {
    public double getValue (int channel, int col, int row, int slice) {
       int v = channel / buff.getNumEntitiesPerValue ();
       int e = channel % buff.getNumEntitiesPerValue ();
-      return buff.getValue (v, e, col, row, slice, 0);
+      return buff.getValue (e, v, col, row, slice, 0);
    }
 
    @Override
@@ -5,7 +5,12 @@ import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteOrder;
 import java.util.ArrayList;
+import java.util.zip.GZIPInputStream;
+
+import maspack.image.VolumeCache;
 
 import maspack.image.nifti.NiftiHeader.DataType;
 import maspack.image.nifti.NiftiHeader.Extension;
@@ -26,6 +31,115 @@ import maspack.util.BitInputStream;
  */
 public class NiftiReader {
    
+   private static boolean myLazyLoading = false;
+   private static VolumeCache myCache = null;
+   
+   /**
+    * Sets whether image data is loaded lazily. If <code>true</code>,
+    * uncompressed data is memory mapped directly from the file, and
+    * compressed data is decompressed in tiles on demand and stored in the
+    * cache returned by {@link #getCache}. Otherwise, all of the data is read
+    * into memory when the image is read. Data types which require conversion
+    * (binary, FLOAT128 and COMPLEX256) are always read into memory. The
+    * default value is <code>false</code>.
+    *
+    * <p>Lazily loaded images keep their files open (or mapped) until
+    * {@link NiftiImage#dispose} is called, and values are read from the
+    * file each time they are accessed.
+    * 
+    * @param enable if <code>true</code>, enables lazy loading
+    */
+   public static void setLazyLoading(boolean enable) {
+      myLazyLoading = enable;
+   }
+   
+   /**
+    * Queries whether image data is loaded lazily.
+    * 
+    * @return <code>true</code> if lazy loading is enabled
+    * @see #setLazyLoading
+    */
+   public static boolean getLazyLoading() {
+      return myLazyLoading;
+   }
+   
+   /**
+    * Sets the cache used to store decompressed tiles of lazily loaded
+    * images. Specifying <code>null</code> selects the default shared cache.
+    * 
+    * @param cache tile cache
+    */
+   public static void setCache(VolumeCache cache) {
+      myCache = cache;
+   }
+   
+   /**
+    * Returns the cache used to store decompressed tiles of lazily loaded
+    * images.
+    * 
+    * @return tile cache
+    */
+   public static VolumeCache getCache() {
+      if (myCache == null) {
+         return VolumeCache.getDefault();
+      }
+      return myCache;
+   }
+   
+   /**
+    * Checks whether a file is gzip-compressed, by examining its first two
+    * bytes.
+    * 
+    * @param file file to check
+    * @return <code>true</code> if the file is compressed
+    * @throws IOException on read failure
+    */
+   public static boolean isCompressed(File file) throws IOException {
+      FileInputStream fis = new FileInputStream(file);
+      try {
+         int b0 = fis.read();
+         int b1 = fis.read();
+         return (b0 == 0x1f && b1 == 0x8b);
+      } finally {
+         fis.close();
+      }
+   }
+   
+   private static BinaryInputStream openStream(File file) throws IOException {
+      InputStream in = new FileInputStream(file);
+      if (isCompressed(file)) {
+         in = new GZIPInputStream(in);
+      }
+      return new BinaryInputStream(new BufferedInputStream(in));
+   }
+   
+   private static boolean canReadLazily(DataType dataType) {
+      return myLazyLoading && NiftiDataSource.getEntitySize(dataType) > 0;
+   }
+   
+   /**
+    * Creates a lazily loaded data buffer for image data starting at a
+    * given offset within a file.
+    */
+   private static NiftiDataBuffer createLazyBuffer(
+      File file, long offset, int[] dims, DataType dataType,
+      boolean littleEndian) throws IOException {
+      
+      NiftiDataBuffer buff = new NiftiDataBuffer(dataType, dims, null);
+      long size = (long)buff.getNumEntities()*
+         NiftiDataSource.getEntitySize(dataType);
+      ByteOrder order = 
+         littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+      if (isCompressed(file)) {
+         buff.source = new NiftiDataSource.Compressed(
+            file, offset, dataType, order, size, getCache());
+      } else {
+         buff.source = new NiftiDataSource.Mapped(
+            file, offset, dataType, order, size);
+      }
+      return buff;
+   }
+   
    /**
     * Nifti V1 or Analyze 7.5 format with separate header and image files
     * @param hdr header file
@@ -37,7 +151,7 @@ public class NiftiReader {
       
       NiftiImage image = null;
       
-      BinaryInputStream bhdr = new BinaryInputStream(new BufferedInputStream(new FileInputStream(hdr)));
+      BinaryInputStream bhdr = openStream(hdr);
       bhdr.setLittleEndian(true);
       
       NiftiHeader header = null;
@@ -77,8 +191,15 @@ public class NiftiReader {
          bhdr.close();
       }
       
-      BinaryInputStream bimg = new BinaryInputStream(new BufferedInputStream(new FileInputStream(img)));
-      bimg.setLittleEndian (true);
+      if (canReadLazily(header.datatype)) {
+         NiftiDataBuffer buff = createLazyBuffer(
+            img, 0, dims, header.datatype, bhdr.isLittleEndian());
+         return new NiftiImage(hdr.getName(), header, buff);
+      }
+      
+      BinaryInputStream bimg = openStream(img);
+      // image data has the same byte order as the header
+      bimg.setLittleEndian (bhdr.isLittleEndian());
       
       try {
          NiftiDataBuffer buff = readData(bimg, dims, header.datatype);
@@ -96,7 +217,7 @@ public class NiftiReader {
       
       NiftiImage image = null;
       
-      BinaryInputStream bis = new BinaryInputStream(new BufferedInputStream(new FileInputStream(file)));
+      BinaryInputStream bis = openStream(file);
       bis.setLittleEndian(true);
       try {
          NiftiHeader header = readHeader(bis);
@@ -127,9 +248,15 @@ public class NiftiReader {
             dims[4] = (int)header.dim[5];
          }
          
-         bis = advanceToOffset(bis, file, header.vox_offset);
-         
-         NiftiDataBuffer buff = readData(bis, dims, header.datatype);
+         NiftiDataBuffer buff;
+         if (canReadLazily(header.datatype)) {
+            buff = createLazyBuffer(
+               file, header.vox_offset, dims, header.datatype,
+               bis.isLittleEndian());
+         } else {
+            bis = advanceToOffset(bis, file, header.vox_offset);
+            buff = readData(bis, dims, header.datatype);
+         }
          image = new NiftiImage(file.getName(), header, buff);
       } catch (IOException ioe) {
          throw ioe;
@@ -730,7 +857,7 @@ public class NiftiReader {
       if (bis.getByteCount() > offset) {
          boolean littleEndian = bis.isLittleEndian();
          bis.close();
-         bis = new BinaryInputStream(new BufferedInputStream(new FileInputStream(file)));
+         bis = openStream(file);
          bis.setLittleEndian(littleEndian);
          bis.skip(offset);
       } else if (bis.getByteCount() < offset) {
@@ -0,0 +1,325 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.image.nifti;
+
+import java.io.*;
+import java.nio.*;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
+import maspack.image.VolumeCache;
+import maspack.image.nifti.NiftiHeader.DataType;
+import maspack.util.*;
+
+/**
+ * Tests reading of NIfTI images. Lazy loading is checked by comparing the
+ * values and pixels of memory-mapped and compressed images with those of
+ * images read fully into memory.
+ */
+public class NiftiReaderTest extends UnitTest {
+
+   static final int VOX_OFFSET = 352;
+
+   /**
+    * Creates the contents of a single-file NIfTI-1 image with random data.
+    */
+   byte[] createImage (
+      DataType type, int[] dim, double slope, boolean littleEndian) {
+
+      int esize = NiftiDataSource.getEntitySize (type);
+      int nent = (type == DataType.NIFTI_TYPE_RGB24 ? 3 :
+                  (type.isComplex() ? 2 : 1));
+      int size = nent;
+      for (int i=1; i<=dim[0]; i++) {
+         size *= dim[i];
+      }
+      ByteBuffer buf = ByteBuffer.allocate (VOX_OFFSET + size*esize);
+      buf.order (littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+      buf.putInt (0, 348);
+      for (int i=0; i<=dim[0]; i++) {
+         buf.putShort (40+2*i, (short)dim[i]);
+      }
+      buf.putShort (70, (short)type.id);
+      buf.putShort (72, (short)(8*esize*nent));
+      for (int i=0; i<8; i++) {
+         buf.putFloat (76+4*i, 1f);
+      }
+      buf.putFloat (108, VOX_OFFSET);
+      buf.putFloat (112, (float)slope);
+      buf.putFloat (116, slope != 0 ? 0.5f : 0f);
+      buf.put (344, (byte)'n');
+      buf.put (345, (byte)'+');
+      buf.put (346, (byte)'1');
+      buf.position (VOX_OFFSET);
+      for (int i=0; i<size; i++) {
+         switch (esize) {
+            case 1: buf.put ((byte)RandomGenerator.nextInt (-128, 127)); break;
+            case 2: buf.putShort ((short)RandomGenerator.nextInt (-5000, 5000));
+               break;
+            case 4: {
+               if (type == DataType.NIFTI_TYPE_INT32) {
+                  buf.putInt (RandomGenerator.nextInt (-100000, 100000));
+               }
+               else {
+                  buf.putFloat ((float)RandomGenerator.nextDouble (-10, 10));
+               }
+               break;
+            }
+            case 8: buf.putDouble (RandomGenerator.nextDouble (-10, 10));
+               break;
+         }
+      }
+      return buf.array();
+   }
+
+   File writeImage (byte[] contents, boolean compressed) throws IOException {
+      File file = File.createTempFile (
+         "niftiTest", compressed ? ".nii.gz" : ".nii");
+      file.deleteOnExit();
+      OutputStream out = new FileOutputStream (file);
+      if (compressed) {
+         out = new GZIPOutputStream (out);
+      }
+      out.write (contents);
+      out.close();
+      return file;
+   }
+
+   NiftiImage readImage (File file, boolean lazy) throws IOException {
+      boolean saveLazy = NiftiReader.getLazyLoading();
+      NiftiReader.setLazyLoading (lazy);
+      try {
+         NiftiImage image = NiftiReader.read (file);
+         checkEquals ("image is lazy", image.isLazy(), lazy);
+         return image;
+      }
+      finally {
+         NiftiReader.setLazyLoading (saveLazy);
+      }
+   }
+
+   void checkImages (NiftiImage image, NiftiImage check) {
+      NiftiDataBuffer buff = image.getDataBuffer();
+      NiftiDataBuffer cbuff = check.getDataBuffer();
+      checkEquals ("data type", buff.getDataType(), cbuff.getDataType());
+      int[] dims = cbuff.dims;
+      int ne = cbuff.getNumEntitiesPerValue();
+      checkEquals ("entities per value", buff.getNumEntitiesPerValue(), ne);
+      for (int v=0; v<dims[4]; v++) {
+         for (int t=0; t<dims[3]; t++) {
+            for (int k=0; k<dims[2]; k++) {
+               for (int j=0; j<dims[1]; j++) {
+                  for (int i=0; i<dims[0]; i++) {
+                     checkEquals (
+                        "value", image.getValue (v, i, j, k, t),
+                        check.getValue (v, i, j, k, t), 0);
+                     for (int e=0; e<ne; e++) {
+                        checkEquals (
+                           "entity", buff.getValue (e, v, i, j, k, t),
+                           cbuff.getValue (e, v, i, j, k, t), 0);
+                     }
+                  }
+               }
+            }
+         }
+      }
+      // compare the pixels generated for texture content
+      MappedPixelGenerator gen = new MappedPixelGenerator();
+      gen.detectDefault (check);
+      int npix = dims[0]*dims[1]*dims[2]*3;
+      ByteBuffer pixels = ByteBuffer.allocate (npix);
+      ByteBuffer cpixels = ByteBuffer.allocate (npix);
+      for (int t=0; t<dims[3]; t++) {
+         pixels.clear();
+         cpixels.clear();
+         image.getPixels (
+            0, 1, dims[0], 0, 1, dims[1], 0, 1, dims[2], t, 0, 0, gen, pixels);
+         check.getPixels (
+            0, 1, dims[0], 0, 1, dims[1], 0, 1, dims[2], t, 0, 0, gen, cpixels);
+         pixels.flip();
+         cpixels.flip();
+         checkEquals ("pixels", pixels, cpixels);
+      }
+   }
+
+   void testImage (
+      DataType type, int[] dim, double slope, boolean littleEndian)
+      throws IOException {
+      byte[] contents = createImage (type, dim, slope, littleEndian);
+      File file = writeImage (contents, false);
+      NiftiImage check = readImage (file, false);
+      NiftiImage mapped = readImage (file, true);
+      checkImages (mapped, check);
+      checkImages (mapped.clone(), check);
+      mapped.getDataBuffer().load();
+      check ("loaded image is lazy", !mapped.isLazy());
+      checkImages (mapped, check);
+      file.delete();
+
+      file = writeImage (contents, true);
+      checkImages (readImage (file, false), check);
+      NiftiImage compressed = readImage (file, true);
+      checkImages (compressed, check);
+      compressed.dispose();
+      file.delete();
+   }
+
+   /**
+    * Writes the contents of a single-file image as a separate header and
+    * image file pair, returning the header and image files.
+    */
+   File[] writeImagePair (byte[] contents) throws IOException {
+      File hdr = File.createTempFile ("niftiTest", ".hdr");
+      File img = new File (
+         hdr.getPath().substring (0, hdr.getPath().length()-4) + ".img");
+      hdr.deleteOnExit();
+      img.deleteOnExit();
+      byte[] header = Arrays.copyOf (contents, 348);
+      header[345] = (byte)'i'; // magic "ni1" for a header/image pair
+      OutputStream out = new FileOutputStream (hdr);
+      out.write (header);
+      out.close();
+      out = new FileOutputStream (img);
+      out.write (contents, VOX_OFFSET, contents.length-VOX_OFFSET);
+      out.close();
+      return new File[] { hdr, img };
+   }
+
+   /**
+    * Checks that the image data of a header/image file pair is read using
+    * the byte order of the header.
+    */
+   void testImagePair (DataType type, int[] dim, boolean littleEndian)
+      throws IOException {
+      byte[] contents = createImage (type, dim, 0, littleEndian);
+      File file = writeImage (contents, false);
+      NiftiImage check = readImage (file, false);
+      file.delete();
+      File[] files = writeImagePair (contents);
+      boolean saveLazy = NiftiReader.getLazyLoading();
+      try {
+         for (boolean lazy : new boolean[] { false, true }) {
+            NiftiReader.setLazyLoading (lazy);
+            NiftiImage image = NiftiReader.read (files[0], files[1]);
+            checkImages (image, check);
+            image.dispose();
+         }
+      }
+      finally {
+         NiftiReader.setLazyLoading (saveLazy);
+      }
+      files[0].delete();
+      files[1].delete();
+   }
+
+   /**
+    * Checks that VolumeImage.getValue(channel,col,row,slice) maps channels
+    * onto values and the entities within each value.
+    */
+   void testChannelValues() throws IOException {
+      // RGB image: one value with three entities per voxel
+      int[] dim3 = new int[] { 3, 4, 3, 2 };
+      File file = writeImage (
+         createImage (DataType.NIFTI_TYPE_RGB24, dim3, 0, true), false);
+      NiftiImage image = readImage (file, false);
+      file.delete();
+      checkEquals ("RGB channels", image.getNumChannels(), 3);
+      for (int k=0; k<dim3[3]; k++) {
+         for (int j=0; j<dim3[2]; j++) {
+            for (int i=0; i<dim3[1]; i++) {
+               checkEquals (
+                  "red", image.getValue (0, i, j, k),
+                  (double)(image.getRed (0, i, j, k, 0) & 0xff), 0);
+               checkEquals (
+                  "green", image.getValue (1, i, j, k),
+                  (double)(image.getGreen (0, i, j, k, 0) & 0xff), 0);
+               checkEquals (
+                  "blue", image.getValue (2, i, j, k),
+                  (double)(image.getBlue (0, i, j, k, 0) & 0xff), 0);
+            }
+         }
+      }
+      // vector image: three values with one entity per voxel
+      int[] dim5 = new int[] { 5, 4, 3, 2, 1, 3 };
+      file = writeImage (
+         createImage (DataType.NIFTI_TYPE_INT16, dim5, 0, true), false);
+      image = readImage (file, false);
+      file.delete();
+      checkEquals ("vector channels", image.getNumChannels(), 3);
+      for (int c=0; c<3; c++) {
+         for (int k=0; k<dim5[3]; k++) {
+            for (int j=0; j<dim5[2]; j++) {
+               for (int i=0; i<dim5[1]; i++) {
+                  checkEquals (
+                     "channel "+c, image.getValue (c, i, j, k),
+                     (double)image.getInt16 (c, i, j, k, 0), 0);
+               }
+            }
+         }
+      }
+   }
+
+   void testCache() {
+      VolumeCache cache = new VolumeCache (100);
+      cache.put ("a", "a", 40);
+      cache.put ("b", "b", 40);
+      checkEquals ("a", cache.get ("a"), "a");
+      // "b" is now least recently used, so should be evicted
+      cache.put ("c", "c", 40);
+      check ("b not evicted", cache.get ("b") == null);
+      checkEquals ("byte count", cache.getByteCount(), 80L);
+      // oversized entries are kept until displaced
+      cache.put ("d", "d", 200);
+      checkEquals ("d", cache.get ("d"), "d");
+      checkEquals ("num entries", cache.numEntries(), 1);
+      cache.setByteBudget (0);
+      checkEquals ("num entries", cache.numEntries(), 0);
+   }
+
+   public void test() throws IOException {
+      testCache();
+      testChannelValues();
+      testImagePair (DataType.NIFTI_TYPE_INT16, new int[] { 3, 7, 5, 4 }, true);
+      testImagePair (DataType.NIFTI_TYPE_INT16, new int[] { 3, 7, 5, 4 }, false);
+      testImagePair (
+         DataType.NIFTI_TYPE_FLOAT32, new int[] { 4, 6, 5, 3, 2 }, false);
+
+      // small cache budget, so that compressed tiles are evicted and decoded
+      // again out of order
+      VolumeCache cache = new VolumeCache (1 << 20);
+      NiftiReader.setCache (cache);
+      try {
+         int[] dim3 = new int[] { 3, 7, 5, 4 };
+         int[] dim4 = new int[] { 4, 6, 5, 3, 2 };
+         int[] dim5 = new int[] { 5, 4, 3, 2, 2, 3 };
+         int[] large = new int[] { 3, 128, 128, 40 };
+         testImage (DataType.NIFTI_TYPE_INT16, dim3, 0, true);
+         testImage (DataType.NIFTI_TYPE_INT16, dim3, 0, false);
+         testImage (DataType.NIFTI_TYPE_INT16, dim4, 2.5, true);
+         testImage (DataType.NIFTI_TYPE_INT32, dim5, 0, true);
+         testImage (DataType.NIFTI_TYPE_FLOAT32, dim5, 0, false);
+         testImage (DataType.NIFTI_TYPE_FLOAT32, dim3, 0.1, true);
+         testImage (DataType.NIFTI_TYPE_FLOAT64, dim4, 0, true);
+         testImage (DataType.NIFTI_TYPE_UINT8, dim4, 0, true);
+         testImage (DataType.NIFTI_TYPE_INT8, dim3, 0, true);
+         testImage (DataType.NIFTI_TYPE_COMPLEX64, dim4, 0, true);
+         testImage (DataType.NIFTI_TYPE_RGB24, dim3, 0, true);
+         testImage (DataType.NIFTI_TYPE_INT16, large, 0, true);
+         check ("cache exceeds budget",
+                cache.getByteCount() <= cache.getByteBudget());
+      }
+      finally {
+         NiftiReader.setCache (null);
+      }
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      NiftiReaderTest tester = new NiftiReaderTest();
+      tester.runtest();
+   }
+}
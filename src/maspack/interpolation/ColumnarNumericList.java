@@ -0,0 +1,920 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.interpolation;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import maspack.interpolation.Interpolation.Order;
+import maspack.matrix.Vector;
+import maspack.matrix.VectorNd;
+import maspack.util.IndentingPrintWriter;
+import maspack.util.NumberFormat;
+
+/**
+ * A NumericList whose knots are stored in primitive arrays instead of as a
+ * linked list of {@link NumericListKnot} objects. Knot times are stored in
+ * one array and knot values in another, with the values of each knot stored
+ * contiguously. This greatly reduces the number of objects needed to store
+ * long data sequences, such as those recorded by output probes, and allows
+ * knots to be located using binary search.
+ *
+ * <p>Adding knots in order of increasing t requires amortized constant time.
+ * Knots can also be added out of order, although this requires shifting the
+ * data of all subsequent knots.
+ *
+ * <p>All the methods of NumericList are supported. However, since knots are
+ * not stored as objects, the knots returned by methods such as {@link
+ * #getFirst}, {@link #getLast}, {@link #findKnotClosest} and {@link
+ * #iterator} are <i>copies</i> of the stored data, and modifying them does
+ * not change the contents of the list. Likewise, knots passed to {@link
+ * #add(NumericListKnot)} are copied into the list rather than linked into
+ * it. Bulk access to the stored data is provided by methods such as {@link
+ * #getTimes(double[],int,int)} and {@link #getValues(double[],int,int)}.
+ */
+public class ColumnarNumericList extends NumericList {
+
+   private static final int INITIAL_CAPACITY = 16;
+
+   private double[] myTimes = new double[0];
+   private double[] myValues = new double[0];
+   private int myNumKnots = 0;
+   // index of the knot found by the most recent search, used as a hint
+   private int myLastIdx = -1;
+
+   private boolean myMinMaxValid = false;
+   private double myMinValue;
+   private double myMaxValue;
+
+   // scratch knots used for higher order interpolation
+   private NumericListKnot[] myScratchKnots;
+
+   /**
+    * Knot returned by a ColumnarNumericList. It contains a copy of the
+    * knot's data, together with its index in the list, which allows
+    * {@link #getNext} and {@link #getPrev} to be implemented.
+    */
+   static class IndexedKnot extends NumericListKnot {
+      int myIdx;
+
+      IndexedKnot (ColumnarNumericList list, int idx) {
+         super (list.getVectorSize());
+         myList = list;
+         setIndex (idx);
+      }
+
+      /**
+       * Resets this knot to refer to the knot at a different index, copying
+       * its time and value in place.
+       */
+      void setIndex (int idx) {
+         ColumnarNumericList list = getList();
+         myIdx = idx;
+         t = list.myTimes[idx];
+         list.getValue (v.getBuffer(), idx);
+      }
+
+      private ColumnarNumericList getList() {
+         return (ColumnarNumericList)myList;
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public NumericListKnot getNext() {
+         ColumnarNumericList list = getList();
+         if (myIdx+1 < list.myNumKnots) {
+            return new IndexedKnot (list, myIdx+1);
+         }
+         else {
+            return null;
+         }
+      }
+
+      /**
+       * {@inheritDoc}
+       */
+      public NumericListKnot getPrev() {
+         ColumnarNumericList list = getList();
+         if (myIdx > 0 && myIdx-1 < list.myNumKnots) {
+            return new IndexedKnot (list, myIdx-1);
+         }
+         else {
+            return null;
+         }
+      }
+   }
+
+   /**
+    * Creates an empty columnar numeric list for holding vectors of a
+    * prescribed size.
+    *
+    * @param vsize
+    * size of the vectors that will form this list
+    */
+   public ColumnarNumericList (int vsize) {
+      super (vsize);
+   }
+
+   /**
+    * Creates a columnar numeric list containing a copy of the knots and
+    * interpolation method of another numeric list.
+    *
+    * @param list numeric list to copy
+    */
+   public ColumnarNumericList (NumericList list) {
+      super (list.getVectorSize());
+      setInterpolation (list.getInterpolation());
+      ensureCapacity (list.getNumKnots());
+      for (NumericListKnot knot : list) {
+         add (knot.v.getBuffer(), knot.t);
+      }
+   }
+
+   /**
+    * Ensures that this list can hold a specified number of knots without
+    * needing to grow its storage.
+    *
+    * @param cap required knot capacity
+    */
+   public synchronized void ensureCapacity (int cap) {
+      int vsize = getVectorSize();
+      if (cap > myTimes.length || cap*vsize > myValues.length) {
+         myTimes = Arrays.copyOf (myTimes, cap);
+         myValues = Arrays.copyOf (myValues, cap*vsize);
+      }
+   }
+
+   private void growIfNecessary() {
+      if (myNumKnots >= myTimes.length ||
+          (myNumKnots+1)*getVectorSize() > myValues.length) {
+         ensureCapacity (Math.max (INITIAL_CAPACITY, 2*myTimes.length));
+      }
+   }
+
+   private void updateMinMaxValues (double[] vals, int off) {
+      for (int j=0; j<getVectorSize(); j++) {
+         double x = vals[off+j];
+         if (x > myMaxValue) {
+            myMaxValue = x;
+         }
+         if (x < myMinValue) {
+            myMinValue = x;
+         }
+      }
+   }
+
+   private void updateMinMaxValues() {
+      if (myNumKnots > 0) {
+         myMinValue = Double.POSITIVE_INFINITY;
+         myMaxValue = Double.NEGATIVE_INFINITY;
+         updateMinMaxValues (myValues, 0);
+         int vsize = getVectorSize();
+         for (int i=1; i<myNumKnots; i++) {
+            updateMinMaxValues (myValues, i*vsize);
+         }
+      }
+      else {
+         myMinValue = 0;
+         myMaxValue = 0;
+      }
+      myMinMaxValid = true;
+   }
+
+   /**
+    * Adds a knot with specified values and time. If a knot with the same
+    * time already exists, its values are replaced.
+    *
+    * @param vals values for the knot, stored starting at <code>off</code>
+    * @param off offset of the first value within <code>vals</code>
+    * @param t time at which the knot should be added
+    * @return index of the knot, or <code>-1-idx</code> if the values of an
+    * existing knot at index <code>idx</code> were replaced
+    */
+   private int addValues (double[] vals, int off, double t) {
+      int vsize = getVectorSize();
+      int idx;
+      boolean replaced = false;
+      if (myNumKnots == 0 || t > myTimes[myNumKnots-1]) {
+         // append: the common case
+         growIfNecessary();
+         idx = myNumKnots++;
+      }
+      else {
+         int prev = findIndexAtOrBefore (t);
+         if (prev >= 0 && myTimes[prev] == t) {
+            idx = prev;
+            replaced = true;
+            myMinMaxValid = false;
+         }
+         else {
+            growIfNecessary();
+            idx = prev+1;
+            System.arraycopy (
+               myTimes, idx, myTimes, idx+1, myNumKnots-idx);
+            System.arraycopy (
+               myValues, idx*vsize, myValues, (idx+1)*vsize,
+               (myNumKnots-idx)*vsize);
+            myNumKnots++;
+         }
+      }
+      myTimes[idx] = t;
+      System.arraycopy (vals, off, myValues, idx*vsize, vsize);
+      if (myMinMaxValid) {
+         updateMinMaxValues (myValues, idx*vsize);
+      }
+      myLastIdx = idx;
+      return replaced ? -1-idx : idx;
+   }
+
+   /**
+    * Adds a knot with specified values and time to this list, without
+    * creating any knot objects. If a knot with the same time already exists,
+    * its values are replaced. Adding knots in order of increasing time
+    * requires amortized constant time.
+    *
+    * @param vals values for the knot. Must have a length {@code >=} the
+    * vector size of this list.
+    * @param t time at which the knot should be added
+    */
+   public synchronized void add (double[] vals, double t) {
+      if (vals.length < getVectorSize()) {
+         throw new IllegalArgumentException (
+            "Insufficient number of values specified for knot point");
+      }
+      addValues (vals, 0, t);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized NumericListKnot add (Vector vals, double t) {
+      if (vals.size() < getVectorSize()) {
+         throw new IllegalArgumentException (
+            "Insufficient number of values specified for knot point");
+      }
+      NumericListKnot knot = new NumericListKnot (getVectorSize());
+      for (int i = 0; i < getVectorSize(); i++) {
+         knot.v.set (i, vals.get (i));
+      }
+      knot.t = t;
+      addValues (knot.v.getBuffer(), 0, t);
+      return knot;
+   }
+
+   /**
+    * Adds a copy of a knot to this list. The knot itself does not become
+    * part of the list.
+    *
+    * @param knot knot whose time and values should be added
+    * @return copy of the existing knot with the same t value, if any
+    */
+   public synchronized NumericListKnot add (NumericListKnot knot) {
+      return add (knot, null);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized NumericListKnot add (
+      NumericListKnot knot, NumericListKnot last) {
+      if (knot.v.size() != getVectorSize()) {
+         throw new IllegalArgumentException (
+            "Knot vector has size "+knot.v.size() +
+            ", expecting " + getVectorSize());
+      }
+      NumericListKnot existing = null;
+      if (myNumKnots > 0 && knot.t <= myTimes[myNumKnots-1]) {
+         int idx = findIndexAtOrBefore (knot.t);
+         if (idx >= 0 && myTimes[idx] == knot.t) {
+            existing = new NumericListKnot (getVectorSize());
+            existing.t = knot.t;
+            getValue (existing.v.getBuffer(), idx);
+         }
+      }
+      addValues (knot.v.getBuffer(), 0, knot.t);
+      return existing;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized void shiftTime (double t) {
+      for (int i=0; i<myNumKnots; i++) {
+         myTimes[i] += t;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized void getMinMaxValues (double[] minMax) {
+      if (!myMinMaxValid) {
+         updateMinMaxValues();
+      }
+      minMax[0] = myMinValue;
+      minMax[1] = myMaxValue;
+   }
+
+   private void removeIndex (int idx) {
+      int vsize = getVectorSize();
+      System.arraycopy (myTimes, idx+1, myTimes, idx, myNumKnots-idx-1);
+      System.arraycopy (
+         myValues, (idx+1)*vsize, myValues, idx*vsize,
+         (myNumKnots-idx-1)*vsize);
+      myNumKnots--;
+      myLastIdx = -1;
+      myMinMaxValid = false;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized NumericListKnot remove (double t) {
+      int idx = findIndexAtOrBefore (t);
+      if (idx >= 0 && myTimes[idx] == t) {
+         NumericListKnot knot = new IndexedKnot (this, idx);
+         knot.myList = null;
+         removeIndex (idx);
+         return knot;
+      }
+      else {
+         return null;
+      }
+   }
+
+   /**
+    * Removes the knot whose time equals that of a specified knot.
+    *
+    * @param knot
+    * knot whose time identifies the knot to remove
+    */
+   public synchronized void remove (NumericListKnot knot) {
+      remove (knot.t);
+   }
+
+   /**
+    * Removes all knots whose time is greater than that of a specified knot.
+    *
+    * @param knot
+    * all knots whose time is greater than the time of this knot will
+    * be removed
+    */
+   public synchronized void clearAfter (NumericListKnot knot) {
+      clearAfter (knot.t);
+   }
+
+   /**
+    * Removes all knots whose time is greater than <code>t</code>.
+    *
+    * @param t time after which knots should be removed
+    */
+   public synchronized void clearAfter (double t) {
+      int num = findIndexAtOrBefore (t) + 1;
+      if (num < myNumKnots) {
+         myNumKnots = num;
+         myLastIdx = -1;
+         myMinMaxValid = false;
+      }
+   }
+
+   /**
+    * Removes all knots whose time is less than <code>t</code>.
+    *
+    * @param t time before which knots should be removed
+    */
+   public synchronized void clearBefore (double t) {
+      int num = findIndexAtOrBefore (t) + 1;
+      if (num > 0 && myTimes[num-1] == t) {
+         num--;
+      }
+      if (num > 0) {
+         int vsize = getVectorSize();
+         System.arraycopy (myTimes, num, myTimes, 0, myNumKnots-num);
+         System.arraycopy (
+            myValues, num*vsize, myValues, 0, (myNumKnots-num)*vsize);
+         myNumKnots -= num;
+         myLastIdx = -1;
+         myMinMaxValid = false;
+      }
+   }
+
+   /**
+    * Returns the index of the last knot whose time is less than or equal to
+    * <code>t</code>, or -1 if <code>t</code> is less than the time of the
+    * first knot or the list is empty. The search starts from the location of
+    * the previous search, so that searches with slowly varying values of
+    * <code>t</code> require constant time.
+    *
+    * @param t time to search for
+    * @return index of the last knot at or before <code>t</code>
+    */
+   public synchronized int findIndexAtOrBefore (double t) {
+      int idx = findIndexAtOrBefore (t, myLastIdx);
+      myLastIdx = idx;
+      return idx;
+   }
+
+   private int findIndexAtOrBefore (double t, int hint) {
+      int n = myNumKnots;
+      if (n == 0 || t < myTimes[0]) {
+         return -1;
+      }
+      if (hint >= 0 && hint < n && myTimes[hint] <= t) {
+         // check the hint and its successor before doing a full search
+         if (hint+1 == n || t < myTimes[hint+1]) {
+            return hint;
+         }
+         else if (hint+2 == n || t < myTimes[hint+2]) {
+            return hint+1;
+         }
+      }
+      int lo = 0;
+      int hi = n-1;
+      // invariant: myTimes[lo] <= t, and either hi == n-1 or myTimes[hi+1] > t
+      while (lo < hi) {
+         int mid = (lo+hi+1) >>> 1;
+         if (myTimes[mid] <= t) {
+            lo = mid;
+         }
+         else {
+            hi = mid-1;
+         }
+      }
+      return lo;
+   }
+
+   private int hintIndex (NumericListKnot last) {
+      if (last instanceof IndexedKnot && last.myList == this) {
+         return ((IndexedKnot)last).myIdx;
+      }
+      else {
+         return myLastIdx;
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized NumericListKnot findKnotAtOrBefore (
+      double t, NumericListKnot last) {
+      if (myNumKnots == 0) {
+         return null;
+      }
+      int idx = findIndexAtOrBefore (t, hintIndex (last));
+      return new IndexedKnot (this, Math.max (idx, 0));
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized NumericListKnot findKnotClosest (double t) {
+      return findKnotClosest (t, null);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized NumericListKnot findKnotClosest (
+      double t, NumericListKnot last) {
+      if (myNumKnots == 0) {
+         return null;
+      }
+      int idx = findIndexAtOrBefore (t, hintIndex (last));
+      if (idx < 0) {
+         idx = 0;
+      }
+      else if (idx+1 < myNumKnots && myTimes[idx] < t) {
+         if (Math.abs (myTimes[idx] - t) >= Math.abs (myTimes[idx+1] - t)) {
+            idx++;
+         }
+      }
+      myLastIdx = idx;
+      return new IndexedKnot (this, idx);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized void interpolate (VectorNd v, double t) {
+      Interpolation method = getInterpolation();
+      myLastIdx = interpolate (
+         v, t, method.getOrder(), method.isDataExtended(), myLastIdx);
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>If <code>last</code> is a knot previously returned by this list, it
+    * is updated in place and returned, so that repeated calls do not
+    * allocate new knots.
+    */
+   public synchronized NumericListKnot interpolate (
+      VectorNd v, double t, Order order, boolean extendData,
+      NumericListKnot last) {
+      int idx = interpolate (v, t, order, extendData, hintIndex (last));
+      if (idx < 0) {
+         return null;
+      }
+      else if (last instanceof IndexedKnot && last.myList == this) {
+         ((IndexedKnot)last).setIndex (idx);
+         return last;
+      }
+      else {
+         return new IndexedKnot (this, idx);
+      }
+   }
+
+   private int interpolate (
+      VectorNd v, double t, Order order, boolean extendData, int hint) {
+      int vsize = getVectorSize();
+      if (myNumKnots == 0) {
+         v.setZero();
+         return -1;
+      }
+      int idx = findIndexAtOrBefore (t, hint);
+      if (idx < 0) {
+         // before the start of list
+         if (extendData) {
+            setFromKnot (v, 0);
+         }
+         else {
+            v.setZero();
+         }
+         return 0;
+      }
+      else if (idx == myNumKnots-1) {
+         // after end of list
+         if (extendData || myTimes[idx] == t) {
+            setFromKnot (v, idx);
+         }
+         else {
+            v.setZero();
+         }
+         return idx;
+      }
+      switch (order) {
+         case Step: {
+            setFromKnot (v, idx);
+            break;
+         }
+         case Linear: {
+            if (v.size() != vsize) {
+               v.setSize (vsize);
+            }
+            double s = (t - myTimes[idx]) / (myTimes[idx+1] - myTimes[idx]);
+            double[] buf = v.getBuffer();
+            int off0 = idx*vsize;
+            int off1 = off0+vsize;
+            for (int j=0; j<vsize; j++) {
+               buf[j] = (1 - s) * myValues[off0+j] + s * myValues[off1+j];
+            }
+            break;
+         }
+         case Cubic: {
+            interpolateCubic (v, t, idx);
+            break;
+         }
+         default: {
+            // higher order methods use the knot-based implementation, applied
+            // to a short chain of knots surrounding t
+            interpolateBetween (v, t, order, loadScratchKnots (idx));
+            break;
+         }
+      }
+      return idx;
+   }
+
+   /**
+    * Cubic Hermite interpolation between the knots at idx and idx+1, computed
+    * directly from the value columns. Tangents are estimated the same way as
+    * in {@link NumericList}, which falls back to linear interpolation when
+    * the list has only two knots.
+    */
+   private void interpolateCubic (VectorNd v, double t, int idx) {
+      int vsize = getVectorSize();
+      if (v.size() != vsize) {
+         v.setSize (vsize);
+      }
+      double[] buf = v.getBuffer();
+      double[] vals = myValues;
+      int off0 = idx*vsize;
+      int off1 = off0+vsize;
+      double t0 = myTimes[idx];
+      double t1 = myTimes[idx+1];
+      double h = t1-t0;
+      double s = (t-t0)/h;
+      boolean hasPrev = (idx > 0);
+      boolean hasNext = (idx+2 < myNumKnots);
+      if (!hasPrev && !hasNext) {
+         for (int j=0; j<vsize; j++) {
+            buf[j] = (1 - s) * vals[off0+j] + s * vals[off1+j];
+         }
+         return;
+      }
+      // tangent at idx uses knots idx-1 and idx+1, or idx and idx+1
+      int offa = (hasPrev ? off0-vsize : off0);
+      double sa = 1/(t1-(hasPrev ? myTimes[idx-1] : t0));
+      // tangent at idx+1 uses knots idx and idx+2, or idx and idx+1
+      int offb = (hasNext ? off1+vsize : off1);
+      double sb = 1/((hasNext ? myTimes[idx+2] : t1)-t0);
+
+      double b1 = (2*s-3)*s*s;
+      double b2 = ((s-2)*s+1)*s*h;
+      double b3 = (s-1)*s*s*h;
+      for (int j=0; j<vsize; j++) {
+         double p0 = vals[off0+j];
+         double p1 = vals[off1+j];
+         double v0 = (p1-vals[offa+j])*sa;
+         double v1 = (vals[offb+j]-p0)*sb;
+         buf[j] = b1*(p0-p1) + b2*v0 + b3*v1 + p0;
+      }
+   }
+
+   private void setFromKnot (VectorNd v, int idx) {
+      int vsize = getVectorSize();
+      if (v.size() != vsize) {
+         v.setSize (vsize);
+      }
+      getValue (v.getBuffer(), idx);
+   }
+
+   /**
+    * Loads the knots at idx-1, idx, idx+1 and idx+2 into a linked chain of
+    * scratch knots, and returns the knot corresponding to idx.
+    */
+   private NumericListKnot loadScratchKnots (int idx) {
+      int vsize = getVectorSize();
+      if (myScratchKnots == null ||
+          myScratchKnots[0].v.size() != vsize) {
+         myScratchKnots = new NumericListKnot[4];
+         for (int k=0; k<4; k++) {
+            myScratchKnots[k] = new NumericListKnot (vsize);
+         }
+      }
+      NumericListKnot prevKnot = null;
+      for (int k=0; k<4; k++) {
+         NumericListKnot knot = myScratchKnots[k];
+         int i = idx-1+k;
+         knot.prev = prevKnot;
+         knot.next = null;
+         if (i >= 0 && i < myNumKnots) {
+            knot.t = myTimes[i];
+            getValue (knot.v.getBuffer(), i);
+            if (prevKnot != null) {
+               prevKnot.next = knot;
+            }
+            prevKnot = knot;
+         }
+      }
+      return myScratchKnots[1];
+   }
+
+   /**
+    * Returns the time of the knot at a specified index.
+    *
+    * @param idx knot index
+    * @return knot time
+    */
+   public double getTime (int idx) {
+      if (idx < 0 || idx >= myNumKnots) {
+         throw new IndexOutOfBoundsException (
+            "index " + idx + " not in range [0," + myNumKnots + ")");
+      }
+      return myTimes[idx];
+   }
+
+   /**
+    * Copies the values of the knot at a specified index into
+    * <code>vals</code>.
+    *
+    * @param vals returns the knot values. Must have a length {@code >=} the
+    * vector size of this list.
+    * @param idx knot index
+    */
+   public void getValue (double[] vals, int idx) {
+      if (idx < 0 || idx >= myNumKnots) {
+         throw new IndexOutOfBoundsException (
+            "index " + idx + " not in range [0," + myNumKnots + ")");
+      }
+      int vsize = getVectorSize();
+      System.arraycopy (myValues, idx*vsize, vals, 0, vsize);
+   }
+
+   /**
+    * Copies the times of a contiguous range of knots into
+    * <code>times</code>.
+    *
+    * @param times returns the knot times
+    * @param idx index of the first knot
+    * @param num number of knots
+    */
+   public synchronized void getTimes (double[] times, int idx, int num) {
+      checkRange (idx, num);
+      System.arraycopy (myTimes, idx, times, 0, num);
+   }
+
+   /**
+    * Copies the values of a contiguous range of knots into
+    * <code>vals</code>. The values of each knot are stored contiguously, so
+    * that the values for knot <code>idx+k</code> begin at
+    * <code>k*vsize</code>, where <code>vsize</code> is the vector size of
+    * this list.
+    *
+    * @param vals returns the knot values
+    * @param idx index of the first knot
+    * @param num number of knots
+    */
+   public synchronized void getValues (double[] vals, int idx, int num) {
+      checkRange (idx, num);
+      int vsize = getVectorSize();
+      System.arraycopy (myValues, idx*vsize, vals, 0, num*vsize);
+   }
+
+   private void checkRange (int idx, int num) {
+      if (idx < 0 || num < 0 || idx+num > myNumKnots) {
+         throw new IndexOutOfBoundsException (
+            "range [" + idx + "," + (idx+num) + ") not in [0," +
+            myNumKnots + ")");
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public NumericListKnot getFirst() {
+      return myNumKnots > 0 ? new IndexedKnot (this, 0) : null;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public NumericListKnot getLast() {
+      return myNumKnots > 0 ? new IndexedKnot (this, myNumKnots-1) : null;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public int getNumKnots() {
+      return myNumKnots;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean isEmpty() {
+      return myNumKnots == 0;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized void clear() {
+      myNumKnots = 0;
+      myLastIdx = -1;
+      myMinMaxValid = false;
+   }
+
+   /**
+    * Reduces the storage used by this list to the minimum needed to hold its
+    * current knots.
+    */
+   public synchronized void trimToSize() {
+      int vsize = getVectorSize();
+      myTimes = Arrays.copyOf (myTimes, myNumKnots);
+      myValues = Arrays.copyOf (myValues, myNumKnots*vsize);
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized void scale (double s) {
+      int nvals = myNumKnots*getVectorSize();
+      for (int k=0; k<nvals; k++) {
+         myValues[k] *= s;
+      }
+      myMinMaxValid = false;
+   }
+
+   private class KnotIterator implements Iterator<NumericListKnot> {
+      int myIdx = 0;
+
+      public boolean hasNext() {
+         return myIdx < myNumKnots;
+      }
+
+      public NumericListKnot next() throws NoSuchElementException {
+         if (myIdx >= myNumKnots) {
+            throw new NoSuchElementException();
+         }
+         return new IndexedKnot (ColumnarNumericList.this, myIdx++);
+      }
+
+      public void remove()
+         throws UnsupportedOperationException, IllegalStateException {
+         throw new UnsupportedOperationException();
+      }
+   }
+
+   /**
+    * Returns an iterator over copies of the knots in this list.
+    *
+    * @return iterator over the knots
+    */
+   public Iterator<NumericListKnot> iterator() {
+      return new KnotIterator();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized double[][] getValues () {
+      int vsize = getVectorSize();
+      double[][] vals = new double[myNumKnots][1+vsize];
+      for (int i=0; i<myNumKnots; i++) {
+         vals[i][0] = myTimes[i];
+         System.arraycopy (myValues, i*vsize, vals[i], 1, vsize);
+      }
+      return vals;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized void setValues (double[][] vals) {
+      int vsize = getVectorSize();
+      for (int i=0; i<vals.length; i++) {
+         if (vals[i].length != vsize+1) {
+            throw new IllegalArgumentException (
+               "Number of columns must equal knot vector size plus one");
+         }
+      }
+      clear();
+      ensureCapacity (vals.length);
+      for (int i=0; i<vals.length; i++) {
+         addValues (vals[i], 1, vals[i][0]);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized String toString (NumberFormat fmt) {
+      int vsize = getVectorSize();
+      StringBuffer sbuf = new StringBuffer (20 * myNumKnots);
+      for (int i=0; i<myNumKnots; i++) {
+         sbuf.append (fmt.format (myTimes[i]));
+         for (int j=0; j<vsize; j++) {
+            sbuf.append (' ');
+            sbuf.append (fmt.format (myValues[i*vsize+j]));
+         }
+         sbuf.append ('\n');
+      }
+      return sbuf.toString();
+   }
+
+   /**
+    * Returns a deep copy of this numeric list.
+    */
+   public synchronized Object clone() {
+      ColumnarNumericList l = (ColumnarNumericList)super.clone();
+      l.myTimes = Arrays.copyOf (myTimes, myNumKnots);
+      l.myValues = Arrays.copyOf (myValues, myNumKnots*getVectorSize());
+      l.myScratchKnots = null;
+      l.myMinMaxValid = false;
+      return l;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized void write (PrintWriter pw, NumberFormat fmt, Object ref)
+      throws IOException {
+      int vsize = getVectorSize();
+      IndentingPrintWriter.printOpening (pw, "[ ");
+      IndentingPrintWriter.addIndentation (pw, 2);
+      pw.println ("vsize=" + vsize);
+      pw.println ("interpolation=" + getInterpolation());
+      pw.println ("knots=[");
+      IndentingPrintWriter.addIndentation (pw, 2);
+      for (int i=0; i<myNumKnots; i++) {
+         pw.print (fmt.format (myTimes[i]));
+         for (int j=0; j<vsize; j++) {
+            pw.print (" " + fmt.format (myValues[i*vsize+j]));
+         }
+         pw.println ("");
+      }
+      IndentingPrintWriter.addIndentation (pw, -2);
+      pw.println ("]");
+      IndentingPrintWriter.addIndentation (pw, -2);
+      pw.println ("]");
+   }
+}
@@ -0,0 +1,249 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.interpolation;
+
+import java.io.*;
+import java.util.*;
+
+import maspack.interpolation.Interpolation.Order;
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Tests ColumnarNumericList by comparing its behavior with that of the
+ * linked list implementation in NumericList.
+ */
+public class ColumnarNumericListTest extends UnitTest {
+
+   private VectorNd randomVector (int vsize) {
+      VectorNd v = new VectorNd (vsize);
+      v.setRandom();
+      return v;
+   }
+
+   /**
+    * Adds the same random knots to a NumericList and a ColumnarNumericList,
+    * in random order if <code>shuffle</code> is true.
+    */
+   private void addRandomKnots (
+      NumericList list, ColumnarNumericList clist, int num, boolean shuffle) {
+      int vsize = list.getVectorSize();
+      ArrayList<Integer> order = new ArrayList<Integer>();
+      for (int i=0; i<num; i++) {
+         order.add (i);
+      }
+      if (shuffle) {
+         Collections.shuffle (order, RandomGenerator.get());
+      }
+      for (int i : order) {
+         VectorNd v = randomVector (vsize);
+         double t = 0.1*i;
+         list.add (v, t);
+         clist.add (v.getBuffer(), t);
+      }
+   }
+
+   private void checkSameContents (NumericList list, ColumnarNumericList clist) {
+      checkEquals ("number of knots", clist.getNumKnots(), list.getNumKnots());
+      check ("lists not equal", clist.equals (list));
+      check ("lists not equal", list.equals (clist));
+      double[] minMax = new double[2];
+      double[] cminMax = new double[2];
+      list.getMinMaxValues (minMax);
+      clist.getMinMaxValues (cminMax);
+      checkEquals ("min value", cminMax[0], minMax[0], 0);
+      checkEquals ("max value", cminMax[1], minMax[1], 0);
+   }
+
+   private void checkInterpolation (
+      NumericList list, ColumnarNumericList clist, Order order) {
+      int vsize = list.getVectorSize();
+      VectorNd v = new VectorNd (vsize);
+      VectorNd cv = new VectorNd (vsize);
+      NumericListKnot clast = null;
+      double tmax = list.getLast().t;
+      for (boolean extend : new boolean[] { false, true }) {
+         // sweep forward in small steps, as is done during playback
+         for (double t=-0.25; t<tmax+0.25; t+=0.013) {
+            list.interpolate (v, t, order, extend, null);
+            NumericListKnot prev = clast;
+            clast = clist.interpolate (cv, t, order, extend, clast);
+            // the hint knot should be reused rather than reallocated
+            check ("hint knot not reused", prev == null || clast == prev);
+            checkEquals (
+               "interpolation at t="+t+", order="+order, cv, v, 1e-12);
+         }
+         // then sample at random times
+         for (int k=0; k<100; k++) {
+            double t = RandomGenerator.nextDouble (-0.5, tmax+0.5);
+            list.interpolate (v, t, order, extend, null);
+            clist.interpolate (cv, t, order, extend, null);
+            checkEquals (
+               "interpolation at t="+t+", order="+order, cv, v, 1e-12);
+         }
+      }
+   }
+
+   private void testInterpolation (int vsize) {
+      NumericList list = new NumericList (vsize);
+      ColumnarNumericList clist = new ColumnarNumericList (vsize);
+      addRandomKnots (list, clist, 50, /*shuffle=*/false);
+      checkSameContents (list, clist);
+      for (Order order : Order.values()) {
+         checkInterpolation (list, clist, order);
+      }
+      // check interpolation using the default method
+      list.setInterpolation (new Interpolation (Order.Linear, true));
+      clist.setInterpolation (new Interpolation (Order.Linear, true));
+      VectorNd v = new VectorNd (vsize);
+      VectorNd cv = new VectorNd (vsize);
+      for (double t=-0.1; t<5.1; t+=0.0071) {
+         list.interpolate (v, t);
+         clist.interpolate (cv, t);
+         checkEquals ("default interpolation at t="+t, cv, v, 0);
+      }
+   }
+
+   private void testEditing () {
+      int vsize = 3;
+      NumericList list = new NumericList (vsize);
+      ColumnarNumericList clist = new ColumnarNumericList (vsize);
+      addRandomKnots (list, clist, 40, /*shuffle=*/true);
+      checkSameContents (list, clist);
+
+      // replace an existing knot
+      NumericListKnot knot = new NumericListKnot (vsize);
+      knot.t = 0.5;
+      knot.v.setRandom();
+      NumericListKnot existing = list.add (new NumericListKnot (knot));
+      NumericListKnot cexisting = clist.add (knot);
+      checkEquals ("replaced time", cexisting.t, existing.t, 0);
+      checkEquals ("replaced values", cexisting.v, existing.v);
+      checkSameContents (list, clist);
+
+      // remove knots
+      double tr = 0.1*12;
+      checkEquals ("removed knot", clist.remove (tr).v, list.remove (tr).v);
+      check ("non-existent knot removed", clist.remove (1.25) == null);
+      checkSameContents (list, clist);
+
+      // closest knots
+      for (int k=0; k<50; k++) {
+         double t = RandomGenerator.nextDouble (-0.5, 4.5);
+         checkEquals (
+            "closest knot to "+t,
+            clist.findKnotClosest (t).t, list.findKnotClosest (t).t, 0);
+      }
+
+      // traverse using getNext()
+      int cnt = 0;
+      for (knot=clist.getFirst(); knot!=null; knot=knot.getNext()) {
+         cnt++;
+      }
+      checkEquals ("knots found by getNext()", cnt, list.getNumKnots());
+
+      // scaling and time shifting
+      list.scale (2.5);
+      clist.scale (2.5);
+      list.shiftTime (1.0);
+      clist.shiftTime (1.0);
+      checkSameContents (list, clist);
+
+      // clear after a given knot, as is done by output probes
+      knot = new NumericListKnot (vsize);
+      knot.t = 3.05;
+      knot.v.setRandom();
+      NumericListKnot lknot = new NumericListKnot (knot);
+      list.add (lknot);
+      list.clearAfter (lknot);
+      clist.add (knot);
+      clist.clearAfter (knot);
+      checkSameContents (list, clist);
+
+      // clear before a given time, both at and between knots
+      list.clearBefore (0.1*5+1.0);
+      clist.clearBefore (0.1*5+1.0);
+      checkSameContents (list, clist);
+      list.clearBefore (1.73);
+      clist.clearBefore (1.73);
+      checkSameContents (list, clist);
+      checkEquals (
+         "closest knot after clearBefore",
+         clist.findKnotClosest (0).t, list.findKnotClosest (0).t, 0);
+
+      // get and set values
+      ColumnarNumericList ccopy = new ColumnarNumericList (vsize);
+      ccopy.setValues (list.getValues());
+      checkSameContents (list, ccopy);
+      double[][] cvals = clist.getValues();
+      double[][] vals = list.getValues();
+      for (int i=0; i<vals.length; i++) {
+         check ("getValues row "+i, Arrays.equals (cvals[i], vals[i]));
+      }
+
+      // bulk access
+      int num = clist.getNumKnots();
+      double[] times = new double[num];
+      double[] values = new double[num*vsize];
+      clist.getTimes (times, 0, num);
+      clist.getValues (values, 0, num);
+      int i = 0;
+      for (NumericListKnot lk : list) {
+         checkEquals ("time "+i, times[i], lk.t, 0);
+         VectorNd v = new VectorNd (vsize);
+         v.set (Arrays.copyOfRange (values, i*vsize, (i+1)*vsize));
+         checkEquals ("values "+i, v, lk.v);
+         i++;
+      }
+
+      // clone and copy
+      ColumnarNumericList cclone = (ColumnarNumericList)clist.clone();
+      checkSameContents (list, cclone);
+      cclone.clear();
+      checkSameContents (list, clist);
+      checkSameContents (list, new ColumnarNumericList (list));
+   }
+
+   private void testWriteAndScan() {
+      int vsize = 4;
+      NumericList list = new NumericList (vsize);
+      ColumnarNumericList clist = new ColumnarNumericList (vsize);
+      addRandomKnots (list, clist, 20, /*shuffle=*/false);
+      NumberFormat fmt = new NumberFormat ("%g");
+      try {
+         StringWriter sw = new StringWriter();
+         StringWriter csw = new StringWriter();
+         list.write (new IndentingPrintWriter (sw), fmt, null);
+         clist.write (new IndentingPrintWriter (csw), fmt, null);
+         checkEquals ("written output", csw.toString(), sw.toString());
+         ColumnarNumericList cscan = new ColumnarNumericList (1);
+         cscan.scan (new ReaderTokenizer (new StringReader (sw.toString())), null);
+         NumericList scan = new NumericList (1);
+         scan.scan (new ReaderTokenizer (new StringReader (sw.toString())), null);
+         checkSameContents (scan, cscan);
+      }
+      catch (IOException e) {
+         throw new TestException ("Unexpected IOException: " + e);
+      }
+      checkEquals ("toString()", clist.toString(), list.toString());
+   }
+
+   public void test() {
+      testInterpolation (1);
+      testInterpolation (4);
+      testInterpolation (7);
+      testInterpolation (16);
+      testEditing();
+      testWriteAndScan();
+   }
+
+   public static void main (String[] args) {
+      ColumnarNumericListTest tester = new ColumnarNumericListTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
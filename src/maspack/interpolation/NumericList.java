@@ -338,6 +338,32 @@ public class NumericList
       myMinMaxValid = false;
    }
 
+   /**
+    * Removes all knots whose time is less than <code>t</code>.
+    * 
+    * @param t time before which knots should be removed
+    */
+   public synchronized void clearBefore (double t) {
+      NumericListKnot knot = myHead;
+      while (knot != null && knot.t < t) {
+         knot.myList = null;
+         if (knot == myLast) {
+            myLast = null;
+         }
+         knot = knot.next;
+      }
+      if (knot != myHead) {
+         myHead = knot;
+         if (knot == null) {
+            myTail = null;
+         }
+         else {
+            knot.prev = null;
+         }
+         myMinMaxValid = false;
+      }
+   }
+
    /**
     * Finds the knot whose t value is closest to, and if possible less or equal
     * to, a specified value.
@@ -793,7 +819,24 @@ public class NumericList
          }
          return prev;
       }
+      interpolateBetween (v, t, order, prev);
+      return prev;
+   }
+
+   /**
+    * Interpolates the value for a given t that lies between a knot
+    * <code>prev</code> and its successor. Knots adjacent to <code>prev</code>
+    * and its successor are also used by the higher order methods.
+    *
+    * @param v stores the interpolation result
+    * @param t value to interpolate for
+    * @param order interpolation order
+    * @param prev knot at or before t, whose successor is non-null
+    */
+   void interpolateBetween (
+      VectorNd v, double t, Order order, NumericListKnot prev) {
 
+      NumericListKnot next = prev.next;
       int size = v.size();
 
       // change interpolation if necessary to make it compatible with the data
@@ -869,7 +912,6 @@ public class NumericList
                "interpolation method " + order + " not implemented");
          }
       }
-      return prev;
    }
 
    private class MyIterator implements Iterator<NumericListKnot> {
@@ -1035,17 +1077,19 @@ public class NumericList
     * @return true if the lists are equal
     */
    public synchronized boolean equals (NumericList list) {
-      if (myVsize != list.myVsize || getNumKnots() != list.getNumKnots()) {
+      if (getVectorSize() != list.getVectorSize() ||
+          getNumKnots() != list.getNumKnots()) {
          return false;
       }
-      NumericListKnot knot0 = myHead;
-      NumericListKnot knot1 = list.myHead;
-      while (knot0 != null) {
+      // use iterators, since either list may use a different storage scheme
+      Iterator<NumericListKnot> it0 = iterator();
+      Iterator<NumericListKnot> it1 = list.iterator();
+      while (it0.hasNext()) {
+         NumericListKnot knot0 = it0.next();
+         NumericListKnot knot1 = it1.next();
          if (knot0.t != knot1.t || !knot0.v.equals (knot1.v)) {
             return false;
          }
-         knot0 = knot0.next;
-         knot1 = knot1.next;
       }
       return true;
    }
@@ -1181,6 +1225,7 @@ public class NumericList
             rtok.scanToken ('=');
             rtok.scanToken ('[');
             while (rtok.nextToken() != ']') {
+               rtok.pushBack();
                NumericListKnot knot = new NumericListKnot (myVsize);
                knot.t = rtok.scanNumber();
                for (int i=0; i<myVsize; i++) {
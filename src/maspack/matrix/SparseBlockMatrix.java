@@ -13,6 +13,7 @@ import java.util.LinkedList;
 import java.util.ArrayList;
 import java.util.Random;
 
+import maspack.concurrency.ParallelLoop;
 import maspack.util.Clonable;
 import maspack.util.IndentingPrintWriter;
 import maspack.util.InternalErrorException;
@@ -61,6 +62,25 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
 
    protected boolean myVerticallyLinkedP = false;
 
+   /**
+    * Minimum number of stored values per thread for which matrix-vector
+    * products involving frozen storage are computed in parallel.
+    */
+   static public int parallelMulChunkSize = 32768;
+
+   // frozen storage, created by freeze(). Blocks are arranged by block row,
+   // and their values are packed, row-major, into a single contiguous array:
+   protected boolean myFrozenP = false;
+   protected boolean myFrozenValuesValid = false;
+   protected int[] myFrozenRowPtrs;   // index of first block in each block row
+   protected MatrixBlock[] myFrozenBlocks;
+   protected int[] myFrozenColOffs;   // starting col index for each block
+   protected int[] myFrozenColSizes;  // number of cols in each block
+   protected int[] myFrozenValOffs;   // offset of each block's values
+   protected double[] myFrozenVals;
+   // block rows delimiting the chunks used for parallel operations:
+   protected int[] myFrozenChunkRows;
+
    public enum PrintFormat {
       MatrixMarket, CRS, CCS,
    }
@@ -88,6 +108,8 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
    }
 
    private void invalidateCRSandCCSOffsets() {
+      // structure changes also invalidate any frozen storage
+      unfreeze();
       myRowIndicesPartition = Partition.None;
       myCRSNumBlkRows = -1;
       myCRSNumBlkCols = -1;
@@ -118,6 +140,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       myRowOffsets[nbk+1] = myRowOffsets[nbk]+size;
       myRows[nbk] = new MatrixBlockRowList();
       myNumRows += size;
+      unfreeze();
 
       myNumBlockRows++;
    }
@@ -135,6 +158,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       }
       myNumRows += nrows;
       myNumBlockRows += num;
+      unfreeze();
    }
          
    public void removeRow (int rowIdx) {
@@ -217,6 +241,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       }
       myNumCols += size;
       myNumBlockCols++;
+      unfreeze();
    }
 
    public void addCols (int[] sizes, int num) {
@@ -234,6 +259,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       }
       myNumCols += ncols;
       myNumBlockCols += num;
+      unfreeze();
    }
 
    public void removeCol (int colIdx) {
@@ -515,6 +541,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
    }
 
    protected void initRowColSizes (int[] rowSizes, int[] colSizes) {
+      unfreeze();
       myNumRows = 0;
       myNumBlockRows = rowSizes.length;
       myRowOffsets = new int[myNumBlockRows+1];
@@ -822,6 +849,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
          bi = blk.getBlockRow();
          bj = blk.getBlockCol();
          blk.set (i - myRowOffsets[bi], j - myColOffsets[bj], val);
+         myFrozenValuesValid = false;
       }
    }
 
@@ -931,6 +959,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
             blk.setZero();
          }
       }
+      myFrozenValuesValid = false;
    }
 
    public void scale (double s) {
@@ -940,6 +969,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
             blk.scale (s);
          }
       }
+      myFrozenValuesValid = false;
    }
 
    public void negate() {
@@ -949,6 +979,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
             blk.negate();
          }
       }
+      myFrozenValuesValid = false;
    }
 
    // protected void mulVec (double[] res, double[] vec, int nr, int nc) {
@@ -1000,6 +1031,13 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
    protected void mulAddVec (
       double[] res, double[] vec, int r0, int nr, int c0, int nc) {
 
+      if (myFrozenP && r0 == 0 && c0 == 0) {
+         int nbr = getAlignedBlockRow (nr);
+         if (nbr != -1) {
+            frozenMulAdd (res, vec, nbr, nc);
+            return;
+         }
+      }
       int rowf = r0 + nr;
       int colf = c0 + nc;
       int bi0 = getBlockRow (r0);
@@ -1236,6 +1274,13 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
    protected void mulTransposeAddVec (
       double[] res, double[] vec, int r0, int nr, int c0, int nc) {
 
+      if (myFrozenP && r0 == 0 && c0 == 0) {
+         int nbr = getAlignedBlockRow (nc);
+         if (nbr != -1) {
+            frozenMulTransposeAdd (res, vec, nbr, nr);
+            return;
+         }
+      }
       int rowf = c0 + nc;
       int colf = r0 + nr;
       int bi0 = getBlockRow (c0);
@@ -1254,6 +1299,299 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
       }
    }
 
+   /**
+    * Freezes this matrix into a compressed storage format which is used to
+    * speed up matrix-vector products, including {@link #mul(VectorNd,VectorNd)
+    * mul} and {@link #mulTranspose(VectorNd,VectorNd) mulTranspose}, for
+    * either the whole matrix or leading block-aligned submatrices.  The
+    * blocks are arranged by block row, and their values are packed, in
+    * row-major order, into a single contiguous array, so that products no
+    * longer need to traverse the block lists. Products with large matrices
+    * are also computed in parallel, using contiguous ranges of block rows
+    * that contain roughly equal numbers of stored values.
+    *
+    * <p>The frozen storage is discarded automatically whenever the block
+    * structure of the matrix changes, such as when blocks, rows or columns
+    * are added or removed. Changes made to the values through the methods of
+    * this matrix (such as {@link #setZero}, {@link #scale}, or {@link
+    * #set(int,int,double) set}) are also tracked, and cause the packed values
+    * to be updated before they are next used. However, values that are set
+    * directly within the blocks themselves can not be detected, and so if
+    * this is done, <code>freeze()</code> should be called again to update the
+    * packed values.
+    */
+   public void freeze() {
+      if (!myFrozenP) {
+         createFrozenStructure();
+         myFrozenP = true;
+      }
+      updateFrozenValues();
+   }
+
+   /**
+    * Discards any storage created by {@link #freeze}.
+    */
+   public void unfreeze() {
+      myFrozenP = false;
+      myFrozenValuesValid = false;
+      myFrozenRowPtrs = null;
+      myFrozenBlocks = null;
+      myFrozenColOffs = null;
+      myFrozenColSizes = null;
+      myFrozenValOffs = null;
+      myFrozenVals = null;
+      myFrozenChunkRows = null;
+   }
+
+   /**
+    * Queries whether this matrix is currently frozen, as described for
+    * {@link #freeze}.
+    *
+    * @return <code>true</code> if this matrix is frozen
+    */
+   public boolean isFrozen() {
+      return myFrozenP;
+   }
+
+   private void createFrozenStructure() {
+      int nblks = 0;
+      for (int bi=0; bi<myNumBlockRows; bi++) {
+         nblks += myRows[bi].size();
+      }
+      myFrozenRowPtrs = new int[myNumBlockRows+1];
+      myFrozenBlocks = new MatrixBlock[nblks];
+      myFrozenColOffs = new int[nblks];
+      myFrozenColSizes = new int[nblks];
+      myFrozenValOffs = new int[nblks+1];
+      int k = 0;
+      int voff = 0;
+      for (int bi=0; bi<myNumBlockRows; bi++) {
+         myFrozenRowPtrs[bi] = k;
+         int nrows = myRowOffsets[bi+1]-myRowOffsets[bi];
+         for (MatrixBlock blk=myRows[bi].myHead; blk!=null; blk=blk.next()) {
+            int bj = blk.getBlockCol();
+            myFrozenBlocks[k] = blk;
+            myFrozenColOffs[k] = myColOffsets[bj];
+            myFrozenColSizes[k] = myColOffsets[bj+1]-myColOffsets[bj];
+            myFrozenValOffs[k] = voff;
+            voff += nrows*myFrozenColSizes[k];
+            k++;
+         }
+      }
+      myFrozenRowPtrs[myNumBlockRows] = k;
+      myFrozenValOffs[k] = voff;
+      myFrozenVals = new double[voff];
+      myFrozenChunkRows = null;
+   }
+
+   /**
+    * Returns the block rows delimiting the chunks used for parallel
+    * operations on the frozen storage, updating them if necessary. Chunk
+    * <code>c</code> contains block rows <code>chunkRows[c]</code> to
+    * <code>chunkRows[c+1]-1</code>.
+    */
+   private int[] getFrozenChunkRows() {
+      int nvals = myFrozenVals.length;
+      int nchunks = ParallelLoop.numChunks (
+         nvals, 0, Math.max (1, parallelMulChunkSize));
+      nchunks = Math.min (nchunks, Math.max (1, myNumBlockRows));
+      if (myFrozenChunkRows == null ||
+          myFrozenChunkRows.length != nchunks+1) {
+         // choose chunk boundaries so as to balance the number of values
+         int[] chunkRows = new int[nchunks+1];
+         int bi = 0;
+         for (int c=1; c<nchunks; c++) {
+            long target = ((long)c*nvals)/nchunks;
+            while (bi < myNumBlockRows &&
+                   myFrozenValOffs[myFrozenRowPtrs[bi]] < target) {
+               bi++;
+            }
+            chunkRows[c] = bi;
+         }
+         chunkRows[nchunks] = myNumBlockRows;
+         myFrozenChunkRows = chunkRows;
+      }
+      return myFrozenChunkRows;
+   }
+
+   private void updateFrozenValues() {
+      final int[] chunkRows = getFrozenChunkRows();
+      int nchunks = chunkRows.length-1;
+      ParallelLoop.forEachChunk (nchunks, nchunks, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               for (int c=lo; c<hi; c++) {
+                  gatherFrozenValues (
+                     myFrozenRowPtrs[chunkRows[c]],
+                     myFrozenRowPtrs[chunkRows[c+1]]);
+               }
+            }
+         });
+      myFrozenValuesValid = true;
+   }
+
+   private void gatherFrozenValues (int k0, int k1) {
+      double[] vals = myFrozenVals;
+      double[] buf = null;
+      for (int k=k0; k<k1; k++) {
+         MatrixBlock blk = myFrozenBlocks[k];
+         int off = myFrozenValOffs[k];
+         if (blk instanceof Matrix3dBase) {
+            Matrix3dBase M = (Matrix3dBase)blk;
+            vals[off  ] = M.m00; vals[off+1] = M.m01; vals[off+2] = M.m02;
+            vals[off+3] = M.m10; vals[off+4] = M.m11; vals[off+5] = M.m12;
+            vals[off+6] = M.m20; vals[off+7] = M.m21; vals[off+8] = M.m22;
+         }
+         else {
+            int size = myFrozenValOffs[k+1]-off;
+            if (buf == null || buf.length < size) {
+               buf = new double[size];
+            }
+            blk.get (buf);
+            System.arraycopy (buf, 0, vals, off, size);
+         }
+      }
+   }
+
+   /**
+    * Computes res += M vec using the frozen storage, for the leading
+    * submatrix of M given by the first nbr block rows and the first nc
+    * columns.
+    */
+   private void frozenMulAdd (
+      final double[] res, final double[] vec, final int nbr, final int nc) {
+      if (!myFrozenValuesValid) {
+         updateFrozenValues();
+      }
+      final int[] chunkRows = getFrozenChunkRows();
+      int nchunks = chunkRows.length-1;
+      ParallelLoop.forEachChunk (nchunks, nchunks, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               for (int c=lo; c<hi; c++) {
+                  frozenMulAdd (
+                     res, vec, Math.min (chunkRows[c], nbr),
+                     Math.min (chunkRows[c+1], nbr), nc);
+               }
+            }
+         });
+   }
+
+   /**
+    * Computes res += M vec for block rows bi0 to bi1-1, and the first nc
+    * columns, using the frozen storage.
+    */
+   private void frozenMulAdd (
+      double[] res, double[] vec, int bi0, int bi1, int nc) {
+
+      double[] vals = myFrozenVals;
+      for (int bi=bi0; bi<bi1; bi++) {
+         int rowOff = myRowOffsets[bi];
+         int nrows = myRowOffsets[bi+1]-rowOff;
+         int kend = myFrozenRowPtrs[bi+1];
+         if (nrows == 3) {
+            double s0 = res[rowOff];
+            double s1 = res[rowOff+1];
+            double s2 = res[rowOff+2];
+            for (int k=myFrozenRowPtrs[bi]; k<kend; k++) {
+               int off = myFrozenValOffs[k];
+               int colOff = myFrozenColOffs[k];
+               int ncols = myFrozenColSizes[k];
+               if (colOff >= nc) {
+                  break;
+               }
+               if (ncols == 3) {
+                  double x0 = vec[colOff];
+                  double x1 = vec[colOff+1];
+                  double x2 = vec[colOff+2];
+                  s0 += vals[off  ]*x0 + vals[off+1]*x1 + vals[off+2]*x2;
+                  s1 += vals[off+3]*x0 + vals[off+4]*x1 + vals[off+5]*x2;
+                  s2 += vals[off+6]*x0 + vals[off+7]*x1 + vals[off+8]*x2;
+               }
+               else {
+                  double sum = 0;
+                  for (int j=0; j<ncols; j++) {
+                     sum += vals[off++]*vec[colOff+j];
+                  }
+                  s0 += sum;
+                  sum = 0;
+                  for (int j=0; j<ncols; j++) {
+                     sum += vals[off++]*vec[colOff+j];
+                  }
+                  s1 += sum;
+                  sum = 0;
+                  for (int j=0; j<ncols; j++) {
+                     sum += vals[off++]*vec[colOff+j];
+                  }
+                  s2 += sum;
+               }
+            }
+            res[rowOff  ] = s0;
+            res[rowOff+1] = s1;
+            res[rowOff+2] = s2;
+         }
+         else {
+            for (int k=myFrozenRowPtrs[bi]; k<kend; k++) {
+               int off = myFrozenValOffs[k];
+               int colOff = myFrozenColOffs[k];
+               int ncols = myFrozenColSizes[k];
+               if (colOff >= nc) {
+                  break;
+               }
+               for (int i=0; i<nrows; i++) {
+                  double sum = 0;
+                  for (int j=0; j<ncols; j++) {
+                     sum += vals[off++]*vec[colOff+j];
+                  }
+                  res[rowOff+i] += sum;
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Computes res += M^T vec using the frozen storage, for the leading
+    * submatrix of M given by the first nbr block rows and the first nc
+    * columns. This is done serially, since different block rows scatter
+    * into the same result entries.
+    */
+   private void frozenMulTransposeAdd (
+      double[] res, double[] vec, int nbr, int nc) {
+      if (!myFrozenValuesValid) {
+         updateFrozenValues();
+      }
+      double[] vals = myFrozenVals;
+      for (int bi=0; bi<nbr; bi++) {
+         int rowOff = myRowOffsets[bi];
+         int nrows = myRowOffsets[bi+1]-rowOff;
+         int kend = myFrozenRowPtrs[bi+1];
+         for (int k=myFrozenRowPtrs[bi]; k<kend; k++) {
+            int off = myFrozenValOffs[k];
+            int colOff = myFrozenColOffs[k];
+            int ncols = myFrozenColSizes[k];
+            if (colOff >= nc) {
+               break;
+            }
+            if (nrows == 3 && ncols == 3) {
+               double x0 = vec[rowOff];
+               double x1 = vec[rowOff+1];
+               double x2 = vec[rowOff+2];
+               res[colOff  ] += vals[off  ]*x0 + vals[off+3]*x1 + vals[off+6]*x2;
+               res[colOff+1] += vals[off+1]*x0 + vals[off+4]*x1 + vals[off+7]*x2;
+               res[colOff+2] += vals[off+2]*x0 + vals[off+5]*x1 + vals[off+8]*x2;
+            }
+            else {
+               for (int j=0; j<ncols; j++) {
+                  double sum = 0;
+                  for (int i=0; i<nrows; i++) {
+                     sum += vals[off+i*ncols+j]*vec[rowOff+i];
+                  }
+                  res[colOff+j] += sum;
+               }
+            }
+         }
+      }
+   }
+
    protected void mulCheckArgs (
       VectorNd vr, VectorNd v1, int r0, int nr, int c0, int nc) {
       super.mulCheckArgs (vr, v1, r0, nr, c0, nc);
@@ -2019,6 +2357,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
             blkM = blkM.next();
          }
       }
+      myFrozenValuesValid = false;
    }
    
 //   /**
@@ -2376,6 +2715,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
             }
          }
       }
+      myFrozenValuesValid = false;
    }
 
    private void setSymmetric (DenseMatrix M) {
@@ -2509,6 +2849,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
             blk.set(ilocal, j, 0);
          }
       }
+      myFrozenValuesValid = false;
    }
 
    public void getColumn (int j, double[] values) {
@@ -2561,6 +2902,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
             }
          }
       }
+      myFrozenValuesValid = false;
    }
 
    /** 
@@ -2704,6 +3046,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
             }
          }
       }
+      myFrozenValuesValid = false;
    }
 
    public void setVerticallyLinked (boolean enable) {
@@ -2851,6 +3194,7 @@ public class SparseBlockMatrix extends SparseMatrixBase implements Clonable {
 	    blk = blk.next();
 	 }
       }
+      M.myFrozenValuesValid = false;
    }
    
    public void getSubMatrixRow (int i, double[] values, int off, int[] icols) {
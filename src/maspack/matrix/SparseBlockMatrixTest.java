@@ -1006,6 +1006,120 @@ public class SparseBlockMatrixTest extends MatrixTest {
       }
    }
 
+   private void checkFrozenMul (String msg, SparseBlockMatrix S) {
+      VectorNd x = new VectorNd (S.colSize());
+      VectorNd xt = new VectorNd (S.rowSize());
+      x.setRandom();
+      xt.setRandom();
+      MatrixNd M = new MatrixNd (S);
+      VectorNd ycheck = new VectorNd (S.rowSize());
+      VectorNd ytcheck = new VectorNd (S.colSize());
+      M.mul (ycheck, x);
+      M.mulTranspose (ytcheck, xt);
+
+      VectorNd y = new VectorNd (S.rowSize());
+      VectorNd yt = new VectorNd (S.colSize());
+      S.mul (y, x);
+      checkResult (msg+" mul", y, ycheck, 1e-10);
+      S.mulTranspose (yt, xt);
+      checkResult (msg+" mulTranspose", yt, ytcheck, 1e-10);
+      VectorNd ysave = new VectorNd (y);
+      ycheck.add (ysave);
+      S.mulAdd (y, x);
+      checkResult (msg+" mulAdd", y, ycheck, 1e-10);
+      ytcheck.scale (2);
+      S.mulTransposeAdd (yt, xt);
+      checkResult (msg+" mulTransposeAdd", yt, ytcheck, 1e-10);
+   }
+
+   private void testFrozen (SparseBlockMatrix S) {
+      S = S.clone();
+      S.freeze();
+      if (!S.isFrozen()) {
+         throw new TestException ("matrix not frozen after freeze()");
+      }
+      checkFrozenMul ("frozen", S);
+
+      // changes made through the matrix should be tracked
+      S.scale (2.5);
+      checkFrozenMul ("frozen after scale", S);
+      S.set (0, 0, 3.0);
+      checkFrozenMul ("frozen after set", S);
+
+      // direct changes to the blocks require calling freeze() again
+      MatrixBlock blk = S.firstBlockInRow (0);
+      blk.set (0, 0, blk.get (0, 0) + 1.0);
+      S.freeze();
+      checkFrozenMul ("frozen after block change", S);
+
+      // repeated value rebuilds, as done by the integrators on each step:
+      // setZero() invalidates the packed values, so direct block changes
+      // made after it are picked up by the next product, and freeze()
+      // refreshes them after further direct changes
+      for (int step=0; step<3; step++) {
+         S.setZero();
+         blk.set (0, 0, step+1.0);
+         checkFrozenMul ("frozen after setZero, step "+step, S);
+         blk.set (0, 0, blk.get (0, 0) + 2.0);
+         S.freeze();
+         if (!S.isFrozen()) {
+            throw new TestException ("matrix not frozen, step "+step);
+         }
+         checkFrozenMul ("refrozen, step "+step, S);
+      }
+
+      // structure changes should discard the frozen storage
+      int bi = S.numBlockRows()-1;
+      int bj = S.numBlockCols()-1;
+      if (S.getBlock (bi, bj) == null) {
+         MatrixBlock newBlk = MatrixBlockBase.alloc (
+            S.getBlockRowSize (bi), S.getBlockColSize (bj));
+         S.addBlock (bi, bj, newBlk);
+         if (S.isFrozen()) {
+            throw new TestException ("matrix still frozen after addBlock");
+         }
+         newBlk.set (0, 0, 1.0);
+         checkFrozenMul ("unfrozen after addBlock", S);
+         S.freeze();
+         checkFrozenMul ("refrozen after addBlock", S);
+      }
+      S.addRow (3);
+      if (S.isFrozen()) {
+         throw new TestException ("matrix still frozen after addRow");
+      }
+   }
+
+   private void testFrozenParallel () {
+      // use a small chunk size to force parallel products
+      int chunkSize = SparseBlockMatrix.parallelMulChunkSize;
+      SparseBlockMatrix.parallelMulChunkSize = 16;
+      try {
+         for (int i=0; i<10; i++) {
+            testFrozen (createRandomMatrix (20, 20));
+         }
+         int nblks = 200;
+         int[] sizes = new int[nblks];
+         for (int k=0; k<nblks; k++) {
+            sizes[k] = 3;
+         }
+         SparseBlockMatrix S = createMatrix (sizes);
+         for (int bi=0; bi<nblks; bi++) {
+            S.addBlock (bi, bi, new Matrix3x3Block());
+            for (int k=0; k<4; k++) {
+               int bj = randGen.nextInt (nblks);
+               if (S.getBlock (bi, bj) == null) {
+                  S.addBlock (bi, bj, new Matrix3x3Block());
+               }
+            }
+         }
+         S.setRandomValues();
+         testFrozen (S);
+      }
+      finally {
+         SparseBlockMatrix.parallelMulChunkSize = chunkSize;
+      }
+   }
+
    public void test() {
 
       initializeMatrices();
@@ -1064,7 +1178,9 @@ public class SparseBlockMatrixTest extends MatrixTest {
          testMulVec (S);
          testMulTransposeVec (S);
          testMulMat (S);
+         testFrozen (S);
       }
+      testFrozenParallel();
 
       testStructure (MatSym);
       testStructure (Mat);
@@ -0,0 +1,172 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.matrix.ImproperSizeException;
+import maspack.matrix.Matrix3d;
+import maspack.matrix.MatrixBlock;
+import maspack.matrix.MatrixNd;
+import maspack.matrix.SparseBlockMatrix;
+import maspack.matrix.VectorNd;
+
+/**
+ * Block Jacobi preconditioner, in which <code>P</code> is formed from the
+ * diagonal blocks of a SparseBlockMatrix. The inverses of the diagonal blocks
+ * are stored contiguously, and are applied in parallel for large matrices.
+ *
+ * <p>If a diagonal block is missing or singular, the inverse of its diagonal
+ * entries (or the identity, for zero entries) is used instead.
+ */
+public class BlockJacobiPreconditioner extends SparseBlockPreconditioner {
+
+   /**
+    * Minimum number of rows per thread for which the preconditioner is
+    * applied in parallel.
+    */
+   static public int parallelChunkSize = 8192;
+
+   private int[] myRowOffs = new int[1];  // starting row for each block
+   private int[] myValOffs = new int[1];  // offset of each block's inverse
+   private double[] myInvVals = new double[0];
+
+   /**
+    * Creates a new BlockJacobiPreconditioner.
+    */
+   public BlockJacobiPreconditioner() {
+   }
+
+   /**
+    * Creates a new BlockJacobiPreconditioner for a specified matrix.
+    *
+    * @param A matrix from which the preconditioner should be computed
+    */
+   public BlockJacobiPreconditioner (SparseBlockMatrix A) {
+      factor (A);
+   }
+
+   protected void doFactor (SparseBlockMatrix A) {
+      int nblks = myNumBlocks;
+      if (myRowOffs.length < nblks+1) {
+         myRowOffs = new int[nblks+1];
+         myValOffs = new int[nblks+1];
+      }
+      int voff = 0;
+      for (int bi=0; bi<nblks; bi++) {
+         int n = A.getBlockRowSize (bi);
+         if (A.getBlockColSize (bi) != n) {
+            throw new IllegalArgumentException (
+               "Diagonal block "+bi+" is not square");
+         }
+         myRowOffs[bi] = A.getBlockRowOffset (bi);
+         myValOffs[bi] = voff;
+         voff += n*n;
+      }
+      myRowOffs[nblks] = mySize;
+      myValOffs[nblks] = voff;
+      if (myInvVals.length < voff) {
+         myInvVals = new double[voff];
+      }
+
+      Matrix3d M3 = new Matrix3d();
+      MatrixNd MN = new MatrixNd();
+      for (int bi=0; bi<nblks; bi++) {
+         int n = myRowOffs[bi+1]-myRowOffs[bi];
+         int off = myValOffs[bi];
+         MatrixBlock blk = A.getBlock (bi, bi);
+         boolean inverted = false;
+         if (blk != null) {
+            if (n == 3) {
+               M3.set (blk);
+               if (M3.invert()) {
+                  double[] vals = myInvVals;
+                  vals[off  ] = M3.m00; vals[off+1] = M3.m01; vals[off+2] = M3.m02;
+                  vals[off+3] = M3.m10; vals[off+4] = M3.m11; vals[off+5] = M3.m12;
+                  vals[off+6] = M3.m20; vals[off+7] = M3.m21; vals[off+8] = M3.m22;
+                  inverted = true;
+               }
+            }
+            else {
+               MN.setSize (n, n);
+               MN.set (blk);
+               if (MN.invert()) {
+                  for (int i=0; i<n; i++) {
+                     for (int j=0; j<n; j++) {
+                        myInvVals[off+i*n+j] = MN.get (i, j);
+                     }
+                  }
+                  inverted = true;
+               }
+            }
+         }
+         if (!inverted) {
+            // fall back on inverting the diagonal entries
+            for (int i=0; i<n; i++) {
+               for (int j=0; j<n; j++) {
+                  myInvVals[off+i*n+j] = 0;
+               }
+               double d = (blk != null ? blk.get (i, i) : 0);
+               myInvVals[off+i*n+i] = (d != 0 ? 1/d : 1);
+            }
+         }
+      }
+   }
+
+   /**
+    * Applies the inverse diagonal blocks to <code>v1</code> and places the
+    * result in <code>vr</code>.
+    *
+    * @param vr result vector
+    * @param v1 vector to be transformed
+    */
+   public void mul (VectorNd vr, VectorNd v1) {
+      if (v1.size() != mySize) {
+         throw new ImproperSizeException (
+            "v1 size is "+v1.size()+", expecting "+mySize);
+      }
+      if (vr == v1) {
+         v1 = new VectorNd (v1);
+      }
+      vr.setSize (mySize);
+      final double[] res = vr.getBuffer();
+      final double[] vec = v1.getBuffer();
+      int nchunks = ParallelLoop.numChunks (
+         mySize, 0, Math.max (1, parallelChunkSize));
+      ParallelLoop.forEachChunk (
+         myNumBlocks, nchunks, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               mul (res, vec, lo, hi);
+            }
+         });
+   }
+
+   private void mul (double[] res, double[] vec, int bi0, int bi1) {
+      double[] vals = myInvVals;
+      for (int bi=bi0; bi<bi1; bi++) {
+         int r = myRowOffs[bi];
+         int n = myRowOffs[bi+1]-r;
+         int off = myValOffs[bi];
+         if (n == 3) {
+            double x0 = vec[r];
+            double x1 = vec[r+1];
+            double x2 = vec[r+2];
+            res[r  ] = vals[off  ]*x0 + vals[off+1]*x1 + vals[off+2]*x2;
+            res[r+1] = vals[off+3]*x0 + vals[off+4]*x1 + vals[off+5]*x2;
+            res[r+2] = vals[off+6]*x0 + vals[off+7]*x1 + vals[off+8]*x2;
+         }
+         else {
+            for (int i=0; i<n; i++) {
+               double sum = 0;
+               for (int j=0; j<n; j++) {
+                  sum += vals[off++]*vec[r+j];
+               }
+               res[r+i] = sum;
+            }
+         }
+      }
+   }
+}
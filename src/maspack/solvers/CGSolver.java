@@ -21,6 +21,7 @@ public class CGSolver implements IterativeSolver {
    private double myTol = 0.001;
    private int myMaxIter = 100;
    private ToleranceType myTolType = ToleranceType.RelativeResidual;
+   private LinearTransformNd myPreconditioner = null;
 
    public boolean debug = false;
 
@@ -60,13 +61,37 @@ public class CGSolver implements IterativeSolver {
       myMaxIter = max;
    }
 
+   /**
+    * Returns the default preconditioner used by {@link
+    * #solve(VectorNd,LinearTransformNd,VectorNd) solve(x,A,b)}.
+    *
+    * @return default preconditioner, or <code>null</code> if there is none
+    */
+   public LinearTransformNd getPreconditioner() {
+      return myPreconditioner;
+   }
+
+   /**
+    * Sets the default preconditioner used by {@link
+    * #solve(VectorNd,LinearTransformNd,VectorNd) solve(x,A,b)}. The {@link
+    * maspack.matrix.LinearTransformNd#mul mul} method of the preconditioner
+    * should implement the transformation y = inv(M) x, where M is a a
+    * preconditioning matrix that approximates A.
+    *
+    * @param P default preconditioner, or <code>null</code> if none
+    * should be used
+    */
+   public void setPreconditioner (LinearTransformNd P) {
+      myPreconditioner = P;
+   }
+
    /**
     * Solves a linear system A x = b using the conjugate gradient method. The
     * matrix associated with the linear system is represented implicitly by a
     * {@link maspack.matrix.LinearTransformNd LinearTransformNd}. The method
     * will iterate while relative residual ||A x - b||/||b|| is greater than a
     * supplied tolerance and the number of iterations is less than a specified
-    * maximum.
+    * maximum. The default preconditioner, if any, is applied.
     * 
     * @param x
     * result vector, as well as initial guess of the solution
@@ -77,7 +102,7 @@ public class CGSolver implements IterativeSolver {
     * @return true if a solution was found within the specified tolerance
     */
    public boolean solve (VectorNd x, LinearTransformNd A, VectorNd b) {
-      return solve (x, A, b, myTol, myMaxIter, null);
+      return solve (x, A, b, myTol, myMaxIter, myPreconditioner);
    }
 
    /**
@@ -11,6 +11,16 @@ import maspack.util.*;
 
 /**
  * A dense QP (Quadratic Program) solver that that uses Dantzig's algorithm.
+ *
+ * <p>Workspace is retained between calls, so that repeated solves of problems
+ * with the same dimensions do not allocate memory. If warm starting is
+ * enabled (see {@link #setWarmStart}), the LCP arising from the inequality
+ * constraints is instead solved using a {@link MurtyLCPSolver} whose initial
+ * active set is the one found by the previous solve, which typically
+ * requires very few pivots when the problem changes only slightly between
+ * solves. If the previous active set does not give a factorable initial
+ * basis for the new problem, or the warm-started solve fails, the LCP is
+ * solved from scratch using Dantzig's algorithm.
  */
 public class DantzigQPSolver {
 
@@ -23,6 +33,23 @@ public class DantzigQPSolver {
    protected VectorNd myy;
    protected VectorNd myz;
 
+   // reusable workspace
+   protected MatrixNd myAT = new MatrixNd();
+   protected MatrixNd myHAeq = new MatrixNd();
+   protected VectorNd myFbeq = new VectorNd();
+   protected VectorNd myXlam = new VectorNd();
+
+   // warm start support
+   protected boolean myWarmStart = false;
+   protected MurtyLCPSolver myMurty;
+   protected VectorNi myLcpState = new VectorNi();
+   protected VectorNi myPrevLcpState = new VectorNi();
+   protected int myIterationCount;
+   protected int myActiveSetChanges;
+   protected boolean myLastSolveWasWarm;
+   protected MatrixNd myMzz = new MatrixNd();
+   protected CholeskyDecomposition myCholZ;
+
    /**
     * Described whether or not a solution was found. Where appropriate,
     * these are taken directly from DantizLCPSolver.Status.
@@ -90,6 +117,162 @@ public class DantzigQPSolver {
       myz = new VectorNd();
    }
 
+   /**
+    * Queries whether warm starting is enabled for this solver.
+    *
+    * @return {@code true} if warm starting is enabled
+    * @see #setWarmStart
+    */
+   public boolean getWarmStart() {
+      return myWarmStart;
+   }
+
+   /**
+    * Enables or disables warm starting for this solver. When enabled, the LCP
+    * arising from the inequality constraints is solved starting from the
+    * active set found by the previous solve, provided that the number of
+    * inequality constraints has not changed.
+    *
+    * @param enable if {@code true}, enables warm starting
+    */
+   public void setWarmStart (boolean enable) {
+      myWarmStart = enable;
+   }
+
+   /**
+    * Returns the number of LCP iterations (pivots) performed by the most
+    * recent solve. If a warm-started solve failed and was repeated with a
+    * cold start, the iterations of both solves are included.
+    *
+    * @return number of iterations for the last solve
+    */
+   public int getIterationCount() {
+      return myIterationCount;
+   }
+
+   /**
+    * Returns the number of inequality constraints whose active state changed
+    * between the previous solve and the most recent one. If the number of
+    * inequality constraints changed, this equals the number of constraints
+    * that are active after the most recent solve.
+    *
+    * @return number of active set changes for the last solve
+    */
+   public int getActiveSetChanges() {
+      return myActiveSetChanges;
+   }
+
+   /**
+    * Queries whether the most recent solve was successfully warm started,
+    * without needing to fall back on a cold start.
+    *
+    * @return {@code true} if the last solve was warm started
+    */
+   public boolean lastSolveWasWarmStarted() {
+      return myLastSolveWasWarm;
+   }
+
+   /**
+    * Clears the active set saved from the previous solve, so that the next
+    * solve will be started cold.
+    */
+   public void clearWarmStart() {
+      myLcpState.setSize (0);
+   }
+
+   /**
+    * Checks whether the saved active set can be used to warm start the LCP
+    * with matrix {@code M}. This requires the principal submatrix of {@code
+    * M} associated with the active variables to be positive definite, since
+    * otherwise the initial basis cannot be factored. This may not be the case
+    * if the problem has changed significantly since the previous solve.
+    */
+   private boolean warmStartIsValid (MatrixNd M) {
+      int n = myLcpState.size();
+      int numz = 0;
+      for (int i=0; i<n; i++) {
+         if (myLcpState.get(i) == LCPSolver.Z_VAR) {
+            numz++;
+         }
+      }
+      if (numz == 0) {
+         return true;
+      }
+      myMzz.setSize (numz, numz);
+      int ip = 0;
+      for (int i=0; i<n; i++) {
+         if (myLcpState.get(i) == LCPSolver.Z_VAR) {
+            int jp = 0;
+            for (int j=0; j<n; j++) {
+               if (myLcpState.get(j) == LCPSolver.Z_VAR) {
+                  myMzz.set (ip, jp++, M.get (i, j));
+               }
+            }
+            ip++;
+         }
+      }
+      if (myCholZ == null) {
+         myCholZ = new CholeskyDecomposition();
+      }
+      try {
+         myCholZ.factor (myMzz);
+      }
+      catch (IllegalArgumentException e) {
+         return false;
+      }
+      return true;
+   }
+
+   /**
+    * Solves the LCP {@code w = M z + q}, updating the saved active set and
+    * the solve counters.
+    */
+   private Status solveLCP (VectorNd z, MatrixNd M, VectorNd q) {
+      int n = q.size();
+      boolean havePrev = (myLcpState.size() == n);
+      if (havePrev) {
+         myPrevLcpState.set (myLcpState);
+      }
+      else {
+         myLcpState.setSize (n);
+         LCPSolver.clearState (myLcpState);
+      }
+      myIterationCount = 0;
+      myLastSolveWasWarm = false;
+      Status status = null;
+      if (myWarmStart && havePrev && !warmStartIsValid (M)) {
+         // saved active set is unusable, so start cold
+         LCPSolver.clearState (myLcpState);
+      }
+      else if (myWarmStart && havePrev) {
+         if (myMurty == null) {
+            myMurty = new MurtyLCPSolver();
+         }
+         status = statusFromLCP (myMurty.solve (z, myLcpState, M, q));
+         myIterationCount += myMurty.getIterationCount();
+         if (status == Status.SOLVED) {
+            myLastSolveWasWarm = true;
+         }
+         else {
+            LCPSolver.clearState (myLcpState);
+         }
+      }
+      if (!myLastSolveWasWarm) {
+         status = statusFromLCP (myLcp.solve (z, myLcpState, M, q));
+         myIterationCount += myLcp.getIterationCount();
+      }
+      myActiveSetChanges = 0;
+      for (int i=0; i<n; i++) {
+         boolean active = (myLcpState.get(i) == LCPSolver.Z_VAR);
+         boolean wasActive =
+            havePrev && (myPrevLcpState.get(i) == LCPSolver.Z_VAR);
+         if (active != wasActive) {
+            myActiveSetChanges++;
+         }
+      }
+      return status;
+   }
+
    private void checkProblemDimensions (
       MatrixNd H, VectorNd f, MatrixNd A, VectorNd b) {
 
@@ -140,6 +323,9 @@ public class DantzigQPSolver {
       }
 
       x.setSize (H.rowSize());
+      myIterationCount = 0;
+      myActiveSetChanges = 0;
+      myLastSolveWasWarm = false;
       try {
          myCholD.factor (H);
       }
@@ -155,7 +341,8 @@ public class DantzigQPSolver {
       }
       myM.setSize (A.rowSize(), A.rowSize());
       myq.setSize (A.rowSize());
-      MatrixNd AT = new MatrixNd (A.colSize(), A.rowSize());
+      MatrixNd AT = myAT;
+      AT.setSize (A.colSize(), A.rowSize());
       AT.transpose (A);
 
       if (!myCholD.solve (myY, AT)) {
@@ -173,8 +360,7 @@ public class DantzigQPSolver {
       int n = myq.size();
       myz.setSize (n);
       myy.setSize (H.rowSize());
-      Status status = 
-         statusFromLCP(myLcp.solve (myz, /*state=*/null, myM, myq));
+      Status status = solveLCP (myz, myM, myq);
       if (status == Status.SOLVED) {
          A.mulTranspose (myy, myz);
          myy.sub (f);
@@ -290,6 +476,9 @@ public class DantzigQPSolver {
       int hsize = H.rowSize();
       int neq = Aeq.rowSize();
       x.setSize (hsize);
+      myIterationCount = 0;
+      myActiveSetChanges = 0;
+      myLastSolveWasWarm = false;
       if (neq == hsize) {
          // just solve the equality constraints
          myLUD.factor (Aeq);
@@ -301,9 +490,13 @@ public class DantzigQPSolver {
          }
       }
       
-      MatrixNd HAeq = new MatrixNd (hsize+neq, hsize+neq);
-      VectorNd fbeq = new VectorNd (hsize+neq);
-      VectorNd xlam = new VectorNd (hsize+neq);
+      MatrixNd HAeq = myHAeq;
+      VectorNd fbeq = myFbeq;
+      VectorNd xlam = myXlam;
+      HAeq.setSize (hsize+neq, hsize+neq);
+      HAeq.setZero();
+      fbeq.setSize (hsize+neq);
+      xlam.setSize (hsize+neq);
       x.setSize (H.rowSize());
 
       setHAeq (HAeq, H, Aeq);
@@ -322,7 +515,8 @@ public class DantzigQPSolver {
             return Status.SOLVED;
          }
       }
-      MatrixNd AT = new MatrixNd (A.colSize()+neq, A.rowSize());
+      MatrixNd AT = myAT;
+      AT.setSize (A.colSize()+neq, A.rowSize());
       myM.setSize (A.rowSize(), A.rowSize());
       myq.setSize (A.rowSize());
       setAT (AT, A, neq);
@@ -342,8 +536,7 @@ public class DantzigQPSolver {
 
       int n = myq.size();
       myz.setSize (n);
-      Status status = 
-         statusFromLCP(myLcp.solve (myz, /*state=*/null, myM, myq));
+      Status status = solveLCP (myz, myM, myq);
       if (status == Status.SOLVED) {
          A.mulTranspose (myy, myz);
          myy.setSize (hsize+neq);
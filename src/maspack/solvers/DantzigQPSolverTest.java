@@ -225,9 +225,110 @@ public class DantzigQPSolverTest extends UnitTest {
       }
    }
 
+   /**
+    * Solves a sequence of slowly varying box-constrained problems, with and
+    * without warm starting, and checks that the solutions agree and that
+    * warm starting reduces the number of iterations.
+    */
+   public void warmStartSequenceTest() {
+      int n = 20;
+      MatrixNd R = new MatrixNd (n, n);
+      R.setRandom();
+      MatrixNd H = new MatrixNd (n, n);
+      H.mulTransposeLeft (R, R);
+      for (int i=0; i<n; i++) {
+         H.add (i, i, 0.1);
+      }
+      // bounds 0 <= x <= 1
+      MatrixNd A = new MatrixNd (2*n, n);
+      VectorNd b = new VectorNd (2*n);
+      for (int i=0; i<n; i++) {
+         A.set (i, i, 1);
+         b.set (i, 0);
+         A.set (n+i, i, -1);
+         b.set (n+i, -1);
+      }
+      VectorNd f0 = new VectorNd (n);
+      VectorNd df = new VectorNd (n);
+      f0.setRandom();
+      f0.scale (10);
+      df.setRandom();
+      df.scale (0.05);
+
+      DantzigQPSolver cold = new DantzigQPSolver();
+      DantzigQPSolver warm = new DantzigQPSolver();
+      warm.setWarmStart (true);
+      VectorNd xcold = new VectorNd (n);
+      VectorNd xwarm = new VectorNd (n);
+      VectorNd f = new VectorNd (f0);
+      int coldIters = 0;
+      int warmIters = 0;
+      int numWarm = 0;
+      int nsteps = 50;
+      for (int k=0; k<nsteps; k++) {
+         checkEquals ("cold status",
+            cold.solve (xcold, H, f, A, b), Status.SOLVED);
+         checkEquals ("warm status",
+            warm.solve (xwarm, H, f, A, b), Status.SOLVED);
+         checkEquals ("warm solution", xwarm, xcold, 1e-10);
+         coldIters += cold.getIterationCount();
+         warmIters += warm.getIterationCount();
+         if (warm.lastSolveWasWarmStarted()) {
+            numWarm++;
+         }
+         if (k > 0) {
+            checkEquals (
+               "active set changes", warm.getActiveSetChanges(),
+               cold.getActiveSetChanges());
+         }
+         f.add (df);
+      }
+      checkEquals ("number of warm starts", numWarm, nsteps-1);
+      if (warmIters >= coldIters) {
+         throw new TestException (
+            "warm start iterations "+warmIters+
+            " not less than cold start iterations "+coldIters);
+      }
+      // clearing the warm start should cause a cold start
+      warm.clearWarmStart();
+      warm.solve (xwarm, H, f, A, b);
+      check ("cold start after clear", !warm.lastSolveWasWarmStarted());
+   }
+
+   /**
+    * Checks that an active set which gives a singular initial basis for the
+    * next problem is not used for a warm start.
+    */
+   void invalidWarmStartTest() {
+      DantzigQPSolver warm = new DantzigQPSolver();
+      warm.setWarmStart (true);
+      MatrixNd H = new MatrixNd (2, 2);
+      H.setIdentity();
+      VectorNd f = new VectorNd (2);
+      VectorNd x = new VectorNd (2);
+      // both constraints are active at the solution
+      MatrixNd A = new MatrixNd (2, 2, new double[] { 1, 0, 0, 1 });
+      VectorNd b = new VectorNd (new double[] { 1, 1 });
+      checkEquals ("status", warm.solve (x, H, f, A, b), Status.SOLVED);
+      checkEquals ("solution", x, new VectorNd (new double[] { 1, 1 }), 1e-12);
+      // duplicate constraints, for which the previous active set is singular
+      A = new MatrixNd (2, 2, new double[] { 1, 0, 1, 0 });
+      checkEquals ("status", warm.solve (x, H, f, A, b), Status.SOLVED);
+      checkEquals ("solution", x, new VectorNd (new double[] { 1, 0 }), 1e-12);
+      check ("warm start with singular basis", !warm.lastSolveWasWarmStarted());
+   }
+
    public void test() {
       simpleCubeTest();
       matlabTests();
+      // repeat with warm starts, which will be started from the active sets
+      // of unrelated problems when the constraint count is unchanged
+      mySolver = new DantzigQPSolver();
+      mySolver.setWarmStart (true);
+      simpleCubeTest();
+      matlabTests();
+      warmStartSequenceTest();
+      invalidWarmStartTest();
    }
 
    public static void main (String[] args) {
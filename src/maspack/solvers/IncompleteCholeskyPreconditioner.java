@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import maspack.matrix.ImproperSizeException;
+import maspack.matrix.Matrix.Partition;
+import maspack.matrix.SparseBlockMatrix;
+import maspack.matrix.VectorNd;
+
+/**
+ * Zero fill-in incomplete Cholesky preconditioner, IC(0), for a symmetric
+ * positive definite SparseBlockMatrix. This computes an upper triangular
+ * matrix <code>U</code> with the same sparsity pattern as the upper
+ * triangular part of the matrix, such that
+ * <pre>
+ * P = U^T U
+ * </pre>
+ * approximates the matrix. <code>U</code> is stored in compressed row
+ * format, obtained directly from the matrix using {@link
+ * SparseBlockMatrix#getCRSIndices getCRSIndices} and {@link
+ * SparseBlockMatrix#getCRSValues getCRSValues}, so that unlike {@link
+ * IncompleteCholeskyDecomposition}, no intermediate sparse matrix is needed.
+ *
+ * <p>If a non-positive pivot is encountered during factorization, it is
+ * replaced by the magnitude of the original diagonal entry, which keeps the
+ * preconditioner positive definite at the expense of some accuracy.
+ */
+public class IncompleteCholeskyPreconditioner
+   extends SparseBlockPreconditioner {
+
+   private int myNumVals = 0;
+   private int[] myRowOffs = new int[1];
+   private int[] myColIdxs = new int[0];
+   private double[] myVals = new double[0];
+   private int myNumPivotCorrections = 0;
+
+   /**
+    * Creates a new IncompleteCholeskyPreconditioner.
+    */
+   public IncompleteCholeskyPreconditioner() {
+   }
+
+   /**
+    * Creates a new IncompleteCholeskyPreconditioner for a specified matrix.
+    *
+    * @param A matrix from which the preconditioner should be computed
+    */
+   public IncompleteCholeskyPreconditioner (SparseBlockMatrix A) {
+      factor (A);
+   }
+
+   protected void doFactor (SparseBlockMatrix A) {
+      int n = mySize;
+      int nvals = A.numNonZeroVals (Partition.UpperTriangular, n, n);
+      if (myRowOffs.length < n+1) {
+         myRowOffs = new int[n+1];
+      }
+      if (myColIdxs.length < nvals) {
+         myColIdxs = new int[nvals];
+         myVals = new double[nvals];
+      }
+      A.getCRSIndices (myColIdxs, myRowOffs, Partition.UpperTriangular, n, n);
+      A.getCRSValues (myVals, Partition.UpperTriangular, n, n);
+      // convert indices to 0-based
+      for (int i=0; i<=n; i++) {
+         myRowOffs[i]--;
+      }
+      for (int k=0; k<nvals; k++) {
+         myColIdxs[k]--;
+      }
+      myNumVals = nvals;
+      myNumPivotCorrections = 0;
+
+      int[] offs = myRowOffs;
+      int[] cols = myColIdxs;
+      double[] vals = myVals;
+      for (int k=0; k<n; k++) {
+         int kd = offs[k];
+         int kend = offs[k+1];
+         if (kd == kend || cols[kd] != k) {
+            throw new IllegalArgumentException (
+               "Matrix has no diagonal entry in row "+k);
+         }
+         double piv = vals[kd];
+         if (piv <= 0) {
+            double dorig = Math.abs (A.get (k, k));
+            piv = (dorig != 0 ? dorig : 1);
+            myNumPivotCorrections++;
+         }
+         double d = Math.sqrt (piv);
+         vals[kd] = d;
+         for (int p=kd+1; p<kend; p++) {
+            vals[p] /= d;
+         }
+         // update the remaining rows using row k, without creating fill-in
+         for (int p=kd+1; p<kend; p++) {
+            int j = cols[p];
+            double ukj = vals[p];
+            int q = offs[j];
+            int qend = offs[j+1];
+            for (int r=p; r<kend; r++) {
+               int i = cols[r];
+               while (q < qend && cols[q] < i) {
+                  q++;
+               }
+               if (q == qend) {
+                  break;
+               }
+               if (cols[q] == i) {
+                  vals[q] -= ukj*vals[r];
+               }
+            }
+         }
+      }
+   }
+
+   /**
+    * Returns the number of non-positive pivots that were corrected during
+    * the last factorization.
+    *
+    * @return number of pivot corrections
+    */
+   public int numPivotCorrections() {
+      return myNumPivotCorrections;
+   }
+
+   /**
+    * Returns the number of non-zero values in the incomplete factor.
+    *
+    * @return number of non-zero values
+    */
+   public int numNonZeroVals() {
+      return myNumVals;
+   }
+
+   /**
+    * Computes <code>vr = inv(U^T U) v1</code>, using forward and back
+    * substitution with the incomplete factor.
+    *
+    * @param vr result vector
+    * @param v1 vector to be transformed
+    */
+   public void mul (VectorNd vr, VectorNd v1) {
+      if (v1.size() != mySize) {
+         throw new ImproperSizeException (
+            "v1 size is "+v1.size()+", expecting "+mySize);
+      }
+      if (vr != v1) {
+         vr.set (v1);
+      }
+      double[] x = vr.getBuffer();
+      int[] offs = myRowOffs;
+      int[] cols = myColIdxs;
+      double[] vals = myVals;
+      int n = mySize;
+      // solve U^T y = v1
+      for (int k=0; k<n; k++) {
+         int kd = offs[k];
+         double yk = x[k]/vals[kd];
+         x[k] = yk;
+         for (int p=kd+1; p<offs[k+1]; p++) {
+            x[cols[p]] -= vals[p]*yk;
+         }
+      }
+      // solve U x = y
+      for (int k=n-1; k>=0; k--) {
+         int kd = offs[k];
+         double sum = x[k];
+         for (int p=kd+1; p<offs[k+1]; p++) {
+            sum -= vals[p]*x[cols[p]];
+         }
+         x[k] = sum/vals[kd];
+      }
+   }
+}
@@ -18,6 +18,9 @@ import java.util.Arrays;
 public class KKTSolver {
 
    private SparseSolverId mySolverType = SparseSolverId.Pardiso;
+   // solver type requested by the constructor. mySolverType may differ from
+   // this if the requested solver can't handle non-symmetric matrices.
+   private SparseSolverId myRequestedSolverType = SparseSolverId.Pardiso;
 
    public static boolean computeResidualMG = false;
    // when building an LCP matrix, use solves with multiple right sides:
@@ -37,6 +40,7 @@ public class KKTSolver {
    SparseBlockMatrix myGT;
    UmfpackSolver myUmfpack;
    PardisoSolver myPardiso;
+   SupernodalLDLTSolver mySupernodal;
    DirectSolver myMatrixSolver;
    boolean myIndices1Based = false;
    boolean myLastSolveWasIterative = false;
@@ -98,6 +102,11 @@ public class KKTSolver {
    };
 
    public KKTSolver (SparseSolverId solverType) {
+      allocateSolver (solverType);
+      myRequestedSolverType = solverType;
+   }
+
+   private void allocateSolver (SparseSolverId solverType) {
       switch (solverType) {
          case Pardiso: {
             myPardiso = new PardisoSolver();
@@ -109,6 +118,11 @@ public class KKTSolver {
             myMatrixSolver = myUmfpack;
             break;
          }
+         case SupernodalLDLT: {
+            mySupernodal = new SupernodalLDLTSolver();
+            myMatrixSolver = mySupernodal;
+            break;
+         }
          default: {
             throw new IllegalArgumentException (
                "Solver type " + solverType + " not supported");
@@ -117,8 +131,41 @@ public class KKTSolver {
       mySolverType = solverType;
    }
 
+   /**
+    * Creates a KKTSolver that uses Pardiso if its native libraries are
+    * available, and the pure Java supernodal LDL^T solver otherwise.
+    */
    public KKTSolver() {
-      this (SparseSolverId.Pardiso);
+      this (PardisoSolver.isAvailable() ?
+            SparseSolverId.Pardiso : SparseSolverId.SupernodalLDLT);
+   }
+
+   /**
+    * Makes sure that the current solver can handle the matrix type of M. If
+    * the requested solver is only for symmetric matrices (as with
+    * SupernodalLDLT) and M is not symmetric, then switch to Pardiso or
+    * Umfpack, whichever is available. Switch back once M is symmetric again.
+    */
+   private void updateSolverType (int typeM) {
+      SparseSolverId solverType = myRequestedSolverType;
+      if (!solverType.isCompatible (typeM)) {
+         if (PardisoSolver.isAvailable()) {
+            solverType = SparseSolverId.Pardiso;
+         }
+         else if (UmfpackSolver.isAvailable()) {
+            solverType = SparseSolverId.Umfpack;
+         }
+         else {
+            throw new UnsupportedOperationException (
+               "Solver type " + myRequestedSolverType +
+               " does not support non-symmetric matrices, and neither "+
+               "Pardiso nor Umfpack is available");
+         }
+      }
+      if (solverType != mySolverType) {
+         dispose();
+         allocateSolver (solverType);
+      }
    }
 
    /**
@@ -131,6 +178,7 @@ public class KKTSolver {
       int numG = (GT != null ? GT.colSize() : 0);
       int numVals = 0;
 
+      updateSolverType (typeM);
       myTypeM = typeM;
       if ((typeM & Matrix.SYMMETRIC) != 0) {
          myPartitionM = Partition.UpperTriangular;
@@ -196,6 +244,11 @@ public class KKTSolver {
             throw new NumericalException ("Unable to analyze matrix");
          }
       }
+      else if (mySolverType == SparseSolverId.SupernodalLDLT) {
+         // indices remain 0-based
+         mySupernodal.analyze (
+            myVals, myColIdxs, myRowOffs, sizeMG, Matrix.SYMMETRIC);
+      }
       else { // add 1 to indices, since Pardiso indices are 1-based
          // XXX
          for (int i = 0; i < numVals; i++) {
@@ -636,6 +689,67 @@ public class KKTSolver {
       return dosolve (vel, lam, null, null, bm, bg, null, null, null, null, null);
    }
 
+   /**
+    * Solves the equality parts of a factored system for multiple right-hand
+    * sides <code>bm[k]</code>, each sharing the same constraint offsets
+    * <code>bg</code>. When the underlying matrix solver supports it, all
+    * right-hand sides are solved with a single call, which may process them
+    * in parallel. Otherwise, they are solved one at a time.
+    *
+    * @param vel returns the velocity solutions
+    * @param lam returns the bilateral constraint impulses
+    * @param bm velocity right-hand sides
+    * @param bg bilateral constraint offsets, common to all right-hand sides
+    * @param nrhs number of right-hand sides
+    * @return solution status
+    */
+   public Status solve (
+      VectorNd[] vel, VectorNd[] lam, VectorNd[] bm, VectorNd bg, int nrhs) {
+      myLastSolveWasIterative = false;
+      if (myState != State.FACTORED) {
+         throw new ImproperStateException ("Factor has not been called");
+      }
+      if (bg.size() != myNumG) {
+         throw new IllegalArgumentException (
+            "Bad dimensions: bg size=" + bg.size() + ", factored GT size="
+            + myNumG);
+      }
+      for (int k=0; k<nrhs; k++) {
+         if (vel[k].size() != mySizeM || bm[k].size() != mySizeM) {
+            throw new IllegalArgumentException (
+               "size of vel["+k+"] and/or bm["+k+
+               "] incompatible with factored M size of " + mySizeM);
+         }
+         lam[k].setSize (myNumG);
+      }
+      if (nrhs == 0) {
+         return Status.SOLVED;
+      }
+      if (myPardiso != null || mySupernodal != null) {
+         int w = mySizeM+myNumG;
+         // assemble right-hand sides in column major form
+         double[] Bbuf = new double[w*nrhs];
+         double[] Xbuf = new double[w*nrhs];
+         double[] bgbuf = bg.getBuffer();
+         for (int k=0; k<nrhs; k++) {
+            System.arraycopy (bm[k].getBuffer(), 0, Bbuf, k*w, mySizeM);
+            System.arraycopy (bgbuf, 0, Bbuf, k*w+mySizeM, myNumG);
+         }
+         solveMG (Xbuf, Bbuf, nrhs);
+         for (int k=0; k<nrhs; k++) {
+            System.arraycopy (Xbuf, k*w, vel[k].getBuffer(), 0, mySizeM);
+            System.arraycopy (
+               Xbuf, k*w+mySizeM, lam[k].getBuffer(), 0, myNumG);
+         }
+      }
+      else {
+         for (int k=0; k<nrhs; k++) {
+            solveMG (vel[k], lam[k], bm[k], bg);
+         }
+      }
+      return Status.SOLVED;
+   }
+
    double myDirectTimeMsec = 0;
    int myDirectCnt = 0;
    double myIterativeTimeMsec = 0;
@@ -1236,7 +1350,7 @@ public class KKTSolver {
       myHi.setSize (n);
       myLo.setSize (n);
 
-      if (myPardiso != null && useBlockSolves) {
+      if ((myPardiso != null || mySupernodal != null) && useBlockSolves) {
          MatrixNd ND = new MatrixNd();
          getDenseND (ND, NT, DT);
          solveMG (ND.getBuffer(), ND.getBuffer(), n);
@@ -1552,7 +1666,7 @@ public class KKTSolver {
     */
    public void solveMG (VectorNd x, VectorNd b) {
       myMatrixSolver.solve (x, b);
-      if (computeResidualMG) {
+      if (computeResidualMG && myPardiso != null) {
          double res = 
             myPardiso.residual (
                myRowOffs, myColIdxs, myVals, mySizeM+myNumG, 
@@ -1567,11 +1681,16 @@ public class KKTSolver {
    }
 
    public void solveMG (double[] Xbuf, double[] Bbuf, int nrhs) {
-      if (myPardiso != null) {
+      if (myPardiso != null || mySupernodal != null) {
          int w = mySizeM+myNumG;
          // NOTE: solve arguments with multiple right hand sides are stored in
          // column major form
-         myPardiso.solve (Xbuf, Bbuf, nrhs);
+         if (myPardiso != null) {
+            myPardiso.solve (Xbuf, Bbuf, nrhs);
+         }
+         else {
+            mySupernodal.solve (Xbuf, Bbuf, nrhs);
+         }
          // negate lam.
          for (int i=0; i<nrhs; i++) {
             for (int j=mySizeM; j<w; j++) {
@@ -1581,7 +1700,8 @@ public class KKTSolver {
       }
       else {
          throw new UnsupportedOperationException (
-            "solve for multiple rhs only supported for Pardiso");
+            "solve for multiple rhs only supported for Pardiso and "+
+            "SupernodalLDLT");
       }
    }
 
@@ -1652,6 +1772,9 @@ public class KKTSolver {
                "Umfpack: Matrix is near singular, solve could fail");
          }
       }
+      else if (mySolverType == SparseSolverId.SupernodalLDLT) {
+         mySupernodal.factor (myVals);
+      }
       else {
          myPardiso.factor (myVals);
          if (myPardiso.getState() != PardisoSolver.FACTORED) {
@@ -1666,6 +1789,9 @@ public class KKTSolver {
    }
 
    public int getNumNonZerosInFactors() {
+      if (mySupernodal != null) {
+         return mySupernodal.getNumNonZerosInFactors();
+      }
       return myPardiso.getNumNonZerosInFactors();
    }
 
@@ -1679,6 +1805,7 @@ public class KKTSolver {
          myMatrixSolver = null;
          myPardiso = null;
          myUmfpack = null;
+         mySupernodal = null;
       }
    }
 
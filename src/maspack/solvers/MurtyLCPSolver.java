@@ -270,8 +270,7 @@ public class MurtyLCPSolver implements LCPSolver {
          try {
             myCholesky.factor (B);
          }
-         catch (Exception e) {
-            System.out.println ("EXCEPTION");
+         catch (IllegalArgumentException e) {
             // can only occur if M is not positive definite. Try to initialize
             // the basis one column at a time, since the solver may still be
             // able to find a solution
@@ -0,0 +1,628 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import maspack.matrix.MatrixBlock;
+import maspack.matrix.MatrixNd;
+import maspack.matrix.SparseBlockMatrix;
+import maspack.matrix.VectorNd;
+import maspack.matrix.VectorNi;
+import maspack.solvers.LCPSolver.Status;
+import maspack.spatialmotion.FrictionInfo;
+
+/**
+ * Iterative solver for mechanical systems with contact and friction, based
+ * on projected Gauss-Seidel (PGS) with optional nonsmooth nonlinear conjugate
+ * gradient (NNCG) acceleration. It solves the same system as {@link
+ * MurtyMechSolver}:
+ * <pre>
+ * M vel - GT lam - NT the - DT phi = bm
+ * G vel + Rg lam = bg
+ * w = N vel + Rn the - bn,   w &gt;= 0, the &gt;= 0, w^T the = 0
+ * wd = D vel + Rd phi - bd,  -flim &lt;= phi &lt;= flim
+ * </pre>
+ * where the friction limits <code>flim</code> are determined from the
+ * contact impulses using the friction information. Unlike MurtyMechSolver,
+ * it never forms the Schur complement of the contact constraints, and so its
+ * cost grows roughly linearly with the number of contacts.
+ *
+ * <p>The equality part of the system, defined by M and GT, must be factored
+ * by a {@link KKTSolver} supplied to the solve method. Each iteration uses
+ * one solve of this factored system to compute the velocities and
+ * constraint residuals for the current impulses, followed by a Gauss-Seidel
+ * sweep over the contact and friction constraints. Within a sweep, the
+ * effect of each impulse change on the velocities is propagated using the
+ * inverses of the diagonal blocks of M. This is exact when M is block
+ * diagonal and there are no bilateral constraints, as for rigid bodies
+ * without joints; otherwise the residuals computed at the start of each
+ * sweep correct for the approximation. If the residual increases, the
+ * relaxation factor is reduced.
+ *
+ * <p>The contact and friction impulses supplied to the solve method are used
+ * as a warm start, so supplying the impulses from the previous time step
+ * usually reduces the number of iterations considerably.
+ */
+public class PGSMechSolver {
+
+   public static final double DEFAULT_TOLERANCE = 1e-6;
+   public static final int DEFAULT_MAX_ITERATIONS = 200;
+   public static final double DEFAULT_RELAXATION = 1.0;
+
+   private static final double MIN_RELAXATION = 1e-3;
+
+   private double myTol = DEFAULT_TOLERANCE;
+   private int myMaxIterations = DEFAULT_MAX_ITERATIONS;
+   private double myRelaxation = DEFAULT_RELAXATION;
+   private boolean myNNCG = false;
+
+   private int myIterationCnt;
+   private double myResidual;
+
+   // constraint columns, with the N columns followed by the D columns. The
+   // values of J and B^{-1} J^T, where B is the block diagonal of M, are
+   // stored in compressed column form.
+   private int mySizeM;
+   private int mySizeN;
+   private int mySizeD;
+   private int[] myColOffs = new int[1];
+   private int[] myRowIdxs = new int[0];
+   private double[] myJVals = new double[0];
+   private double[] myWVals = new double[0];
+   private double[] myDiag = new double[0]; // diagonal of J B^{-1} J^T + R
+   private double[] myR = new double[0];
+   private double[] myB = new double[0];
+   private FrictionInfo[] myFinfo = new FrictionInfo[0]; // per D column
+
+   // inverses of the diagonal blocks of M, computed as needed
+   private int[] myBlockInvOffs = new int[0];
+   private double[] myBlockInvs = new double[0];
+   private int myBlockInvSize;
+
+   // impulses the and phi. Since the contact impulses come first, friction
+   // limits can be computed directly from this vector.
+   private VectorNd myZ = new VectorNd();
+   private double[] myBuf;
+   private double[] myW = new double[0];
+   private double[] myDz = new double[0];
+   private double[] myP = new double[0];
+   private double[] myDv = new double[0];
+   private VectorNd myRhs = new VectorNd();
+
+   // reference to the bilateral impulses during a solve
+   private VectorNd myLam;
+
+   /**
+    * Returns the convergence tolerance for this solver.
+    *
+    * @return convergence tolerance
+    * @see #setTolerance
+    */
+   public double getTolerance() {
+      return myTol;
+   }
+
+   /**
+    * Sets the convergence tolerance for this solver. The solver terminates
+    * when the largest change in the contact or friction impulses required to
+    * satisfy the complementarity conditions is less than this tolerance times
+    * the largest impulse.
+    *
+    * @param tol convergence tolerance
+    */
+   public void setTolerance (double tol) {
+      myTol = tol;
+   }
+
+   /**
+    * Returns the maximum number of iterations for this solver.
+    *
+    * @return maximum number of iterations
+    */
+   public int getMaxIterations() {
+      return myMaxIterations;
+   }
+
+   /**
+    * Sets the maximum number of iterations for this solver.
+    *
+    * @param max maximum number of iterations
+    */
+   public void setMaxIterations (int max) {
+      myMaxIterations = max;
+   }
+
+   /**
+    * Returns the initial relaxation factor for the Gauss-Seidel sweeps.
+    *
+    * @return initial relaxation factor
+    */
+   public double getRelaxation() {
+      return myRelaxation;
+   }
+
+   /**
+    * Sets the initial relaxation factor for the Gauss-Seidel sweeps. Values
+    * less than 1 may improve convergence for systems, such as FEM models, in
+    * which the diagonal blocks of M are a poor approximation of M.
+    *
+    * @param omega initial relaxation factor, in the range (0, 2)
+    */
+   public void setRelaxation (double omega) {
+      if (omega <= 0 || omega >= 2) {
+         throw new IllegalArgumentException (
+            "relaxation factor must be in the range (0, 2)");
+      }
+      myRelaxation = omega;
+   }
+
+   /**
+    * Queries whether NNCG acceleration is enabled.
+    *
+    * @return {@code true} if NNCG acceleration is enabled
+    */
+   public boolean getNNCG() {
+      return myNNCG;
+   }
+
+   /**
+    * Enables or disables nonsmooth nonlinear conjugate gradient (NNCG)
+    * acceleration of the projected Gauss-Seidel iterations.
+    *
+    * @param enable if {@code true}, enables NNCG acceleration
+    */
+   public void setNNCG (boolean enable) {
+      myNNCG = enable;
+   }
+
+   /**
+    * Returns the number of iterations used by the most recent solve.
+    *
+    * @return number of iterations
+    */
+   public int getIterationCount() {
+      return myIterationCnt;
+   }
+
+   /**
+    * Returns the relative residual at the end of the most recent solve.
+    *
+    * @return relative residual
+    */
+   public double getResidual() {
+      return myResidual;
+   }
+
+   private double[] ensureSize (double[] array, int size) {
+      return (array.length < size ? new double[size] : array);
+   }
+
+   private int[] ensureSize (int[] array, int size) {
+      return (array.length < size ? new int[size] : array);
+   }
+
+   private int getBlockInverse (SparseBlockMatrix M, int bi) {
+      if (myBlockInvOffs[bi] == -1) {
+         int size = M.getBlockRowSize (bi);
+         MatrixNd inv = new MatrixNd (size, size);
+         MatrixBlock blk = M.getBlock (bi, bi);
+         if (blk != null) {
+            inv.set (blk);
+         }
+         if (blk == null || !inv.invert()) {
+            // singular block: impulses will not be propagated through it
+            inv.setZero();
+         }
+         int off = myBlockInvSize;
+         myBlockInvSize += size*size;
+         if (myBlockInvs.length < myBlockInvSize) {
+            myBlockInvs = Arrays.copyOf (
+               myBlockInvs, Math.max (myBlockInvSize, 2*myBlockInvs.length));
+         }
+         for (int i=0; i<size; i++) {
+            for (int j=0; j<size; j++) {
+               myBlockInvs[off++] = inv.get (i, j);
+            }
+         }
+         myBlockInvOffs[bi] = myBlockInvSize - size*size;
+      }
+      return myBlockInvOffs[bi];
+   }
+
+   private int countColumnValues (SparseBlockMatrix XT, int blkSizeM) {
+      int nvals = 0;
+      for (int bj=0; bj<XT.numBlockCols(); bj++) {
+         int ncols = XT.getBlockColSize (bj);
+         MatrixBlock blk = XT.firstBlockInCol (bj);
+         while (blk != null && blk.getBlockRow() < blkSizeM) {
+            nvals += ncols*blk.rowSize();
+            blk = blk.down();
+         }
+      }
+      return nvals;
+   }
+
+   private int addColumns (
+      int col, int k, SparseBlockMatrix M, SparseBlockMatrix XT,
+      VectorNd R, VectorNd b, int blkSizeM) {
+
+      for (int bj=0; bj<XT.numBlockCols(); bj++) {
+         int ncols = XT.getBlockColSize (bj);
+         for (int jrel=0; jrel<ncols; jrel++) {
+            int j = XT.getBlockColOffset (bj) + jrel;
+            double diag = (R != null ? R.get(j) : 0);
+            MatrixBlock blk = XT.firstBlockInCol (bj);
+            while (blk != null && blk.getBlockRow() < blkSizeM) {
+               int bi = blk.getBlockRow();
+               int rowOff = XT.getBlockRowOffset (bi);
+               int size = blk.rowSize();
+               int inv = getBlockInverse (M, bi);
+               for (int i=0; i<size; i++) {
+                  myRowIdxs[k+i] = rowOff+i;
+                  myJVals[k+i] = blk.get (i, jrel);
+               }
+               // W = B^{-1} J^T for this block
+               for (int i=0; i<size; i++) {
+                  double sum = 0;
+                  for (int l=0; l<size; l++) {
+                     sum += myBlockInvs[inv+i*size+l]*myJVals[k+l];
+                  }
+                  myWVals[k+i] = sum;
+                  diag += myJVals[k+i]*sum;
+               }
+               k += size;
+               blk = blk.down();
+            }
+            myDiag[col] = diag;
+            myR[col] = (R != null ? R.get(j) : 0);
+            myB[col] = b.get(j);
+            myColOffs[++col] = k;
+         }
+      }
+      return k;
+   }
+
+   private void buildColumns (
+      SparseBlockMatrix M, int sizeM,
+      SparseBlockMatrix NT, VectorNd Rn, VectorNd bn,
+      SparseBlockMatrix DT, VectorNd Rd, VectorNd bd,
+      ArrayList<FrictionInfo> finfo) {
+
+      int blkSizeM = M.getAlignedBlockRow (sizeM);
+      int ncols = mySizeN + mySizeD;
+      int nvals = 0;
+      if (mySizeN > 0) {
+         nvals += countColumnValues (NT, blkSizeM);
+      }
+      if (mySizeD > 0) {
+         nvals += countColumnValues (DT, blkSizeM);
+      }
+      myColOffs = ensureSize (myColOffs, ncols+1);
+      myRowIdxs = ensureSize (myRowIdxs, nvals);
+      myJVals = ensureSize (myJVals, nvals);
+      myWVals = ensureSize (myWVals, nvals);
+      myDiag = ensureSize (myDiag, ncols);
+      myR = ensureSize (myR, ncols);
+      myB = ensureSize (myB, ncols);
+
+      myBlockInvOffs = ensureSize (myBlockInvOffs, blkSizeM);
+      Arrays.fill (myBlockInvOffs, -1);
+      myBlockInvSize = 0;
+
+      myColOffs[0] = 0;
+      int k = 0;
+      if (mySizeN > 0) {
+         k = addColumns (0, k, M, NT, Rn, bn, blkSizeM);
+      }
+      if (mySizeD > 0) {
+         addColumns (mySizeN, k, M, DT, Rd, bd, blkSizeM);
+         if (myFinfo.length < mySizeD) {
+            myFinfo = new FrictionInfo[mySizeD];
+         }
+         int j = 0;
+         for (int bj=0; bj<DT.numBlockCols(); bj++) {
+            for (int i=0; i<DT.getBlockColSize(bj); i++) {
+               myFinfo[j++] = finfo.get(bj);
+            }
+         }
+      }
+   }
+
+   /**
+    * Projects an impulse value onto its feasible range.
+    */
+   private double project (int j, double z) {
+      if (j < mySizeN) {
+         return (z < 0 ? 0 : z);
+      }
+      else {
+         FrictionInfo info = myFinfo[j-mySizeN];
+         double flim;
+         if ((info.flags & FrictionInfo.BILATERAL) != 0) {
+            flim = info.getMaxFriction (myLam);
+         }
+         else {
+            flim = info.getMaxFriction (myZ);
+         }
+         if (z > flim) {
+            return flim;
+         }
+         else if (z < -flim) {
+            return -flim;
+         }
+         else {
+            return z;
+         }
+      }
+   }
+
+   /**
+    * Computes the velocities and bilateral impulses for the current contact
+    * and friction impulses, along with the constraint residuals w.
+    */
+   private void solveVelocities (
+      VectorNd vel, VectorNd lam, KKTSolver kkt, VectorNd bm, VectorNd bg) {
+
+      int ncols = mySizeN + mySizeD;
+      myRhs.set (bm);
+      double[] rhs = myRhs.getBuffer();
+      for (int j=0; j<ncols; j++) {
+         double z = myBuf[j];
+         if (z != 0) {
+            for (int k=myColOffs[j]; k<myColOffs[j+1]; k++) {
+               rhs[myRowIdxs[k]] += myJVals[k]*z;
+            }
+         }
+      }
+      kkt.solve (vel, lam, myRhs, bg);
+      double[] v = vel.getBuffer();
+      for (int j=0; j<ncols; j++) {
+         double w = myR[j]*myBuf[j] - myB[j];
+         for (int k=myColOffs[j]; k<myColOffs[j+1]; k++) {
+            w += myJVals[k]*v[myRowIdxs[k]];
+         }
+         myW[j] = w;
+      }
+   }
+
+   /**
+    * Computes the relative natural residual of the complementarity
+    * problem, which lies in the range [0, 1].
+    */
+   private double computeResidual() {
+      int ncols = mySizeN + mySizeD;
+      double maxz = 0;
+      double maxr = 0;
+      for (int j=0; j<ncols; j++) {
+         double z = myBuf[j];
+         if (myDiag[j] > 0) {
+            double r = Math.abs (z - project (j, z - myW[j]/myDiag[j]));
+            if (r > maxr) {
+               maxr = r;
+            }
+         }
+         if (Math.abs(z) > maxz) {
+            maxz = Math.abs(z);
+         }
+      }
+      double denom = Math.max (maxz, maxr);
+      return (denom == 0 ? 0 : maxr/denom);
+   }
+
+   /**
+    * Performs one projected Gauss-Seidel sweep, storing the change in
+    * impulses in myDz and returning its squared norm.
+    */
+   private double sweep (double omega) {
+      int ncols = mySizeN + mySizeD;
+      Arrays.fill (myDv, 0, mySizeM, 0);
+      double dzsqr = 0;
+      for (int j=0; j<ncols; j++) {
+         myDz[j] = 0;
+         double diag = myDiag[j];
+         if (diag <= 0) {
+            continue;
+         }
+         double w = myW[j];
+         for (int k=myColOffs[j]; k<myColOffs[j+1]; k++) {
+            w += myJVals[k]*myDv[myRowIdxs[k]];
+         }
+         double z = myBuf[j];
+         double znew = project (j, z - omega*w/diag);
+         if (znew != z) {
+            double dz = znew - z;
+            myBuf[j] = znew;
+            myDz[j] = dz;
+            for (int k=myColOffs[j]; k<myColOffs[j+1]; k++) {
+               myDv[myRowIdxs[k]] += myWVals[k]*dz;
+            }
+            dzsqr += dz*dz;
+         }
+      }
+      return dzsqr;
+   }
+
+   /**
+    * Applies an NNCG momentum step z += beta p, projecting the result onto
+    * the feasible set.
+    */
+   private void applyMomentum (double beta) {
+      int ncols = mySizeN + mySizeD;
+      for (int j=0; j<ncols; j++) {
+         myBuf[j] = project (j, myBuf[j] + beta*myP[j]);
+      }
+   }
+
+   private void copyImpulses (VectorNd the, VectorNd phi, boolean toBuffer) {
+      if (toBuffer) {
+         for (int j=0; j<mySizeN; j++) {
+            myBuf[j] = the.get(j);
+         }
+         for (int j=0; j<mySizeD; j++) {
+            myBuf[mySizeN+j] = phi.get(j);
+         }
+      }
+      else {
+         for (int j=0; j<mySizeN; j++) {
+            the.set (j, myBuf[j]);
+         }
+         for (int j=0; j<mySizeD; j++) {
+            phi.set (j, myBuf[mySizeN+j]);
+         }
+      }
+   }
+
+   private void setStates (VectorNi stateN, VectorNi stateD) {
+      if (stateN != null) {
+         stateN.setSize (mySizeN);
+         for (int j=0; j<mySizeN; j++) {
+            stateN.set (
+               j, myBuf[j] > 0 ? LCPSolver.Z_VAR : LCPSolver.W_VAR_LOWER);
+         }
+      }
+      if (stateD != null) {
+         stateD.setSize (mySizeD);
+         for (int j=0; j<mySizeD; j++) {
+            double z = myBuf[mySizeN+j];
+            double flim = project (mySizeN+j, Double.POSITIVE_INFINITY);
+            int state;
+            if (flim == 0 || z <= -flim) {
+               state = LCPSolver.W_VAR_LOWER;
+            }
+            else if (z >= flim) {
+               state = LCPSolver.W_VAR_UPPER;
+            }
+            else {
+               state = LCPSolver.Z_VAR;
+            }
+            stateD.set (j, state);
+         }
+      }
+   }
+
+   /**
+    * Solves a mechanical system with contact and friction constraints. The
+    * equality part of the system, defined by M, GT and Rg, must have been
+    * factored by <code>kkt</code>. On input, <code>the</code> and
+    * <code>phi</code> supply the initial contact and friction impulses; if
+    * their sizes do not match the number of constraints, the impulses are
+    * initialized to zero.
+    *
+    * @param vel returns the velocities
+    * @param lam returns the bilateral constraint impulses
+    * @param the contact impulses (warm start on input)
+    * @param phi friction impulses (warm start on input). May be
+    * <code>null</code> if there are no friction constraints.
+    * @param kkt solver containing the factorization of M, GT and Rg
+    * @param M system matrix, used to obtain its diagonal blocks
+    * @param sizeM size of the system matrix
+    * @param bm right side for the velocities
+    * @param bg bilateral constraint offsets
+    * @param NT transpose of the contact constraint matrix
+    * @param Rn contact constraint regularization (may be <code>null</code>)
+    * @param bn contact constraint offsets
+    * @param stateN if non-<code>null</code>, returns the contact states
+    * @param DT transpose of the friction constraint matrix (may be
+    * <code>null</code>)
+    * @param Rd friction constraint regularization (may be <code>null</code>)
+    * @param bd friction constraint offsets
+    * @param stateD if non-<code>null</code>, returns the friction states
+    * @param finfo friction information for each block column of DT
+    * @return {@link Status#SOLVED} if the tolerance was reached, and
+    * {@link Status#ITERATION_LIMIT_EXCEEDED} otherwise
+    */
+   public Status solve (
+      VectorNd vel, VectorNd lam, VectorNd the, VectorNd phi,
+      KKTSolver kkt, SparseBlockMatrix M, int sizeM, VectorNd bm, VectorNd bg,
+      SparseBlockMatrix NT, VectorNd Rn, VectorNd bn, VectorNi stateN,
+      SparseBlockMatrix DT, VectorNd Rd, VectorNd bd, VectorNi stateD,
+      ArrayList<FrictionInfo> finfo) {
+
+      mySizeM = sizeM;
+      mySizeN = (NT != null ? NT.colSize() : 0);
+      mySizeD = (DT != null ? DT.colSize() : 0);
+      if (mySizeD > 0 && (finfo == null || finfo.size() < DT.numBlockCols())) {
+         throw new IllegalArgumentException (
+            "friction info must be supplied for each block column of DT");
+      }
+      int ncols = mySizeN + mySizeD;
+      lam.setSize (bg.size());
+      vel.setSize (sizeM);
+      if (the.size() != mySizeN) {
+         the.setSize (mySizeN);
+         the.setZero();
+      }
+      if (phi != null && phi.size() != mySizeD) {
+         phi.setSize (mySizeD);
+         phi.setZero();
+      }
+      buildColumns (M, sizeM, NT, Rn, bn, DT, Rd, bd, finfo);
+      myZ.setSize (ncols);
+      myBuf = myZ.getBuffer();
+      myW = ensureSize (myW, ncols);
+      myDz = ensureSize (myDz, ncols);
+      myP = ensureSize (myP, ncols);
+      myDv = ensureSize (myDv, sizeM);
+      myLam = lam;
+
+      copyImpulses (the, phi, /*toBuffer=*/true);
+      // make sure the warm start is feasible
+      for (int j=0; j<ncols; j++) {
+         myBuf[j] = project (j, myBuf[j]);
+      }
+      copyImpulses (the, phi, /*toBuffer=*/false);
+
+      Status status = Status.ITERATION_LIMIT_EXCEEDED;
+      double omega = myRelaxation;
+      double prevRes = Double.POSITIVE_INFINITY;
+      double prevDzsqr = 0;
+      boolean momentumApplied = false;
+      myIterationCnt = 0;
+      while (true) {
+         solveVelocities (vel, lam, kkt, bm, bg);
+         myResidual = computeResidual();
+         if (myResidual <= myTol) {
+            status = Status.SOLVED;
+            break;
+         }
+         if (myIterationCnt >= myMaxIterations) {
+            break;
+         }
+         if (myResidual > prevRes) {
+            if (!momentumApplied) {
+               // plain sweep is diverging: reduce relaxation
+               omega = Math.max (MIN_RELAXATION, 0.5*omega);
+            }
+            // restart the acceleration
+            prevDzsqr = 0;
+         }
+         prevRes = myResidual;
+         double dzsqr = sweep (omega);
+         if (myNNCG) {
+            double beta = (prevDzsqr > 0 ? dzsqr/prevDzsqr : 0);
+            momentumApplied = (beta > 0 && beta <= 1);
+            if (momentumApplied) {
+               applyMomentum (beta);
+               for (int j=0; j<ncols; j++) {
+                  myP[j] = beta*myP[j] + myDz[j];
+               }
+            }
+            else {
+               System.arraycopy (myDz, 0, myP, 0, ncols);
+            }
+            prevDzsqr = dzsqr;
+         }
+         copyImpulses (the, phi, /*toBuffer=*/false);
+         myIterationCnt++;
+      }
+      setStates (stateN, stateD);
+      myLam = null;
+      return status;
+   }
+}
@@ -0,0 +1,305 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.ArrayList;
+
+import maspack.matrix.*;
+import maspack.solvers.LCPSolver.Status;
+import maspack.spatialmotion.FrictionInfo;
+import maspack.util.*;
+
+/**
+ * Tests PGSMechSolver on synthetic systems of 6 DOF bodies, comparing
+ * frictionless solutions with those of KKTSolver and checking the
+ * complementarity conditions when friction is present.
+ */
+public class PGSMechSolverTest extends UnitTest {
+
+   static final double TOL = 1e-12;
+
+   class TestProblem {
+      int nbodies;
+      SparseBlockMatrix M;
+      SparseBlockMatrix GT;
+      SparseBlockMatrix NT;
+      SparseBlockMatrix DT;
+      VectorNd bm;
+      VectorNd bg;
+      VectorNd bn;
+      VectorNd bd;
+      ArrayList<FrictionInfo> finfo;
+
+      TestProblem (
+         int nbodies, int ncontacts, int nbilaterals,
+         boolean coupled, boolean friction) {
+
+         this.nbodies = nbodies;
+         int[] sizes = new int[nbodies];
+         for (int i=0; i<nbodies; i++) {
+            sizes[i] = 6;
+         }
+         M = new SparseBlockMatrix (sizes, sizes);
+         for (int i=0; i<nbodies; i++) {
+            MatrixNd X = randomMatrix (6, 6);
+            MatrixNd D = new MatrixNd (6, 6);
+            D.mulTransposeRight (X, X);
+            for (int k=0; k<6; k++) {
+               D.add (k, k, 6.0);
+            }
+            M.addBlock (i, i, blockFromMatrix (D));
+         }
+         if (coupled) {
+            // add stiff, spring-like couplings between neighbouring bodies
+            for (int i=0; i<nbodies-1; i++) {
+               MatrixNd Y = randomMatrix (6, 6);
+               MatrixNd K = new MatrixNd (6, 6);
+               K.mulTransposeRight (Y, Y);
+               K.scale (5.0);
+               addToBlock (M, i, i, K, 1);
+               addToBlock (M, i+1, i+1, K, 1);
+               addToBlock (M, i, i+1, K, -1);
+               addToBlock (M, i+1, i, K, -1);
+            }
+         }
+         GT = createConstraints (nbilaterals, 1, sizes);
+         NT = createConstraints (ncontacts, 1, sizes);
+         bm = randomVector (6*nbodies);
+         bg = randomVector (nbilaterals);
+         bn = randomVector (ncontacts);
+         if (friction) {
+            DT = createConstraints (ncontacts, 2, sizes);
+            bd = randomVector (2*ncontacts);
+            finfo = new ArrayList<FrictionInfo>();
+            for (int k=0; k<ncontacts; k++) {
+               FrictionInfo info = new FrictionInfo();
+               info.set2D (k, k, 0.5);
+               finfo.add (info);
+            }
+         }
+      }
+
+      SparseBlockMatrix createConstraints (
+         int ncols, int blkSize, int[] rowSizes) {
+         int[] colSizes = new int[ncols];
+         for (int j=0; j<ncols; j++) {
+            colSizes[j] = blkSize;
+         }
+         SparseBlockMatrix XT = new SparseBlockMatrix (rowSizes, colSizes);
+         XT.setVerticallyLinked (true);
+         for (int j=0; j<ncols; j++) {
+            int bi0 = RandomGenerator.nextInt (0, nbodies-1);
+            XT.addBlock (bi0, j, blockFromMatrix (randomMatrix (6, blkSize)));
+            // some constraints act between two bodies
+            int bi1 = RandomGenerator.nextInt (0, nbodies-1);
+            if (bi1 != bi0 && RandomGenerator.nextInt (0, 1) == 1) {
+               XT.addBlock (
+                  bi1, j, blockFromMatrix (randomMatrix (6, blkSize)));
+            }
+         }
+         return XT;
+      }
+
+      int size() {
+         return 6*nbodies;
+      }
+   }
+
+   MatrixNd randomMatrix (int m, int n) {
+      MatrixNd X = new MatrixNd (m, n);
+      X.setRandom();
+      return X;
+   }
+
+   VectorNd randomVector (int n) {
+      VectorNd v = new VectorNd (n);
+      v.setRandom();
+      return v;
+   }
+
+   MatrixBlock blockFromMatrix (MatrixNd X) {
+      MatrixNdBlock blk = new MatrixNdBlock (X.rowSize(), X.colSize());
+      blk.set (X);
+      return blk;
+   }
+
+   void addToBlock (
+      SparseBlockMatrix M, int bi, int bj, MatrixNd K, double s) {
+      MatrixBlock blk = M.getBlock (bi, bj);
+      if (blk == null) {
+         blk = new MatrixNdBlock (6, 6);
+         M.addBlock (bi, bj, blk);
+      }
+      for (int i=0; i<6; i++) {
+         for (int j=0; j<6; j++) {
+            blk.set (i, j, blk.get(i,j) + s*K.get(i,j));
+         }
+      }
+   }
+
+   KKTSolver factorMG (TestProblem prob) {
+      KKTSolver kkt = new KKTSolver();
+      kkt.analyze (prob.M, prob.size(), prob.GT, null, Matrix.SPD);
+      kkt.factor (prob.M, prob.size(), prob.GT, null);
+      return kkt;
+   }
+
+   int solve (
+      PGSMechSolver solver, TestProblem prob, KKTSolver kkt,
+      VectorNd vel, VectorNd lam, VectorNd the, VectorNd phi) {
+      Status status = solver.solve (
+         vel, lam, the, phi, kkt, prob.M, prob.size(), prob.bm, prob.bg,
+         prob.NT, null, prob.bn, null, prob.DT, null, prob.bd, null,
+         prob.finfo);
+      checkEquals ("solve status", status, Status.SOLVED);
+      return solver.getIterationCount();
+   }
+
+   void checkRelative (String msg, VectorNd result, VectorNd check, double tol) {
+      double err = result.distance (check);
+      double mag = Math.max (1, check.norm());
+      if (err > tol*mag) {
+         throw new TestException (
+            msg + ": error " + err/mag + " exceeds " + tol +
+            "\nresult=" + result + "\ncheck=" + check);
+      }
+   }
+
+   /**
+    * Checks the velocity equations and complementarity conditions of a
+    * solution.
+    */
+   void checkConditions (
+      TestProblem prob, VectorNd vel, VectorNd lam,
+      VectorNd the, VectorNd phi, double tol) {
+
+      int sizeM = prob.size();
+      VectorNd res = new VectorNd (sizeM);
+      VectorNd tmp = new VectorNd (sizeM);
+      prob.M.mul (res, vel, sizeM, sizeM);
+      prob.GT.mul (tmp, lam, sizeM, lam.size());
+      res.sub (tmp);
+      prob.NT.mul (tmp, the, sizeM, the.size());
+      res.sub (tmp);
+      if (prob.DT != null) {
+         prob.DT.mul (tmp, phi, sizeM, phi.size());
+         res.sub (tmp);
+      }
+      res.sub (prob.bm);
+      check ("velocity residual "+res.norm(), res.norm() < tol);
+
+      VectorNd w = new VectorNd (the.size());
+      prob.NT.mulTranspose (w, vel, the.size(), sizeM);
+      w.sub (prob.bn);
+      for (int i=0; i<the.size(); i++) {
+         check ("w["+i+"]="+w.get(i), w.get(i) > -tol);
+         check ("the["+i+"]="+the.get(i), the.get(i) >= 0);
+         check ("complementarity "+i, Math.abs(w.get(i)*the.get(i)) < tol);
+      }
+      if (prob.DT != null) {
+         VectorNd wd = new VectorNd (phi.size());
+         prob.DT.mulTranspose (wd, vel, phi.size(), sizeM);
+         wd.sub (prob.bd);
+         int k = 0;
+         for (FrictionInfo info : prob.finfo) {
+            double flim = info.getMaxFriction (the);
+            for (int i=0; i<info.blockSize; i++, k++) {
+               double p = phi.get(k);
+               double wk = wd.get(k);
+               check ("phi["+k+"] exceeds limit", Math.abs(p) <= flim+tol);
+               if (flim <= tol) {
+                  // wd is unconstrained when there is no contact impulse
+               }
+               else if (p <= -flim+tol) {
+                  check ("wd["+k+"]="+wk+" at lower limit", wk > -tol);
+               }
+               else if (p >= flim-tol) {
+                  check ("wd["+k+"]="+wk+" at upper limit", wk < tol);
+               }
+               else {
+                  check ("wd["+k+"]="+wk+" inside limits", Math.abs(wk) < tol);
+               }
+            }
+         }
+      }
+   }
+
+   void testFrictionless (
+      int nbodies, int ncontacts, int nbilaterals, boolean coupled) {
+
+      TestProblem prob = new TestProblem (
+         nbodies, ncontacts, nbilaterals, coupled, /*friction=*/false);
+      int sizeM = prob.size();
+
+      // reference solution using a direct LCP solve
+      KKTSolver ref = new KKTSolver();
+      ref.analyze (prob.M, sizeM, prob.GT, null, Matrix.SPD);
+      ref.factor (prob.M, sizeM, prob.GT, null, prob.NT, null);
+      VectorNd velChk = new VectorNd (sizeM);
+      VectorNd lamChk = new VectorNd (nbilaterals);
+      VectorNd theChk = new VectorNd (ncontacts);
+      ref.solve (velChk, lamChk, theChk, prob.bm, prob.bg, prob.bn);
+
+      KKTSolver kkt = factorMG (prob);
+      for (boolean nncg : new boolean[] { false, true }) {
+         PGSMechSolver solver = new PGSMechSolver();
+         solver.setTolerance (TOL);
+         solver.setMaxIterations (20000);
+         solver.setNNCG (nncg);
+         VectorNd vel = new VectorNd();
+         VectorNd lam = new VectorNd();
+         VectorNd the = new VectorNd();
+         solve (solver, prob, kkt, vel, lam, the, null);
+         checkRelative ("vel", vel, velChk, 1e-8);
+         checkRelative ("lam", lam, lamChk, 1e-8);
+         checkRelative ("the", the, theChk, 1e-8);
+         checkConditions (prob, vel, lam, the, null, 1e-8);
+
+         // warm starting from the solution should converge immediately
+         int iters = solve (solver, prob, kkt, vel, lam, the, null);
+         checkEquals ("warm start iterations", iters, 0);
+      }
+   }
+
+   void testFriction (
+      int nbodies, int ncontacts, int nbilaterals, boolean coupled) {
+
+      TestProblem prob = new TestProblem (
+         nbodies, ncontacts, nbilaterals, coupled, /*friction=*/true);
+      KKTSolver kkt = factorMG (prob);
+      for (boolean nncg : new boolean[] { false, true }) {
+         PGSMechSolver solver = new PGSMechSolver();
+         solver.setTolerance (TOL);
+         solver.setMaxIterations (20000);
+         solver.setNNCG (nncg);
+         VectorNd vel = new VectorNd();
+         VectorNd lam = new VectorNd();
+         VectorNd the = new VectorNd();
+         VectorNd phi = new VectorNd();
+         solve (solver, prob, kkt, vel, lam, the, phi);
+         checkConditions (prob, vel, lam, the, phi, 1e-8);
+      }
+   }
+
+   public void test() {
+      // rigid bodies: block diagonal M, for which PGS is exact
+      testFrictionless (20, 30, 0, /*coupled=*/false);
+      testFrictionless (50, 80, 0, /*coupled=*/false);
+      testFriction (20, 15, 0, /*coupled=*/false);
+      // bilateral constraints and coupling between bodies
+      testFrictionless (20, 30, 10, /*coupled=*/false);
+      testFrictionless (20, 30, 0, /*coupled=*/true);
+      testFrictionless (30, 40, 10, /*coupled=*/true);
+      testFriction (20, 15, 5, /*coupled=*/true);
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      PGSMechSolverTest tester = new PGSMechSolverTest();
+      tester.runtest();
+   }
+}
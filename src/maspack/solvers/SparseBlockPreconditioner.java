@@ -0,0 +1,217 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import maspack.matrix.LinearTransformNd;
+import maspack.matrix.MatrixBlock;
+import maspack.matrix.SparseBlockMatrix;
+
+/**
+ * Base class for preconditioners that are computed from a symmetric
+ * SparseBlockMatrix and used with iterative solvers such as {@link
+ * CGSolver}. The {@link #mul mul} method applies the transformation
+ * <pre>
+ * y = inv(P) x
+ * </pre>
+ * where <code>P</code> is the preconditioning matrix that approximates the
+ * matrix supplied to {@link #factor factor}.
+ *
+ * <p>Since preconditioners can be costly to compute, and do not need to be
+ * exact, {@link #update update} can be used to recompute the preconditioner
+ * only when the values of the matrix have changed by more than a specified
+ * relative tolerance since it was last computed. Changes are measured using
+ * the diagonal blocks of the matrix, which for the stiffness-based solve
+ * matrices arising in simulation reflect changes to the stiffness.
+ *
+ * <p>The preconditioner may be computed for either the whole matrix or for a
+ * leading principal submatrix whose size is block-aligned.
+ */
+public abstract class SparseBlockPreconditioner implements LinearTransformNd {
+
+   protected int mySize = 0;
+   protected int myNumBlocks = 0;  // number of block rows in the submatrix
+   protected int myNumFactorizations = 0;
+
+   // diagonal block values at the time of the last factorization, used to
+   // measure how much the matrix has changed
+   private double[] myDiagVals = new double[0];
+   private int myNumDiagVals = 0;
+
+   /**
+    * Computes this preconditioner from the values of a symmetric matrix.
+    *
+    * @param A matrix from which the preconditioner should be computed
+    */
+   public void factor (SparseBlockMatrix A) {
+      factor (A, A.rowSize());
+   }
+
+   /**
+    * Computes this preconditioner from the values of the leading principal
+    * submatrix of a symmetric matrix.
+    *
+    * @param A matrix from which the preconditioner should be computed
+    * @param size size of the submatrix. Must be block-aligned.
+    */
+   public void factor (SparseBlockMatrix A, int size) {
+      int nblks = A.getAlignedBlockRow (size);
+      if (nblks == -1 || A.getAlignedBlockCol (size) != nblks) {
+         throw new IllegalArgumentException (
+            "Submatrix size "+size+" is not block-aligned or not square");
+      }
+      mySize = size;
+      myNumBlocks = nblks;
+      doFactor (A);
+      myNumDiagVals = collectDiagonalValues (A, /*store=*/true);
+      myNumFactorizations++;
+   }
+
+   /**
+    * Recomputes this preconditioner from <code>A</code> if it has not been
+    * computed yet, if the size of <code>A</code> differs from the size at the
+    * last factorization, or if the diagonal blocks of <code>A</code> have
+    * changed by a relative amount exceeding <code>tol</code>. The relative
+    * change is measured by
+    * <pre>
+    * ||D - D0|| / ||D0||
+    * </pre>
+    * where <code>D</code> and <code>D0</code> are the current diagonal block
+    * values and those at the last factorization, and the norms are Frobenius
+    * norms.
+    *
+    * @param A matrix from which the preconditioner should be computed
+    * @param tol relative tolerance for recomputing the preconditioner
+    * @return <code>true</code> if the preconditioner was recomputed
+    */
+   public boolean update (SparseBlockMatrix A, double tol) {
+      return update (A, A.rowSize(), tol);
+   }
+
+   /**
+    * Recomputes this preconditioner from the leading principal submatrix of
+    * <code>A</code> with a given size, if the preconditioner has not been
+    * computed yet, if the size differs from the size at the last
+    * factorization, or if the diagonal blocks of the submatrix have changed
+    * by a relative amount exceeding <code>tol</code>, as described for {@link
+    * #update(SparseBlockMatrix,double)}.
+    *
+    * @param A matrix from which the preconditioner should be computed
+    * @param size size of the submatrix. Must be block-aligned.
+    * @param tol relative tolerance for recomputing the preconditioner
+    * @return <code>true</code> if the preconditioner was recomputed
+    */
+   public boolean update (SparseBlockMatrix A, int size, double tol) {
+      if (myNumFactorizations == 0 || size != mySize ||
+          diagonalChange (A) > tol) {
+         factor (A, size);
+         return true;
+      }
+      else {
+         return false;
+      }
+   }
+
+   /**
+    * Returns the relative change in the diagonal blocks of <code>A</code>
+    * since the last factorization, as described for {@link #update update}.
+    * If the diagonal block structure has changed, returns
+    * <code>Double.POSITIVE_INFINITY</code>.
+    *
+    * @param A matrix to compare with
+    * @return relative change in the diagonal blocks
+    */
+   public double diagonalChange (SparseBlockMatrix A) {
+      double dnorm2 = 0;
+      double dnorm2Old = 0;
+      int k = 0;
+      if (A.getAlignedBlockRow (mySize) != myNumBlocks) {
+         return Double.POSITIVE_INFINITY;
+      }
+      for (int bi=0; bi<myNumBlocks; bi++) {
+         MatrixBlock blk = A.getBlock (bi, bi);
+         if (blk != null) {
+            for (int i=0; i<blk.rowSize(); i++) {
+               for (int j=0; j<blk.colSize(); j++) {
+                  if (k >= myNumDiagVals) {
+                     return Double.POSITIVE_INFINITY;
+                  }
+                  double d0 = myDiagVals[k++];
+                  double del = blk.get(i,j)-d0;
+                  dnorm2 += del*del;
+                  dnorm2Old += d0*d0;
+               }
+            }
+         }
+      }
+      if (k != myNumDiagVals) {
+         return Double.POSITIVE_INFINITY;
+      }
+      else if (dnorm2Old == 0) {
+         return dnorm2 == 0 ? 0 : Double.POSITIVE_INFINITY;
+      }
+      else {
+         return Math.sqrt (dnorm2/dnorm2Old);
+      }
+   }
+
+   private int collectDiagonalValues (SparseBlockMatrix A, boolean store) {
+      int k = 0;
+      for (int bi=0; bi<myNumBlocks; bi++) {
+         MatrixBlock blk = A.getBlock (bi, bi);
+         if (blk != null) {
+            int size = blk.rowSize()*blk.colSize();
+            if (store) {
+               if (k+size > myDiagVals.length) {
+                  double[] vals = new double[Math.max(k+size, 2*k)];
+                  System.arraycopy (myDiagVals, 0, vals, 0, k);
+                  myDiagVals = vals;
+               }
+               for (int i=0; i<blk.rowSize(); i++) {
+                  for (int j=0; j<blk.colSize(); j++) {
+                     myDiagVals[k+i*blk.colSize()+j] = blk.get(i,j);
+                  }
+               }
+            }
+            k += size;
+         }
+      }
+      return k;
+   }
+
+   /**
+    * Returns the number of times this preconditioner has been computed.
+    *
+    * @return number of factorizations
+    */
+   public int numFactorizations() {
+      return myNumFactorizations;
+   }
+
+   /**
+    * Computes the preconditioner from the values of the leading submatrix
+    * of A whose size is given by {@link #mySize} and whose number of block
+    * rows is given by {@link #myNumBlocks}. Called by {@link #factor
+    * factor}.
+    *
+    * @param A matrix from which the preconditioner should be computed
+    */
+   protected abstract void doFactor (SparseBlockMatrix A);
+
+   /**
+    * {@inheritDoc}
+    */
+   public int rowSize() {
+      return mySize;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public int colSize() {
+      return mySize;
+   }
+}
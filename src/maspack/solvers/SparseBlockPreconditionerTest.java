@@ -0,0 +1,241 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.Random;
+
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Tests the BlockJacobiPreconditioner and IncompleteCholeskyPreconditioner.
+ */
+public class SparseBlockPreconditionerTest extends UnitTest {
+
+   Random myRand = RandomGenerator.get();
+
+   private Matrix3d randomSPD (double scale) {
+      Matrix3d R = new Matrix3d();
+      R.setRandom (-1, 1, myRand);
+      Matrix3d K = new Matrix3d();
+      K.mulTransposeRight (R, R);
+      K.scale (scale);
+      return K;
+   }
+
+   private void addToBlock (
+      SparseBlockMatrix A, int bi, int bj, Matrix3d K, double s) {
+      MatrixBlock blk = A.getBlock (bi, bj);
+      if (blk == null) {
+         blk = new Matrix3x3Block();
+         A.addBlock (bi, bj, blk);
+      }
+      ((Matrix3x3Block)blk).scaledAdd (s, K);
+   }
+
+   /**
+    * Creates a stiffness-like SPD matrix with 3x3 blocks, formed by adding
+    * positive definite diagonal "mass" blocks to the assembly of random
+    * spring-like blocks connecting pairs of nodes. If <code>banded</code> is
+    * true, nodes are connected only to their neighbors, so that the matrix is
+    * block tridiagonal.
+    */
+   SparseBlockMatrix createStiffnessMatrix (int nnodes, boolean banded) {
+      int[] sizes = new int[nnodes];
+      for (int i=0; i<nnodes; i++) {
+         sizes[i] = 3;
+      }
+      SparseBlockMatrix A = new SparseBlockMatrix (sizes);
+      for (int i=0; i<nnodes; i++) {
+         Matrix3d M = randomSPD (0.01);
+         M.m00 += 0.01;
+         M.m11 += 0.01;
+         M.m22 += 0.01;
+         addToBlock (A, i, i, M, 1);
+      }
+      int nedges = banded ? nnodes-1 : 3*nnodes;
+      for (int k=0; k<nedges; k++) {
+         int i, j;
+         if (banded) {
+            i = k;
+            j = k+1;
+         }
+         else {
+            i = myRand.nextInt (nnodes);
+            do {
+               j = myRand.nextInt (nnodes);
+            }
+            while (j == i);
+         }
+         Matrix3d K = randomSPD (1.0);
+         addToBlock (A, i, i, K, 1);
+         addToBlock (A, j, j, K, 1);
+         addToBlock (A, i, j, K, -1);
+         addToBlock (A, j, i, K, -1);
+      }
+      return A;
+   }
+
+   /**
+    * Checks that inv(P) A x = x, which will be true when P equals A.
+    */
+   void checkExact (
+      String msg, SparseBlockPreconditioner P, SparseBlockMatrix A) {
+      checkExact (msg, P, A, A.rowSize());
+   }
+
+   /**
+    * Checks that inv(P) A x = x for the leading submatrix of A with a given
+    * size.
+    */
+   void checkExact (
+      String msg, SparseBlockPreconditioner P, SparseBlockMatrix A, int size) {
+      VectorNd x = new VectorNd (size);
+      VectorNd y = new VectorNd (size);
+      x.setRandom();
+      A.mul (y, x, size, size);
+      P.mul (y, y);
+      checkEquals (msg, y, x, 1e-8);
+   }
+
+   int solveIterations (
+      SparseBlockMatrix A, VectorNd b, LinearTransformNd P) {
+      CGSolver solver = new CGSolver();
+      solver.setPreconditioner (P);
+      solver.setTolerance (1e-10);
+      solver.setMaxIterations (10*A.rowSize());
+      VectorNd x = new VectorNd (A.rowSize());
+      if (!solver.solve (x, A, b)) {
+         throw new TestException (
+            "no convergence, preconditioner=" + P);
+      }
+      VectorNd r = new VectorNd (A.rowSize());
+      A.mul (r, x);
+      r.sub (b);
+      if (r.norm() > 1e-8*b.norm()) {
+         throw new TestException (
+            "residual is "+r.norm()+", preconditioner=" + P);
+      }
+      return solver.getNumIterations();
+   }
+
+   void testExact() {
+      // block Jacobi is exact for block diagonal matrices
+      SparseBlockMatrix A = createStiffnessMatrix (20, /*banded=*/true);
+      for (int bi=0; bi<A.numBlockRows(); bi++) {
+         MatrixBlock blk = A.firstBlockInRow (bi);
+         while (blk != null) {
+            MatrixBlock next = blk.next();
+            if (blk.getBlockCol() != bi) {
+               A.removeBlock (blk);
+            }
+            blk = next;
+         }
+      }
+      checkExact ("block Jacobi", new BlockJacobiPreconditioner (A), A);
+      checkExact (
+         "incomplete Cholesky, block diagonal",
+         new IncompleteCholeskyPreconditioner (A), A);
+
+      // incomplete Cholesky is exact for block tridiagonal matrices, since
+      // the fill-in lies within the existing blocks
+      A = createStiffnessMatrix (20, /*banded=*/true);
+      IncompleteCholeskyPreconditioner IC =
+         new IncompleteCholeskyPreconditioner (A);
+      checkEquals ("pivot corrections", IC.numPivotCorrections(), 0);
+      checkExact ("incomplete Cholesky, banded", IC, A);
+   }
+
+   void testIterations() {
+      SparseBlockMatrix A = createStiffnessMatrix (200, /*banded=*/false);
+      VectorNd b = new VectorNd (A.rowSize());
+      b.setRandom();
+      int nnone = solveIterations (A, b, null);
+      int njacobi = solveIterations (A, b, new BlockJacobiPreconditioner (A));
+      int nic = solveIterations (
+         A, b, new IncompleteCholeskyPreconditioner (A));
+      if (njacobi > nnone) {
+         throw new TestException (
+            "block Jacobi needed "+njacobi+" iterations, vs. "+nnone+
+            " without preconditioning");
+      }
+      if (nic >= njacobi) {
+         throw new TestException (
+            "incomplete Cholesky needed "+nic+" iterations, vs. "+njacobi+
+            " with block Jacobi");
+      }
+   }
+
+   void testUpdate (SparseBlockPreconditioner P) {
+      SparseBlockMatrix A = createStiffnessMatrix (20, /*banded=*/false);
+      check ("first update", P.update (A, 0.1));
+      checkEquals ("numFactorizations", P.numFactorizations(), 1);
+      check ("unchanged update", !P.update (A, 0.1));
+      A.scale (1.01);
+      check ("small change update", !P.update (A, 0.1));
+      checkEquals ("numFactorizations", P.numFactorizations(), 1);
+      A.scale (2.0);
+      check ("large change update", P.update (A, 0.1));
+      checkEquals ("numFactorizations", P.numFactorizations(), 2);
+      check ("zero tolerance update", !P.update (A, 0));
+      A.scale (1.01);
+      check ("zero tolerance update after change", P.update (A, 0));
+      // a change in size should force an update
+      A = createStiffnessMatrix (21, /*banded=*/false);
+      check ("update after size change", P.update (A, 0.1));
+      checkEquals ("size after update", P.rowSize(), A.rowSize());
+   }
+
+   void testSubmatrix (SparseBlockPreconditioner P) {
+      // preconditioner computed from the leading 10 block rows and columns
+      SparseBlockMatrix A = createStiffnessMatrix (20, /*banded=*/true);
+      int size = A.getBlockRowOffset (10);
+      P.factor (A, size);
+      checkEquals ("submatrix size", P.rowSize(), size);
+      if (P instanceof IncompleteCholeskyPreconditioner) {
+         checkExact ("submatrix", P, A, size);
+      }
+      check ("unchanged submatrix update", !P.update (A, size, 0.1));
+      // changes outside the submatrix should not force an update
+      A.getBlock (15, 15).scale (10.0);
+      check ("update after external change", !P.update (A, size, 0.1));
+      A.getBlock (5, 5).scale (10.0);
+      check ("update after internal change", P.update (A, size, 0.1));
+      try {
+         P.factor (A, size+1);
+         throw new TestException ("unaligned submatrix size not detected");
+      }
+      catch (IllegalArgumentException e) {
+         // expected
+      }
+   }
+
+   public void test() {
+      testExact();
+      testIterations();
+      // parallel application of block Jacobi
+      int chunkSize = BlockJacobiPreconditioner.parallelChunkSize;
+      BlockJacobiPreconditioner.parallelChunkSize = 9;
+      try {
+         testIterations();
+      }
+      finally {
+         BlockJacobiPreconditioner.parallelChunkSize = chunkSize;
+      }
+      testUpdate (new BlockJacobiPreconditioner());
+      testUpdate (new IncompleteCholeskyPreconditioner());
+      testSubmatrix (new BlockJacobiPreconditioner());
+      testSubmatrix (new IncompleteCholeskyPreconditioner());
+   }
+
+   public static void main (String[] args) {
+      RandomGenerator.setSeed (0x1234);
+      SparseBlockPreconditionerTest tester =
+         new SparseBlockPreconditionerTest();
+      tester.runtest();
+   }
+}
@@ -16,6 +16,12 @@ public enum SparseSolverId {
     */
    Umfpack (true, Matrix.INDEFINITE),
 
+   /**
+    * Pure Java supernodal LDL^T solver for symmetric matrices, which does not
+    * depend on any native libraries
+    */
+   SupernodalLDLT (true, Matrix.SYMMETRIC),
+
    /**
     * Conjugate gradient
     */
@@ -81,6 +87,9 @@ public enum SparseSolverId {
          case Umfpack: {
             return new UmfpackSolver();
          }
+         case SupernodalLDLT: {
+            return new SupernodalLDLTSolver();
+         }
          default: {
             return null;
          }
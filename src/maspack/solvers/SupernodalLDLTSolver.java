@@ -0,0 +1,1720 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import maspack.concurrency.ParallelLoop;
+import maspack.matrix.ImproperStateException;
+import maspack.matrix.Matrix;
+import maspack.matrix.Matrix.Partition;
+import maspack.matrix.NumericalException;
+import maspack.matrix.SparseBlockMatrix;
+import maspack.matrix.SparseBlockSignature;
+import maspack.matrix.VectorNd;
+import maspack.util.InternalErrorException;
+
+/**
+ * Pure Java sparse direct solver for symmetric matrices, including the
+ * symmetric indefinite KKT systems produced by {@link KKTSolver}. The matrix
+ * is factored as
+ * <pre>
+ *   P A P^T = L D L^T
+ * </pre>
+ * where P is a fill-reducing permutation, L is unit lower triangular and D
+ * is diagonal.
+ *
+ * <p>The symbolic analysis computes a nested dissection ordering (using
+ * minimum degree on small subgraphs) on the supervariable-compressed graph of
+ * the matrix, and then reorders it so that rows with non-positive diagonals
+ * (such as those associated with constraints in a KKT system) are eliminated
+ * after their neighbors. It then finds the elimination tree, column counts,
+ * and supernodes. The analysis is retained and reused by {@link
+ * #analyze(Matrix,int,int) analyze()} when the structure of the matrix
+ * is unchanged, as determined either by the signature of a {@link
+ * SparseBlockMatrix} or by comparing the CRS structure.
+ *
+ * <p>The numeric factorization is left-looking and supernodal, with
+ * independent subtrees of the supernodal elimination tree factored in
+ * parallel using fork-join. Instead of dynamic pivoting, small pivots are
+ * replaced by signed multiples of a tolerance (static pivoting), in which case
+ * solves are followed by a few steps of iterative refinement.
+ */
+public class SupernodalLDLTSolver implements DirectSolver {
+
+   public static final int UNSET = 0;
+   public static final int ANALYZED = 1;
+   public static final int FACTORED = 2;
+
+   /**
+    * Tolerance, relative to the largest matrix entry, below which pivots are
+    * perturbed.
+    */
+   public static double DEFAULT_PIVOT_TOL = 1e-10;
+
+   /**
+    * Maximum number of iterative refinement steps used when pivots have been
+    * perturbed.
+    */
+   public static int MAX_REFINEMENT_STEPS = 3;
+
+   /**
+    * Maximum number of preconditioned refinement steps attempted by {@link
+    * #autoFactorAndSolve autoFactorAndSolve()} before it falls back to
+    * refactoring the matrix.
+    */
+   public static int MAX_AUTO_ITERATIONS = 10;
+
+   // subgraphs with at most this many nodes are ordered using minimum degree
+   // instead of being dissected further
+   static int MIN_DISSECTION_SIZE = 48;
+
+   // subtrees with less than this estimated number of flops are factored
+   // serially
+   static long MIN_PARALLEL_WORK = 100000;
+
+   private int myState = UNSET;
+   private int myType;
+   private int mySize;
+   private int myNumVals;
+   private boolean myParallelP = true;
+   private double myPivotTol = DEFAULT_PIVOT_TOL;
+
+   // matrix and signature, if supplied through analyze(Matrix,...)
+   private Matrix myMatrix;
+   private SparseBlockSignature mySignature;
+
+   // 0-based upper triangular CRS structure of the analyzed matrix
+   private int[] myRowOffs = new int[0];
+   private int[] myColIdxs = new int[0];
+   private double[] myVals = new double[0];
+   private int[] myDiagIdxs = new int[0];
+
+   // permutation: myPerm[new] = old, myIperm[old] = new
+   private int[] myPerm;
+   private int[] myIperm;
+
+   // supernodes and their structure
+   private int myNumSuper;
+   private int[] mySuperCols;   // first column of each supernode
+   private int[] myColSuper;    // supernode containing each column
+   private int[] myRowPtr;      // row structure offsets for each supernode
+   private int[] myRowIdxs;     // row structure (permuted row indices)
+   private int[] myValPtr;      // offsets of each supernode's panel in myL
+   private int[] myFirstDesc;   // first supernode in each subtree
+   private int[] myChildPtr;    // children of each supernode in the etree
+   private int[] myChildren;
+   private int[] myRoots;
+   private long[] myWork;       // estimated flops for each subtree
+
+   // supernodes that update each supernode, with the index of the first
+   // row within the updating supernode's structure
+   private int[] myUpdPtr;
+   private int[] myUpdSuper;
+   private int[] myUpdRow;
+
+   // maps matrix values into the factor panels
+   private int[] mySuperValPtr;
+   private int[] mySuperValIdxs;
+   private int[] mySuperValOffs;
+
+   private double[] myDiagSigns;
+
+   // numeric factor
+   private double[] myL;
+   private double[] myD;
+   private int myNumPerturbed;
+   private boolean myLastSolveWasIterative = false;
+
+   private ThreadLocal<Workspace> myWorkspace = new ThreadLocal<Workspace>();
+
+   private class Workspace {
+      int[] rowPos;
+      double[] acc;
+
+      Workspace (int size) {
+         rowPos = new int[size];
+         acc = new double[size];
+      }
+   }
+
+   private Workspace getWorkspace() {
+      Workspace ws = myWorkspace.get();
+      if (ws == null || ws.rowPos.length < mySize) {
+         ws = new Workspace (mySize);
+         myWorkspace.set (ws);
+      }
+      return ws;
+   }
+
+   public SupernodalLDLTSolver() {
+   }
+
+   /**
+    * Returns the current state of this solver, which is one of
+    * {@link #UNSET UNSET}, {@link #ANALYZED ANALYZED}, or
+    * {@link #FACTORED FACTORED}.
+    *
+    * @return current solver state
+    */
+   public int getState() {
+      return myState;
+   }
+
+   /**
+    * Returns the size of the most recently analyzed matrix.
+    *
+    * @return matrix size
+    */
+   public int getSize() {
+      return mySize;
+   }
+
+   /**
+    * Sets whether the numeric factorization is performed in parallel.
+    * The default value is <code>true</code>.
+    *
+    * @param enable if <code>true</code>, enables parallel factorization
+    */
+   public void setParallel (boolean enable) {
+      myParallelP = enable;
+   }
+
+   /**
+    * Queries whether the numeric factorization is performed in parallel.
+    *
+    * @return <code>true</code> if parallel factorization is enabled
+    */
+   public boolean getParallel() {
+      return myParallelP;
+   }
+
+   /**
+    * Sets the tolerance, relative to the largest absolute matrix value, below
+    * which pivots are perturbed during factorization.
+    *
+    * @param tol relative pivot tolerance
+    */
+   public void setPivotTolerance (double tol) {
+      myPivotTol = tol;
+   }
+
+   /**
+    * Returns the relative pivot tolerance.
+    *
+    * @return relative pivot tolerance
+    */
+   public double getPivotTolerance() {
+      return myPivotTol;
+   }
+
+   /**
+    * Returns the number of pivots that were perturbed during the most recent
+    * factorization.
+    *
+    * @return number of perturbed pivots
+    */
+   public int getNumPerturbedPivots() {
+      return myNumPerturbed;
+   }
+
+   /**
+    * Returns the number of non-zero elements in the lower triangle of the
+    * factor L, including the diagonal.
+    *
+    * @return number of non-zeros in the factorization
+    */
+   public int getNumNonZerosInFactors() {
+      if (myState == UNSET) {
+         return 0;
+      }
+      long nnz = 0;
+      for (int s=0; s<myNumSuper; s++) {
+         int w = mySuperCols[s+1]-mySuperCols[s];
+         int nr = myRowPtr[s+1]-myRowPtr[s];
+         nnz += (long)nr*w - (long)w*(w-1)/2;
+      }
+      return (int)Math.min (nnz, Integer.MAX_VALUE);
+   }
+
+   /**
+    * Returns the number of supernodes found by the most recent analysis.
+    *
+    * @return number of supernodes
+    */
+   public int numSupernodes() {
+      return myNumSuper;
+   }
+
+   /**
+    * Returns the fill-reducing permutation found by the most recent analysis,
+    * such that entry <code>i</code> gives the original index of the
+    * <code>i</code>-th row and column of the permuted matrix.
+    *
+    * @return fill-reducing permutation. Should not be modified.
+    */
+   public int[] getPermutation() {
+      return myPerm;
+   }
+
+   /**
+    * {@inheritDoc}
+    *
+    * <p>The matrix must be symmetric, and <code>type</code> must include
+    * {@link Matrix#SYMMETRIC}. If <code>M</code> is a {@link
+    * SparseBlockMatrix} whose signature is the same as that of the previously
+    * analyzed matrix, the previous symbolic analysis is reused.
+    *
+    * @throws IllegalArgumentException if the matrix is not square, if
+    * <code>size</code> is out of bounds, or if <code>type</code> is not
+    * symmetric
+    */
+   public synchronized void analyze (Matrix M, int size, int type) {
+      if (M.rowSize() != M.colSize()) {
+         throw new IllegalArgumentException ("Matrix is not square");
+      }
+      if (size < 0 || size > M.rowSize()) {
+         throw new IllegalArgumentException (
+            "Requested size " + size + " is out of bounds");
+      }
+      checkType (type);
+      SparseBlockSignature sig = null;
+      if (M instanceof SparseBlockMatrix &&
+          size == M.rowSize() && myState != UNSET) {
+         sig = ((SparseBlockMatrix)M).getSignature();
+         if (mySignature != null && size == mySize &&
+             sig.equals (mySignature)) {
+            // structure is unchanged, so reuse symbolic analysis
+            myMatrix = M;
+            myType = type;
+            myState = ANALYZED;
+            return;
+         }
+      }
+      int numVals = M.numNonZeroVals (Partition.UpperTriangular, size, size);
+      int[] colIdxs = new int[numVals];
+      int[] rowOffs = new int[size+1];
+      double[] vals = new double[numVals];
+      M.getCRSIndices (colIdxs, rowOffs, Partition.UpperTriangular, size, size);
+      M.getCRSValues (vals, Partition.UpperTriangular, size, size);
+      // convert to 0-based indices
+      for (int k=0; k<numVals; k++) {
+         colIdxs[k]--;
+      }
+      for (int i=0; i<size; i++) {
+         rowOffs[i]--;
+      }
+      rowOffs[size] = numVals;
+      doAnalyze (vals, colIdxs, rowOffs, size, type);
+      if (M instanceof SparseBlockMatrix && size == M.rowSize()) {
+         mySignature = (sig != null ? sig : ((SparseBlockMatrix)M).getSignature());
+      }
+      myMatrix = M;
+   }
+
+   /**
+    * Sets the matrix associated with this solver and performs symbolic
+    * analysis on it. The matrix is specified in compressed row storage (CRS)
+    * format, using 0-based indices, and only the upper triangular part should
+    * be given. If the structure is identical to that of the previously
+    * analyzed matrix, the previous symbolic analysis is reused. Since no
+    * {@link Matrix} is supplied, the matrix must be factored using {@link
+    * #factor(double[])}.
+    *
+    * @param vals values of the non-zero matrix elements. These are used to
+    * identify rows with non-positive diagonals.
+    * @param colIdxs 0-based column indices of the non-zero matrix elements
+    * @param rowOffs 0-based row start offsets into <code>vals</code> and
+    * <code>colIdxs</code>, with <code>rowOffs[size]</code> giving the number
+    * of non-zero values
+    * @param size size of the matrix
+    * @param type type of the matrix
+    * @throws IllegalArgumentException if the CRS data structures are
+    * inconsistent, or if <code>type</code> is not symmetric
+    */
+   public synchronized void analyze (
+      double[] vals, int[] colIdxs, int[] rowOffs, int size, int type) {
+
+      checkType (type);
+      myMatrix = null;
+      mySignature = null;
+      if (myState != UNSET && size == mySize &&
+          rowOffs[size] == myNumVals &&
+          rangeEquals (rowOffs, myRowOffs, size+1) &&
+          rangeEquals (colIdxs, myColIdxs, myNumVals)) {
+         // structure is unchanged, so reuse symbolic analysis
+         myType = type;
+         myState = ANALYZED;
+         return;
+      }
+      doAnalyze (vals, colIdxs, rowOffs, size, type);
+   }
+
+   private static boolean rangeEquals (int[] a, int[] b, int num) {
+      if (a.length < num || b.length < num) {
+         return false;
+      }
+      for (int i=0; i<num; i++) {
+         if (a[i] != b[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private void checkType (int type) {
+      if ((type & Matrix.SYMMETRIC) == 0) {
+         throw new IllegalArgumentException (
+            "SupernodalLDLTSolver only supports symmetric matrices");
+      }
+   }
+
+   private void doAnalyze (
+      double[] vals, int[] colIdxs, int[] rowOffs, int size, int type) {
+
+      int numVals = rowOffs[size];
+      if (rowOffs[0] != 0 || numVals < 0 || numVals > colIdxs.length ||
+          (vals != null && numVals > vals.length)) {
+         throw new IllegalArgumentException ("Inconsistent CRS row offsets");
+      }
+      myState = UNSET;
+      myRowOffs = Arrays.copyOf (rowOffs, size+1);
+      myColIdxs = Arrays.copyOf (colIdxs, numVals);
+      myVals = new double[numVals];
+      myDiagIdxs = new int[size];
+      Arrays.fill (myDiagIdxs, -1);
+      for (int i=0; i<size; i++) {
+         if (rowOffs[i+1] < rowOffs[i]) {
+            throw new IllegalArgumentException (
+               "Inconsistent CRS row offsets at row " + i);
+         }
+         for (int k=rowOffs[i]; k<rowOffs[i+1]; k++) {
+            int j = colIdxs[k];
+            if (j < i || j >= size) {
+               throw new IllegalArgumentException (
+                  "Column index " + j + " in row " + i +
+                  " is not in the upper triangle");
+            }
+            if (j == i) {
+               myDiagIdxs[i] = k;
+            }
+         }
+      }
+      mySize = size;
+      myNumVals = numVals;
+      myType = type;
+
+      // rows whose diagonal is missing or non-positive are deferred
+      boolean[] deferred = new boolean[size];
+      if ((type & Matrix.POSITIVE_DEFINITE) == 0) {
+         for (int i=0; i<size; i++) {
+            int k = myDiagIdxs[i];
+            deferred[i] = (k == -1 || vals == null || vals[k] <= 0);
+         }
+      }
+      myDiagSigns = new double[size];
+
+      int[] xadj = new int[size+1];
+      int[] adj = buildAdjacency (xadj);
+      computeOrdering (xadj, adj, deferred);
+      computeSymbolicFactorization (xadj, adj);
+      for (int j=0; j<size; j++) {
+         myDiagSigns[j] = deferred[myPerm[j]] ? -1 : 1;
+      }
+      myL = null;
+      myD = new double[size];
+      myState = ANALYZED;
+   }
+
+   /**
+    * Builds the full symmetric adjacency structure of the matrix, without
+    * the diagonal.
+    */
+   private int[] buildAdjacency (int[] xadj) {
+      int n = mySize;
+      int[] deg = new int[n];
+      for (int i=0; i<n; i++) {
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = myColIdxs[k];
+            if (j != i) {
+               deg[i]++;
+               deg[j]++;
+            }
+         }
+      }
+      xadj[0] = 0;
+      for (int i=0; i<n; i++) {
+         xadj[i+1] = xadj[i] + deg[i];
+         deg[i] = xadj[i];
+      }
+      int[] adj = new int[xadj[n]];
+      for (int i=0; i<n; i++) {
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = myColIdxs[k];
+            if (j != i) {
+               adj[deg[i]++] = j;
+               adj[deg[j]++] = i;
+            }
+         }
+      }
+      return adj;
+   }
+
+   /* ---- Ordering ---- */
+
+   /**
+    * Computes the fill-reducing permutation. Nodes with identical adjacency
+    * structures are first merged into supervariables, after which the
+    * resulting quotient graph is ordered using nested dissection.
+    */
+   private void computeOrdering (int[] xadj, int[] adj, boolean[] deferred) {
+      int n = mySize;
+
+      // find supervariables, using a hash of each node's closed adjacency
+      long[] hash = new long[n];
+      for (int i=0; i<n; i++) {
+         long h = (deferred[i] ? 0x9e3779b97f4a7c15L : 0) + mix (i);
+         for (int k=xadj[i]; k<xadj[i+1]; k++) {
+            h += mix (adj[k]);
+         }
+         hash[i] = h;
+      }
+      Integer[] sorted = new Integer[n];
+      for (int i=0; i<n; i++) {
+         sorted[i] = i;
+      }
+      Arrays.sort (sorted, (a, b) -> {
+            int cmp = Long.compare (hash[a], hash[b]);
+            return cmp != 0 ? cmp : Integer.compare (a, b);
+         });
+      int[] superOf = new int[n];
+      Arrays.fill (superOf, -1);
+      int[] marker = new int[n];
+      Arrays.fill (marker, -1);
+      int nq = 0;
+      for (int lo=0; lo<n; ) {
+         int hi = lo+1;
+         while (hi < n && hash[sorted[hi]] == hash[sorted[lo]]) {
+            hi++;
+         }
+         for (int a=lo; a<hi; a++) {
+            int i = sorted[a];
+            if (superOf[i] != -1) {
+               continue;
+            }
+            superOf[i] = nq;
+            // mark closed neighborhood of i
+            marker[i] = i;
+            for (int k=xadj[i]; k<xadj[i+1]; k++) {
+               marker[adj[k]] = i;
+            }
+            int degi = xadj[i+1]-xadj[i];
+            for (int b=a+1; b<hi; b++) {
+               int j = sorted[b];
+               if (superOf[j] != -1 || deferred[j] != deferred[i] ||
+                   xadj[j+1]-xadj[j] != degi || marker[j] != i) {
+                  continue;
+               }
+               boolean same = true;
+               for (int k=xadj[j]; k<xadj[j+1]; k++) {
+                  if (marker[adj[k]] != i) {
+                     same = false;
+                     break;
+                  }
+               }
+               if (same) {
+                  superOf[j] = nq;
+               }
+            }
+            nq++;
+         }
+         lo = hi;
+      }
+      // members of each supervariable
+      int[] memPtr = new int[nq+1];
+      for (int i=0; i<n; i++) {
+         memPtr[superOf[i]+1]++;
+      }
+      for (int q=0; q<nq; q++) {
+         memPtr[q+1] += memPtr[q];
+      }
+      int[] members = new int[n];
+      int[] fill = Arrays.copyOf (memPtr, nq);
+      for (int i=0; i<n; i++) {
+         members[fill[superOf[i]]++] = i;
+      }
+      // quotient graph
+      int[] qxadj = new int[nq+1];
+      int[] qmarker = new int[nq];
+      Arrays.fill (qmarker, -1);
+      int[] qadj = new int[Math.max (1, adj.length)];
+      int nadj = 0;
+      for (int q=0; q<nq; q++) {
+         qmarker[q] = q;
+         int i = members[memPtr[q]];
+         for (int k=xadj[i]; k<xadj[i+1]; k++) {
+            int r = superOf[adj[k]];
+            if (qmarker[r] != q) {
+               qmarker[r] = q;
+               qadj[nadj++] = r;
+            }
+         }
+         qxadj[q+1] = nadj;
+      }
+      int[] qweight = new int[nq];
+      boolean[] qdeferred = new boolean[nq];
+      for (int q=0; q<nq; q++) {
+         qweight[q] = memPtr[q+1]-memPtr[q];
+         qdeferred[q] = deferred[members[memPtr[q]]];
+      }
+
+      int[] qorder = nestedDissection (qxadj, qadj, qweight);
+      qorder = deferNodes (qorder, qxadj, qadj, qdeferred);
+
+      myPerm = new int[n];
+      int idx = 0;
+      for (int a=0; a<nq; a++) {
+         int q = qorder[a];
+         for (int m=memPtr[q]; m<memPtr[q+1]; m++) {
+            myPerm[idx++] = members[m];
+         }
+      }
+      myIperm = new int[n];
+      for (int j=0; j<n; j++) {
+         myIperm[myPerm[j]] = j;
+      }
+   }
+
+   private static long mix (long x) {
+      x = (x ^ (x >>> 33)) * 0xff51afd7ed558ccdL;
+      x = (x ^ (x >>> 33)) * 0xc4ceb9fe1a85ec53L;
+      return x ^ (x >>> 33);
+   }
+
+   /**
+    * Reorders nodes with non-positive diagonals so that each is eliminated
+    * only after all of its neighbors whose diagonals are positive.
+    */
+   private int[] deferNodes (
+      int[] order, int[] xadj, int[] adj, boolean[] deferred) {
+
+      int n = order.length;
+      int[] count = new int[n];
+      boolean anyDeferred = false;
+      for (int i=0; i<n; i++) {
+         if (deferred[i]) {
+            anyDeferred = true;
+            for (int k=xadj[i]; k<xadj[i+1]; k++) {
+               if (!deferred[adj[k]]) {
+                  count[i]++;
+               }
+            }
+         }
+      }
+      if (!anyDeferred) {
+         return order;
+      }
+      boolean[] reached = new boolean[n];
+      int[] newOrder = new int[n];
+      int idx = 0;
+      for (int a=0; a<n; a++) {
+         int i = order[a];
+         if (deferred[i]) {
+            reached[i] = true;
+            if (count[i] == 0) {
+               newOrder[idx++] = i;
+            }
+         }
+         else {
+            newOrder[idx++] = i;
+            for (int k=xadj[i]; k<xadj[i+1]; k++) {
+               int j = adj[k];
+               if (deferred[j] && --count[j] == 0 && reached[j]) {
+                  newOrder[idx++] = j;
+               }
+            }
+         }
+      }
+      if (idx != n) {
+         throw new InternalErrorException (
+            "Deferred ordering has " + idx + " nodes, expected " + n);
+      }
+      return newOrder;
+   }
+
+   /**
+    * Computes a nested dissection ordering of a graph, returning an array
+    * giving the nodes in elimination order.
+    */
+   private int[] nestedDissection (int[] xadj, int[] adj, int[] weight) {
+      int n = xadj.length-1;
+      int[] order = new int[n];
+      int[] mark = new int[n];
+      Arrays.fill (mark, -1);
+      int[] level = new int[n];
+      int stamp = 0;
+
+      // stack of subgraphs, each with the position one past where its last
+      // node should be placed in the ordering
+      ArrayList<int[]> stack = new ArrayList<>();
+      ArrayList<Integer> stackHi = new ArrayList<>();
+      int[] all = new int[n];
+      for (int i=0; i<n; i++) {
+         all[i] = i;
+      }
+      stack.add (all);
+      stackHi.add (n);
+
+      int[] queue = new int[n];
+      while (!stack.isEmpty()) {
+         int[] nodes = stack.remove (stack.size()-1);
+         int hi = stackHi.remove (stackHi.size()-1);
+         int nn = nodes.length;
+         if (nn == 0) {
+            continue;
+         }
+         stamp++;
+         for (int i : nodes) {
+            mark[i] = stamp;
+         }
+         // split into connected components
+         ArrayList<int[]> comps = findComponents (
+            nodes, xadj, adj, mark, stamp, queue);
+         if (comps.size() > 1) {
+            int h = hi;
+            for (int[] c : comps) {
+               stack.add (c);
+               stackHi.add (h);
+               h -= c.length;
+            }
+            continue;
+         }
+         if (nn <= MIN_DISSECTION_SIZE) {
+            minimumDegree (nodes, xadj, adj, mark, stamp, order, hi-nn);
+            continue;
+         }
+         // find a pseudo-peripheral node and its level structure
+         int root = nodes[0];
+         for (int i : nodes) {
+            if (xadj[i+1]-xadj[i] < xadj[root+1]-xadj[root]) {
+               root = i;
+            }
+         }
+         int nlevels = bfsLevels (root, xadj, adj, mark, stamp, level, queue);
+         for (int iter=0; iter<4; iter++) {
+            // among nodes in the last level, pick one with minimum degree
+            int cand = -1;
+            for (int i : nodes) {
+               if (level[i] == nlevels-1 &&
+                   (cand == -1 ||
+                    xadj[i+1]-xadj[i] < xadj[cand+1]-xadj[cand])) {
+                  cand = i;
+               }
+            }
+            int nl = bfsLevels (cand, xadj, adj, mark, stamp, level, queue);
+            if (nl <= nlevels) {
+               bfsLevels (root, xadj, adj, mark, stamp, level, queue);
+               break;
+            }
+            root = cand;
+            nlevels = nl;
+         }
+         if (nlevels < 3) {
+            // dense subgraph; no good separator
+            if (nn <= 4*MIN_DISSECTION_SIZE) {
+               minimumDegree (nodes, xadj, adj, mark, stamp, order, hi-nn);
+            }
+            else {
+               System.arraycopy (nodes, 0, order, hi-nn, nn);
+            }
+            continue;
+         }
+         // choose the separator level that best balances the weights
+         long[] levelWeight = new long[nlevels];
+         long total = 0;
+         for (int i : nodes) {
+            levelWeight[level[i]] += weight[i];
+            total += weight[i];
+         }
+         int sepLevel = 1;
+         long bestImbalance = Long.MAX_VALUE;
+         long cum = levelWeight[0];
+         for (int l=1; l<nlevels-1; l++) {
+            long above = total - cum - levelWeight[l];
+            long imbalance = Math.abs (above - cum) + levelWeight[l];
+            if (imbalance < bestImbalance) {
+               bestImbalance = imbalance;
+               sepLevel = l;
+            }
+            cum += levelWeight[l];
+         }
+         // separator consists of the nodes in the separator level that
+         // are adjacent to the next level
+         int nsep = 0;
+         int[] sep = new int[nn];
+         int[] rest = new int[nn];
+         int nrest = 0;
+         for (int i : nodes) {
+            boolean isSep = false;
+            if (level[i] == sepLevel) {
+               for (int k=xadj[i]; k<xadj[i+1]; k++) {
+                  int j = adj[k];
+                  if (mark[j] == stamp && level[j] == sepLevel+1) {
+                     isSep = true;
+                     break;
+                  }
+               }
+            }
+            if (isSep) {
+               sep[nsep++] = i;
+            }
+            else {
+               rest[nrest++] = i;
+            }
+         }
+         System.arraycopy (sep, 0, order, hi-nsep, nsep);
+         stack.add (Arrays.copyOf (rest, nrest));
+         stackHi.add (hi-nsep);
+      }
+      return order;
+   }
+
+   /**
+    * Finds the connected components among nodes marked with the given stamp.
+    */
+   private ArrayList<int[]> findComponents (
+      int[] nodes, int[] xadj, int[] adj, int[] mark, int stamp, int[] queue) {
+
+      ArrayList<int[]> comps = new ArrayList<>();
+      // visited nodes are marked with -stamp-1
+      int visited = -stamp-1;
+      for (int s : nodes) {
+         if (mark[s] != stamp) {
+            continue;
+         }
+         int head = 0, tail = 0;
+         queue[tail++] = s;
+         mark[s] = visited;
+         while (head < tail) {
+            int i = queue[head++];
+            for (int k=xadj[i]; k<xadj[i+1]; k++) {
+               int j = adj[k];
+               if (mark[j] == stamp) {
+                  mark[j] = visited;
+                  queue[tail++] = j;
+               }
+            }
+         }
+         comps.add (Arrays.copyOf (queue, tail));
+      }
+      for (int i : nodes) {
+         mark[i] = stamp;
+      }
+      return comps;
+   }
+
+   /**
+    * Computes BFS levels from a root, restricted to nodes marked with the
+    * given stamp, and returns the number of levels.
+    */
+   private int bfsLevels (
+      int root, int[] xadj, int[] adj, int[] mark, int stamp,
+      int[] level, int[] queue) {
+
+      int visited = -stamp-1;
+      int head = 0, tail = 0;
+      queue[tail++] = root;
+      mark[root] = visited;
+      level[root] = 0;
+      int maxLevel = 0;
+      while (head < tail) {
+         int i = queue[head++];
+         for (int k=xadj[i]; k<xadj[i+1]; k++) {
+            int j = adj[k];
+            if (mark[j] == stamp) {
+               mark[j] = visited;
+               level[j] = level[i]+1;
+               maxLevel = Math.max (maxLevel, level[j]);
+               queue[tail++] = j;
+            }
+         }
+      }
+      for (int a=0; a<tail; a++) {
+         mark[queue[a]] = stamp;
+      }
+      return maxLevel+1;
+   }
+
+   /**
+    * Orders a small subgraph using minimum degree on an explicit, dense
+    * elimination graph.
+    */
+   private void minimumDegree (
+      int[] nodes, int[] xadj, int[] adj, int[] mark, int stamp,
+      int[] order, int off) {
+
+      int nn = nodes.length;
+      boolean[][] g = new boolean[nn][nn];
+      // temporarily store local indices in mark, encoded as negatives
+      for (int a=0; a<nn; a++) {
+         mark[nodes[a]] = -a-2;
+      }
+      int[] deg = new int[nn];
+      for (int a=0; a<nn; a++) {
+         int i = nodes[a];
+         for (int k=xadj[i]; k<xadj[i+1]; k++) {
+            int m = mark[adj[k]];
+            if (m <= -2) {
+               int b = -m-2;
+               if (b != a && !g[a][b]) {
+                  g[a][b] = true;
+                  deg[a]++;
+               }
+            }
+         }
+         // external neighbors also count towards the degree
+         deg[a] += xadj[i+1]-xadj[i];
+      }
+      for (int a=0; a<nn; a++) {
+         mark[nodes[a]] = stamp;
+      }
+      boolean[] done = new boolean[nn];
+      int[] nbrs = new int[nn];
+      for (int cnt=0; cnt<nn; cnt++) {
+         int best = -1;
+         for (int a=0; a<nn; a++) {
+            if (!done[a] && (best == -1 || deg[a] < deg[best])) {
+               best = a;
+            }
+         }
+         done[best] = true;
+         order[off+cnt] = nodes[best];
+         int nb = 0;
+         for (int b=0; b<nn; b++) {
+            if (!done[b] && g[best][b]) {
+               nbrs[nb++] = b;
+            }
+         }
+         for (int x=0; x<nb; x++) {
+            int a = nbrs[x];
+            g[a][best] = false;
+            deg[a]--;
+            for (int y=0; y<nb; y++) {
+               int b = nbrs[y];
+               if (a != b && !g[a][b]) {
+                  g[a][b] = true;
+                  deg[a]++;
+               }
+            }
+         }
+      }
+   }
+
+   /* ---- Symbolic factorization ---- */
+
+   private int[] computeEtree (int[] xadj, int[] adj) {
+      int n = mySize;
+      int[] parent = new int[n];
+      int[] ancestor = new int[n];
+      for (int k=0; k<n; k++) {
+         parent[k] = -1;
+         ancestor[k] = -1;
+         int ok = myPerm[k];
+         for (int a=xadj[ok]; a<xadj[ok+1]; a++) {
+            int r = myIperm[adj[a]];
+            while (r != -1 && r < k) {
+               int next = ancestor[r];
+               ancestor[r] = k;
+               if (next == -1) {
+                  parent[r] = k;
+               }
+               r = next;
+            }
+         }
+      }
+      return parent;
+   }
+
+   private void computeSymbolicFactorization (int[] xadj, int[] adj) {
+      int n = mySize;
+
+      // elimination tree, followed by a postordering of it
+      int[] parent = computeEtree (xadj, adj);
+      int[] head = new int[n];
+      int[] next = new int[n];
+      Arrays.fill (head, -1);
+      for (int j=n-1; j>=0; j--) {
+         if (parent[j] != -1) {
+            next[j] = head[parent[j]];
+            head[parent[j]] = j;
+         }
+      }
+      int[] post = new int[n];
+      int[] stack = new int[n];
+      int k = 0;
+      for (int j=0; j<n; j++) {
+         if (parent[j] != -1) {
+            continue;
+         }
+         int top = 0;
+         stack[0] = j;
+         while (top >= 0) {
+            int p = stack[top];
+            int c = head[p];
+            if (c == -1) {
+               top--;
+               post[k++] = p;
+            }
+            else {
+               head[p] = next[c];
+               stack[++top] = c;
+            }
+         }
+      }
+      int[] perm = new int[n];
+      for (int j=0; j<n; j++) {
+         perm[j] = myPerm[post[j]];
+      }
+      myPerm = perm;
+      for (int j=0; j<n; j++) {
+         myIperm[myPerm[j]] = j;
+      }
+      parent = computeEtree (xadj, adj);
+
+      // column counts (including the diagonal), found by traversing the
+      // row subtrees
+      int[] colCount = new int[n];
+      int[] mark = new int[n];
+      Arrays.fill (mark, -1);
+      for (int r=0; r<n; r++) {
+         colCount[r]++;
+         mark[r] = r;
+         int or = myPerm[r];
+         for (int a=xadj[or]; a<xadj[or+1]; a++) {
+            int j = myIperm[adj[a]];
+            while (j < r && mark[j] != r) {
+               colCount[j]++;
+               mark[j] = r;
+               j = parent[j];
+            }
+         }
+      }
+
+      // fundamental supernodes
+      int[] numChildren = new int[n];
+      for (int j=0; j<n; j++) {
+         if (parent[j] != -1) {
+            numChildren[parent[j]]++;
+         }
+      }
+      int[] superCols = new int[n+1];
+      int ns = 0;
+      for (int j=0; j<n; j++) {
+         if (j == 0 || parent[j-1] != j || numChildren[j] != 1 ||
+             colCount[j-1] != colCount[j]+1) {
+            superCols[ns++] = j;
+         }
+      }
+      superCols[ns] = n;
+      myNumSuper = ns;
+      mySuperCols = Arrays.copyOf (superCols, ns+1);
+      myColSuper = new int[n];
+      for (int s=0; s<ns; s++) {
+         for (int j=mySuperCols[s]; j<mySuperCols[s+1]; j++) {
+            myColSuper[j] = s;
+         }
+      }
+      int[] superParent = new int[ns];
+      for (int s=0; s<ns; s++) {
+         int p = parent[mySuperCols[s+1]-1];
+         superParent[s] = (p == -1 ? -1 : myColSuper[p]);
+      }
+
+      // supernodal etree children, roots, and subtree ranges
+      myChildPtr = new int[ns+1];
+      int nroots = 0;
+      for (int s=0; s<ns; s++) {
+         if (superParent[s] != -1) {
+            myChildPtr[superParent[s]+1]++;
+         }
+         else {
+            nroots++;
+         }
+      }
+      for (int s=0; s<ns; s++) {
+         myChildPtr[s+1] += myChildPtr[s];
+      }
+      myChildren = new int[myChildPtr[ns]];
+      myRoots = new int[nroots];
+      int[] fill = Arrays.copyOf (myChildPtr, ns);
+      nroots = 0;
+      for (int s=0; s<ns; s++) {
+         if (superParent[s] != -1) {
+            myChildren[fill[superParent[s]]++] = s;
+         }
+         else {
+            myRoots[nroots++] = s;
+         }
+      }
+      myFirstDesc = new int[ns];
+      for (int s=0; s<ns; s++) {
+         myFirstDesc[s] = s;
+      }
+      for (int s=0; s<ns; s++) {
+         int p = superParent[s];
+         if (p != -1 && myFirstDesc[s] < myFirstDesc[p]) {
+            myFirstDesc[p] = myFirstDesc[s];
+         }
+      }
+
+      // row structure of each supernode
+      myRowPtr = new int[ns+1];
+      for (int s=0; s<ns; s++) {
+         myRowPtr[s+1] = myRowPtr[s] + colCount[mySuperCols[s]];
+      }
+      myRowIdxs = new int[myRowPtr[ns]];
+      Arrays.fill (mark, -1);
+      for (int s=0; s<ns; s++) {
+         int f = mySuperCols[s];
+         int l = mySuperCols[s+1]-1;
+         int idx = myRowPtr[s];
+         for (int j=f; j<=l; j++) {
+            myRowIdxs[idx++] = j;
+            mark[j] = s;
+         }
+         int tail = idx;
+         for (int j=f; j<=l; j++) {
+            int oj = myPerm[j];
+            for (int a=xadj[oj]; a<xadj[oj+1]; a++) {
+               int r = myIperm[adj[a]];
+               if (r > l && mark[r] != s) {
+                  mark[r] = s;
+                  myRowIdxs[idx++] = r;
+               }
+            }
+         }
+         for (int c=myChildPtr[s]; c<myChildPtr[s+1]; c++) {
+            int d = myChildren[c];
+            for (int a=myRowPtr[d]; a<myRowPtr[d+1]; a++) {
+               int r = myRowIdxs[a];
+               if (r > l && mark[r] != s) {
+                  mark[r] = s;
+                  myRowIdxs[idx++] = r;
+               }
+            }
+         }
+         if (idx != myRowPtr[s+1]) {
+            throw new InternalErrorException (
+               "Supernode " + s + " has " + (idx-myRowPtr[s]) +
+               " rows, expected " + (myRowPtr[s+1]-myRowPtr[s]));
+         }
+         Arrays.sort (myRowIdxs, tail, idx);
+      }
+
+      // panel offsets, and estimated work for each subtree
+      myValPtr = new int[ns+1];
+      myWork = new long[ns];
+      long size = 0;
+      for (int s=0; s<ns; s++) {
+         int w = mySuperCols[s+1]-mySuperCols[s];
+         int nr = myRowPtr[s+1]-myRowPtr[s];
+         size += (long)nr*w;
+         if (size > Integer.MAX_VALUE) {
+            throw new NumericalException (
+               "Factorization is too large: more than " +
+               Integer.MAX_VALUE + " entries");
+         }
+         myValPtr[s+1] = (int)size;
+         myWork[s] += (long)nr*nr*w;
+         if (superParent[s] != -1) {
+            myWork[superParent[s]] += myWork[s];
+         }
+      }
+
+      // lists of the supernodes that update each supernode
+      int[] updCount = new int[ns+1];
+      for (int d=0; d<ns; d++) {
+         int w = mySuperCols[d+1]-mySuperCols[d];
+         int last = -1;
+         for (int a=myRowPtr[d]+w; a<myRowPtr[d+1]; a++) {
+            int t = myColSuper[myRowIdxs[a]];
+            if (t != last) {
+               updCount[t+1]++;
+               last = t;
+            }
+         }
+      }
+      for (int t=0; t<ns; t++) {
+         updCount[t+1] += updCount[t];
+      }
+      myUpdPtr = updCount;
+      myUpdSuper = new int[myUpdPtr[ns]];
+      myUpdRow = new int[myUpdPtr[ns]];
+      fill = Arrays.copyOf (myUpdPtr, ns);
+      for (int d=0; d<ns; d++) {
+         int w = mySuperCols[d+1]-mySuperCols[d];
+         int last = -1;
+         for (int a=myRowPtr[d]+w; a<myRowPtr[d+1]; a++) {
+            int t = myColSuper[myRowIdxs[a]];
+            if (t != last) {
+               myUpdSuper[fill[t]] = d;
+               myUpdRow[fill[t]] = a-myRowPtr[d];
+               fill[t]++;
+               last = t;
+            }
+         }
+      }
+
+      // map from matrix values to panel locations
+      int nv = myNumVals;
+      int[] valSuper = new int[nv];
+      int[] valOff = new int[nv];
+      mySuperValPtr = new int[ns+1];
+      for (int i=0; i<n; i++) {
+         for (int a=myRowOffs[i]; a<myRowOffs[i+1]; a++) {
+            int pi = myIperm[i];
+            int pj = myIperm[myColIdxs[a]];
+            int c = Math.min (pi, pj);
+            int r = Math.max (pi, pj);
+            int s = myColSuper[c];
+            int f = mySuperCols[s];
+            int nr = myRowPtr[s+1]-myRowPtr[s];
+            int pos;
+            if (r < mySuperCols[s+1]) {
+               pos = r-f;
+            }
+            else {
+               pos = Arrays.binarySearch (
+                  myRowIdxs, myRowPtr[s], myRowPtr[s+1], r) - myRowPtr[s];
+            }
+            valSuper[a] = s;
+            valOff[a] = myValPtr[s] + (c-f)*nr + pos;
+            mySuperValPtr[s+1]++;
+         }
+      }
+      for (int s=0; s<ns; s++) {
+         mySuperValPtr[s+1] += mySuperValPtr[s];
+      }
+      mySuperValIdxs = new int[nv];
+      mySuperValOffs = new int[nv];
+      fill = Arrays.copyOf (mySuperValPtr, ns);
+      for (int a=0; a<nv; a++) {
+         int idx = fill[valSuper[a]]++;
+         mySuperValIdxs[idx] = a;
+         mySuperValOffs[idx] = valOff[a];
+      }
+   }
+
+   /* ---- Numeric factorization ---- */
+
+   /**
+    * Performs a numeric factorization of the matrix supplied by a previous
+    * call to {@link #analyze(Matrix,int,int) analyze(Matrix,int,int)} or
+    * {@link #analyzeAndFactor(Matrix) analyzeAndFactor(Matrix)}.
+    *
+    * @throws ImproperStateException if no matrix was previously supplied
+    */
+   public synchronized void factor() {
+      if (myMatrix == null) {
+         throw new ImproperStateException (
+            "analyze(Matrix) or analyzeAndFactor(Matrix) not previously called");
+      }
+      double[] vals = new double[myNumVals];
+      myMatrix.getCRSValues (vals, Partition.UpperTriangular, mySize, mySize);
+      factor (vals);
+   }
+
+   /**
+    * Performs a numeric factorization of the most recently analyzed matrix
+    * using the supplied values, which should be arranged in the same CRS
+    * order as the analyzed structure.
+    *
+    * @param vals non-zero matrix element values
+    * @throws IllegalStateException if no matrix has been analyzed
+    * @throws IllegalArgumentException if there are insufficient values
+    */
+   public synchronized void factor (double[] vals) {
+      if (myState == UNSET) {
+         throw new IllegalStateException ("No matrix currently set");
+      }
+      else if (vals.length < myNumVals) {
+         throw new IllegalArgumentException (
+            "Not enough values: vals.length=" + vals.length +
+            ", expected number is " + myNumVals);
+      }
+      System.arraycopy (vals, 0, myVals, 0, myNumVals);
+      double maxAbs = 0;
+      for (int k=0; k<myNumVals; k++) {
+         maxAbs = Math.max (maxAbs, Math.abs (vals[k]));
+      }
+      double tol = myPivotTol*(maxAbs == 0 ? 1 : maxAbs);
+      if (myL == null || myL.length < myValPtr[myNumSuper]) {
+         myL = new double[myValPtr[myNumSuper]];
+      }
+      AtomicInteger numPerturbed = new AtomicInteger();
+      if (myParallelP && myNumSuper > 0 &&
+          ForkJoinPool.getCommonPoolParallelism() > 1 &&
+          totalWork() >= 2*MIN_PARALLEL_WORK) {
+         ForkJoinPool.commonPool().invoke (
+            new FactorTask (-1, tol, numPerturbed));
+      }
+      else {
+         Workspace ws = getWorkspace();
+         for (int s=0; s<myNumSuper; s++) {
+            factorSupernode (s, tol, ws, numPerturbed);
+         }
+      }
+      myNumPerturbed = numPerturbed.get();
+      myState = FACTORED;
+   }
+
+   private long totalWork() {
+      long work = 0;
+      for (int r : myRoots) {
+         work += myWork[r];
+      }
+      return work;
+   }
+
+   /**
+    * Factors a subtree of the supernodal elimination tree, forking tasks for
+    * the subtrees of its children. A root value of -1 denotes the entire
+    * forest.
+    */
+   private class FactorTask extends RecursiveAction {
+      private static final long serialVersionUID = 1L;
+      int myRoot;
+      double myTol;
+      AtomicInteger myNumPerturbed;
+
+      FactorTask (int root, double tol, AtomicInteger numPerturbed) {
+         myRoot = root;
+         myTol = tol;
+         myNumPerturbed = numPerturbed;
+      }
+
+      protected void compute() {
+         int[] children;
+         int lo, hi;
+         if (myRoot == -1) {
+            children = myRoots;
+            lo = 0;
+            hi = myRoots.length;
+         }
+         else {
+            children = myChildren;
+            lo = myChildPtr[myRoot];
+            hi = myChildPtr[myRoot+1];
+         }
+         ArrayList<FactorTask> tasks = new ArrayList<>();
+         for (int c=lo; c<hi; c++) {
+            int d = children[c];
+            if (myWork[d] >= MIN_PARALLEL_WORK) {
+               tasks.add (new FactorTask (d, myTol, myNumPerturbed));
+            }
+         }
+         if (tasks.size() > 0) {
+            invokeAll (tasks);
+         }
+         Workspace ws = getWorkspace();
+         for (int c=lo; c<hi; c++) {
+            int d = children[c];
+            if (myWork[d] < MIN_PARALLEL_WORK) {
+               for (int s=myFirstDesc[d]; s<=d; s++) {
+                  factorSupernode (s, myTol, ws, myNumPerturbed);
+               }
+            }
+         }
+         if (myRoot != -1) {
+            factorSupernode (myRoot, myTol, ws, myNumPerturbed);
+         }
+      }
+   }
+
+   /**
+    * Factors supernode t, assuming all of its descendants have already been
+    * factored.
+    */
+   private void factorSupernode (
+      int t, double tol, Workspace ws, AtomicInteger numPerturbed) {
+
+      double[] L = myL;
+      double[] D = myD;
+      int f = mySuperCols[t];
+      int w = mySuperCols[t+1]-f;
+      int l = f+w-1;
+      int nr = myRowPtr[t+1]-myRowPtr[t];
+      int base = myValPtr[t];
+      int rbase = myRowPtr[t];
+
+      // assemble matrix values into the panel
+      Arrays.fill (L, base, base+nr*w, 0);
+      for (int a=mySuperValPtr[t]; a<mySuperValPtr[t+1]; a++) {
+         L[mySuperValOffs[a]] += myVals[mySuperValIdxs[a]];
+      }
+      int[] rowPos = ws.rowPos;
+      for (int i=0; i<nr; i++) {
+         rowPos[myRowIdxs[rbase+i]] = i;
+      }
+      double[] acc = ws.acc;
+
+      // apply updates from descendant supernodes
+      for (int u=myUpdPtr[t]; u<myUpdPtr[t+1]; u++) {
+         int d = myUpdSuper[u];
+         int fd = mySuperCols[d];
+         int wd = mySuperCols[d+1]-fd;
+         int nrd = myRowPtr[d+1]-myRowPtr[d];
+         int rbased = myRowPtr[d];
+         int based = myValPtr[d];
+         int p1 = myUpdRow[u];
+         int p2 = p1;
+         while (p2 < nrd && myRowIdxs[rbased+p2] <= l) {
+            p2++;
+         }
+         int m = nrd-p1;
+         for (int j=0; j<p2-p1; j++) {
+            Arrays.fill (acc, j, m, 0);
+            for (int k=0; k<wd; k++) {
+               int colk = based + k*nrd + p1;
+               double a = L[colk+j]*D[fd+k];
+               if (a != 0) {
+                  for (int i=j; i<m; i++) {
+                     acc[i] += L[colk+i]*a;
+                  }
+               }
+            }
+            int colc = base + (myRowIdxs[rbased+p1+j]-f)*nr;
+            for (int i=j; i<m; i++) {
+               L[colc+rowPos[myRowIdxs[rbased+p1+i]]] -= acc[i];
+            }
+         }
+      }
+
+      // dense LDL^T factorization of the panel
+      for (int c=0; c<w; c++) {
+         int colc = base + c*nr;
+         for (int k=0; k<c; k++) {
+            int colk = base + k*nr;
+            double a = L[colk+c]*D[f+k];
+            if (a != 0) {
+               for (int i=c; i<nr; i++) {
+                  L[colc+i] -= L[colk+i]*a;
+               }
+            }
+         }
+         double d = L[colc+c];
+         if (!(Math.abs (d) > tol)) {
+            if (d > 0 || (d == 0 && myDiagSigns[f+c] > 0)) {
+               d = tol;
+            }
+            else {
+               d = -tol;
+            }
+            numPerturbed.incrementAndGet();
+         }
+         D[f+c] = d;
+         L[colc+c] = 1;
+         double inv = 1/d;
+         for (int i=c+1; i<nr; i++) {
+            L[colc+i] *= inv;
+         }
+      }
+   }
+
+   /* ---- Solves ---- */
+
+   private void checkFactored() {
+      if (myState != FACTORED) {
+         throw new ImproperStateException ("Matrix not factored");
+      }
+   }
+
+   private void checkSolveArgs (int xlen, int blen, int nrhs) {
+      if (nrhs < 1) {
+         throw new IllegalArgumentException (
+            "number of right-hand sides must be positive");
+      }
+      if (xlen < mySize*nrhs) {
+         throw new IllegalArgumentException (
+            "x is too small: length=" + xlen +
+            ", expected size is " + mySize*nrhs);
+      }
+      if (blen < mySize*nrhs) {
+         throw new IllegalArgumentException (
+            "b is too small: length=" + blen +
+            ", expected size is " + mySize*nrhs);
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void solve (VectorNd x, VectorNd b) {
+      if (x.size() < mySize) {
+         x.setSize (mySize);
+      }
+      solve (x.getBuffer(), b.getBuffer());
+   }
+
+   /**
+    * Solves the factored matrix for x, given a right-hand side b.
+    * <code>x</code> and <code>b</code> may be the same array.
+    *
+    * @param x returns the solution value
+    * @param b supplies the right-hand side
+    * @throws ImproperStateException if the matrix has not been factored
+    */
+   public synchronized void solve (double[] x, double[] b) {
+      checkFactored();
+      checkSolveArgs (x.length, b.length, 1);
+      solveRhs (x, b, 0, new double[mySize], null);
+   }
+
+   /**
+    * Solves the factored matrix for a set of vectors X, given a set of
+    * right-hand sides B. The number of right-hand sides is given by {@code
+    * nrhs}. Both {@code X} and {@code B} should be stored in column major
+    * order, so that each right-hand side is contiguous. If there are several
+    * right-hand sides, they are solved in parallel.
+    *
+    * @param X returns the solutions in column major order
+    * @param B supplies the right-hand sides in column major order
+    * @param nrhs number of right-hand sides to solve for
+    * @throws ImproperStateException if the matrix has not been factored
+    */
+   public synchronized void solve (
+      final double[] X, final double[] B, int nrhs) {
+      checkFactored();
+      checkSolveArgs (X.length, B.length, nrhs);
+      int nchunks = (myParallelP ? ParallelLoop.numChunks (nrhs, 0, 1) : 1);
+      ParallelLoop.forEachChunk (nrhs, nchunks, new ParallelLoop.RangeTask() {
+            public void run (int chunk, int lo, int hi) {
+               double[] y = new double[mySize];
+               double[] r = null;
+               for (int j=lo; j<hi; j++) {
+                  if (myNumPerturbed > 0 && r == null) {
+                     r = new double[2*mySize];
+                  }
+                  solveRhs (X, B, j*mySize, y, r);
+               }
+            }
+         });
+   }
+
+   /**
+    * Solves for a single right-hand side located at offset <code>off</code>
+    * within <code>b</code>, with refinement if pivots were perturbed.
+    */
+   private void solveRhs (
+      double[] x, double[] b, int off, double[] y, double[] r) {
+      int n = mySize;
+      if (myNumPerturbed == 0 || MAX_REFINEMENT_STEPS <= 0) {
+         solvePermuted (b, off, y, x, off);
+         return;
+      }
+      if (r == null) {
+         r = new double[2*n];
+      }
+      // save b in case x and b are the same
+      double[] borig = new double[n];
+      System.arraycopy (b, off, borig, 0, n);
+      solvePermuted (borig, 0, y, x, off);
+      double bnorm = 0;
+      for (int i=0; i<n; i++) {
+         bnorm = Math.max (bnorm, Math.abs (borig[i]));
+      }
+      double prevNorm = Double.POSITIVE_INFINITY;
+      for (int iter=0; iter<MAX_REFINEMENT_STEPS; iter++) {
+         double rnorm = residual (x, off, borig, r);
+         if (rnorm <= 1e-14*bnorm || rnorm >= prevNorm) {
+            break;
+         }
+         prevNorm = rnorm;
+         solvePermuted (r, 0, y, r, n);
+         for (int i=0; i<n; i++) {
+            x[off+i] += r[n+i];
+         }
+      }
+   }
+
+   /**
+    * Solves L D L^T P x = P b for the right-hand side in <code>b</code> at
+    * offset <code>boff</code>, placing the result in <code>x</code> at offset
+    * <code>xoff</code>.
+    */
+   private void solvePermuted (
+      double[] b, int boff, double[] y, double[] x, int xoff) {
+
+      int n = mySize;
+      double[] L = myL;
+      for (int j=0; j<n; j++) {
+         y[j] = b[boff+myPerm[j]];
+      }
+      // forward solve with L
+      for (int s=0; s<myNumSuper; s++) {
+         int f = mySuperCols[s];
+         int w = mySuperCols[s+1]-f;
+         int nr = myRowPtr[s+1]-myRowPtr[s];
+         int base = myValPtr[s];
+         int rbase = myRowPtr[s];
+         for (int c=0; c<w; c++) {
+            double yc = y[f+c];
+            if (yc != 0) {
+               int colc = base + c*nr;
+               for (int i=c+1; i<nr; i++) {
+                  y[myRowIdxs[rbase+i]] -= L[colc+i]*yc;
+               }
+            }
+         }
+      }
+      // diagonal solve
+      for (int j=0; j<n; j++) {
+         y[j] /= myD[j];
+      }
+      // backward solve with L^T
+      for (int s=myNumSuper-1; s>=0; s--) {
+         int f = mySuperCols[s];
+         int w = mySuperCols[s+1]-f;
+         int nr = myRowPtr[s+1]-myRowPtr[s];
+         int base = myValPtr[s];
+         int rbase = myRowPtr[s];
+         for (int c=w-1; c>=0; c--) {
+            int colc = base + c*nr;
+            double sum = y[f+c];
+            for (int i=c+1; i<nr; i++) {
+               sum -= L[colc+i]*y[myRowIdxs[rbase+i]];
+            }
+            y[f+c] = sum;
+         }
+      }
+      for (int j=0; j<n; j++) {
+         x[xoff+myPerm[j]] = y[j];
+      }
+   }
+
+   /**
+    * Computes r = b - A x into the first n entries of r, and returns the
+    * infinity norm of r.
+    */
+   private double residual (double[] x, int off, double[] b, double[] r) {
+      int n = mySize;
+      for (int i=0; i<n; i++) {
+         r[i] = b[i];
+      }
+      for (int i=0; i<n; i++) {
+         double xi = x[off+i];
+         double sum = 0;
+         for (int k=myRowOffs[i]; k<myRowOffs[i+1]; k++) {
+            int j = myColIdxs[k];
+            double v = myVals[k];
+            sum += v*x[off+j];
+            if (j != i) {
+               r[j] -= v*xi;
+            }
+         }
+         r[i] -= sum;
+      }
+      double norm = 0;
+      for (int i=0; i<n; i++) {
+         norm = Math.max (norm, Math.abs (r[i]));
+      }
+      return norm;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public void analyzeAndFactor (Matrix M) {
+      analyze (M, M.rowSize(), Matrix.SYMMETRIC);
+      factor();
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized void autoFactorAndSolve (
+      VectorNd x, VectorNd b, int tolExp) {
+      if (tolExp <= 0 || myState != FACTORED || myMatrix == null) {
+         factor();
+         solve (x, b);
+         myLastSolveWasIterative = false;
+         return;
+      }
+      if (x.size() < mySize) {
+         x.setSize (mySize);
+      }
+      checkSolveArgs (x.size(), b.size(), 1);
+      // load the current matrix values, but keep the existing factorization
+      // and use it to precondition an iterative refinement of the solution
+      myMatrix.getCRSValues (myVals, Partition.UpperTriangular, mySize, mySize);
+      int n = mySize;
+      double[] borig = new double[n];
+      double[] y = new double[n];
+      double[] r = new double[2*n];
+      double[] xbuf = x.getBuffer();
+      System.arraycopy (b.getBuffer(), 0, borig, 0, n);
+      solvePermuted (borig, 0, y, xbuf, 0);
+      double bnorm = 0;
+      for (int i=0; i<n; i++) {
+         bnorm = Math.max (bnorm, Math.abs (borig[i]));
+      }
+      double tol = Math.pow (10, -tolExp)*bnorm;
+      double prevNorm = Double.POSITIVE_INFINITY;
+      for (int iter=0; iter<MAX_AUTO_ITERATIONS; iter++) {
+         double rnorm = residual (xbuf, 0, borig, r);
+         if (rnorm <= tol) {
+            myLastSolveWasIterative = true;
+            return;
+         }
+         if (rnorm >= prevNorm) {
+            break;
+         }
+         prevNorm = rnorm;
+         solvePermuted (r, 0, y, r, n);
+         for (int i=0; i<n; i++) {
+            xbuf[i] += r[n+i];
+         }
+      }
+      // convergence too slow: refactor and solve directly
+      factor (myVals);
+      solveRhs (xbuf, borig, 0, y, r);
+      myLastSolveWasIterative = false;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public boolean hasAutoIterativeSolving() {
+      return true;
+   }
+
+   /**
+    * Queries whether the most recent call to {@link #autoFactorAndSolve
+    * autoFactorAndSolve()} was completed iteratively using the previous
+    * factorization, without refactoring the matrix.
+    *
+    * @return {@code true} if the last auto solve was iterative
+    */
+   public boolean lastSolveWasIterative() {
+      return myLastSolveWasIterative;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public synchronized void dispose() {
+      myState = UNSET;
+      myMatrix = null;
+      mySignature = null;
+      myL = null;
+      myD = null;
+   }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.solvers;
+
+import maspack.matrix.*;
+import maspack.util.*;
+
+/**
+ * Unit test for the class SupernodalLDLTSolver
+ */
+public class SupernodalLDLTSolverTest extends UnitTest {
+
+   private static double EPS = 1e-10;
+
+   /**
+    * Creates a block stiffness-like SPD matrix for a grid of nx x ny x nz
+    * nodes, each with 3 DOFs, coupling every node with its grid neighbors.
+    */
+   SparseBlockMatrix createGridMatrix (int nx, int ny, int nz) {
+      int numNodes = nx*ny*nz;
+      int[] sizes = new int[numNodes];
+      for (int i=0; i<numNodes; i++) {
+         sizes[i] = 3;
+      }
+      SparseBlockMatrix M = new SparseBlockMatrix (sizes, sizes);
+      Matrix3d K = new Matrix3d();
+      for (int i=0; i<nx; i++) {
+         for (int j=0; j<ny; j++) {
+            for (int k=0; k<nz; k++) {
+               int n0 = (i*ny + j)*nz + k;
+               int[] nbrs = new int[] {
+                  i+1 < nx ? n0+ny*nz : -1,
+                  j+1 < ny ? n0+nz : -1,
+                  k+1 < nz ? n0+1 : -1
+               };
+               for (int n1 : nbrs) {
+                  if (n1 != -1) {
+                     K.setRandom();
+                     K.mulTranspose (K);
+                     addCoupling (M, n0, n1, K);
+                  }
+               }
+            }
+         }
+      }
+      // add mass terms to make the matrix definite
+      for (int n=0; n<numNodes; n++) {
+         Matrix3x3Block Mblk = (Matrix3x3Block)M.getBlock (n, n);
+         if (Mblk == null) {
+            Mblk = new Matrix3x3Block();
+            M.addBlock (n, n, Mblk);
+         }
+         Mblk.m00 += 0.1;
+         Mblk.m11 += 0.1;
+         Mblk.m22 += 0.1;
+      }
+      return M;
+   }
+
+   private Matrix3x3Block getOrAddBlock (SparseBlockMatrix M, int bi, int bj) {
+      Matrix3x3Block blk = (Matrix3x3Block)M.getBlock (bi, bj);
+      if (blk == null) {
+         blk = new Matrix3x3Block();
+         M.addBlock (bi, bj, blk);
+      }
+      return blk;
+   }
+
+   private void addCoupling (SparseBlockMatrix M, int n0, int n1, Matrix3d K) {
+      getOrAddBlock (M, n0, n0).add (K);
+      getOrAddBlock (M, n1, n1).add (K);
+      getOrAddBlock (M, n0, n1).sub (K);
+      getOrAddBlock (M, n1, n0).sub (K);
+   }
+
+   /**
+    * Creates a constraint matrix GT with numc random constraints, each
+    * involving two nodes.
+    */
+   SparseBlockMatrix createConstraints (SparseBlockMatrix M, int numc) {
+      int numNodes = M.numBlockRows();
+      int[] rowSizes = new int[numNodes];
+      for (int i=0; i<numNodes; i++) {
+         rowSizes[i] = 3;
+      }
+      int[] colSizes = new int[numc];
+      for (int j=0; j<numc; j++) {
+         colSizes[j] = 1;
+      }
+      SparseBlockMatrix GT = new SparseBlockMatrix (rowSizes, colSizes);
+      for (int j=0; j<numc; j++) {
+         int n0 = RandomGenerator.nextInt (0, numNodes-1);
+         int n1;
+         do {
+            n1 = RandomGenerator.nextInt (0, numNodes-1);
+         }
+         while (n1 == n0);
+         Matrix3x1Block blk0 = new Matrix3x1Block();
+         Matrix3x1Block blk1 = new Matrix3x1Block();
+         Vector3d dir = new Vector3d();
+         dir.setRandom();
+         blk0.set (dir);
+         dir.negate();
+         blk1.set (dir);
+         GT.addBlock (n0, j, blk0);
+         GT.addBlock (n1, j, blk1);
+      }
+      return GT;
+   }
+
+   /**
+    * Creates the full symmetric KKT matrix [ M G^T ; G -Rg ]. If Rg is
+    * null, the lower right block is structurally empty.
+    */
+   SparseMatrixNd createKKTMatrix (
+      SparseBlockMatrix M, SparseBlockMatrix GT, VectorNd Rg) {
+      int sizeM = M.rowSize();
+      int numc = GT.colSize();
+      SparseMatrixNd A = new SparseMatrixNd (sizeM+numc, sizeM+numc);
+      MatrixNd Md = new MatrixNd (M);
+      MatrixNd GTd = new MatrixNd (GT);
+      for (int i=0; i<sizeM; i++) {
+         for (int j=0; j<sizeM; j++) {
+            if (Md.get (i, j) != 0) {
+               A.set (i, j, Md.get (i, j));
+            }
+         }
+         for (int j=0; j<numc; j++) {
+            if (GTd.get (i, j) != 0) {
+               A.set (i, sizeM+j, GTd.get (i, j));
+               A.set (sizeM+j, i, GTd.get (i, j));
+            }
+         }
+      }
+      if (Rg != null) {
+         for (int j=0; j<numc; j++) {
+            A.set (sizeM+j, sizeM+j, -Rg.get(j));
+         }
+      }
+      return A;
+   }
+
+   private double relativeResidual (Matrix A, VectorNd x, VectorNd b) {
+      VectorNd r = new VectorNd (b.size());
+      A.mul (r, x);
+      r.sub (b);
+      return r.infinityNorm()/b.infinityNorm();
+   }
+
+   void testSolve (Matrix A, int type, boolean parallel) {
+      int size = A.rowSize();
+      SupernodalLDLTSolver solver = new SupernodalLDLTSolver();
+      solver.setParallel (parallel);
+      solver.analyze (A, size, type);
+      solver.factor();
+
+      VectorNd b = new VectorNd (size);
+      VectorNd x = new VectorNd (size);
+      b.setRandom();
+      solver.solve (x, b);
+      double res = relativeResidual (A, x, b);
+      if (res > EPS) {
+         throw new TestException (
+            "Residual for size " + size + " is " + res);
+      }
+      // check multiple right hand sides against individual solves
+      int nrhs = 4;
+      MatrixNd B = new MatrixNd (nrhs, size);
+      MatrixNd X = new MatrixNd (nrhs, size);
+      B.setRandom();
+      solver.solve (X.getBuffer(), B.getBuffer(), nrhs);
+      for (int k=0; k<nrhs; k++) {
+         VectorNd bk = new VectorNd (size);
+         VectorNd xk = new VectorNd (size);
+         VectorNd chk = new VectorNd (size);
+         B.getRow (k, bk);
+         X.getRow (k, xk);
+         solver.solve (chk, bk);
+         checkEquals ("multi-rhs solve "+k, xk, chk, EPS*chk.infinityNorm());
+      }
+      // solve in place
+      VectorNd xb = new VectorNd (b);
+      solver.solve (xb.getBuffer(), xb.getBuffer());
+      checkEquals ("in-place solve", xb, x, EPS*x.infinityNorm());
+      solver.dispose();
+   }
+
+   void testAnalysisReuse() {
+      SparseBlockMatrix M = createGridMatrix (4, 3, 3);
+      int size = M.rowSize();
+      SupernodalLDLTSolver solver = new SupernodalLDLTSolver();
+      solver.analyze (M, size, Matrix.SPD);
+      int[] perm = solver.getPermutation();
+      // change values but not structure; analysis should be reused
+      M.scale (2.0);
+      solver.analyze (M, size, Matrix.SPD);
+      check ("analysis not reused", perm == solver.getPermutation());
+      solver.factor();
+      VectorNd b = new VectorNd (size);
+      VectorNd x = new VectorNd (size);
+      b.setRandom();
+      solver.solve (x, b);
+      check ("residual after reuse", relativeResidual (M, x, b) < EPS);
+
+      // change the structure; analysis should be redone
+      M.addBlock (0, size/3-1, new Matrix3x3Block());
+      M.addBlock (size/3-1, 0, new Matrix3x3Block());
+      solver.analyze (M, size, Matrix.SPD);
+      check ("analysis reused", perm != solver.getPermutation());
+   }
+
+   void testAutoFactorAndSolve() {
+      SparseBlockMatrix M = createGridMatrix (5, 4, 4);
+      int size = M.rowSize();
+      SupernodalLDLTSolver solver = new SupernodalLDLTSolver();
+      solver.analyze (M, size, Matrix.SPD);
+      solver.factor();
+      VectorNd b = new VectorNd (size);
+      VectorNd x = new VectorNd (size);
+      b.setRandom();
+
+      // a small change in values should be handled iteratively
+      M.scale (1.001);
+      solver.autoFactorAndSolve (x, b, 10);
+      check ("small change not solved iteratively",
+             solver.lastSolveWasIterative());
+      check ("residual after iterative solve",
+             relativeResidual (M, x, b) < 1e-9);
+
+      // a large change should cause a refactorization
+      M.scale (10.0);
+      solver.autoFactorAndSolve (x, b, 10);
+      check ("large change solved iteratively",
+             !solver.lastSolveWasIterative());
+      check ("residual after refactoring",
+             relativeResidual (M, x, b) < EPS);
+
+      // tolExp <= 0 should always refactor
+      M.scale (1.001);
+      solver.autoFactorAndSolve (x, b, 0);
+      check ("solve with tolExp=0 was iterative",
+             !solver.lastSolveWasIterative());
+      check ("residual with tolExp=0", relativeResidual (M, x, b) < EPS);
+   }
+
+   void testKKTSolver (int nx, int ny, int nz, int numc, boolean regularize) {
+      SparseBlockMatrix M = createGridMatrix (nx, ny, nz);
+      SparseBlockMatrix GT = createConstraints (M, numc);
+      int sizeM = M.rowSize();
+      VectorNd Rg = null;
+      if (regularize) {
+         Rg = new VectorNd (numc);
+         Rg.setRandom (1e-6, 1e-4);
+      }
+      KKTSolver solver = new KKTSolver (SparseSolverId.SupernodalLDLT);
+      solver.analyze (M, sizeM, GT, Rg, Matrix.SPD);
+      solver.factor (M, sizeM, GT, Rg);
+
+      VectorNd bm = new VectorNd (sizeM);
+      VectorNd bg = new VectorNd (numc);
+      VectorNd vel = new VectorNd (sizeM);
+      VectorNd lam = new VectorNd (numc);
+      bm.setRandom();
+      bg.setRandom();
+      solver.solve (vel, lam, bm, bg);
+
+      // check M vel - GT lam = bm, and G vel + Rg lam = bg
+      VectorNd resm = new VectorNd (sizeM);
+      VectorNd resg = new VectorNd (numc);
+      VectorNd tmp = new VectorNd (sizeM);
+      M.mul (resm, vel);
+      GT.mul (tmp, lam);
+      resm.sub (tmp);
+      resm.sub (bm);
+      GT.mulTranspose (resg, vel);
+      if (Rg != null) {
+         for (int j=0; j<numc; j++) {
+            resg.add (j, Rg.get(j)*lam.get(j));
+         }
+      }
+      resg.sub (bg);
+      double res = Math.max (resm.infinityNorm(), resg.infinityNorm());
+      if (res > 1e-8*Math.max (bm.infinityNorm(), bg.infinityNorm())) {
+         throw new TestException (
+            "KKT residual is " + res + " for " + nx + "x" + ny + "x" + nz +
+            " grid with " + numc + " constraints");
+      }
+      solver.dispose();
+   }
+
+   public void test() {
+      for (boolean parallel : new boolean[] { false, true }) {
+         testSolve (createGridMatrix (1, 1, 1), Matrix.SPD, parallel);
+         testSolve (createGridMatrix (5, 4, 3), Matrix.SPD, parallel);
+         testSolve (createGridMatrix (12, 10, 8), Matrix.SPD, parallel);
+         SparseBlockMatrix M = createGridMatrix (8, 6, 5);
+         SparseBlockMatrix GT = createConstraints (M, 40);
+         testSolve (createKKTMatrix (M, GT, null), Matrix.SYMMETRIC, parallel);
+         VectorNd Rg = new VectorNd (GT.colSize());
+         Rg.setRandom (1e-6, 1e-4);
+         testSolve (createKKTMatrix (M, GT, Rg), Matrix.SYMMETRIC, parallel);
+      }
+      testAnalysisReuse();
+      testAutoFactorAndSolve();
+      testKKTSolver (6, 5, 4, 30, false);
+      testKKTSolver (6, 5, 4, 30, true);
+      testKKTSolver (10, 10, 10, 200, false);
+
+      checkForIllegalArgumentException (
+         () -> new SupernodalLDLTSolver().analyze (
+            createGridMatrix (2, 2, 2), 24, Matrix.INDEFINITE));
+   }
+
+   public static void main (String[] args) {
+      SupernodalLDLTSolverTest tester = new SupernodalLDLTSolverTest();
+      RandomGenerator.setSeed (0x1234);
+      tester.runtest();
+   }
+}
@@ -284,7 +284,7 @@ public class ReaderTokenizer {
    private Reader myReader;
    private String myResourceName;
    private byte ctype[] = new byte[256];
-   private int myLineNum = 1;
+   int myLineNum = 1;
 
    private boolean myEolIsSignificantP = false;
    private boolean mySlashSlashCommentsP = false;
@@ -303,9 +303,9 @@ public class ReaderTokenizer {
 
    private static final byte C_MASK = C_NUMBER_START;
 
-   private boolean myTokenPushedBack = false;
-   private boolean myTokenIsInteger = false;
-   private boolean myTokenIsHex = false;
+   boolean myTokenPushedBack = false;
+   boolean myTokenIsInteger = false;
+   boolean myTokenIsHex = false;
 
    private String myLastCommentLine = null;
 
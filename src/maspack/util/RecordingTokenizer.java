@@ -0,0 +1,287 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.util;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+import static maspack.util.SnapshotTokenizer.*;
+
+/**
+ * A ReaderTokenizer which records every token that it parses into a binary
+ * snapshot file. The snapshot can later be read using a {@link
+ * SnapshotTokenizer}, which returns the same token sequence without having to
+ * parse the original text. Tokens which are pushed back and read again are
+ * recorded only once.
+ *
+ * <p>The snapshot is completed when the tokenizer is closed.
+ */
+public class RecordingTokenizer extends ReaderTokenizer {
+
+   private static final int MAX_RUN = 4096;
+
+   private FileOutputStream myOutput;
+   private FileChannel myChannel;
+   private ByteBuffer myBuf;
+   private int myLastLine = 1;
+
+   private HashMap<String,Integer> myStringMap = new HashMap<String,Integer>();
+   private ArrayList<String> myStrings = new ArrayList<String>();
+
+   // numeric run that is pending output
+   private byte myRunType = 0;
+   private int myRunCnt = 0;
+   private double[] myRunDoubles = new double[MAX_RUN];
+   private long[] myRunLongs = new long[MAX_RUN];
+
+   /**
+    * Creates a new RecordingTokenizer which parses tokens from a specified
+    * reader and records them into a snapshot file.
+    *
+    * @param reader reader supplying the text input
+    * @param snapshotFile file into which the tokens are recorded
+    * @throws IOException if the snapshot file cannot be created
+    */
+   public RecordingTokenizer (Reader reader, File snapshotFile)
+      throws IOException {
+      super (reader);
+      myOutput = new FileOutputStream (snapshotFile);
+      myChannel = myOutput.getChannel();
+      myBuf = ByteBuffer.allocate (1 << 16);
+      myBuf.order (ByteOrder.LITTLE_ENDIAN);
+      // placeholder header, written properly when the snapshot is closed
+      myBuf.position (HEADER_SIZE);
+   }
+
+   private void flushBuffer() throws IOException {
+      myBuf.flip();
+      while (myBuf.hasRemaining()) {
+         myChannel.write (myBuf);
+      }
+      myBuf.clear();
+   }
+
+   private void ensureSpace (int nbytes) throws IOException {
+      if (myBuf.remaining() < nbytes) {
+         flushBuffer();
+      }
+   }
+
+   private void writeVarInt (int value) throws IOException {
+      ensureSpace (5);
+      while ((value & ~0x7f) != 0) {
+         myBuf.put ((byte)((value & 0x7f) | 0x80));
+         value >>>= 7;
+      }
+      myBuf.put ((byte)value);
+   }
+
+   private void writeVarLong (long value) throws IOException {
+      ensureSpace (10);
+      // zig-zag encoding, so that small negative values stay short
+      value = (value << 1) ^ (value >> 63);
+      while ((value & ~0x7fL) != 0) {
+         myBuf.put ((byte)((value & 0x7f) | 0x80));
+         value >>>= 7;
+      }
+      myBuf.put ((byte)value);
+   }
+
+   private void writeRecord (byte rec) throws IOException {
+      ensureSpace (1);
+      myBuf.put (rec);
+   }
+
+   private void writeString (String str) throws IOException {
+      Integer idx = myStringMap.get (str);
+      if (idx == null) {
+         idx = myStrings.size();
+         myStringMap.put (str, idx);
+         myStrings.add (str);
+      }
+      writeVarInt (idx);
+   }
+
+   private void flushRun() throws IOException {
+      int cnt = myRunCnt;
+      if (myRunType == REC_DOUBLE_RUN) {
+         if (cnt == 1) {
+            writeRecord (REC_DOUBLE);
+         }
+         else {
+            writeRecord (REC_DOUBLE_RUN);
+            writeVarInt (cnt);
+         }
+         for (int i=0; i<cnt; i++) {
+            ensureSpace (8);
+            myBuf.putDouble (myRunDoubles[i]);
+         }
+      }
+      else if (myRunType == REC_INTEGER_RUN) {
+         if (cnt == 1) {
+            writeRecord (REC_INTEGER);
+         }
+         else {
+            writeRecord (REC_INTEGER_RUN);
+            writeVarInt (cnt);
+         }
+         for (int i=0; i<cnt; i++) {
+            writeVarLong (myRunLongs[i]);
+         }
+      }
+      myRunType = 0;
+      myRunCnt = 0;
+   }
+
+   private void addToRun() throws IOException {
+      if (myRunType == REC_DOUBLE_RUN) {
+         myRunDoubles[myRunCnt++] = nval;
+      }
+      else {
+         myRunLongs[myRunCnt++] = lval;
+      }
+      if (myRunCnt == MAX_RUN) {
+         flushRun();
+      }
+   }
+
+   private void recordToken() throws IOException {
+      if (myBuf == null) {
+         throw new IOException ("snapshot has already been closed");
+      }
+      int line = lineno();
+      boolean plainNumber =
+         (ttype == TT_NUMBER && sval == null && !myTokenIsHex);
+      if (plainNumber && line == myLastLine) {
+         // try to append the number to the current run
+         byte runType = (myTokenIsInteger ? REC_INTEGER_RUN : REC_DOUBLE_RUN);
+         if (myRunType != runType) {
+            flushRun();
+            myRunType = runType;
+         }
+         addToRun();
+         return;
+      }
+      flushRun();
+      if (line != myLastLine) {
+         writeRecord (REC_LINE);
+         writeVarLong (line-myLastLine);
+         myLastLine = line;
+      }
+      switch (ttype) {
+         case TT_EOF: {
+            // not recorded, since it is implied by the end of the records
+            break;
+         }
+         case TT_EOL: {
+            writeRecord (REC_EOL);
+            break;
+         }
+         case TT_WORD: {
+            writeRecord (REC_WORD);
+            writeString (sval);
+            break;
+         }
+         case TT_NUMBER: {
+            if (plainNumber) {
+               // first number of a run on a new line
+               myRunType = (myTokenIsInteger ? REC_INTEGER_RUN : REC_DOUBLE_RUN);
+               addToRun();
+               break;
+            }
+            if (sval != null) {
+               writeRecord (REC_EXTENSION);
+               writeString (sval);
+            }
+            if (myTokenIsInteger) {
+               writeRecord (myTokenIsHex ? REC_HEX : REC_INTEGER);
+               writeVarLong (lval);
+            }
+            else {
+               writeRecord (REC_DOUBLE);
+               ensureSpace (8);
+               myBuf.putDouble (nval);
+            }
+            break;
+         }
+         default: {
+            if (isQuoteChar (ttype)) {
+               writeRecord (REC_QUOTED);
+               writeVarInt (ttype);
+               writeString (sval);
+            }
+            else {
+               writeRecord (REC_CHAR);
+               writeVarInt (ttype);
+            }
+         }
+      }
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public int nextToken() throws IOException {
+      boolean pushedBack = myTokenPushedBack;
+      int type = super.nextToken();
+      if (!pushedBack) {
+         recordToken();
+      }
+      return type;
+   }
+
+   /**
+    * Completes the snapshot by writing its string table and header. This is
+    * called automatically by {@link #close}.
+    *
+    * @throws IOException if an I/O error occurred
+    */
+   public void finish() throws IOException {
+      if (myBuf == null) {
+         return;
+      }
+      flushRun();
+      flushBuffer();
+      long stringOff = myChannel.position();
+      for (String str : myStrings) {
+         writeVarInt (str.length());
+         for (int i=0; i<str.length(); i++) {
+            ensureSpace (2);
+            myBuf.putChar (str.charAt(i));
+         }
+      }
+      flushBuffer();
+      myBuf.put (MAGIC);
+      myBuf.putLong (stringOff);
+      myBuf.putInt (myStrings.size());
+      myBuf.flip();
+      myChannel.position (0);
+      while (myBuf.hasRemaining()) {
+         myChannel.write (myBuf);
+      }
+      myBuf = null;
+      myOutput.close();
+   }
+
+   /**
+    * Closes the underlying reader and completes the snapshot. Any error
+    * encountered while completing the snapshot is ignored, in which case the
+    * snapshot header is left invalid; applications which need to detect such
+    * errors should call {@link #finish} first.
+    */
+   public void close() {
+      super.close();
+      try {
+         finish();
+      }
+      catch (IOException e) {
+         // ignore
+      }
+   }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.util;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+
+/**
+ * A ReaderTokenizer that replays tokens from a binary snapshot file, instead
+ * of parsing them from text. Snapshot files are created by a {@link
+ * RecordingTokenizer}, which records the tokens returned while some
+ * application parses a text file. When the same application parses the
+ * snapshot using this tokenizer, it obtains the same sequence of tokens
+ * (including their values and line numbers) but without the cost of
+ * character-level parsing.
+ *
+ * <p>A snapshot consists of a header, a sequence of typed records describing
+ * the tokens, and a table containing all word and quoted string values,
+ * which the records refer to by index. Numeric values are stored in binary,
+ * and successive numbers on the same line are stored as runs, which allows
+ * large blocks of numeric data to be decoded directly from the file. The
+ * file is memory mapped.
+ *
+ * <p>Since the token sequence is fixed when the snapshot is recorded, changes
+ * to the character settings of this tokenizer have no effect, and the
+ * snapshot must be parsed by the same code which was used to record it.
+ */
+public class SnapshotTokenizer extends ReaderTokenizer {
+
+   static final byte[] MAGIC = new byte[] {
+      'R', 'T', 'O', 'K', 'S', 'N', 'P', '1' };
+
+   // header contains magic, string table offset and number of strings
+   static final int HEADER_SIZE = MAGIC.length + 8 + 4;
+
+   static final byte REC_WORD = 1;
+   static final byte REC_QUOTED = 2;
+   static final byte REC_CHAR = 3;
+   static final byte REC_EOL = 4;
+   static final byte REC_INTEGER = 5;
+   static final byte REC_HEX = 6;
+   static final byte REC_DOUBLE = 7;
+   static final byte REC_INTEGER_RUN = 8;
+   static final byte REC_DOUBLE_RUN = 9;
+   static final byte REC_LINE = 10;
+   static final byte REC_EXTENSION = 11;
+
+   private ByteBuffer myBuf;
+   private int myEnd;
+   private String[] myStrings;
+
+   private int myRunCnt = 0;
+   private byte myRunType;
+
+   /**
+    * Creates a new SnapshotTokenizer for a specified snapshot file.
+    *
+    * @param file snapshot file
+    * @throws IOException if the file cannot be read or is not a snapshot
+    */
+   public SnapshotTokenizer (File file) throws IOException {
+      super (null);
+      FileInputStream fis = new FileInputStream (file);
+      try {
+         FileChannel channel = fis.getChannel();
+         if (channel.size() > Integer.MAX_VALUE) {
+            throw new IOException (
+               "snapshot file "+file+" exceeds maximum size of 2GB");
+         }
+         myBuf = channel.map (
+            FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      finally {
+         fis.close();
+      }
+      myBuf.order (ByteOrder.LITTLE_ENDIAN);
+      if (myBuf.limit() < HEADER_SIZE || !hasMagic (myBuf)) {
+         throw new IOException ("file "+file+" is not a token snapshot");
+      }
+      long stringOff = myBuf.getLong (MAGIC.length);
+      int numStrings = myBuf.getInt (MAGIC.length+8);
+      if (stringOff < HEADER_SIZE || stringOff > myBuf.limit()) {
+         throw new IOException ("snapshot file "+file+" is corrupted");
+      }
+      myEnd = (int)stringOff;
+      myStrings = new String[numStrings];
+      myBuf.position (myEnd);
+      for (int i=0; i<numStrings; i++) {
+         int len = readVarInt();
+         char[] chars = new char[len];
+         for (int j=0; j<len; j++) {
+            chars[j] = myBuf.getChar();
+         }
+         myStrings[i] = new String (chars);
+      }
+      myBuf.position (HEADER_SIZE);
+      setResourceName (file.toString());
+   }
+
+   private static boolean hasMagic (ByteBuffer buf) {
+      for (int i=0; i<MAGIC.length; i++) {
+         if (buf.get(i) != MAGIC[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns <code>true</code> if a specified file is a token snapshot file,
+    * as determined by examining its header.
+    *
+    * @param file file to check
+    * @return <code>true</code> if <code>file</code> is a snapshot file
+    */
+   public static boolean isSnapshotFile (File file) {
+      if (!file.isFile() || file.length() < HEADER_SIZE) {
+         return false;
+      }
+      byte[] header = new byte[MAGIC.length];
+      try {
+         DataInputStream dis = new DataInputStream (new FileInputStream (file));
+         try {
+            dis.readFully (header);
+         }
+         finally {
+            dis.close();
+         }
+      }
+      catch (IOException e) {
+         return false;
+      }
+      return hasMagic (ByteBuffer.wrap (header));
+   }
+
+   private int readVarInt() {
+      int value = 0;
+      int shift = 0;
+      int b;
+      do {
+         b = myBuf.get();
+         value |= (b & 0x7f) << shift;
+         shift += 7;
+      }
+      while ((b & 0x80) != 0);
+      return value;
+   }
+
+   private long readVarLong() {
+      long value = 0;
+      int shift = 0;
+      int b;
+      do {
+         b = myBuf.get();
+         value |= (long)(b & 0x7f) << shift;
+         shift += 7;
+      }
+      while ((b & 0x80) != 0);
+      // undo zig-zag encoding
+      return (value >>> 1) ^ -(value & 1);
+   }
+
+   private String getString (int idx) throws IOException {
+      if (idx < 0 || idx >= myStrings.length) {
+         throw new IOException (
+            "snapshot string index "+idx+" out of range, line " + myLineNum);
+      }
+      return myStrings[idx];
+   }
+
+   private void setInteger (long l, boolean hex) {
+      lval = l;
+      nval = (double)l;
+      myTokenIsInteger = true;
+      myTokenIsHex = hex;
+   }
+
+   /**
+    * {@inheritDoc}
+    */
+   public int nextToken() throws IOException {
+      if (myTokenPushedBack) {
+         myTokenPushedBack = false;
+         return ttype;
+      }
+      myTokenIsInteger = false;
+      myTokenIsHex = false;
+      if (myBuf == null) {
+         return ttype = TT_EOF;
+      }
+      if (myRunCnt > 0) {
+         myRunCnt--;
+         sval = null;
+         if (myRunType == REC_DOUBLE_RUN) {
+            nval = myBuf.getDouble();
+         }
+         else {
+            setInteger (readVarLong(), false);
+         }
+         return ttype = TT_NUMBER;
+      }
+      String extension = null;
+      while (myBuf.position() < myEnd) {
+         byte rec = myBuf.get();
+         switch (rec) {
+            case REC_LINE: {
+               myLineNum += (int)readVarLong();
+               break;
+            }
+            case REC_EXTENSION: {
+               extension = getString (readVarInt());
+               break;
+            }
+            case REC_WORD: {
+               sval = getString (readVarInt());
+               return ttype = TT_WORD;
+            }
+            case REC_QUOTED: {
+               int quotec = readVarInt();
+               sval = getString (readVarInt());
+               return ttype = quotec;
+            }
+            case REC_CHAR: {
+               return ttype = readVarInt();
+            }
+            case REC_EOL: {
+               return ttype = TT_EOL;
+            }
+            case REC_INTEGER:
+            case REC_HEX: {
+               setInteger (readVarLong(), rec == REC_HEX);
+               sval = extension;
+               return ttype = TT_NUMBER;
+            }
+            case REC_DOUBLE: {
+               nval = myBuf.getDouble();
+               sval = extension;
+               return ttype = TT_NUMBER;
+            }
+            case REC_INTEGER_RUN:
+            case REC_DOUBLE_RUN: {
+               myRunType = rec;
+               myRunCnt = readVarInt();
+               return nextToken();
+            }
+            default: {
+               throw new IOException (
+                  "unknown snapshot record type "+rec+", line " + myLineNum);
+            }
+         }
+      }
+      return ttype = TT_EOF;
+   }
+
+   /**
+    * Releases the snapshot file associated with this tokenizer.
+    */
+   public void close() {
+      myBuf = null;
+      myStrings = null;
+      myRunCnt = 0;
+   }
+}
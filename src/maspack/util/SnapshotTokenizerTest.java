@@ -0,0 +1,328 @@
+/**
+ * Copyright (c) 2014, by the Authors: John E Lloyd (UBC)
+ *
+ * This software is freely available under a 2-clause BSD license. Please see
+ * the LICENSE file in the ArtiSynth distribution directory for details.
+ */
+package maspack.util;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Tests RecordingTokenizer and SnapshotTokenizer, by checking that a snapshot
+ * replays exactly the tokens that were parsed from the original text, even
+ * when the parsing code changes the tokenizer settings and pushes tokens
+ * back.
+ */
+public class SnapshotTokenizerTest extends UnitTest {
+
+   String randomToken () {
+      switch (RandomGenerator.nextInt (0, 14)) {
+         case 0: return "word"+RandomGenerator.nextInt (0, 100);
+         case 1: return Integer.toString (RandomGenerator.nextInt (-1000, 1000));
+         case 2: return Double.toString (RandomGenerator.nextDouble (-10, 10));
+         case 3: return String.format (
+            "%.4e", RandomGenerator.nextDouble (-1e10, 1e10));
+         case 4: return "0x"+Integer.toHexString (RandomGenerator.nextInt (0, 9999));
+         case 5: return "\"quoted \\\"string\\\"\\n"+
+            RandomGenerator.nextInt (0, 10)+"\"";
+         case 6: return "'single'";
+         case 7: return "[";
+         case 8: return "]";
+         case 9: return "models/fem/nodes/"+RandomGenerator.nextInt (0, 10);
+         case 10: return "a-b:c";
+         case 11: return "-Inf";
+         case 12: return "12.5ms";
+         case 13: return "# comment\n";
+         default: return "9223372036854775807";
+      }
+   }
+
+   String createText (int ntoks) {
+      StringBuilder sb = new StringBuilder();
+      for (int i=0; i<ntoks; i++) {
+         sb.append (randomToken());
+         int k = RandomGenerator.nextInt (0, 9);
+         if (k == 0) {
+            sb.append ("\n");
+         }
+         else if (k == 1) {
+            sb.append ("\n\n  ");
+         }
+         else if (k < 8) {
+            sb.append (" ");
+         }
+         // otherwise, no separator
+      }
+      sb.append ("\n");
+      return sb.toString();
+   }
+
+   String tokenState (ReaderTokenizer rtok) {
+      StringBuilder sb = new StringBuilder();
+      sb.append (rtok.ttype);
+      sb.append (" line="+rtok.lineno());
+      sb.append (" sval="+rtok.sval);
+      if (rtok.ttype == ReaderTokenizer.TT_NUMBER) {
+         sb.append (" nval="+Double.doubleToLongBits (rtok.nval));
+         sb.append (" int="+rtok.tokenIsInteger());
+         sb.append (" hex="+rtok.tokenIsHexInteger());
+         if (rtok.tokenIsInteger()) {
+            sb.append (" lval="+rtok.lval);
+         }
+      }
+      sb.append (" name="+rtok.tokenName());
+      return sb.toString();
+   }
+
+   /**
+    * Parses tokens while randomly changing the tokenizer settings and
+    * pushing tokens back, and returns a description of all the tokens
+    * seen. The random choices are determined by <code>seed</code>.
+    */
+   ArrayList<String> parse (ReaderTokenizer rtok, long seed)
+      throws IOException {
+      Random random = new Random (seed);
+      ArrayList<String> tokens = new ArrayList<String>();
+      while (rtok.nextToken() != ReaderTokenizer.TT_EOF) {
+         tokens.add (tokenState (rtok));
+         switch (random.nextInt (8)) {
+            case 0: {
+               rtok.pushBack();
+               break;
+            }
+            case 1: {
+               rtok.eolIsSignificant (!rtok.getEolIsSignificant());
+               break;
+            }
+            case 2: {
+               rtok.parseNumbers (!rtok.getParseNumbers());
+               break;
+            }
+            case 3: {
+               rtok.wordChars (":-");
+               break;
+            }
+            case 4: {
+               rtok.ordinaryChars (":-/");
+               break;
+            }
+            case 5: {
+               rtok.numericExtensionChars ("ms");
+               break;
+            }
+            default: {
+               break;
+            }
+         }
+      }
+      tokens.add (tokenState (rtok));
+      return tokens;
+   }
+
+   void testText (String text, long seed) throws IOException {
+      ReaderTokenizer rtok = new ReaderTokenizer (new StringReader (text));
+      rtok.wordChars ("./$");
+      ArrayList<String> check = parse (rtok, seed);
+
+      File file = File.createTempFile ("snapshotTest", ".snp");
+      file.deleteOnExit();
+      RecordingTokenizer rec =
+         new RecordingTokenizer (new StringReader (text), file);
+      rec.wordChars ("./$");
+      ArrayList<String> recorded = parse (rec, seed);
+      rec.finish();
+      rec.close();
+      checkEquals ("recorded tokens", recorded, check);
+
+      if (!SnapshotTokenizer.isSnapshotFile (file)) {
+         throw new TestException ("snapshot file not recognized");
+      }
+      SnapshotTokenizer stok = new SnapshotTokenizer (file);
+      // settings should have no effect on the snapshot
+      ArrayList<String> replayed = parse (stok, seed);
+      stok.close();
+      checkEquals ("replayed tokens", replayed, check);
+      file.delete();
+   }
+
+   public void test() throws IOException {
+      testText ("", 1);
+      testText ("single", 2);
+      testText ("1 2 3 4.5 6.5 7.5\n8 9 0x10 [ a b ]\n", 3);
+      for (int i=0; i<50; i++) {
+         testText (createText (500), i);
+      }
+      // large numeric blocks, which create long runs
+      StringBuilder sb = new StringBuilder();
+      for (int i=0; i<10000; i++) {
+         sb.append (RandomGenerator.nextDouble()+" ");
+      }
+      sb.append ("\n");
+      for (int i=0; i<10000; i++) {
+         sb.append (RandomGenerator.nextInt (-100000, 100000)+" ");
+      }
+      testText (sb.toString(), 100);
+
+      File file = File.createTempFile ("snapshotTest", ".txt");
+      file.deleteOnExit();
+      FileWriter writer = new FileWriter (file);
+      writer.write ("not a snapshot");
+      writer.close();
+      if (SnapshotTokenizer.isSnapshotFile (file)) {
+         throw new TestException ("text file recognized as snapshot");
+      }
+      file.delete();
+   }
+
+   /**
+    * Writes a file resembling the node and element lists of a large FEM
+    * model, with <code>nnodes</code> nodes and approximately 5 tetrahedral
+    * elements per node.
+    */
+   void writeFemText (File file, int nnodes) throws IOException {
+      PrintWriter pw = new PrintWriter (
+         new BufferedWriter (new FileWriter (file)));
+      NumberFormat fmt = new NumberFormat ("%g");
+      pw.println ("nodes=[");
+      for (int i=0; i<nnodes; i++) {
+         pw.println ("  FemNode3d");
+         pw.println ("  [ position=[ "+
+                     fmt.format (RandomGenerator.nextDouble())+" "+
+                     fmt.format (RandomGenerator.nextDouble())+" "+
+                     fmt.format (RandomGenerator.nextDouble())+" ]");
+         pw.println ("    velocity=[ 0 0 0 ]");
+         pw.println ("    rest=[ "+
+                     fmt.format (RandomGenerator.nextDouble())+" "+
+                     fmt.format (RandomGenerator.nextDouble())+" "+
+                     fmt.format (RandomGenerator.nextDouble())+" ]");
+         pw.println ("    mass="+fmt.format (RandomGenerator.nextDouble()));
+         pw.println ("    dynamic=true");
+         pw.println ("  ]");
+      }
+      pw.println ("]");
+      pw.println ("elements=[");
+      for (int i=0; i<5*nnodes; i++) {
+         pw.println ("  TetElement");
+         pw.println ("  [ nodes=[ "+
+                     RandomGenerator.nextInt (0, nnodes)+" "+
+                     RandomGenerator.nextInt (0, nnodes)+" "+
+                     RandomGenerator.nextInt (0, nnodes)+" "+
+                     RandomGenerator.nextInt (0, nnodes)+" ]");
+         pw.println ("    material=null");
+         pw.println ("  ]");
+      }
+      pw.println ("]");
+      pw.close();
+   }
+
+   /**
+    * Scans a list written by writeFemText(), in the same way that component
+    * scan methods do, and returns a sum of all the numeric values so that
+    * the different tokenizers can be checked against each other.
+    */
+   double scanFemList (ReaderTokenizer rtok, String name) throws IOException {
+      double sum = 0;
+      rtok.scanWord (name);
+      rtok.scanToken ('=');
+      rtok.scanToken ('[');
+      while (rtok.nextToken() != ']') {
+         // class name, followed by the items enclosed in brackets
+         rtok.scanToken ('[');
+         while (rtok.nextToken() != ']') {
+            if (rtok.ttype != ReaderTokenizer.TT_WORD) {
+               throw new IOException ("expected attribute name, got "+rtok);
+            }
+            rtok.scanToken ('=');
+            rtok.nextToken();
+            if (rtok.ttype == '[') {
+               // numbers are read one at a time, as in Vector3d.scan()
+               while (rtok.nextToken() != ']') {
+                  sum += rtok.nval;
+               }
+            }
+            else if (rtok.ttype == ReaderTokenizer.TT_NUMBER) {
+               sum += rtok.nval;
+            }
+         }
+      }
+      return sum;
+   }
+
+   double scanFemText (ReaderTokenizer rtok) throws IOException {
+      double sum = scanFemList (rtok, "nodes");
+      sum += scanFemList (rtok, "elements");
+      rtok.close();
+      return sum;
+   }
+
+   public void timing() throws IOException {
+      int nnodes = 200000;
+      File textFile = File.createTempFile ("snapshotTiming", ".txt");
+      File snapFile = File.createTempFile ("snapshotTiming", ".snp");
+      textFile.deleteOnExit();
+      snapFile.deleteOnExit();
+      writeFemText (textFile, nnodes);
+
+      FunctionTimer timer = new FunctionTimer();
+      timer.start();
+      RecordingTokenizer rec = new RecordingTokenizer (
+         new BufferedReader (new FileReader (textFile)), snapFile);
+      double check = scanFemText (rec);
+      rec.finish();
+      timer.stop();
+      System.out.println (
+         nnodes+" nodes, "+(5*nnodes)+" elements: text "+
+         textFile.length()/1000000+" MB, snapshot "+
+         snapFile.length()/1000000+" MB");
+      System.out.println ("recording: " + timer.resultMsec(1));
+
+      for (int k=0; k<3; k++) {
+         timer.start();
+         ReaderTokenizer rtok = new ReaderTokenizer (
+            new BufferedReader (new FileReader (textFile)));
+         double sum = scanFemText (rtok);
+         timer.stop();
+         System.out.println ("text:      " + timer.resultMsec(1));
+         checkEquals ("text sum", sum, check);
+
+         timer.start();
+         SnapshotTokenizer stok = new SnapshotTokenizer (snapFile);
+         sum = scanFemText (stok);
+         timer.stop();
+         System.out.println ("snapshot:  " + timer.resultMsec(1));
+         checkEquals ("snapshot sum", sum, check);
+      }
+      textFile.delete();
+      snapFile.delete();
+   }
+
+   public static void main (String[] args) {
+      boolean doTiming = false;
+
+      RandomGenerator.setSeed (0x1234);
+      for (int i = 0; i < args.length; i++) {
+         if (args[i].equals ("-timing")) {
+            doTiming = true;
+         }
+         else {
+            System.err.println ("Usage: java SnapshotTokenizerTest [-timing]");
+            System.exit (1);
+         }
+      }
+      SnapshotTokenizerTest tester = new SnapshotTokenizerTest();
+      if (doTiming) {
+         try {
+            tester.timing();
+         }
+         catch (Exception e) {
+            e.printStackTrace();
+            System.exit (1);
+         }
+      }
+      else {
+         tester.runtest();
+      }
+   }
+}